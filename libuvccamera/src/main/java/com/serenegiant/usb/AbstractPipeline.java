@@ -0,0 +1,102 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+package com.serenegiant.usb;
+
+/**
+ * base class of IPipeline implementations that hold native pipeline object
+ * The concrete class should implement native methods for its native pipeline class.
+ */
+public abstract class AbstractPipeline implements IPipeline {
+	private static boolean isLoaded;
+	static {
+		if (!isLoaded) {
+			System.loadLibrary("jpeg-turbo1500");
+			System.loadLibrary("usb100");
+			System.loadLibrary("uvc");
+			System.loadLibrary("UVCCamera");
+			isLoaded = true;
+		}
+	}
+
+	// these fields are accessed from native code, do not change name and remove
+	protected long mNativePtr;
+	protected final int mType;
+
+	protected AbstractPipeline(final int type) {
+		mType = type;
+	}
+
+	@Override
+	protected void finalize() throws Throwable {
+		try {
+			release();
+		} finally {
+			super.finalize();
+		}
+	}
+
+	@Override
+	public int getType() {
+		return mType;
+	}
+
+	@Override
+	public synchronized int getState() {
+		return mNativePtr != 0 ? nativeGetState(mNativePtr) : STATE_UNINITIALIZED;
+	}
+
+	@Override
+	public synchronized void setPipeline(final IPipeline pipeline) {
+		if (mNativePtr != 0) {
+			nativeSetPipeline(mNativePtr, pipeline);
+		}
+	}
+
+	@Override
+	public synchronized void start() {
+		if (mNativePtr != 0) {
+			nativeStart(mNativePtr);
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (mNativePtr != 0) {
+			nativeStop(mNativePtr);
+		}
+	}
+
+	@Override
+	public synchronized void release() {
+		if (mNativePtr != 0) {
+			nativeDestroy(mNativePtr);
+			mNativePtr = 0;
+		}
+	}
+
+	protected abstract void nativeDestroy(final long id_pipeline);
+	protected abstract int nativeGetState(final long id_pipeline);
+	protected abstract int nativeSetPipeline(final long id_pipeline, final IPipeline pipeline);
+	protected abstract int nativeStart(final long id_pipeline);
+	protected abstract int nativeStop(final long id_pipeline);
+}
@@ -0,0 +1,238 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+
+package com.serenegiant.usb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbInterface;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+/**
+ * compiled set of DeviceFilter
+ * include/exclude rules are indexed by (vendor id, product id) and by (class, subclass, protocol)
+ * with wildcard buckets, so only a few candidate filters are evaluated for each device
+ * instead of evaluating all filters linearly.
+ * like USBMonitor#getDeviceList(List), the first filter in the original list order that matches
+ * with the device decides whether the device is included or excluded.
+ * verdicts are cached by (vendor id, product id) of the device
+ */
+public final class DeviceFilterIndex {
+
+	private static final int NO_MATCH = -1;
+	private static final int[] EMPTY = new int[0];
+
+	private final DeviceFilter[] mFilters;
+	/** key=(vendor id << 16) | product id, both are specified */
+	private final SparseArray<int[]> mByVidPid = new SparseArray<int[]>();
+	/** key=vendor id, product id is wildcard */
+	private final SparseArray<int[]> mByVid = new SparseArray<int[]>();
+	/** key=product id, vendor id is wildcard */
+	private final SparseArray<int[]> mByPid = new SparseArray<int[]>();
+	/** key=#classKey, both vendor id and product id are wildcard */
+	private final SparseArray<int[]> mByClass = new SparseArray<int[]>();
+	/** key=(vendor id << 16) | product id of the device, value=index of the first matched filter or NO_MATCH */
+	private final SparseIntArray mVerdicts = new SparseIntArray();
+
+	/**
+	 * compile DeviceFilters from xml resource
+	 * @param context
+	 * @param deviceFilterXmlId
+	 * @return
+	 */
+	public static DeviceFilterIndex compile(final Context context, final int deviceFilterXmlId) {
+		return new DeviceFilterIndex(DeviceFilter.getDeviceFilters(context, deviceFilterXmlId));
+	}
+
+	/**
+	 * constructor
+	 * @param filters null entries are ignored
+	 */
+	public DeviceFilterIndex(final List<DeviceFilter> filters) {
+		final int n = filters != null ? filters.size() : 0;
+		mFilters = new DeviceFilter[n];
+		final SparseArray<List<Integer>> byVidPid = new SparseArray<List<Integer>>();
+		final SparseArray<List<Integer>> byVid = new SparseArray<List<Integer>>();
+		final SparseArray<List<Integer>> byPid = new SparseArray<List<Integer>>();
+		final SparseArray<List<Integer>> byClass = new SparseArray<List<Integer>>();
+		for (int i = 0; i < n; i++) {
+			final DeviceFilter filter = filters.get(i);
+			mFilters[i] = filter;
+			if (filter == null) continue;
+			if ((filter.mVendorId != -1) && (filter.mProductId != -1)) {
+				add(byVidPid, idKey(filter.mVendorId, filter.mProductId), i);
+			} else if (filter.mVendorId != -1) {
+				add(byVid, filter.mVendorId, i);
+			} else if (filter.mProductId != -1) {
+				add(byPid, filter.mProductId, i);
+			} else {
+				add(byClass, classKey(filter.mClass, filter.mSubclass, filter.mProtocol), i);
+			}
+		}
+		toIndex(byVidPid, mByVidPid);
+		toIndex(byVid, mByVid);
+		toIndex(byPid, mByPid);
+		toIndex(byClass, mByClass);
+	}
+
+	/**
+	 * return number of filters
+	 * @return
+	 */
+	public int size() {
+		return mFilters.length;
+	}
+
+	public boolean isEmpty() {
+		return mFilters.length == 0;
+	}
+
+	/**
+	 * return whether the device should be included
+	 * @param device
+	 * @return true if the device matches with non-exclude filter or this index has no filter
+	 */
+	public boolean matches(final UsbDevice device) {
+		if (isEmpty()) return true;
+		final DeviceFilter filter = findFilter(device);
+		return (filter != null) && !filter.isExclude;
+	}
+
+	/**
+	 * return the first filter(in the original list order) that matches with the device
+	 * @param device
+	 * @return null if no filter matches
+	 */
+	public DeviceFilter findFilter(final UsbDevice device) {
+		if ((device == null) || isEmpty()) return null;
+		// devices that have same vendor id and product id have same class/subclass/protocol,
+		// so (vendor id, product id) is enough as a key of verdict and it needs no string building
+		final int key = idKey(device.getVendorId(), device.getProductId());
+		int ix;
+		synchronized (mVerdicts) {
+			ix = mVerdicts.get(key, Integer.MIN_VALUE);
+		}
+		if (ix == Integer.MIN_VALUE) {
+			ix = lookup(device);
+			synchronized (mVerdicts) {
+				mVerdicts.put(key, ix);
+			}
+		}
+		return ix != NO_MATCH ? mFilters[ix] : null;
+	}
+
+	/**
+	 * clear cached verdicts
+	 */
+	public void clearCache() {
+		synchronized (mVerdicts) {
+			mVerdicts.clear();
+		}
+	}
+
+	private int lookup(final UsbDevice device) {
+		final int vid = device.getVendorId();
+		final int pid = device.getProductId();
+		int best = Integer.MAX_VALUE;
+		best = first(mByVidPid.get(idKey(vid, pid), EMPTY), device, best);
+		best = first(mByVid.get(vid, EMPTY), device, best);
+		best = first(mByPid.get(pid, EMPTY), device, best);
+		if (mByClass.size() > 0) {
+			best = firstByClass(device.getDeviceClass(), device.getDeviceSubclass(), device.getDeviceProtocol(), device, best);
+			final int count = device.getInterfaceCount();
+			for (int i = 0; i < count; i++) {
+				final UsbInterface intf = device.getInterface(i);
+				best = firstByClass(intf.getInterfaceClass(), intf.getInterfaceSubclass(), intf.getInterfaceProtocol(), device, best);
+			}
+		}
+		return best != Integer.MAX_VALUE ? best : NO_MATCH;
+	}
+
+	/**
+	 * search class buckets including wildcard buckets
+	 */
+	private int firstByClass(final int clasz, final int subclass, final int protocol, final UsbDevice device, int best) {
+		for (int i = 0; i < 8; i++) {
+			final int[] candidates = mByClass.get(classKey(
+				(i & 1) != 0 ? -1 : clasz,
+				(i & 2) != 0 ? -1 : subclass,
+				(i & 4) != 0 ? -1 : protocol));
+			if (candidates != null) {
+				best = first(candidates, device, best);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * candidates are sorted by the original order,
+	 * so the first matched one is the best in the bucket
+	 */
+	private int first(final int[] candidates, final UsbDevice device, final int best) {
+		for (final int ix: candidates) {
+			if (ix >= best) break;
+			if (mFilters[ix].matches(device)) {
+				return ix;
+			}
+		}
+		return best;
+	}
+
+	private static int idKey(final int vid, final int pid) {
+		return ((vid & 0xffff) << 16) | (pid & 0xffff);
+	}
+
+	/**
+	 * each value is stored as value + 1 in 9 bits, so 0 means wildcard
+	 */
+	private static int classKey(final int clasz, final int subclass, final int protocol) {
+		return (((clasz + 1) & 0x1ff) << 18) | (((subclass + 1) & 0x1ff) << 9) | ((protocol + 1) & 0x1ff);
+	}
+
+	private static void add(final SparseArray<List<Integer>> map, final int key, final int ix) {
+		List<Integer> list = map.get(key);
+		if (list == null) {
+			list = new ArrayList<Integer>();
+			map.put(key, list);
+		}
+		list.add(ix);
+	}
+
+	private static void toIndex(final SparseArray<List<Integer>> src, final SparseArray<int[]> dst) {
+		final int n = src.size();
+		for (int i = 0; i < n; i++) {
+			final List<Integer> list = src.valueAt(i);
+			final int m = list.size();
+			final int[] indices = new int[m];
+			for (int j = 0; j < m; j++) {
+				indices[j] = list.get(j);
+			}
+			dst.put(src.keyAt(i), indices);
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+package com.serenegiant.usb;
+
+/**
+ * pipeline that passes each frame to all of the added pipelines
+ * Each added pipeline copies the frame into its own buffer, so a slow consumer never blocks others.
+ */
+public class DistributePipeline extends AbstractPipeline {
+
+	public DistributePipeline() {
+		super(PIPELINE_TYPE_DISTRIBUTE);
+		nativeCreate();
+	}
+
+	/**
+	 * add pipeline that receives frames
+	 * @param pipeline
+	 */
+	public synchronized void addPipeline(final IPipeline pipeline) {
+		if (pipeline == null)
+			throw new IllegalArgumentException("pipeline should not be null");
+		if (mNativePtr != 0) {
+			nativeAddPipeline(mNativePtr, pipeline);
+		}
+	}
+
+	public synchronized void removePipeline(final IPipeline pipeline) {
+		if ((mNativePtr != 0) && (pipeline != null)) {
+			nativeRemovePipeline(mNativePtr, pipeline);
+		}
+	}
+
+	private final native long nativeCreate();
+	@Override
+	protected final native void nativeDestroy(final long id_pipeline);
+	@Override
+	protected final native int nativeGetState(final long id_pipeline);
+	@Override
+	protected final native int nativeSetPipeline(final long id_pipeline, final IPipeline pipeline);
+	@Override
+	protected final native int nativeStart(final long id_pipeline);
+	@Override
+	protected final native int nativeStop(final long id_pipeline);
+	private static final native int nativeAddPipeline(final long id_pipeline, final IPipeline pipeline);
+	private static final native int nativeRemovePipeline(final long id_pipeline, final IPipeline pipeline);
+}
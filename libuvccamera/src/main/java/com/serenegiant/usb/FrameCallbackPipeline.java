@@ -0,0 +1,61 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+package com.serenegiant.usb;
+
+/**
+ * pipeline that passes frames to IFrameCallback on its own thread
+ */
+public class FrameCallbackPipeline extends AbstractPipeline {
+
+	public FrameCallbackPipeline() {
+		super(PIPELINE_TYPE_CALLBACK);
+		nativeCreate();
+	}
+
+	/**
+	 * set frame callback
+	 * @param callback null to remove current callback
+	 * @param pixelFormat one of UVCCamera.PIXEL_FORMAT_XXX,
+	 * use UVCCamera.PIXEL_FORMAT_RAW if the frames are already converted by ConvertPipeline
+	 */
+	public synchronized void setFrameCallback(final IFrameCallback callback, final int pixelFormat) {
+		if ((pixelFormat < UVCCamera.PIXEL_FORMAT_RAW) || (pixelFormat > UVCCamera.PIXEL_FORMAT_NV21))
+			throw new IllegalArgumentException("invalid pixel format");
+		if (mNativePtr != 0) {
+			nativeSetFrameCallback(mNativePtr, callback, pixelFormat);
+		}
+	}
+
+	private final native long nativeCreate();
+	@Override
+	protected final native void nativeDestroy(final long id_pipeline);
+	@Override
+	protected final native int nativeGetState(final long id_pipeline);
+	@Override
+	protected final native int nativeSetPipeline(final long id_pipeline, final IPipeline pipeline);
+	@Override
+	protected final native int nativeStart(final long id_pipeline);
+	@Override
+	protected final native int nativeStop(final long id_pipeline);
+	private static final native int nativeSetFrameCallback(final long id_pipeline, final IFrameCallback callback, final int pixelFormat);
+}
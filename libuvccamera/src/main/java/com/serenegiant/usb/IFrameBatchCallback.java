@@ -0,0 +1,65 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+/**
+ * Callback interface for UVCCamera class to receive frames through a ring of reusable direct ByteBuffers.
+ * Unlike IFrameCallback, no Java object is allocated for each frame
+ * and multiple frames are delivered at once when this callback falls behind.
+ * You can use this callback interface with UVCCamera#setFrameBatchCallback
+ */
+public interface IFrameBatchCallback {
+	// indices of the metadata of each frame
+	/** frame sequence number */
+	public static final int META_SEQUENCE = 0;
+	/** time when the frame was received in microseconds, this has same time base as System.nanoTime() / 1000 */
+	public static final int META_PTS = 1;
+	/** pixel format that is passed to UVCCamera#setFrameBatchCallback, UVCCamera.PIXEL_FORMAT_XXX */
+	public static final int META_FORMAT = 2;
+	/** number of valid bytes in the frame buffer */
+	public static final int META_SIZE = 3;
+	public static final int META_WIDTH = 4;
+	public static final int META_HEIGHT = 5;
+	/** presentation time stamp in the UVC payload header(device clock), zero if the camera does not provide */
+	public static final int META_DEVICE_PTS = 6;
+	/** source time clock in the UVC payload header(device clock), zero if the camera does not provide */
+	public static final int META_DEVICE_SCR = 7;
+	/** number of metadata values of each frame */
+	public static final int META_NUM = 8;
+
+	/**
+	 * This method is called from native library via JNI on the same thread as UVCCamera#startCapture.
+	 * The i-th frame(0 <= i < count) is in frames[(first + i) % frames.length]
+	 * and its metadata are in metadata.get(((first + i) % frames.length) * META_NUM + META_XXX).
+	 * frames and metadata are always same instances and their contents are only valid while this method is executing.
+	 * The position and the limit of ByteBuffers are not changed by the native library, use META_SIZE instead.
+	 * @param frames ring of direct ByteBuffers
+	 * @param metadata direct LongBuffer that has META_NUM values for each buffer in frames
+	 * @param first index of the first frame in frames
+	 * @param count number of frames, [1, frames.length]
+	 */
+	public void onFrames(ByteBuffer[] frames, LongBuffer metadata, int first, int count);
+}
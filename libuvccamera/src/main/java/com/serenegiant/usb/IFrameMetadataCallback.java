@@ -0,0 +1,43 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+import java.nio.ByteBuffer;
+/**
+ * Callback interface for UVCCamera class that receives the metadata of each frame with its data.
+ * If you set this with UVCCamera#setFrameCallback, #onFrame(ByteBuffer, long, long, long, long)
+ * is called instead of IFrameCallback#onFrame(ByteBuffer).
+ */
+public interface IFrameMetadataCallback extends IFrameCallback {
+	/**
+	 * This method is called from native library via JNI on the same thread as UVCCamera#startCapture.
+	 * @param frame this is direct ByteBuffer from JNI layer and you should handle it's byte order and limitation.
+	 * @param sequence frame sequence number, this increases even if frames are dropped
+	 * @param presentationTimeUs time when the frame was received in microseconds,
+	 * this has same time base as System.nanoTime() / 1000
+	 * @param devicePts presentation time stamp in the UVC payload header(device clock), zero if the camera does not provide
+	 * @param deviceScr source time clock in the UVC payload header(device clock), zero if the camera does not provide
+	 */
+	public void onFrame(ByteBuffer frame, long sequence, long presentationTimeUs, long devicePts, long deviceScr);
+}
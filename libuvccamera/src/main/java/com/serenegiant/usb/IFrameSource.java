@@ -0,0 +1,44 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+/**
+ * source of frames that drives IPipeline and IFrameCallback
+ * UVCCamera and ReplayCamera implement this, so the consumers can not tell live frames from replayed ones.
+ */
+public interface IFrameSource {
+	/**
+	 * set the pipeline that receives all frames from this source
+	 * @param pipeline null to detach current pipeline
+	 */
+	public void setPipeline(final IPipeline pipeline);
+	/**
+	 * @param callback null to remove current callback
+	 * @param pixelFormat one of UVCCamera.PIXEL_FORMAT_XXX
+	 */
+	public void setFrameCallback(final IFrameCallback callback, final int pixelFormat);
+	public void startPreview();
+	public void stopPreview();
+	public void destroy();
+}
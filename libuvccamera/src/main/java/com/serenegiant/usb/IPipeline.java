@@ -0,0 +1,69 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+package com.serenegiant.usb;
+
+/**
+ * Java side interface of native frame processing stage(IPipeline)
+ * Each buffered stage has its own frame buffers and handler thread,
+ * so consumers chained with pipelines never block the capture thread of UVCCamera.
+ * @see UVCPipeline
+ */
+public interface IPipeline {
+	// these values should be same as pipeline_type_t in IPipeline.h
+	public static final int PIPELINE_TYPE_SIMPLE_BUFFERED = 0;
+	public static final int PIPELINE_TYPE_JOURNAL_BUFFERED = 10;
+	public static final int PIPELINE_TYPE_CALLBACK = 200;
+	public static final int PIPELINE_TYPE_CONVERT = 300;
+	public static final int PIPELINE_TYPE_PREVIEW = 400;
+	public static final int PIPELINE_TYPE_PUBLISHER = 500;
+	public static final int PIPELINE_TYPE_DISTRIBUTE = 600;
+	public static final int PIPELINE_TYPE_REPLAY = 700;
+
+	// these values should be same as pipeline_state_t in IPipeline.h
+	public static final int STATE_UNINITIALIZED = 0;
+	public static final int STATE_RELEASING = 10;
+	public static final int STATE_INITIALIZED = 20;
+	public static final int STATE_STARTING = 30;
+	public static final int STATE_RUNNING = 40;
+	public static final int STATE_STOPPING = 50;
+
+	/**
+	 * @return one of PIPELINE_TYPE_XXX
+	 */
+	public int getType();
+	/**
+	 * @return one of STATE_XXX
+	 */
+	public int getState();
+	/**
+	 * set the next pipeline that receives the frames from this pipeline
+	 * @param pipeline null to disconnect
+	 */
+	public void setPipeline(final IPipeline pipeline);
+	public void start();
+	public void stop();
+	/**
+	 * release native resources, you can not use this instance any more after calling this
+	 */
+	public void release();
+}
@@ -0,0 +1,127 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+/**
+ * pipeline that buffers frames on storage and passes them to next pipeline in the order of arrival
+ * Frames are appended to fixed size segment files in the directory and read sequentially,
+ * so frames are kept while next pipeline is slow until they are dropped by the retention.
+ * Old frames are dropped by deleting whole segment files.
+ */
+public class JournalBufferedPipeline extends AbstractPipeline {
+	// these values should be same as FrameJournal.h
+	public static final int DEFAULT_SEGMENT_BYTES = 32 * 1024 * 1024;
+	public static final int MIN_SEGMENT_BYTES = 1024 * 1024;
+	public static final long DEFAULT_RETENTION_US = 30000000L;
+	public static final int STATS_SEGMENTS = 0;
+	public static final int STATS_FRAMES = 1;
+	public static final int STATS_BYTES = 2;
+	public static final int STATS_FIRST_US = 3;
+	public static final int STATS_LAST_US = 4;
+	public static final int STATS_APPENDED = 5;
+	public static final int STATS_DROPPED = 6;
+	public static final int STATS_UNREAD = 7;
+	public static final int STATS_NUM = 8;
+
+	/**
+	 * @param dir directory for segment files, e.g. a directory under Context#getCacheDir
+	 * @param clear true if you want to delete frames that remain in the directory
+	 */
+	public JournalBufferedPipeline(final String dir, final boolean clear) {
+		super(PIPELINE_TYPE_JOURNAL_BUFFERED);
+		if (dir == null)
+			throw new IllegalArgumentException("dir should not be null");
+		nativeCreate(dir, clear);
+	}
+
+	/**
+	 * @param segmentBytes size of each segment file, this is applied to the next segment
+	 * @param retentionUs frames older than the newest frame by this are dropped, 0 keeps all frames
+	 * @param maxSegments maximum number of segment files, 0 means unlimited
+	 */
+	public synchronized void setConfig(final int segmentBytes, final long retentionUs, final int maxSegments) {
+		if (segmentBytes < MIN_SEGMENT_BYTES)
+			throw new IllegalArgumentException("segmentBytes should be equal to or larger than " + MIN_SEGMENT_BYTES);
+		if ((retentionUs < 0) || (maxSegments < 0))
+			throw new IllegalArgumentException("retentionUs and maxSegments should not be negative");
+		if (mNativePtr != 0) {
+			nativeSetConfig(mNativePtr, segmentBytes, retentionUs, maxSegments);
+		}
+	}
+
+	/**
+	 * move the read position to the first frame captured at or after the time
+	 * @param timeUs capture time [us]
+	 * @return true if the frame exists
+	 */
+	public synchronized boolean seek(final long timeUs) {
+		return (mNativePtr != 0) && (nativeSeek(mNativePtr, timeUs) == 0);
+	}
+
+	/**
+	 * move the read position to the oldest frame
+	 */
+	public synchronized void rewind() {
+		if (mNativePtr != 0) {
+			nativeRewind(mNativePtr);
+		}
+	}
+
+	/**
+	 * delete all frames
+	 */
+	public synchronized void clear() {
+		if (mNativePtr != 0) {
+			nativeClear(mNativePtr);
+		}
+	}
+
+	/**
+	 * @return array of STATS_NUM values, use STATS_XXX as index
+	 */
+	public synchronized long[] getStats() {
+		final long[] stats = new long[STATS_NUM];
+		if (mNativePtr != 0) {
+			nativeGetStats(mNativePtr, stats);
+		}
+		return stats;
+	}
+
+	private final native long nativeCreate(final String dir, final boolean clear);
+	@Override
+	protected final native void nativeDestroy(final long id_pipeline);
+	@Override
+	protected final native int nativeGetState(final long id_pipeline);
+	@Override
+	protected final native int nativeSetPipeline(final long id_pipeline, final IPipeline pipeline);
+	@Override
+	protected final native int nativeStart(final long id_pipeline);
+	@Override
+	protected final native int nativeStop(final long id_pipeline);
+	private static final native int nativeSetConfig(final long id_pipeline, final int segmentBytes, final long retentionUs, final int maxSegments);
+	private static final native int nativeSeek(final long id_pipeline, final long timeUs);
+	private static final native int nativeRewind(final long id_pipeline);
+	private static final native int nativeClear(final long id_pipeline);
+	private static final native int nativeGetStats(final long id_pipeline, final long[] stats);
+}
@@ -0,0 +1,130 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+/**
+ * pipeline that streams frames to subscribers over TCP or Unix domain socket
+ * Each subscriber receives frames only as many as the credits it sent,
+ * frames that come while the subscriber has no credits are queued up to its queue depth
+ * and then dropped according to its policy, so a slow subscriber never blocks others.
+ * see FrameStreamServer.h for the wire format.
+ * The app needs android.permission.INTERNET to use tcp:// address.
+ * Each subscriber can request raw frames or jpeg frames,
+ * YUYV frames are compressed only while any subscriber requests jpeg
+ * and MJPEG frames are sent as jpeg frames without re-encoding.
+ */
+public class PublisherPipeline extends AbstractPipeline {
+	// these values should be same as FrameStreamServer.h
+	public static final int MAX_SUBSCRIBERS = 8;
+	public static final int POLICY_DROP_NEWEST = 0;
+	public static final int POLICY_DROP_OLDEST = 1;
+	public static final int FORMAT_RAW = 0;
+	public static final int FORMAT_JPEG = 1;
+	public static final int DEFAULT_JPEG_QUALITY = 80;
+	public static final int STATS_SENT = 0;
+	public static final int STATS_DROPPED = 1;
+	public static final int STATS_QUEUED = 2;
+	public static final int STATS_CREDITS = 3;
+	public static final int STATS_LAG = 4;
+	public static final int STATS_BYTES = 5;
+	public static final int STATS_NUM = 6;
+	// these values should be same as PublisherPipeline.h
+	public static final int ENCODE_STATS_ENCODED = 0;
+	public static final int ENCODE_STATS_PASSTHROUGH = 1;
+	public static final int ENCODE_STATS_FAILED = 2;
+	public static final int ENCODE_STATS_IN_BYTES = 3;
+	public static final int ENCODE_STATS_OUT_BYTES = 4;
+	public static final int ENCODE_STATS_TIME_US = 5;
+	public static final int ENCODE_STATS_NUM = 6;
+
+	/**
+	 * @param addr tcp://host:port(host can be *), unix://path or unix://@name for abstract namespace
+	 * @param subscriptionId sent to each subscriber when it connects
+	 */
+	public PublisherPipeline(final String addr, final String subscriptionId) {
+		super(PIPELINE_TYPE_PUBLISHER);
+		if (addr == null)
+			throw new IllegalArgumentException("addr should not be null");
+		nativeCreate(addr, subscriptionId != null ? subscriptionId : "");
+	}
+
+	/**
+	 * set encode configuration
+	 * @param format FORMAT_RAW or FORMAT_JPEG, format for subscribers that do not request the format.
+	 * 				this does not affect subscribers that are already connected.
+	 * @param quality jpeg quality to compress YUYV frames [1, 100]
+	 */
+	public synchronized void setEncodeConfig(final int format, final int quality) {
+		if ((format != FORMAT_RAW) && (format != FORMAT_JPEG))
+			throw new IllegalArgumentException("unknown format:" + format);
+		if ((quality < 1) || (quality > 100))
+			throw new IllegalArgumentException("quality should be in [1, 100]:" + quality);
+		if (mNativePtr != 0) {
+			nativeSetEncodeConfig(mNativePtr, format, quality);
+		}
+	}
+
+	/**
+	 * get statistics of the encoder, all values are accumulated since this pipeline was created
+	 * @return array of ENCODE_STATS_NUM counters, use ENCODE_STATS_XXX as index
+	 */
+	public synchronized long[] getEncodeStats() {
+		final long[] stats = new long[ENCODE_STATS_NUM];
+		if (mNativePtr != 0) {
+			nativeGetEncodeStats(mNativePtr, stats);
+		}
+		return stats;
+	}
+
+	/**
+	 * get statistics of connected subscribers
+	 * STATS_SENT and STATS_BYTES are accumulated values,
+	 * take difference of two calls to get frame rate and bandwidth of each subscriber.
+	 * @return array of STATS_NUM counters for each subscriber, use STATS_XXX as index of inner array
+	 */
+	public synchronized long[][] getSubscriberStats() {
+		final long[] stats = new long[MAX_SUBSCRIBERS * STATS_NUM];
+		final int n = mNativePtr != 0 ? nativeGetSubscriberStats(mNativePtr, stats) : 0;
+		final long[][] result = new long[n > 0 ? n : 0][STATS_NUM];
+		for (int i = 0; i < result.length; i++) {
+			System.arraycopy(stats, i * STATS_NUM, result[i], 0, STATS_NUM);
+		}
+		return result;
+	}
+
+	private final native long nativeCreate(final String addr, final String subscriptionId);
+	@Override
+	protected final native void nativeDestroy(final long id_pipeline);
+	@Override
+	protected final native int nativeGetState(final long id_pipeline);
+	@Override
+	protected final native int nativeSetPipeline(final long id_pipeline, final IPipeline pipeline);
+	@Override
+	protected final native int nativeStart(final long id_pipeline);
+	@Override
+	protected final native int nativeStop(final long id_pipeline);
+	private static final native int nativeGetSubscriberStats(final long id_pipeline, final long[] stats);
+	private static final native int nativeSetEncodeConfig(final long id_pipeline, final int format, final int quality);
+	private static final native int nativeGetEncodeStats(final long id_pipeline, final long[] stats);
+}
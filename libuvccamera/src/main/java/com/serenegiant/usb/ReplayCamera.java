@@ -0,0 +1,148 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+/**
+ * fake camera that replays recorded frames through the same pipelines as UVCCamera
+ * This needs no USB device, so the pipelines and IFrameCallback can be exercised
+ * and benchmarked with the recorded frames.
+ * <pre>
+ * final ReplayCamera camera = new ReplayCamera(dir, ReplayPipeline.SOURCE_JOURNAL);
+ * camera.setConfig(false, true, 0, 640, 480);
+ * pipeline.attach(camera);
+ * pipeline.start();
+ * camera.startPreview();
+ * </pre>
+ */
+public class ReplayCamera implements IFrameSource {
+	private final ReplayPipeline mReplay;
+	private final DistributePipeline mDistribute;
+	private FrameCallbackPipeline mCallback;
+	private IPipeline mPipeline;
+	private boolean mIsPreviewing;
+
+	/**
+	 * @param path directory of the source
+	 * @param sourceType ReplayPipeline.SOURCE_JOURNAL or ReplayPipeline.SOURCE_FILES
+	 */
+	public ReplayCamera(final String path, final int sourceType) {
+		mReplay = new ReplayPipeline(path, sourceType);
+		mDistribute = new DistributePipeline();
+		mReplay.setPipeline(mDistribute);
+	}
+
+	/**
+	 * @see ReplayPipeline#setConfig(boolean, boolean, int, int, int)
+	 * @return false if preview is running
+	 */
+	public synchronized boolean setConfig(final boolean realtime, final boolean loop, final int fps,
+		final int rawWidth, final int rawHeight) {
+
+		return mReplay.setConfig(realtime, loop, fps, rawWidth, rawHeight);
+	}
+
+	/**
+	 * @return array of ReplayPipeline.STATS_NUM values, use ReplayPipeline.STATS_XXX as index
+	 */
+	public synchronized long[] getStats() {
+		return mReplay.getStats();
+	}
+
+	/**
+	 * set the pipeline that receives all replayed frames
+	 * the pipeline is not owned by this instance, detach it(set null) before releasing the pipeline
+	 * @param pipeline null to detach current pipeline
+	 */
+	@Override
+	public synchronized void setPipeline(final IPipeline pipeline) {
+		if (mPipeline != null) {
+			mDistribute.removePipeline(mPipeline);
+		}
+		mPipeline = pipeline;
+		if (mPipeline != null) {
+			mDistribute.addPipeline(mPipeline);
+		}
+	}
+
+	/**
+	 * set frame callback, the callback is removed on #stopPreview like UVCCamera
+	 * @param callback null to remove current callback
+	 * @param pixelFormat one of UVCCamera.PIXEL_FORMAT_XXX
+	 */
+	@Override
+	public synchronized void setFrameCallback(final IFrameCallback callback, final int pixelFormat) {
+		if (callback != null) {
+			if (mCallback == null) {
+				mCallback = new FrameCallbackPipeline();
+				mCallback.setFrameCallback(callback, pixelFormat);
+				mDistribute.addPipeline(mCallback);
+				if (mIsPreviewing) {
+					mCallback.start();
+				}
+			} else {
+				mCallback.setFrameCallback(callback, pixelFormat);
+			}
+		} else if (mCallback != null) {
+			mDistribute.removePipeline(mCallback);
+			mCallback.release();
+			mCallback = null;
+		}
+	}
+
+	/**
+	 * start replaying frames
+	 */
+	@Override
+	public synchronized void startPreview() {
+		if (!mIsPreviewing) {
+			mIsPreviewing = true;
+			if (mCallback != null) {
+				mCallback.start();
+			}
+			mDistribute.start();
+			mReplay.start();
+		}
+	}
+
+	/**
+	 * stop replaying frames, next #startPreview replays from the first frame
+	 */
+	@Override
+	public synchronized void stopPreview() {
+		setFrameCallback(null, 0);
+		if (mIsPreviewing) {
+			mIsPreviewing = false;
+			mReplay.stop();
+			mDistribute.stop();
+		}
+	}
+
+	@Override
+	public synchronized void destroy() {
+		stopPreview();
+		setPipeline(null);
+		mReplay.release();
+		mDistribute.release();
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb;
+
+/**
+ * pipeline that reads recorded frames and passes them to next pipeline instead of UVCCamera
+ * The source is a directory written by JournalBufferedPipeline,
+ * or a directory of MJPEG(*.mjpg, *.mjpeg, *.jpg, *.jpeg) and YUYV(*.yuyv, *.yuv) files sorted by name.
+ * Frames are re-stamped with the time when they are passed to next pipeline like live frames.
+ * @see ReplayCamera
+ */
+public class ReplayPipeline extends AbstractPipeline {
+	// these values should be same as ReplayPipeline.h
+	public static final int SOURCE_JOURNAL = 0;
+	public static final int SOURCE_FILES = 1;
+	public static final int DEFAULT_FPS = 30;
+	public static final int STATS_FRAMES = 0;
+	public static final int STATS_DROPPED = 1;
+	public static final int STATS_SKIPPED = 2;
+	public static final int STATS_LOOPS = 3;
+	public static final int STATS_FINISHED = 4;
+	public static final int STATS_NUM = 5;
+
+	/**
+	 * @param path directory of the source
+	 * @param sourceType SOURCE_JOURNAL or SOURCE_FILES
+	 */
+	public ReplayPipeline(final String path, final int sourceType) {
+		super(PIPELINE_TYPE_REPLAY);
+		if (path == null)
+			throw new IllegalArgumentException("path should not be null");
+		if ((sourceType != SOURCE_JOURNAL) && (sourceType != SOURCE_FILES))
+			throw new IllegalArgumentException("invalid source type");
+		nativeCreate(path, sourceType);
+	}
+
+	/**
+	 * this can not be changed while the pipeline is running
+	 * @param realtime true: pass frames at the recorded intervals and drop them while next pipeline is busy,
+	 * false: pass frames as fast as next pipeline accepts them without dropping
+	 * @param loop return to the first frame at the end of the source
+	 * @param fps frame rate of SOURCE_FILES on realtime playback, 0 means as fast as possible
+	 * @param rawWidth width of YUYV files
+	 * @param rawHeight height of YUYV files
+	 * @return false if the pipeline is running
+	 */
+	public synchronized boolean setConfig(final boolean realtime, final boolean loop, final int fps,
+		final int rawWidth, final int rawHeight) {
+
+		if (fps < 0)
+			throw new IllegalArgumentException("fps should not be negative");
+		if ((rawWidth <= 0) || (rawHeight <= 0))
+			throw new IllegalArgumentException("invalid frame size");
+		return (mNativePtr != 0) && (nativeSetConfig(mNativePtr, realtime, loop, fps, rawWidth, rawHeight) == 0);
+	}
+
+	/**
+	 * @return array of STATS_NUM values, use STATS_XXX as index
+	 */
+	public synchronized long[] getStats() {
+		final long[] stats = new long[STATS_NUM];
+		if (mNativePtr != 0) {
+			nativeGetStats(mNativePtr, stats);
+		}
+		return stats;
+	}
+
+	private final native long nativeCreate(final String path, final int sourceType);
+	@Override
+	protected final native void nativeDestroy(final long id_pipeline);
+	@Override
+	protected final native int nativeGetState(final long id_pipeline);
+	@Override
+	protected final native int nativeSetPipeline(final long id_pipeline, final IPipeline pipeline);
+	@Override
+	protected final native int nativeStart(final long id_pipeline);
+	@Override
+	protected final native int nativeStop(final long id_pipeline);
+	private static final native int nativeSetConfig(final long id_pipeline, final boolean realtime, final boolean loop, final int fps, final int rawWidth, final int rawHeight);
+	private static final native int nativeGetStats(final long id_pipeline, final long[] stats);
+}
@@ -0,0 +1,83 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+
+package com.serenegiant.usb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.util.Log;
+
+/**
+ * parser of the binary capability descriptor that came from UVCCamera#getSupportedFormats.
+ * This is separated from UVCCamera so that it can be used without loading the native libraries.
+ */
+final class SupportedFormats {
+	private static final String TAG = SupportedFormats.class.getSimpleName();
+
+	private SupportedFormats() {
+	}
+
+	/**
+	 * @param type format type, -1 means all formats
+	 * @param formats binary capability descriptor, see UVCCamera#getSupportedFormats
+	 * @return sizes that were parsed before the descriptor ended if it is broken
+	 */
+	static List<Size> getSupportedSize(final int type, final int[] formats) {
+		final List<Size> result = new ArrayList<Size>();
+		if ((formats == null) || (formats.length < 2) || (formats[0] != UVCCamera.SUPPORTED_FORMATS_VERSION)) {
+			return result;
+		}
+		try {
+			final int format_nums = formats[1];
+			int pos = 2;
+			for (int i = 0; i < format_nums; i++) {
+				final int format_type = formats[pos];
+				final int frame_nums = formats[pos + 3];
+				pos += 4;
+				for (int j = 0; j < frame_nums; j++) {
+					final int width = formats[pos + 1];
+					final int height = formats[pos + 2];
+					final int interval_type = formats[pos + 4];
+					final int interval_nums = formats[pos + 5];
+					pos += 6;
+					if ((format_type == type) || (type == -1)) {
+						if ((interval_type == 0) && (interval_nums == 3)) {
+							result.add(new Size(format_type, 0, j, width, height,
+								formats[pos], formats[pos + 1], formats[pos + 2]));
+						} else {
+							final int[] intervals = new int[interval_nums];
+							System.arraycopy(formats, pos, intervals, 0, interval_nums);
+							result.add(new Size(format_type, 0, j, width, height, intervals));
+						}
+					}
+					pos += interval_nums;
+				}
+			}
+		} catch (final ArrayIndexOutOfBoundsException e) {
+			Log.w(TAG, "broken capability descriptor", e);
+		}
+		return result;
+	}
+}
@@ -44,6 +44,7 @@ import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbInterface;
 import android.hardware.usb.UsbManager;
 import android.os.Handler;
+import android.support.v4.util.LongSparseArray;
 import android.text.TextUtils;
 import android.util.Log;
 import android.util.SparseArray;
@@ -61,17 +62,44 @@ public final class USBMonitor {
 
 	public static final String ACTION_USB_DEVICE_ATTACHED = "android.hardware.usb.action.USB_DEVICE_ATTACHED";
 
+	/**
+	 * default interval of fallback polling of connected devices,
+	 * attach/detach are detected by broadcasts and polling is only for devices that never send them
+	 */
+	public static final long DEFAULT_POLLING_INTERVAL_MS = 10000;
+	/**
+	 * max number of UsbDeviceInfo in cache
+	 */
+	private static final int DEVICE_INFO_CACHE_SIZE = 16;
+
 	/**
 	 * openしているUsbControlBlock
 	 */
 	private final ConcurrentHashMap<UsbDevice, UsbControlBlock> mCtrlBlocks = new ConcurrentHashMap<UsbDevice, UsbControlBlock>();
+	/**
+	 * key is #getDeviceKey64 folded into int
+	 */
 	private final SparseArray<WeakReference<UsbDevice>> mHasPermissions = new SparseArray<WeakReference<UsbDevice>>();
+	/**
+	 * LRU cache of UsbDeviceInfo, key is #getDeviceKey64
+	 */
+	private final DeviceInfoCache mDeviceInfoCache = new DeviceInfoCache(DEVICE_INFO_CACHE_SIZE);
+	/**
+	 * snapshot of attached devices that match with device filters, key is #getSnapshotKey
+	 * this is only modified on mAsyncHandler
+	 */
+	private final LongSparseArray<UsbDevice> mAttachedDevices = new LongSparseArray<UsbDevice>();
+	private volatile long mPollingIntervalMs = DEFAULT_POLLING_INTERVAL_MS;
 
 	private final WeakReference<Context> mWeakContext;
 	private final UsbManager mUsbManager;
 	private final OnDeviceConnectListener mOnDeviceConnectListener;
 	private PendingIntent mPermissionIntent = null;
-	private List<DeviceFilter> mDeviceFilters = new ArrayList<DeviceFilter>();
+	private final List<DeviceFilter> mDeviceFilters = new ArrayList<DeviceFilter>();
+	/**
+	 * compiled index of mDeviceFilters, rebuilt lazily after mDeviceFilters changed
+	 */
+	private DeviceFilterIndex mDeviceFilterIndex;
 
 	/**
 	 * コールバックをワーカースレッドで呼び出すためのハンドラー
@@ -169,13 +197,13 @@ public final class USBMonitor {
 			if (context != null) {
 				mPermissionIntent = PendingIntent.getBroadcast(context, 0, new Intent(ACTION_USB_PERMISSION), 0);
 				final IntentFilter filter = new IntentFilter(ACTION_USB_PERMISSION);
-				// ACTION_USB_DEVICE_ATTACHED never comes on some devices so it should not be added here
+				// ACTION_USB_DEVICE_ATTACHED never comes on some devices, low-frequency polling is kept as fallback for them
+				filter.addAction(UsbManager.ACTION_USB_DEVICE_ATTACHED);
 				filter.addAction(UsbManager.ACTION_USB_DEVICE_DETACHED);
 				context.registerReceiver(mUsbReceiver, filter);
 			}
-			// start connection check
-			mDeviceCounts = 0;
-			mAsyncHandler.postDelayed(mDeviceCheckRunnable, 1000);
+			// take initial snapshot of connected devices and start fallback polling
+			mAsyncHandler.post(mDeviceCheckRunnable);
 		}
 	}
 
@@ -185,10 +213,12 @@ public final class USBMonitor {
 	 */
 	public synchronized void unregister() throws IllegalStateException {
 		// 接続チェック用Runnableを削除
-		mDeviceCounts = 0;
 		if (!destroyed) {
 			mAsyncHandler.removeCallbacks(mDeviceCheckRunnable);
 		}
+		synchronized (mAttachedDevices) {
+			mAttachedDevices.clear();
+		}
 		if (mPermissionIntent != null) {
 //			if (DEBUG) Log.i(TAG, "unregister:");
 			final Context context = mWeakContext.get();
@@ -207,6 +237,24 @@ public final class USBMonitor {
 		return !destroyed && (mPermissionIntent != null);
 	}
 
+	/**
+	 * set interval of fallback polling of connected devices
+	 * @param intervalMs zero or negative value disables polling and only broadcasts are used
+	 */
+	public synchronized void setPollingInterval(final long intervalMs) {
+		mPollingIntervalMs = intervalMs;
+		if (!destroyed && (mPermissionIntent != null)) {
+			mAsyncHandler.removeCallbacks(mDeviceCheckRunnable);
+			if (intervalMs > 0) {
+				mAsyncHandler.postDelayed(mDeviceCheckRunnable, intervalMs);
+			}
+		}
+	}
+
+	public long getPollingInterval() {
+		return mPollingIntervalMs;
+	}
+
 	/**
 	 * set device filter
 	 * @param filter
@@ -214,8 +262,11 @@ public final class USBMonitor {
 	 */
 	public void setDeviceFilter(final DeviceFilter filter) throws IllegalStateException {
 		if (destroyed) throw new IllegalStateException("already destroyed");
-		mDeviceFilters.clear();
-		mDeviceFilters.add(filter);
+		synchronized (mDeviceFilters) {
+			mDeviceFilters.clear();
+			mDeviceFilters.add(filter);
+			mDeviceFilterIndex = null;
+		}
 	}
 
 	/**
@@ -225,7 +276,10 @@ public final class USBMonitor {
 	 */
 	public void addDeviceFilter(final DeviceFilter filter) throws IllegalStateException {
 		if (destroyed) throw new IllegalStateException("already destroyed");
-		mDeviceFilters.add(filter);
+		synchronized (mDeviceFilters) {
+			mDeviceFilters.add(filter);
+			mDeviceFilterIndex = null;
+		}
 	}
 
 	/**
@@ -235,7 +289,10 @@ public final class USBMonitor {
 	 */
 	public void removeDeviceFilter(final DeviceFilter filter) throws IllegalStateException {
 		if (destroyed) throw new IllegalStateException("already destroyed");
-		mDeviceFilters.remove(filter);
+		synchronized (mDeviceFilters) {
+			mDeviceFilters.remove(filter);
+			mDeviceFilterIndex = null;
+		}
 	}
 
 	/**
@@ -245,8 +302,11 @@ public final class USBMonitor {
 	 */
 	public void setDeviceFilter(final List<DeviceFilter> filters) throws IllegalStateException {
 		if (destroyed) throw new IllegalStateException("already destroyed");
-		mDeviceFilters.clear();
-		mDeviceFilters.addAll(filters);
+		synchronized (mDeviceFilters) {
+			mDeviceFilters.clear();
+			mDeviceFilters.addAll(filters);
+			mDeviceFilterIndex = null;
+		}
 	}
 
 	/**
@@ -256,7 +316,10 @@ public final class USBMonitor {
 	 */
 	public void addDeviceFilter(final List<DeviceFilter> filters) throws IllegalStateException {
 		if (destroyed) throw new IllegalStateException("already destroyed");
-		mDeviceFilters.addAll(filters);
+		synchronized (mDeviceFilters) {
+			mDeviceFilters.addAll(filters);
+			mDeviceFilterIndex = null;
+		}
 	}
 
 	/**
@@ -265,7 +328,10 @@ public final class USBMonitor {
 	 */
 	public void removeDeviceFilter(final List<DeviceFilter> filters) throws IllegalStateException {
 		if (destroyed) throw new IllegalStateException("already destroyed");
-		mDeviceFilters.removeAll(filters);
+		synchronized (mDeviceFilters) {
+			mDeviceFilters.removeAll(filters);
+			mDeviceFilterIndex = null;
+		}
 	}
 
 	/**
@@ -285,11 +351,49 @@ public final class USBMonitor {
 	 */
 	public List<UsbDevice> getDeviceList() throws IllegalStateException {
 		if (destroyed) throw new IllegalStateException("already destroyed");
-		return getDeviceList(mDeviceFilters);
+		return getDeviceList(getDeviceFilterIndex());
+	}
+
+	/**
+	 * return compiled index of current device filters
+	 * @return
+	 */
+	public DeviceFilterIndex getDeviceFilterIndex() {
+		synchronized (mDeviceFilters) {
+			if (mDeviceFilterIndex == null) {
+				mDeviceFilterIndex = new DeviceFilterIndex(mDeviceFilters);
+			}
+			return mDeviceFilterIndex;
+		}
 	}
 
 	/**
 	 * return device list, return empty list if no device matched
+	 * @param index compiled device filters, null or empty index means all devices
+	 * @return
+	 * @throws IllegalStateException
+	 */
+	public List<UsbDevice> getDeviceList(final DeviceFilterIndex index) throws IllegalStateException {
+		if (destroyed) throw new IllegalStateException("already destroyed");
+		final HashMap<String, UsbDevice> deviceList = mUsbManager.getDeviceList();
+		final List<UsbDevice> result = new ArrayList<UsbDevice>();
+		if (deviceList != null) {
+			if ((index == null) || index.isEmpty()) {
+				result.addAll(deviceList.values());
+			} else {
+				for (final UsbDevice device: deviceList.values() ) {
+					if (index.matches(device)) {
+						result.add(device);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * return device list, return empty list if no device matched
+	 * filters are evaluated linearly, use #getDeviceList(DeviceFilterIndex) for large filter set
 	 * @param filters
 	 * @return
 	 * @throws IllegalStateException
@@ -303,14 +407,8 @@ public final class USBMonitor {
 				result.addAll(deviceList.values());
 			} else {
 				for (final UsbDevice device: deviceList.values() ) {
-					for (final DeviceFilter filter: filters) {
-						if ((filter != null) && filter.matches(device)) {
-							// when filter matches
-							if (!filter.isExclude) {
-								result.add(device);
-							}
-							break;
-						}
+					if (matches(filters, device)) {
+						result.add(device);
 					}
 				}
 			}
@@ -318,6 +416,24 @@ public final class USBMonitor {
 		return result;
 	}
 
+	/**
+	 * evaluate filters linearly, the first filter that matches with the device decides
+	 * whether the device is included or excluded.
+	 * DeviceFilterIndex must give the same result
+	 * @param filters
+	 * @param device
+	 * @return
+	 */
+	/*package*/ static boolean matches(final List<DeviceFilter> filters, final UsbDevice device) {
+		for (final DeviceFilter filter: filters) {
+			if ((filter != null) && filter.matches(device)) {
+				// when filter matches
+				return !filter.isExclude;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * return device list, return empty list if no device matched
 	 * @param filter
@@ -396,7 +512,7 @@ public final class USBMonitor {
 	 * @return hasPermission
 	 */
 	private boolean updatePermission(final UsbDevice device, final boolean hasPermission) {
-		final int deviceKey = getDeviceKey(device, true);
+		final int deviceKey = foldDeviceKey(getDeviceKey64(device));
 		synchronized (mHasPermissions) {
 			if (hasPermission) {
 				if (mHasPermissions.get(deviceKey) == null) {
@@ -514,9 +630,8 @@ public final class USBMonitor {
 					}
 				}
 			} else if (UsbManager.ACTION_USB_DEVICE_ATTACHED.equals(action)) {
-				final UsbDevice device = intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
-				updatePermission(device, hasPermission(device));
-				processAttach(device);
+				// onAttach is called from the diff only when the device matches with device filters
+				mAsyncHandler.post(mDeviceDiffRunnable);
 			} else if (UsbManager.ACTION_USB_DEVICE_DETACHED.equals(action)) {
 				// when device removed
 				final UsbDevice device = intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
@@ -526,51 +641,126 @@ public final class USBMonitor {
 						// cleanup
 						ctrlBlock.close();
 					}
-					mDeviceCounts = 0;
-					processDettach(device);
+					mAsyncHandler.post(new Runnable() {
+						@Override
+						public void run() {
+							removeAttachedDevice(device);
+							updateAttachedDevices();
+						}
+					});
 				}
 			}
 		}
 	};
 
-	/** number of connected & detected devices */
-	private volatile int mDeviceCounts = 0;
 	/**
-	 * periodically check connected devices and if it changed, call onAttach
+	 * fallback polling of connected devices, this re-schedules itself with mPollingIntervalMs
 	 */
 	private final Runnable mDeviceCheckRunnable = new Runnable() {
 		@Override
 		public void run() {
 			if (destroyed) return;
-			final List<UsbDevice> devices = getDeviceList();
-			final int n = devices.size();
-			final int hasPermissionCounts;
-			final int m;
-			synchronized (mHasPermissions) {
-				hasPermissionCounts = mHasPermissions.size();
-				mHasPermissions.clear();
-				for (final UsbDevice device: devices) {
-					hasPermission(device);
+			updateAttachedDevices();
+			final long interval = mPollingIntervalMs;
+			if (interval > 0) {
+				mAsyncHandler.postDelayed(this, interval);
+			}
+		}
+	};
+
+	/**
+	 * one-shot diff of connected devices triggered by broadcast
+	 */
+	private final Runnable mDeviceDiffRunnable = new Runnable() {
+		@Override
+		public void run() {
+			if (destroyed) return;
+			updateAttachedDevices();
+		}
+	};
+
+	/**
+	 * key of device snapshot, this is the 64-bit device key without serial number.
+	 * same model devices without serial number are distinguished by the bus/device number in it.
+	 * serial number is not used because it can not be read before getting permission
+	 * and the key should not change when permission is granted.
+	 * the key is not folded into int because different devices must never share the key
+	 * @param device
+	 * @return
+	 */
+	private static long getSnapshotKey(final UsbDevice device) {
+		return getDeviceKey64(device);
+	}
+
+	/**
+	 * compare connected devices with the snapshot and call onAttach/onDettach only for the delta,
+	 * onAttach is also called for the device that got permission after attached.
+	 * this should be called on mAsyncHandler
+	 */
+	private void updateAttachedDevices() {
+		final List<UsbDevice> devices = getDeviceList();
+		final LongSparseArray<UsbDevice> current = new LongSparseArray<UsbDevice>(devices.size());
+		for (final UsbDevice device: devices) {
+			current.put(getSnapshotKey(device), device);
+		}
+		final List<UsbDevice> attached = new ArrayList<UsbDevice>();
+		final List<UsbDevice> detached = new ArrayList<UsbDevice>();
+		synchronized (mAttachedDevices) {
+			for (int i = mAttachedDevices.size() - 1; i >= 0; i--) {
+				if (current.get(mAttachedDevices.keyAt(i)) == null) {
+					detached.add(mAttachedDevices.valueAt(i));
+					mAttachedDevices.removeAt(i);
 				}
-				m = mHasPermissions.size();
 			}
-			if ((n > mDeviceCounts) || (m > hasPermissionCounts)) {
-				mDeviceCounts = n;
-				if (mOnDeviceConnectListener != null) {
-					for (int i = 0; i < n; i++) {
-						final UsbDevice device = devices.get(i);
-						mAsyncHandler.post(new Runnable() {
-							@Override
-							public void run() {
-								mOnDeviceConnectListener.onAttach(device);
-							}
-						});
-					}
+			final int n = current.size();
+			for (int i = 0; i < n; i++) {
+				final long key = current.keyAt(i);
+				final UsbDevice device = current.valueAt(i);
+				if (mAttachedDevices.get(key) == null) {
+					mAttachedDevices.put(key, device);
+					attached.add(device);
+				} else if (!isPermissionCached(device) && mUsbManager.hasPermission(device)) {
+					// permission was granted outside of USBMonitor
+					attached.add(device);
 				}
 			}
-			mAsyncHandler.postDelayed(this, 2000);	// confirm every 2 seconds
 		}
-	};
+		for (final UsbDevice device: detached) {
+			updatePermission(device, false);
+			mDeviceInfoCache.remove(getDeviceKey64(device));
+			processDettach(device);
+		}
+		for (final UsbDevice device: attached) {
+			hasPermission(device);
+			processAttach(device);
+		}
+	}
+
+	/**
+	 * remove the device from the snapshot and call onDettach if it was in the snapshot
+	 * this should be called on mAsyncHandler
+	 * @param device
+	 */
+	private void removeAttachedDevice(final UsbDevice device) {
+		final long key = getSnapshotKey(device);
+		final boolean removed;
+		synchronized (mAttachedDevices) {
+			removed = mAttachedDevices.get(key) != null;
+			mAttachedDevices.remove(key);
+		}
+		mDeviceInfoCache.remove(getDeviceKey64(device));
+		if (removed) {
+			updatePermission(device, false);
+			processDettach(device);
+		}
+	}
+
+	private boolean isPermissionCached(final UsbDevice device) {
+		final int deviceKey = foldDeviceKey(getDeviceKey64(device));
+		synchronized (mHasPermissions) {
+			return mHasPermissions.get(deviceKey) != null;
+		}
+	}
 
 	/**
 	 * open specific USB device
@@ -757,6 +947,132 @@ public final class USBMonitor {
 		return device != null ? getDeviceKeyName(device, serial, useNewAPI).hashCode() : 0;
 	}
 
+	/**
+	 * デバイスキーを64ビット整数として取得
+	 * 文字列を生成せずにバス番号, デバイス番号, ベンダーID, プロダクトIDから生成する
+	 * バス番号とデバイス番号を含むので同種の製品でも機器毎に異なるキーになる
+	 * (ただし取り外して再接続すると変わる可能性がある)
+	 * @param device nullなら0を返す
+	 * @return
+	 */
+	public static final long getDeviceKey64(final UsbDevice device) {
+		return getDeviceKey64(device, null);
+	}
+
+	/**
+	 * デバイスキーを64ビット整数として取得
+	 * serialがnullや空文字でなければserialのハッシュも含める
+	 * @param device nullなら0を返す
+	 * @param serial UsbDeviceInfo#serial等で取得済みのシリアル番号
+	 * @return
+	 */
+	public static final long getDeviceKey64(final UsbDevice device, final String serial) {
+		if (device == null) return 0;
+		// デバイス名は/dev/bus/usb/[バス番号]/[デバイス番号]の形式
+		final String name = device.getDeviceName();
+		int busnum = 0, devnum = 0;
+		if (name != null) {
+			int pos = name.length() - 1;
+			int scale = 1;
+			for (; (pos >= 0) && (name.charAt(pos) != '/'); pos--, scale *= 10) {
+				devnum += (name.charAt(pos) - '0') * scale;
+			}
+			scale = 1;
+			for (pos--; (pos >= 0) && (name.charAt(pos) != '/'); pos--, scale *= 10) {
+				busnum += (name.charAt(pos) - '0') * scale;
+			}
+		}
+		return getDeviceKey64(busnum, devnum, device.getVendorId(), device.getProductId(), serial);
+	}
+
+	/**
+	 * デバイスキーを64ビット整数として取得
+	 * [63:48]ベンダーID, [47:32]プロダクトID, [31:24]バス番号, [23:16]デバイス番号, [15:0]シリアル番号のハッシュ
+	 * @param busnum
+	 * @param devnum
+	 * @param vid
+	 * @param pid
+	 * @param serial nullまたは空文字ならシリアル番号のハッシュは0
+	 * @return
+	 */
+	public static final long getDeviceKey64(final int busnum, final int devnum, final int vid, final int pid, final String serial) {
+		final int h = !TextUtils.isEmpty(serial) ? serial.hashCode() : 0;
+		return ((long)(vid & 0xffff) << 48)
+			| ((long)(pid & 0xffff) << 32)
+			| ((long)(busnum & 0xff) << 24)
+			| ((long)(devnum & 0xff) << 16)
+			| ((h ^ (h >>> 16)) & 0xffff);
+	}
+
+	private static int foldDeviceKey(final long key) {
+		return (int)(key ^ (key >>> 32));
+	}
+
+	/**
+	 * fixed size LRU cache of UsbDeviceInfo that does not allocate on lookup
+	 */
+	private static final class DeviceInfoCache {
+		private final long[] mKeys;
+		private final long[] mLastUsed;
+		private final boolean[] mHasPermission;
+		private final UsbDeviceInfo[] mValues;
+		private long mUseCount;
+
+		private DeviceInfoCache(final int size) {
+			mKeys = new long[size];
+			mLastUsed = new long[size];
+			mHasPermission = new boolean[size];
+			mValues = new UsbDeviceInfo[size];
+		}
+
+		/**
+		 * @param key
+		 * @param hasPermission if true, the value that was read without permission is ignored
+		 * @return null if not cached
+		 */
+		public synchronized UsbDeviceInfo get(final long key, final boolean hasPermission) {
+			final int n = mValues.length;
+			for (int i = 0; i < n; i++) {
+				if ((mValues[i] != null) && (mKeys[i] == key)) {
+					if (hasPermission && !mHasPermission[i]) {
+						return null;
+					}
+					mLastUsed[i] = ++mUseCount;
+					return mValues[i];
+				}
+			}
+			return null;
+		}
+
+		public synchronized void put(final long key, final UsbDeviceInfo info, final boolean hasPermission) {
+			final int n = mValues.length;
+			int ix = -1;
+			for (int i = 0; i < n; i++) {
+				if ((mValues[i] != null) && (mKeys[i] == key)) {
+					ix = i;
+					break;
+				}
+				if ((ix < 0) || (mValues[i] == null) || ((mValues[ix] != null) && (mLastUsed[i] < mLastUsed[ix]))) {
+					// empty slot or least recently used slot
+					ix = i;
+				}
+			}
+			mKeys[ix] = key;
+			mValues[ix] = info;
+			mHasPermission[ix] = hasPermission;
+			mLastUsed[ix] = ++mUseCount;
+		}
+
+		public synchronized void remove(final long key) {
+			final int n = mValues.length;
+			for (int i = 0; i < n; i++) {
+				if ((mValues[i] != null) && (mKeys[i] == key)) {
+					mValues[i] = null;
+				}
+			}
+		}
+	}
+
 	public static class UsbDeviceInfo {
 		public String usb_version;
 		public String manufacturer;
@@ -905,11 +1221,22 @@ public final class USBMonitor {
 
 	/**
 	 * ベンダー名・製品名・バージョン・シリアルを取得する
+	 * 結果は#getDeviceKey64をキーにしてキャッシュされ, 機器が取り外されると破棄される
+	 * 返り値は共有されるので変更しないこと
 	 * @param device
 	 * @return
 	 */
 	public UsbDeviceInfo getDeviceInfo(final UsbDevice device) {
-		return updateDeviceInfo(mUsbManager, device, null);
+		if (device == null) return updateDeviceInfo(mUsbManager, null, null);
+		final long key = getDeviceKey64(device);
+		// re-read the info if it was read before getting permission
+		final boolean hasPermission = mUsbManager.hasPermission(device);
+		UsbDeviceInfo info = mDeviceInfoCache.get(key, hasPermission);
+		if (info == null) {
+			info = updateDeviceInfo(mUsbManager, device, null);
+			mDeviceInfoCache.put(key, info, hasPermission);
+		}
+		return info;
 	}
 
 	/**
@@ -1028,6 +1355,11 @@ public final class USBMonitor {
 		private final int mBusNum;
 		private final int mDevNum;
 		private final SparseArray<SparseArray<UsbInterface>> mInterfaces = new SparseArray<SparseArray<UsbInterface>>();
+		/**
+		 * cached binary capability descriptor(supported formats/frame sizes/frame intervals) of this device,
+		 * shared with cloned instances to avoid re-reading it on every open
+		 */
+		private volatile int[] mSupportedFormats;
 
 		/**
 		 * this class needs permission to access USB device before constructing
@@ -1039,7 +1371,7 @@ public final class USBMonitor {
 			mWeakMonitor = new WeakReference<USBMonitor>(monitor);
 			mWeakDevice = new WeakReference<UsbDevice>(device);
 			mConnection = monitor.mUsbManager.openDevice(device);
-			mInfo = updateDeviceInfo(monitor.mUsbManager, device, null);
+			mInfo = monitor.getDeviceInfo(device);
 			final String name = device.getDeviceName();
 			final String[] v = !TextUtils.isEmpty(name) ? name.split("/") : null;
 			int busnum = 0;
@@ -1076,11 +1408,12 @@ public final class USBMonitor {
 			if (mConnection == null) {
 				throw new IllegalStateException("device may already be removed or have no permission");
 			}
-			mInfo = updateDeviceInfo(monitor.mUsbManager, device, null);
+			mInfo = monitor.getDeviceInfo(device);
 			mWeakMonitor = new WeakReference<USBMonitor>(monitor);
 			mWeakDevice = new WeakReference<UsbDevice>(device);
 			mBusNum = src.mBusNum;
 			mDevNum = src.mDevNum;
+			mSupportedFormats = src.mSupportedFormats;
 			// FIXME USBMonitor.mCtrlBlocksに追加する(今はHashMapなので追加すると置き換わってしまうのでだめ, ListかHashMapにListをぶら下げる?)
 		}
 
@@ -1106,6 +1439,19 @@ public final class USBMonitor {
 			return mWeakMonitor.get();
 		}
 
+		/**
+		 * get cached capability descriptor, see UVCCamera#getSupportedFormats
+		 * the array is shared with the clones of this instance and must not be modified
+		 * @return null if not cached yet
+		 */
+		/*package*/ int[] getSupportedFormats() {
+			return mSupportedFormats;
+		}
+
+		/*package*/ void setSupportedFormats(final int[] formats) {
+			mSupportedFormats = formats;
+		}
+
 		public final UsbDevice getDevice() {
 			return mWeakDevice.get();
 		}
@@ -1168,6 +1514,20 @@ public final class USBMonitor {
 			return USBMonitor.getDeviceKey(mWeakDevice.get(), mInfo.serial, useNewAPI);
 		}
 
+		/**
+		 * get 64-bit device key including hash of serial number
+		 * @return
+		 * @throws IllegalStateException
+		 */
+		public long getDeviceKey64() throws IllegalStateException {
+			checkConnection();
+			final UsbDevice device = mWeakDevice.get();
+			return USBMonitor.getDeviceKey64(mBusNum, mDevNum,
+				device != null ? device.getVendorId() : 0,
+				device != null ? device.getProductId() : 0,
+				mInfo.serial);
+		}
+
 		/**
 		 * get device key string
 		 * if device has serial number, use it
@@ -0,0 +1,549 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+
+package com.serenegiant.usb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * plan isochronous bandwidth of multiple cameras on the same USB bus before starting any stream.
+ * the planner computes payload size that each requested (format, size, fps) needs from the
+ * capability descriptor(UVCCamera#getSupportedFormats) and the packet sizes of altsettings
+ * (UVCCamera#getStreamingAltSettings), and falls back to MJPEG, lower frame rate or smaller size
+ * until all cameras fit the bus budget.
+ * this class does not depend on Android framework, so it can be tested on the host
+ * with recorded descriptor dumps(see CameraInfo#parseDump).
+ */
+public class UVCBandwidthPlanner {
+
+	// same as libusb_speed
+	public static final int SPEED_UNKNOWN = 0;
+	public static final int SPEED_LOW = 1;
+	public static final int SPEED_FULL = 2;
+	public static final int SPEED_HIGH = 3;
+	public static final int SPEED_SUPER = 4;
+
+	/** 80% of high speed microframe(7500 bytes) can be used for periodic transfer, [bytes/sec] */
+	public static final long HIGH_SPEED_BUDGET = 6000L * 8000;
+	/** 90% of full speed frame(1500 bytes) can be used for periodic transfer, [bytes/sec] */
+	public static final long FULL_SPEED_BUDGET = 1350L * 1000;
+	/** rough budget of super speed bus, [bytes/sec] */
+	public static final long SUPER_SPEED_BUDGET = 300000000L;
+
+	/** expected ratio of YUYV frame size to MJPEG frame size */
+	public static final float DEFAULT_MJPEG_COMPRESSION_RATIO = 5.0f;
+
+	/** size of UVC payload header that is added to each packet */
+	private static final int PAYLOAD_HEADER_BYTES = 12;
+	// bDescriptorSubtype of format descriptor
+	private static final int FORMAT_TYPE_UNCOMPRESSED = 4;
+	private static final int FORMAT_TYPE_MJPEG = 6;
+	// frame rates that are tried for the frame that has continuous frame intervals
+	private static final int[] CONTINUOUS_FPS = { 60, 30, 25, 20, 15, 10, 5, 1 };
+
+	/**
+	 * desired stream of a camera
+	 */
+	public static class Request {
+		/** UVCCamera.FRAME_FORMAT_YUYV or UVCCamera.FRAME_FORMAT_MJPEG */
+		public final int frameFormat;
+		public final int width;
+		public final int height;
+		public final int fps;
+		/** allow switching from YUYV to MJPEG */
+		public boolean allowMjpeg = true;
+		/** allow lower frame rate than fps */
+		public boolean allowLowerFps = true;
+		/** allow smaller frame size than width x height */
+		public boolean allowSmallerSize = true;
+
+		public Request(final int frameFormat, final int width, final int height, final int fps) {
+			if ((width <= 0) || (height <= 0) || (fps <= 0)) {
+				throw new IllegalArgumentException("invalid request");
+			}
+			this.frameFormat = frameFormat;
+			this.width = width;
+			this.height = height;
+			this.fps = fps;
+		}
+	}
+
+	/**
+	 * capability of a camera
+	 */
+	public static class CameraInfo {
+		/** binary capability descriptor, see UVCCamera#getSupportedFormats */
+		public final int[] formats;
+		/** SPEED_XXX */
+		public final int speed;
+		/** max bytes per (micro)frame of each altsetting */
+		public final int[] bytesPerPacket;
+
+		/**
+		 * constructor
+		 * @param formats came from UVCCamera#getSupportedFormats
+		 * @param altSettings came from UVCCamera#getStreamingAltSettings
+		 */
+		public CameraInfo(final int[] formats, final int[] altSettings) {
+			if ((formats == null) || (formats.length < 2) || (formats[0] != UVCCamera.SUPPORTED_FORMATS_VERSION)) {
+				throw new IllegalArgumentException("invalid capability descriptor");
+			}
+			if ((altSettings == null) || (altSettings.length < 2) || (altSettings.length < altSettings[1] + 2)) {
+				throw new IllegalArgumentException("invalid altsettings");
+			}
+			this.formats = formats;
+			speed = altSettings[0];
+			bytesPerPacket = new int[altSettings[1]];
+			System.arraycopy(altSettings, 2, bytesPerPacket, 0, bytesPerPacket.length);
+		}
+
+		/**
+		 * whether the camera uses isochronous transfer
+		 * @return
+		 */
+		public boolean isIsochronous() {
+			if (bytesPerPacket.length > 1) {
+				for (final int bytes: bytesPerPacket) {
+					if (bytes > 0) return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * parse int array that was dumped by Arrays#toString
+		 * @param dump
+		 * @return
+		 */
+		public static int[] parseDump(final String dump) {
+			final String s = dump.trim().replace("[", "").replace("]", "");
+			if (s.length() == 0) return new int[0];
+			final String[] values = s.split(",");
+			final int[] result = new int[values.length];
+			for (int i = 0; i < values.length; i++) {
+				result[i] = Integer.parseInt(values[i].trim());
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * planned stream of a camera
+	 */
+	public static class Assignment {
+		/** index of the camera in the list that was passed to #plan */
+		public final int cameraIndex;
+		/** UVCCamera.FRAME_FORMAT_YUYV or UVCCamera.FRAME_FORMAT_MJPEG */
+		public final int frameFormat;
+		public final int width;
+		public final int height;
+		public final int fps;
+		/** index of selected altsetting, 0 if bulk transfer */
+		public final int altSetting;
+		/** packet size of selected altsetting, pass this to UVCCamera#setMaxPayloadSize, 0 if bulk transfer */
+		public final int bytesPerPacket;
+		/** bandwidth that is reserved on the bus by selected altsetting [bytes/sec] */
+		public final long reservedBytesPerSecond;
+		/** true if this is not the requested stream */
+		public final boolean degraded;
+
+		private Assignment(final int cameraIndex, final Candidate candidate, final boolean degraded) {
+			this.cameraIndex = cameraIndex;
+			frameFormat = candidate.frameFormat;
+			width = candidate.width;
+			height = candidate.height;
+			fps = candidate.fps;
+			altSetting = candidate.altSetting;
+			bytesPerPacket = candidate.bytesPerPacket;
+			reservedBytesPerSecond = candidate.reserved;
+			this.degraded = degraded;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "Assignment{camera=%d,%s %dx%d@%d,alt=%d,bytesPerPacket=%d,reserved=%d,degraded=%b}",
+				cameraIndex, frameFormat == UVCCamera.FRAME_FORMAT_MJPEG ? "MJPEG" : "YUYV",
+				width, height, fps, altSetting, bytesPerPacket, reservedBytesPerSecond, degraded);
+		}
+	}
+
+	/**
+	 * result of planning
+	 */
+	public static class Plan {
+		/** true if all cameras fit the budget */
+		public final boolean fits;
+		/** [bytes/sec] */
+		public final long budget;
+		/** total reserved bandwidth of all assignments [bytes/sec] */
+		public final long totalReservedBytesPerSecond;
+		/** assignment of each camera in the same order as cameras, the entry is null if the camera has no usable stream */
+		public final List<Assignment> assignments;
+
+		private Plan(final boolean fits, final long budget, final long total, final List<Assignment> assignments) {
+			this.fits = fits;
+			this.budget = budget;
+			totalReservedBytesPerSecond = total;
+			this.assignments = Collections.unmodifiableList(assignments);
+		}
+
+		@Override
+		public String toString() {
+			return "Plan{fits=" + fits + ",budget=" + budget
+				+ ",total=" + totalReservedBytesPerSecond + ",assignments=" + assignments + "}";
+		}
+	}
+
+	private static class Candidate {
+		private final int frameFormat;
+		private final int width, height, fps;
+		private int altSetting;
+		private int bytesPerPacket;
+		private long reserved;
+
+		private Candidate(final int frameFormat, final int width, final int height, final int fps) {
+			this.frameFormat = frameFormat;
+			this.width = width;
+			this.height = height;
+			this.fps = fps;
+		}
+	}
+
+	private final long mBudget;
+	private float mMjpegCompressionRatio = DEFAULT_MJPEG_COMPRESSION_RATIO;
+
+	/**
+	 * constructor, the budget is decided by speed of the first camera
+	 */
+	public UVCBandwidthPlanner() {
+		this(0);
+	}
+
+	/**
+	 * constructor
+	 * @param budget available periodic bandwidth of the bus [bytes/sec], 0 means decided by speed of the first camera
+	 */
+	public UVCBandwidthPlanner(final long budget) {
+		if (budget < 0) {
+			throw new IllegalArgumentException("invalid budget");
+		}
+		mBudget = budget;
+	}
+
+	/**
+	 * set expected compression ratio of MJPEG
+	 * @param ratio ratio of YUYV frame size to MJPEG frame size, should be equal or larger than 1
+	 */
+	public void setMjpegCompressionRatio(final float ratio) {
+		if (ratio < 1.0f) {
+			throw new IllegalArgumentException("invalid compression ratio");
+		}
+		mMjpegCompressionRatio = ratio;
+	}
+
+	/**
+	 * plan streams of cameras that are connected to the same bus
+	 * if the requested streams do not fit the budget, the camera that reserves largest bandwidth
+	 * (later one in the list if same) is degraded step by step
+	 * @param cameras
+	 * @param requests request of each camera in the same order as cameras
+	 * @return
+	 */
+	public Plan plan(final List<CameraInfo> cameras, final List<Request> requests) {
+		final int n = cameras.size();
+		if (requests.size() != n) {
+			throw new IllegalArgumentException("number of requests should be same as number of cameras");
+		}
+		final long budget = mBudget > 0 ? mBudget : (n > 0 ? budgetOf(cameras.get(0).speed) : 0);
+		final List<List<Candidate>> candidates = new ArrayList<List<Candidate>>(n);
+		final int[] current = new int[n];
+		boolean fits = true;
+		for (int i = 0; i < n; i++) {
+			final List<Candidate> list = listCandidates(cameras.get(i), requests.get(i));
+			candidates.add(list);
+			if (list.isEmpty()) {
+				fits = false;
+			}
+		}
+		long total = 0;
+		for (int i = 0; i < n; i++) {
+			if (!candidates.get(i).isEmpty()) {
+				total += candidates.get(i).get(0).reserved;
+			}
+		}
+		while (total > budget) {
+			// degrade the camera that reserves largest bandwidth
+			int target = -1, next = -1;
+			long maxReserved = -1;
+			for (int i = 0; i < n; i++) {
+				final List<Candidate> list = candidates.get(i);
+				if (list.isEmpty()) continue;
+				final long reserved = list.get(current[i]).reserved;
+				final int j = nextLower(list, current[i]);
+				if ((j >= 0) && (reserved >= maxReserved)) {
+					target = i;
+					next = j;
+					maxReserved = reserved;
+				}
+			}
+			if (target < 0) {
+				fits = false;
+				break;
+			}
+			total -= maxReserved - candidates.get(target).get(next).reserved;
+			current[target] = next;
+		}
+		final List<Assignment> assignments = new ArrayList<Assignment>(n);
+		for (int i = 0; i < n; i++) {
+			final List<Candidate> list = candidates.get(i);
+			if (list.isEmpty()) {
+				assignments.add(null);
+			} else {
+				final Candidate c = list.get(current[i]);
+				final Request r = requests.get(i);
+				assignments.add(new Assignment(i, c,
+					(c.frameFormat != r.frameFormat) || (c.width != r.width)
+					|| (c.height != r.height) || (c.fps != r.fps)));
+			}
+		}
+		return new Plan(fits, budget, total, assignments);
+	}
+
+	/**
+	 * payload size that the stream needs [bytes/sec]
+	 * @param frameFormat
+	 * @param width
+	 * @param height
+	 * @param fps
+	 * @return
+	 */
+	public long payloadBytesPerSecond(final int frameFormat, final int width, final int height, final int fps) {
+		final long bytes = (long)width * height * 2 * fps;
+		return frameFormat == UVCCamera.FRAME_FORMAT_MJPEG ? (long)(bytes / mMjpegCompressionRatio) : bytes;
+	}
+
+	private static long budgetOf(final int speed) {
+		switch (speed) {
+		case SPEED_LOW:
+		case SPEED_FULL:
+			return FULL_SPEED_BUDGET;
+		case SPEED_SUPER:
+			return SUPER_SPEED_BUDGET;
+		default:
+			return HIGH_SPEED_BUDGET;
+		}
+	}
+
+	private static int nextLower(final List<Candidate> list, final int current) {
+		final long reserved = list.get(current).reserved;
+		final int n = list.size();
+		for (int i = current + 1; i < n; i++) {
+			if (list.get(i).reserved < reserved) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * list usable streams in order of preference,
+	 * same size and frame rate in MJPEG, then lower frame rate, then smaller size
+	 */
+	private List<Candidate> listCandidates(final CameraInfo camera, final Request request) {
+		final List<Candidate> result = new ArrayList<Candidate>();
+		final List<int[]> frames = parseFrames(camera.formats);	// {frameFormat, width, height, fps...}
+		// sizes that are equal or smaller than requested size, larger one first
+		final List<int[]> sizes = new ArrayList<int[]>();
+		for (final int[] frame: frames) {
+			final boolean requested = (frame[1] == request.width) && (frame[2] == request.height);
+			if (!requested && (!request.allowSmallerSize
+				|| ((long)frame[1] * frame[2] > (long)request.width * request.height))) {
+				continue;
+			}
+			boolean found = false;
+			for (final int[] size: sizes) {
+				if ((size[0] == frame[1]) && (size[1] == frame[2])) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				sizes.add(new int[] {frame[1], frame[2]});
+			}
+		}
+		Collections.sort(sizes, new Comparator<int[]>() {
+			@Override
+			public int compare(final int[] lhs, final int[] rhs) {
+				final boolean l = (lhs[0] == request.width) && (lhs[1] == request.height);
+				final boolean r = (rhs[0] == request.width) && (rhs[1] == request.height);
+				if (l != r) return l ? -1 : 1;
+				final long diff = (long)rhs[0] * rhs[1] - (long)lhs[0] * lhs[1];
+				return diff > 0 ? 1 : (diff < 0 ? -1 : 0);
+			}
+		});
+		final int[] formats = (request.allowMjpeg && (request.frameFormat != UVCCamera.FRAME_FORMAT_MJPEG))
+			? new int[] {request.frameFormat, UVCCamera.FRAME_FORMAT_MJPEG}
+			: new int[] {request.frameFormat};
+		for (final int[] size: sizes) {
+			for (final int fps: listFps(frames, size, formats, request)) {
+				for (final int format: formats) {
+					final int[] frame = findFrame(frames, format, size[0], size[1]);
+					if ((frame != null) && supportsFps(frame, fps)) {
+						final Candidate candidate = new Candidate(format, size[0], size[1], fps);
+						if (assignAltSetting(camera, candidate)) {
+							result.add(candidate);
+						}
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * frame rates of the size that are equal or lower than requested, higher one first
+	 * only the requested frame rate is returned if lower frame rate is not allowed
+	 */
+	private static List<Integer> listFps(final List<int[]> frames, final int[] size, final int[] formats, final Request request) {
+		final List<Integer> result = new ArrayList<Integer>();
+		for (final int format: formats) {
+			final int[] frame = findFrame(frames, format, size[0], size[1]);
+			if (frame == null) continue;
+			for (int i = 3; i < frame.length; i++) {
+				final int fps = frame[i];
+				if ((request.allowLowerFps ? fps <= request.fps : fps == request.fps)
+					&& !result.contains(fps)) {
+
+					result.add(fps);
+				}
+			}
+		}
+		Collections.sort(result, Collections.reverseOrder());
+		return result;
+	}
+
+	private static int[] findFrame(final List<int[]> frames, final int frameFormat, final int width, final int height) {
+		for (final int[] frame: frames) {
+			if ((frame[0] == frameFormat) && (frame[1] == width) && (frame[2] == height)) {
+				return frame;
+			}
+		}
+		return null;
+	}
+
+	private static boolean supportsFps(final int[] frame, final int fps) {
+		for (int i = 3; i < frame.length; i++) {
+			if (frame[i] == fps) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * select the altsetting in the same way as libuvc(the first one that has enough packet size)
+	 * @return false if no altsetting has enough packet size
+	 */
+	private boolean assignAltSetting(final CameraInfo camera, final Candidate candidate) {
+		if (!camera.isIsochronous()) {
+			// bulk transfer does not reserve periodic bandwidth
+			candidate.altSetting = 0;
+			candidate.bytesPerPacket = 0;
+			candidate.reserved = 0;
+			return true;
+		}
+		final int packetsPerSecond = camera.speed >= SPEED_HIGH ? 8000 : 1000;
+		final long payload = payloadBytesPerSecond(candidate.frameFormat, candidate.width, candidate.height, candidate.fps);
+		final long required = (payload + packetsPerSecond - 1) / packetsPerSecond + PAYLOAD_HEADER_BYTES;
+		final int n = camera.bytesPerPacket.length;
+		for (int i = 0; i < n; i++) {
+			final int bytes = camera.bytesPerPacket[i];
+			if ((bytes > 0) && (bytes >= required)) {
+				candidate.altSetting = i;
+				candidate.bytesPerPacket = bytes;
+				candidate.reserved = (long)bytes * packetsPerSecond;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * parse binary capability descriptor into list of {frameFormat, width, height, fps...}
+	 */
+	private static List<int[]> parseFrames(final int[] formats) {
+		final List<int[]> result = new ArrayList<int[]>();
+		try {
+			final int format_nums = formats[1];
+			int pos = 2;
+			for (int i = 0; i < format_nums; i++) {
+				final int type = formats[pos];
+				final int frame_nums = formats[pos + 3];
+				pos += 4;
+				for (int j = 0; j < frame_nums; j++) {
+					final int width = formats[pos + 1];
+					final int height = formats[pos + 2];
+					final int interval_type = formats[pos + 4];
+					final int interval_nums = formats[pos + 5];
+					pos += 6;
+					final int frameFormat = type == FORMAT_TYPE_MJPEG ? UVCCamera.FRAME_FORMAT_MJPEG
+						: (type == FORMAT_TYPE_UNCOMPRESSED ? UVCCamera.FRAME_FORMAT_YUYV : -1);
+					if (frameFormat >= 0) {
+						final List<Integer> fps = new ArrayList<Integer>();
+						if ((interval_type == 0) && (interval_nums == 3)) {
+							// continuous, intervals are min, max and step in 100ns
+							final int maxFps = formats[pos] > 0 ? 10000000 / formats[pos] : 0;
+							final int minFps = formats[pos + 1] > 0 ? 10000000 / formats[pos + 1] : 0;
+							for (final int f: CONTINUOUS_FPS) {
+								if ((f >= minFps) && (f <= maxFps)) fps.add(f);
+							}
+						} else {
+							for (int k = 0; k < interval_nums; k++) {
+								final int interval = formats[pos + k];
+								if (interval > 0) {
+									final int f = Math.round(10000000.0f / interval);
+									if ((f > 0) && !fps.contains(f)) fps.add(f);
+								}
+							}
+						}
+						final int[] frame = new int[3 + fps.size()];
+						frame[0] = frameFormat;
+						frame[1] = width;
+						frame[2] = height;
+						for (int k = 0; k < fps.size(); k++) {
+							frame[3 + k] = fps.get(k);
+						}
+						result.add(frame);
+					}
+					pos += interval_nums;
+				}
+			}
+		} catch (final ArrayIndexOutOfBoundsException e) {
+			// broken descriptor, use frames that were parsed until here
+		}
+		return result;
+	}
+}
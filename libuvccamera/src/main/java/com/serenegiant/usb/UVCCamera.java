@@ -23,6 +23,9 @@
 
 package com.serenegiant.usb;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -39,7 +42,7 @@ import android.view.SurfaceHolder;
 
 import com.serenegiant.usb.USBMonitor.UsbControlBlock;
 
-public class UVCCamera {
+public class UVCCamera implements IFrameSource {
 	private static final boolean DEBUG = false;	// TODO set false when releasing
 	private static final String TAG = UVCCamera.class.getSimpleName();
 	private static final String DEFAULT_USBFS = "/dev/bus/usb";
@@ -50,6 +53,7 @@ public class UVCCamera {
 	public static final int DEFAULT_PREVIEW_MIN_FPS = 1;
 	public static final int DEFAULT_PREVIEW_MAX_FPS = 30;
 	public static final float DEFAULT_BANDWIDTH = 1.0f;
+	public static final boolean DEFAULT_ZERO_COPY = false;
 
 	public static final int FRAME_FORMAT_YUYV = 0;
 	public static final int FRAME_FORMAT_MJPEG = 1;
@@ -61,6 +65,52 @@ public class UVCCamera {
 	public static final int PIXEL_FORMAT_YUV420SP = 4;
 	public static final int PIXEL_FORMAT_NV21 = 5;		// = YVU420SemiPlanar
 
+	public static final int DEFAULT_FRAME_POOL_SIZE = 6;
+	public static final int MAX_FRAME_POOL_SIZE = 256;
+	// indices of the array returned by #getFramePoolStats
+	public static final int FRAME_POOL_STATS_HITS = 0;
+	public static final int FRAME_POOL_STATS_MISSES = 1;
+	public static final int FRAME_POOL_STATS_REALLOCS = 2;
+	public static final int FRAME_POOL_STATS_DROPS = 3;
+	public static final int FRAME_POOL_STATS_NUM = 4;
+
+	public static final int DEFAULT_DECODE_WORKERS = 0;
+	public static final int MAX_DECODE_WORKERS = 8;
+
+	public static final int DEFAULT_FRAME_BATCH_BUFFERS = 4;
+	public static final int MAX_FRAME_BATCH_BUFFERS = 16;
+
+	// frame queues for #setQueuePolicy
+	public static final int QUEUE_PREVIEW = 0;		// received frames waiting for the preview thread
+	public static final int QUEUE_CAPTURE = 1;		// decoded frames waiting for the capture thread(frame callback/capture Surface)
+	public static final int QUEUE_DECODE = 2;		// MJPEG frames waiting for decode workers
+	// what to do when a queue is full
+	public static final int QUEUE_POLICY_DROP_NEWEST = 0;
+	public static final int QUEUE_POLICY_DROP_OLDEST = 1;
+	public static final int QUEUE_POLICY_DECIMATE = 2;
+	public static final int QUEUE_POLICY_BLOCK = 3;
+	public static final int MAX_QUEUE_DEPTH = 32;
+	public static final int MAX_QUEUE_BLOCK_MS = 1000;
+	// indices of the array returned by #getQueueStats
+	public static final int QUEUE_STATS_QUEUED = 0;
+	public static final int QUEUE_STATS_DROPPED = 1;
+	public static final int QUEUE_STATS_NUM = 2;
+	// limits of #setTransferConfig, must match with libuvc
+	public static final int MAX_TRANSFERS = 32;
+	public static final int MAX_PACKETS_PER_TRANSFER = 128;
+	// indices of the array returned by #getTransferStats, must match with libuvc
+	public static final int TRANSFER_STATS_COMPLETED = 0;
+	public static final int TRANSFER_STATS_ERROR = 1;
+	public static final int TRANSFER_STATS_TIMED_OUT = 2;
+	public static final int TRANSFER_STATS_STALL = 3;
+	public static final int TRANSFER_STATS_OVERFLOW = 4;
+	public static final int TRANSFER_STATS_BAD_PACKETS = 5;	// isochronous packets with error status
+	public static final int TRANSFER_STATS_SUBMIT_FAILED = 6;
+	public static final int TRANSFER_STATS_NUM = 7;
+
+	/** version of binary capability descriptor returned by #getSupportedFormats, must match with native side */
+	public static final int SUPPORTED_FORMATS_VERSION = 1;
+
 	//--------------------------------------------------------------------------------
     public static final int	CTRL_SCANNING		= 0x00000001;	// D0:  Scanning Mode
     public static final int CTRL_AE				= 0x00000002;	// D1:  Auto-Exposure Mode
@@ -125,12 +175,19 @@ public class UVCCamera {
 	}
 
 	private UsbControlBlock mCtrlBlock;
+	/**
+	 * lock for camera controls, this is separated from the lock of this instance
+	 * so that control access never wait for start/stop preview
+	 */
+	private final Object mControlSync = new Object();
     protected long mControlSupports;			// カメラコントロールでサポートしている機能フラグ
     protected long mProcSupports;				// プロセッシングユニットでサポートしている機能フラグ
     protected int mCurrentFrameFormat = FRAME_FORMAT_MJPEG;
 	protected int mCurrentWidth = DEFAULT_PREVIEW_WIDTH, mCurrentHeight = DEFAULT_PREVIEW_HEIGHT;
 	protected float mCurrentBandwidthFactor = DEFAULT_BANDWIDTH;
+	protected boolean mCurrentZeroCopy = DEFAULT_ZERO_COPY;
     protected String mSupportedSize;
+    protected int[] mSupportedFormats;
     protected List<Size> mCurrentSizeList;
 	// these fields from here are accessed from native code and do not change name and remove
     protected long mNativePtr;
@@ -187,6 +244,17 @@ public class UVCCamera {
      * @param ctrlBlock
      */
     public synchronized void open(final UsbControlBlock ctrlBlock) {
+    	open(ctrlBlock, false);
+    }
+
+    /**
+     * connect to a UVC camera
+     * USB permission is necessary before this method is called
+     * @param ctrlBlock
+     * @param sharedContext if true, libusb context and its event handling thread are shared with
+     * 			other cameras that are opened with sharedContext=true, see UVCCameraManager
+     */
+    public synchronized void open(final UsbControlBlock ctrlBlock, final boolean sharedContext) {
     	int result;
     	try {
 			mCtrlBlock = ctrlBlock.clone();
@@ -195,7 +263,7 @@ public class UVCCamera {
 				mCtrlBlock.getFileDescriptor(),
 				mCtrlBlock.getBusNum(),
 				mCtrlBlock.getDevNum(),
-				getUSBFSName(mCtrlBlock));
+				getUSBFSName(mCtrlBlock), sharedContext);
 		} catch (final Exception e) {
 			Log.w(TAG, e);
 			result = -1;
@@ -203,11 +271,17 @@ public class UVCCamera {
 		if (result != 0) {
 			throw new UnsupportedOperationException("open failed:result=" + result);
 		}
-    	if (mNativePtr != 0 && TextUtils.isEmpty(mSupportedSize)) {
-    		mSupportedSize = nativeGetSupportedSize(mNativePtr);
+    	if (mNativePtr != 0) {
+    		// reuse the capability descriptor cached on the control block if this device was opened before
+    		mSupportedFormats = ctrlBlock.getSupportedFormats();
+    		if (mSupportedFormats == null) {
+    			mSupportedFormats = nativeGetSupportedFormats(mNativePtr);
+    			ctrlBlock.setSupportedFormats(mSupportedFormats);
+    		}
+    		mCtrlBlock.setSupportedFormats(mSupportedFormats);
     	}
 		nativeSetPreviewSize(mNativePtr, DEFAULT_PREVIEW_WIDTH, DEFAULT_PREVIEW_HEIGHT,
-			DEFAULT_PREVIEW_MIN_FPS, DEFAULT_PREVIEW_MAX_FPS, DEFAULT_PREVIEW_MODE, DEFAULT_BANDWIDTH);
+			DEFAULT_PREVIEW_MIN_FPS, DEFAULT_PREVIEW_MAX_FPS, DEFAULT_PREVIEW_MODE, DEFAULT_BANDWIDTH, DEFAULT_ZERO_COPY);
     }
 
 	/**
@@ -235,9 +309,11 @@ public class UVCCamera {
      */
     public synchronized void close() {
     	stopPreview();
-    	if (mNativePtr != 0) {
-    		nativeRelease(mNativePtr);
-//    		mNativePtr = 0;	// nativeDestroyを呼ぶのでここでクリアしちゃダメ
+    	synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	    		nativeRelease(mNativePtr);
+//	    		mNativePtr = 0;	// nativeDestroyを呼ぶのでここでクリアしちゃダメ
+	    	}
     	}
     	if (mCtrlBlock != null) {
 			mCtrlBlock.close();
@@ -246,7 +322,9 @@ public class UVCCamera {
 		mControlSupports = mProcSupports = 0;
 		mCurrentFrameFormat = -1;
 		mCurrentBandwidthFactor = 0;
+		mCurrentZeroCopy = DEFAULT_ZERO_COPY;
 		mSupportedSize = null;
+		mSupportedFormats = null;
 		mCurrentSizeList = null;
     	if (DEBUG) Log.v(TAG, "close:finished");
     }
@@ -263,10 +341,44 @@ public class UVCCamera {
 		return mCtrlBlock;
 	}
 
+	/**
+	 * get supported formats and frame sizes as JSON string,
+	 * this is derived from #getSupportedFormats and kept for compatibility
+	 * @return
+	 */
 	public synchronized String getSupportedSize() {
-    	return !TextUtils.isEmpty(mSupportedSize) ? mSupportedSize : (mSupportedSize = nativeGetSupportedSize(mNativePtr));
+		if (TextUtils.isEmpty(mSupportedSize)) {
+			mSupportedSize = (mSupportedFormats != null)
+				? toSupportedSizeJson(mSupportedFormats)
+				: nativeGetSupportedSize(mNativePtr);
+		}
+		return mSupportedSize;
     }
 
+	/**
+	 * get binary capability descriptor of supported formats, frame sizes and frame intervals.
+	 * [0]=SUPPORTED_FORMATS_VERSION, [1]=number of formats, then for each format
+	 * type, format index, default frame index, number of frames, then for each frame
+	 * frame index, width, height, default frame interval, frame interval type, number of intervals, intervals...
+	 * intervals are min, max and step when frame interval type is 0(continuous)
+	 * @return copy of the descriptor, null if camera is not opened
+	 */
+	public int[] getSupportedFormats() {
+		final int[] formats = loadSupportedFormats();
+		// the cached descriptor is shared with UsbControlBlock and its clones, so hand out a copy
+		return formats != null ? formats.clone() : null;
+	}
+
+	/**
+	 * @return the descriptor that is cached on this instance, callers must not modify it
+	 */
+	private synchronized int[] loadSupportedFormats() {
+		if ((mSupportedFormats == null) && (mNativePtr != 0)) {
+			mSupportedFormats = nativeGetSupportedFormats(mNativePtr);
+		}
+		return mSupportedFormats;
+	}
+
 	public Size getPreviewSize() {
 		Size result = null;
 		final List<Size> list = getSupportedSizeList();
@@ -320,22 +432,87 @@ public class UVCCamera {
 	 * @param bandwidthFactor
 	 */
 	public void setPreviewSize(final int width, final int height, final int min_fps, final int max_fps, final int frameFormat, final float bandwidthFactor) {
+		setPreviewSize(width, height, min_fps, max_fps, frameFormat, bandwidthFactor, mCurrentZeroCopy);
+	}
+
+	/**
+	 * Set preview size and preview mode
+	 * @param width
+	 * @param height
+	 * @param min_fps
+	 * @param max_fps
+	 * @param frameFormat either FRAME_FORMAT_YUYV(0) or FRAME_FORMAT_MJPEG(1)
+	 * @param bandwidthFactor
+	 * @param zeroCopy if true, frame buffers received from the camera are handed over
+	 * to the preview instead of being copied. This is applied when the preview starts next time.
+	 */
+	public void setPreviewSize(final int width, final int height, final int min_fps, final int max_fps, final int frameFormat, final float bandwidthFactor, final boolean zeroCopy) {
 		if ((width == 0) || (height == 0))
 			throw new IllegalArgumentException("invalid preview size");
 		if (mNativePtr != 0) {
-			final int result = nativeSetPreviewSize(mNativePtr, width, height, min_fps, max_fps, frameFormat, bandwidthFactor);
+			final int result = nativeSetPreviewSize(mNativePtr, width, height, min_fps, max_fps, frameFormat, bandwidthFactor, zeroCopy);
 			if (result != 0)
 				throw new IllegalArgumentException("Failed to set preview size");
 			mCurrentFrameFormat = frameFormat;
 			mCurrentWidth = width;
 			mCurrentHeight = height;
 			mCurrentBandwidthFactor = bandwidthFactor;
+			mCurrentZeroCopy = zeroCopy;
 		}
 	}
 
 	public List<Size> getSupportedSizeList() {
 		final int type = (mCurrentFrameFormat > 0) ? 6 : 4;
-		return getSupportedSize(type, mSupportedSize);
+		final int[] formats = loadSupportedFormats();
+		return formats != null ? getSupportedSize(type, formats) : getSupportedSize(type, getSupportedSize());
+	}
+
+	/**
+	 * parse binary capability descriptor came from #getSupportedFormats,
+	 * Size#intervals and Size#fps are also set unlike #getSupportedSize(int, String)
+	 * @param type format type, -1 means all formats
+	 * @param formats
+	 * @return
+	 */
+	public static List<Size> getSupportedSize(final int type, final int[] formats) {
+		return SupportedFormats.getSupportedSize(type, formats);
+	}
+
+	/**
+	 * generate JSON string that is compatible with #getSupportedSize from binary capability descriptor
+	 * @param formats
+	 * @return
+	 */
+	private static final String toSupportedSizeJson(final int[] formats) {
+		final JSONObject json = new JSONObject();
+		try {
+			final JSONArray format_array = new JSONArray();
+			if ((formats.length >= 2) && (formats[0] == SUPPORTED_FORMATS_VERSION)) {
+				final int format_nums = formats[1];
+				int pos = 2;
+				for (int i = 0; i < format_nums; i++) {
+					final JSONObject format = new JSONObject();
+					format.put("index", formats[pos + 1]);
+					format.put("type", formats[pos]);
+					format.put("default", formats[pos + 2]);
+					final JSONArray size = new JSONArray();
+					final int frame_nums = formats[pos + 3];
+					pos += 4;
+					for (int j = 0; j < frame_nums; j++) {
+						size.put(formats[pos + 1] + "x" + formats[pos + 2]);
+						pos += 6 + formats[pos + 5];
+					}
+					format.put("size", size);
+					format_array.put(format);
+				}
+			}
+			json.put("formats", format_array);
+		} catch (final JSONException e) {
+			Log.w(TAG, e);
+		} catch (final ArrayIndexOutOfBoundsException e) {
+			Log.w(TAG, "broken capability descriptor", e);
+		}
+		return json.toString();
 	}
 
 	public static List<Size> getSupportedSize(final int type, final String supportedSize) {
@@ -411,6 +588,57 @@ public class UVCCamera {
     	}
     }
 
+    /**
+     * set frame callback that receives frames through a ring of direct ByteBuffers.
+     * the buffers are allocated here for current preview size, so call this after #setPreviewSize.
+     * IFrameCallback set by #setFrameCallback is removed if callback is not null, and vice versa.
+     * @param callback null to remove
+     * @param pixelFormat PIXEL_FORMAT_XXX
+     * @param numBuffers number of buffers in the ring, [1, MAX_FRAME_BATCH_BUFFERS],
+     * this is also the maximum number of frames that are delivered at once
+     * IllegalArgumentException is thrown if the native side rejected the callback or the buffers,
+     * the frame batch callback that was set before is removed in that case.
+     */
+    public void setFrameBatchCallback(final IFrameBatchCallback callback, final int pixelFormat, final int numBuffers) {
+    	if (mNativePtr != 0) {
+    		if (callback != null) {
+    			if ((numBuffers < 1) || (numBuffers > MAX_FRAME_BATCH_BUFFERS))
+    				throw new IllegalArgumentException("invalid number of buffers");
+    			final int frameBytes = getFrameBytes(mCurrentWidth, mCurrentHeight, pixelFormat);
+    			final ByteBuffer[] buffers = new ByteBuffer[numBuffers];
+    			for (int i = 0; i < numBuffers; i++) {
+    				buffers[i] = ByteBuffer.allocateDirect(frameBytes).order(ByteOrder.nativeOrder());
+    			}
+    			final LongBuffer metadata = ByteBuffer.allocateDirect(numBuffers * IFrameBatchCallback.META_NUM * 8)
+    				.order(ByteOrder.nativeOrder()).asLongBuffer();
+    			final int result = nativeSetFrameBatchCallback(mNativePtr, callback, buffers, metadata, pixelFormat);
+    			if (result != 0)
+    				throw new IllegalArgumentException("Failed to set frame batch callback");
+    		} else {
+    			nativeSetFrameBatchCallback(mNativePtr, null, null, null, 0);
+    		}
+    	}
+    }
+
+    /**
+     * get the number of bytes of a frame for the frame callback
+     * @param width
+     * @param height
+     * @param pixelFormat PIXEL_FORMAT_XXX
+     * @return
+     */
+    public static int getFrameBytes(final int width, final int height, final int pixelFormat) {
+    	switch (pixelFormat) {
+    	case PIXEL_FORMAT_RGBX:
+    		return width * height * 4;
+    	case PIXEL_FORMAT_YUV420SP:
+    	case PIXEL_FORMAT_NV21:
+    		return (width * height * 3) / 2;
+    	default:
+    		return width * height * 2;
+    	}
+    }
+
     /**
      * start preview
      */
@@ -425,6 +653,7 @@ public class UVCCamera {
      */
     public synchronized void stopPreview() {
     	setFrameCallback(null, 0);
+    	setFrameBatchCallback(null, 0, 0);
     	if (mCtrlBlock != null) {
     		nativeStopPreview(mNativePtr);
     	}
@@ -435,9 +664,11 @@ public class UVCCamera {
      */
     public synchronized void destroy() {
     	close();
-    	if (mNativePtr != 0) {
-    		nativeDestroy(mNativePtr);
-    		mNativePtr = 0;
+    	synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	    		nativeDestroy(mNativePtr);
+	    		mNativePtr = 0;
+	    	}
     	}
     }
 
@@ -452,398 +683,478 @@ public class UVCCamera {
     }
 
 //================================================================================
-	public synchronized void setAutoFocus(final boolean autoFocus) {
-    	if (mNativePtr != 0) {
-    		nativeSetAutoFocus(mNativePtr, autoFocus);
-    	}
+	public void setAutoFocus(final boolean autoFocus) {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	    		nativeSetAutoFocus(mNativePtr, autoFocus);
+	    	}
+		}
     }
 
-	public synchronized boolean getAutoFocus() {
-    	boolean result = true;
-    	if (mNativePtr != 0) {
-    		result = nativeGetAutoFocus(mNativePtr) > 0;
-    	}
-    	return result;
+	public boolean getAutoFocus() {
+		synchronized (mControlSync) {
+	    	boolean result = true;
+	    	if (mNativePtr != 0) {
+	    		result = nativeGetAutoFocus(mNativePtr) > 0;
+	    	}
+	    	return result;
+		}
     }
 //================================================================================
     /**
      * @param focus [%]
      */
-	public synchronized void setFocus(final int focus) {
-    	if (mNativePtr != 0) {
- 		   final float range = Math.abs(mFocusMax - mFocusMin);
- 		   if (range > 0)
- 			   nativeSetFocus(mNativePtr, (int)(focus / 100.f * range) + mFocusMin);
-    	}
+	public void setFocus(final int focus) {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	 		   final float range = Math.abs(mFocusMax - mFocusMin);
+	 		   if (range > 0)
+	 			   nativeSetFocus(mNativePtr, (int)(focus / 100.f * range) + mFocusMin);
+	    	}
+		}
     }
 
     /**
      * @param focus_abs
      * @return focus[%]
      */
-	public synchronized int getFocus(final int focus_abs) {
-	   int result = 0;
-	   if (mNativePtr != 0) {
-		   nativeUpdateFocusLimit(mNativePtr);
-		   final float range = Math.abs(mFocusMax - mFocusMin);
-		   if (range > 0) {
-			   result = (int)((focus_abs - mFocusMin) * 100.f / range);
+	public int getFocus(final int focus_abs) {
+		synchronized (mControlSync) {
+		   int result = 0;
+		   if (mNativePtr != 0) {
+			   nativeUpdateFocusLimit(mNativePtr);
+			   final float range = Math.abs(mFocusMax - mFocusMin);
+			   if (range > 0) {
+				   result = (int)((focus_abs - mFocusMin) * 100.f / range);
+			   }
 		   }
-	   }
-	   return result;
+		   return result;
+		}
 	}
 
     /**
      * @return focus[%]
      */
-	public synchronized int getFocus() {
-    	return getFocus(nativeGetFocus(mNativePtr));
+	public int getFocus() {
+		synchronized (mControlSync) {
+	    	return getFocus(nativeGetFocus(mNativePtr));
+		}
     }
 
-	public synchronized void resetFocus() {
-    	if (mNativePtr != 0) {
-    		nativeSetFocus(mNativePtr, mFocusDef);
-    	}
+	public void resetFocus() {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	    		nativeSetFocus(mNativePtr, mFocusDef);
+	    	}
+		}
     }
 
 //================================================================================
-	public synchronized void setAutoWhiteBlance(final boolean autoWhiteBlance) {
-    	if (mNativePtr != 0) {
-    		nativeSetAutoWhiteBlance(mNativePtr, autoWhiteBlance);
-    	}
+	public void setAutoWhiteBlance(final boolean autoWhiteBlance) {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	    		nativeSetAutoWhiteBlance(mNativePtr, autoWhiteBlance);
+	    	}
+		}
     }
 
-	public synchronized boolean getAutoWhiteBlance() {
-    	boolean result = true;
-    	if (mNativePtr != 0) {
-    		result = nativeGetAutoWhiteBlance(mNativePtr) > 0;
-    	}
-    	return result;
+	public boolean getAutoWhiteBlance() {
+		synchronized (mControlSync) {
+	    	boolean result = true;
+	    	if (mNativePtr != 0) {
+	    		result = nativeGetAutoWhiteBlance(mNativePtr) > 0;
+	    	}
+	    	return result;
+		}
     }
 
 //================================================================================
     /**
      * @param whiteBlance [%]
      */
-	public synchronized void setWhiteBlance(final int whiteBlance) {
-    	if (mNativePtr != 0) {
- 		   final float range = Math.abs(mWhiteBlanceMax - mWhiteBlanceMin);
- 		   if (range > 0)
- 			   nativeSetWhiteBlance(mNativePtr, (int)(whiteBlance / 100.f * range) + mWhiteBlanceMin);
-    	}
+	public void setWhiteBlance(final int whiteBlance) {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	 		   final float range = Math.abs(mWhiteBlanceMax - mWhiteBlanceMin);
+	 		   if (range > 0)
+	 			   nativeSetWhiteBlance(mNativePtr, (int)(whiteBlance / 100.f * range) + mWhiteBlanceMin);
+	    	}
+		}
     }
 
     /**
      * @param whiteBlance_abs
      * @return whiteBlance[%]
      */
-	public synchronized int getWhiteBlance(final int whiteBlance_abs) {
-	   int result = 0;
-	   if (mNativePtr != 0) {
-		   nativeUpdateWhiteBlanceLimit(mNativePtr);
-		   final float range = Math.abs(mWhiteBlanceMax - mWhiteBlanceMin);
-		   if (range > 0) {
-			   result = (int)((whiteBlance_abs - mWhiteBlanceMin) * 100.f / range);
+	public int getWhiteBlance(final int whiteBlance_abs) {
+		synchronized (mControlSync) {
+		   int result = 0;
+		   if (mNativePtr != 0) {
+			   nativeUpdateWhiteBlanceLimit(mNativePtr);
+			   final float range = Math.abs(mWhiteBlanceMax - mWhiteBlanceMin);
+			   if (range > 0) {
+				   result = (int)((whiteBlance_abs - mWhiteBlanceMin) * 100.f / range);
+			   }
 		   }
-	   }
-	   return result;
+		   return result;
+		}
 	}
 
     /**
      * @return white blance[%]
      */
-	public synchronized int getWhiteBlance() {
-    	return getFocus(nativeGetWhiteBlance(mNativePtr));
+	public int getWhiteBlance() {
+		synchronized (mControlSync) {
+	    	return getFocus(nativeGetWhiteBlance(mNativePtr));
+		}
     }
 
-	public synchronized void resetWhiteBlance() {
-    	if (mNativePtr != 0) {
-    		nativeSetWhiteBlance(mNativePtr, mWhiteBlanceDef);
-    	}
+	public void resetWhiteBlance() {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	    		nativeSetWhiteBlance(mNativePtr, mWhiteBlanceDef);
+	    	}
+		}
     }
 //================================================================================
     /**
      * @param brightness [%]
      */
-	public synchronized void setBrightness(final int brightness) {
-    	if (mNativePtr != 0) {
- 		   final float range = Math.abs(mBrightnessMax - mBrightnessMin);
- 		   if (range > 0)
- 			   nativeSetBrightness(mNativePtr, (int)(brightness / 100.f * range) + mBrightnessMin);
-    	}
+	public void setBrightness(final int brightness) {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	 		   final float range = Math.abs(mBrightnessMax - mBrightnessMin);
+	 		   if (range > 0)
+	 			   nativeSetBrightness(mNativePtr, (int)(brightness / 100.f * range) + mBrightnessMin);
+	    	}
+		}
     }
 
     /**
      * @param brightness_abs
      * @return brightness[%]
      */
-	public synchronized int getBrightness(final int brightness_abs) {
-	   int result = 0;
-	   if (mNativePtr != 0) {
-		   nativeUpdateBrightnessLimit(mNativePtr);
-		   final float range = Math.abs(mBrightnessMax - mBrightnessMin);
-		   if (range > 0) {
-			   result = (int)((brightness_abs - mBrightnessMin) * 100.f / range);
+	public int getBrightness(final int brightness_abs) {
+		synchronized (mControlSync) {
+		   int result = 0;
+		   if (mNativePtr != 0) {
+			   nativeUpdateBrightnessLimit(mNativePtr);
+			   final float range = Math.abs(mBrightnessMax - mBrightnessMin);
+			   if (range > 0) {
+				   result = (int)((brightness_abs - mBrightnessMin) * 100.f / range);
+			   }
 		   }
-	   }
-	   return result;
+		   return result;
+		}
 	}
 
     /**
      * @return brightness[%]
      */
-	public synchronized int getBrightness() {
-    	return getBrightness(nativeGetBrightness(mNativePtr));
+	public int getBrightness() {
+		synchronized (mControlSync) {
+	    	return getBrightness(nativeGetBrightness(mNativePtr));
+		}
     }
 
-	public synchronized void resetBrightness() {
-    	if (mNativePtr != 0) {
-    		nativeSetBrightness(mNativePtr, mBrightnessDef);
-    	}
+	public void resetBrightness() {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	    		nativeSetBrightness(mNativePtr, mBrightnessDef);
+	    	}
+		}
     }
 
 //================================================================================
     /**
      * @param contrast [%]
      */
-	public synchronized void setContrast(final int contrast) {
-    	if (mNativePtr != 0) {
-    		nativeUpdateContrastLimit(mNativePtr);
-	    	final float range = Math.abs(mContrastMax - mContrastMin);
-	    	if (range > 0)
-	    		nativeSetContrast(mNativePtr, (int)(contrast / 100.f * range) + mContrastMin);
-    	}
+	public void setContrast(final int contrast) {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	    		nativeUpdateContrastLimit(mNativePtr);
+		    	final float range = Math.abs(mContrastMax - mContrastMin);
+		    	if (range > 0)
+		    		nativeSetContrast(mNativePtr, (int)(contrast / 100.f * range) + mContrastMin);
+	    	}
+		}
     }
 
     /**
      * @param contrast_abs
      * @return contrast[%]
      */
-	public synchronized int getContrast(final int contrast_abs) {
-	   int result = 0;
-	   if (mNativePtr != 0) {
-		   final float range = Math.abs(mContrastMax - mContrastMin);
-		   if (range > 0) {
-			   result = (int)((contrast_abs - mContrastMin) * 100.f / range);
+	public int getContrast(final int contrast_abs) {
+		synchronized (mControlSync) {
+		   int result = 0;
+		   if (mNativePtr != 0) {
+			   final float range = Math.abs(mContrastMax - mContrastMin);
+			   if (range > 0) {
+				   result = (int)((contrast_abs - mContrastMin) * 100.f / range);
+			   }
 		   }
-	   }
-	   return result;
+		   return result;
+		}
 	}
 
     /**
      * @return contrast[%]
      */
-	public synchronized int getContrast() {
-    	return getContrast(nativeGetContrast(mNativePtr));
+	public int getContrast() {
+		synchronized (mControlSync) {
+	    	return getContrast(nativeGetContrast(mNativePtr));
+		}
     }
 
-	public synchronized void resetContrast() {
-    	if (mNativePtr != 0) {
-    		nativeSetContrast(mNativePtr, mContrastDef);
-    	}
+	public void resetContrast() {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	    		nativeSetContrast(mNativePtr, mContrastDef);
+	    	}
+		}
     }
 
 //================================================================================
     /**
      * @param sharpness [%]
      */
-	public synchronized void setSharpness(final int sharpness) {
-    	if (mNativePtr != 0) {
- 		   final float range = Math.abs(mSharpnessMax - mSharpnessMin);
- 		   if (range > 0)
- 			   nativeSetSharpness(mNativePtr, (int)(sharpness / 100.f * range) + mSharpnessMin);
-    	}
+	public void setSharpness(final int sharpness) {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	 		   final float range = Math.abs(mSharpnessMax - mSharpnessMin);
+	 		   if (range > 0)
+	 			   nativeSetSharpness(mNativePtr, (int)(sharpness / 100.f * range) + mSharpnessMin);
+	    	}
+		}
     }
 
     /**
      * @param sharpness_abs
      * @return sharpness[%]
      */
-	public synchronized int getSharpness(final int sharpness_abs) {
-	   int result = 0;
-	   if (mNativePtr != 0) {
-		   nativeUpdateSharpnessLimit(mNativePtr);
-		   final float range = Math.abs(mSharpnessMax - mSharpnessMin);
-		   if (range > 0) {
-			   result = (int)((sharpness_abs - mSharpnessMin) * 100.f / range);
+	public int getSharpness(final int sharpness_abs) {
+		synchronized (mControlSync) {
+		   int result = 0;
+		   if (mNativePtr != 0) {
+			   nativeUpdateSharpnessLimit(mNativePtr);
+			   final float range = Math.abs(mSharpnessMax - mSharpnessMin);
+			   if (range > 0) {
+				   result = (int)((sharpness_abs - mSharpnessMin) * 100.f / range);
+			   }
 		   }
-	   }
-	   return result;
+		   return result;
+		}
 	}
 
     /**
      * @return sharpness[%]
      */
-	public synchronized int getSharpness() {
-    	return getSharpness(nativeGetSharpness(mNativePtr));
+	public int getSharpness() {
+		synchronized (mControlSync) {
+	    	return getSharpness(nativeGetSharpness(mNativePtr));
+		}
     }
 
-	public synchronized void resetSharpness() {
-    	if (mNativePtr != 0) {
-    		nativeSetSharpness(mNativePtr, mSharpnessDef);
-    	}
+	public void resetSharpness() {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	    		nativeSetSharpness(mNativePtr, mSharpnessDef);
+	    	}
+		}
     }
 //================================================================================
     /**
      * @param gain [%]
      */
-	public synchronized void setGain(final int gain) {
-    	if (mNativePtr != 0) {
- 		   final float range = Math.abs(mGainMax - mGainMin);
- 		   if (range > 0)
- 			   nativeSetGain(mNativePtr, (int)(gain / 100.f * range) + mGainMin);
-    	}
+	public void setGain(final int gain) {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	 		   final float range = Math.abs(mGainMax - mGainMin);
+	 		   if (range > 0)
+	 			   nativeSetGain(mNativePtr, (int)(gain / 100.f * range) + mGainMin);
+	    	}
+		}
     }
 
     /**
      * @param gain_abs
      * @return gain[%]
      */
-	public synchronized int getGain(final int gain_abs) {
-	   int result = 0;
-	   if (mNativePtr != 0) {
-		   nativeUpdateGainLimit(mNativePtr);
-		   final float range = Math.abs(mGainMax - mGainMin);
-		   if (range > 0) {
-			   result = (int)((gain_abs - mGainMin) * 100.f / range);
+	public int getGain(final int gain_abs) {
+		synchronized (mControlSync) {
+		   int result = 0;
+		   if (mNativePtr != 0) {
+			   nativeUpdateGainLimit(mNativePtr);
+			   final float range = Math.abs(mGainMax - mGainMin);
+			   if (range > 0) {
+				   result = (int)((gain_abs - mGainMin) * 100.f / range);
+			   }
 		   }
-	   }
-	   return result;
+		   return result;
+		}
 	}
 
     /**
      * @return gain[%]
      */
-	public synchronized int getGain() {
-    	return getGain(nativeGetGain(mNativePtr));
+	public int getGain() {
+		synchronized (mControlSync) {
+	    	return getGain(nativeGetGain(mNativePtr));
+		}
     }
 
-	public synchronized void resetGain() {
-    	if (mNativePtr != 0) {
-    		nativeSetGain(mNativePtr, mGainDef);
-    	}
+	public void resetGain() {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	    		nativeSetGain(mNativePtr, mGainDef);
+	    	}
+		}
     }
 
 //================================================================================
     /**
      * @param gamma [%]
      */
-	public synchronized void setGamma(final int gamma) {
-    	if (mNativePtr != 0) {
- 		   final float range = Math.abs(mGammaMax - mGammaMin);
- 		   if (range > 0)
- 			   nativeSetGamma(mNativePtr, (int)(gamma / 100.f * range) + mGammaMin);
-    	}
+	public void setGamma(final int gamma) {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	 		   final float range = Math.abs(mGammaMax - mGammaMin);
+	 		   if (range > 0)
+	 			   nativeSetGamma(mNativePtr, (int)(gamma / 100.f * range) + mGammaMin);
+	    	}
+		}
     }
 
     /**
      * @param gamma_abs
      * @return gamma[%]
      */
-	public synchronized int getGamma(final int gamma_abs) {
-	   int result = 0;
-	   if (mNativePtr != 0) {
-		   nativeUpdateGammaLimit(mNativePtr);
-		   final float range = Math.abs(mGammaMax - mGammaMin);
-		   if (range > 0) {
-			   result = (int)((gamma_abs - mGammaMin) * 100.f / range);
+	public int getGamma(final int gamma_abs) {
+		synchronized (mControlSync) {
+		   int result = 0;
+		   if (mNativePtr != 0) {
+			   nativeUpdateGammaLimit(mNativePtr);
+			   final float range = Math.abs(mGammaMax - mGammaMin);
+			   if (range > 0) {
+				   result = (int)((gamma_abs - mGammaMin) * 100.f / range);
+			   }
 		   }
-	   }
-	   return result;
+		   return result;
+		}
 	}
 
     /**
      * @return gamma[%]
      */
-	public synchronized int getGamma() {
-    	return getGamma(nativeGetGamma(mNativePtr));
+	public int getGamma() {
+		synchronized (mControlSync) {
+	    	return getGamma(nativeGetGamma(mNativePtr));
+		}
     }
 
-	public synchronized void resetGamma() {
-    	if (mNativePtr != 0) {
-    		nativeSetGamma(mNativePtr, mGammaDef);
-    	}
+	public void resetGamma() {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	    		nativeSetGamma(mNativePtr, mGammaDef);
+	    	}
+		}
     }
 
 //================================================================================
     /**
      * @param saturation [%]
      */
-	public synchronized void setSaturation(final int saturation) {
-    	if (mNativePtr != 0) {
- 		   final float range = Math.abs(mSaturationMax - mSaturationMin);
- 		   if (range > 0)
- 			   nativeSetSaturation(mNativePtr, (int)(saturation / 100.f * range) + mSaturationMin);
-    	}
+	public void setSaturation(final int saturation) {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	 		   final float range = Math.abs(mSaturationMax - mSaturationMin);
+	 		   if (range > 0)
+	 			   nativeSetSaturation(mNativePtr, (int)(saturation / 100.f * range) + mSaturationMin);
+	    	}
+		}
     }
 
     /**
      * @param saturation_abs
      * @return saturation[%]
      */
-	public synchronized int getSaturation(final int saturation_abs) {
-	   int result = 0;
-	   if (mNativePtr != 0) {
-		   nativeUpdateSaturationLimit(mNativePtr);
-		   final float range = Math.abs(mSaturationMax - mSaturationMin);
-		   if (range > 0) {
-			   result = (int)((saturation_abs - mSaturationMin) * 100.f / range);
+	public int getSaturation(final int saturation_abs) {
+		synchronized (mControlSync) {
+		   int result = 0;
+		   if (mNativePtr != 0) {
+			   nativeUpdateSaturationLimit(mNativePtr);
+			   final float range = Math.abs(mSaturationMax - mSaturationMin);
+			   if (range > 0) {
+				   result = (int)((saturation_abs - mSaturationMin) * 100.f / range);
+			   }
 		   }
-	   }
-	   return result;
+		   return result;
+		}
 	}
 
     /**
      * @return saturation[%]
      */
-	public synchronized int getSaturation() {
-    	return getSaturation(nativeGetSaturation(mNativePtr));
+	public int getSaturation() {
+		synchronized (mControlSync) {
+	    	return getSaturation(nativeGetSaturation(mNativePtr));
+		}
     }
 
-	public synchronized void resetSaturation() {
-    	if (mNativePtr != 0) {
-    		nativeSetSaturation(mNativePtr, mSaturationDef);
-    	}
+	public void resetSaturation() {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	    		nativeSetSaturation(mNativePtr, mSaturationDef);
+	    	}
+		}
     }
 //================================================================================
     /**
      * @param hue [%]
      */
-	public synchronized void setHue(final int hue) {
-    	if (mNativePtr != 0) {
- 		   final float range = Math.abs(mHueMax - mHueMin);
- 		   if (range > 0)
- 			   nativeSetHue(mNativePtr, (int)(hue / 100.f * range) + mHueMin);
-    	}
+	public void setHue(final int hue) {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	 		   final float range = Math.abs(mHueMax - mHueMin);
+	 		   if (range > 0)
+	 			   nativeSetHue(mNativePtr, (int)(hue / 100.f * range) + mHueMin);
+	    	}
+		}
     }
 
     /**
      * @param hue_abs
      * @return hue[%]
      */
-	public synchronized int getHue(final int hue_abs) {
-	   int result = 0;
-	   if (mNativePtr != 0) {
-		   nativeUpdateHueLimit(mNativePtr);
-		   final float range = Math.abs(mHueMax - mHueMin);
-		   if (range > 0) {
-			   result = (int)((hue_abs - mHueMin) * 100.f / range);
+	public int getHue(final int hue_abs) {
+		synchronized (mControlSync) {
+		   int result = 0;
+		   if (mNativePtr != 0) {
+			   nativeUpdateHueLimit(mNativePtr);
+			   final float range = Math.abs(mHueMax - mHueMin);
+			   if (range > 0) {
+				   result = (int)((hue_abs - mHueMin) * 100.f / range);
+			   }
 		   }
-	   }
-	   return result;
+		   return result;
+		}
 	}
 
     /**
      * @return hue[%]
      */
-	public synchronized int getHue() {
-    	return getHue(nativeGetHue(mNativePtr));
+	public int getHue() {
+		synchronized (mControlSync) {
+	    	return getHue(nativeGetHue(mNativePtr));
+		}
     }
 
-	public synchronized void resetHue() {
-    	if (mNativePtr != 0) {
-    		nativeSetHue(mNativePtr, mSaturationDef);
-    	}
+	public void resetHue() {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	    		nativeSetHue(mNativePtr, mSaturationDef);
+	    	}
+		}
     }
 
 //================================================================================
@@ -861,86 +1172,163 @@ public class UVCCamera {
      * this may not work well with some combination of camera and device
      * @param zoom [%]
      */
-	public synchronized void setZoom(final int zoom) {
-    	if (mNativePtr != 0) {
- 		   final float range = Math.abs(mZoomMax - mZoomMin);
- 		   if (range > 0) {
- 			   final int z = (int)(zoom / 100.f * range) + mZoomMin;
-// 			   Log.d(TAG, "setZoom:zoom=" + zoom + " ,value=" + z);
- 			   nativeSetZoom(mNativePtr, z);
- 		   }
-    	}
+	public void setZoom(final int zoom) {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	 		   final float range = Math.abs(mZoomMax - mZoomMin);
+	 		   if (range > 0) {
+	 			   final int z = (int)(zoom / 100.f * range) + mZoomMin;
+	// 			   Log.d(TAG, "setZoom:zoom=" + zoom + " ,value=" + z);
+	 			   nativeSetZoom(mNativePtr, z);
+	 		   }
+	    	}
+		}
     }
 
     /**
      * @param zoom_abs
      * @return zoom[%]
      */
-	public synchronized int getZoom(final int zoom_abs) {
-	   int result = 0;
-	   if (mNativePtr != 0) {
-		   nativeUpdateZoomLimit(mNativePtr);
-		   final float range = Math.abs(mZoomMax - mZoomMin);
-		   if (range > 0) {
-			   result = (int)((zoom_abs - mZoomMin) * 100.f / range);
+	public int getZoom(final int zoom_abs) {
+		synchronized (mControlSync) {
+		   int result = 0;
+		   if (mNativePtr != 0) {
+			   nativeUpdateZoomLimit(mNativePtr);
+			   final float range = Math.abs(mZoomMax - mZoomMin);
+			   if (range > 0) {
+				   result = (int)((zoom_abs - mZoomMin) * 100.f / range);
+			   }
 		   }
-	   }
-	   return result;
+		   return result;
+		}
 	}
 
     /**
      * @return zoom[%]
      */
-	public synchronized int getZoom() {
-    	return getZoom(nativeGetZoom(mNativePtr));
+	public int getZoom() {
+		synchronized (mControlSync) {
+	    	return getZoom(nativeGetZoom(mNativePtr));
+		}
     }
 
-	public synchronized void resetZoom() {
-    	if (mNativePtr != 0) {
-    		nativeSetZoom(mNativePtr, mZoomDef);
-    	}
+	public void resetZoom() {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	    		nativeSetZoom(mNativePtr, mZoomDef);
+	    	}
+		}
     }
 
 //================================================================================
-	public synchronized void updateCameraParams() {
-    	if (mNativePtr != 0) {
-    		if ((mControlSupports == 0) || (mProcSupports == 0)) {
-        		// サポートしている機能フラグを取得
-    			if (mControlSupports == 0)
-    				mControlSupports = nativeGetCtrlSupports(mNativePtr);
-    			if (mProcSupports == 0)
-    				mProcSupports = nativeGetProcSupports(mNativePtr);
-    	    	// 設定値を取得
-    	    	if ((mControlSupports != 0) && (mProcSupports != 0)) {
-	    	    	nativeUpdateBrightnessLimit(mNativePtr);
-	    	    	nativeUpdateContrastLimit(mNativePtr);
-	    	    	nativeUpdateSharpnessLimit(mNativePtr);
-	    	    	nativeUpdateGainLimit(mNativePtr);
-	    	    	nativeUpdateGammaLimit(mNativePtr);
-	    	    	nativeUpdateSaturationLimit(mNativePtr);
-	    	    	nativeUpdateHueLimit(mNativePtr);
-	    	    	nativeUpdateZoomLimit(mNativePtr);
-	    	    	nativeUpdateWhiteBlanceLimit(mNativePtr);
-	    	    	nativeUpdateFocusLimit(mNativePtr);
-    	    	}
-    	    	if (DEBUG) {
-					dumpControls(mControlSupports);
-					dumpProc(mProcSupports);
-					Log.v(TAG, String.format("Brightness:min=%d,max=%d,def=%d", mBrightnessMin, mBrightnessMax, mBrightnessDef));
-					Log.v(TAG, String.format("Contrast:min=%d,max=%d,def=%d", mContrastMin, mContrastMax, mContrastDef));
-					Log.v(TAG, String.format("Sharpness:min=%d,max=%d,def=%d", mSharpnessMin, mSharpnessMax, mSharpnessDef));
-					Log.v(TAG, String.format("Gain:min=%d,max=%d,def=%d", mGainMin, mGainMax, mGainDef));
-					Log.v(TAG, String.format("Gamma:min=%d,max=%d,def=%d", mGammaMin, mGammaMax, mGammaDef));
-					Log.v(TAG, String.format("Saturation:min=%d,max=%d,def=%d", mSaturationMin, mSaturationMax, mSaturationDef));
-					Log.v(TAG, String.format("Hue:min=%d,max=%d,def=%d", mHueMin, mHueMax, mHueDef));
-					Log.v(TAG, String.format("Zoom:min=%d,max=%d,def=%d", mZoomMin, mZoomMax, mZoomDef));
-					Log.v(TAG, String.format("WhiteBlance:min=%d,max=%d,def=%d", mWhiteBlanceMin, mWhiteBlanceMax, mWhiteBlanceDef));
-					Log.v(TAG, String.format("Focus:min=%d,max=%d,def=%d", mFocusMin, mFocusMax, mFocusDef));
+	public void updateCameraParams() {
+		synchronized (mControlSync) {
+	    	if (mNativePtr != 0) {
+	    		if ((mControlSupports == 0) || (mProcSupports == 0)) {
+	        		// サポートしている機能フラグを取得
+	    			if (mControlSupports == 0)
+	    				mControlSupports = nativeGetCtrlSupports(mNativePtr);
+	    			if (mProcSupports == 0)
+	    				mProcSupports = nativeGetProcSupports(mNativePtr);
+	    	    	// 設定値を取得
+	    	    	if ((mControlSupports != 0) && (mProcSupports != 0)) {
+		    	    	nativeUpdateBrightnessLimit(mNativePtr);
+		    	    	nativeUpdateContrastLimit(mNativePtr);
+		    	    	nativeUpdateSharpnessLimit(mNativePtr);
+		    	    	nativeUpdateGainLimit(mNativePtr);
+		    	    	nativeUpdateGammaLimit(mNativePtr);
+		    	    	nativeUpdateSaturationLimit(mNativePtr);
+		    	    	nativeUpdateHueLimit(mNativePtr);
+		    	    	nativeUpdateZoomLimit(mNativePtr);
+		    	    	nativeUpdateWhiteBlanceLimit(mNativePtr);
+		    	    	nativeUpdateFocusLimit(mNativePtr);
+	    	    	}
+	    	    	if (DEBUG) {
+						dumpControls(mControlSupports);
+						dumpProc(mProcSupports);
+						Log.v(TAG, String.format("Brightness:min=%d,max=%d,def=%d", mBrightnessMin, mBrightnessMax, mBrightnessDef));
+						Log.v(TAG, String.format("Contrast:min=%d,max=%d,def=%d", mContrastMin, mContrastMax, mContrastDef));
+						Log.v(TAG, String.format("Sharpness:min=%d,max=%d,def=%d", mSharpnessMin, mSharpnessMax, mSharpnessDef));
+						Log.v(TAG, String.format("Gain:min=%d,max=%d,def=%d", mGainMin, mGainMax, mGainDef));
+						Log.v(TAG, String.format("Gamma:min=%d,max=%d,def=%d", mGammaMin, mGammaMax, mGammaDef));
+						Log.v(TAG, String.format("Saturation:min=%d,max=%d,def=%d", mSaturationMin, mSaturationMax, mSaturationDef));
+						Log.v(TAG, String.format("Hue:min=%d,max=%d,def=%d", mHueMin, mHueMax, mHueDef));
+						Log.v(TAG, String.format("Zoom:min=%d,max=%d,def=%d", mZoomMin, mZoomMax, mZoomDef));
+						Log.v(TAG, String.format("WhiteBlance:min=%d,max=%d,def=%d", mWhiteBlanceMin, mWhiteBlanceMax, mWhiteBlanceDef));
+						Log.v(TAG, String.format("Focus:min=%d,max=%d,def=%d", mFocusMin, mFocusMax, mFocusDef));
+					}
 				}
-			}
-    	} else {
-    		mControlSupports = mProcSupports = 0;
+	    	} else {
+	    		mControlSupports = mProcSupports = 0;
+	    	}
+		}
+    }
+
+//================================================================================
+    /**
+     * get current values of multiple controls at once.
+     * min/max/default values of controls are read from the camera only once after connecting
+     * (and after receiving INFO_CHANGE status of controls) and cached on native side.
+     * @param ids CTRL_XXX or PU_XXX, CTRL_PANTILT_XXX, CTRL_ROLL_REL, CTRL_FOCUS_SIMPLE and CTRL_WINDOW are not supported
+     * @return absolute values of controls, 0 for unsupported controls
+     */
+    public int[] getControls(final int[] ids) {
+    	if (ids == null)
+    		throw new IllegalArgumentException("ids should not be null");
+    	final int[] result = new int[ids.length];
+    	synchronized (mControlSync) {
+    		if (mNativePtr != 0) {
+    			nativeGetControls(mNativePtr, ids, result);
+    		}
     	}
+    	return result;
+    }
+
+    /**
+     * set absolute values of multiple controls at once.
+     * the values are clamped with min/max values of each control
+     * @param ids CTRL_XXX or PU_XXX, see #getControls
+     * @param values
+     * @return number of controls that are set successfully
+     */
+    public int setControls(final int[] ids, final int[] values) {
+    	return setControls(ids, values, null);
+    }
+
+    /**
+     * set absolute values of multiple controls at once.
+     * the values are clamped with min/max values of each control
+     * @param ids CTRL_XXX or PU_XXX, see #getControls
+     * @param values
+     * @param results nullable, receives result of each control, 0 when succeeded, negative value(error code of libuvc) otherwise
+     * @return number of controls that are set successfully
+     */
+    public int setControls(final int[] ids, final int[] values, final int[] results) {
+    	if ((ids == null) || (values == null) || (values.length < ids.length)
+    		|| ((results != null) && (results.length < ids.length)))
+    		throw new IllegalArgumentException("invalid ids or values");
+    	int result = 0;
+    	synchronized (mControlSync) {
+    		if (mNativePtr != 0) {
+    			result = nativeSetControls(mNativePtr, ids, values, results);
+    		}
+    	}
+    	return result;
+    }
+
+    /**
+     * get min/max/default values and resolution of the control
+     * @param id CTRL_XXX or PU_XXX, see #getControls
+     * @return array of {min, max, def, res}, null if the control is not supported
+     */
+    public int[] getControlLimit(final int id) {
+    	final int[] result = new int[4];
+    	synchronized (mControlSync) {
+    		if ((mNativePtr != 0) && (nativeGetControlLimit(mNativePtr, id, result) == 0)) {
+    			return result;
+    		}
+    	}
+    	return null;
     }
 
     private static final String[] SUPPORTS_CTRL = {
@@ -1032,18 +1420,20 @@ public class UVCCamera {
     private final native long nativeCreate();
     private final native void nativeDestroy(final long id_camera);
 
-    private final native int nativeConnect(long id_camera, int venderId, int productId, int fileDescriptor, int busNum, int devAddr, String usbfs);
+    private final native int nativeConnect(long id_camera, int venderId, int productId, int fileDescriptor, int busNum, int devAddr, String usbfs, boolean sharedContext);
     private static final native int nativeRelease(final long id_camera);
 
 	private static final native int nativeSetStatusCallback(final long mNativePtr, final IStatusCallback callback);
 	private static final native int nativeSetButtonCallback(final long mNativePtr, final IButtonCallback callback);
 
-    private static final native int nativeSetPreviewSize(final long id_camera, final int width, final int height, final int min_fps, final int max_fps, final int mode, final float bandwidth);
+    private static final native int nativeSetPreviewSize(final long id_camera, final int width, final int height, final int min_fps, final int max_fps, final int mode, final float bandwidth, final boolean zeroCopy);
     private static final native String nativeGetSupportedSize(final long id_camera);
+    private static final native int[] nativeGetSupportedFormats(final long id_camera);
     private static final native int nativeStartPreview(final long id_camera);
     private static final native int nativeStopPreview(final long id_camera);
     private static final native int nativeSetPreviewDisplay(final long id_camera, final Surface surface);
     private static final native int nativeSetFrameCallback(final long mNativePtr, final IFrameCallback callback, final int pixelFormat);
+    private static final native int nativeSetFrameBatchCallback(final long mNativePtr, final IFrameBatchCallback callback, final ByteBuffer[] buffers, final LongBuffer metadata, final int pixelFormat);
 
 //**********************************************************************
     /**
@@ -1067,8 +1457,185 @@ public class UVCCamera {
     }
     private static final native int nativeSetCaptureDisplay(final long id_camera, final Surface surface);
 
+//**********************************************************************
+    /**
+     * set the configuration of the frame pool that is used while previewing.
+     * this is applied when the preview starts next time
+     * @param poolSize maximum number of frames kept in the pool, [1, MAX_FRAME_POOL_SIZE]
+     * @param frameBytes capacity of each pooled frame in bytes, 0 means frames are allocated on demand
+     */
+    public synchronized void setFramePoolConfig(final int poolSize, final int frameBytes) {
+    	if ((poolSize < 1) || (poolSize > MAX_FRAME_POOL_SIZE) || (frameBytes < 0))
+    		throw new IllegalArgumentException("invalid frame pool config");
+    	if (mNativePtr != 0) {
+    		nativeSetFramePoolConfig(mNativePtr, poolSize, frameBytes);
+    	}
+    }
+
+    /**
+     * get statistics of the frame pool
+     * @return array of FRAME_POOL_STATS_NUM counters, use FRAME_POOL_STATS_XXX as its index
+     */
+    public synchronized long[] getFramePoolStats() {
+    	final long[] result = new long[FRAME_POOL_STATS_NUM];
+    	if (mNativePtr != 0) {
+    		nativeGetFramePoolStats(mNativePtr, result);
+    	}
+    	return result;
+    }
+    private static final native int nativeSetFramePoolConfig(final long id_camera, final int poolSize, final int frameBytes);
+    private static final native int nativeGetFramePoolStats(final long id_camera, final long[] stats);
+
+    /**
+     * set the number of worker threads that decode MJPEG frames while previewing.
+     * the decoded frames are delivered in the order they were received.
+     * this is applied when the preview starts next time
+     * @param numWorkers [0, MAX_DECODE_WORKERS], 0 means decoding on the preview thread
+     */
+    public synchronized void setDecodeWorkers(final int numWorkers) {
+    	if ((numWorkers < 0) || (numWorkers > MAX_DECODE_WORKERS))
+    		throw new IllegalArgumentException("invalid number of decode workers");
+    	if (mNativePtr != 0) {
+    		nativeSetDecodeWorkers(mNativePtr, numWorkers);
+    	}
+    }
+    private static final native int nativeSetDecodeWorkers(final long id_camera, final int numWorkers);
+
+    /**
+     * set the payload size per (micro)frame that is reserved on the bus,
+     * the smallest altsetting whose packet size is equal or larger than this value is selected.
+     * this overrides bandwidth factor of #setPreviewSize and is applied when the preview starts next time
+     * @param bytesPerPacket 0 means using bandwidth factor
+     */
+    public synchronized void setMaxPayloadSize(final int bytesPerPacket) {
+    	if (bytesPerPacket < 0)
+    		throw new IllegalArgumentException("invalid payload size");
+    	if (mNativePtr != 0) {
+    		nativeSetMaxPayloadSize(mNativePtr, bytesPerPacket);
+    	}
+    }
+    private static final native int nativeSetMaxPayloadSize(final long id_camera, final int bytesPerPacket);
+
+    /**
+     * get packet sizes of altsettings of the streaming interface
+     * [0]=device speed(UVCBandwidthPlanner.SPEED_XXX), [1]=number of altsettings,
+     * then the max bytes per (micro)frame of each altsetting(0 for bulk transfer)
+     * @return null if camera is not opened
+     */
+    public synchronized int[] getStreamingAltSettings() {
+    	return mNativePtr != 0 ? nativeGetStreamingAltSettings(mNativePtr) : null;
+    }
+    private static final native int[] nativeGetStreamingAltSettings(final long id_camera);
+
+    /**
+     * set the number and the size of USB transfers, this is applied when the preview starts next time.
+     * more transfers in flight tolerate longer scheduling delays at the cost of memory and latency
+     * @param numTransfers number of transfers submitted at once [1, MAX_TRANSFERS], 0 means default(10)
+     * @param packetsPerTransfer isochronous packets per transfer [1, MAX_PACKETS_PER_TRANSFER],
+     * 0 means one frame but at most 32 packets
+     * @param bulkTransferSize bytes per bulk transfer, 0 means dwMaxPayloadTransferSize of the camera
+     * @throws IllegalArgumentException if the native side rejected the config e.g. the camera is not opened
+     */
+    public synchronized void setTransferConfig(final int numTransfers, final int packetsPerTransfer, final int bulkTransferSize) {
+    	if ((numTransfers < 0) || (numTransfers > MAX_TRANSFERS)
+    		|| (packetsPerTransfer < 0) || (packetsPerTransfer > MAX_PACKETS_PER_TRANSFER)
+    		|| (bulkTransferSize < 0))
+    		throw new IllegalArgumentException("invalid transfer config");
+    	if (mNativePtr != 0) {
+    		final int result = nativeSetTransferConfig(mNativePtr, numTransfers, packetsPerTransfer, bulkTransferSize);
+    		if (result != 0)
+    			throw new IllegalArgumentException("Failed to set transfer config:result=" + result);
+    	}
+    }
+    private static final native int nativeSetTransferConfig(final long id_camera, final int numTransfers, final int packetsPerTransfer, final int bulkTransferSize);
+
+    /**
+     * get counters of USB transfers of the current stream, or of the last stream if the preview is not running.
+     * the counters are cleared when the preview starts
+     * @return array of TRANSFER_STATS_NUM counters, use TRANSFER_STATS_XXX as its index
+     */
+    public synchronized long[] getTransferStats() {
+    	final long[] result = new long[TRANSFER_STATS_NUM];
+    	if (mNativePtr != 0) {
+    		nativeGetTransferStats(mNativePtr, result);
+    	}
+    	return result;
+    }
+    private static final native int nativeGetTransferStats(final long id_camera, final long[] stats);
+
+    /**
+     * apply the assignment that was planned by UVCBandwidthPlanner,
+     * this should be called before starting preview
+     * @param assignment
+     */
+    public synchronized void applyBandwidthPlan(final UVCBandwidthPlanner.Assignment assignment) {
+    	setPreviewSize(assignment.width, assignment.height, assignment.fps, assignment.fps,
+    		assignment.frameFormat, DEFAULT_BANDWIDTH);
+    	setMaxPayloadSize(assignment.bytesPerPacket);
+    }
+
+    /**
+     * set the policy of the frame queue between stages, this is applied immediately
+     * and the statistics of the queue are cleared.
+     * default policies are QUEUE_POLICY_DROP_NEWEST(depth=4) for QUEUE_PREVIEW,
+     * QUEUE_POLICY_DROP_OLDEST(depth=1, only latest frame) for QUEUE_CAPTURE
+     * and QUEUE_POLICY_DROP_OLDEST(depth=4) for QUEUE_DECODE
+     * @param queue QUEUE_PREVIEW/QUEUE_CAPTURE/QUEUE_DECODE
+     * @param policy QUEUE_POLICY_DROP_NEWEST: drop the incoming frame when the queue is full,
+     * QUEUE_POLICY_DROP_OLDEST: drop the oldest frame in the queue when the queue is full,
+     * QUEUE_POLICY_DECIMATE: drop every param-th frame, and drop the incoming frame when the queue is full,
+     * QUEUE_POLICY_BLOCK: block the producer up to param milliseconds when the queue is full, then drop the incoming frame
+     * @param depth maximum number of frames in the queue, [1, MAX_QUEUE_DEPTH]
+     * @param param decimation interval(>=2) for QUEUE_POLICY_DECIMATE,
+     * timeout in milliseconds [0, MAX_QUEUE_BLOCK_MS] for QUEUE_POLICY_BLOCK, otherwise ignored
+     */
+    public synchronized void setQueuePolicy(final int queue, final int policy, final int depth, final int param) {
+    	if ((queue < QUEUE_PREVIEW) || (queue > QUEUE_DECODE)
+    		|| (policy < QUEUE_POLICY_DROP_NEWEST) || (policy > QUEUE_POLICY_BLOCK)
+    		|| (depth < 1) || (depth > MAX_QUEUE_DEPTH)
+    		|| ((policy == QUEUE_POLICY_DECIMATE) && (param < 2))
+    		|| ((policy == QUEUE_POLICY_BLOCK) && ((param < 0) || (param > MAX_QUEUE_BLOCK_MS))))
+    		throw new IllegalArgumentException("invalid queue policy");
+    	if (mNativePtr != 0) {
+    		nativeSetQueuePolicy(mNativePtr, queue, policy, depth, param);
+    	}
+    }
+
+    /**
+     * get statistics of the frame queue
+     * @param queue QUEUE_PREVIEW/QUEUE_CAPTURE/QUEUE_DECODE
+     * @return array of QUEUE_STATS_NUM counters, use QUEUE_STATS_XXX as its index
+     */
+    public synchronized long[] getQueueStats(final int queue) {
+    	if ((queue < QUEUE_PREVIEW) || (queue > QUEUE_DECODE))
+    		throw new IllegalArgumentException("invalid queue");
+    	final long[] result = new long[QUEUE_STATS_NUM];
+    	if (mNativePtr != 0) {
+    		nativeGetQueueStats(mNativePtr, queue, result);
+    	}
+    	return result;
+    }
+    /**
+     * set the pipeline that receives all frames from the camera
+     * the pipeline is not owned by this instance, detach it(set null) before releasing the pipeline
+     * @param pipeline null to detach current pipeline
+     * @see UVCPipeline
+     */
+    public synchronized void setPipeline(final IPipeline pipeline) {
+    	if (mNativePtr != 0) {
+    		nativeSetPipeline(mNativePtr, pipeline);
+    	}
+    }
+
+    private static final native int nativeSetQueuePolicy(final long id_camera, final int queue, final int policy, final int depth, final int param);
+    private static final native int nativeGetQueueStats(final long id_camera, final int queue, final long[] stats);
+    private static final native int nativeSetPipeline(final long id_camera, final IPipeline pipeline);
+
     private static final native long nativeGetCtrlSupports(final long id_camera);
     private static final native long nativeGetProcSupports(final long id_camera);
+    private static final native int nativeGetControls(final long id_camera, final int[] ids, final int[] values);
+    private static final native int nativeSetControls(final long id_camera, final int[] ids, final int[] values, final int[] results);
+    private static final native int nativeGetControlLimit(final long id_camera, final int id, final int[] limit);
 
     private final native int nativeUpdateScanningModeLimit(final long id_camera);
     private static final native int nativeSetScanningMode(final long id_camera, final int scanning_mode);
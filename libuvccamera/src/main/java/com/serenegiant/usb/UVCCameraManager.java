@@ -0,0 +1,305 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+
+package com.serenegiant.usb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+import com.serenegiant.usb.USBMonitor.UsbControlBlock;
+
+/**
+ * open/start multiple UVC cameras concurrently.
+ * all cameras opened by this class share one libusb context and one USB event handling thread,
+ * and per-camera work is executed on a bounded thread pool in order of submission for each camera
+ * instead of using a dedicated thread per camera.
+ */
+public class UVCCameraManager {
+	private static final boolean DEBUG = false;	// TODO set false on release
+	private static final String TAG = UVCCameraManager.class.getSimpleName();
+
+	public static final int DEFAULT_MAX_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+	private final ThreadPoolExecutor mExecutor;
+	private final Map<UVCCamera, SerialExecutor> mCameras = new HashMap<UVCCamera, SerialExecutor>();
+	private volatile boolean mReleased;
+
+	public UVCCameraManager() {
+		this(DEFAULT_MAX_THREADS);
+	}
+
+	/**
+	 * constructor
+	 * @param maxThreads max number of worker threads shared by all cameras
+	 */
+	public UVCCameraManager(final int maxThreads) {
+		if (maxThreads <= 0) {
+			throw new IllegalArgumentException("maxThreads should be positive:" + maxThreads);
+		}
+		mExecutor = new ThreadPoolExecutor(maxThreads, maxThreads,
+			10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private final AtomicInteger mCount = new AtomicInteger();
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread t = new Thread(r, TAG + "-" + mCount.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		mExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * close all cameras and release worker threads, never reuse this instance
+	 */
+	public void release() {
+		if (DEBUG) Log.v(TAG, "release:");
+		final List<UVCCamera> cameras;
+		synchronized (mCameras) {
+			if (mReleased) return;
+			mReleased = true;
+			cameras = new ArrayList<UVCCamera>(mCameras.keySet());
+		}
+		final List<Future<?>> futures = new ArrayList<Future<?>>(cameras.size());
+		for (final UVCCamera camera: cameras) {
+			// the camera that failed to open may have been removed after the snapshot was taken
+			final Future<?> future = closeInternal(camera);
+			if (future != null) {
+				futures.add(future);
+			}
+		}
+		for (final Future<?> future: futures) {
+			try {
+				future.get();
+			} catch (final InterruptedException e) {
+				break;
+			} catch (final ExecutionException e) {
+				Log.w(TAG, e);
+			}
+		}
+		mExecutor.shutdown();
+	}
+
+	/**
+	 * open the camera asynchronously on the worker thread
+	 * @param ctrlBlock
+	 * @return Future that returns opened UVCCamera,
+	 * 			Future#get throws ExecutionException if the camera could not open
+	 */
+	public Future<UVCCamera> open(final UsbControlBlock ctrlBlock) {
+		final UVCCamera camera = new UVCCamera();
+		final SerialExecutor executor = new SerialExecutor(mExecutor);
+		final FutureTask<UVCCamera> task = new FutureTask<UVCCamera>(new Callable<UVCCamera>() {
+			@Override
+			public UVCCamera call() throws Exception {
+				try {
+					camera.open(ctrlBlock, true);
+				} catch (final Exception e) {
+					synchronized (mCameras) {
+						mCameras.remove(camera);
+					}
+					camera.destroy();
+					throw e;
+				}
+				return camera;
+			}
+		});
+		synchronized (mCameras) {
+			// check under the lock so that #release never misses the camera nor runs before it is queued
+			if (mReleased) {
+				camera.destroy();
+				throw new IllegalStateException("already released");
+			}
+			mCameras.put(camera, executor);
+			executor.execute(task);
+		}
+		return task;
+	}
+
+	/**
+	 * open cameras concurrently and wait until all of them finished
+	 * @param ctrlBlocks
+	 * @return list of UVCCamera in the same order as ctrlBlocks, the entry is null if the camera could not open
+	 * @throws InterruptedException
+	 */
+	public List<UVCCamera> openAll(final List<UsbControlBlock> ctrlBlocks) throws InterruptedException {
+		final int n = ctrlBlocks.size();
+		final List<Future<UVCCamera>> futures = new ArrayList<Future<UVCCamera>>(n);
+		for (final UsbControlBlock ctrlBlock: ctrlBlocks) {
+			futures.add(open(ctrlBlock));
+		}
+		final List<UVCCamera> result = new ArrayList<UVCCamera>(n);
+		for (final Future<UVCCamera> future: futures) {
+			try {
+				result.add(future.get());
+			} catch (final ExecutionException e) {
+				Log.w(TAG, "failed to open camera", e.getCause());
+				result.add(null);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * execute the task on the worker thread,
+	 * tasks for the same camera are executed in order of submission
+	 * and tasks for different cameras are executed concurrently
+	 * @param camera UVCCamera that was opened by this instance
+	 * @param task
+	 */
+	public void execute(final UVCCamera camera, final Runnable task) {
+		getExecutor(camera).execute(task);
+	}
+
+	/**
+	 * get Executor of the camera, see #execute
+	 * @param camera UVCCamera that was opened by this instance
+	 * @return
+	 */
+	public Executor getExecutor(final UVCCamera camera) {
+		final SerialExecutor executor;
+		synchronized (mCameras) {
+			executor = mCameras.get(camera);
+		}
+		if (executor == null) {
+			throw new IllegalArgumentException("unknown camera");
+		}
+		return executor;
+	}
+
+	/**
+	 * start preview of all opened cameras concurrently
+	 */
+	public void startPreviewAll() {
+		final List<UVCCamera> cameras = getCameras();
+		for (final UVCCamera camera: cameras) {
+			execute(camera, new Runnable() {
+				@Override
+				public void run() {
+					camera.startPreview();
+				}
+			});
+		}
+	}
+
+	/**
+	 * get cameras opened by this instance
+	 * @return
+	 */
+	public List<UVCCamera> getCameras() {
+		synchronized (mCameras) {
+			return new ArrayList<UVCCamera>(mCameras.keySet());
+		}
+	}
+
+	/**
+	 * close and destroy the camera asynchronously after pending tasks of the camera finished
+	 * @param camera
+	 * @return Future that completes when the camera is closed
+	 */
+	public Future<?> close(final UVCCamera camera) {
+		final Future<?> result = closeInternal(camera);
+		if (result == null) {
+			throw new IllegalArgumentException("unknown camera");
+		}
+		return result;
+	}
+
+	/**
+	 * @param camera
+	 * @return null if the camera is not opened by this instance or already closed
+	 */
+	private Future<?> closeInternal(final UVCCamera camera) {
+		final SerialExecutor executor;
+		synchronized (mCameras) {
+			executor = mCameras.remove(camera);
+		}
+		if (executor == null) {
+			return null;
+		}
+		final FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				camera.destroy();
+				return null;
+			}
+		});
+		executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * executes tasks in order of submission on the shared thread pool,
+	 * at most one task runs at the same time
+	 */
+	private static final class SerialExecutor implements Executor {
+		private final Executor mParent;
+		private final ArrayDeque<Runnable> mTasks = new ArrayDeque<Runnable>();
+		private Runnable mActive;
+
+		private SerialExecutor(final Executor parent) {
+			mParent = parent;
+		}
+
+		@Override
+		public synchronized void execute(final Runnable task) {
+			mTasks.offer(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						task.run();
+					} catch (final Exception e) {
+						Log.w(TAG, e);
+					} finally {
+						scheduleNext();
+					}
+				}
+			});
+			if (mActive == null) {
+				scheduleNext();
+			}
+		}
+
+		private synchronized void scheduleNext() {
+			if ((mActive = mTasks.poll()) != null) {
+				mParent.execute(mActive);
+			}
+		}
+	}
+}
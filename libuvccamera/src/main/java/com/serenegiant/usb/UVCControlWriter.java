@@ -0,0 +1,283 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+
+package com.serenegiant.usb;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * asynchronous writer of camera controls.
+ * Write requests to the same control are coalesced(last write wins) and each control is written
+ * at most once per its minimum interval on the private thread of this class,
+ * so the caller(UI thread etc.) never blocks on USB control transfers.
+ * Pending requests that are due at the same time are written with one UVCCamera#setControls call.
+ * <pre>
+ * final UVCControlWriter writer = new UVCControlWriter(camera, 50, callback);
+ * writer.setPercent(UVCCamera.PU_BRIGHTNESS, progress);	// from SeekBar etc.
+ * ...
+ * writer.release();
+ * </pre>
+ */
+public class UVCControlWriter {
+	private static final boolean DEBUG = false;	// TODO set false on release
+	private static final String TAG = UVCControlWriter.class.getSimpleName();
+
+	public static final int DEFAULT_MIN_INTERVAL_MS = 50;
+
+	public interface Callback {
+		/**
+		 * called when the value is written to the camera
+		 * @param id CTRL_XXX or PU_XXX
+		 * @param value absolute value that is written
+		 */
+		public void onWritten(int id, int value);
+		/**
+		 * called when writing failed
+		 * @param id CTRL_XXX or PU_XXX
+		 * @param value absolute value that was tried to write
+		 * @param error error code of libuvc
+		 */
+		public void onError(int id, int value, int error);
+	}
+
+	private static final class Request {
+		private final int id;
+		private int value;
+		private boolean isPercent;
+
+		private Request(final int id) {
+			this.id = id;
+		}
+	}
+
+	private final Object mSync = new Object();
+	private final UVCCamera mCamera;
+	private final Callback mCallback;
+	private final int mDefaultIntervalMs;
+	/** pending requests, key is id of control */
+	private final Map<Integer, Request> mPending = new LinkedHashMap<Integer, Request>();
+	/** minimum interval of specific control */
+	private final Map<Integer, Integer> mIntervals = new HashMap<Integer, Integer>();
+	/** last time that the control was written, this is accessed only from the writer thread */
+	private final Map<Integer, Long> mLastWritten = new HashMap<Integer, Long>();
+	private volatile boolean mIsRunning;
+
+	/**
+	 * Constructor
+	 * @param camera
+	 * @param minIntervalMs default minimum interval of writing to each control
+	 * @param callback nullable, called on the writer thread
+	 */
+	public UVCControlWriter(final UVCCamera camera, final int minIntervalMs, final Callback callback) {
+		if (camera == null)
+			throw new IllegalArgumentException("camera should not be null");
+		if (minIntervalMs < 0)
+			throw new IllegalArgumentException("invalid interval");
+		mCamera = camera;
+		mDefaultIntervalMs = minIntervalMs;
+		mCallback = callback;
+		mIsRunning = true;
+		new Thread(mWriterTask, TAG).start();
+	}
+
+	/**
+	 * stop the writer thread, pending requests are discarded
+	 */
+	public void release() {
+		synchronized (mSync) {
+			mIsRunning = false;
+			mPending.clear();
+			mSync.notifyAll();
+		}
+	}
+
+	/**
+	 * set minimum interval of writing to the control
+	 * @param id CTRL_XXX or PU_XXX
+	 * @param minIntervalMs
+	 */
+	public void setMinInterval(final int id, final int minIntervalMs) {
+		if (minIntervalMs < 0)
+			throw new IllegalArgumentException("invalid interval");
+		synchronized (mSync) {
+			mIntervals.put(id, minIntervalMs);
+			mSync.notifyAll();
+		}
+	}
+
+	/**
+	 * request to write absolute value to the control
+	 * @param id CTRL_XXX or PU_XXX, see UVCCamera#getControls
+	 * @param value
+	 */
+	public void set(final int id, final int value) {
+		request(id, value, false);
+	}
+
+	/**
+	 * request to write value to the control as percentage of its range
+	 * @param id CTRL_XXX or PU_XXX, see UVCCamera#getControls
+	 * @param percent [0, 100]
+	 */
+	public void setPercent(final int id, final int percent) {
+		request(id, percent, true);
+	}
+
+	/**
+	 * return whether there are requests that are not written yet
+	 * @return
+	 */
+	public boolean hasPending() {
+		synchronized (mSync) {
+			return !mPending.isEmpty();
+		}
+	}
+
+	private void request(final int id, final int value, final boolean isPercent) {
+		synchronized (mSync) {
+			if (!mIsRunning) return;
+			Request req = mPending.get(id);
+			if (req == null) {
+				req = new Request(id);
+				mPending.put(id, req);
+			}
+			req.value = value;
+			req.isPercent = isPercent;
+			mSync.notifyAll();
+		}
+	}
+
+	private int getInterval(final int id) {
+		final Integer interval = mIntervals.get(id);
+		return interval != null ? interval : mDefaultIntervalMs;
+	}
+
+	/**
+	 * convert percentage to absolute value like UVCCamera#setBrightness etc.
+	 * the limits are not cached here because they can change on INFO_CHANGE event,
+	 * the native side caches them and clears the cache on that event
+	 */
+	private int toAbsolute(final int id, final int percent) {
+		final int[] limit = mCamera.getControlLimit(id);
+		if (limit == null) return percent;
+		final float range = Math.abs(limit[1] - limit[0]);
+		return (int)(percent / 100.f * range) + limit[0];
+	}
+
+	private final Runnable mWriterTask = new Runnable() {
+		@Override
+		public void run() {
+			if (DEBUG) Log.v(TAG, "writer task:start");
+			int[] ids = new int[4];
+			int[] values = new int[4];
+			boolean[] percents = new boolean[4];
+			for ( ; mIsRunning ; ) {
+				int n = 0;
+				synchronized (mSync) {
+					// collect requests whose interval already passed
+					final long now = SystemClock.elapsedRealtime();
+					long wait = 0;
+					final Iterator<Request> iter = mPending.values().iterator();
+					while (iter.hasNext()) {
+						final Request req = iter.next();
+						final Long last = mLastWritten.get(req.id);
+						final long due = last != null ? last + getInterval(req.id) : now;
+						if (due <= now) {
+							if (n >= ids.length) {
+								final int sz = ids.length * 2;
+								final int[] newIds = new int[sz];
+								final int[] newValues = new int[sz];
+								final boolean[] newPercents = new boolean[sz];
+								System.arraycopy(ids, 0, newIds, 0, n);
+								System.arraycopy(values, 0, newValues, 0, n);
+								System.arraycopy(percents, 0, newPercents, 0, n);
+								ids = newIds;
+								values = newValues;
+								percents = newPercents;
+							}
+							ids[n] = req.id;
+							values[n] = req.value;
+							percents[n] = req.isPercent;
+							n++;
+							iter.remove();
+						} else if ((wait == 0) || (due - now < wait)) {
+							wait = due - now;
+						}
+					}
+					if (n == 0) {
+						try {
+							mSync.wait(wait);
+						} catch (final InterruptedException e) {
+							break;
+						}
+						continue;
+					}
+				}
+				write(ids, values, percents, n);
+			}
+			if (DEBUG) Log.v(TAG, "writer task:finished");
+		}
+	};
+
+	/**
+	 * write values to the camera, this is called on the writer thread
+	 */
+	private void write(final int[] ids, final int[] values, final boolean[] percents, final int n) {
+		final int[] _ids = new int[n];
+		final int[] _values = new int[n];
+		final int[] results = new int[n];
+		Arrays.fill(results, -1);	// UVC_ERROR_IO
+		for (int i = 0; i < n; i++) {
+			_ids[i] = ids[i];
+			_values[i] = percents[i] ? toAbsolute(ids[i], values[i]) : values[i];
+		}
+		try {
+			mCamera.setControls(_ids, _values, results);
+		} catch (final Exception e) {
+			Log.w(TAG, e);
+		}
+		final long now = SystemClock.elapsedRealtime();
+		for (int i = 0; i < n; i++) {
+			mLastWritten.put(_ids[i], now);
+			if (mCallback != null) {
+				try {
+					if (results[i] == 0) {
+						mCallback.onWritten(_ids[i], _values[i]);
+					} else {
+						mCallback.onError(_ids[i], _values[i], results[i]);
+					}
+				} catch (final Exception e) {
+					Log.w(TAG, e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+package com.serenegiant.usb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.view.Surface;
+
+/**
+ * graph of native pipelines that receives frames from UVCCamera or ReplayCamera(IFrameSource)
+ * UVCCamera -> [ConvertPipeline] -> DistributePipeline -> {PreviewPipeline, FrameCallbackPipeline, ...}
+ * Each consumer runs on its own thread with its own frame buffers instead of the capture thread of UVCCamera.
+ * When the pipeline is attached and no preview display/frame callback is set to UVCCamera,
+ * received frames bypass the preview/capture thread of UVCCamera.
+ * <pre>
+ * final UVCPipeline pipeline = new UVCPipeline.Builder()
+ * 	.convert(UVCCamera.PIXEL_FORMAT_YUV)
+ * 	.addPreview(surface)
+ * 	.addEncoder(encoderCallback)
+ * 	.build();
+ * pipeline.attach(camera);
+ * pipeline.start();
+ * camera.startPreview();
+ * </pre>
+ */
+public class UVCPipeline {
+
+	public static class Builder {
+		private int mConvertFormat = -1;
+		private final List<IPipeline> mConsumers = new ArrayList<IPipeline>();
+
+		/**
+		 * convert frames once before distributing them to the consumers
+		 * UVCCamera.PIXEL_FORMAT_YUV is useful for MJPEG to decode only once for all consumers
+		 * @param pixelFormat one of UVCCamera.PIXEL_FORMAT_XXX
+		 * @return
+		 */
+		public Builder convert(final int pixelFormat) {
+			if ((pixelFormat < UVCCamera.PIXEL_FORMAT_RAW) || (pixelFormat > UVCCamera.PIXEL_FORMAT_NV21))
+				throw new IllegalArgumentException("invalid pixel format");
+			mConvertFormat = pixelFormat;
+			return this;
+		}
+
+		/**
+		 * add consumer that draws frames onto the Surface
+		 * @param surface
+		 * @return
+		 */
+		public Builder addPreview(final Surface surface) {
+			final PreviewPipeline pipeline = new PreviewPipeline();
+			pipeline.setCaptureDisplay(surface);
+			return add(pipeline);
+		}
+
+		/**
+		 * add consumer that passes frames to IFrameCallback
+		 * @param callback
+		 * @param pixelFormat one of UVCCamera.PIXEL_FORMAT_XXX
+		 * @return
+		 */
+		public Builder addCallback(final IFrameCallback callback, final int pixelFormat) {
+			if (callback == null)
+				throw new IllegalArgumentException("callback should not be null");
+			final FrameCallbackPipeline pipeline = new FrameCallbackPipeline();
+			pipeline.setFrameCallback(callback, pixelFormat);
+			return add(pipeline);
+		}
+
+		/**
+		 * add consumer that passes NV21 frames to the callback for video encoder
+		 * like MediaVideoBufferEncoder
+		 * @param callback
+		 * @return
+		 */
+		public Builder addEncoder(final IFrameCallback callback) {
+			return addCallback(callback, UVCCamera.PIXEL_FORMAT_NV21);
+		}
+
+		/**
+		 * add arbitrary consumer
+		 * @param pipeline
+		 * @return
+		 */
+		public Builder add(final IPipeline pipeline) {
+			if (pipeline == null)
+				throw new IllegalArgumentException("pipeline should not be null");
+			mConsumers.add(pipeline);
+			return this;
+		}
+
+		public UVCPipeline build() {
+			if (mConsumers.isEmpty())
+				throw new IllegalStateException("no consumer");
+			return new UVCPipeline(mConvertFormat >= 0 ? new ConvertPipeline(mConvertFormat) : null,
+				new DistributePipeline(), mConsumers);
+		}
+	}
+
+	private final ConvertPipeline mConvert;
+	private final DistributePipeline mDistribute;
+	private final List<IPipeline> mConsumers;
+	private IFrameSource mCamera;
+
+	private UVCPipeline(final ConvertPipeline convert, final DistributePipeline distribute, final List<IPipeline> consumers) {
+		mConvert = convert;
+		mDistribute = distribute;
+		mConsumers = new ArrayList<IPipeline>(consumers);
+		for (final IPipeline consumer: mConsumers) {
+			mDistribute.addPipeline(consumer);
+		}
+		if (mConvert != null) {
+			mConvert.setPipeline(mDistribute);
+		}
+	}
+
+	/**
+	 * @return the first pipeline that receives frames from UVCCamera
+	 */
+	public IPipeline getHead() {
+		return mConvert != null ? mConvert : mDistribute;
+	}
+
+	public List<IPipeline> getConsumers() {
+		return Collections.unmodifiableList(mConsumers);
+	}
+
+	/**
+	 * pass frames from the camera to this pipeline, detach from current camera if already attached
+	 * @param camera UVCCamera, or ReplayCamera to replay recorded frames
+	 */
+	public synchronized void attach(final IFrameSource camera) {
+		if (camera == null)
+			throw new IllegalArgumentException("camera should not be null");
+		detach();
+		mCamera = camera;
+		mCamera.setPipeline(getHead());
+	}
+
+	public synchronized void detach() {
+		if (mCamera != null) {
+			mCamera.setPipeline(null);
+			mCamera = null;
+		}
+	}
+
+	/**
+	 * start all pipelines from consumers to the head
+	 */
+	public synchronized void start() {
+		for (final IPipeline consumer: mConsumers) {
+			consumer.start();
+		}
+		mDistribute.start();
+		if (mConvert != null) {
+			mConvert.start();
+		}
+	}
+
+	/**
+	 * stop all pipelines from the head to consumers
+	 */
+	public synchronized void stop() {
+		if (mConvert != null) {
+			mConvert.stop();
+		}
+		mDistribute.stop();
+		for (final IPipeline consumer: mConsumers) {
+			consumer.stop();
+		}
+	}
+
+	/**
+	 * detach from the camera and release all pipelines
+	 */
+	public synchronized void release() {
+		detach();
+		stop();
+		if (mConvert != null) {
+			mConvert.release();
+		}
+		mDistribute.release();
+		for (final IPipeline consumer: mConsumers) {
+			consumer.release();
+		}
+	}
+}
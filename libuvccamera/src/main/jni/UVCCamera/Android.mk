@@ -36,6 +36,7 @@ CFLAGS := -Werror
 LOCAL_C_INCLUDES := \
 		$(LOCAL_PATH)/ \
 		$(LOCAL_PATH)/../ \
+		$(LOCAL_PATH)/pipeline \
 		$(LOCAL_PATH)/../rapidjson/include \
 
 LOCAL_CFLAGS := $(LOCAL_C_INCLUDES:%=-I%)
@@ -48,7 +49,7 @@ LOCAL_LDLIBS := -L$(SYSROOT)/usr/lib -ldl
 LOCAL_LDLIBS += -llog
 LOCAL_LDLIBS += -landroid
 
-LOCAL_SHARED_LIBRARIES += usb100 uvc
+LOCAL_SHARED_LIBRARIES += usb100 uvc jpeg-turbo1500
 
 LOCAL_ARM_MODE := arm
 
@@ -57,10 +58,28 @@ LOCAL_SRC_FILES := \
 		utilbase.cpp \
 		UVCCamera.cpp \
 		UVCPreview.cpp \
+		FramePool.cpp \
+		FrameQueue.cpp \
+		DecodeWorkerPool.cpp \
 		UVCButtonCallback.cpp \
 		UVCStatusCallback.cpp \
 		Parameters.cpp \
-		serenegiant_usb_UVCCamera.cpp
+		common_utils.cpp \
+		serenegiant_usb_UVCCamera.cpp \
+		pipeline/IPipeline.cpp \
+		pipeline/AbstractBufferedPipeline.cpp \
+		pipeline/CaptureBasePipeline.cpp \
+		pipeline/SimpleBufferedPipeline.cpp \
+		pipeline/FrameJournal.cpp \
+		pipeline/JournalBufferedPipeline.cpp \
+		pipeline/ConvertPipeline.cpp \
+		pipeline/DistributePipeline.cpp \
+		pipeline/CallbackPipeline.cpp \
+		pipeline/PreviewPipeline.cpp \
+		pipeline/FrameStreamServer.cpp \
+		pipeline/PublisherPipeline.cpp \
+		pipeline/ReplayPipeline.cpp \
+		pipeline/pipeline_helper.cpp
 
 LOCAL_MODULE    := UVCCamera
 include $(BUILD_SHARED_LIBRARY)
@@ -0,0 +1,209 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: DecodeWorkerPool.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include <stdlib.h>
+
+#if 1	// set 1 if you don't need debug log
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// w/o LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+//	#undef NDEBUG
+#endif
+
+#include "utilbase.h"
+#include "DecodeWorkerPool.h"
+
+DecodeWorkerPool::DecodeWorkerPool(IDecodeHandler *handler, queue_policy_t &policy)
+:	mHandler(handler),
+	mPolicy(policy),
+	mIsRunning(false),
+	mWorkers(0),
+	decodeInSeq(0),
+	decodeOutSeq(0) {
+
+	ENTER();
+
+	pthread_cond_init(&decode_sync, NULL);
+	pthread_cond_init(&decode_order_sync, NULL);
+	pthread_cond_init(&decode_space_sync, NULL);
+	pthread_mutex_init(&decode_mutex, NULL);
+
+	EXIT();
+}
+
+DecodeWorkerPool::~DecodeWorkerPool() {
+	ENTER();
+
+	stop();
+	pthread_mutex_destroy(&decode_mutex);
+	pthread_cond_destroy(&decode_sync);
+	pthread_cond_destroy(&decode_order_sync);
+	pthread_cond_destroy(&decode_space_sync);
+
+	EXIT();
+}
+
+int DecodeWorkerPool::start(int num_workers) {
+	ENTER();
+
+	if (UNLIKELY(mWorkers)) {
+		RETURN(mWorkers, int);
+	}
+	if (num_workers > MAX_DECODE_WORKERS) {
+		num_workers = MAX_DECODE_WORKERS;
+	}
+	pthread_mutex_lock(&decode_mutex);
+	{
+		decodeInSeq = decodeOutSeq = 0;
+		mIsRunning = true;
+	}
+	pthread_mutex_unlock(&decode_mutex);
+	for (int i = 0; i < num_workers; i++) {
+		if (UNLIKELY(pthread_create(&decode_threads[i], NULL, decode_thread_func, (void *)this) != EXIT_SUCCESS)) {
+			LOGW("DecodeWorkerPool::could not create decode thread");
+			break;
+		}
+		mWorkers++;
+	}
+	LOGI("decode workers=%d", mWorkers);
+
+	RETURN(mWorkers, int);
+}
+
+void DecodeWorkerPool::stop() {
+	ENTER();
+
+	pthread_mutex_lock(&decode_mutex);
+	{
+		mIsRunning = false;
+		pthread_cond_broadcast(&decode_sync);
+		pthread_cond_broadcast(&decode_order_sync);
+		pthread_cond_broadcast(&decode_space_sync);
+	}
+	pthread_mutex_unlock(&decode_mutex);
+	for (int i = 0; i < mWorkers; i++) {
+		if (pthread_join(decode_threads[i], NULL) != EXIT_SUCCESS) {
+			LOGW("DecodeWorkerPool::terminate decode thread: pthread_join failed");
+		}
+	}
+	mWorkers = 0;
+	pthread_mutex_lock(&decode_mutex);
+	{
+		for (int i = 0; i < decodeFrames.size(); i++)
+			mHandler->recycle(decodeFrames[i]);
+		decodeFrames.clear();
+	}
+	pthread_mutex_unlock(&decode_mutex);
+
+	EXIT();
+}
+
+/**
+ * if workers can not keep up, the frame is dropped according to the queue policy
+ */
+void DecodeWorkerPool::queueFrame(uvc_frame_t *frame) {
+	uvc_frame_t *dropped = NULL;
+	pthread_mutex_lock(&decode_mutex);
+	{
+		if (isRunning() && enqueue_frame(mPolicy, decodeFrames, mPolicy.depth,
+			&decode_mutex, &decode_space_sync, mIsRunning, frame, &dropped)) {
+
+			frame = NULL;
+			pthread_cond_signal(&decode_sync);
+		}
+	}
+	pthread_mutex_unlock(&decode_mutex);
+	if (frame) {
+		mHandler->recycle(frame);
+	}
+	if (dropped) {
+		mHandler->recycle(dropped);
+	}
+}
+
+/*
+ * thread function
+ * @param vptr_args pointer to DecodeWorkerPool instance
+ */
+// static
+void *DecodeWorkerPool::decode_thread_func(void *vptr_args) {
+	ENTER();
+	DecodeWorkerPool *pool = reinterpret_cast<DecodeWorkerPool *>(vptr_args);
+	if (LIKELY(pool)) {
+		pool->do_decode();
+	}
+	PRE_EXIT();
+	pthread_exit(NULL);
+}
+
+void DecodeWorkerPool::do_decode() {
+	ENTER();
+
+	for ( ; LIKELY(isRunning()) ; ) {
+		uvc_frame_t *frame_in = NULL;
+		uint32_t seq;
+		pthread_mutex_lock(&decode_mutex);
+		{
+			for ( ; isRunning() && decodeFrames.isEmpty() ; ) {
+				pthread_cond_wait(&decode_sync, &decode_mutex);
+			}
+			if (LIKELY(isRunning())) {
+				frame_in = decodeFrames.remove(0);
+				seq = decodeInSeq++;
+				pthread_cond_signal(&decode_space_sync);
+			}
+		}
+		pthread_mutex_unlock(&decode_mutex);
+		if (UNLIKELY(!frame_in)) break;
+
+		uvc_frame_t *frame = mHandler->decode(frame_in);
+
+		bool my_turn = false;
+		pthread_mutex_lock(&decode_mutex);
+		{
+			for ( ; isRunning() && (decodeOutSeq != seq) ; ) {
+				pthread_cond_wait(&decode_order_sync, &decode_mutex);
+			}
+			my_turn = isRunning();
+		}
+		pthread_mutex_unlock(&decode_mutex);
+		if (LIKELY(my_turn && frame)) {
+			mHandler->deliver(frame);
+		} else if (frame) {
+			mHandler->recycle(frame);
+		}
+		pthread_mutex_lock(&decode_mutex);
+		{
+			decodeOutSeq++;
+			pthread_cond_broadcast(&decode_order_sync);
+		}
+		pthread_mutex_unlock(&decode_mutex);
+	}
+
+	EXIT();
+}
@@ -0,0 +1,104 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: DecodeWorkerPool.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef DECODEWORKERPOOL_H_
+#define DECODEWORKERPOOL_H_
+
+#include <pthread.h>
+#include "libUVCCamera.h"
+#include "objectarray.h"
+#include "FrameQueue.h"
+
+#pragma interface
+
+#define MAX_DECODE_WORKERS 8
+
+/**
+ * what the decode workers do with each frame
+ */
+class IDecodeHandler {
+public:
+	virtual ~IDecodeHandler() {};
+	/**
+	 * decode the frame on a worker thread, the source frame should be recycled in this function
+	 * @return decoded frame, NULL if failed
+	 */
+	virtual uvc_frame_t *decode(uvc_frame_t *frame) = 0;
+	/**
+	 * called with decoded frames one at a time in the order they were queued
+	 */
+	virtual void deliver(uvc_frame_t *frame) = 0;
+	/**
+	 * release the frame that is not decoded or delivered
+	 */
+	virtual void recycle(uvc_frame_t *frame) = 0;
+};
+
+/**
+ * worker threads that decode (MJPEG) frames in parallel and deliver them in arrival order
+ * each worker takes a frame with the sequence number in arrival order, decodes it
+ * and waits for its turn before delivering so that the frame order is preserved
+ */
+class DecodeWorkerPool {
+private:
+	IDecodeHandler *mHandler;
+	queue_policy_t &mPolicy;		// guarded by decode_mutex
+	volatile bool mIsRunning;
+	int mWorkers;
+	pthread_t decode_threads[MAX_DECODE_WORKERS];
+	pthread_mutex_t decode_mutex;
+	pthread_cond_t decode_sync;			// signaled when a frame is queued
+	pthread_cond_t decode_order_sync;	// signaled when a decoded frame is delivered
+	pthread_cond_t decode_space_sync;	// signaled when a frame is removed from decodeFrames
+	ObjectArray<uvc_frame_t *> decodeFrames;
+	uint32_t decodeInSeq, decodeOutSeq;
+	static void *decode_thread_func(void *vptr_args);
+	void do_decode();
+public:
+	/**
+	 * @param handler decodes and receives frames, this is not deleted by the pool
+	 * @param policy policy of the queue in front of the workers, the caller should hold #mutex to change it
+	 */
+	DecodeWorkerPool(IDecodeHandler *handler, queue_policy_t &policy);
+	~DecodeWorkerPool();
+	/**
+	 * @param num_workers [1, MAX_DECODE_WORKERS]
+	 * @return number of started workers
+	 */
+	int start(int num_workers);
+	/**
+	 * terminate all workers, frames that are not delivered yet are recycled
+	 */
+	void stop();
+	/**
+	 * queue the frame to the workers according to the queue policy,
+	 * the frame is recycled if it is not queued
+	 */
+	void queueFrame(uvc_frame_t *frame);
+	inline const bool isRunning() const { return mIsRunning; };
+	inline const int workers() const { return mWorkers; };
+	inline pthread_mutex_t *mutex() { return &decode_mutex; };
+};
+
+#endif /* DECODEWORKERPOOL_H_ */
@@ -0,0 +1,207 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: FramePool.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include <stdlib.h>
+
+#if 1	// set 1 if you don't need debug log
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// w/o LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+//	#undef NDEBUG
+#endif
+
+#include "utilbase.h"
+#include "FramePool.h"
+
+#define	LOCAL_DEBUG 0
+
+/**
+ * @param pool_size maximum number of frames that the pool keeps, the ring buffer itself is rounded up to power of 2
+ * @param frame_bytes capacity of frames that the pool pre-allocates, 0 means using the requested size
+ */
+FramePool::FramePool(int pool_size, size_t frame_bytes)
+:	mSlots(NULL),
+	mMask(0),
+	mPoolSize(pool_size < 1 ? 1 : (pool_size > MAX_FRAME_POOL_SIZE ? MAX_FRAME_POOL_SIZE : pool_size)),
+	mFrameBytes(frame_bytes),
+	mEnqueuePos(0),
+	mDequeuePos(0) {
+
+	ENTER();
+	uint32_t capacity = 2;
+	for ( ; (int)capacity < mPoolSize ; capacity <<= 1) {}
+	mMask = capacity - 1;
+	mSlots = new pool_slot_t[capacity];
+	for (uint32_t i = 0; i < capacity; i++) {
+		mSlots[i].seq = i;
+		mSlots[i].frame = NULL;
+	}
+	resetStats();
+	EXIT();
+}
+
+FramePool::~FramePool() {
+	ENTER();
+	clear();
+	SAFE_DELETE_ARRAY(mSlots);
+	EXIT();
+}
+
+/**
+ * add frame to the ring buffer
+ * @return false if the ring buffer is full
+ */
+bool FramePool::push(uvc_frame_t *frame) {
+	uint32_t pos = __atomic_load_n(&mEnqueuePos, __ATOMIC_RELAXED);
+	for ( ; ; ) {
+		pool_slot_t *slot = &mSlots[pos & mMask];
+		const uint32_t seq = __atomic_load_n(&slot->seq, __ATOMIC_ACQUIRE);
+		const int32_t diff = (int32_t)seq - (int32_t)pos;
+		if (diff == 0) {
+			if (__atomic_compare_exchange_n(&mEnqueuePos, &pos, pos + 1,
+				true, __ATOMIC_RELAXED, __ATOMIC_RELAXED)) {
+
+				slot->frame = frame;
+				__atomic_store_n(&slot->seq, pos + 1, __ATOMIC_RELEASE);
+				return true;
+			}
+			// pos was updated by __atomic_compare_exchange_n, retry
+		} else if (diff < 0) {
+			return false;	// full
+		} else {
+			pos = __atomic_load_n(&mEnqueuePos, __ATOMIC_RELAXED);
+		}
+	}
+}
+
+/**
+ * remove frame from the ring buffer
+ * @return NULL if the ring buffer is empty
+ */
+uvc_frame_t *FramePool::pop() {
+	uint32_t pos = __atomic_load_n(&mDequeuePos, __ATOMIC_RELAXED);
+	for ( ; ; ) {
+		pool_slot_t *slot = &mSlots[pos & mMask];
+		const uint32_t seq = __atomic_load_n(&slot->seq, __ATOMIC_ACQUIRE);
+		const int32_t diff = (int32_t)seq - (int32_t)(pos + 1);
+		if (diff == 0) {
+			if (__atomic_compare_exchange_n(&mDequeuePos, &pos, pos + 1,
+				true, __ATOMIC_RELAXED, __ATOMIC_RELAXED)) {
+
+				uvc_frame_t *frame = slot->frame;
+				slot->frame = NULL;
+				__atomic_store_n(&slot->seq, pos + mMask + 1, __ATOMIC_RELEASE);
+				return frame;
+			}
+		} else if (diff < 0) {
+			return NULL;	// empty
+		} else {
+			pos = __atomic_load_n(&mDequeuePos, __ATOMIC_RELAXED);
+		}
+	}
+}
+
+/**
+ * get uvc_frame_t from frame pool
+ * if pool is empty, create new frame
+ * this function does not confirm the frame size
+ * and you may need to confirm the size
+ */
+uvc_frame_t *FramePool::obtain(size_t data_bytes) {
+	uvc_frame_t *frame = pop();
+	if (LIKELY(frame)) {
+		__atomic_fetch_add(&mStats[FRAME_POOL_STATS_HITS], 1, __ATOMIC_RELAXED);
+		if (UNLIKELY(frame->data_bytes < data_bytes)) {
+			// the caller will reallocate the buffer while converting/copying
+			__atomic_fetch_add(&mStats[FRAME_POOL_STATS_REALLOCS], 1, __ATOMIC_RELAXED);
+		}
+	} else {
+		__atomic_fetch_add(&mStats[FRAME_POOL_STATS_MISSES], 1, __ATOMIC_RELAXED);
+#if LOCAL_DEBUG
+		LOGW("allocate new frame");
+#endif
+		frame = uvc_allocate_frame(mFrameBytes > data_bytes ? mFrameBytes : data_bytes);
+	}
+	return frame;
+}
+
+/**
+ * return the frame to the pool
+ * if the pool is already full, the frame is released
+ */
+void FramePool::recycle(uvc_frame_t *frame) {
+	if (UNLIKELY(!frame)) return;
+	// the ring buffer may be larger than the pool size, check the number of frames in the pool first
+	const uint32_t n = __atomic_load_n(&mEnqueuePos, __ATOMIC_RELAXED)
+		- __atomic_load_n(&mDequeuePos, __ATOMIC_RELAXED);
+	if (UNLIKELY((n >= (uint32_t)mPoolSize) || !push(frame))) {
+		__atomic_fetch_add(&mStats[FRAME_POOL_STATS_DROPS], 1, __ATOMIC_RELAXED);
+		uvc_free_frame(frame);
+	}
+}
+
+/**
+ * fill the pool with frames
+ * @param data_bytes capacity of each frame, mFrameBytes is used instead if it is larger
+ */
+void FramePool::prefill(size_t data_bytes) {
+	ENTER();
+	const size_t bytes = mFrameBytes > data_bytes ? mFrameBytes : data_bytes;
+	for (int i = 0; i < mPoolSize; i++) {
+		uvc_frame_t *frame = uvc_allocate_frame(bytes);
+		if (UNLIKELY(!frame)) break;
+		if (UNLIKELY(!push(frame))) {
+			uvc_free_frame(frame);
+			break;
+		}
+	}
+	EXIT();
+}
+
+/**
+ * release all frames in the pool
+ */
+void FramePool::clear() {
+	ENTER();
+	for (uvc_frame_t *frame = pop(); frame; frame = pop()) {
+		uvc_free_frame(frame);
+	}
+	EXIT();
+}
+
+void FramePool::getStats(uint64_t stats[FRAME_POOL_STATS_NUM]) {
+	for (int i = 0; i < FRAME_POOL_STATS_NUM; i++) {
+		stats[i] = __atomic_load_n(&mStats[i], __ATOMIC_RELAXED);
+	}
+}
+
+void FramePool::resetStats() {
+	for (int i = 0; i < FRAME_POOL_STATS_NUM; i++) {
+		__atomic_store_n(&mStats[i], 0, __ATOMIC_RELAXED);
+	}
+}
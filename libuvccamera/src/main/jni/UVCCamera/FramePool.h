@@ -0,0 +1,78 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: FramePool.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef FRAMEPOOL_H_
+#define FRAMEPOOL_H_
+
+#include "libUVCCamera.h"
+
+#pragma interface
+
+#define DEFAULT_FRAME_POOL_SIZE 6		// MAX_FRAME + 2
+#define MAX_FRAME_POOL_SIZE 256
+
+// indices of the statistics array returned by FramePool::getStats
+#define FRAME_POOL_STATS_HITS 0			// obtained from the pool
+#define FRAME_POOL_STATS_MISSES 1		// the pool was empty and new frame was allocated
+#define FRAME_POOL_STATS_REALLOCS 2		// obtained frame was smaller than requested
+#define FRAME_POOL_STATS_DROPS 3		// the pool was full and recycled frame was freed
+#define FRAME_POOL_STATS_NUM 4
+
+/**
+ * bounded lock-free frame pool (MPMC ring buffer with per-slot sequence number)
+ * obtain/recycle can be called from any thread without locking.
+ * we use gcc/clang __atomic builtins here because this library does not depend on any STL.
+ */
+class FramePool {
+private:
+	typedef struct pool_slot {
+		volatile uint32_t seq;
+		uvc_frame_t *frame;
+	} pool_slot_t;
+
+	pool_slot_t *mSlots;
+	uint32_t mMask;
+	const int mPoolSize;
+	const size_t mFrameBytes;
+	// keep producer/consumer positions on different cache lines to reduce false sharing
+	volatile uint32_t mEnqueuePos __attribute__((aligned(64)));
+	volatile uint32_t mDequeuePos __attribute__((aligned(64)));
+	volatile uint64_t mStats[FRAME_POOL_STATS_NUM] __attribute__((aligned(64)));
+	bool push(uvc_frame_t *frame);
+	uvc_frame_t *pop();
+public:
+	FramePool(int pool_size = DEFAULT_FRAME_POOL_SIZE, size_t frame_bytes = 0);
+	~FramePool();
+
+	inline const int poolSize() const { return mPoolSize; };
+	inline const size_t frameBytes() const { return mFrameBytes; };
+	uvc_frame_t *obtain(size_t data_bytes);
+	void recycle(uvc_frame_t *frame);
+	void prefill(size_t data_bytes);
+	void clear();
+	void getStats(uint64_t stats[FRAME_POOL_STATS_NUM]);
+	void resetStats();
+};
+
+#endif /* FRAMEPOOL_H_ */
@@ -0,0 +1,83 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: FrameQueue.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include <stdlib.h>
+#include <time.h>
+#include <errno.h>
+
+#if 1	// set 1 if you don't need debug log
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// w/o LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+//	#undef NDEBUG
+#endif
+
+#include "utilbase.h"
+#include "FrameQueue.h"
+
+bool enqueue_frame(queue_policy_t &q, ObjectArray<uvc_frame_t *> &frames, int depth,
+	pthread_mutex_t *mutex, pthread_cond_t *space_sync, const volatile bool &running,
+	uvc_frame_t *frame, uvc_frame_t **dropped) {
+
+	*dropped = NULL;
+	q.count++;
+	if ((q.policy == QUEUE_POLICY_DECIMATE) && (q.param > 1) && !(q.count % q.param)) {
+		q.stats[QUEUE_STATS_DROPPED]++;
+		return false;
+	}
+	if (frames.size() >= depth) {
+		switch (q.policy) {
+		case QUEUE_POLICY_DROP_OLDEST:
+			*dropped = frames.remove(0);
+			q.stats[QUEUE_STATS_DROPPED]++;
+			break;
+		case QUEUE_POLICY_BLOCK:
+		{
+			struct timespec ts;
+			clock_gettime(CLOCK_REALTIME, &ts);
+			const long nsec = ts.tv_nsec + (q.param % 1000) * 1000000L;
+			ts.tv_sec += q.param / 1000 + nsec / 1000000000L;
+			ts.tv_nsec = nsec % 1000000000L;
+			for ( ; running && (frames.size() >= depth) ; ) {
+				if (pthread_cond_timedwait(space_sync, mutex, &ts) == ETIMEDOUT) break;
+			}
+			if (frames.size() >= depth) {
+				q.stats[QUEUE_STATS_DROPPED]++;
+				return false;
+			}
+			break;
+		}
+		default:
+			q.stats[QUEUE_STATS_DROPPED]++;
+			return false;
+		}
+	}
+	frames.put(frame);
+	q.stats[QUEUE_STATS_QUEUED]++;
+	return true;
+}
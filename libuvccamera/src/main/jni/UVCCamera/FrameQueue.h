@@ -0,0 +1,65 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: FrameQueue.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef FRAMEQUEUE_H_
+#define FRAMEQUEUE_H_
+
+#include <pthread.h>
+#include "libUVCCamera.h"
+#include "objectarray.h"
+
+// what to do when a queue is full
+#define QUEUE_POLICY_DROP_NEWEST 0	// drop the incoming frame
+#define QUEUE_POLICY_DROP_OLDEST 1	// drop the oldest frame in the queue
+#define QUEUE_POLICY_DECIMATE 2		// drop every param-th frame, and drop the incoming frame when full
+#define QUEUE_POLICY_BLOCK 3		// block the producer up to param [ms], then drop the incoming frame
+#define QUEUE_POLICY_NUM 4
+#define MAX_QUEUE_DEPTH 32
+#define MAX_QUEUE_BLOCK_MS 1000
+// indices of queue statistics
+#define QUEUE_STATS_QUEUED 0
+#define QUEUE_STATS_DROPPED 1
+#define QUEUE_STATS_NUM 2
+
+typedef struct queue_policy {
+	int policy;			// QUEUE_POLICY_XXX
+	int depth;			// [1, MAX_QUEUE_DEPTH]
+	int param;			// decimation interval for QUEUE_POLICY_DECIMATE, timeout [ms] for QUEUE_POLICY_BLOCK
+	uint32_t count;		// number of incoming frames for decimation
+	uint64_t stats[QUEUE_STATS_NUM];
+} queue_policy_t;
+
+/**
+ * put the frame into the queue according to its policy, the caller should hold the mutex
+ * @param depth maximum number of frames in the queue
+ * @param space_sync condition that is signaled when a frame is removed from the queue
+ * @param running QUEUE_POLICY_BLOCK stops waiting when this becomes false
+ * @param dropped the oldest frame that was removed from the queue is returned, the caller should recycle it
+ * @return true if the frame was queued, otherwise the caller should recycle the frame
+ */
+bool enqueue_frame(queue_policy_t &q, ObjectArray<uvc_frame_t *> &frames, int depth,
+	pthread_mutex_t *mutex, pthread_cond_t *space_sync, const volatile bool &running,
+	uvc_frame_t *frame, uvc_frame_t **dropped);
+
+#endif /* FRAMEQUEUE_H_ */
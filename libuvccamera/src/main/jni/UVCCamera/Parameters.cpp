@@ -392,3 +392,102 @@ char *UVCDiags::getSupportedSize(const uvc_device_handle_t *deviceHandle) {
 	writer.EndObject();
 	RETURN(strdup(buffer.GetString()), char *);
 }
+
+/**
+ * 対応フォーマット・フレームサイズ・フレームインターバルをJSONを経由せずにint32_t配列として書き出す
+ * [0]=SUPPORTED_FORMATS_VERSION, [1]=フォーマット数, 以降フォーマット毎に
+ * 	type(bDescriptorSubtype), bFormatIndex, bDefaultFrameIndex, フレーム数, 以降フレーム毎に
+ * 		bFrameIndex, wWidth, wHeight, dwDefaultFrameInterval, bFrameIntervalType, インターバル数, インターバル...
+ * bFrameIntervalType=0(連続)の時のインターバルはmin, max, stepの3つ
+ * @param buf NULLなら書き込まずに必要な要素数だけを返す
+ * @return 要素数
+ */
+static int write_supported_formats(const uvc_device_handle_t *deviceHandle, int32_t *buf) {
+	int n = 2, num_formats = 0;
+	if (deviceHandle->info->stream_ifs) {
+		uvc_streaming_interface_t *stream_if;
+		DL_FOREACH(deviceHandle->info->stream_ifs, stream_if)
+		{
+			uvc_format_desc_t *fmt_desc;
+			uvc_frame_desc_t *frame_desc;
+			DL_FOREACH(stream_if->format_descs, fmt_desc)
+			{
+				switch (fmt_desc->bDescriptorSubtype) {
+				case UVC_VS_FORMAT_UNCOMPRESSED:
+				case UVC_VS_FORMAT_MJPEG:
+				{
+					const int format_pos = n;
+					int num_frames = 0;
+					if (buf) {
+						buf[n] = fmt_desc->bDescriptorSubtype;
+						buf[n + 1] = fmt_desc->bFormatIndex;
+						buf[n + 2] = fmt_desc->bDefaultFrameIndex;
+					}
+					n += 4;
+					DL_FOREACH(fmt_desc->frame_descs, frame_desc)
+					{
+						int num_intervals = 0;
+						const int frame_pos = n;
+						n += 6;
+						if (frame_desc->bFrameIntervalType) {
+							if (frame_desc->intervals) {
+								for (uint32_t *interval = frame_desc->intervals; *interval; interval++, num_intervals++) {
+									if (buf) buf[n] = *interval;
+									n++;
+								}
+							}
+						} else {
+							if (buf) {
+								buf[n] = frame_desc->dwMinFrameInterval;
+								buf[n + 1] = frame_desc->dwMaxFrameInterval;
+								buf[n + 2] = frame_desc->dwFrameIntervalStep;
+							}
+							n += 3;
+							num_intervals = 3;
+						}
+						if (buf) {
+							buf[frame_pos] = frame_desc->bFrameIndex;
+							buf[frame_pos + 1] = frame_desc->wWidth;
+							buf[frame_pos + 2] = frame_desc->wHeight;
+							buf[frame_pos + 3] = frame_desc->dwDefaultFrameInterval;
+							buf[frame_pos + 4] = frame_desc->bFrameIntervalType;
+							buf[frame_pos + 5] = num_intervals;
+						}
+						num_frames++;
+					}
+					if (buf) {
+						buf[format_pos + 3] = num_frames;
+					}
+					num_formats++;
+					break;
+				}
+				default:
+					break;
+				}
+			}
+		}
+		// FIXME still image is not supported now
+	}
+	if (buf) {
+		buf[0] = SUPPORTED_FORMATS_VERSION;
+		buf[1] = num_formats;
+	}
+	return n;
+}
+
+/**
+ * 対応フォーマット等をint32_t配列で取得する, 戻り値は呼び出し側でfreeすること
+ * @param num 要素数
+ */
+int32_t *UVCDiags::getSupportedFormats(const uvc_device_handle_t *deviceHandle, int &num) {
+	ENTER();
+	int32_t *result = NULL;
+	num = write_supported_formats(deviceHandle, NULL);
+	result = (int32_t *)malloc(sizeof(int32_t) * num);
+	if (LIKELY(result)) {
+		write_supported_formats(deviceHandle, result);
+	} else {
+		num = 0;
+	}
+	RETURN(result, int32_t *);
+}
@@ -28,6 +28,9 @@
 
 #include "libUVCCamera.h"
 
+// UVCDiags#getSupportedFormatsが返す配列の書式のバージョン, Java側のUVCCamera#SUPPORTED_FORMATS_VERSIONと合わせること
+#define SUPPORTED_FORMATS_VERSION 1
+
 class UVCDiags {
 private:
 public:
@@ -36,6 +39,7 @@ public:
 	char *getDescriptions(const uvc_device_handle_t *deviceHandle);
 	char *getCurrentStream(const uvc_stream_ctrl_t *ctrl);
 	char *getSupportedSize(const uvc_device_handle_t *deviceHandle);
+	int32_t *getSupportedFormats(const uvc_device_handle_t *deviceHandle, int &num);
 };
 
 #endif /* PARAMETERS_H_ */
@@ -48,6 +48,47 @@
 
 #define	LOCAL_DEBUG 0
 
+//**********************************************************************
+// 複数のカメラで共有するlibuvc/libusbコンテキスト
+// libuvcはコンテキスト毎にイベント処理スレッドを1つ生成するので
+// コンテキストを共有すると全カメラで1つのイベント処理スレッドを使う
+// shared_context_mutexは共有コンテキストの生成/破棄と参照カウンタのみを排他制御する
+//**********************************************************************
+static pthread_mutex_t shared_context_mutex = PTHREAD_MUTEX_INITIALIZER;
+static uvc_context_t *shared_context = NULL;
+static int shared_context_refs = 0;
+
+/**
+ * 共有コンテキストを取得, 参照カウンタをインクリメントする
+ * shared_context_mutexをロックした状態で呼ぶこと
+ */
+static uvc_error_t acquire_shared_context(uvc_context_t **ctx, const char *usbfs) {
+	uvc_error_t result = UVC_SUCCESS;
+	if (!shared_context) {
+		result = uvc_init2(&shared_context, NULL, usbfs);
+		if (UNLIKELY(result < 0)) {
+			shared_context = NULL;
+		}
+	}
+	if (LIKELY(shared_context)) {
+		shared_context_refs++;
+		*ctx = shared_context;
+	}
+	return result;
+}
+
+/**
+ * 共有コンテキストの参照カウンタをデクリメントし, 0になれば破棄する
+ * shared_context_mutexをロックした状態で呼ぶこと
+ */
+static void release_shared_context() {
+	if (shared_context && (--shared_context_refs <= 0)) {
+		uvc_exit(shared_context);
+		shared_context = NULL;
+		shared_context_refs = 0;
+	}
+}
+
 //**********************************************************************
 //
 //**********************************************************************
@@ -58,6 +99,7 @@ UVCCamera::UVCCamera()
 :	mFd(0),
 	mUsbFs(NULL),
 	mContext(NULL),
+	mSharedContext(false),
 	mDevice(NULL),
 	mDeviceHandle(NULL),
 	mStatusCallback(NULL),
@@ -67,6 +109,12 @@ UVCCamera::UVCCamera()
 	mPUSupports(0) {
 
 	ENTER();
+	// the batch control functions call the single control functions while holding ctrl_mutex
+	pthread_mutexattr_t attr;
+	pthread_mutexattr_init(&attr);
+	pthread_mutexattr_settype(&attr, PTHREAD_MUTEX_RECURSIVE);
+	pthread_mutex_init(&ctrl_mutex, &attr);
+	pthread_mutexattr_destroy(&attr);
 	clearCameraParams();
 	EXIT();
 }
@@ -78,63 +126,82 @@ UVCCamera::~UVCCamera() {
 	ENTER();
 	release();
 	if (mContext) {
-		uvc_exit(mContext);
+		if (mSharedContext) {
+			pthread_mutex_lock(&shared_context_mutex);
+			{
+				release_shared_context();
+			}
+			pthread_mutex_unlock(&shared_context_mutex);
+		} else {
+			uvc_exit(mContext);
+		}
 		mContext = NULL;
 	}
 	if (mUsbFs) {
 		free(mUsbFs);
 		mUsbFs = NULL;
 	}
+	pthread_mutex_destroy(&ctrl_mutex);
 	EXIT();
 }
 
 void UVCCamera::clearCameraParams() {
 	mCtrlSupports = mPUSupports = 0;
-	mScanningMode.min = mScanningMode.max = mScanningMode.def = 0;
-	mExposureMode.min = mExposureMode.max = mExposureMode.def = 0;
-	mExposurePriority.min = mExposurePriority.max = mExposurePriority.def = 0;
-	mExposureAbs.min = mExposureAbs.max = mExposureAbs.def = 0;
-	mAutoFocus.min = mAutoFocus.max = mAutoFocus.def = 0;
-	mAutoWhiteBlance.min = mAutoWhiteBlance.max = mAutoWhiteBlance.def = 0;
-	mWhiteBlance.min = mWhiteBlance.max = mWhiteBlance.def = 0;
-	mAutoWhiteBlanceCompo.min = mAutoWhiteBlanceCompo.max = mAutoWhiteBlanceCompo.def = 0;
-	mWhiteBlanceCompo.min = mWhiteBlanceCompo.max = mWhiteBlanceCompo.def = 0;
-	mBacklightComp.min = mBacklightComp.max = mBacklightComp.def = 0;
-	mBrightness.min = mBrightness.max = mBrightness.def = 0;
-	mContrast.min = mContrast.max = mContrast.def = 0;
-	mAutoContrast.min = mAutoContrast.max = mAutoContrast.def = 0;
-	mSharpness.min = mSharpness.max = mSharpness.def = 0;
-	mGain.min = mGain.max = mGain.def = 0;
-	mGamma.min = mGamma.max = mGamma.def = 0;
-	mSaturation.min = mSaturation.max = mSaturation.def = 0;
-	mHue.min = mHue.max = mHue.def = 0;
-	mAutoHue.min = mAutoHue.max = mAutoHue.def = 0;
-	mZoom.min = mZoom.max = mZoom.def = 0;
-	mZoomRel.min = mZoomRel.max = mZoomRel.def = 0;
-	mFocus.min = mFocus.max = mFocus.def = 0;
-	mFocusRel.min = mFocusRel.max = mFocusRel.def = 0;
-	mFocusSimple.min = mFocusSimple.max = mFocusSimple.def = 0;
-	mIris.min = mIris.max = mIris.def = 0;
-	mIrisRel.min = mIrisRel.max = mIrisRel.def = 0;
-	mPan.min = mPan.max = mPan.def = 0; mPan.current = -1;
-	mTilt.min = mTilt.max = mTilt.def = 0; mTilt.current = -1;
-	mRoll.min = mRoll.max = mRoll.def = 0;
-	mPanRel.min = mPanRel.max = mPanRel.def = 0; mPanRel.current = -1;
-	mTiltRel.min = mTiltRel.max = mTiltRel.def = 0; mTiltRel.current = -1;
-	mRollRel.min = mRollRel.max = mRollRel.def = 0;
-	mPrivacy.min = mPrivacy.max = mPrivacy.def = 0;
-	mPowerlineFrequency.min = mPowerlineFrequency.max = mPowerlineFrequency.def = 0;
-	mMultiplier.min = mMultiplier.max = mMultiplier.def = 0;
-	mMultiplierLimit.min = mMultiplierLimit.max = mMultiplierLimit.def = 0;
-	mAnalogVideoStandard.min = mAnalogVideoStandard.max = mAnalogVideoStandard.def = 0;
-	mAnalogVideoLockState.min = mAnalogVideoLockState.max = mAnalogVideoLockState.def = 0;
+	clearCtrlValues();
+}
+
+/**
+ * 取得済みのコントロールの最小・最大・デフォルト値をクリアする
+ * 次回アクセス時に機器から読み直す
+ */
+void UVCCamera::clearCtrlValues() {
+	mScanningMode.min = mScanningMode.max = mScanningMode.def = mScanningMode.res = mScanningMode.cached = 0;
+	mExposureMode.min = mExposureMode.max = mExposureMode.def = mExposureMode.res = mExposureMode.cached = 0;
+	mExposurePriority.min = mExposurePriority.max = mExposurePriority.def = mExposurePriority.res = mExposurePriority.cached = 0;
+	mExposureAbs.min = mExposureAbs.max = mExposureAbs.def = mExposureAbs.res = mExposureAbs.cached = 0;
+	mExposureRel.min = mExposureRel.max = mExposureRel.def = mExposureRel.res = mExposureRel.cached = 0;
+	mAutoFocus.min = mAutoFocus.max = mAutoFocus.def = mAutoFocus.res = mAutoFocus.cached = 0;
+	mAutoWhiteBlance.min = mAutoWhiteBlance.max = mAutoWhiteBlance.def = mAutoWhiteBlance.res = mAutoWhiteBlance.cached = 0;
+	mWhiteBlance.min = mWhiteBlance.max = mWhiteBlance.def = mWhiteBlance.res = mWhiteBlance.cached = 0;
+	mAutoWhiteBlanceCompo.min = mAutoWhiteBlanceCompo.max = mAutoWhiteBlanceCompo.def = mAutoWhiteBlanceCompo.res = mAutoWhiteBlanceCompo.cached = 0;
+	mWhiteBlanceCompo.min = mWhiteBlanceCompo.max = mWhiteBlanceCompo.def = mWhiteBlanceCompo.res = mWhiteBlanceCompo.cached = 0;
+	mBacklightComp.min = mBacklightComp.max = mBacklightComp.def = mBacklightComp.res = mBacklightComp.cached = 0;
+	mBrightness.min = mBrightness.max = mBrightness.def = mBrightness.res = mBrightness.cached = 0;
+	mContrast.min = mContrast.max = mContrast.def = mContrast.res = mContrast.cached = 0;
+	mAutoContrast.min = mAutoContrast.max = mAutoContrast.def = mAutoContrast.res = mAutoContrast.cached = 0;
+	mSharpness.min = mSharpness.max = mSharpness.def = mSharpness.res = mSharpness.cached = 0;
+	mGain.min = mGain.max = mGain.def = mGain.res = mGain.cached = 0;
+	mGamma.min = mGamma.max = mGamma.def = mGamma.res = mGamma.cached = 0;
+	mSaturation.min = mSaturation.max = mSaturation.def = mSaturation.res = mSaturation.cached = 0;
+	mHue.min = mHue.max = mHue.def = mHue.res = mHue.cached = 0;
+	mAutoHue.min = mAutoHue.max = mAutoHue.def = mAutoHue.res = mAutoHue.cached = 0;
+	mZoom.min = mZoom.max = mZoom.def = mZoom.res = mZoom.cached = 0;
+	mZoomRel.min = mZoomRel.max = mZoomRel.def = mZoomRel.res = mZoomRel.cached = 0;
+	mFocus.min = mFocus.max = mFocus.def = mFocus.res = mFocus.cached = 0;
+	mFocusRel.min = mFocusRel.max = mFocusRel.def = mFocusRel.res = mFocusRel.cached = 0;
+	mFocusSimple.min = mFocusSimple.max = mFocusSimple.def = mFocusSimple.res = mFocusSimple.cached = 0;
+	mIris.min = mIris.max = mIris.def = mIris.res = mIris.cached = 0;
+	mIrisRel.min = mIrisRel.max = mIrisRel.def = mIrisRel.res = mIrisRel.cached = 0;
+	mPan.min = mPan.max = mPan.def = mPan.res = mPan.cached = 0; mPan.current = -1;
+	mTilt.min = mTilt.max = mTilt.def = mTilt.res = mTilt.cached = 0; mTilt.current = -1;
+	mRoll.min = mRoll.max = mRoll.def = mRoll.res = mRoll.cached = 0;
+	mPanRel.min = mPanRel.max = mPanRel.def = mPanRel.res = mPanRel.cached = 0; mPanRel.current = -1;
+	mTiltRel.min = mTiltRel.max = mTiltRel.def = mTiltRel.res = mTiltRel.cached = 0; mTiltRel.current = -1;
+	mRollRel.min = mRollRel.max = mRollRel.def = mRollRel.res = mRollRel.cached = 0;
+	mPrivacy.min = mPrivacy.max = mPrivacy.def = mPrivacy.res = mPrivacy.cached = 0;
+	mPowerlineFrequency.min = mPowerlineFrequency.max = mPowerlineFrequency.def = mPowerlineFrequency.res = mPowerlineFrequency.cached = 0;
+	mMultiplier.min = mMultiplier.max = mMultiplier.def = mMultiplier.res = mMultiplier.cached = 0;
+	mMultiplierLimit.min = mMultiplierLimit.max = mMultiplierLimit.def = mMultiplierLimit.res = mMultiplierLimit.cached = 0;
+	mAnalogVideoStandard.min = mAnalogVideoStandard.max = mAnalogVideoStandard.def = mAnalogVideoStandard.res = mAnalogVideoStandard.cached = 0;
+	mAnalogVideoLockState.min = mAnalogVideoLockState.max = mAnalogVideoLockState.def = mAnalogVideoLockState.res = mAnalogVideoLockState.cached = 0;
 }
 
 //======================================================================
 /**
  * カメラへ接続する
+ * @param shared_context trueなら他のカメラとlibuvc/libusbのコンテキストとイベント処理スレッドを共有する
  */
-int UVCCamera::connect(int vid, int pid, int fd, int busnum, int devaddr, const char *usbfs) {
+int UVCCamera::connect(int vid, int pid, int fd, int busnum, int devaddr, const char *usbfs, bool shared_context) {
 	ENTER();
 	uvc_error_t result = UVC_ERROR_BUSY;
 	if (!mDeviceHandle && fd) {
@@ -142,16 +209,27 @@ int UVCCamera::connect(int vid, int pid, int fd, int busnum, int devaddr, const
 			free(mUsbFs);
 		mUsbFs = strdup(usbfs);
 		if (UNLIKELY(!mContext)) {
-			result = uvc_init2(&mContext, NULL, mUsbFs);
+			if (shared_context) {
+				pthread_mutex_lock(&shared_context_mutex);
+				{
+					result = acquire_shared_context(&mContext, mUsbFs);
+				}
+				pthread_mutex_unlock(&shared_context_mutex);
+			} else {
+				result = uvc_init2(&mContext, NULL, mUsbFs);
+			}
 //			libusb_set_debug(mContext->usb_ctx, LIBUSB_LOG_LEVEL_DEBUG);
 			if (UNLIKELY(result < 0)) {
 				LOGD("failed to init libuvc");
 				RETURN(result, int);
 			}
+			mSharedContext = shared_context;
 		}
 		// カメラ機能フラグをクリア
 		clearCameraParams();
 		fd = dup(fd);
+		// 共有コンテキストでもshared_context_mutexは保持しない(デスクリプタの読み込みやinterfaceのclaimを並列に実行するため)
+		// libusbのデバイスリストはusb_devs_lockで, libuvcのopen済みデバイスリストはopen_devices_lockで排他制御される
 		// 指定したvid,idを持つデバイスを検索, 見つかれば0を返してmDeviceに見つかったデバイスをセットする(既に1回uvc_ref_deviceを呼んである)
 //		result = uvc_find_device2(mContext, &mDevice, vid, pid, NULL, fd);
 		result = uvc_get_device_with_fd(mContext, &mDevice, vid, pid, NULL, fd, busnum, devaddr);
@@ -165,6 +243,7 @@ int UVCCamera::connect(int vid, int pid, int fd, int busnum, int devaddr, const
 #endif
 				mFd = fd;
 				mStatusCallback = new UVCStatusCallback(mDeviceHandle);
+				mStatusCallback->setInfoChangeCallback(info_change_callback, this);
 				mButtonCallback = new UVCButtonCallback(mDeviceHandle);
 				mPreview = new UVCPreview(mDeviceHandle);
 			} else {
@@ -199,7 +278,7 @@ int UVCCamera::release() {
 		SAFE_DELETE(mButtonCallback);
 		// プレビューオブジェクトを破棄
 		SAFE_DELETE(mPreview);
-		// カメラをclose
+		// カメラをclose, 共有コンテキストのopen済みデバイスリストはuvc_close内で排他制御される
 		uvc_close(mDeviceHandle);
 		mDeviceHandle = NULL;
 	}
@@ -246,11 +325,21 @@ char *UVCCamera::getSupportedSize() {
 	RETURN(NULL, char *);
 }
 
-int UVCCamera::setPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth) {
+int32_t *UVCCamera::getSupportedFormats(int &num) {
+	ENTER();
+	num = 0;
+	if (mDeviceHandle) {
+		UVCDiags params;
+		RETURN(params.getSupportedFormats(mDeviceHandle, num), int32_t *)
+	}
+	RETURN(NULL, int32_t *);
+}
+
+int UVCCamera::setPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth, bool zero_copy) {
 	ENTER();
 	int result = EXIT_FAILURE;
 	if (mPreview) {
-		result = mPreview->setPreviewSize(width, height, min_fps, max_fps, mode, bandwidth);
+		result = mPreview->setPreviewSize(width, height, min_fps, max_fps, mode, bandwidth, zero_copy);
 	}
 	RETURN(result, int);
 }
@@ -273,6 +362,15 @@ int UVCCamera::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pix
 	RETURN(result, int);
 }
 
+int UVCCamera::setFrameBatchCallback(JNIEnv *env, jobject callback_obj, jobjectArray buffers, jobject metadata, int pixel_format) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setFrameBatchCallback(env, callback_obj, buffers, metadata, pixel_format);
+	}
+	RETURN(result, int);
+}
+
 int UVCCamera::startPreview() {
 	ENTER();
 
@@ -300,6 +398,127 @@ int UVCCamera::setCaptureDisplay(ANativeWindow *capture_window) {
 	RETURN(result, int);
 }
 
+int UVCCamera::setFramePoolConfig(int pool_size, size_t frame_bytes) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setFramePoolConfig(pool_size, frame_bytes);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::getFramePoolStats(uint64_t stats[FRAME_POOL_STATS_NUM]) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->getFramePoolStats(stats);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::setDecodeWorkers(int num_workers) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setDecodeWorkers(num_workers);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::setMaxPayloadSize(size_t bytes_per_packet) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setMaxPayloadSize(bytes_per_packet);
+	}
+	RETURN(result, int);
+}
+
+/**
+ * ストリーミングインターフェースのaltsetting毎のパケットサイズを取得する
+ * [0]=libusbのデバイス速度(LIBUSB_SPEED_XXX), [1]=altsetting数, 以降altsetting毎の(マイクロ)フレーム当たりの最大転送バイト数
+ * high bandwidth endpointの追加トランザクション数も考慮した値, バルク転送なら0
+ * 戻り値は呼び出し側でfreeすること
+ * @param num 要素数
+ */
+int32_t *UVCCamera::getStreamingAltSettings(int &num) {
+	ENTER();
+	int32_t *result = NULL;
+	num = 0;
+	if (LIKELY(mDeviceHandle && mDeviceHandle->info->stream_ifs && mDeviceHandle->info->config)) {
+		const uvc_streaming_interface_t *stream_if = mDeviceHandle->info->stream_ifs;
+		const struct libusb_interface *interface
+			= &mDeviceHandle->info->config->interface[stream_if->bInterfaceNumber];
+		const int num_alt = interface->num_altsetting;
+		result = (int32_t *)malloc(sizeof(int32_t) * (num_alt + 2));
+		if (LIKELY(result)) {
+			result[0] = libusb_get_device_speed(libusb_get_device(mDeviceHandle->usb_devh));
+			result[1] = num_alt;
+			for (int alt_idx = 0; alt_idx < num_alt; alt_idx++) {
+				const struct libusb_interface_descriptor *altsetting = interface->altsetting + alt_idx;
+				int bytes_per_packet = 0;
+				for (int ep_idx = 0; ep_idx < altsetting->bNumEndpoints; ep_idx++) {
+					const struct libusb_endpoint_descriptor *endpoint = altsetting->endpoint + ep_idx;
+					if (endpoint->bEndpointAddress == stream_if->bEndpointAddress) {
+						// same as uvc_stream_start_bandwidth, [unused:2 (multiplier-1):3 size:11]
+						bytes_per_packet = (endpoint->wMaxPacketSize & 0x07ff)
+							* (((endpoint->wMaxPacketSize >> 11) & 3) + 1);
+						break;
+					}
+				}
+				result[alt_idx + 2] = (num_alt > 1) ? bytes_per_packet : 0;
+			}
+			num = num_alt + 2;
+		}
+	}
+	RETURN(result, int32_t *);
+}
+
+int UVCCamera::setTransferConfig(int num_transfers, int packets_per_transfer, size_t bulk_transfer_size) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setTransferConfig(num_transfers, packets_per_transfer, bulk_transfer_size);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::getTransferStats(uint64_t stats[UVC_XFER_STATS_NUM]) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->getTransferStats(stats);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::setQueuePolicy(int queue, int policy, int depth, int param) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setQueuePolicy(queue, policy, depth, param);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::getQueueStats(int queue, uint64_t stats[QUEUE_STATS_NUM]) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->getQueueStats(queue, stats);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::setPipeline(IPipeline *pipeline) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setPipeline(pipeline);
+	}
+	RETURN(result, int);
+}
+
 //======================================================================
 // カメラのサポートしているコントロール機能を取得する
 int UVCCamera::getCtrlSupports(uint64_t *supports) {
@@ -352,6 +571,189 @@ int UVCCamera::getProcSupports(uint64_t *supports) {
 	RETURN(ret, int);
 }
 
+//======================================================================
+// コントロールIDと対応する関数の一覧
+// X(ID, 機能フラグ, 機能名, キャッシュするcontrol_value_t)
+// PanTiltは2値を取る、RollRel/FocusSimpleは未実装なので対象外
+#define CTRL_ID_TABLE(X) \
+	X(CTRL_SCANNING, mCtrlSupports, ScanningMode, mScanningMode) \
+	X(CTRL_AE, mCtrlSupports, ExposureMode, mExposureMode) \
+	X(CTRL_AE_PRIORITY, mCtrlSupports, ExposurePriority, mExposurePriority) \
+	X(CTRL_AE_ABS, mCtrlSupports, Exposure, mExposureAbs) \
+	X(CTRL_AE_REL, mCtrlSupports, ExposureRel, mExposureRel) \
+	X(CTRL_FOCUS_ABS, mCtrlSupports, Focus, mFocus) \
+	X(CTRL_FOCUS_REL, mCtrlSupports, FocusRel, mFocusRel) \
+	X(CTRL_IRIS_ABS, mCtrlSupports, Iris, mIris) \
+	X(CTRL_IRIS_REL, mCtrlSupports, IrisRel, mIrisRel) \
+	X(CTRL_ZOOM_ABS, mCtrlSupports, Zoom, mZoom) \
+	X(CTRL_ZOOM_REL, mCtrlSupports, ZoomRel, mZoomRel) \
+	X(CTRL_ROLL_ABS, mCtrlSupports, Roll, mRoll) \
+	X(CTRL_FOCUS_AUTO, mCtrlSupports, AutoFocus, mAutoFocus) \
+	X(CTRL_PRIVACY, mCtrlSupports, Privacy, mPrivacy) \
+	X(CTRL_ID_PU | PU_BRIGHTNESS, mPUSupports, Brightness, mBrightness) \
+	X(CTRL_ID_PU | PU_CONTRAST, mPUSupports, Contrast, mContrast) \
+	X(CTRL_ID_PU | PU_HUE, mPUSupports, Hue, mHue) \
+	X(CTRL_ID_PU | PU_SATURATION, mPUSupports, Saturation, mSaturation) \
+	X(CTRL_ID_PU | PU_SHARPNESS, mPUSupports, Sharpness, mSharpness) \
+	X(CTRL_ID_PU | PU_GAMMA, mPUSupports, Gamma, mGamma) \
+	X(CTRL_ID_PU | PU_WB_TEMP, mPUSupports, WhiteBlance, mWhiteBlance) \
+	X(CTRL_ID_PU | PU_WB_COMPO, mPUSupports, WhiteBlanceCompo, mWhiteBlanceCompo) \
+	X(CTRL_ID_PU | PU_BACKLIGHT, mPUSupports, BacklightComp, mBacklightComp) \
+	X(CTRL_ID_PU | PU_GAIN, mPUSupports, Gain, mGain) \
+	X(CTRL_ID_PU | PU_POWER_LF, mPUSupports, PowerlineFrequency, mPowerlineFrequency) \
+	X(CTRL_ID_PU | PU_HUE_AUTO, mPUSupports, AutoHue, mAutoHue) \
+	X(CTRL_ID_PU | PU_WB_TEMP_AUTO, mPUSupports, AutoWhiteBlance, mAutoWhiteBlance) \
+	X(CTRL_ID_PU | PU_WB_COMPO_AUTO, mPUSupports, AutoWhiteBlanceCompo, mAutoWhiteBlanceCompo) \
+	X(CTRL_ID_PU | PU_DIGITAL_MULT, mPUSupports, DigitalMultiplier, mMultiplier) \
+	X(CTRL_ID_PU | PU_DIGITAL_LIMIT, mPUSupports, DigitalMultiplierLimit, mMultiplierLimit) \
+	X(CTRL_ID_PU | PU_AVIDEO_STD, mPUSupports, AnalogVideoStandard, mAnalogVideoStandard) \
+	X(CTRL_ID_PU | PU_AVIDEO_LOCK, mPUSupports, AnalogVideoLockState, mAnalogVideoLockState) \
+	X(CTRL_ID_PU | PU_CONTRAST_AUTO, mPUSupports, AutoContrast, mAutoContrast)
+
+#define CTRL_ID_FLAG(ID) ((ID) & ~CTRL_ID_PU)
+
+/**
+ * 指定したコントロールの現在値を取得(ctrl_mutexをロックした状態で呼ぶ)
+ */
+int UVCCamera::getCtrlValue(const uint32_t id, int &value) {
+	int ret = UVC_ERROR_NOT_SUPPORTED;
+	switch (id) {
+#define CASE_GET_CTRL(ID, SUPPORTS, NAME, VALUES) \
+	case ID: \
+		if (SUPPORTS & CTRL_ID_FLAG(ID)) { \
+			value = get##NAME(); \
+			ret = UVC_SUCCESS; \
+		} \
+		break;
+	CTRL_ID_TABLE(CASE_GET_CTRL)
+#undef CASE_GET_CTRL
+	default:
+		break;
+	}
+	return ret;
+}
+
+/**
+ * 指定したコントロールの値を設定(ctrl_mutexをロックした状態で呼ぶ)
+ */
+int UVCCamera::setCtrlValue(const uint32_t id, const int value) {
+	int ret = UVC_ERROR_NOT_SUPPORTED;
+	switch (id) {
+#define CASE_SET_CTRL(ID, SUPPORTS, NAME, VALUES) \
+	case ID: \
+		if (SUPPORTS & CTRL_ID_FLAG(ID)) { \
+			ret = set##NAME(value); \
+		} \
+		break;
+	CTRL_ID_TABLE(CASE_SET_CTRL)
+#undef CASE_SET_CTRL
+	default:
+		break;
+	}
+	return ret;
+}
+
+/**
+ * 複数のコントロールの現在値をまとめて取得する
+ * 取得できなかったコントロールの値は変更しない
+ * @return 取得できたコントロールの数
+ */
+int UVCCamera::getCtrlValues(const uint32_t *ids, int *values, const int num) {
+	ENTER();
+	int result = 0;
+	pthread_mutex_lock(&ctrl_mutex);
+	if (LIKELY(mDeviceHandle)) {
+		getCtrlSupports(NULL);
+		getProcSupports(NULL);
+		for (int i = 0; i < num; i++) {
+			if (!getCtrlValue(ids[i], values[i])) {
+				result++;
+			}
+		}
+	}
+	pthread_mutex_unlock(&ctrl_mutex);
+	RETURN(result, int);
+}
+
+/**
+ * 複数のコントロールの値をまとめて設定する
+ * @param results 各コントロールの設定結果(0:成功, 負:エラー)を受け取る配列, NULL可
+ * @return 設定できたコントロールの数
+ */
+int UVCCamera::setCtrlValues(const uint32_t *ids, const int *values, int *results, const int num) {
+	ENTER();
+	int result = 0;
+	pthread_mutex_lock(&ctrl_mutex);
+	if (LIKELY(mDeviceHandle)) {
+		getCtrlSupports(NULL);
+		getProcSupports(NULL);
+		for (int i = 0; i < num; i++) {
+			const int r = setCtrlValue(ids[i], values[i]);
+			if (!r) {
+				result++;
+			}
+			if (results) {
+				results[i] = r;
+			}
+		}
+	}
+	pthread_mutex_unlock(&ctrl_mutex);
+	RETURN(result, int);
+}
+
+/**
+ * 指定したコントロールの最小・最大・デフォルト値と分解能を取得する
+ * 機器からの読み込みは接続後(またはINFO_CHANGEイベント後)の最初の1回のみ
+ */
+int UVCCamera::getCtrlLimit(const uint32_t id, int &min, int &max, int &def, int &res) {
+	ENTER();
+	int ret = UVC_ERROR_NOT_SUPPORTED;
+	pthread_mutex_lock(&ctrl_mutex);
+	if (LIKELY(mDeviceHandle)) {
+		getCtrlSupports(NULL);
+		getProcSupports(NULL);
+		switch (id) {
+#define CASE_LIMIT_CTRL(ID, SUPPORTS, NAME, VALUES) \
+		case ID: \
+			if (SUPPORTS & CTRL_ID_FLAG(ID)) { \
+				ret = update##NAME##Limit(min, max, def); \
+				res = VALUES.res; \
+			} \
+			break;
+		CTRL_ID_TABLE(CASE_LIMIT_CTRL)
+#undef CASE_LIMIT_CTRL
+		default:
+			break;
+		}
+	}
+	pthread_mutex_unlock(&ctrl_mutex);
+	RETURN(ret, int);
+}
+
+/**
+ * キャッシュしているコントロールの最小・最大・デフォルト値を破棄する
+ * 次回アクセス時に機器から読み直す
+ */
+void UVCCamera::invalidateCtrlValues() {
+	ENTER();
+	pthread_mutex_lock(&ctrl_mutex);
+	{
+		clearCtrlValues();
+	}
+	pthread_mutex_unlock(&ctrl_mutex);
+	EXIT();
+}
+
+/**
+ * コントロールのINFO_CHANGEイベントを受け取った時の処理
+ * コントロールの値の範囲等が変化した可能性があるのでキャッシュを破棄する
+ */
+/*static*/
+void UVCCamera::info_change_callback(void *user_ptr) {
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(user_ptr);
+	camera->invalidateCtrlValues();
+}
+
 //======================================================================
 #define CTRL_BRIGHTNESS		0
 #define CTRL_CONTRAST		1
@@ -366,7 +768,7 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 	ENTER();
 
 	uvc_error_t ret = UVC_SUCCESS;
-	if (!values.min && !values.max) {
+	if (!values.cached) {
 		int16_t value;
 		ret = get_func(devh, &value, UVC_GET_MIN);
 		if (LIKELY(!ret)) {
@@ -380,6 +782,11 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 				if (LIKELY(!ret)) {
 					values.def = value;
 					LOGV("update_params:def value=%d,def=%d", value, values.def);
+					// resolution is optional, some devices fail to return it
+					if (!get_func(devh, &value, UVC_GET_RES)) {
+						values.res = value;
+					}
+					values.cached = 1;
 				}
 			}
 		}
@@ -396,7 +803,7 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 	ENTER();
 
 	uvc_error_t ret = UVC_SUCCESS;
-	if (!values.min && !values.max) {
+	if (!values.cached) {
 		uint16_t value;
 		ret = get_func(devh, &value, UVC_GET_MIN);
 		if (LIKELY(!ret)) {
@@ -410,6 +817,11 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 				if (LIKELY(!ret)) {
 					values.def = value;
 					LOGV("update_params:def value=%d,def=%d", value, values.def);
+					// resolution is optional, some devices fail to return it
+					if (!get_func(devh, &value, UVC_GET_RES)) {
+						values.res = value;
+					}
+					values.cached = 1;
 				}
 			}
 		}
@@ -426,7 +838,7 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 	ENTER();
 
 	uvc_error_t ret = UVC_SUCCESS;
-	if (!values.min && !values.max) {
+	if (!values.cached) {
 		int8_t value;
 		ret = get_func(devh, &value, UVC_GET_MIN);
 		if (LIKELY(!ret)) {
@@ -440,6 +852,11 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 				if (LIKELY(!ret)) {
 					values.def = value;
 					LOGV("update_params:def value=%d,def=%d", value, values.def);
+					// resolution is optional, some devices fail to return it
+					if (!get_func(devh, &value, UVC_GET_RES)) {
+						values.res = value;
+					}
+					values.cached = 1;
 				}
 			}
 		}
@@ -456,7 +873,7 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 	ENTER();
 
 	uvc_error_t ret = UVC_SUCCESS;
-	if (!values.min && !values.max) {
+	if (!values.cached) {
 		uint8_t value;
 		ret = get_func(devh, &value, UVC_GET_MIN);
 		if (LIKELY(!ret)) {
@@ -470,6 +887,11 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 				if (LIKELY(!ret)) {
 					values.def = value;
 					LOGV("update_params:def value=%d,def=%d", value, values.def);
+					// resolution is optional, some devices fail to return it
+					if (!get_func(devh, &value, UVC_GET_RES)) {
+						values.res = value;
+					}
+					values.cached = 1;
 				}
 			}
 		}
@@ -486,7 +908,7 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 	ENTER();
 
 	uvc_error_t ret = UVC_SUCCESS;
-	if (!values.min && !values.max) {
+	if (!values.cached) {
 		uint8_t value1, value2;
 		ret = get_func(devh, &value1, &value2, UVC_GET_MIN);
 		if (LIKELY(!ret)) {
@@ -500,6 +922,7 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 				if (LIKELY(!ret)) {
 					values.def = (value1 << 8) + value2;
 					LOGV("update_params:def value1=%d,value2=%ddef=%d", value1, value2, values.def);
+					values.cached = 1;
 				}
 			}
 		}
@@ -516,7 +939,7 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 	ENTER();
 
 	uvc_error_t ret = UVC_SUCCESS;
-	if (!values.min && !values.max) {
+	if (!values.cached) {
 		int8_t value1;
 		uint8_t value2;
 		ret = get_func(devh, &value1, &value2, UVC_GET_MIN);
@@ -531,6 +954,7 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 				if (LIKELY(!ret)) {
 					values.def = (value1 << 8) + value2;
 					LOGV("update_params:def value1=%d,value2=%ddef=%d", value1, value2, values.def);
+					values.cached = 1;
 				}
 			}
 		}
@@ -547,7 +971,7 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 	ENTER();
 
 	uvc_error_t ret = UVC_SUCCESS;
-	if (!values.min && !values.max) {
+	if (!values.cached) {
 		int8_t value1;
 		uint8_t value2;
 		uint8_t value3;
@@ -563,6 +987,7 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 				if (LIKELY(!ret)) {
 					values.def = (value1 << 16) + (value2 <<8) +value3;
 					LOGV("update_params:def value1=%d,value2=%d,value3=%d,def=%d", value1, value2, value3, values.def);
+					values.cached = 1;
 				}
 			}
 		}
@@ -579,7 +1004,7 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 	ENTER();
 
 	uvc_error_t ret = UVC_SUCCESS;
-	if (!values.min && !values.max) {
+	if (!values.cached) {
 		int32_t value;
 		ret = get_func(devh, &value, UVC_GET_MIN);
 		if (LIKELY(!ret)) {
@@ -593,6 +1018,11 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 				if (LIKELY(!ret)) {
 					values.def = value;
 					LOGV("update_params:def value=%d,def=%d", value, values.def);
+					// resolution is optional, some devices fail to return it
+					if (!get_func(devh, &value, UVC_GET_RES)) {
+						values.res = value;
+					}
+					values.cached = 1;
 				}
 			}
 		}
@@ -609,7 +1039,7 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 	ENTER();
 
 	uvc_error_t ret = UVC_SUCCESS;
-	if (!values.min && !values.max) {
+	if (!values.cached) {
 		uint32_t value;
 		ret = get_func(devh, &value, UVC_GET_MIN);
 		if (LIKELY(!ret)) {
@@ -623,6 +1053,11 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 				if (LIKELY(!ret)) {
 					values.def = value;
 					LOGV("update_params:def value=%d,def=%d", value, values.def);
+					// resolution is optional, some devices fail to return it
+					if (!get_func(devh, &value, UVC_GET_RES)) {
+						values.res = value;
+					}
+					values.cached = 1;
 				}
 			}
 		}
@@ -639,7 +1074,7 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 	ENTER();
 
 	uvc_error_t ret = UVC_SUCCESS;
-	if ((!values1.min && !values1.max) ||(!values2.min && !values2.max)) {
+	if (!values1.cached || !values2.cached) {
 		int32_t value1, value2;
 		ret = get_func(devh, &value1, &value2, UVC_GET_MIN);
 		if (LIKELY(!ret)) {
@@ -656,6 +1091,7 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 					values1.def = value1;
 					values2.def = value2;
 					LOGV("update_params:def value1=%d,value2=%d", value1, value2);
+					values1.cached = values2.cached = 1;
 				}
 			}
 		}
@@ -666,7 +1102,21 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
 	RETURN(ret, uvc_error_t);
 }
 
+/**
+ * lock ctrl_mutex while this is in scope
+ * the cached limits of controls are cleared on the status thread by INFO_CHANGE event,
+ * so they should be read and updated while holding ctrl_mutex
+ */
+class CtrlLock {
+private:
+	pthread_mutex_t *mMutex;
+public:
+	CtrlLock(pthread_mutex_t *mutex) : mMutex(mutex) { pthread_mutex_lock(mMutex); }
+	~CtrlLock() { pthread_mutex_unlock(mMutex); }
+};
+
 #define UPDATE_CTRL_VALUES(VAL,FUNC) \
+	CtrlLock lock(&ctrl_mutex); \
 	ret = update_ctrl_values(mDeviceHandle, VAL, FUNC); \
 	if (LIKELY(!ret)) { \
 		min = VAL.min; \
@@ -681,6 +1131,7 @@ static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t
  */
 int UVCCamera::internalSetCtrlValue(control_value_t &values, int8_t value,
 		paramget_func_i8 get_func, paramset_func_i8 set_func) {
+	CtrlLock lock(&ctrl_mutex);
 	int ret = update_ctrl_values(mDeviceHandle, values, get_func);
 	if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 		value = value < values.min
@@ -693,6 +1144,7 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, int8_t value,
 
 int UVCCamera::internalSetCtrlValue(control_value_t &values, uint8_t value,
 		paramget_func_u8 get_func, paramset_func_u8 set_func) {
+	CtrlLock lock(&ctrl_mutex);
 	int ret = update_ctrl_values(mDeviceHandle, values, get_func);
 	if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 		value = value < values.min
@@ -705,6 +1157,7 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, uint8_t value,
 
 int UVCCamera::internalSetCtrlValue(control_value_t &values, uint8_t value1, uint8_t value2,
 		paramget_func_u8u8 get_func, paramset_func_u8u8 set_func) {
+	CtrlLock lock(&ctrl_mutex);
 	int ret = update_ctrl_values(mDeviceHandle, values, get_func);
 	if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 		uint8_t v1min = (uint8_t)((values.min >> 8) & 0xff);
@@ -724,6 +1177,7 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, uint8_t value1, uin
 
 int UVCCamera::internalSetCtrlValue(control_value_t &values, int8_t value1, uint8_t value2,
 		paramget_func_i8u8 get_func, paramset_func_i8u8 set_func) {
+	CtrlLock lock(&ctrl_mutex);
 	int ret = update_ctrl_values(mDeviceHandle, values, get_func);
 	if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 		int8_t v1min = (int8_t)((values.min >> 8) & 0xff);
@@ -743,6 +1197,7 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, int8_t value1, uint
 
 int UVCCamera::internalSetCtrlValue(control_value_t &values, int8_t value1, uint8_t value2, uint8_t value3,
 		paramget_func_i8u8u8 get_func, paramset_func_i8u8u8 set_func) {
+	CtrlLock lock(&ctrl_mutex);
 	int ret = update_ctrl_values(mDeviceHandle, values, get_func);
 	if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 		int8_t v1min = (int8_t)((values.min >> 16) & 0xff);
@@ -770,6 +1225,7 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, int8_t value1, uint
  */
 int UVCCamera::internalSetCtrlValue(control_value_t &values, int16_t value,
 		paramget_func_i16 get_func, paramset_func_i16 set_func) {
+	CtrlLock lock(&ctrl_mutex);
 	int ret = update_ctrl_values(mDeviceHandle, values, get_func);
 	if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 		value = value < values.min
@@ -785,6 +1241,7 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, int16_t value,
  */
 int UVCCamera::internalSetCtrlValue(control_value_t &values, uint16_t value,
 		paramget_func_u16 get_func, paramset_func_u16 set_func) {
+	CtrlLock lock(&ctrl_mutex);
 	int ret = update_ctrl_values(mDeviceHandle, values, get_func);
 	if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 		value = value < values.min
@@ -800,6 +1257,7 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, uint16_t value,
  */
 int UVCCamera::internalSetCtrlValue(control_value_t &values, int32_t value,
 		paramget_func_i32 get_func, paramset_func_i32 set_func) {
+	CtrlLock lock(&ctrl_mutex);
 	int ret = update_ctrl_values(mDeviceHandle, values, get_func);
 	if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 		value = value < values.min
@@ -815,6 +1273,7 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, int32_t value,
  */
 int UVCCamera::internalSetCtrlValue(control_value_t &values, uint32_t value,
 		paramget_func_u32 get_func, paramset_func_u32 set_func) {
+	CtrlLock lock(&ctrl_mutex);
 	int ret = update_ctrl_values(mDeviceHandle, values, get_func);
 	if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 		value = value < values.min
@@ -982,8 +1441,8 @@ int UVCCamera::getExposure() {
 int UVCCamera::updateExposureRelLimit(int &min, int &max, int &def) {
 	ENTER();
 	int ret = UVC_ERROR_IO;
-	if (mPUSupports & CTRL_AE_REL) {
-		UPDATE_CTRL_VALUES(mExposureAbs, uvc_get_exposure_rel);
+	if (mCtrlSupports & CTRL_AE_REL) {
+		UPDATE_CTRL_VALUES(mExposureRel, uvc_get_exposure_rel);
 	}
 	RETURN(ret, int);
 }
@@ -1075,6 +1534,7 @@ int UVCCamera::setFocus(int focus) {
 int UVCCamera::getFocus() {
 	ENTER();
 	if (mCtrlSupports & CTRL_FOCUS_ABS) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mFocus, uvc_get_focus_abs);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			int16_t value;
@@ -1111,6 +1571,7 @@ int UVCCamera::setFocusRel(int focus_rel) {
 int UVCCamera::getFocusRel() {
 	ENTER();
 	if (mCtrlSupports & CTRL_FOCUS_REL) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mFocusRel, uvc_get_focus_abs);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			int8_t focus;
@@ -1149,6 +1610,7 @@ int UVCCamera::setFocusSimple(int focus) {
 int UVCCamera::getFocusSimple() {
 	ENTER();
 	if (mCtrlSupports & CTRL_FOCUS_SIMPLE) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mFocusSimple, uvc_get_focus_abs);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint8_t value;
@@ -1186,6 +1648,7 @@ int UVCCamera::setIris(int iris) {
 int UVCCamera::getIris() {
 	ENTER();
 	if (mCtrlSupports & CTRL_IRIS_ABS) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mIris, uvc_get_iris_abs);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t value;
@@ -1203,7 +1666,7 @@ int UVCCamera::updateIrisRelLimit(int &min, int &max, int &def) {
 	ENTER();
 	int ret = UVC_ERROR_ACCESS;
 	if (mCtrlSupports & CTRL_IRIS_REL) {
-		UPDATE_CTRL_VALUES(mIris, uvc_get_iris_rel);
+		UPDATE_CTRL_VALUES(mIrisRel, uvc_get_iris_rel);
 	}
 	RETURN(ret, int);
 }
@@ -1213,7 +1676,7 @@ int UVCCamera::setIrisRel(int iris_rel) {
 	ENTER();
 	int ret = UVC_ERROR_ACCESS;
 	if (mCtrlSupports & CTRL_IRIS_REL) {
-		ret = internalSetCtrlValue(mIris, iris_rel, uvc_get_iris_rel, uvc_set_iris_rel);
+		ret = internalSetCtrlValue(mIrisRel, iris_rel, uvc_get_iris_rel, uvc_set_iris_rel);
 	}
 	RETURN(ret, int);
 }
@@ -1222,7 +1685,8 @@ int UVCCamera::setIrisRel(int iris_rel) {
 int UVCCamera::getIrisRel() {
 	ENTER();
 	if (mCtrlSupports & CTRL_IRIS_REL) {
-		int ret = update_ctrl_values(mDeviceHandle, mIris, uvc_get_iris_rel);
+		CtrlLock lock(&ctrl_mutex);
+		int ret = update_ctrl_values(mDeviceHandle, mIrisRel, uvc_get_iris_rel);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint8_t iris_rel;
 			ret = uvc_get_iris_rel(mDeviceHandle, &iris_rel, UVC_GET_CUR);
@@ -1239,6 +1703,7 @@ int UVCCamera::updatePanLimit(int &min, int &max, int &def) {
 	ENTER();
 	int ret = UVC_ERROR_ACCESS;
 	if (mCtrlSupports & CTRL_PANTILT_ABS) {
+		CtrlLock lock(&ctrl_mutex);
 		update_ctrl_values(mDeviceHandle, mPan, mTilt, uvc_get_pantilt_abs);
 	}
 	RETURN(ret, int);
@@ -1249,6 +1714,7 @@ int UVCCamera::setPan(int pan) {
 	ENTER();
 	int ret = UVC_ERROR_ACCESS;
 	if (mCtrlSupports & CTRL_PANTILT_ABS) {
+		CtrlLock lock(&ctrl_mutex);
 		ret = update_ctrl_values(mDeviceHandle, mPan, mTilt, uvc_get_pantilt_abs);
 		if (LIKELY(!ret)) {
 			pan = pan < mPan.min
@@ -1269,6 +1735,7 @@ int UVCCamera::setPan(int pan) {
 int UVCCamera::getPan() {
 	ENTER();
 	if (mCtrlSupports & CTRL_PANTILT_ABS) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mPan, mTilt, uvc_get_pantilt_abs);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			int32_t pan, tilt;
@@ -1289,6 +1756,7 @@ int UVCCamera::updateTiltLimit(int &min, int &max, int &def) {
 	ENTER();
 	int ret = UVC_ERROR_ACCESS;
 	if (mCtrlSupports & CTRL_PANTILT_ABS) {
+		CtrlLock lock(&ctrl_mutex);
 		update_ctrl_values(mDeviceHandle, mPan, mTilt, uvc_get_pantilt_abs);
 	}
 	RETURN(ret, int);
@@ -1299,6 +1767,7 @@ int UVCCamera::setTilt(int tilt) {
 	ENTER();
 	int ret = UVC_ERROR_ACCESS;
 	if (mCtrlSupports & CTRL_PANTILT_ABS) {
+		CtrlLock lock(&ctrl_mutex);
 		ret = update_ctrl_values(mDeviceHandle, mPan, mTilt, uvc_get_pantilt_abs);
 		if (LIKELY(!ret)) {
 			tilt = tilt < mTilt.min
@@ -1319,6 +1788,7 @@ int UVCCamera::setTilt(int tilt) {
 int UVCCamera::getTilt() {
 	ENTER();
 	if (mCtrlSupports & CTRL_PANTILT_ABS) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mPan, mTilt, uvc_get_pantilt_abs);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			int32_t pan, tilt;
@@ -1358,6 +1828,7 @@ int UVCCamera::setRoll(int roll) {
 int UVCCamera::getRoll() {
 	ENTER();
 	if (mCtrlSupports & CTRL_ROLL_ABS) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mRoll, uvc_get_roll_abs);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			int16_t roll;
@@ -1434,7 +1905,7 @@ int UVCCamera::updatePrivacyLimit(int &min, int &max, int &def) {
 	ENTER();
 	int ret = UVC_ERROR_ACCESS;
 	if (mCtrlSupports & CTRL_PRIVACY) {
-		UPDATE_CTRL_VALUES(mPrivacy, uvc_get_focus_abs);
+		UPDATE_CTRL_VALUES(mPrivacy, uvc_get_privacy);
 	}
 	RETURN(ret, int);
 }
@@ -1453,6 +1924,7 @@ int UVCCamera::setPrivacy(int privacy) {
 int UVCCamera::getPrivacy() {
 	ENTER();
 	if (mCtrlSupports & CTRL_PRIVACY) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mPrivacy, uvc_get_privacy);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint8_t privacy;
@@ -1537,6 +2009,7 @@ int UVCCamera::setBacklightComp(int backlight) {
 int UVCCamera::getBacklightComp() {
 	ENTER();
 	if (mPUSupports & PU_BACKLIGHT) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mBacklightComp, uvc_get_backlight_compensation);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			int16_t value;
@@ -1573,6 +2046,7 @@ int UVCCamera::setBrightness(int brightness) {
 int UVCCamera::getBrightness() {
 	ENTER();
 	if (mPUSupports & PU_BRIGHTNESS) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mBrightness, uvc_get_brightness);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			int16_t value;
@@ -1609,6 +2083,7 @@ int UVCCamera::setContrast(uint16_t contrast) {
 int UVCCamera::getContrast() {
 	ENTER();
 	if (mPUSupports & PU_CONTRAST) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mContrast, uvc_get_contrast);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t value;
@@ -1626,7 +2101,7 @@ int UVCCamera::updateAutoContrastLimit(int &min, int &max, int &def) {
 	ENTER();
 	int ret = UVC_ERROR_IO;
 	if (mPUSupports & PU_CONTRAST_AUTO) {
-		UPDATE_CTRL_VALUES(mAutoFocus, uvc_get_contrast_auto);
+		UPDATE_CTRL_VALUES(mAutoContrast, uvc_get_contrast_auto);
 	}
 	RETURN(ret, int);
 }
@@ -1680,6 +2155,7 @@ int UVCCamera::setSharpness(int sharpness) {
 int UVCCamera::getSharpness() {
 	ENTER();
 	if (mPUSupports & PU_SHARPNESS) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mSharpness, uvc_get_sharpness);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t value;
@@ -1717,6 +2193,7 @@ int UVCCamera::setGain(int gain) {
 int UVCCamera::getGain() {
 	ENTER();
 	if (mPUSupports & PU_GAIN) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mGain, uvc_get_gain);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t value;
@@ -1823,6 +2300,7 @@ int UVCCamera::setWhiteBlance(int white_blance) {
 int UVCCamera::getWhiteBlance() {
 	ENTER();
 	if (mPUSupports & PU_WB_TEMP) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mWhiteBlance, uvc_get_white_balance_temperature);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t value;
@@ -1860,6 +2338,7 @@ int UVCCamera::setWhiteBlanceCompo(int white_blance_compo) {
 int UVCCamera::getWhiteBlanceCompo() {
 	ENTER();
 	if (mPUSupports & PU_WB_COMPO) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mWhiteBlanceCompo, uvc_get_white_balance_component);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint32_t white_blance_compo;
@@ -1897,6 +2376,7 @@ int UVCCamera::setGamma(int gamma) {
 int UVCCamera::getGamma() {
 	ENTER();
 	if (mPUSupports & PU_GAMMA) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mGamma, uvc_get_gamma);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t value;
@@ -1934,6 +2414,7 @@ int UVCCamera::setSaturation(int saturation) {
 int UVCCamera::getSaturation() {
 	ENTER();
 	if (mPUSupports & PU_SATURATION) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mSaturation, uvc_get_saturation);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t value;
@@ -1970,6 +2451,7 @@ int UVCCamera::setHue(int hue) {
 int UVCCamera::getHue() {
 	ENTER();
 	if (mPUSupports & PU_HUE) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mHue, uvc_get_hue);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			int16_t value;
@@ -2085,6 +2567,7 @@ int UVCCamera::setZoom(int zoom) {
 int UVCCamera::getZoom() {
 	ENTER();
 	if (mCtrlSupports & CTRL_ZOOM_ABS) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mZoom, uvc_get_zoom_abs);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t value;
@@ -2123,6 +2606,7 @@ int UVCCamera::setZoomRel(int zoom) {
 int UVCCamera::getZoomRel() {
 	ENTER();
 	if (mCtrlSupports & CTRL_ZOOM_REL) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mZoomRel, uvc_get_zoom_rel);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			int8_t zoom;
@@ -2162,6 +2646,7 @@ int UVCCamera::setDigitalMultiplier(int multiplier) {
 int UVCCamera::getDigitalMultiplier() {
 	ENTER();
 	if (mPUSupports & PU_DIGITAL_MULT) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mMultiplier, uvc_get_digital_multiplier);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t multiplier;
@@ -2200,6 +2685,7 @@ int UVCCamera::setDigitalMultiplierLimit(int multiplier_limit) {
 int UVCCamera::getDigitalMultiplierLimit() {
 	ENTER();
 	if (mPUSupports & PU_DIGITAL_LIMIT) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mMultiplierLimit, uvc_get_digital_multiplier_limit);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint16_t multiplier_limit;
@@ -2236,6 +2722,7 @@ int UVCCamera::setAnalogVideoStandard(int standard) {
 int UVCCamera::getAnalogVideoStandard() {
 	ENTER();
 	if (mPUSupports & PU_AVIDEO_STD) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mAnalogVideoStandard, uvc_get_analog_video_standard);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint8_t standard;
@@ -2272,6 +2759,7 @@ int UVCCamera::setAnalogVideoLockState(int state) {
 int UVCCamera::getAnalogVideoLockState() {
 	ENTER();
 	if (mPUSupports & PU_AVIDEO_LOCK) {
+		CtrlLock lock(&ctrl_mutex);
 		int ret = update_ctrl_values(mDeviceHandle, mAnalogVideoLockState, uvc_get_analog_video_lockstate);
 		if (LIKELY(!ret)) {	// 正常に最小・最大値を取得出来た時
 			uint8_t status;
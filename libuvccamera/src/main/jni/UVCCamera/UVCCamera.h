@@ -78,13 +78,18 @@
 #define PU_CONTRAST_AUTO	0x040000	// D18: Contrast, Auto
 
 typedef struct control_value {
-	int res;	// unused
+	int res;	// resolution, 0 if the device does not return it
 	int min;
 	int max;
 	int def;
 	int current;
+	int cached;	// min/max/def/res are already read from the device
 } control_value_t;
 
+// control id used for batch access, CTRL_XXX or PU_XXX | CTRL_ID_PU
+// these are same as UVCCamera#CTRL_XXX/#PU_XXX on Java side
+#define CTRL_ID_PU			0x80000000
+
 typedef uvc_error_t (*paramget_func_i8)(uvc_device_handle_t *devh, int8_t *value, enum uvc_req_code req_code);
 typedef uvc_error_t (*paramget_func_i16)(uvc_device_handle_t *devh, int16_t *value, enum uvc_req_code req_code);
 typedef uvc_error_t (*paramget_func_i32)(uvc_device_handle_t *devh, int32_t *value, enum uvc_req_code req_code);
@@ -110,6 +115,8 @@ typedef uvc_error_t (*paramset_func_i32i32)(uvc_device_handle_t *devh, int32_t v
 class UVCCamera {
 	char *mUsbFs;
 	uvc_context_t *mContext;
+	// mContextが複数のカメラで共有しているコンテキストかどうか
+	bool mSharedContext;
 	int mFd;
 	uvc_device_t *mDevice;
 	uvc_device_handle_t *mDeviceHandle;
@@ -119,10 +126,13 @@ class UVCCamera {
 	UVCPreview *mPreview;
 	uint64_t mCtrlSupports;
 	uint64_t mPUSupports;
+	// lock for control access and invalidating cached control values, recursive
+	pthread_mutex_t ctrl_mutex;
 	control_value_t mScanningMode;
 	control_value_t mExposureMode;
 	control_value_t mExposurePriority;
 	control_value_t mExposureAbs;
+	control_value_t mExposureRel;
 	control_value_t mAutoFocus;
 	control_value_t mAutoWhiteBlance;
 	control_value_t mAutoWhiteBlanceCompo;
@@ -177,26 +187,46 @@ class UVCCamera {
 		paramget_func_i32 get_func, paramset_func_i32 set_func);
 	int internalSetCtrlValue(control_value_t &values, uint32_t value,
 		paramget_func_u32 get_func, paramset_func_u32 set_func);
+	void clearCtrlValues();
+	int getCtrlValue(const uint32_t id, int &value);
+	int setCtrlValue(const uint32_t id, const int value);
+	static void info_change_callback(void *user_ptr);
 public:
 	UVCCamera();
 	~UVCCamera();
 
-	int connect(int vid, int pid, int fd, int busnum, int devaddr, const char *usbfs);
+	int connect(int vid, int pid, int fd, int busnum, int devaddr, const char *usbfs, bool shared_context = false);
 	int release();
 
 	int setStatusCallback(JNIEnv *env, jobject status_callback_obj);
 	int setButtonCallback(JNIEnv *env, jobject button_callback_obj);
 
 	char *getSupportedSize();
-	int setPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth = DEFAULT_BANDWIDTH);
+	int32_t *getSupportedFormats(int &num);
+	int setPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth = DEFAULT_BANDWIDTH, bool zero_copy = DEFAULT_ZERO_COPY);
 	int setPreviewDisplay(ANativeWindow *preview_window);
 	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format);
+	int setFrameBatchCallback(JNIEnv *env, jobject callback_obj, jobjectArray buffers, jobject metadata, int pixel_format);
 	int startPreview();
 	int stopPreview();
 	int setCaptureDisplay(ANativeWindow *capture_window);
+	int setFramePoolConfig(int pool_size, size_t frame_bytes);
+	int getFramePoolStats(uint64_t stats[FRAME_POOL_STATS_NUM]);
+	int setDecodeWorkers(int num_workers);
+	int setMaxPayloadSize(size_t bytes_per_packet);
+	int32_t *getStreamingAltSettings(int &num);
+	int setTransferConfig(int num_transfers, int packets_per_transfer, size_t bulk_transfer_size);
+	int getTransferStats(uint64_t stats[UVC_XFER_STATS_NUM]);
+	int setQueuePolicy(int queue, int policy, int depth, int param);
+	int getQueueStats(int queue, uint64_t stats[QUEUE_STATS_NUM]);
+	int setPipeline(IPipeline *pipeline);
 
 	int getCtrlSupports(uint64_t *supports);
 	int getProcSupports(uint64_t *supports);
+	int getCtrlValues(const uint32_t *ids, int *values, const int num);
+	int setCtrlValues(const uint32_t *ids, const int *values, int *results, const int num);
+	int getCtrlLimit(const uint32_t id, int &min, int &max, int &def, int &res);
+	void invalidateCtrlValues();
 
 	int updateScanningModeLimit(int &min, int &max, int &def);
 	int setScanningMode(int mode);
@@ -25,6 +25,7 @@
 #include <stdlib.h>
 #include <linux/time.h>
 #include <unistd.h>
+#include <errno.h>
 
 #if 1	// set 1 if you don't need debug log
 	#ifndef LOG_NDEBUG
@@ -40,11 +41,11 @@
 #include "utilbase.h"
 #include "UVCPreview.h"
 #include "libuvc_internal.h"
+#include "IPipeline.h"
 
 #define	LOCAL_DEBUG 0
 #define MAX_FRAME 4
 #define PREVIEW_PIXEL_BYTES 4	// RGBA/RGBX
-#define FRAME_POOL_SZ MAX_FRAME + 2
 
 UVCPreview::UVCPreview(uvc_device_handle_t *devh)
 :	mPreviewWindow(NULL),
@@ -56,27 +57,61 @@ UVCPreview::UVCPreview(uvc_device_handle_t *devh)
 	requestMaxFps(DEFAULT_PREVIEW_FPS_MAX),
 	requestMode(DEFAULT_PREVIEW_MODE),
 	requestBandwidth(DEFAULT_BANDWIDTH),
+	requestMaxPayloadSize(0),
+	mIsStreaming(false),
+	requestZeroCopy(DEFAULT_ZERO_COPY),
 	frameWidth(DEFAULT_PREVIEW_WIDTH),
 	frameHeight(DEFAULT_PREVIEW_HEIGHT),
 	frameBytes(DEFAULT_PREVIEW_WIDTH * DEFAULT_PREVIEW_HEIGHT * 2),	// YUYV
 	frameMode(0),
+	frameZeroCopy(DEFAULT_ZERO_COPY),
 	previewBytes(DEFAULT_PREVIEW_WIDTH * DEFAULT_PREVIEW_HEIGHT * PREVIEW_PIXEL_BYTES),
 	previewFormat(WINDOW_FORMAT_RGBA_8888),
 	mIsRunning(false),
 	mIsCapturing(false),
-	captureQueu(NULL),
+	mFramePool(new FramePool(DEFAULT_FRAME_POOL_SIZE, 0)),
+	requestPoolSize(DEFAULT_FRAME_POOL_SIZE),
+	requestPoolFrameBytes(0),
+	requestDecodeWorkers(DEFAULT_DECODE_WORKERS),
+	mDecodeWorkers(NULL),
 	mFrameCallbackObj(NULL),
 	mFrameCallbackFunc(NULL),
-	callbackPixelBytes(2) {
+	callbackFrameFormat(UVC_FRAME_FORMAT_YUYV),
+	callbackPixelBytes(2),
+	mFrameBatchCallbackObj(NULL),
+	mBatchBuffers(NULL),
+	mBatchMetadata(NULL),
+	batchMetadata(NULL),
+	batchBufferNum(0),
+	batchHead(0),
+	batchCount(0),
+	captureFrames(MAX_FRAME_BATCH_BUFFERS),
+	mPipeline(NULL) {
 
 	ENTER();
+	// default policies, same as the previous hard-coded behavior
+	memset(queuePolicies, 0, sizeof(queuePolicies));
+	queuePolicies[QUEUE_PREVIEW].policy = QUEUE_POLICY_DROP_NEWEST;
+	queuePolicies[QUEUE_PREVIEW].depth = MAX_FRAME;
+	queuePolicies[QUEUE_CAPTURE].policy = QUEUE_POLICY_DROP_OLDEST;
+	queuePolicies[QUEUE_CAPTURE].depth = 1;	// keep only latest one
+	queuePolicies[QUEUE_DECODE].policy = QUEUE_POLICY_DROP_OLDEST;
+	queuePolicies[QUEUE_DECODE].depth = MAX_FRAME;
 	pthread_cond_init(&preview_sync, NULL);
+	pthread_cond_init(&preview_space_sync, NULL);
 	pthread_mutex_init(&preview_mutex, NULL);
 //
 	pthread_cond_init(&capture_sync, NULL);
+	pthread_cond_init(&capture_space_sync, NULL);
 	pthread_mutex_init(&capture_mutex, NULL);
-//	
-	pthread_mutex_init(&pool_mutex, NULL);
+//
+	mDecodeWorkers = new DecodeWorkerPool(this, queuePolicies[QUEUE_DECODE]);
+//
+	pthread_mutex_init(&pipeline_mutex, NULL);
+//
+	memset(&requestTransferConfig, 0, sizeof(requestTransferConfig));
+	memset(transferStats, 0, sizeof(transferStats));
+	pthread_mutex_init(&transfer_mutex, NULL);
 	EXIT();
 }
 
@@ -89,14 +124,18 @@ UVCPreview::~UVCPreview() {
 	if (mCaptureWindow)
 		ANativeWindow_release(mCaptureWindow);
 	mCaptureWindow = NULL;
+	SAFE_DELETE(mDecodeWorkers);
 	clearPreviewFrame();
 	clearCaptureFrame();
-	clear_pool();
+	SAFE_DELETE(mFramePool);
 	pthread_mutex_destroy(&preview_mutex);
 	pthread_cond_destroy(&preview_sync);
+	pthread_cond_destroy(&preview_space_sync);
 	pthread_mutex_destroy(&capture_mutex);
 	pthread_cond_destroy(&capture_sync);
-	pthread_mutex_destroy(&pool_mutex);
+	pthread_cond_destroy(&capture_space_sync);
+	pthread_mutex_destroy(&pipeline_mutex);
+	pthread_mutex_destroy(&transfer_mutex);
 	EXIT();
 }
 
@@ -107,31 +146,11 @@ UVCPreview::~UVCPreview() {
  * and you may need to confirm the size
  */
 uvc_frame_t *UVCPreview::get_frame(size_t data_bytes) {
-	uvc_frame_t *frame = NULL;
-	pthread_mutex_lock(&pool_mutex);
-	{
-		if (!mFramePool.isEmpty()) {
-			frame = mFramePool.last();
-		}
-	}
-	pthread_mutex_unlock(&pool_mutex);
-	if UNLIKELY(!frame) {
-		LOGW("allocate new frame");
-		frame = uvc_allocate_frame(data_bytes);
-	}
-	return frame;
+	return mFramePool->obtain(data_bytes);
 }
 
 void UVCPreview::recycle_frame(uvc_frame_t *frame) {
-	pthread_mutex_lock(&pool_mutex);
-	if (LIKELY(mFramePool.size() < FRAME_POOL_SZ)) {
-		mFramePool.put(frame);
-		frame = NULL;
-	}
-	pthread_mutex_unlock(&pool_mutex);
-	if (UNLIKELY(frame)) {
-		uvc_free_frame(frame);
-	}
+	mFramePool->recycle(frame);
 }
 
 
@@ -139,13 +158,7 @@ void UVCPreview::init_pool(size_t data_bytes) {
 	ENTER();
 
 	clear_pool();
-	pthread_mutex_lock(&pool_mutex);
-	{
-		for (int i = 0; i < FRAME_POOL_SZ; i++) {
-			mFramePool.put(uvc_allocate_frame(data_bytes));
-		}
-	}
-	pthread_mutex_unlock(&pool_mutex);
+	mFramePool->prefill(data_bytes);
 
 	EXIT();
 }
@@ -153,24 +166,69 @@ void UVCPreview::init_pool(size_t data_bytes) {
 void UVCPreview::clear_pool() {
 	ENTER();
 
-	pthread_mutex_lock(&pool_mutex);
-	{
-		const int n = mFramePool.size();
-		for (int i = 0; i < n; i++) {
-			uvc_free_frame(mFramePool[i]);
-		}
-		mFramePool.clear();
+	mFramePool->clear();
+
+	EXIT();
+}
+
+/**
+ * re-create the frame pool if the configuration was changed.
+ * this must be called only while the preview/capture threads are not running
+ * because the pool is accessed from them without any lock.
+ */
+void UVCPreview::update_pool() {
+	ENTER();
+
+	if ((mFramePool->poolSize() != requestPoolSize)
+		|| (mFramePool->frameBytes() != requestPoolFrameBytes)) {
+
+		SAFE_DELETE(mFramePool);
+		mFramePool = new FramePool(requestPoolSize, requestPoolFrameBytes);
 	}
-	pthread_mutex_unlock(&pool_mutex);
+
 	EXIT();
 }
 
+/**
+ * set the number of frames and the capacity of each frame of the frame pool
+ * this is applied when the preview starts next time
+ * @param pool_size [1, MAX_FRAME_POOL_SIZE]
+ * @param frame_bytes 0 means the pool allocates frames on demand with the requested size
+ */
+int UVCPreview::setFramePoolConfig(int pool_size, size_t frame_bytes) {
+	ENTER();
+
+	int result = 0;
+	if (LIKELY((pool_size > 0) && (pool_size <= MAX_FRAME_POOL_SIZE))) {
+		requestPoolSize = pool_size;
+		requestPoolFrameBytes = frame_bytes;
+	} else {
+		result = UVC_ERROR_INVALID_PARAM;
+	}
+
+	RETURN(result, int);
+}
+
+/**
+ * get statistics of the frame pool
+ * @param stats the values are stored with FRAME_POOL_STATS_XXX as its index
+ */
+int UVCPreview::getFramePoolStats(uint64_t stats[FRAME_POOL_STATS_NUM]) {
+	ENTER();
+
+	mFramePool->getStats(stats);
+
+	RETURN(0, int);
+}
+
 inline const bool UVCPreview::isRunning() const {return mIsRunning; }
 
-int UVCPreview::setPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth) {
+int UVCPreview::setPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth, bool zero_copy) {
 	ENTER();
 	
 	int result = 0;
+	// zero copy mode does not affect negotiation with the camera, it is applied when the preview starts
+	requestZeroCopy = zero_copy;
 	if ((requestWidth != width) || (requestHeight != height) || (requestMode != mode)) {
 		requestWidth = width;
 		requestHeight = height;
@@ -213,13 +271,18 @@ int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pi
 	{
 		if (isRunning() && isCapturing()) {
 			mIsCapturing = false;
-			if (mFrameCallbackObj) {
+			if (mFrameCallbackObj || mFrameBatchCallbackObj) {
 				pthread_cond_signal(&capture_sync);
 				pthread_cond_wait(&capture_sync, &capture_mutex);	// wait finishing capturing
 			}
 		}
+		if (frame_callback_obj) {
+			// IFrameCallback and IFrameBatchCallback are exclusive
+			releaseFrameBatchCallback(env);
+		}
 		if (!env->IsSameObject(mFrameCallbackObj, frame_callback_obj))	{
 			iframecallback_fields.onFrame = NULL;
+			iframecallback_fields.onFrameWithMetadata = NULL;
 			if (mFrameCallbackObj) {
 				env->DeleteGlobalRef(mFrameCallbackObj);
 			}
@@ -230,6 +293,10 @@ int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pi
 				if (LIKELY(clazz)) {
 					iframecallback_fields.onFrame = env->GetMethodID(clazz,
 						"onFrame",	"(Ljava/nio/ByteBuffer;)V");
+					env->ExceptionClear();
+					// optional, IFrameMetadataCallback
+					iframecallback_fields.onFrameWithMetadata = env->GetMethodID(clazz,
+						"onFrame",	"(Ljava/nio/ByteBuffer;JJJJ)V");
 				} else {
 					LOGW("failed to get object class");
 				}
@@ -250,8 +317,115 @@ int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pi
 	RETURN(0, int);
 }
 
+/**
+ * set IFrameBatchCallback, frames are converted into the direct ByteBuffers
+ * that are registered here and delivered to Java without allocating any Java objects.
+ * IFrameCallback is removed if this sets IFrameBatchCallback
+ * @param callback_obj global reference of IFrameBatchCallback, NULL to remove
+ * @param buffers global reference of the ring of direct ByteBuffers
+ * @param metadata global reference of direct LongBuffer that has FRAME_META_NUM values for each ByteBuffer
+ */
+int UVCPreview::setFrameBatchCallback(JNIEnv *env, jobject callback_obj, jobjectArray buffers, jobject metadata, int pixel_format) {
+
+	ENTER();
+	int result = 0;
+	pthread_mutex_lock(&capture_mutex);
+	{
+		if (isRunning() && isCapturing()) {
+			mIsCapturing = false;
+			if (mFrameCallbackObj || mFrameBatchCallbackObj) {
+				pthread_cond_signal(&capture_sync);
+				pthread_cond_wait(&capture_sync, &capture_mutex);	// wait finishing capturing
+			}
+		}
+		releaseFrameBatchCallback(env);
+		if (callback_obj) {
+			jclass clazz = env->GetObjectClass(callback_obj);
+			if (LIKELY(clazz)) {
+				iframebatchcallback_fields.onFrames = env->GetMethodID(clazz,
+					"onFrames",	"([Ljava/nio/ByteBuffer;Ljava/nio/LongBuffer;II)V");
+			} else {
+				LOGW("failed to get object class");
+			}
+			env->ExceptionClear();
+			const int n = buffers ? env->GetArrayLength(buffers) : 0;
+			batchMetadata = metadata ? (int64_t *)env->GetDirectBufferAddress(metadata) : NULL;
+			// capacity of LongBuffer is number of long values
+			const jlong meta_num = metadata ? env->GetDirectBufferCapacity(metadata) : 0;
+			if (!iframebatchcallback_fields.onFrames) {
+				LOGE("Can't find IFrameBatchCallback#onFrames");
+				result = UVC_ERROR_INVALID_PARAM;
+			} else if (UNLIKELY((n < 1) || (n > MAX_FRAME_BATCH_BUFFERS)
+				|| !batchMetadata || (meta_num < n * FRAME_META_NUM))) {
+				LOGE("invalid buffers for IFrameBatchCallback");
+				result = UVC_ERROR_INVALID_PARAM;
+			}
+			for (int i = 0; !result && (i < n); i++) {
+				jobject buf = env->GetObjectArrayElement(buffers, i);
+				batchBufferAddrs[i] = buf ? (uint8_t *)env->GetDirectBufferAddress(buf) : NULL;
+				const jlong bytes = buf ? env->GetDirectBufferCapacity(buf) : 0;
+				batchBufferBytes[i] = bytes > 0 ? (size_t)bytes : 0;
+				env->DeleteLocalRef(buf);
+				if (UNLIKELY(!batchBufferAddrs[i])) {
+					LOGE("buffer%d is not a direct ByteBuffer", i);
+					result = UVC_ERROR_INVALID_PARAM;
+				}
+			}
+			if (LIKELY(!result)) {
+				// IFrameCallback and IFrameBatchCallback are exclusive
+				if (mFrameCallbackObj) {
+					env->DeleteGlobalRef(mFrameCallbackObj);
+					mFrameCallbackObj = NULL;
+				}
+				mFrameBatchCallbackObj = callback_obj;
+				mBatchBuffers = buffers;
+				mBatchMetadata = metadata;
+				batchBufferNum = n;
+				mPixelFormat = pixel_format;
+				callbackPixelFormatChanged();
+			} else {
+				batchMetadata = NULL;
+				env->DeleteGlobalRef(callback_obj);
+				if (buffers) env->DeleteGlobalRef(buffers);
+				if (metadata) env->DeleteGlobalRef(metadata);
+			}
+		} else {
+			if (buffers) env->DeleteGlobalRef(buffers);
+			if (metadata) env->DeleteGlobalRef(metadata);
+		}
+	}
+	pthread_mutex_unlock(&capture_mutex);
+	RETURN(result, int);
+}
+
+/**
+ * release IFrameBatchCallback and its buffers, the caller should hold capture_mutex
+ */
+void UVCPreview::releaseFrameBatchCallback(JNIEnv *env) {
+	if (mFrameBatchCallbackObj) {
+		env->DeleteGlobalRef(mFrameBatchCallbackObj);
+		mFrameBatchCallbackObj = NULL;
+	}
+	if (mBatchBuffers) {
+		env->DeleteGlobalRef(mBatchBuffers);
+		mBatchBuffers = NULL;
+	}
+	if (mBatchMetadata) {
+		env->DeleteGlobalRef(mBatchMetadata);
+		mBatchMetadata = NULL;
+	}
+	iframebatchcallback_fields.onFrames = NULL;
+	batchMetadata = NULL;
+	batchBufferNum = batchHead = batchCount = 0;
+	for (int i = 0; i < captureFrames.size(); i++) {
+		recycle_frame(captureFrames[i]);
+	}
+	captureFrames.clear();
+}
+
 void UVCPreview::callbackPixelFormatChanged() {
 	mFrameCallbackFunc = NULL;
+	callbackFrameFormat = UVC_FRAME_FORMAT_YUYV;
 	const size_t sz = requestWidth * requestHeight;
 	switch (mPixelFormat) {
 	  case PIXEL_FORMAT_RAW:
@@ -265,21 +439,25 @@ void UVCPreview::callbackPixelFormatChanged() {
 	  case PIXEL_FORMAT_RGB565:
 		LOGI("PIXEL_FORMAT_RGB565:");
 		mFrameCallbackFunc = uvc_any2rgb565;
+		callbackFrameFormat = UVC_FRAME_FORMAT_RGB565;
 		callbackPixelBytes = sz * 2;
 		break;
 	  case PIXEL_FORMAT_RGBX:
 		LOGI("PIXEL_FORMAT_RGBX:");
 		mFrameCallbackFunc = uvc_any2rgbx;
+		callbackFrameFormat = UVC_FRAME_FORMAT_RGBX;
 		callbackPixelBytes = sz * 4;
 		break;
 	  case PIXEL_FORMAT_YUV20SP:
 		LOGI("PIXEL_FORMAT_YUV20SP:");
-		mFrameCallbackFunc = uvc_yuyv2iyuv420SP;
+		mFrameCallbackFunc = uvc_any2iyuv420SP;
+		callbackFrameFormat = UVC_FRAME_FORMAT_IYUV420SP;
 		callbackPixelBytes = (sz * 3) / 2;
 		break;
 	  case PIXEL_FORMAT_NV21:
 		LOGI("PIXEL_FORMAT_NV21:");
-		mFrameCallbackFunc = uvc_yuyv2yuv420SP;
+		mFrameCallbackFunc = uvc_any2yuv420SP;
+		callbackFrameFormat = UVC_FRAME_FORMAT_YUV420SP;
 		callbackPixelBytes = (sz * 3) / 2;
 		break;
 	}
@@ -330,6 +508,7 @@ int UVCPreview::startPreview() {
 
 	int result = EXIT_FAILURE;
 	if (!isRunning()) {
+		update_pool();
 		mIsRunning = true;
 		pthread_mutex_lock(&preview_mutex);
 		{
@@ -358,6 +537,13 @@ int UVCPreview::stopPreview() {
 		mIsRunning = false;
 		pthread_cond_signal(&preview_sync);
 		pthread_cond_signal(&capture_sync);
+		// wake up producers that are blocked by QUEUE_POLICY_BLOCK
+		pthread_mutex_lock(&preview_mutex);
+		pthread_cond_broadcast(&preview_space_sync);
+		pthread_mutex_unlock(&preview_mutex);
+		pthread_mutex_lock(&capture_mutex);
+		pthread_cond_broadcast(&capture_space_sync);
+		pthread_mutex_unlock(&capture_mutex);
 		if (pthread_join(capture_thread, NULL) != EXIT_SUCCESS) {
 			LOGW("UVCPreview::terminate capture thread: pthread_join failed");
 		}
@@ -400,6 +586,9 @@ void UVCPreview::uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args)
 #endif
 		return;
 	}
+	if (UNLIKELY(preview->mPipeline) && preview->queuePipelineFrame(frame)) {
+		return;
+	}
 	if (LIKELY(preview->isRunning())) {
 		uvc_frame_t *copy = preview->get_frame(frame->data_bytes);
 		if (UNLIKELY(!copy)) {
@@ -408,7 +597,9 @@ void UVCPreview::uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args)
 #endif
 			return;
 		}
-		uvc_error_t ret = uvc_duplicate_frame(frame, copy);
+		// in zero copy mode, take over the frame buffer from libuvc instead of copying it
+		uvc_error_t ret = preview->frameZeroCopy
+			? uvc_swap_frame(frame, copy) : uvc_duplicate_frame(frame, copy);
 		if (UNLIKELY(ret)) {
 			preview->recycle_frame(copy);
 			return;
@@ -417,11 +608,44 @@ void UVCPreview::uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args)
 	}
 }
 
+/**
+ * pass the received frame to the attached pipeline, the pipeline copies it into its own buffer
+ * @return true if nobody needs the frame on the preview/capture thread
+ */
+bool UVCPreview::queuePipelineFrame(uvc_frame_t *frame) {
+	pthread_mutex_lock(&pipeline_mutex);
+	{
+		if (LIKELY(mPipeline)) {
+			mPipeline->queueFrame(frame);
+		}
+	}
+	pthread_mutex_unlock(&pipeline_mutex);
+	return !mPreviewWindow && !mCaptureWindow && !mFrameCallbackObj && !mFrameBatchCallbackObj;
+}
+
+/**
+ * set the pipeline that receives all frames from the camera
+ * the pipeline is not owned by this instance, detach it(set NULL) before releasing the pipeline
+ */
+int UVCPreview::setPipeline(IPipeline *pipeline) {
+	ENTER();
+
+	pthread_mutex_lock(&pipeline_mutex);
+	{
+		mPipeline = pipeline;
+	}
+	pthread_mutex_unlock(&pipeline_mutex);
+
+	RETURN(0, int);
+}
+
 void UVCPreview::addPreviewFrame(uvc_frame_t *frame) {
 
+	uvc_frame_t *dropped = NULL;
 	pthread_mutex_lock(&preview_mutex);
-	if (isRunning() && (previewFrames.size() < MAX_FRAME)) {
-		previewFrames.put(frame);
+	if (isRunning() && enqueue_frame(queuePolicies[QUEUE_PREVIEW], previewFrames,
+		queuePolicies[QUEUE_PREVIEW].depth, &preview_mutex, &preview_space_sync, mIsRunning, frame, &dropped)) {
+
 		frame = NULL;
 		pthread_cond_signal(&preview_sync);
 	}
@@ -429,6 +653,9 @@ void UVCPreview::addPreviewFrame(uvc_frame_t *frame) {
 	if (frame) {
 		recycle_frame(frame);
 	}
+	if (dropped) {
+		recycle_frame(dropped);
+	}
 }
 
 uvc_frame_t *UVCPreview::waitPreviewFrame() {
@@ -440,6 +667,7 @@ uvc_frame_t *UVCPreview::waitPreviewFrame() {
 		}
 		if (LIKELY(isRunning() && previewFrames.size() > 0)) {
 			frame = previewFrames.remove(0);
+			pthread_cond_signal(&preview_space_sync);
 		}
 	}
 	pthread_mutex_unlock(&preview_mutex);
@@ -501,6 +729,11 @@ int UVCPreview::prepare_preview(uvc_stream_ctrl_t *ctrl) {
 			frameHeight = requestHeight;
 		}
 		frameMode = requestMode;
+		frameZeroCopy = requestZeroCopy;
+		if (requestPoolFrameBytes) {
+			// pre-allocate frames only when the capacity is specified explicitly
+			init_pool(requestPoolFrameBytes);
+		}
 		frameBytes = frameWidth * frameHeight * (!requestMode ? 2 : 4);
 		previewBytes = frameWidth * frameHeight * PREVIEW_PIXEL_BYTES;
 	} else {
@@ -514,8 +747,19 @@ void UVCPreview::do_preview(uvc_stream_ctrl_t *ctrl) {
 
 	uvc_frame_t *frame = NULL;
 	uvc_frame_t *frame_mjpeg = NULL;
-	uvc_error_t result = uvc_start_streaming_bandwidth(
-		mDeviceHandle, ctrl, uvc_preview_frame_callback, (void *)this, requestBandwidth, 0);
+	float bandwidth = requestBandwidth;
+	if (requestMaxPayloadSize && ctrl->dwMaxPayloadTransferSize
+		&& (requestMaxPayloadSize < ctrl->dwMaxPayloadTransferSize)) {
+		// libuvc selects the first altsetting whose packet size is equal or larger than
+		// dwMaxPayloadTransferSize * bandwidth, so this selects the altsetting planned by the app
+		bandwidth = (float)requestMaxPayloadSize / ctrl->dwMaxPayloadTransferSize;
+	}
+	pthread_mutex_lock(&transfer_mutex);
+	uvc_error_t result = uvc_start_streaming_config(
+		mDeviceHandle, ctrl, uvc_preview_frame_callback, (void *)this, bandwidth,
+		frameZeroCopy ? UVC_STREAM_FLAG_ZERO_COPY : 0, &requestTransferConfig);
+	mIsStreaming = !result;
+	pthread_mutex_unlock(&transfer_mutex);
 
 	if (LIKELY(!result)) {
 		clearPreviewFrame();
@@ -524,19 +768,26 @@ void UVCPreview::do_preview(uvc_stream_ctrl_t *ctrl) {
 #if LOCAL_DEBUG
 		LOGI("Streaming...");
 #endif
-		if (frameMode) {
+		if (frameMode && (requestDecodeWorkers > 0)) {
+			// MJPEG mode, decode on worker threads
+			mDecodeWorkers->start(requestDecodeWorkers);
+			for ( ; LIKELY(isRunning()) ; ) {
+				frame_mjpeg = waitPreviewFrame();
+				if (LIKELY(frame_mjpeg)) {
+					mDecodeWorkers->queueFrame(frame_mjpeg);
+				}
+			}
+			mDecodeWorkers->stop();
+		} else if (frameMode) {
 			// MJPEG mode
 			for ( ; LIKELY(isRunning()) ; ) {
 				frame_mjpeg = waitPreviewFrame();
 				if (LIKELY(frame_mjpeg)) {
-					frame = get_frame(frame_mjpeg->width * frame_mjpeg->height * 2);
-					result = uvc_mjpeg2yuyv(frame_mjpeg, frame);   // MJPEG => yuyv
-					recycle_frame(frame_mjpeg);
-					if (LIKELY(!result)) {
-						frame = draw_preview_one(frame, &mPreviewWindow, uvc_any2rgbx, 4);
+					frame = decode_mjpeg_one(frame_mjpeg);
+					if (LIKELY(frame)) {
+						frame = draw_preview_one(frame, &mPreviewWindow,
+							frame->frame_format == UVC_FRAME_FORMAT_RGBX ? NULL : uvc_any2rgbx, 4);
 						addCaptureFrame(frame);
-					} else {
-						recycle_frame(frame);
 					}
 				}
 			}
@@ -554,7 +805,14 @@ void UVCPreview::do_preview(uvc_stream_ctrl_t *ctrl) {
 #if LOCAL_DEBUG
 		LOGI("preview_thread_func:wait for all callbacks complete");
 #endif
-		uvc_stop_streaming(mDeviceHandle);
+		pthread_mutex_lock(&transfer_mutex);
+		{
+			// keep the counters of this stream, libuvc releases them with the stream
+			uvc_get_transfer_stats(mDeviceHandle, transferStats);
+			mIsStreaming = false;
+			uvc_stop_streaming(mDeviceHandle);
+		}
+		pthread_mutex_unlock(&transfer_mutex);
 #if LOCAL_DEBUG
 		LOGI("Streaming finished");
 #endif
@@ -565,6 +823,260 @@ void UVCPreview::do_preview(uvc_stream_ctrl_t *ctrl) {
 	EXIT();
 }
 
+/**
+ * select the pixel format that MJPEG frames are decoded into depending on active consumers
+ * decoding into yuyv costs one more full-frame conversion for each consumer,
+ * so decode directly into what the consumers need if all of them need the same format.
+ * preview/capture Surface always need RGBX
+ */
+uvc_frame_format UVCPreview::mjpeg_decode_format() {
+#ifdef LIBUVC_HAS_TURBOJPEG
+	if (!mFrameCallbackObj && !mFrameBatchCallbackObj) {
+		return UVC_FRAME_FORMAT_RGBX;
+	}
+	const bool has_window = mPreviewWindow || mCaptureWindow;
+	switch (callbackFrameFormat) {
+	case UVC_FRAME_FORMAT_RGBX:
+		return UVC_FRAME_FORMAT_RGBX;
+	case UVC_FRAME_FORMAT_YUV420SP:
+	case UVC_FRAME_FORMAT_IYUV420SP:
+		// TurboJPEG can not decode into RGBX and yuv at once,
+		// decoding twice is slower than decoding into yuyv and converting it
+		return has_window ? UVC_FRAME_FORMAT_YUYV : callbackFrameFormat;
+	default:
+		break;
+	}
+#endif
+	return UVC_FRAME_FORMAT_YUYV;
+}
+
+/**
+ * decode MJPEG frame, the MJPEG frame is recycled in this function
+ * @return decoded frame, NULL if failed
+ */
+uvc_frame_t *UVCPreview::decode_mjpeg_one(uvc_frame_t *frame_mjpeg) {
+	const size_t sz = frame_mjpeg->width * frame_mjpeg->height;
+	uvc_frame_t *frame = NULL;
+	uvc_error_t result = UVC_ERROR_NO_MEM;
+#ifdef LIBUVC_HAS_TURBOJPEG
+	switch (mjpeg_decode_format()) {
+	case UVC_FRAME_FORMAT_RGBX:
+		frame = get_frame(sz * 4);
+		if (LIKELY(frame)) {
+			result = uvc_mjpeg2rgbx_tj(frame_mjpeg, frame);	// MJPEG => RGBX
+		}
+		break;
+	case UVC_FRAME_FORMAT_YUV420SP:
+		frame = get_frame((sz * 3) / 2);
+		if (LIKELY(frame)) {
+			result = uvc_mjpeg2yuv420SP(frame_mjpeg, frame);	// MJPEG => yuv420sp
+		}
+		break;
+	case UVC_FRAME_FORMAT_IYUV420SP:
+		frame = get_frame((sz * 3) / 2);
+		if (LIKELY(frame)) {
+			result = uvc_mjpeg2iyuv420SP(frame_mjpeg, frame);	// MJPEG => iyuv420sp
+		}
+		break;
+	default:
+		break;
+	}
+	if (UNLIKELY(frame && result)) {
+		// fall back to decoding into yuyv
+		recycle_frame(frame);
+		frame = NULL;
+	}
+#endif
+	if (!frame) {
+		frame = get_frame(sz * 2);
+		if (LIKELY(frame)) {
+			result = uvc_mjpeg2yuyv(frame_mjpeg, frame);   // MJPEG => yuyv
+		}
+	}
+	recycle_frame(frame_mjpeg);
+	if (UNLIKELY(result)) {
+		recycle_frame(frame);
+		frame = NULL;
+	}
+	return frame;
+}
+
+//======================================================================
+// MJPEG decode workers
+//======================================================================
+/**
+ * set the number of worker threads that decode MJPEG frames
+ * this is applied when the preview starts next time
+ * @param num_workers [0, MAX_DECODE_WORKERS], 0 means decoding on the preview thread
+ */
+int UVCPreview::setDecodeWorkers(int num_workers) {
+	ENTER();
+
+	int result = 0;
+	if (LIKELY((num_workers >= 0) && (num_workers <= MAX_DECODE_WORKERS))) {
+		requestDecodeWorkers = num_workers;
+	} else {
+		result = UVC_ERROR_INVALID_PARAM;
+	}
+
+	RETURN(result, int);
+}
+
+/**
+ * decode MJPEG frame on a decode worker, IDecodeHandler
+ */
+uvc_frame_t *UVCPreview::decode(uvc_frame_t *frame) {
+	return decode_mjpeg_one(frame);
+}
+
+/**
+ * draw the decoded frame and pass it to the capture thread in arrival order, IDecodeHandler
+ */
+void UVCPreview::deliver(uvc_frame_t *frame) {
+	frame = draw_preview_one(frame, &mPreviewWindow,
+		frame->frame_format == UVC_FRAME_FORMAT_RGBX ? NULL : uvc_any2rgbx, 4);
+	addCaptureFrame(frame);
+}
+
+/**
+ * return the frame that the decode workers did not deliver to the pool, IDecodeHandler
+ */
+void UVCPreview::recycle(uvc_frame_t *frame) {
+	recycle_frame(frame);
+}
+
+/**
+ * set the payload size per (micro)frame that is reserved on the bus,
+ * this is applied when the preview starts next time and overrides bandwidth factor
+ * @param bytes_per_packet 0 means using bandwidth factor of #setPreviewSize
+ */
+int UVCPreview::setMaxPayloadSize(size_t bytes_per_packet) {
+	ENTER();
+
+	requestMaxPayloadSize = bytes_per_packet;
+
+	RETURN(0, int);
+}
+
+/**
+ * set the number and the size of USB transfers, this is applied when the preview starts next time
+ * @param num_transfers number of transfers in flight [1, UVC_MAX_TRANSFER_BUFS], 0 means default
+ * @param packets_per_transfer isochronous packets per transfer [1, UVC_MAX_PACKETS_PER_TRANSFER], 0 means default
+ * @param bulk_transfer_size bytes per bulk transfer, 0 means dwMaxPayloadTransferSize
+ */
+int UVCPreview::setTransferConfig(int num_transfers, int packets_per_transfer, size_t bulk_transfer_size) {
+	ENTER();
+
+	if (UNLIKELY((num_transfers < 0) || (num_transfers > UVC_MAX_TRANSFER_BUFS)
+		|| (packets_per_transfer < 0) || (packets_per_transfer > UVC_MAX_PACKETS_PER_TRANSFER))) {
+
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	pthread_mutex_lock(&transfer_mutex);
+	{
+		requestTransferConfig.num_transfers = num_transfers;
+		requestTransferConfig.packets_per_transfer = packets_per_transfer;
+		requestTransferConfig.bulk_transfer_size = bulk_transfer_size;
+	}
+	pthread_mutex_unlock(&transfer_mutex);
+
+	RETURN(0, int);
+}
+
+/**
+ * get counters of USB transfers of the current stream,
+ * or of the last stream if the preview is not running
+ * @param stats use UVC_XFER_STATS_XXX as its index
+ */
+int UVCPreview::getTransferStats(uint64_t stats[UVC_XFER_STATS_NUM]) {
+	ENTER();
+
+	int result = 0;
+	pthread_mutex_lock(&transfer_mutex);
+	{
+		if (mIsStreaming) {
+			result = uvc_get_transfer_stats(mDeviceHandle, stats);
+		} else {
+			memcpy(stats, transferStats, sizeof(transferStats));
+		}
+	}
+	pthread_mutex_unlock(&transfer_mutex);
+
+	RETURN(result, int);
+}
+
+//======================================================================
+// queue policies
+//======================================================================
+pthread_mutex_t *UVCPreview::queue_mutex(int queue) {
+	switch (queue) {
+	case QUEUE_PREVIEW:
+		return &preview_mutex;
+	case QUEUE_CAPTURE:
+		return &capture_mutex;
+	case QUEUE_DECODE:
+		return mDecodeWorkers->mutex();
+	default:
+		return NULL;
+	}
+}
+
+/**
+ * set the policy of the specific frame queue, this is applied immediately
+ * and the statistics of the queue are cleared
+ * @param queue QUEUE_PREVIEW/QUEUE_CAPTURE/QUEUE_DECODE
+ * @param policy QUEUE_POLICY_XXX
+ * @param depth [1, MAX_QUEUE_DEPTH]
+ * @param param decimation interval(>=2) for QUEUE_POLICY_DECIMATE,
+ * 			timeout [ms] for QUEUE_POLICY_BLOCK [0, MAX_QUEUE_BLOCK_MS], otherwise ignored
+ */
+int UVCPreview::setQueuePolicy(int queue, int policy, int depth, int param) {
+	ENTER();
+
+	int result = 0;
+	pthread_mutex_t *mutex = queue_mutex(queue);
+	if (UNLIKELY(!mutex || (policy < 0) || (policy >= QUEUE_POLICY_NUM)
+		|| (depth < 1) || (depth > MAX_QUEUE_DEPTH)
+		|| ((policy == QUEUE_POLICY_DECIMATE) && (param < 2))
+		|| ((policy == QUEUE_POLICY_BLOCK) && ((param < 0) || (param > MAX_QUEUE_BLOCK_MS))))) {
+
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	pthread_mutex_lock(mutex);
+	{
+		queue_policy_t &q = queuePolicies[queue];
+		q.policy = policy;
+		q.depth = depth;
+		q.param = param;
+		q.count = 0;
+		memset(q.stats, 0, sizeof(q.stats));
+	}
+	pthread_mutex_unlock(mutex);
+
+	RETURN(result, int);
+}
+
+/**
+ * get statistics of the specific frame queue
+ * @param queue QUEUE_PREVIEW/QUEUE_CAPTURE/QUEUE_DECODE
+ * @param stats use QUEUE_STATS_XXX as its index
+ */
+int UVCPreview::getQueueStats(int queue, uint64_t stats[QUEUE_STATS_NUM]) {
+	ENTER();
+
+	pthread_mutex_t *mutex = queue_mutex(queue);
+	if (UNLIKELY(!mutex)) {
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	pthread_mutex_lock(mutex);
+	{
+		memcpy(stats, queuePolicies[queue].stats, sizeof(queuePolicies[queue].stats));
+	}
+	pthread_mutex_unlock(mutex);
+
+	RETURN(0, int);
+}
+
 static void copyFrame(const uint8_t *src, uint8_t *dest, const int width, int height, const int stride_src, const int stride_dest) {
 	const int h8 = height % 8;
 	for (int i = 0; i < h8; i++) {
@@ -700,15 +1212,27 @@ int UVCPreview::setCaptureDisplay(ANativeWindow *capture_window) {
 
 void UVCPreview::addCaptureFrame(uvc_frame_t *frame) {
 	pthread_mutex_lock(&capture_mutex);
+	uvc_frame_t *dropped = NULL;
 	if (LIKELY(isRunning())) {
-		// keep only latest one
-		if (captureQueu) {
-			recycle_frame(captureQueu);
+		int depth = queuePolicies[QUEUE_CAPTURE].depth;
+		if (mFrameBatchCallbackObj && (depth < batchBufferNum)) {
+			// keep frames up to the number of buffers of IFrameBatchCallback at least
+			depth = batchBufferNum;
+		}
+		if (enqueue_frame(queuePolicies[QUEUE_CAPTURE], captureFrames, depth,
+			&capture_mutex, &capture_space_sync, mIsRunning, frame, &dropped)) {
+
+			frame = NULL;
+			pthread_cond_broadcast(&capture_sync);
 		}
-		captureQueu = frame;
-		pthread_cond_broadcast(&capture_sync);
 	}
 	pthread_mutex_unlock(&capture_mutex);
+	if (frame) {
+		recycle_frame(frame);
+	}
+	if (dropped) {
+		recycle_frame(dropped);
+	}
 }
 
 /**
@@ -718,12 +1242,12 @@ uvc_frame_t *UVCPreview::waitCaptureFrame() {
 	uvc_frame_t *frame = NULL;
 	pthread_mutex_lock(&capture_mutex);
 	{
-		if (!captureQueu) {
+		if (captureFrames.isEmpty()) {
 			pthread_cond_wait(&capture_sync, &capture_mutex);
 		}
-		if (LIKELY(isRunning() && captureQueu)) {
-			frame = captureQueu;
-			captureQueu = NULL;
+		if (LIKELY(isRunning() && !captureFrames.isEmpty())) {
+			frame = captureFrames.remove(0);
+			pthread_cond_signal(&capture_space_sync);
 		}
 	}
 	pthread_mutex_unlock(&capture_mutex);
@@ -736,13 +1260,24 @@ uvc_frame_t *UVCPreview::waitCaptureFrame() {
 void UVCPreview::clearCaptureFrame() {
 	pthread_mutex_lock(&capture_mutex);
 	{
-		if (captureQueu)
-			recycle_frame(captureQueu);
-		captureQueu = NULL;
+		for (int i = 0; i < captureFrames.size(); i++) {
+			recycle_frame(captureFrames[i]);
+		}
+		captureFrames.clear();
 	}
 	pthread_mutex_unlock(&capture_mutex);
 }
 
+bool UVCPreview::hasPendingCaptureFrame() {
+	bool result;
+	pthread_mutex_lock(&capture_mutex);
+	{
+		result = !captureFrames.isEmpty();
+	}
+	pthread_mutex_unlock(&capture_mutex);
+	return result;
+}
+
 //======================================================================
 /*
  * thread function
@@ -812,12 +1347,17 @@ void UVCPreview::do_capture_surface(JNIEnv *env) {
 	for (; isRunning() && isCapturing() ;) {
 		frame = waitCaptureFrame();
 		if (LIKELY(frame)) {
-			// frame data is always YUYV format.
+			// frame data is YUYV or RGBX format.
 			if LIKELY(isCapturing()) {
-				if (UNLIKELY(!converted)) {
+				if (UNLIKELY(!converted && (frame->frame_format != UVC_FRAME_FORMAT_RGBX))) {
 					converted = get_frame(previewBytes);
 				}
-				if (LIKELY(converted)) {
+				if (frame->frame_format == UVC_FRAME_FORMAT_RGBX) {
+					// already decoded into RGBX
+					if (LIKELY(mCaptureWindow)) {
+						copyToSurface(frame, &mCaptureWindow);
+					}
+				} else if (LIKELY(converted)) {
 					int b = uvc_any2rgbx(frame, converted);
 					if (!b) {
 						if (LIKELY(mCaptureWindow)) {
@@ -847,9 +1387,15 @@ void UVCPreview::do_capture_callback(JNIEnv *env, uvc_frame_t *frame) {
 	ENTER();
 
 	if (LIKELY(frame)) {
+		if (mFrameBatchCallbackObj) {
+			do_capture_batch_callback(env, frame);
+			EXIT();
+		}
 		uvc_frame_t *callback_frame = frame;
 		if (mFrameCallbackObj) {
-			if (mFrameCallbackFunc) {
+			if (frame->frame_format == callbackFrameFormat) {
+				// already decoded into requested format, pass through
+			} else if (mFrameCallbackFunc) {
 				callback_frame = get_frame(callbackPixelBytes);
 				if (LIKELY(callback_frame)) {
 					int b = mFrameCallbackFunc(frame, callback_frame);
@@ -863,9 +1409,19 @@ void UVCPreview::do_capture_callback(JNIEnv *env, uvc_frame_t *frame) {
 					callback_frame = frame;
 					goto SKIP;
 				}
+			} else if (UNLIKELY(frame->frame_format != UVC_FRAME_FORMAT_YUYV)) {
+				// consumers changed while decoding, skip this frame
+				goto SKIP;
 			}
 			jobject buf = env->NewDirectByteBuffer(callback_frame->data, callbackPixelBytes);
-			env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame, buf);
+			if (iframecallback_fields.onFrameWithMetadata) {
+				env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrameWithMetadata, buf,
+					(jlong)callback_frame->sequence,
+					(jlong)(callback_frame->capture_time.tv_sec * 1000000LL + callback_frame->capture_time.tv_usec),
+					(jlong)callback_frame->pts, (jlong)callback_frame->scr);
+			} else {
+				env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame, buf);
+			}
 			env->ExceptionClear();
 			env->DeleteLocalRef(buf);
 		}
@@ -874,3 +1430,60 @@ void UVCPreview::do_capture_callback(JNIEnv *env, uvc_frame_t *frame) {
 	}
 	EXIT();
 }
+
+/**
+ * convert the frame into the next buffer of IFrameBatchCallback,
+ * and call IFrameBatchCallback#onFrames if there are no more pending frames or all buffers are used.
+ * So multiple frames are delivered at one JNI call when Java side falls behind.
+ */
+void UVCPreview::do_capture_batch_callback(JNIEnv *env, uvc_frame_t *frame) {
+	ENTER();
+
+	const int ix = (batchHead + batchCount) % batchBufferNum;
+	// wrap the direct ByteBuffer to convert into it directly
+	uvc_frame_t slot;
+	memset(&slot, 0, sizeof(slot));
+	slot.data = batchBufferAddrs[ix];
+	slot.data_bytes = batchBufferBytes[ix];
+	slot.library_owns_data = 0;
+	size_t bytes = callbackPixelBytes;
+	uvc_error_t result;
+	if ((frame->frame_format == callbackFrameFormat) || !mFrameCallbackFunc) {
+		if (UNLIKELY(!mFrameCallbackFunc && (frame->frame_format != UVC_FRAME_FORMAT_YUYV))) {
+			// consumers changed while decoding
+			result = UVC_ERROR_NOT_SUPPORTED;
+		} else if (LIKELY(frame->actual_bytes <= slot.data_bytes)) {
+			bytes = frame->actual_bytes;
+			memcpy(slot.data, frame->data, bytes);
+			result = UVC_SUCCESS;
+		} else {
+			result = UVC_ERROR_NO_MEM;
+		}
+	} else {
+		result = mFrameCallbackFunc(frame, &slot);
+	}
+	if (LIKELY(!result)) {
+		int64_t *meta = batchMetadata + ix * FRAME_META_NUM;
+		meta[FRAME_META_SEQUENCE] = frame->sequence;
+		meta[FRAME_META_PTS] = frame->capture_time.tv_sec * 1000000LL + frame->capture_time.tv_usec;
+		meta[FRAME_META_FORMAT] = mPixelFormat;
+		meta[FRAME_META_SIZE] = bytes;
+		meta[FRAME_META_WIDTH] = frame->width;
+		meta[FRAME_META_HEIGHT] = frame->height;
+		meta[FRAME_META_DEVICE_PTS] = frame->pts;
+		meta[FRAME_META_DEVICE_SCR] = frame->scr;
+		batchCount++;
+	} else {
+		LOGW("failed to convert for callback frame:%d", result);
+	}
+	recycle_frame(frame);
+	if (batchCount && ((batchCount >= batchBufferNum) || !hasPendingCaptureFrame())) {
+		env->CallVoidMethod(mFrameBatchCallbackObj, iframebatchcallback_fields.onFrames,
+			mBatchBuffers, mBatchMetadata, batchHead, batchCount);
+		env->ExceptionClear();
+		batchHead = (batchHead + batchCount) % batchBufferNum;
+		batchCount = 0;
+	}
+
+	EXIT();
+}
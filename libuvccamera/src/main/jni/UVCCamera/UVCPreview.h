@@ -29,15 +29,29 @@
 #include <pthread.h>
 #include <android/native_window.h>
 #include "objectarray.h"
+#include "FramePool.h"
+#include "FrameQueue.h"
+#include "DecodeWorkerPool.h"
 
 #pragma interface
 
+class IPipeline;
+
 #define DEFAULT_PREVIEW_WIDTH 640
 #define DEFAULT_PREVIEW_HEIGHT 480
 #define DEFAULT_PREVIEW_FPS_MIN 1
 #define DEFAULT_PREVIEW_FPS_MAX 30
 #define DEFAULT_PREVIEW_MODE 0
 #define DEFAULT_BANDWIDTH 1.0f
+#define DEFAULT_ZERO_COPY false
+#define DEFAULT_DECODE_WORKERS 0		// decode MJPEG frames on the preview thread
+#define MAX_FRAME_BATCH_BUFFERS 16
+
+// frame queues between stages
+#define QUEUE_PREVIEW 0			// received frames waiting for the preview thread
+#define QUEUE_CAPTURE 1			// decoded frames waiting for the capture thread
+#define QUEUE_DECODE 2			// MJPEG frames waiting for decode workers
+#define QUEUE_NUM 3
 
 typedef uvc_error_t (*convFunc_t)(uvc_frame_t *in, uvc_frame_t *out);
 
@@ -48,12 +62,28 @@ typedef uvc_error_t (*convFunc_t)(uvc_frame_t *in, uvc_frame_t *out);
 #define PIXEL_FORMAT_YUV20SP 4
 #define PIXEL_FORMAT_NV21 5		// YVU420SemiPlanar
 
+// indices of metadata of each frame for IFrameBatchCallback
+#define FRAME_META_SEQUENCE 0
+#define FRAME_META_PTS 1		// time when the frame was received [us], CLOCK_MONOTONIC
+#define FRAME_META_FORMAT 2		// PIXEL_FORMAT_XXX
+#define FRAME_META_SIZE 3		// bytes
+#define FRAME_META_WIDTH 4
+#define FRAME_META_HEIGHT 5
+#define FRAME_META_DEVICE_PTS 6	// dwPresentationTime in the payload header
+#define FRAME_META_DEVICE_SCR 7	// STC of scrSourceClock in the payload header
+#define FRAME_META_NUM 8
+
 // for callback to Java object
 typedef struct {
 	jmethodID onFrame;
+	jmethodID onFrameWithMetadata;	// IFrameMetadataCallback#onFrame, NULL if not implemented
 } Fields_iframecallback;
 
-class UVCPreview {
+typedef struct {
+	jmethodID onFrames;
+} Fields_iframebatchcallback;
+
+class UVCPreview : public IDecodeHandler {
 private:
 	uvc_device_handle_t *mDeviceHandle;
 	ANativeWindow *mPreviewWindow;
@@ -61,12 +91,19 @@ private:
 	int requestWidth, requestHeight, requestMode;
 	int requestMinFps, requestMaxFps;
 	float requestBandwidth;
+	// 0ならrequestBandwidthを使う, 0以外ならストリーム開始時にこの値以上のパケットサイズを持つaltsettingを選択する
+	size_t requestMaxPayloadSize;
+	// 0のフィールドはlibuvcのデフォルト値を使う
+	uvc_transfer_config_t requestTransferConfig;
+	bool requestZeroCopy;
 	int frameWidth, frameHeight;
 	int frameMode;
+	bool frameZeroCopy;
 	size_t frameBytes;
 	pthread_t preview_thread;
 	pthread_mutex_t preview_mutex;
 	pthread_cond_t preview_sync;
+	pthread_cond_t preview_space_sync;	// signaled when a frame is removed from previewFrames
 	ObjectArray<uvc_frame_t *> previewFrames;
 	int previewFormat;
 	size_t previewBytes;
@@ -76,19 +113,33 @@ private:
 	pthread_t capture_thread;
 	pthread_mutex_t capture_mutex;
 	pthread_cond_t capture_sync;
-	uvc_frame_t *captureQueu;			// keep latest frame
+	pthread_cond_t capture_space_sync;	// signaled when a frame is removed from captureFrames
+	ObjectArray<uvc_frame_t *> captureFrames;
 	jobject mFrameCallbackObj;
 	convFunc_t mFrameCallbackFunc;
 	Fields_iframecallback iframecallback_fields;
 	int mPixelFormat;
+	uvc_frame_format callbackFrameFormat;
 	size_t callbackPixelBytes;
+// batched frame callback
+	jobject mFrameBatchCallbackObj;
+	Fields_iframebatchcallback iframebatchcallback_fields;
+	jobjectArray mBatchBuffers;			// ByteBuffer[]
+	jobject mBatchMetadata;				// LongBuffer
+	uint8_t *batchBufferAddrs[MAX_FRAME_BATCH_BUFFERS];
+	size_t batchBufferBytes[MAX_FRAME_BATCH_BUFFERS];
+	int64_t *batchMetadata;
+	int batchBufferNum;
+	int batchHead, batchCount;
 // improve performance by reducing memory allocation
-	pthread_mutex_t pool_mutex;
-	ObjectArray<uvc_frame_t *> mFramePool;
+	FramePool *mFramePool;
+	int requestPoolSize;
+	size_t requestPoolFrameBytes;
 	uvc_frame_t *get_frame(size_t data_bytes);
 	void recycle_frame(uvc_frame_t *frame);
 	void init_pool(size_t data_bytes);
 	void clear_pool();
+	void update_pool();
 //
 	void clearDisplay();
 	static void uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args);
@@ -98,6 +149,14 @@ private:
 	static void *preview_thread_func(void *vptr_args);
 	int prepare_preview(uvc_stream_ctrl_t *ctrl);
 	void do_preview(uvc_stream_ctrl_t *ctrl);
+	uvc_frame_format mjpeg_decode_format();
+	uvc_frame_t *decode_mjpeg_one(uvc_frame_t *frame_mjpeg);
+// MJPEG decode workers
+	int requestDecodeWorkers;
+	DecodeWorkerPool *mDecodeWorkers;
+	virtual uvc_frame_t *decode(uvc_frame_t *frame);
+	virtual void deliver(uvc_frame_t *frame);
+	virtual void recycle(uvc_frame_t *frame);
 	uvc_frame_t *draw_preview_one(uvc_frame_t *frame, ANativeWindow **window, convFunc_t func, int pixelBytes);
 //
 	void addCaptureFrame(uvc_frame_t *frame);
@@ -108,19 +167,43 @@ private:
 	void do_capture_surface(JNIEnv *env);
 	void do_capture_idle_loop(JNIEnv *env);
 	void do_capture_callback(JNIEnv *env, uvc_frame_t *frame);
+	bool hasPendingCaptureFrame();
+	void do_capture_batch_callback(JNIEnv *env, uvc_frame_t *frame);
+	void releaseFrameBatchCallback(JNIEnv *env);
+// queue policies, each of them is guarded by the mutex of its queue
+	queue_policy_t queuePolicies[QUEUE_NUM];
+	pthread_mutex_t *queue_mutex(int queue);
 	void callbackPixelFormatChanged();
+// pipeline that receives all frames from the camera
+	IPipeline *mPipeline;
+	pthread_mutex_t pipeline_mutex;
+	bool queuePipelineFrame(uvc_frame_t *frame);
+// transfer counters, guarded by transfer_mutex
+	pthread_mutex_t transfer_mutex;
+	bool mIsStreaming;	// true while libuvc owns the stream and its counters
+	uint64_t transferStats[UVC_XFER_STATS_NUM];	// counters of the last stream
 public:
 	UVCPreview(uvc_device_handle_t *devh);
-	~UVCPreview();
+	virtual ~UVCPreview();
 
 	inline const bool isRunning() const;
-	int setPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth = 1.0f);
+	int setPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth = 1.0f, bool zero_copy = DEFAULT_ZERO_COPY);
 	int setPreviewDisplay(ANativeWindow *preview_window);
 	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format);
+	int setFrameBatchCallback(JNIEnv *env, jobject callback_obj, jobjectArray buffers, jobject metadata, int pixel_format);
 	int startPreview();
 	int stopPreview();
 	inline const bool isCapturing() const;
 	int setCaptureDisplay(ANativeWindow *capture_window);
+	int setFramePoolConfig(int pool_size, size_t frame_bytes);
+	int getFramePoolStats(uint64_t stats[FRAME_POOL_STATS_NUM]);
+	int setDecodeWorkers(int num_workers);
+	int setMaxPayloadSize(size_t bytes_per_packet);
+	int setTransferConfig(int num_transfers, int packets_per_transfer, size_t bulk_transfer_size);
+	int getTransferStats(uint64_t stats[UVC_XFER_STATS_NUM]);
+	int setQueuePolicy(int queue, int policy, int depth, int param);
+	int getQueueStats(int queue, uint64_t stats[QUEUE_STATS_NUM]);
+	int setPipeline(IPipeline *pipeline);
 };
 
 #endif /* UVCPREVIEW_H_ */
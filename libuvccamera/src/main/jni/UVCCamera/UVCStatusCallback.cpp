@@ -9,7 +9,9 @@
 
 UVCStatusCallback::UVCStatusCallback(uvc_device_handle_t *devh)
 :	mDeviceHandle(devh),
-	mStatusCallbackObj(NULL) {
+	mStatusCallbackObj(NULL),
+	mInfoChangeCallback(NULL),
+	mInfoChangeUserPtr(NULL) {
 
 	ENTER();
 	pthread_mutex_init(&status_mutex, NULL);
@@ -58,10 +60,25 @@ int UVCStatusCallback::setCallback(JNIEnv *env, jobject status_callback_obj) {
 	RETURN(0, int);
 }
 
+void UVCStatusCallback::setInfoChangeCallback(info_change_callback_t callback, void *user_ptr) {
+
+	ENTER();
+	pthread_mutex_lock(&status_mutex);
+	{
+		mInfoChangeCallback = callback;
+		mInfoChangeUserPtr = user_ptr;
+	}
+	pthread_mutex_unlock(&status_mutex);
+	EXIT();
+}
+
 void UVCStatusCallback::notifyStatusCallback(JNIEnv* env, uvc_status_class status_class, int event, int selector, uvc_status_attribute status_attribute, void *data, size_t data_len) {
 
 	pthread_mutex_lock(&status_mutex);
 	{
+		if ((status_attribute == UVC_STATUS_ATTRIBUTE_INFO_CHANGE) && mInfoChangeCallback) {
+			mInfoChangeCallback(mInfoChangeUserPtr);
+		}
 		if (mStatusCallbackObj) {
 			jobject buf = env->NewDirectByteBuffer(data, data_len);
 			env->CallVoidMethod(mStatusCallbackObj, istatuscallback_fields.onStatus, (int)status_class, event, selector, (int)status_attribute, buf);
@@ -13,11 +13,16 @@ typedef struct {
 	jmethodID onStatus;
 } Fields_istatuscallback;
 
+// called when INFO_CHANGE status of control comes
+typedef void (*info_change_callback_t)(void *user_ptr);
+
 class UVCStatusCallback {
 private:
 	uvc_device_handle_t *mDeviceHandle;
  	pthread_mutex_t status_mutex;
  	jobject mStatusCallbackObj;
+	info_change_callback_t mInfoChangeCallback;
+	void *mInfoChangeUserPtr;
  	Fields_istatuscallback istatuscallback_fields;
  	void notifyStatusCallback(JNIEnv *env, uvc_status_class status_class, int event, int selector, uvc_status_attribute status_attribute, void *data, size_t data_len);
  	static void uvc_status_callback(uvc_status_class status_class, int event, int selector, uvc_status_attribute status_attribute, void *data, size_t data_len, void *user_ptr);
@@ -26,6 +31,7 @@ public:
 	~UVCStatusCallback();
 
 	int setCallback(JNIEnv *env, jobject status_callback_obj);
+	void setInfoChangeCallback(info_change_callback_t callback, void *user_ptr);
 };
 
 #endif /* UVCSTATUSCALLBACK_H_ */
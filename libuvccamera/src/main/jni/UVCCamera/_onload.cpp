@@ -28,6 +28,14 @@
 #define LOCAL_DEBUG 0
 
 extern int register_uvccamera(JNIEnv *env);
+extern int register_simple_buffered_pipeline(JNIEnv *env);
+extern int register_journal_buffered_pipeline(JNIEnv *env);
+extern int register_convert_pipeline(JNIEnv *env);
+extern int register_distribute_pipeline(JNIEnv *env);
+extern int register_callback_pipeline(JNIEnv *env);
+extern int register_preview_pipeline(JNIEnv *env);
+extern int register_publisher_pipeline(JNIEnv *env);
+extern int register_replay_pipeline(JNIEnv *env);
 
 jint JNI_OnLoad(JavaVM *vm, void *reserved) {
 #if LOCAL_DEBUG
@@ -39,10 +47,23 @@ jint JNI_OnLoad(JavaVM *vm, void *reserved) {
         return JNI_ERR;
     }
     // register native methods
+    // each of them returns 0 or -1, keep going to log every class that failed
     int result = register_uvccamera(env);
-	setVM(vm);
+    result |= register_simple_buffered_pipeline(env);
+    result |= register_journal_buffered_pipeline(env);
+    result |= register_convert_pipeline(env);
+    result |= register_distribute_pipeline(env);
+    result |= register_callback_pipeline(env);
+    result |= register_preview_pipeline(env);
+    result |= register_publisher_pipeline(env);
+    result |= register_replay_pipeline(env);
 #if LOCAL_DEBUG
     LOGD("JNI_OnLoad:finshed:result=%d", result);
 #endif
+    if (UNLIKELY(result)) {
+        LOGE("JNI_OnLoad:failed to register native methods");
+        return JNI_ERR;
+    }
+	setVM(vm);
     return JNI_VERSION_1_6;
 }
@@ -47,6 +47,8 @@ int AbstractBufferedPipeline::release() {
 	setState(PIPELINE_STATE_RELEASING);
 	stop();
 	clear_frames();
+	// frames that are recycled while detaching the wrappers return to the pool, clear it after that
+	clear_shared_frames();
 	clear_pool();
 	setState(PIPELINE_STATE_UNINITIALIZED);
 
@@ -117,8 +119,9 @@ int AbstractBufferedPipeline::queueFrame(uvc_frame_t *frame) {
 		}
 		// duplicate frame buffer and pass copy to publisher
 		ret = uvc_duplicate_frame(frame, copy);
-		if (LIKELY(!ret)) {
-			ret = add_frame(copy);
+		shared_frame_t *shared = LIKELY(!ret) ? wrap_frame(copy) : NULL;
+		if (LIKELY(shared)) {
+			ret = add_frame(shared);
 		} else {
 			LOGW("uvc_duplicate_frame failed:%d", ret);
 			recycle_frame(copy);
@@ -128,6 +131,22 @@ int AbstractBufferedPipeline::queueFrame(uvc_frame_t *frame) {
 	RETURN(ret, int);
 }
 
+/**
+ * keep the reference of the frame instead of copying it
+ */
+/*public*/
+int AbstractBufferedPipeline::queueSharedFrame(shared_frame_t *frame) {
+	ENTER();
+
+	int ret = UVC_ERROR_OTHER;
+	if (LIKELY(frame)) {
+		retain_frame(frame);
+		ret = add_frame(frame);
+	}
+
+	RETURN(ret, int);
+}
+
 //********************************************************************************
 //
 //********************************************************************************
@@ -150,8 +169,11 @@ uvc_frame_t *AbstractBufferedPipeline::get_frame(const size_t &data_bytes) {
 		if (LIKELY(n > 0)) {
 			for (int i = 0; i < n; i++) {
 				frame = uvc_allocate_frame(data_bytes);
+				if (UNLIKELY(!frame)) break;
+				frame_pool.push_back(frame);
 				total_frame_num++;
 			}
+			frame = NULL;
 			LOGW("allocate new frame:%d", total_frame_num);
 		} else {
 			LOGW("number of allocated frame exceeds limit");
@@ -233,6 +255,100 @@ void AbstractBufferedPipeline::clear_pool() {
 	EXIT();
 }
 
+//********************************************************************************
+//
+//********************************************************************************
+/**
+ * wrap the frame that came from the frame pool of this pipeline with reference count 1
+ * the frame returns to the pool when the last reference is released
+ */
+shared_frame_t *AbstractBufferedPipeline::wrap_frame(uvc_frame_t *frame) {
+	shared_frame_t *result = NULL;
+
+	if (LIKELY(frame)) {
+		Mutex::Autolock lock(pool_mutex);
+		if (LIKELY(!shared_pool.empty())) {
+			result = shared_pool.front();
+			shared_pool.pop_front();
+		} else {
+			result = new shared_frame_t;
+			shared_frames.push_back(result);
+		}
+		result->frame = frame;
+		result->ref_count = 1;
+		result->owner = this;
+	}
+	return result;
+}
+
+/*static*/
+void AbstractBufferedPipeline::retain_frame(shared_frame_t *frame) {
+	if (LIKELY(frame)) {
+		__atomic_add_fetch(&frame->ref_count, 1, __ATOMIC_RELAXED);
+	}
+}
+
+/**
+ * the last reference and the owner that is clearing its wrappers both take the owner
+ * with atomic exchange, only one of them gets it.
+ * if the last reference got it, the owner waits in #clear_shared_frames until the frame is recycled,
+ * otherwise the wrapper was detached and the last reference deletes it.
+ */
+/*static*/
+void AbstractBufferedPipeline::release_frame(shared_frame_t *frame) {
+	if (LIKELY(frame) && !__atomic_sub_fetch(&frame->ref_count, 1, __ATOMIC_ACQ_REL)) {
+		AbstractBufferedPipeline *owner = __atomic_exchange_n(&frame->owner, (AbstractBufferedPipeline *)NULL, __ATOMIC_ACQ_REL);
+		if (LIKELY(owner)) {
+			owner->recycle_shared_frame(frame);
+		} else {
+			// the owner was already released
+			uvc_free_frame(frame->frame);
+			delete frame;
+		}
+	}
+}
+
+/**
+ * return the frame to the frame pool and the wrapper to the wrapper pool
+ * the owner may be released as soon as pool_mutex is unlocked here
+ */
+void AbstractBufferedPipeline::recycle_shared_frame(shared_frame_t *frame) {
+	recycle_frame(frame->frame);
+	Mutex::Autolock lock(pool_mutex);
+	frame->frame = NULL;
+	shared_pool.push_back(frame);
+	pool_sync.broadcast();
+}
+
+/**
+ * delete unused wrappers, wrappers still referenced by other pipelines are
+ * detached from this pipeline and deleted when the last reference is released
+ */
+void AbstractBufferedPipeline::clear_shared_frames() {
+	ENTER();
+
+	Mutex::Autolock lock(pool_mutex);
+
+	for (auto iter = shared_frames.begin(); iter != shared_frames.end(); iter++) {
+		shared_frame_t *frame = *iter;
+		if (frame->frame) {
+			if (__atomic_exchange_n(&frame->owner, (AbstractBufferedPipeline *)NULL, __ATOMIC_ACQ_REL)) {
+				total_frame_num--;
+				continue;
+			}
+			// the last reference was released just now, wait until the frame returns to the pool
+			for ( ; frame->frame ; ) {
+				pool_sync.wait(pool_mutex);
+			}
+		}
+		delete frame;
+	}
+	shared_frames.clear();
+	shared_pool.clear();
+
+	EXIT();
+}
+
 //********************************************************************************
 //
 //********************************************************************************
@@ -241,12 +357,15 @@ void AbstractBufferedPipeline::clear_frames() {
 	Mutex::Autolock lock(buffer_mutex);
 
 	for (auto iter = frame_buffers.begin(); iter != frame_buffers.end(); iter++) {
-		recycle_frame(*iter);
+		release_frame(*iter);
 	}
 	frame_buffers.clear();
 }
 
-int AbstractBufferedPipeline::add_frame(uvc_frame_t *frame) {
+/**
+ * add the frame to the frame buffers, this takes over one reference of the frame
+ */
+int AbstractBufferedPipeline::add_frame(shared_frame_t *frame) {
 	ENTER();
 
 	buffer_mutex.lock();
@@ -254,11 +373,9 @@ int AbstractBufferedPipeline::add_frame(uvc_frame_t *frame) {
 		// FIXME as current implementation, transferring frame data on my device is slower than that coming from UVC camera... just drop them now
 		if (frame_buffers.size() > max_buffer_num) {
 			// erase old frames
-			int cnt = 0;
-			for (auto iter = frame_buffers.begin();
-				 (iter != frame_buffers.end()) && (cnt < 5); iter++, cnt++) {
-				recycle_frame(*iter);
-				iter = frame_buffers.erase(iter);
+			for (int cnt = 0; !frame_buffers.empty() && (cnt < 5); cnt++) {
+				release_frame(frame_buffers.front());
+				frame_buffers.pop_front();
 			}
 			LOGW("droped frame data");
 		}
@@ -270,14 +387,14 @@ int AbstractBufferedPipeline::add_frame(uvc_frame_t *frame) {
 	}
 	buffer_mutex.unlock();
 	if (frame) {
-		recycle_frame(frame);
+		release_frame(frame);
 	}
 
 	RETURN(0, int);
 }
 
-uvc_frame_t *AbstractBufferedPipeline::wait_frame() {
-	uvc_frame_t *frame = NULL;
+shared_frame_t *AbstractBufferedPipeline::wait_frame() {
+	shared_frame_t *frame = NULL;
 
 	Mutex::Autolock lock(buffer_mutex);
 
@@ -323,16 +440,16 @@ void AbstractBufferedPipeline::do_loop() {
 	on_start();
 	setState(PIPELINE_STATE_RUNNING);
 	for ( ; LIKELY(isRunning()) ; ) {
-		uvc_frame_t *frame = wait_frame();
+		shared_frame_t *frame = wait_frame();
 		if ((LIKELY(frame))) {
 			try {
-				if (!handle_frame(frame)) {
+				if (!handle_shared_frame(frame)) {
 					chain_frame(frame);
 				}
 			} catch (...) {
 				LOGE("exception");
 			}
-			recycle_frame(frame);
+			release_frame(frame);
 		}
 	}
 	setState(PIPELINE_STATE_STOPPING);
@@ -342,3 +459,7 @@ void AbstractBufferedPipeline::do_loop() {
 
 	EXIT();
 }
+
+int AbstractBufferedPipeline::handle_shared_frame(shared_frame_t *frame) {
+	return handle_frame(frame->frame);
+}
@@ -34,11 +34,16 @@ private:
 	mutable Mutex pool_mutex;
 	Condition pool_sync;
 	std::list<uvc_frame_t *> frame_pool;
+// reference counted frame wrappers, guarded by pool_mutex
+	std::list<shared_frame_t *> shared_frames;	// all wrappers allocated by this pipeline
+	std::list<shared_frame_t *> shared_pool;	// unused wrappers
+	void recycle_shared_frame(shared_frame_t *frame);
+	void clear_shared_frames();
 // frame buffers
 	pthread_t handler_thread;
 	mutable Mutex buffer_mutex;
 	Condition buffer_sync;
-	std::list<uvc_frame_t *> frame_buffers;
+	std::list<shared_frame_t *> frame_buffers;
 	static void *handler_thread_func(void *vptr_args);
 
 protected:
@@ -47,15 +52,25 @@ protected:
 	void recycle_frame(uvc_frame_t *frame);
 	void init_pool(const size_t &data_bytes);
 	void clear_pool();
+// reference counted frame
+	shared_frame_t *wrap_frame(uvc_frame_t *frame);
+	static void retain_frame(shared_frame_t *frame);
+	static void release_frame(shared_frame_t *frame);
 // frame buffers
 	void clear_frames();
-	int add_frame(uvc_frame_t *frame);
-	uvc_frame_t *wait_frame();
+	int add_frame(shared_frame_t *frame);
+	shared_frame_t *wait_frame();
 	uint32_t get_frame_count();
 	virtual void do_loop();
 	virtual void on_start() = 0;
 	virtual void on_stop() = 0;
 	virtual int handle_frame(uvc_frame_t *frame) = 0;
+	/**
+	 * default implementation calls #handle_frame
+	 * override this if the pipeline can keep the reference instead of copying the frame
+	 * @return 0: chain the frame to next pipeline, other: don't chain
+	 */
+	virtual int handle_shared_frame(shared_frame_t *frame);
 public:
 	AbstractBufferedPipeline(const int &_max_buffer_num = DEFAULT_MAX_FRAME_NUM, const int &init_pool_num = DEFAULT_INIT_FRAME_POOL_SZ,
 		const size_t &default_frame_size = DEFAULT_FRAME_SZ, const bool &drop_frames_when_buffer_empty = true);
@@ -64,6 +79,7 @@ public:
 	virtual int start();
 	virtual int stop();
 	virtual int queueFrame(uvc_frame_t *frame);
+	virtual int queueSharedFrame(shared_frame_t *frame);
 };
 
 
@@ -26,7 +26,9 @@
 
 CallbackPipeline::CallbackPipeline(const size_t &_data_bytes)
 :	CaptureBasePipeline(MAX_FRAME_NUM, INIT_FRAME_POOL_SZ, _data_bytes),
+	mFrameCallbackObj(NULL),
 	mFrameCallbackFunc(NULL),
+	mPixelFormat(PIXEL_FORMAT_RAW),
 	callbackPixelBytes(0)
 {
 	ENTER();
@@ -76,6 +78,9 @@ int CallbackPipeline::setFrameCallback(JNIEnv *env, jobject frame_callback_obj,
 				mFrameCallbackObj = frame_callback_obj = NULL;
 			}
 		}
+	} else if (frame_callback_obj) {
+		// already registered, release the duplicated global reference
+		env->DeleteGlobalRef(frame_callback_obj);
 	}
 	if (frame_callback_obj) {
 		mPixelFormat = pixel_format;
@@ -108,12 +113,12 @@ void CallbackPipeline::callbackPixelFormatChanged(const uint32_t &width, const u
 		break;
 	  case PIXEL_FORMAT_YUV20SP:
 		LOGI("PIXEL_FORMAT_YUV20SP:");
-		mFrameCallbackFunc = uvc_any2yuv420SP;
+		mFrameCallbackFunc = uvc_any2iyuv420SP;
 		callbackPixelBytes = (sz * 3) / 2;
 		break;
 	  case PIXEL_FORMAT_NV21:
 		LOGI("PIXEL_FORMAT_NV21:");
-		mFrameCallbackFunc = uvc_any2iyuv420SP;
+		mFrameCallbackFunc = uvc_any2yuv420SP;
 		callbackPixelBytes = (sz * 3) / 2;
 		break;
 	}
@@ -122,6 +127,7 @@ void CallbackPipeline::callbackPixelFormatChanged(const uint32_t &width, const u
 void CallbackPipeline::do_capture(JNIEnv *env) {
 	ENTER();
 
+	shared_frame_t *shared;
 	uvc_frame_t *frame;
 	uvc_frame_t *temp = get_frame(default_frame_size);
 	uvc_frame_t *callback_frame;
@@ -130,8 +136,9 @@ void CallbackPipeline::do_capture(JNIEnv *env) {
 
 	if (LIKELY(temp)) {
 		for (; isRunning() && isCapturing();) {
-			frame = waitCaptureFrame();
-			if ((LIKELY(frame))) {
+			shared = waitCaptureFrame();
+			if ((LIKELY(shared))) {
+				frame = shared->frame;
 				if (UNLIKELY((width != frame->width) || (height != frame->height))) {
 					width = frame->width;
 					height = frame->height;
@@ -151,13 +158,13 @@ void CallbackPipeline::do_capture(JNIEnv *env) {
 							goto SKIP;
 						}
 					}
-					jobject buf = env->NewDirectByteBuffer(callback_frame->data, callbackPixelBytes);
+					jobject buf = env->NewDirectByteBuffer(callback_frame->data, sz);
 					env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame, buf);
 					env->ExceptionClear();
 					env->DeleteLocalRef(buf);
 				}
 SKIP:
-				recycle_frame(frame);
+				release_frame(shared);
 			}
 		}
 		recycle_frame(temp);
@@ -184,6 +191,7 @@ static void nativeDestroy(JNIEnv *env, jobject thiz,
 	setField_long(env, thiz, "mNativePtr", 0);
 	CallbackPipeline *pipeline = reinterpret_cast<CallbackPipeline *>(id_pipeline);
 	if (LIKELY(pipeline)) {
+		pipeline->setFrameCallback(env, NULL, 0);
 		pipeline->release();
 		SAFE_DELETE(pipeline);
 	}
@@ -209,8 +217,8 @@ static jint nativeSetPipeline(JNIEnv *env, jobject thiz,
 	jint result = JNI_ERR;
 	CallbackPipeline *pipeline = reinterpret_cast<CallbackPipeline *>(id_pipeline);
 	if (pipeline) {
-		IPipeline *pipeline = getPipeline(env, pipeline_obj);
-		result = pipeline->setPipeline(pipeline);
+		IPipeline *target_pipeline = getPipeline(env, pipeline_obj);
+		result = pipeline->setPipeline(target_pipeline);
 	}
 
 	RETURN(result, jint);
@@ -248,7 +256,7 @@ static jint nativeSetFrameCallback(JNIEnv *env, jobject thiz,
 	ENTER();
 	CallbackPipeline *pipeline = reinterpret_cast<CallbackPipeline *>(id_pipeline);
 	if (LIKELY(pipeline)) {
-		jobject frame_callback_obj = env->NewGlobalRef(jIFrameCallback);
+		jobject frame_callback_obj = jIFrameCallback ? env->NewGlobalRef(jIFrameCallback) : NULL;
 		result = pipeline->setFrameCallback(env, frame_callback_obj, pixel_format);
 	}
 	RETURN(result, jint);
@@ -66,25 +66,25 @@ void CaptureBasePipeline::clearCaptureFrame() {
 	Mutex::Autolock lock(capture_mutex);
 
 	if (captureQueue)
-		recycle_frame(captureQueue);
+		release_frame(captureQueue);
 	captureQueue = NULL;
 }
 
-void CaptureBasePipeline::addCaptureFrame(uvc_frame_t *frame) {
+void CaptureBasePipeline::addCaptureFrame(shared_frame_t *frame) {
 //	ENTER();
 
 	Mutex::Autolock lock(capture_mutex);
 
 	// keep only latest one
 	if (captureQueue) {
-		recycle_frame(captureQueue);
+		release_frame(captureQueue);
 		captureQueue = NULL;
 	}
 	if (LIKELY(isRunning())) {
 		captureQueue = frame;
 		capture_sync.signal();
 	} else {
-		recycle_frame(frame);
+		release_frame(frame);
 	}
 
 //	EXIT();
@@ -93,8 +93,8 @@ void CaptureBasePipeline::addCaptureFrame(uvc_frame_t *frame) {
 /**
  * get frame data for capturing, if not exist, block and wait
  */
-uvc_frame_t *CaptureBasePipeline::waitCaptureFrame() {
-	uvc_frame_t *frame = NULL;
+shared_frame_t *CaptureBasePipeline::waitCaptureFrame() {
+	shared_frame_t *frame = NULL;
 	Mutex::Autolock lock(capture_mutex);
 
 	if (!captureQueue) {
@@ -141,8 +141,9 @@ int CaptureBasePipeline::handle_frame(uvc_frame_t *frame) {
 		if (LIKELY(copy)) {
 			// duplicate frame buffer and pass copy
 			uvc_error_t ret = uvc_duplicate_frame(frame, copy);
-			if (LIKELY(!ret)) {
-				addCaptureFrame(copy);
+			shared_frame_t *shared = LIKELY(!ret) ? wrap_frame(copy) : NULL;
+			if (LIKELY(shared)) {
+				addCaptureFrame(shared);
 			} else {
 				LOGW("uvc_duplicate_frame failed:%d", ret);
 				recycle_frame(copy);
@@ -155,6 +156,19 @@ int CaptureBasePipeline::handle_frame(uvc_frame_t *frame) {
 	return 0; // 	RETURN(0, int);
 }
 
+/* override protected */
+int CaptureBasePipeline::handle_shared_frame(shared_frame_t *frame) {
+//	ENTER();
+
+	if (LIKELY(frame)) {
+		// keep the reference instead of copying the frame
+		retain_frame(frame);
+		addCaptureFrame(frame);
+	}
+
+	return 0; // 	RETURN(0, int);
+}
+
 /*
  * thread function
  * @param vptr_args pointer to UVCCameraControl instance
@@ -22,16 +22,17 @@ protected:
 	mutable Mutex capture_mutex;
 	Condition capture_sync;
 	pthread_t capture_thread;
-	uvc_frame_t *captureQueue;			// keep latest one frame only
+	shared_frame_t *captureQueue;		// keep latest one frame only
 	uint32_t frameWidth;
 	uint32_t frameHeight;
 	void clearCaptureFrame();
-	void addCaptureFrame(uvc_frame_t *frame);
-	uvc_frame_t *waitCaptureFrame();
+	void addCaptureFrame(shared_frame_t *frame);
+	shared_frame_t *waitCaptureFrame();
 
 	virtual void on_start();
 	virtual void on_stop();
 	virtual int handle_frame(uvc_frame_t *frame);
+	virtual int handle_shared_frame(shared_frame_t *frame);
 	virtual void do_capture(JNIEnv *env) = 0;
 public:
 	CaptureBasePipeline(const size_t &_data_bytes = DEFAULT_FRAME_SZ);
@@ -0,0 +1,54 @@
+//
+// simple replacement of libutils Condition for the pipeline
+//
+
+#ifndef PUPILMOBILE_CONDITION_H
+#define PUPILMOBILE_CONDITION_H
+
+#include <stdint.h>
+#include <time.h>
+#include <pthread.h>
+
+#include "Mutex.h"
+
+#pragma interface
+
+namespace android {
+
+typedef int64_t nsecs_t;
+
+/**
+ * simple pthread_cond_t wrapper that has same interface as android::Condition in libutils
+ */
+class Condition {
+private:
+	pthread_cond_t mCond;
+	// force inhibiting copy/assignment
+	Condition(const Condition &src);
+	Condition &operator =(const Condition &src);
+public:
+	inline Condition() { pthread_cond_init(&mCond, NULL); }
+	inline ~Condition() { pthread_cond_destroy(&mCond); }
+	inline int32_t wait(Mutex &mutex) { return -pthread_cond_wait(&mCond, &mutex.mMutex); }
+	/**
+	 * wait with timeout
+	 * @param reltime relative timeout [nanoseconds]
+	 */
+	inline int32_t waitRelative(Mutex &mutex, nsecs_t reltime) {
+		struct timespec ts;
+		clock_gettime(CLOCK_REALTIME, &ts);
+		ts.tv_sec += reltime / 1000000000LL;
+		ts.tv_nsec += reltime % 1000000000LL;
+		if (ts.tv_nsec >= 1000000000L) {
+			ts.tv_nsec -= 1000000000L;
+			ts.tv_sec++;
+		}
+		return -pthread_cond_timedwait(&mCond, &mutex.mMutex, &ts);
+	}
+	inline void signal() { pthread_cond_signal(&mCond); }
+	inline void broadcast() { pthread_cond_broadcast(&mCond); }
+};
+
+}	// namespace android
+
+#endif //PUPILMOBILE_CONDITION_H
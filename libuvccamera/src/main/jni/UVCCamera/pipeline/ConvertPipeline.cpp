@@ -68,11 +68,11 @@ void ConvertPipeline::updateConvFunc() {
 			break;
 		case PIXEL_FORMAT_YUV20SP:
 			LOGI("PIXEL_FORMAT_YUV20SP:");
-			mFrameConvFunc = uvc_any2yuv420SP;
+			mFrameConvFunc = uvc_any2iyuv420SP;
 			break;
 		case PIXEL_FORMAT_NV21:
 			LOGI("PIXEL_FORMAT_NV21:");
-			mFrameConvFunc = uvc_any2iyuv420SP;
+			mFrameConvFunc = uvc_any2yuv420SP;
 			break;
 	}
 
@@ -102,7 +102,10 @@ int ConvertPipeline::handle_frame(uvc_frame_t *frame) {
 		uvc_frame_t *copy = frame;
 		if (mFrameConvFunc) {
 			copy = get_frame(frame->actual_bytes);
-			if (LIKELY(copy)) {
+			if (UNLIKELY(!copy)) {
+				LOGW("buffer pool is empty and exceeds the limit, drop frame");
+				RETURN(1, int);
+			} else {
 				const uvc_error_t r = mFrameConvFunc(frame, copy);
 				if (UNLIKELY(r)) {
 					LOGW("failed to convert:%d", r);
@@ -112,6 +115,44 @@ int ConvertPipeline::handle_frame(uvc_frame_t *frame) {
 			}
 		}
 		next_pipeline->queueFrame(copy);
+		if (copy != frame) {
+			// next pipeline duplicates the frame, so we can recycle converted one here
+			recycle_frame(copy);
+		}
+	}
+
+	RETURN(1, int);
+}
+
+/**
+ * convert the frame and pass the reference of converted frame to next pipeline,
+ * the frame is passed as it is without conversion when the target pixel format is PIXEL_FORMAT_RAW
+ */
+int ConvertPipeline::handle_shared_frame(shared_frame_t *frame) {
+	ENTER();
+
+	Mutex::Autolock lock(pipeline_mutex);
+
+	if (next_pipeline) {
+		shared_frame_t *converted = frame;
+		if (mFrameConvFunc) {
+			uvc_frame_t *copy = get_frame(frame->frame->actual_bytes);
+			if (UNLIKELY(!copy)) {
+				LOGW("buffer pool is empty and exceeds the limit, drop frame");
+				RETURN(1, int);
+			}
+			const uvc_error_t r = mFrameConvFunc(frame->frame, copy);
+			converted = LIKELY(!r) ? wrap_frame(copy) : NULL;
+			if (UNLIKELY(!converted)) {
+				LOGW("failed to convert:%d", r);
+				recycle_frame(copy);
+				converted = frame;
+			}
+		}
+		next_pipeline->queueSharedFrame(converted);
+		if (converted != frame) {
+			release_frame(converted);
+		}
 	}
 
 	RETURN(1, int);
@@ -6,6 +6,7 @@
 #define PUPILMOBILE_CONVERTPIPELINE_H
 
 #include "libUVCCamera.h"
+#include "UVCPreview.h"
 #include "AbstractBufferedPipeline.h"
 
 class ConvertPipeline : virtual public AbstractBufferedPipeline {
@@ -17,6 +18,7 @@ protected:
 	virtual void on_start();
 	virtual void on_stop();
 	virtual int handle_frame(uvc_frame_t *frame);
+	virtual int handle_shared_frame(shared_frame_t *frame);
 public:
 	ConvertPipeline(const size_t &_data_bytes, const int &target_pixel_format = PIXEL_FORMAT_RAW);
 	virtual ~ConvertPipeline();
@@ -53,6 +53,22 @@ int DistributePipeline::handle_frame(uvc_frame_t *frame) {
 	RETURN(0, int);
 }
 
+/**
+ * pass the reference of same frame to all pipelines without copying,
+ * the frame returns to the frame pool when the last pipeline releases it
+ */
+int DistributePipeline::handle_shared_frame(shared_frame_t *frame) {
+	ENTER();
+
+	Mutex::Autolock lock(pipeline_mutex);
+
+	for (auto iter = pipelines.begin(); iter != pipelines.end(); iter++) {
+		(*iter)->queueSharedFrame(frame);
+	}
+
+	RETURN(0, int);
+}
+
 int DistributePipeline::addPipeline(IPipeline *pipeline) {
 	ENTER();
 
@@ -0,0 +1,612 @@
+//
+// append only segmented frame journal
+//
+
+#if 1	// set 1 if you don't need debug message
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// ignore LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG		// depends on definition in Android.mk and Application.mk
+#endif
+
+#include <stdlib.h>
+#include <stdio.h>
+#include <string.h>
+#include <unistd.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <dirent.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <algorithm>
+
+#include "utilbase.h"
+
+#include "FrameJournal.h"
+
+#define SEGMENT_SUFFIX ".seg"
+#define DATA_ALIGN 8
+
+static inline uint32_t align_data(const uint32_t &offset) {
+	return (offset + (DATA_ALIGN - 1)) & ~(DATA_ALIGN - 1);
+}
+
+static inline bool compare_dtime(const journal_index_t &entry, const int64_t &dtime) {
+	return entry.dtime < dtime;
+}
+
+/**
+ * read exactly bytes from the file
+ * @return 0: success, other: error
+ */
+static int pread_fully(const int &fd, void *buf, size_t bytes, off_t offset) {
+	uint8_t *p = (uint8_t *)buf;
+	for ( ; bytes > 0 ; ) {
+		const ssize_t n = pread(fd, p, bytes, offset);
+		if (UNLIKELY(n <= 0)) {
+			if ((n < 0) && (errno == EINTR)) continue;
+			return n < 0 ? -errno : -EIO;
+		}
+		p += n;
+		bytes -= n;
+		offset += n;
+	}
+	return 0;
+}
+
+FrameJournal::FrameJournal(const char *_dir, const bool &clear_journal, const bool &_read_only)
+:	dir(_dir ? _dir : "."),
+	read_only(_read_only),
+	segment_bytes(JOURNAL_DEFAULT_SEGMENT_BYTES),
+	retention_us(JOURNAL_DEFAULT_RETENTION_US),
+	max_segments(0),
+	read_fd(-1),
+	read_fd_id(0),
+	active(NULL),
+	active_fd(-1),
+	active_map(NULL),
+	appended(0),
+	dropped(0)
+{
+	ENTER();
+
+	read_cursor.segment_id = read_cursor.index = 0;
+	if (!read_only && mkdir(dir.c_str(), 0700) && (errno != EEXIST)) {
+		LOGE("failed to create %s:errno=%d", dir.c_str(), errno);
+	}
+	load_segments();
+	if (clear_journal && !read_only) {
+		clear();
+	}
+
+	EXIT();
+}
+
+FrameJournal::~FrameJournal() {
+	ENTER();
+
+	Mutex::Autolock read_lock(read_mutex);
+	Mutex::Autolock lock(journal_mutex);
+
+	close_active();
+	if (read_fd >= 0) {
+		close(read_fd);
+		read_fd = -1;
+	}
+	for (std::list<segment_t *>::iterator iter = segments.begin(); iter != segments.end(); iter++) {
+		delete *iter;
+	}
+	segments.clear();
+
+	EXIT();
+}
+
+int FrameJournal::setConfig(const size_t &_segment_bytes, const int64_t &_retention_us, const uint32_t &_max_segments) {
+	ENTER();
+
+	if (UNLIKELY((_segment_bytes < JOURNAL_MIN_SEGMENT_BYTES) || (_segment_bytes > 0x7fffffff)
+		|| (_retention_us < 0))) {
+
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	Mutex::Autolock lock(journal_mutex);
+	segment_bytes = (_segment_bytes + (JOURNAL_DATA_OFFSET - 1)) & ~(JOURNAL_DATA_OFFSET - 1);
+	retention_us = _retention_us;
+	max_segments = _max_segments;
+	apply_retention();
+
+	RETURN(0, int);
+}
+
+int FrameJournal::append(uvc_frame_t *frame) {
+	ENTER();
+
+	if (UNLIKELY(!frame || !frame->data)) {
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	if (UNLIKELY(read_only)) {
+		RETURN(UVC_ERROR_NOT_SUPPORTED, int);
+	}
+	const uint32_t length = frame->actual_bytes;
+
+	Mutex::Autolock lock(journal_mutex);
+
+	if (UNLIKELY(!fits_empty_segment(length, segment_bytes)
+		&& (!active || !fits_empty_segment(length, ((journal_segment_header_t *)active_map)->segment_bytes)))) {
+
+		LOGW("frame is too large for the segment:%u", length);
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	if (active && !fits_active(length)) {
+		// the segment is full
+		close_active();
+	}
+	if (!active) {
+		// the next segment has the size of the current config, which may be smaller than the last one
+		if (UNLIKELY(!fits_empty_segment(length, segment_bytes))) {
+			LOGW("frame is too large for the segment:%u", length);
+			RETURN(UVC_ERROR_INVALID_PARAM, int);
+		}
+		const uint32_t id = segments.empty() ? 1 : segments.back()->id + 1;
+		if (UNLIKELY(open_active(id))) {
+			RETURN(UVC_ERROR_IO, int);
+		}
+	}
+	if (UNLIKELY(!fits_active(length))) {
+		LOGW("frame is too large for the segment:%u", length);
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	journal_segment_header_t *header = (journal_segment_header_t *)active_map;
+	journal_index_t entry;
+	memset(&entry, 0, sizeof(entry));
+	entry.dtime = int64_t(frame->capture_time.tv_sec) * 1000000LL + frame->capture_time.tv_usec;
+	entry.offset = align_data(header->data_end);
+	entry.length = length;
+	entry.sequence = frame->sequence;
+	entry.format = frame->frame_format;
+	entry.width = frame->width;
+	entry.height = frame->height;
+	// frame data first, then index entry, then count so that a crash never leaves the entry without data
+	memcpy(active_map + entry.offset, frame->data, length);
+	memcpy(active_map + header->segment_bytes - (header->count + 1) * sizeof(journal_index_t),
+		&entry, sizeof(entry));
+	header->data_end = entry.offset + length;
+	__atomic_store_n(&header->count, header->count + 1, __ATOMIC_RELEASE);
+	active->index.push_back(entry);
+	active->data_bytes += length;
+	appended++;
+	apply_retention();
+
+	RETURN(0, int);
+}
+
+int FrameJournal::read(uvc_frame_t *frame, journal_cursor_t &pos) {
+	ENTER();
+
+	if (UNLIKELY(!frame)) {
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	Mutex::Autolock read_lock(read_mutex);
+
+	journal_index_t entry;
+	journal_mutex.lock();
+	{
+		normalize_cursor();
+		segment_t *seg = find_segment(read_cursor.segment_id);
+		if (!seg || (read_cursor.index >= seg->index.size())) {
+			journal_mutex.unlock();
+			RETURN(1, int);
+		}
+		entry = seg->index[read_cursor.index];
+		pos = read_cursor;
+		if (read_fd_id != seg->id) {
+			if (read_fd >= 0) {
+				close(read_fd);
+			}
+			// open under the lock so that the segment is not deleted before opening
+			read_fd = open(segment_path(seg->id).c_str(), O_RDONLY | O_CLOEXEC);
+			read_fd_id = read_fd >= 0 ? seg->id : 0;
+		}
+	}
+	journal_mutex.unlock();
+
+	if (UNLIKELY(read_fd < 0)) {
+		LOGE("failed to open segment:%u", pos.segment_id);
+		RETURN(UVC_ERROR_IO, int);
+	}
+	if (UNLIKELY(uvc_ensure_frame_size(frame, entry.length))) {
+		RETURN(UVC_ERROR_NO_MEM, int);
+	}
+	// the segment may be deleted by retention while reading, but the data is kept until read_fd is closed
+	const int r = pread_fully(read_fd, frame->data, entry.length, entry.offset);
+	if (UNLIKELY(r)) {
+		LOGW("failed to read frame:%d", r);
+		RETURN(UVC_ERROR_IO, int);
+	}
+	frame->actual_bytes = entry.length;
+	frame->frame_format = (enum uvc_frame_format)entry.format;
+	frame->width = entry.width;
+	frame->height = entry.height;
+	frame->step = 0;
+	frame->sequence = entry.sequence;
+	frame->capture_time.tv_sec = entry.dtime / 1000000LL;
+	frame->capture_time.tv_usec = entry.dtime % 1000000LL;
+
+	RETURN(0, int);
+}
+
+void FrameJournal::commit(const journal_cursor_t &pos) {
+	ENTER();
+
+	Mutex::Autolock lock(journal_mutex);
+	if ((read_cursor.segment_id == pos.segment_id) && (read_cursor.index == pos.index)) {
+		read_cursor.index++;
+		normalize_cursor();
+	}
+
+	EXIT();
+}
+
+int FrameJournal::readNext(uvc_frame_t *frame) {
+	ENTER();
+
+	journal_cursor_t pos;
+	const int result = read(frame, pos);
+	if (!result) {
+		commit(pos);
+	}
+
+	RETURN(result, int);
+}
+
+int FrameJournal::seek(const int64_t &dtime) {
+	ENTER();
+
+	Mutex::Autolock lock(journal_mutex);
+	for (std::list<segment_t *>::iterator iter = segments.begin(); iter != segments.end(); iter++) {
+		segment_t *seg = *iter;
+		if (!seg->index.empty() && (seg->index.back().dtime >= dtime)) {
+			std::vector<journal_index_t>::iterator found
+				= std::lower_bound(seg->index.begin(), seg->index.end(), dtime, compare_dtime);
+			read_cursor.segment_id = seg->id;
+			read_cursor.index = found - seg->index.begin();
+			RETURN(0, int);
+		}
+	}
+	// move to the end of the journal
+	if (!segments.empty()) {
+		read_cursor.segment_id = segments.back()->id;
+		read_cursor.index = segments.back()->index.size();
+	}
+
+	RETURN(1, int);
+}
+
+void FrameJournal::rewind() {
+	ENTER();
+
+	Mutex::Autolock lock(journal_mutex);
+	read_cursor.segment_id = read_cursor.index = 0;
+	normalize_cursor();
+
+	EXIT();
+}
+
+void FrameJournal::clear() {
+	ENTER();
+
+	Mutex::Autolock read_lock(read_mutex);
+	Mutex::Autolock lock(journal_mutex);
+
+	close_active();
+	if (read_fd >= 0) {
+		close(read_fd);
+		read_fd = -1;
+		read_fd_id = 0;
+	}
+	for (std::list<segment_t *>::iterator iter = segments.begin(); iter != segments.end(); iter++) {
+		if (!read_only) {
+			unlink(segment_path((*iter)->id).c_str());
+		}
+		delete *iter;
+	}
+	segments.clear();
+	read_cursor.segment_id = read_cursor.index = 0;
+
+	EXIT();
+}
+
+int FrameJournal::getStats(uint64_t *stats) {
+	ENTER();
+
+	memset(stats, 0, sizeof(uint64_t) * JOURNAL_STATS_NUM);
+	Mutex::Autolock lock(journal_mutex);
+
+	normalize_cursor();
+	stats[JOURNAL_STATS_SEGMENTS] = segments.size();
+	bool first = true;
+	for (std::list<segment_t *>::iterator iter = segments.begin(); iter != segments.end(); iter++) {
+		const segment_t *seg = *iter;
+		stats[JOURNAL_STATS_FRAMES] += seg->index.size();
+		stats[JOURNAL_STATS_BYTES] += seg->data_bytes;
+		if (!seg->index.empty()) {
+			if (first) {
+				stats[JOURNAL_STATS_FIRST_US] = seg->index.front().dtime;
+				first = false;
+			}
+			stats[JOURNAL_STATS_LAST_US] = seg->index.back().dtime;
+		}
+		if (seg->id > read_cursor.segment_id) {
+			stats[JOURNAL_STATS_UNREAD] += seg->index.size();
+		} else if ((seg->id == read_cursor.segment_id) && (read_cursor.index < seg->index.size())) {
+			stats[JOURNAL_STATS_UNREAD] += seg->index.size() - read_cursor.index;
+		}
+	}
+	stats[JOURNAL_STATS_APPENDED] = appended;
+	stats[JOURNAL_STATS_DROPPED] = dropped;
+
+	RETURN(0, int);
+}
+
+bool FrameJournal::hasUnread() {
+	Mutex::Autolock lock(journal_mutex);
+
+	normalize_cursor();
+	const segment_t *seg = find_segment(read_cursor.segment_id);
+	return seg && (read_cursor.index < seg->index.size());
+}
+
+//********************************************************************************
+//
+//********************************************************************************
+std::string FrameJournal::segment_path(const uint32_t &id) const {
+	char name[32];
+	snprintf(name, sizeof(name), "/%08x" SEGMENT_SUFFIX, id);
+	return dir + name;
+}
+
+/**
+ * load index of existing segment files, invalid files are deleted unless the journal is read only
+ */
+int FrameJournal::load_segments() {
+	ENTER();
+
+	std::vector<uint32_t> ids;
+	DIR *d = opendir(dir.c_str());
+	if (UNLIKELY(!d)) {
+		RETURN(-errno, int);
+	}
+	for (struct dirent *ent = readdir(d); ent; ent = readdir(d)) {
+		unsigned int id;
+		char suffix[8];
+		if ((sscanf(ent->d_name, "%8x%7s", &id, suffix) == 2)
+			&& !strcmp(suffix, SEGMENT_SUFFIX) && (strlen(ent->d_name) == 12)) {
+
+			ids.push_back(id);
+		}
+	}
+	closedir(d);
+	std::sort(ids.begin(), ids.end());
+
+	Mutex::Autolock lock(journal_mutex);
+	for (std::vector<uint32_t>::iterator iter = ids.begin(); iter != ids.end(); iter++) {
+		segment_t *seg = load_segment(*iter);
+		if (LIKELY(seg)) {
+			segments.push_back(seg);
+		} else if (read_only) {
+			LOGW("skip invalid segment:%08x", *iter);
+		} else {
+			LOGW("delete invalid segment:%08x", *iter);
+			unlink(segment_path(*iter).c_str());
+		}
+	}
+
+	RETURN(0, int);
+}
+
+FrameJournal::segment_t *FrameJournal::load_segment(const uint32_t &id) {
+	ENTER();
+
+	segment_t *result = NULL;
+	const int fd = open(segment_path(id).c_str(), O_RDONLY | O_CLOEXEC);
+	if (UNLIKELY(fd < 0)) {
+		RETURN(NULL, segment_t *);
+	}
+	journal_segment_header_t header;
+	struct stat st;
+	if (LIKELY(!pread_fully(fd, &header, sizeof(header), 0) && !fstat(fd, &st)
+		&& (header.magic == JOURNAL_MAGIC) && (header.version == JOURNAL_VERSION)
+		&& (header.segment_id == id) && (header.segment_bytes == st.st_size)
+		&& (JOURNAL_DATA_OFFSET + header.count * sizeof(journal_index_t) <= header.segment_bytes))) {
+
+		const uint32_t count = header.count;
+		std::vector<journal_index_t> entries(count);
+		// index entries are stored from the end of the file toward the front, so read them reversely
+		if (!count || LIKELY(!pread_fully(fd, &entries[0], count * sizeof(journal_index_t),
+			header.segment_bytes - count * sizeof(journal_index_t)))) {
+
+			const uint32_t index_start = header.segment_bytes - count * sizeof(journal_index_t);
+			result = new segment_t();
+			result->id = id;
+			result->data_bytes = 0;
+			for (std::vector<journal_index_t>::reverse_iterator iter = entries.rbegin(); iter != entries.rend(); iter++) {
+				if (UNLIKELY(((*iter).offset < JOURNAL_DATA_OFFSET)
+					|| ((*iter).offset + (uint64_t)(*iter).length > index_start))) {
+					LOGW("broken index entry in segment:%08x", id);
+					break;
+				}
+				result->index.push_back(*iter);
+				result->data_bytes += (*iter).length;
+			}
+		}
+	}
+	close(fd);
+
+	RETURN(result, segment_t *);
+}
+
+/**
+ * whether the frame data and its index entry fit in an empty segment of segment_bytes
+ */
+/*static*/
+bool FrameJournal::fits_empty_segment(const uint32_t &length, const size_t &segment_bytes) {
+	return JOURNAL_DATA_OFFSET + align_data(length) + sizeof(journal_index_t) <= segment_bytes;
+}
+
+/**
+ * whether the frame data and its index entry fit in the rest of the segment that is written now
+ * this is called while holding journal_mutex
+ */
+bool FrameJournal::fits_active(const uint32_t &length) const {
+	const journal_segment_header_t *header = (journal_segment_header_t *)active_map;
+	const size_t index_start = header->segment_bytes - (header->count + 1) * sizeof(journal_index_t);
+	return align_data(header->data_end) + length <= index_start;
+}
+
+/**
+ * create new segment file and map it, this is called while holding journal_mutex
+ */
+int FrameJournal::open_active(const uint32_t &id) {
+	ENTER();
+
+	const std::string path = segment_path(id);
+	const int fd = open(path.c_str(), O_RDWR | O_CREAT | O_TRUNC | O_CLOEXEC, 0600);
+	if (UNLIKELY(fd < 0)) {
+		LOGE("failed to create %s:errno=%d", path.c_str(), errno);
+		RETURN(-errno, int);
+	}
+	// allocate blocks at once to avoid fragmentation, fall back to sparse file
+	if (posix_fallocate(fd, 0, segment_bytes) && ftruncate(fd, segment_bytes)) {
+		LOGE("failed to allocate %s:errno=%d", path.c_str(), errno);
+		close(fd);
+		unlink(path.c_str());
+		RETURN(-ENOSPC, int);
+	}
+	void *map = mmap(NULL, segment_bytes, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+	if (UNLIKELY(map == MAP_FAILED)) {
+		LOGE("failed to map %s:errno=%d", path.c_str(), errno);
+		close(fd);
+		unlink(path.c_str());
+		RETURN(-ENOMEM, int);
+	}
+	journal_segment_header_t *header = (journal_segment_header_t *)map;
+	memset(header, 0, sizeof(journal_segment_header_t));
+	header->magic = JOURNAL_MAGIC;
+	header->version = JOURNAL_VERSION;
+	header->segment_id = id;
+	header->segment_bytes = segment_bytes;
+	header->count = 0;
+	header->data_end = JOURNAL_DATA_OFFSET;
+	active_fd = fd;
+	active_map = (uint8_t *)map;
+	active = new segment_t();
+	active->id = id;
+	active->data_bytes = 0;
+	segments.push_back(active);
+
+	RETURN(0, int);
+}
+
+/**
+ * unmap the segment that is written now, this is called while holding journal_mutex
+ */
+void FrameJournal::close_active() {
+	ENTER();
+
+	if (active_map) {
+		const size_t bytes = ((journal_segment_header_t *)active_map)->segment_bytes;
+		msync(active_map, bytes, MS_ASYNC);
+		munmap(active_map, bytes);
+		active_map = NULL;
+	}
+	if (active_fd >= 0) {
+		close(active_fd);
+		active_fd = -1;
+	}
+	active = NULL;
+
+	EXIT();
+}
+
+/**
+ * delete the oldest segment, this is called while holding journal_mutex
+ */
+void FrameJournal::drop_oldest() {
+	ENTER();
+
+	segment_t *seg = segments.front();
+	if (seg == active) {
+		close_active();
+	}
+	if (read_cursor.segment_id <= seg->id) {
+		if ((read_cursor.segment_id == seg->id) && (read_cursor.index < seg->index.size())) {
+			dropped += seg->index.size() - read_cursor.index;
+		} else if (read_cursor.segment_id < seg->id) {
+			dropped += seg->index.size();
+		}
+		read_cursor.segment_id = seg->id + 1;
+		read_cursor.index = 0;
+	}
+	segments.pop_front();
+	unlink(segment_path(seg->id).c_str());
+	delete seg;
+
+	EXIT();
+}
+
+/**
+ * drop old segments, the segment that is written now is never dropped
+ * this is called while holding journal_mutex
+ */
+void FrameJournal::apply_retention() {
+	// the read only journal has no segment that is written now, so this never drops segments
+	if (!active || active->index.empty()) return;
+	const int64_t newest = active->index.back().dtime;
+	for ( ; segments.size() > 1 ; ) {
+		const segment_t *oldest = segments.front();
+		if ((max_segments && (segments.size() > max_segments))
+			|| (retention_us && (oldest->index.empty() || (oldest->index.back().dtime < newest - retention_us)))) {
+
+			drop_oldest();
+		} else {
+			break;
+		}
+	}
+}
+
+FrameJournal::segment_t *FrameJournal::find_segment(const uint32_t &id) {
+	for (std::list<segment_t *>::iterator iter = segments.begin(); iter != segments.end(); iter++) {
+		if ((*iter)->id == id) {
+			return *iter;
+		}
+	}
+	return NULL;
+}
+
+/**
+ * move the read position to the next segment if it reached the end of the segment
+ * this is called while holding journal_mutex
+ */
+void FrameJournal::normalize_cursor() {
+	if (segments.empty()) return;
+	if (read_cursor.segment_id < segments.front()->id) {
+		read_cursor.segment_id = segments.front()->id;
+		read_cursor.index = 0;
+	}
+	for (std::list<segment_t *>::iterator iter = segments.begin(); iter != segments.end(); iter++) {
+		const segment_t *seg = *iter;
+		if (seg->id < read_cursor.segment_id) continue;
+		if (seg->id > read_cursor.segment_id) {
+			// the segment of the read position was deleted or reached the end of previous segment
+			read_cursor.segment_id = seg->id;
+			read_cursor.index = 0;
+		}
+		if ((read_cursor.index < seg->index.size()) || (seg == segments.back())) {
+			break;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+//
+// append only segmented frame journal
+//
+
+#ifndef PUPILMOBILE_FRAMEJOURNAL_H
+#define PUPILMOBILE_FRAMEJOURNAL_H
+
+#include <stdint.h>
+#include <string>
+#include <vector>
+#include <list>
+#include "Mutex.h"
+
+#include "libUVCCamera.h"
+
+#pragma interface
+
+using namespace android;
+
+/*
+ * the journal is a directory of fixed size segment files named %08x.seg(segment id).
+ * each segment is laid out as
+ *   [journal_segment_header_t][frame data ->   ...   <- journal_index_t]
+ * frame data is appended from JOURNAL_DATA_OFFSET and the index entries are appended
+ * from the end of the file toward the front, the segment is full when both meet.
+ * the segment that is written is memory mapped, the header count is updated
+ * after the frame data and its index entry are written.
+ * old frames are dropped by deleting whole segments, no record is deleted one by one.
+ */
+#define JOURNAL_MAGIC 0x4c4e524a	// 'JRNL'
+#define JOURNAL_VERSION 1
+#define JOURNAL_DATA_OFFSET 4096
+#define JOURNAL_DEFAULT_SEGMENT_BYTES (32 * 1024 * 1024)
+#define JOURNAL_MIN_SEGMENT_BYTES (1024 * 1024)
+#define JOURNAL_DEFAULT_RETENTION_US 30000000LL	// 30sec
+
+// indices of the array returned by #getStats
+#define JOURNAL_STATS_SEGMENTS 0	// number of segment files
+#define JOURNAL_STATS_FRAMES 1		// number of frames in the journal
+#define JOURNAL_STATS_BYTES 2		// bytes of frame data in the journal
+#define JOURNAL_STATS_FIRST_US 3	// dtime of the oldest frame
+#define JOURNAL_STATS_LAST_US 4		// dtime of the newest frame
+#define JOURNAL_STATS_APPENDED 5	// frames appended since the journal was opened
+#define JOURNAL_STATS_DROPPED 6		// frames dropped by retention before they were read
+#define JOURNAL_STATS_UNREAD 7		// frames after the read position
+#define JOURNAL_STATS_NUM 8
+
+typedef struct journal_segment_header {
+	uint32_t magic;
+	uint32_t version;
+	uint32_t segment_id;
+	uint32_t segment_bytes;
+	volatile uint32_t count;		// number of valid index entries
+	uint32_t data_end;				// offset of the end of the frame data
+} __attribute__ ((packed)) journal_segment_header_t;
+
+typedef struct journal_index {
+	int64_t dtime;			// capture time [us]
+	uint32_t offset;		// offset of the frame data in the segment
+	uint32_t length;		// bytes of the frame data
+	uint32_t sequence;
+	uint16_t format;		// uvc_frame_format
+	uint16_t width;
+	uint16_t height;
+	uint16_t reserved[3];
+} __attribute__ ((packed)) journal_index_t;
+
+/**
+ * position in the journal
+ */
+typedef struct journal_cursor {
+	uint32_t segment_id;
+	uint32_t index;
+} journal_cursor_t;
+
+class FrameJournal {
+private:
+	typedef struct segment {
+		uint32_t id;
+		std::vector<journal_index_t> index;
+		uint64_t data_bytes;
+	} segment_t;
+
+	const std::string dir;
+	// never create, write nor delete segment files
+	const bool read_only;
+	size_t segment_bytes;
+	int64_t retention_us;
+	uint32_t max_segments;
+	mutable Mutex journal_mutex;
+	// reading is done outside of journal_mutex not to block appending, lock order is read_mutex => journal_mutex
+	mutable Mutex read_mutex;
+	int read_fd;
+	uint32_t read_fd_id;
+	std::list<segment_t *> segments;	// oldest first
+	// segment that is written now
+	segment_t *active;
+	int active_fd;
+	uint8_t *active_map;
+	journal_cursor_t read_cursor;
+	uint64_t appended;
+	uint64_t dropped;
+
+	std::string segment_path(const uint32_t &id) const;
+	int load_segments();
+	segment_t *load_segment(const uint32_t &id);
+	static bool fits_empty_segment(const uint32_t &length, const size_t &segment_bytes);
+	bool fits_active(const uint32_t &length) const;
+	int open_active(const uint32_t &id);
+	void close_active();
+	void drop_oldest();
+	void apply_retention();
+	segment_t *find_segment(const uint32_t &id);
+	void normalize_cursor();
+public:
+	/**
+	 * @param dir directory for segment files, this is created if not exist
+	 * @param clear delete all frames in the journal
+	 * @param read_only open the journal only to read the frames, the directory and segment files
+	 *        are never created, written nor deleted even if they are invalid(e.g. for replay).
+	 *        clear is ignored, #append fails and #clear only forgets the frames
+	 */
+	FrameJournal(const char *dir, const bool &clear = false, const bool &read_only = false);
+	~FrameJournal();
+	/**
+	 * @param segment_bytes size of each segment file, applied to next segment
+	 * @param retention_us frames older than the newest frame by this are dropped, 0 keeps all frames
+	 * @param max_segments maximum number of segment files, 0 means unlimited
+	 */
+	int setConfig(const size_t &segment_bytes, const int64_t &retention_us, const uint32_t &max_segments);
+	/**
+	 * append the frame at the end of the journal
+	 * @return 0: success, UVC_ERROR_NOT_SUPPORTED: the journal is read only, other: error
+	 */
+	int append(uvc_frame_t *frame);
+	/**
+	 * read the frame at the read position without advancing the read position
+	 * @param pos position of the frame that was read
+	 * @return 0: success, 1: no frame to read, minus value: error
+	 */
+	int read(uvc_frame_t *frame, journal_cursor_t &pos);
+	/**
+	 * advance the read position after the frame that was read by #read
+	 * this does nothing if the read position was changed after #read
+	 */
+	void commit(const journal_cursor_t &pos);
+	/**
+	 * read the frame at the read position and advance the read position
+	 * @return 0: success, 1: no frame to read, minus value: error
+	 */
+	int readNext(uvc_frame_t *frame);
+	/**
+	 * move the read position to the first frame whose dtime is equal to or later than dtime
+	 * @return 0: success, 1: no frame
+	 */
+	int seek(const int64_t &dtime);
+	/**
+	 * move the read position to the oldest frame
+	 */
+	void rewind();
+	/**
+	 * delete all frames, the segment files are kept if the journal is read only
+	 */
+	void clear();
+	/**
+	 * @param stats JOURNAL_STATS_NUM counters
+	 */
+	int getStats(uint64_t *stats);
+	bool hasUnread();
+};
+
+#endif //PUPILMOBILE_FRAMEJOURNAL_H
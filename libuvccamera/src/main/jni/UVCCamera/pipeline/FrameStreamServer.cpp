@@ -0,0 +1,720 @@
+//
+// credit based frame streaming over TCP/Unix domain socket
+//
+
+#if 1	// set 1 if you don't need debug message
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// ignore LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG		// depends on definition in Android.mk and Application.mk
+#endif
+
+#include <stdlib.h>
+#include <stddef.h>
+#include <string.h>
+#include <unistd.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <poll.h>
+#include <endian.h>
+#include <netdb.h>
+#include <sys/socket.h>
+#include <sys/un.h>
+#include <netinet/in.h>
+#include <netinet/tcp.h>
+#include <vector>
+
+#include "utilbase.h"
+
+#include "FrameStreamServer.h"
+
+#define LISTEN_BACKLOG 4
+// a subscriber that can not receive one message within this time is disconnected
+#define SEND_TIMEOUT_MS 3000
+#define MAX_CREDITS 0x100000
+
+FrameStreamServer::FrameStreamServer(const char *_addr, const char *_subscription_id,
+	stream_ref_func_t _retain_func, stream_ref_func_t _release_func)
+:	addr(_addr ? _addr : ""),
+	subscription_id(_subscription_id ? _subscription_id : ""),
+	retain_func(_retain_func),
+	release_func(_release_func),
+	listen_fd(-1),
+	accept_thread(0),
+	mIsRunning(false),
+	published(0),
+	default_format(STREAM_FORMAT_RAW)
+{
+	ENTER();
+
+	wake_fds[0] = wake_fds[1] = -1;
+
+	EXIT();
+}
+
+FrameStreamServer::~FrameStreamServer() {
+	ENTER();
+
+	stop();
+
+	EXIT();
+}
+
+int FrameStreamServer::start() {
+	ENTER();
+
+	int result = -1;
+	if (!mIsRunning) {
+		if (UNLIKELY(pipe(wake_fds))) {
+			LOGE("failed to create pipe:errno=%d", errno);
+			RETURN(-errno, int);
+		}
+		fcntl(wake_fds[0], F_SETFL, O_NONBLOCK);
+		fcntl(wake_fds[1], F_SETFL, O_NONBLOCK);
+		listen_fd = open_listen_socket();
+		if (LIKELY(listen_fd >= 0)) {
+			mIsRunning = true;
+			result = pthread_create(&accept_thread, NULL, accept_thread_func, (void *)this);
+			if (UNLIKELY(result)) {
+				LOGE("failed to create accept thread:%d", result);
+				mIsRunning = false;
+			}
+		}
+		if (UNLIKELY(!mIsRunning)) {
+			if (listen_fd >= 0) {
+				close(listen_fd);
+				listen_fd = -1;
+			}
+			close(wake_fds[0]);
+			close(wake_fds[1]);
+			wake_fds[0] = wake_fds[1] = -1;
+		}
+	}
+
+	RETURN(result, int);
+}
+
+int FrameStreamServer::stop() {
+	ENTER();
+
+	if (mIsRunning) {
+		mIsRunning = false;
+		wakeup(wake_fds);
+		if (pthread_join(accept_thread, NULL) != EXIT_SUCCESS) {
+			LOGW("FrameStreamServer::stop pthread_join failed");
+		}
+		close(listen_fd);
+		listen_fd = -1;
+		if ((addr.compare(0, 7, "unix://") == 0) && (addr.size() > 7) && (addr[7] != '@')) {
+			unlink(addr.c_str() + 7);
+		}
+		std::list<subscriber_t *> subs;
+		subscriber_mutex.lock();
+		{
+			subs.swap(subscribers);
+		}
+		subscriber_mutex.unlock();
+		for (std::list<subscriber_t *>::iterator iter = subs.begin(); iter != subs.end(); iter++) {
+			// break blocking sendmsg of the sender thread
+			shutdown((*iter)->fd, SHUT_RDWR);
+			remove_subscriber(*iter);
+		}
+		close(wake_fds[0]);
+		close(wake_fds[1]);
+		wake_fds[0] = wake_fds[1] = -1;
+	}
+
+	RETURN(0, int);
+}
+
+int FrameStreamServer::publish(void *ref, const void *header, const size_t &header_bytes,
+	const void *payload, const size_t &payload_bytes) {
+
+	stream_variant_t variants[STREAM_FORMAT_NUM];
+	memset(variants, 0, sizeof(variants));
+	variants[STREAM_FORMAT_RAW].ref = ref;
+	variants[STREAM_FORMAT_RAW].header = header;
+	variants[STREAM_FORMAT_RAW].header_bytes = header_bytes;
+	variants[STREAM_FORMAT_RAW].payload = payload;
+	variants[STREAM_FORMAT_RAW].payload_bytes = payload_bytes;
+	return publish(variants);
+}
+
+int FrameStreamServer::publish(const stream_variant_t *variants) {
+
+	if (UNLIKELY(!mIsRunning)) {
+		return 0;
+	}
+	reap_subscribers();
+
+	int result = 0;
+	std::vector<void *> drops;
+	subscriber_mutex.lock();
+	{
+		published++;
+		for (std::list<subscriber_t *>::iterator iter = subscribers.begin(); iter != subscribers.end(); iter++) {
+			subscriber_t *sub = *iter;
+			if (UNLIKELY(sub->closed)) continue;
+			const stream_variant_t &variant = variants[sub->format];
+			if (UNLIKELY(!variant.ref || (variant.header_bytes > STREAM_MAX_HEADER_BYTES))) {
+				// the frame is not available in the requested format
+				sub->dropped++;
+				continue;
+			}
+			if (sub->queue.size() >= sub->depth) {
+				sub->dropped++;
+				if (sub->policy == STREAM_POLICY_DROP_NEWEST) {
+					continue;
+				}
+				drops.push_back(sub->queue.front().ref);
+				sub->queue.pop_front();
+			}
+			stream_entry_t entry;
+			entry.ref = variant.ref;
+			entry.payload = (const uint8_t *)variant.payload;
+			entry.payload_bytes = variant.payload_bytes;
+			entry.published = published;
+			entry.header_bytes = variant.header_bytes;
+			if (variant.header_bytes) {
+				memcpy(entry.header, variant.header, variant.header_bytes);
+			}
+			retain_func(variant.ref);
+			sub->queue.push_back(entry);
+			if (sub->credits) {
+				wakeup(sub->wake_fds);
+			}
+			result++;
+		}
+	}
+	subscriber_mutex.unlock();
+	// release outside of the lock
+	for (std::vector<void *>::iterator iter = drops.begin(); iter != drops.end(); iter++) {
+		release_func(*iter);
+	}
+
+	return result;
+}
+
+uint32_t FrameStreamServer::getRequestedFormats() {
+	uint32_t result = 0;
+	Mutex::Autolock lock(subscriber_mutex);
+	for (std::list<subscriber_t *>::iterator iter = subscribers.begin(); iter != subscribers.end(); iter++) {
+		if (!(*iter)->closed) {
+			result |= (1 << (*iter)->format);
+		}
+	}
+	return result;
+}
+
+int FrameStreamServer::setDefaultFormat(const int &format) {
+	ENTER();
+
+	if (UNLIKELY((format < 0) || (format >= STREAM_FORMAT_NUM))) {
+		RETURN(-EINVAL, int);
+	}
+	default_format = format;
+
+	RETURN(0, int);
+}
+
+int FrameStreamServer::getSubscriberCount() {
+	ENTER();
+
+	int result = 0;
+	Mutex::Autolock lock(subscriber_mutex);
+	for (std::list<subscriber_t *>::iterator iter = subscribers.begin(); iter != subscribers.end(); iter++) {
+		if (!(*iter)->closed) {
+			result++;
+		}
+	}
+
+	RETURN(result, int);
+}
+
+int FrameStreamServer::getSubscriberStats(uint64_t *stats, const int &max_subscribers) {
+	ENTER();
+
+	int result = 0;
+	Mutex::Autolock lock(subscriber_mutex);
+	for (std::list<subscriber_t *>::iterator iter = subscribers.begin();
+		(iter != subscribers.end()) && (result < max_subscribers); iter++) {
+
+		const subscriber_t *sub = *iter;
+		if (sub->closed) continue;
+		uint64_t *s = &stats[result * STREAM_STATS_NUM];
+		s[STREAM_STATS_SENT] = sub->sent;
+		s[STREAM_STATS_DROPPED] = sub->dropped;
+		s[STREAM_STATS_QUEUED] = sub->queue.size();
+		s[STREAM_STATS_CREDITS] = sub->credits;
+		s[STREAM_STATS_LAG] = published - sub->last_sent;
+		s[STREAM_STATS_BYTES] = sub->bytes;
+		result++;
+	}
+
+	RETURN(result, int);
+}
+
+//********************************************************************************
+//
+//********************************************************************************
+/**
+ * create the socket and start listening
+ * @return file descriptor, or minus value on error
+ */
+int FrameStreamServer::open_listen_socket() {
+	ENTER();
+
+	int fd = -1;
+	if (addr.compare(0, 6, "tcp://") == 0) {
+		const std::string::size_type pos = addr.rfind(':');
+		if (UNLIKELY((pos == std::string::npos) || (pos < 6))) {
+			LOGE("invalid address:%s", addr.c_str());
+			RETURN(-EINVAL, int);
+		}
+		const std::string host = addr.substr(6, pos - 6);
+		const std::string port = addr.substr(pos + 1);
+		struct addrinfo hints, *res = NULL;
+		memset(&hints, 0, sizeof(hints));
+		hints.ai_family = AF_INET;
+		hints.ai_socktype = SOCK_STREAM;
+		hints.ai_flags = AI_PASSIVE;
+		const int err = getaddrinfo((host.empty() || (host == "*")) ? NULL : host.c_str(),
+			port.c_str(), &hints, &res);
+		if (UNLIKELY(err || !res)) {
+			LOGE("failed to resolve %s:%d", addr.c_str(), err);
+			RETURN(-EINVAL, int);
+		}
+		fd = socket(res->ai_family, res->ai_socktype, res->ai_protocol);
+		if (LIKELY(fd >= 0)) {
+			const int on = 1;
+			setsockopt(fd, SOL_SOCKET, SO_REUSEADDR, &on, sizeof(on));
+			if (UNLIKELY(bind(fd, res->ai_addr, res->ai_addrlen))) {
+				LOGE("failed to bind %s:errno=%d", addr.c_str(), errno);
+				close(fd);
+				fd = -1;
+			}
+		}
+		freeaddrinfo(res);
+	} else if (addr.compare(0, 7, "unix://") == 0) {
+		const std::string path = addr.substr(7);
+		struct sockaddr_un sa;
+		memset(&sa, 0, sizeof(sa));
+		sa.sun_family = AF_UNIX;
+		if (UNLIKELY(path.empty() || (path.size() >= sizeof(sa.sun_path)))) {
+			LOGE("invalid address:%s", addr.c_str());
+			RETURN(-EINVAL, int);
+		}
+		memcpy(sa.sun_path, path.c_str(), path.size());
+		if (path[0] == '@') {
+			// abstract namespace
+			sa.sun_path[0] = '\0';
+		} else {
+			unlink(path.c_str());
+		}
+		const socklen_t len = offsetof(struct sockaddr_un, sun_path) + path.size();
+		fd = socket(AF_UNIX, SOCK_STREAM, 0);
+		if (LIKELY(fd >= 0)) {
+			if (UNLIKELY(bind(fd, (struct sockaddr *)&sa, len))) {
+				LOGE("failed to bind %s:errno=%d", addr.c_str(), errno);
+				close(fd);
+				fd = -1;
+			}
+		}
+	} else {
+		LOGE("unsupported address:%s", addr.c_str());
+		RETURN(-EINVAL, int);
+	}
+	if (LIKELY(fd >= 0)) {
+		fcntl(fd, F_SETFD, FD_CLOEXEC);
+		if (UNLIKELY(listen(fd, LISTEN_BACKLOG))) {
+			LOGE("failed to listen:errno=%d", errno);
+			close(fd);
+			fd = -1;
+		}
+	}
+
+	RETURN(fd, int);
+}
+
+/*static*/
+void *FrameStreamServer::accept_thread_func(void *vptr_args) {
+	FrameStreamServer *server = reinterpret_cast<FrameStreamServer *>(vptr_args);
+	if (LIKELY(server)) {
+		server->do_accept();
+	}
+	pthread_exit(NULL);
+}
+
+void FrameStreamServer::do_accept() {
+	ENTER();
+
+	struct pollfd fds[2];
+	for ( ; LIKELY(mIsRunning) ; ) {
+		fds[0].fd = listen_fd;
+		fds[0].events = POLLIN;
+		fds[0].revents = 0;
+		fds[1].fd = wake_fds[0];
+		fds[1].events = POLLIN;
+		fds[1].revents = 0;
+		const int ret = poll(fds, 2, -1);
+		if (UNLIKELY(ret < 0)) {
+			if (errno == EINTR) continue;
+			LOGE("poll failed:errno=%d", errno);
+			break;
+		}
+		if (fds[1].revents) {
+			clear_wakeup(wake_fds);
+		}
+		reap_subscribers();
+		if (LIKELY(mIsRunning && (fds[0].revents & POLLIN))) {
+			const int fd = accept(listen_fd, NULL, NULL);
+			if (LIKELY(fd >= 0)) {
+				if (UNLIKELY(add_subscriber(fd))) {
+					close(fd);
+				}
+			} else if (errno != EINTR) {
+				LOGW("accept failed:errno=%d", errno);
+			}
+		}
+	}
+
+	EXIT();
+}
+
+int FrameStreamServer::add_subscriber(const int &fd) {
+	ENTER();
+
+	if (UNLIKELY(getSubscriberCount() >= STREAM_MAX_SUBSCRIBERS)) {
+		LOGW("too many subscribers");
+		RETURN(-EBUSY, int);
+	}
+	fcntl(fd, F_SETFD, FD_CLOEXEC);
+	const int on = 1;
+	// this fails on Unix domain socket, just ignore
+	setsockopt(fd, IPPROTO_TCP, TCP_NODELAY, &on, sizeof(on));
+	struct timeval tv;
+	tv.tv_sec = SEND_TIMEOUT_MS / 1000;
+	tv.tv_usec = (SEND_TIMEOUT_MS % 1000) * 1000;
+	setsockopt(fd, SOL_SOCKET, SO_SNDTIMEO, &tv, sizeof(tv));
+
+	subscriber_t *sub = new subscriber_t();
+	sub->server = this;
+	sub->fd = fd;
+	sub->closed = false;
+	sub->request_bytes = 0;
+	sub->policy = STREAM_POLICY_DROP_OLDEST;
+	sub->format = default_format;
+	sub->depth = STREAM_DEFAULT_QUEUE_DEPTH;
+	sub->credits = 0;
+	sub->sent = sub->dropped = sub->bytes = 0;
+	if (UNLIKELY(pipe(sub->wake_fds))) {
+		delete sub;
+		RETURN(-errno, int);
+	}
+	fcntl(sub->wake_fds[0], F_SETFL, O_NONBLOCK);
+	fcntl(sub->wake_fds[1], F_SETFL, O_NONBLOCK);
+
+	subscriber_mutex.lock();
+	{
+		sub->last_sent = published;
+		subscribers.push_back(sub);
+	}
+	subscriber_mutex.unlock();
+	const int result = pthread_create(&sub->thread, NULL, subscriber_thread_func, (void *)sub);
+	if (UNLIKELY(result)) {
+		LOGE("failed to create subscriber thread:%d", result);
+		subscriber_mutex.lock();
+		{
+			subscribers.remove(sub);
+		}
+		subscriber_mutex.unlock();
+		close(sub->wake_fds[0]);
+		close(sub->wake_fds[1]);
+		delete sub;
+		RETURN(-result, int);
+	}
+
+	RETURN(0, int);
+}
+
+/*static*/
+void *FrameStreamServer::subscriber_thread_func(void *vptr_args) {
+	subscriber_t *sub = reinterpret_cast<subscriber_t *>(vptr_args);
+	if (LIKELY(sub)) {
+		sub->server->do_subscriber(sub);
+		sub->closed = true;
+		// let the accept thread reap this subscriber
+		wakeup(sub->server->wake_fds);
+	}
+	pthread_exit(NULL);
+}
+
+/**
+ * sender thread of each subscriber, this receives credits and sends queued frames
+ * so a slow subscriber never blocks publisher and other subscribers
+ */
+void FrameStreamServer::do_subscriber(subscriber_t *sub) {
+	ENTER();
+
+	// send subscription id
+	stream_msg_header_t msg;
+	msg.magic_le = htole32(STREAM_MAGIC);
+	msg.type_le = htole32(STREAM_MSG_WELCOME);
+	msg.header_bytes_le = htole32(subscription_id.size());
+	msg.payload_bytes_le = htole32(STREAM_VERSION);
+	struct iovec iov[2];
+	iov[0].iov_base = &msg;
+	iov[0].iov_len = sizeof(msg);
+	iov[1].iov_base = (void *)subscription_id.c_str();
+	iov[1].iov_len = subscription_id.size();
+	if (UNLIKELY(write_fully(sub->fd, iov, 2))) {
+		EXIT();
+	}
+
+	struct pollfd fds[2];
+	for ( ; LIKELY(mIsRunning && !sub->closed) ; ) {
+		fds[0].fd = sub->fd;
+		fds[0].events = POLLIN;
+		fds[0].revents = 0;
+		fds[1].fd = sub->wake_fds[0];
+		fds[1].events = POLLIN;
+		fds[1].revents = 0;
+		const int ret = poll(fds, 2, -1);
+		if (UNLIKELY(ret < 0)) {
+			if (errno == EINTR) continue;
+			break;
+		}
+		if (fds[0].revents) {
+			if (handle_requests(sub)) {
+				break;
+			}
+		}
+		if (fds[1].revents) {
+			clear_wakeup(sub->wake_fds);
+		}
+		// send queued frames as long as the subscriber has credits
+		for ( ; LIKELY(mIsRunning) ; ) {
+			stream_entry_t entry;
+			bool has_entry = false;
+			subscriber_mutex.lock();
+			{
+				if (sub->credits && !sub->queue.empty()) {
+					entry = sub->queue.front();
+					sub->queue.pop_front();
+					sub->credits--;
+					has_entry = true;
+				}
+			}
+			subscriber_mutex.unlock();
+			if (!has_entry) break;
+			const int r = send_entry(sub, entry);
+			release_func(entry.ref);
+			if (UNLIKELY(r)) {
+				LOGD("failed to send, disconnect subscriber");
+				sub->closed = true;
+				break;
+			}
+			subscriber_mutex.lock();
+			{
+				sub->sent++;
+				sub->last_sent = entry.published;
+				sub->bytes += sizeof(stream_msg_header_t) + entry.header_bytes + entry.payload_bytes;
+			}
+			subscriber_mutex.unlock();
+		}
+	}
+
+	EXIT();
+}
+
+/**
+ * receive requests from the subscriber
+ * @return 0: success, other: the subscriber disconnected or error
+ */
+int FrameStreamServer::handle_requests(subscriber_t *sub) {
+	ENTER();
+
+	for ( ; ; ) {
+		const ssize_t n = recv(sub->fd, sub->request + sub->request_bytes,
+			sizeof(stream_request_t) - sub->request_bytes, MSG_DONTWAIT);
+		if (n == 0) {
+			// disconnected
+			RETURN(-1, int);
+		} else if (n < 0) {
+			if (errno == EINTR) continue;
+			if ((errno == EAGAIN) || (errno == EWOULDBLOCK)) break;
+			RETURN(-errno, int);
+		}
+		sub->request_bytes += n;
+		if (sub->request_bytes < sizeof(stream_request_t)) continue;
+		sub->request_bytes = 0;
+		stream_request_t req;
+		memcpy(&req, sub->request, sizeof(req));
+		const uint32_t type = le32toh(req.type_le);
+		const uint32_t value = le32toh(req.value_le);
+		std::vector<void *> drops;
+		subscriber_mutex.lock();
+		{
+			switch (type) {
+			case STREAM_REQ_CREDIT:
+				sub->credits = (sub->credits + value < MAX_CREDITS) ? sub->credits + value : MAX_CREDITS;
+				break;
+			case STREAM_REQ_POLICY:
+				if (value < STREAM_POLICY_NUM) {
+					sub->policy = value;
+				}
+				break;
+			case STREAM_REQ_FORMAT:
+				if (value < STREAM_FORMAT_NUM) {
+					sub->format = value;
+				}
+				break;
+			case STREAM_REQ_DEPTH:
+				sub->depth = value < 1 ? 1 : (value > STREAM_MAX_QUEUE_DEPTH ? STREAM_MAX_QUEUE_DEPTH : value);
+				for ( ; sub->queue.size() > sub->depth ; ) {
+					drops.push_back(sub->queue.front().ref);
+					sub->queue.pop_front();
+					sub->dropped++;
+				}
+				break;
+			default:
+				LOGW("unknown request:%u", type);
+				break;
+			}
+		}
+		subscriber_mutex.unlock();
+		for (std::vector<void *>::iterator iter = drops.begin(); iter != drops.end(); iter++) {
+			release_func(*iter);
+		}
+	}
+
+	RETURN(0, int);
+}
+
+/**
+ * send header and payload with scatter/gather I/O without copying the payload
+ */
+int FrameStreamServer::send_entry(subscriber_t *sub, stream_entry_t &entry) {
+	stream_msg_header_t msg;
+	msg.magic_le = htole32(STREAM_MAGIC);
+	msg.type_le = htole32(STREAM_MSG_FRAME);
+	msg.header_bytes_le = htole32(entry.header_bytes);
+	msg.payload_bytes_le = htole32(entry.payload_bytes);
+	struct iovec iov[3];
+	iov[0].iov_base = &msg;
+	iov[0].iov_len = sizeof(msg);
+	iov[1].iov_base = entry.header;
+	iov[1].iov_len = entry.header_bytes;
+	iov[2].iov_base = (void *)entry.payload;
+	iov[2].iov_len = entry.payload_bytes;
+	return write_fully(sub->fd, iov, 3);
+}
+
+/**
+ * release all frames in the queue of the subscriber
+ */
+void FrameStreamServer::clear_queue(subscriber_t *sub) {
+	std::list<stream_entry_t> queue;
+	subscriber_mutex.lock();
+	{
+		queue.swap(sub->queue);
+	}
+	subscriber_mutex.unlock();
+	for (std::list<stream_entry_t>::iterator iter = queue.begin(); iter != queue.end(); iter++) {
+		release_func((*iter).ref);
+	}
+}
+
+/**
+ * wait for the sender thread and release the subscriber,
+ * the subscriber should be removed from subscribers before calling this
+ */
+void FrameStreamServer::remove_subscriber(subscriber_t *sub) {
+	ENTER();
+
+	sub->closed = true;
+	wakeup(sub->wake_fds);
+	if (pthread_join(sub->thread, NULL) != EXIT_SUCCESS) {
+		LOGW("FrameStreamServer::remove_subscriber pthread_join failed");
+	}
+	clear_queue(sub);
+	close(sub->fd);
+	close(sub->wake_fds[0]);
+	close(sub->wake_fds[1]);
+	delete sub;
+
+	EXIT();
+}
+
+/**
+ * release subscribers that disconnected
+ */
+void FrameStreamServer::reap_subscribers() {
+	std::list<subscriber_t *> closed;
+	subscriber_mutex.lock();
+	{
+		for (std::list<subscriber_t *>::iterator iter = subscribers.begin(); iter != subscribers.end(); ) {
+			if ((*iter)->closed) {
+				closed.push_back(*iter);
+				iter = subscribers.erase(iter);
+			} else {
+				iter++;
+			}
+		}
+	}
+	subscriber_mutex.unlock();
+	for (std::list<subscriber_t *>::iterator iter = closed.begin(); iter != closed.end(); iter++) {
+		remove_subscriber(*iter);
+	}
+}
+
+/*static*/
+void FrameStreamServer::wakeup(const int *fds) {
+	if (LIKELY(fds[1] >= 0)) {
+		const uint8_t v = 1;
+		// pipe is non-blocking, it is enough that at least one byte is in the pipe
+		if (write(fds[1], &v, 1) < 0) {
+			// ignore EAGAIN
+		}
+	}
+}
+
+/*static*/
+void FrameStreamServer::clear_wakeup(const int *fds) {
+	uint8_t buf[16];
+	for ( ; read(fds[0], buf, sizeof(buf)) > 0 ; ) {}
+}
+
+/**
+ * write all data in iov, this blocks until all data are written or timeout
+ * @return 0: success, other: error
+ */
+/*static*/
+int FrameStreamServer::write_fully(const int &fd, struct iovec *iov, int iovcnt) {
+	for ( ; iovcnt > 0 ; ) {
+		struct msghdr msg;
+		memset(&msg, 0, sizeof(msg));
+		msg.msg_iov = iov;
+		msg.msg_iovlen = iovcnt;
+		ssize_t n = sendmsg(fd, &msg, MSG_NOSIGNAL);
+		if (UNLIKELY(n < 0)) {
+			if (errno == EINTR) continue;
+			return -errno;
+		}
+		// skip written iovecs
+		for ( ; (iovcnt > 0) && ((size_t)n >= iov->iov_len) ; ) {
+			n -= iov->iov_len;
+			iov++;
+			iovcnt--;
+		}
+		if (iovcnt > 0) {
+			iov->iov_base = (uint8_t *)iov->iov_base + n;
+			iov->iov_len -= n;
+		}
+	}
+	return 0;
+}
@@ -0,0 +1,194 @@
+//
+// credit based frame streaming over TCP/Unix domain socket
+//
+
+#ifndef PUPILMOBILE_FRAMESTREAMSERVER_H
+#define PUPILMOBILE_FRAMESTREAMSERVER_H
+
+#include <stdint.h>
+#include <pthread.h>
+#include <sys/uio.h>
+#include <string>
+#include <list>
+#include "Mutex.h"
+
+#pragma interface
+
+using namespace android;
+
+/*
+ * wire format, all multi bytes fields are little endian
+ *
+ * server -> subscriber: stream_msg_header_t + header_bytes of header + payload_bytes of payload
+ *   STREAM_MSG_WELCOME	header is the subscription id, sent once just after connecting
+ *   STREAM_MSG_FRAME	header is the header passed to #publish(e.g. publish_header_t), payload is frame data
+ * subscriber -> server: stream_request_t
+ *   STREAM_REQ_CREDIT	value is the number of frames the subscriber can receive additionally
+ *   STREAM_REQ_POLICY	value is one of STREAM_POLICY_XXX
+ *   STREAM_REQ_DEPTH	value is the number of frames that can wait for credits [1, STREAM_MAX_QUEUE_DEPTH]
+ *   STREAM_REQ_FORMAT	value is one of STREAM_FORMAT_XXX
+ * server never sends frames without credits, frames that come while the subscriber has no credits
+ * are kept up to its queue depth and then dropped according to its policy.
+ * each frame can be published in several formats, the subscriber receives only the requested one.
+ */
+#define STREAM_MAGIC 0x53435655		// 'UVCS'
+#define STREAM_VERSION 1
+
+#define STREAM_MSG_WELCOME 1
+#define STREAM_MSG_FRAME 2
+
+#define STREAM_REQ_CREDIT 1
+#define STREAM_REQ_POLICY 2
+#define STREAM_REQ_DEPTH 3
+#define STREAM_REQ_FORMAT 4
+
+#define STREAM_POLICY_DROP_NEWEST 0	// drop incoming frame when the queue is full
+#define STREAM_POLICY_DROP_OLDEST 1	// drop the oldest frame in the queue when the queue is full
+#define STREAM_POLICY_NUM 2
+
+#define STREAM_FORMAT_RAW 0		// frame data as it came from the camera
+#define STREAM_FORMAT_JPEG 1	// jpeg compressed frame data
+#define STREAM_FORMAT_NUM 2
+
+#define STREAM_DEFAULT_QUEUE_DEPTH 2
+#define STREAM_MAX_QUEUE_DEPTH 32
+#define STREAM_MAX_HEADER_BYTES 64
+#define STREAM_MAX_SUBSCRIBERS 8
+
+// indices of the array returned by #getSubscriberStats
+#define STREAM_STATS_SENT 0		// frames sent to the subscriber
+#define STREAM_STATS_DROPPED 1	// frames dropped for the subscriber
+#define STREAM_STATS_QUEUED 2	// frames waiting for credits now
+#define STREAM_STATS_CREDITS 3	// remaining credits
+#define STREAM_STATS_LAG 4		// frames published after the last frame sent to the subscriber
+#define STREAM_STATS_BYTES 5	// bytes sent to the subscriber including headers
+#define STREAM_STATS_NUM 6
+
+typedef struct stream_msg_header {
+	uint32_t magic_le;
+	uint32_t type_le;
+	uint32_t header_bytes_le;
+	uint32_t payload_bytes_le;
+} __attribute__ ((packed)) stream_msg_header_t;
+
+typedef struct stream_request {
+	uint32_t type_le;
+	uint32_t value_le;
+} __attribute__ ((packed)) stream_request_t;
+
+/**
+ * called to hold/release the reference of the published payload,
+ * payload is kept without copying until all subscribers send or drop it
+ */
+typedef void (*stream_ref_func_t)(void *ref);
+
+/**
+ * one format of the published frame, ref is NULL if the frame is not available in the format
+ */
+typedef struct stream_variant {
+	void *ref;
+	const void *header;
+	size_t header_bytes;
+	const void *payload;
+	size_t payload_bytes;
+} stream_variant_t;
+
+class FrameStreamServer {
+private:
+	typedef struct stream_entry {
+		void *ref;
+		const uint8_t *payload;
+		size_t payload_bytes;
+		uint64_t published;	// publish count when this entry was published
+		size_t header_bytes;
+		uint8_t header[STREAM_MAX_HEADER_BYTES];
+	} stream_entry_t;
+
+	typedef struct subscriber {
+		FrameStreamServer *server;
+		int fd;
+		int wake_fds[2];	// pipe to wake up the sender thread
+		pthread_t thread;
+		volatile bool closed;
+		// partially received request, only accessed from the sender thread
+		uint8_t request[sizeof(stream_request_t)];
+		size_t request_bytes;
+		// following fields are guarded by server->subscriber_mutex
+		int policy;
+		int format;
+		uint32_t depth;
+		uint32_t credits;
+		std::list<stream_entry_t> queue;
+		uint64_t sent, dropped, last_sent, bytes;
+	} subscriber_t;
+
+	const std::string addr;
+	const std::string subscription_id;
+	const stream_ref_func_t retain_func;
+	const stream_ref_func_t release_func;
+	int listen_fd;
+	int wake_fds[2];	// pipe to wake up the accept thread
+	pthread_t accept_thread;
+	volatile bool mIsRunning;
+	mutable Mutex subscriber_mutex;
+	std::list<subscriber_t *> subscribers;
+	uint64_t published;
+	volatile int default_format;
+
+	int open_listen_socket();
+	static void *accept_thread_func(void *vptr_args);
+	void do_accept();
+	int add_subscriber(const int &fd);
+	static void *subscriber_thread_func(void *vptr_args);
+	void do_subscriber(subscriber_t *sub);
+	int handle_requests(subscriber_t *sub);
+	int send_entry(subscriber_t *sub, stream_entry_t &entry);
+	void clear_queue(subscriber_t *sub);
+	void remove_subscriber(subscriber_t *sub);
+	void reap_subscribers();
+	static void wakeup(const int *fds);
+	static void clear_wakeup(const int *fds);
+	static int write_fully(const int &fd, struct iovec *iov, int iovcnt);
+public:
+	/**
+	 * @param addr tcp://host:port(host can be *), unix://path or unix://@name for abstract namespace
+	 * @param subscription_id sent to each subscriber when it connects
+	 */
+	FrameStreamServer(const char *addr, const char *subscription_id,
+		stream_ref_func_t retain_func, stream_ref_func_t release_func);
+	~FrameStreamServer();
+	int start();
+	int stop();
+	inline const bool isRunning() const { return mIsRunning; };
+	/**
+	 * queue the frame to all subscribers, this never blocks on the network
+	 * @param ref reference that is retained while any subscriber holds the payload
+	 * @return number of subscribers that queued the frame
+	 */
+	int publish(void *ref, const void *header, const size_t &header_bytes,
+		const void *payload, const size_t &payload_bytes);
+	/**
+	 * queue the frame to each subscriber in the format it requested
+	 * @param variants STREAM_FORMAT_NUM entries, use STREAM_FORMAT_XXX as its index
+	 * @return number of subscribers that queued the frame
+	 */
+	int publish(const stream_variant_t *variants);
+	/**
+	 * @return bit mask of formats(1 << STREAM_FORMAT_XXX) that the connected subscribers requested
+	 */
+	uint32_t getRequestedFormats();
+	/**
+	 * set the format for subscribers that do not send STREAM_REQ_FORMAT
+	 * this does not affect the subscribers that are already connected
+	 */
+	int setDefaultFormat(const int &format);
+	int getSubscriberCount();
+	/**
+	 * @param stats STREAM_STATS_NUM counters per subscriber, use STREAM_STATS_XXX as its index
+	 * @param max_subscribers
+	 * @return number of subscribers written to stats
+	 */
+	int getSubscriberStats(uint64_t *stats, const int &max_subscribers);
+};
+
+#endif //PUPILMOBILE_FRAMESTREAMSERVER_H
@@ -79,3 +79,33 @@ int IPipeline::chain_frame(uvc_frame_t *frame) {
 
 	RETURN(result, int);
 }
+
+/**
+ * pass reference counted frame to next_pipeline
+ * if you don't need this, override this function
+ */
+int IPipeline::chain_frame(shared_frame_t *frame) {
+	ENTER();
+
+	int result = -1;
+	Mutex::Autolock lock(pipeline_mutex);
+
+	if (next_pipeline) {
+		next_pipeline->queueSharedFrame(frame);
+		result = 0;
+	}
+
+	RETURN(result, int);
+}
+
+/*public*/
+int IPipeline::queueSharedFrame(shared_frame_t *frame) {
+	ENTER();
+
+	int result = UVC_ERROR_OTHER;
+	if (LIKELY(frame)) {
+		result = queueFrame(frame->frame);
+	}
+
+	RETURN(result, int);
+}
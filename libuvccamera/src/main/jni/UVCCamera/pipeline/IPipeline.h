@@ -19,13 +19,14 @@ using namespace android;
 
 typedef enum pipeline_type {
 	PIPELINE_TYPE_SIMPLE_BUFFERED = 0,
-	PIPELINE_TYPE_SQLITE_BUFFERED = 10,
+	PIPELINE_TYPE_JOURNAL_BUFFERED = 10,
 	PIPELINE_TYPE_UVC_CONTROL = 100,
 	PIPELINE_TYPE_CALLBACK = 200,
 	PIPELINE_TYPE_CONVERT = 300,
 	PIPELINE_TYPE_PREVIEW = 400,
 	PIPELINE_TYPE_PUBLISHER = 500,
 	PIPELINE_TYPE_DISTRIBUTE = 600,
+	PIPELINE_TYPE_REPLAY = 700,
 } pipeline_type_t;
 
 typedef enum _pipeline_state {
@@ -38,6 +39,18 @@ typedef enum _pipeline_state {
 } pipeline_state_t;
 
 class IPipeline;
+class AbstractBufferedPipeline;
+
+/**
+ * reference counted frame to pass same frame to several pipelines without copying
+ * the frame data should be treated as immutable while it is shared
+ */
+typedef struct shared_frame {
+	uvc_frame_t *frame;
+	volatile int32_t ref_count;
+	// the frame returns to the pool of owner when the last reference is released
+	AbstractBufferedPipeline *owner;
+} shared_frame_t;
 
 class IPipeline {
 private:
@@ -58,6 +71,11 @@ protected:
 	 * @return 0: success queueing, other: failed
 	 */
 	virtual int chain_frame(uvc_frame_t *frame);
+	/**
+	 * pass reference counted frame to next_pipeline without copying
+	 * @return 0: success queueing, other: failed
+	 */
+	virtual int chain_frame(shared_frame_t *frame);
 public:
 	IPipeline(const size_t &default_frame_size = DEFAULT_FRAME_SZ);
 	virtual ~IPipeline();
@@ -68,6 +86,12 @@ public:
 	virtual int start() { return 0; };
 	virtual int stop() { return 0; };
 	virtual int queueFrame(uvc_frame_t *frame) = 0;
+	/**
+	 * queue reference counted frame
+	 * default implementation copies the frame with #queueFrame,
+	 * override this to keep the reference instead of copying
+	 */
+	virtual int queueSharedFrame(shared_frame_t *frame);
 };
 
 
@@ -0,0 +1,403 @@
+//
+// pipeline that buffers frames on storage with FrameJournal
+//
+
+#if 1	// set 1 if you don't need debug message
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// ignore LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG		// depends on definition in Android.mk and Application.mk
+#endif
+
+#include "utilbase.h"
+#include "common_utils.h"
+
+#include "libUVCCamera.h"
+#include "pipeline_helper.h"
+#include "IPipeline.h"
+#include "JournalBufferedPipeline.h"
+
+#define WAIT_FRAME_NSEC 100000000LL		// 100msec
+#define RETRY_INTERVALS_NSEC 10000000LL	// 10msec
+
+/*public*/
+JournalBufferedPipeline::JournalBufferedPipeline(const char *dir, const bool &clear_journal)
+:	IPipeline(0),
+	journal(new FrameJournal(dir, clear_journal))
+{
+	ENTER();
+
+	setState(PIPELINE_STATE_INITIALIZED);
+
+	EXIT();
+}
+
+/*public*/
+JournalBufferedPipeline::~JournalBufferedPipeline() {
+	ENTER();
+
+	SAFE_DELETE(journal);
+
+	EXIT();
+};
+
+/*public*/
+int JournalBufferedPipeline::release() {
+	ENTER();
+
+	setState(PIPELINE_STATE_RELEASING);
+	stop();
+
+	RETURN(0, int);
+}
+
+/*public*/
+int JournalBufferedPipeline::start() {
+	ENTER();
+
+	int result = EXIT_FAILURE;
+	if (!isRunning()) {
+		LOGD("start handler thread");
+		setState(PIPELINE_STATE_STARTING);
+		mIsRunning = true;
+		result = pthread_create(&handler_thread, NULL, handler_thread_func, (void *) this);
+		if (UNLIKELY(result != EXIT_SUCCESS)) {
+			LOGW("JournalBufferedPipeline::already running/could not create thread etc.");
+			setState(PIPELINE_STATE_INITIALIZED);
+			mIsRunning = false;
+			handler_sync.signal();
+		}
+	}
+	RETURN(result, int);
+}
+
+/*public*/
+int JournalBufferedPipeline::stop() {
+	ENTER();
+	bool b = isRunning();
+	if (LIKELY(b)) {
+		LOGD("waiting JournalBufferedPipeline thread");
+		setState(PIPELINE_STATE_STOPPING);
+		handler_mutex.lock();
+		{
+			mIsRunning = false;
+			handler_sync.broadcast();
+		}
+		handler_mutex.unlock();
+		if (pthread_join(handler_thread, NULL) != EXIT_SUCCESS) {
+			LOGW("JournalBufferedPipeline::terminate JournalBufferedPipeline thread: pthread_join failed");
+		}
+		LOGD("JournalBufferedPipeline thread finished");
+	}
+	RETURN(0, int);
+}
+
+/**
+ * append the frame to the journal, this never waits for next pipeline
+ */
+/*public*/
+int JournalBufferedPipeline::queueFrame(uvc_frame_t *frame) {
+	ENTER();
+
+	int ret = UVC_ERROR_OTHER;
+	if (LIKELY(frame && isRunning())) {
+		ret = journal->append(frame);
+		handler_mutex.lock();
+		{
+			handler_sync.broadcast();
+		}
+		handler_mutex.unlock();
+	}
+
+	RETURN(ret, int);
+}
+
+/*public*/
+void JournalBufferedPipeline::clear() {
+	ENTER();
+
+	journal->clear();
+
+	EXIT();
+}
+
+/*public*/
+int JournalBufferedPipeline::setConfig(const size_t &segment_bytes, const int64_t &retention_us, const uint32_t &max_segments) {
+	ENTER();
+
+	int result = journal->setConfig(segment_bytes, retention_us, max_segments);
+
+	RETURN(result, int);
+}
+
+/*public*/
+int JournalBufferedPipeline::seek(const int64_t &dtime) {
+	ENTER();
+
+	int result = journal->seek(dtime);
+
+	RETURN(result, int);
+}
+
+/*public*/
+void JournalBufferedPipeline::rewind() {
+	ENTER();
+
+	journal->rewind();
+
+	EXIT();
+}
+
+/*public*/
+int JournalBufferedPipeline::getStats(uint64_t *stats) {
+	ENTER();
+
+	int result = journal->getStats(stats);
+
+	RETURN(result, int);
+}
+
+/*private*/
+void *JournalBufferedPipeline::handler_thread_func(void *vptr_args) {
+
+	ENTER();
+	JournalBufferedPipeline *pipeline = reinterpret_cast<JournalBufferedPipeline *>(vptr_args);
+	if (LIKELY(pipeline)) {
+		pipeline->do_loop();
+	}
+	PRE_EXIT();
+	pthread_exit(NULL);
+}
+
+/**
+ * read frames from the journal sequentially and pass them to next pipeline,
+ * the read position advances only when next pipeline accepted the frame
+ */
+/*private*/
+void JournalBufferedPipeline::do_loop() {
+	ENTER();
+
+	uvc_frame_t *frame = uvc_allocate_frame(DEFAULT_FRAME_SZ);
+	if (LIKELY(frame)) {
+		setState(PIPELINE_STATE_RUNNING);
+		journal_cursor_t pos;
+		for (; LIKELY(isRunning());) {
+			int result = 1;
+			pipeline_mutex.lock();
+			{
+				if (next_pipeline) {
+					result = journal->read(frame, pos);
+					if (!result) {
+						result = next_pipeline->queueFrame(frame);
+						if (LIKELY(!result)) {
+							journal->commit(pos);
+						}
+					}
+				}
+			}
+			pipeline_mutex.unlock();
+			if (result) {
+				// wait for new frame, or retry after next pipeline has free buffer
+				handler_mutex.lock();
+				if (isRunning()) {
+					handler_sync.waitRelative(handler_mutex, result > 0 ? WAIT_FRAME_NSEC : RETRY_INTERVALS_NSEC);
+				}
+				handler_mutex.unlock();
+			}
+		}
+		setState(PIPELINE_STATE_STOPPING);
+		uvc_free_frame(frame);
+	} else {
+		LOGW("uvc_allocate_frame failed");
+	}
+	setState(PIPELINE_STATE_INITIALIZED);
+	mIsRunning = false;
+
+	EXIT();
+}
+
+//********************************************************************************
+//
+//********************************************************************************
+static ID_TYPE nativeCreate(JNIEnv *env, jobject thiz,
+	jstring dir_str, jboolean clear_journal) {
+
+	ENTER();
+
+	const char *c_dir = env->GetStringUTFChars(dir_str, JNI_FALSE);
+	JournalBufferedPipeline *pipeline = new JournalBufferedPipeline(c_dir, clear_journal);
+	env->ReleaseStringUTFChars(dir_str, c_dir);
+
+	setField_long(env, thiz, "mNativePtr", reinterpret_cast<ID_TYPE>(pipeline));
+	RETURN(reinterpret_cast<ID_TYPE>(pipeline), ID_TYPE);
+}
+
+static void nativeDestroy(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+	setField_long(env, thiz, "mNativePtr", 0);
+	JournalBufferedPipeline *pipeline = reinterpret_cast<JournalBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		pipeline->release();
+		SAFE_DELETE(pipeline);
+	}
+	EXIT();
+}
+
+static jint nativeGetState(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+	jint result = 0;
+	JournalBufferedPipeline *pipeline = reinterpret_cast<JournalBufferedPipeline *>(id_pipeline);
+	if (pipeline) {
+		result = pipeline->getState();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetPipeline(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline, jobject pipeline_obj) {
+
+	ENTER();
+	jint result = JNI_ERR;
+	JournalBufferedPipeline *pipeline = reinterpret_cast<JournalBufferedPipeline *>(id_pipeline);
+	if (pipeline) {
+		IPipeline *target_pipeline = getPipeline(env, pipeline_obj);
+		result = pipeline->setPipeline(target_pipeline);
+	}
+
+	RETURN(result, jint);
+}
+
+static jint nativeStart(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+
+	int result = JNI_ERR;
+	JournalBufferedPipeline *pipeline = reinterpret_cast<JournalBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		result = pipeline->start();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeStop(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	JournalBufferedPipeline *pipeline = reinterpret_cast<JournalBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		result = pipeline->stop();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetConfig(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline, jint segment_bytes, jlong retention_us, jint max_segments) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	JournalBufferedPipeline *pipeline = reinterpret_cast<JournalBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline && (segment_bytes > 0) && (max_segments >= 0))) {
+		result = pipeline->setConfig((size_t)segment_bytes, retention_us, (uint32_t)max_segments);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSeek(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline, jlong dtime_us) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	JournalBufferedPipeline *pipeline = reinterpret_cast<JournalBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		result = pipeline->seek(dtime_us);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeRewind(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	JournalBufferedPipeline *pipeline = reinterpret_cast<JournalBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		pipeline->rewind();
+		result = 0;
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeClear(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	JournalBufferedPipeline *pipeline = reinterpret_cast<JournalBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		pipeline->clear();
+		result = 0;
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeGetStats(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline, jlongArray stats_array) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	JournalBufferedPipeline *pipeline = reinterpret_cast<JournalBufferedPipeline *>(id_pipeline);
+	if (LIKELY(pipeline && stats_array
+		&& (env->GetArrayLength(stats_array) >= JOURNAL_STATS_NUM))) {
+
+		uint64_t stats[JOURNAL_STATS_NUM];
+		result = pipeline->getStats(stats);
+		if (LIKELY(!result)) {
+			jlong values[JOURNAL_STATS_NUM];
+			for (int i = 0; i < JOURNAL_STATS_NUM; i++) {
+				values[i] = (jlong)stats[i];
+			}
+			env->SetLongArrayRegion(stats_array, 0, JOURNAL_STATS_NUM, values);
+		}
+	}
+	RETURN(result, jint);
+}
+
+//**********************************************************************
+//
+//**********************************************************************
+static JNINativeMethod methods[] = {
+	{ "nativeCreate",					"(Ljava/lang/String;Z)J", (void *) nativeCreate },
+	{ "nativeDestroy",					"(J)V", (void *) nativeDestroy },
+
+	{ "nativeGetState",					"(J)I", (void *) nativeGetState },
+	{ "nativeSetPipeline",				"(JLcom/serenegiant/usb/IPipeline;)I", (void *) nativeSetPipeline },
+
+	{ "nativeStart",					"(J)I", (void *) nativeStart },
+	{ "nativeStop",						"(J)I", (void *) nativeStop },
+
+	{ "nativeSetConfig",				"(JIJI)I", (void *) nativeSetConfig },
+	{ "nativeSeek",						"(JJ)I", (void *) nativeSeek },
+	{ "nativeRewind",					"(J)I", (void *) nativeRewind },
+	{ "nativeClear",					"(J)I", (void *) nativeClear },
+	{ "nativeGetStats",					"(J[J)I", (void *) nativeGetStats },
+};
+
+int register_journal_buffered_pipeline(JNIEnv *env) {
+	LOGV("register_journal_buffered_pipeline:");
+	if (registerNativeMethods(env,
+		"com/serenegiant/usb/JournalBufferedPipeline",
+		methods, NUM_ARRAY_ELEMENTS(methods)) < 0) {
+		return -1;
+	}
+    return 0;
+}
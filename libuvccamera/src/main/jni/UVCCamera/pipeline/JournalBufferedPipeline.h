@@ -0,0 +1,50 @@
+//
+// pipeline that buffers frames on storage with FrameJournal
+//
+
+#ifndef PUPILMOBILE_JOURNALBUFFEREDPIPELINE_H
+#define PUPILMOBILE_JOURNALBUFFEREDPIPELINE_H
+
+#include <stdlib.h>
+#include <pthread.h>
+#include "Mutex.h"
+#include "Condition.h"
+
+#include "libUVCCamera.h"
+#include "IPipeline.h"
+#include "FrameJournal.h"
+
+#pragma interface
+
+using namespace android;
+
+/**
+ * pipeline that stores frames into FrameJournal on storage
+ * and passes them to next pipeline in the order of arrival,
+ * frames are kept while next pipeline can not receive them until they are dropped by retention.
+ */
+class JournalBufferedPipeline : virtual public IPipeline {
+private:
+	FrameJournal *journal;
+
+	pthread_t handler_thread;
+	mutable Mutex handler_mutex;
+	Condition handler_sync;
+	static void *handler_thread_func(void *vptr_args);
+	void do_loop();
+public:
+	JournalBufferedPipeline(const char *dir, const bool &clear = false);
+	virtual ~JournalBufferedPipeline();
+	virtual int release();
+	virtual int start();
+	virtual int stop();
+	virtual int queueFrame(uvc_frame_t *frame);
+	virtual void clear();
+	int setConfig(const size_t &segment_bytes, const int64_t &retention_us, const uint32_t &max_segments);
+	int seek(const int64_t &dtime);
+	void rewind();
+	int getStats(uint64_t *stats);
+};
+
+
+#endif //PUPILMOBILE_JOURNALBUFFEREDPIPELINE_H
@@ -0,0 +1,53 @@
+//
+// simple replacement of libutils Mutex for the pipeline
+//
+
+#ifndef PUPILMOBILE_MUTEX_H
+#define PUPILMOBILE_MUTEX_H
+
+#include <stdint.h>
+#include <errno.h>
+#include <pthread.h>
+
+#pragma interface
+
+namespace android {
+
+class Condition;
+
+/**
+ * simple pthread_mutex_t wrapper that has same interface as android::Mutex in libutils
+ * because libutils is not a part of public NDK api
+ */
+class Mutex {
+private:
+	friend class Condition;
+	pthread_mutex_t mMutex;
+	// force inhibiting copy/assignment
+	Mutex(const Mutex &src);
+	Mutex &operator =(const Mutex &src);
+public:
+	inline Mutex() { pthread_mutex_init(&mMutex, NULL); }
+	inline ~Mutex() { pthread_mutex_destroy(&mMutex); }
+	inline int32_t lock() { return -pthread_mutex_lock(&mMutex); }
+	inline void unlock() { pthread_mutex_unlock(&mMutex); }
+	inline int32_t tryLock() { return -pthread_mutex_trylock(&mMutex); }
+
+	/**
+	 * lock the mutex while this object is in the scope
+	 */
+	class Autolock {
+	private:
+		Mutex &mLock;
+	public:
+		inline Autolock(Mutex &mutex) : mLock(mutex) { mLock.lock(); }
+		inline Autolock(Mutex *mutex) : mLock(*mutex) { mLock.lock(); }
+		inline ~Autolock() { mLock.unlock(); }
+	};
+};
+
+typedef Mutex::Autolock AutoMutex;
+
+}	// namespace android
+
+#endif //PUPILMOBILE_MUTEX_H
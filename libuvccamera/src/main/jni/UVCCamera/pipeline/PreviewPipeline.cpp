@@ -13,6 +13,7 @@
 	#undef NDEBUG		// depends on definition in Android.mk and Application.mk
 #endif
 
+#include <string.h>
 #include <android/native_window_jni.h>
 
 #include "utilbase.h"
@@ -148,13 +149,15 @@ void PreviewPipeline::do_capture(JNIEnv *env) {
 
 //	ENTER();
 
+	shared_frame_t *shared = NULL;
 	uvc_frame_t *frame = NULL;
 	uvc_frame_t *rgb565 = get_frame(default_frame_size);
 
 	if (LIKELY(rgb565)) {
 		for (; isRunning() && isCapturing() ;) {
-			frame = waitCaptureFrame();
-			if (LIKELY(frame)) {
+			shared = waitCaptureFrame();
+			if (LIKELY(shared)) {
+				frame = shared->frame;
 				if (LIKELY(isCapturing())) {
 					const bool need_update_geometry = (frame->width != frameWidth) || (frame->height != frameHeight);
 					capture_mutex.lock();
@@ -192,7 +195,7 @@ void PreviewPipeline::do_capture(JNIEnv *env) {
 					}
 					capture_mutex.unlock();
 				}
-				recycle_frame(frame);
+				release_frame(shared);
 			}
 		}
 	}
@@ -31,34 +31,37 @@
 #endif
 
 #include <stdlib.h>
+#include <string.h>
 #include <linux/time.h>
 #include <unistd.h>
+#include <endian.h>
+#include <time.h>
 
 #include "utilbase.h"
 #include "common_utils.h"
 
 #include "libUVCCamera.h"
-#include "endian_unaligned.h"
 
 #include "pipeline_helper.h"
 #include "PublisherPipeline.h"
-#include "pupilmobile_defs.h"
 
 #define INIT_FRAME_POOL_SZ 2
 #define MAX_FRAME_NUM 8
-#define RETRY_INTERVALS_US 25000
 
 /* public */
 PublisherPipeline::PublisherPipeline(const size_t &_data_bytes, const char *addr, const char *_subscription_id)
 :	AbstractBufferedPipeline(MAX_FRAME_NUM, INIT_FRAME_POOL_SZ, _data_bytes),
+	default_format(STREAM_FORMAT_RAW),
+	jpeg_quality(DEFAULT_JPEG_QUALITY),
+	jpeg_encoder(NULL),
 	host(addr),
 	subscription_id(_subscription_id),
 	data_bytes(_data_bytes),
-	context(NULL),
-	publisher(NULL)
+	server(NULL)
 {
 	ENTER();
 
+	memset(encode_stats, 0, sizeof(encode_stats));
 	setState(PIPELINE_STATE_INITIALIZED);
 
 	EXIT();
@@ -89,6 +92,58 @@ int PublisherPipeline::queueFrame(uvc_frame_t *frame) {
 	return result; // 	RETURN(result, int);
 }
 
+/*public*/
+int PublisherPipeline::queueSharedFrame(shared_frame_t *frame) {
+//	ENTER();
+
+	int result = AbstractBufferedPipeline::queueSharedFrame(frame);
+	chain_frame(frame);
+
+	return result; // 	RETURN(result, int);
+}
+
+/*public*/
+int PublisherPipeline::setEncodeConfig(const int &format, const int &quality) {
+	ENTER();
+
+	if (UNLIKELY((format < 0) || (format >= STREAM_FORMAT_NUM)
+		|| (quality < 1) || (quality > 100))) {
+
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	Mutex::Autolock lock(publisher_mutex);
+	default_format = format;
+	jpeg_quality = quality;
+	if (server) {
+		server->setDefaultFormat(format);
+	}
+
+	RETURN(0, int);
+}
+
+/*public*/
+int PublisherPipeline::getEncodeStats(uint64_t *stats) {
+	ENTER();
+
+	Mutex::Autolock lock(publisher_mutex);
+	memcpy(stats, encode_stats, sizeof(encode_stats));
+
+	RETURN(0, int);
+}
+
+/*public*/
+int PublisherPipeline::getSubscriberStats(uint64_t *stats, const int &max_subscribers) {
+	ENTER();
+
+	Mutex::Autolock lock(publisher_mutex);
+	int result = 0;
+	if (server) {
+		result = server->getSubscriberStats(stats, max_subscribers);
+	}
+
+	RETURN(result, int);
+}
+
 //********************************************************************************
 //
 //********************************************************************************
@@ -115,23 +170,32 @@ static void build_header(publish_header_t &header, uvc_frame_t *frame) {
 	header.height_le = htole32(frame->height);
 	header.sequence_le = htole32(frame->sequence);
 //	header.presentation_time_us_le = htole64(systemTime() / 1000);
-	header.presentation_time_us_le = htole64(nsecs_t(frame->capture_time.tv_sec)*1000000LL + nsecs_t(frame->capture_time.tv_usec));
+	header.presentation_time_us_le = htole64(int64_t(frame->capture_time.tv_sec)*1000000LL + int64_t(frame->capture_time.tv_usec));
 	header.data_bytes_le = htole32(frame->actual_bytes);
 }
 
+/*static private*/
+void PublisherPipeline::retain_ref(void *ref) {
+	retain_frame(reinterpret_cast<shared_frame_t *>(ref));
+}
+
+/*static private*/
+void PublisherPipeline::release_ref(void *ref) {
+	release_frame(reinterpret_cast<shared_frame_t *>(ref));
+}
+
 /* override protected */
 void PublisherPipeline::on_start() {
 	ENTER();
 
 	Mutex::Autolock lock(publisher_mutex);
 
-	context = new zmq::context_t();
-	publisher = new zmq::socket_t(*context, ZMQ_PAIR/*ZMQ_PUB*/);
-	LOGV("set timeout value");
-	publisher->setsockopt(ZMQ_SNDTIMEO, 1000);
-	publisher->setsockopt(ZMQ_LINGER, 100);
-	LOGV("bind");
-	publisher->bind(host.c_str());
+	server = new FrameStreamServer(host.c_str(), subscription_id.c_str(), retain_ref, release_ref);
+	server->setDefaultFormat(default_format);
+	if (UNLIKELY(server->start())) {
+		LOGE("failed to start FrameStreamServer:%s", host.c_str());
+		SAFE_DELETE(server);
+	}
 
 	EXIT();
 }
@@ -141,17 +205,17 @@ void PublisherPipeline::on_stop() {
 	ENTER();
 
 	Mutex::Autolock lock(publisher_mutex);
-	LOGI("on_stop:finished");
-	LOGI("stop publisher zmq::socket");
-	if (publisher) {
-		publisher->close();
-		SAFE_DELETE(publisher);
+	LOGI("stop FrameStreamServer");
+	if (server) {
+		// this releases all frames that are waiting for credits
+		server->stop();
+		SAFE_DELETE(server);
 	}
-	LOGI("stop publisher zmq::context");
-	if (context) {
-		context->close();
-		SAFE_DELETE(context);
+	if (jpeg_encoder) {
+		tjDestroy(jpeg_encoder);
+		jpeg_encoder = NULL;
 	}
+	yuv_planes.clear();
 	LOGI("on_stop:finished");
 
 	EXIT();
@@ -161,63 +225,153 @@ void PublisherPipeline::on_stop() {
 int PublisherPipeline::handle_frame(uvc_frame_t *frame) {
 //	ENTER();
 
-	// local cache
-	const int sub_sz = subscription_id.size();
-	const char *sub_str = subscription_id.c_str();
-//	LOGD("sub_str=%s,sub_sz=%d", sub_str, sub_sz);
-
-	publish_header_t header;
-	// create payload
-	zmq::message_t payload(frame->actual_bytes + sizeof(publish_header_t));
-	// copy header to payload
-	build_header(header, frame);
-	memcpy(payload.data(), &header, sizeof(publish_header_t));
-	// copy frame data to payload
-	memcpy(((uint8_t *)payload.data()) + sizeof(publish_header_t), frame->data, frame->actual_bytes);
-/*
-* zmq::socket_t#send(backed by zmq_msg_send of libzmq) just add message to the internal queue.
-* and we can't know how many entries we can send without exceeding queue
-* and we also can't know when the queue exceed/overflow and message disappeared.
-* As my current test result, if the subscribing speed is slower than publisher
-* or bandwidth of network is not enough, zmq drops messages periodically without any error.
-* Even worse, queueing to zmq socket always success and no error.
-* As I can see the API and source code of zmq, there are no way to handle this now.
-* Only one way is receive number of subscribed frames from subscriber via other connection
-* and wait for publishing if the difference between number of publishing frames
-* and number of subscribed frames become bigger than the limit.
-* Unfortunately this way only works well if only one subscriber exist.
-* If we actually need to handle this issue, I assume it will be better to use other protocol
-* or make own protocol that supports handshake instead of using zmq.
-*
-* 1280x720p:
-* Nexus7(2013, Android5.1.1) => 11n(2.4GHz) => router => 11n(5Ghz) => Nexus9(Android5.1.1) : OK
-* Nexus7(2013, Android5.1.1) => 11n(2.4GHz) => router => 11n(2.4GHz) => GALAXY S5(Android5.0) : NG, slow, periodically drops frames.
-* Nexus9(Android5.1.1) => 11n(5GHz) => router => 11n(2.4GHz) => GALAXY S5(Android5.0) : OK
-* Nexus9(Android5.1.1) => 11n(5GHz) => router => 11n(2.4GHz) => MemoPad7(Android4.4.2) : NG, sometimes become slow, periodically drops frames.
-* GALAXY S5(Android5.0) => 11n(2.4GHz) => router => 11n(5Ghz) => Nexus9(Android5.1.1) : OK
-* GALAXY S5(Android5.0) => 11n(2.4GHz) => router => 11n(2.4Ghz) => GALAXY note2(Android4.4.2) : NG, slow, periodically drops frames.
-* saki
-*/
-	for ( ; LIKELY(isRunning()) ; ) {
-		try {
-			// set subscribe id
-			if ((LIKELY(publisher->send(sub_str, sub_sz, ZMQ_SNDMORE)))) {
-				// send payload
-				if (LIKELY(publisher->send(payload))) {
-					// success to send
-					break;
+	// all frames are published via #handle_shared_frame
+	return 1; // RETURN(1, int);
+}
+
+static inline uint64_t get_time_us() {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return uint64_t(ts.tv_sec) * 1000000LL + ts.tv_nsec / 1000;
+}
+
+/**
+ * compress YUYV frame to jpeg
+ * YUYV is split into planar YUV422 and passed to libjpeg-turbo as it is,
+ * so this does not need color conversion to RGB and chroma down sampling.
+ * @return reference counted jpeg frame that came from frame pool, NULL if failed
+ */
+/* private */
+shared_frame_t *PublisherPipeline::encode_jpeg(uvc_frame_t *frame) {
+	const int width = frame->width;
+	const int height = frame->height;
+	const int half_width = width >> 1;
+	if (UNLIKELY(!width || !height || (width & 1)
+		|| (frame->actual_bytes < size_t(width * height * 2)))) {
+
+		return NULL;
+	}
+	if (UNLIKELY(!jpeg_encoder)) {
+		jpeg_encoder = tjInitCompress();
+		if (UNLIKELY(!jpeg_encoder)) {
+			LOGE("tjInitCompress failed:%s", tjGetErrorStr());
+			return NULL;
+		}
+	}
+	const size_t plane_bytes = size_t(width) * height;
+	if (UNLIKELY(yuv_planes.size() < plane_bytes * 2)) {
+		yuv_planes.resize(plane_bytes * 2);
+	}
+	uint8_t *y = &yuv_planes[0];
+	uint8_t *u = y + plane_bytes;
+	uint8_t *v = u + (plane_bytes >> 1);
+	// YUYV => Y, U, V planes
+	const int src_stride = frame->step ? frame->step : width * 2;
+	for (int j = 0; j < height; j++) {
+		const uint8_t *src = (const uint8_t *)frame->data + src_stride * j;
+		uint8_t *dy = y + width * j;
+		uint8_t *du = u + half_width * j;
+		uint8_t *dv = v + half_width * j;
+		for (int i = 0; i < half_width; i++) {
+			dy[0] = src[0];
+			du[i] = src[1];
+			dy[1] = src[2];
+			dv[i] = src[3];
+			dy += 2;
+			src += 4;
+		}
+	}
+	const size_t max_bytes = tjBufSize(width, height, TJSAMP_422);
+	uvc_frame_t *jpeg = get_frame(max_bytes);
+	if (UNLIKELY(!jpeg)) {
+		LOGD("buffer pool is empty, skip encoding");
+		return NULL;
+	}
+	if (UNLIKELY(uvc_ensure_frame_size(jpeg, max_bytes))) {
+		recycle_frame(jpeg);
+		return NULL;
+	}
+	const unsigned char *planes[3] = { y, u, v };
+	const int strides[3] = { width, half_width, half_width };
+	unsigned char *dst = (unsigned char *)jpeg->data;
+	unsigned long jpeg_bytes = max_bytes;
+	if (UNLIKELY(tjCompressFromYUVPlanes(jpeg_encoder, planes, width, strides, height,
+		TJSAMP_422, &dst, &jpeg_bytes, jpeg_quality, TJFLAG_NOREALLOC | TJFLAG_FASTDCT))) {
+
+		LOGW("tjCompressFromYUVPlanes failed:%s", tjGetErrorStr());
+		recycle_frame(jpeg);
+		return NULL;
+	}
+	jpeg->width = width;
+	jpeg->height = height;
+	jpeg->frame_format = UVC_FRAME_FORMAT_MJPEG;
+	jpeg->step = 0;
+	jpeg->sequence = frame->sequence;
+	jpeg->capture_time = frame->capture_time;
+	jpeg->actual_bytes = jpeg_bytes;
+	shared_frame_t *result = wrap_frame(jpeg);
+	if (UNLIKELY(!result)) {
+		recycle_frame(jpeg);
+	}
+	return result;
+}
+
+/**
+ * queue the frame to each subscriber without copying,
+ * the frame returns to the frame pool after all subscribers sent or dropped it.
+ * Previous implementation with zmq PAIR socket could not know how many messages can be sent
+ * and zmq dropped messages silently when the subscriber or network was slow.
+ * FrameStreamServer sends frames only when the subscriber gives credits
+ * and drops frames per subscriber according to its policy,
+ * so a slow subscriber never blocks this thread or other subscribers.
+ * YUYV frames are compressed only when any subscriber requests jpeg,
+ * MJPEG frames are passed through as jpeg frames without re-encoding.
+ */
+/* override protected */
+int PublisherPipeline::handle_shared_frame(shared_frame_t *frame) {
+//	ENTER();
+
+	Mutex::Autolock lock(publisher_mutex);
+	if (LIKELY(server)) {
+		uvc_frame_t *src = frame->frame;
+		publish_header_t headers[STREAM_FORMAT_NUM];
+		stream_variant_t variants[STREAM_FORMAT_NUM];
+		memset(variants, 0, sizeof(variants));
+		build_header(headers[STREAM_FORMAT_RAW], src);
+		variants[STREAM_FORMAT_RAW].ref = frame;
+		variants[STREAM_FORMAT_RAW].header = &headers[STREAM_FORMAT_RAW];
+		variants[STREAM_FORMAT_RAW].header_bytes = sizeof(publish_header_t);
+		variants[STREAM_FORMAT_RAW].payload = src->data;
+		variants[STREAM_FORMAT_RAW].payload_bytes = src->actual_bytes;
+		shared_frame_t *jpeg = NULL;
+		if (server->getRequestedFormats() & (1 << STREAM_FORMAT_JPEG)) {
+			if (src->frame_format == UVC_FRAME_FORMAT_MJPEG) {
+				variants[STREAM_FORMAT_JPEG] = variants[STREAM_FORMAT_RAW];
+				encode_stats[ENCODE_STATS_PASSTHROUGH]++;
+			} else if (src->frame_format == UVC_FRAME_FORMAT_YUYV) {
+				const uint64_t start = get_time_us();
+				jpeg = encode_jpeg(src);
+				if (LIKELY(jpeg)) {
+					build_header(headers[STREAM_FORMAT_JPEG], jpeg->frame);
+					variants[STREAM_FORMAT_JPEG].ref = jpeg;
+					variants[STREAM_FORMAT_JPEG].header = &headers[STREAM_FORMAT_JPEG];
+					variants[STREAM_FORMAT_JPEG].header_bytes = sizeof(publish_header_t);
+					variants[STREAM_FORMAT_JPEG].payload = jpeg->frame->data;
+					variants[STREAM_FORMAT_JPEG].payload_bytes = jpeg->frame->actual_bytes;
+					encode_stats[ENCODE_STATS_ENCODED]++;
+					encode_stats[ENCODE_STATS_IN_BYTES] += src->actual_bytes;
+					encode_stats[ENCODE_STATS_OUT_BYTES] += jpeg->frame->actual_bytes;
+					encode_stats[ENCODE_STATS_TIME_US] += get_time_us() - start;
+				} else {
+					encode_stats[ENCODE_STATS_FAILED]++;
 				}
+			} else {
+				encode_stats[ENCODE_STATS_FAILED]++;
 			}
-			LOGD("failed to send");
-			usleep(RETRY_INTERVALS_US);
-		} catch (zmq::error_t e) {
-			// when error occur other than EAGAIN
-			LOGW("failed to send:%d", e.num());
-			break;
-		} catch (...) {
-			LOGW("publishing error");
-			break;
 		}
+		server->publish(variants);
+		// subscribers hold their own references
+		release_frame(jpeg);
 	}
 
 	return 1; // RETURN(1, int);
@@ -308,6 +462,72 @@ static jint nativeStop(JNIEnv *env, jobject thiz,
 	RETURN(result, jint);
 }
 
+/**
+ * @return number of subscribers, minus value on error
+ */
+static jint nativeGetSubscriberStats(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline, jlongArray stats_array) {
+
+	ENTER();
+
+	jint result = JNI_ERR;
+	PublisherPipeline *pipeline = reinterpret_cast<PublisherPipeline *>(id_pipeline);
+	if (LIKELY(pipeline && stats_array)) {
+		const int max_subscribers = env->GetArrayLength(stats_array) / STREAM_STATS_NUM;
+		uint64_t stats[STREAM_MAX_SUBSCRIBERS * STREAM_STATS_NUM];
+		result = pipeline->getSubscriberStats(stats,
+			max_subscribers < STREAM_MAX_SUBSCRIBERS ? max_subscribers : STREAM_MAX_SUBSCRIBERS);
+		if (LIKELY(result > 0)) {
+			const int n = result * STREAM_STATS_NUM;
+			jlong values[STREAM_MAX_SUBSCRIBERS * STREAM_STATS_NUM];
+			for (int i = 0; i < n; i++) {
+				values[i] = (jlong)stats[i];
+			}
+			env->SetLongArrayRegion(stats_array, 0, n, values);
+		}
+	}
+
+	RETURN(result, jint);
+}
+
+static jint nativeSetEncodeConfig(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline, jint format, jint quality) {
+
+	ENTER();
+
+	jint result = JNI_ERR;
+	PublisherPipeline *pipeline = reinterpret_cast<PublisherPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		result = pipeline->setEncodeConfig(format, quality);
+	}
+
+	RETURN(result, jint);
+}
+
+static jint nativeGetEncodeStats(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline, jlongArray stats_array) {
+
+	ENTER();
+
+	jint result = JNI_ERR;
+	PublisherPipeline *pipeline = reinterpret_cast<PublisherPipeline *>(id_pipeline);
+	if (LIKELY(pipeline && stats_array
+		&& (env->GetArrayLength(stats_array) >= ENCODE_STATS_NUM))) {
+
+		uint64_t stats[ENCODE_STATS_NUM];
+		result = pipeline->getEncodeStats(stats);
+		if (LIKELY(!result)) {
+			jlong values[ENCODE_STATS_NUM];
+			for (int i = 0; i < ENCODE_STATS_NUM; i++) {
+				values[i] = (jlong)stats[i];
+			}
+			env->SetLongArrayRegion(stats_array, 0, ENCODE_STATS_NUM, values);
+		}
+	}
+
+	RETURN(result, jint);
+}
+
 //================================================================================
 static JNINativeMethod methods_publisher_pipeline[] = {
 	{ "nativeCreate", 		"(Ljava/lang/String;Ljava/lang/String;)J", (void *) nativeCreate},
@@ -317,6 +537,9 @@ static JNINativeMethod methods_publisher_pipeline[] = {
 	{ "nativeGetState",		"(J)I", (void *) nativeGetState },
 	{ "nativeStart",		"(J)I", (void *) nativeStart },
 	{ "nativeStop",			"(J)I", (void *) nativeStop },
+	{ "nativeGetSubscriberStats",	"(J[J)I", (void *) nativeGetSubscriberStats },
+	{ "nativeSetEncodeConfig",	"(JII)I", (void *) nativeSetEncodeConfig },
+	{ "nativeGetEncodeStats",	"(J[J)I", (void *) nativeGetEncodeStats },
 };
 
 int register_publisher_pipeline(JNIEnv *env) {
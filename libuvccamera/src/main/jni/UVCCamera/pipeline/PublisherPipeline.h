@@ -8,32 +8,84 @@
 #pragma interface
 
 #include <string>
+#include <vector>
 #include "Mutex.h"
-#include "Timers.h"
-#include "zmq.hpp"
+#include "turbojpeg.h"
 
-#include "pupilmobile_defs.h"
 #include "AbstractBufferedPipeline.h"
+#include "FrameStreamServer.h"
 
 using namespace android;
 
+#define VIDEO_FRAME_FORMAT_UNKNOWN 0
+#define VIDEO_FRAME_FORMAT_YUYV 1
+#define VIDEO_FRAME_FORMAT_MJPEG 2
+
+#define DEFAULT_JPEG_QUALITY 80
+
+// indices of the array returned by #getEncodeStats
+#define ENCODE_STATS_ENCODED 0		// frames compressed from YUYV
+#define ENCODE_STATS_PASSTHROUGH 1	// MJPEG frames published without re-encoding
+#define ENCODE_STATS_FAILED 2		// frames that could not be compressed
+#define ENCODE_STATS_IN_BYTES 3		// bytes of YUYV frames that were compressed
+#define ENCODE_STATS_OUT_BYTES 4	// bytes of compressed frames
+#define ENCODE_STATS_TIME_US 5		// total time to compress in micro seconds
+#define ENCODE_STATS_NUM 6
+
+/**
+ * header of each frame, this is sent just before the frame data
+ * all multi bytes fields are little endian
+ */
+typedef struct publish_header {
+	uint32_t format_le;		// one of VIDEO_FRAME_FORMAT_XXX
+	uint32_t width_le;
+	uint32_t height_le;
+	uint32_t sequence_le;
+	uint64_t presentation_time_us_le;
+	uint32_t data_bytes_le;
+} __attribute__ ((packed)) publish_header_t;
+
 class PublisherPipeline : virtual public AbstractBufferedPipeline {
 private:
+	static void retain_ref(void *ref);
+	static void release_ref(void *ref);
+	int default_format;
+	int jpeg_quality;
+	tjhandle jpeg_encoder;
+	std::vector<uint8_t> yuv_planes;	// work buffer to convert YUYV to planar YUV422
+	uint64_t encode_stats[ENCODE_STATS_NUM];
+	shared_frame_t *encode_jpeg(uvc_frame_t *frame);
 protected:
 	const std::string host;
 	const std::string subscription_id;
 	size_t data_bytes;
-	zmq::context_t *context;
-	zmq::socket_t *publisher;
+	FrameStreamServer *server;
 	mutable Mutex publisher_mutex;
 	virtual void on_start();
 	virtual void on_stop();
 	virtual int handle_frame(uvc_frame_t *frame);
+	virtual int handle_shared_frame(shared_frame_t *frame);
 public:
 	PublisherPipeline(const size_t &_data_bytes = DEFAULT_FRAME_SZ, const char *addr = NULL, const char *subscription_id = NULL);
 	PublisherPipeline(const char *addr, const char *subscription_id);
 	virtual ~PublisherPipeline();
 	virtual int queueFrame(uvc_frame_t *frame);
+	virtual int queueSharedFrame(shared_frame_t *frame);
+	/**
+	 * @param stats STREAM_STATS_NUM counters per subscriber
+	 * @param max_subscribers
+	 * @return number of subscribers written to stats
+	 */
+	int getSubscriberStats(uint64_t *stats, const int &max_subscribers);
+	/**
+	 * @param format STREAM_FORMAT_XXX for subscribers that do not request the format
+	 * @param quality jpeg quality [1, 100] to compress YUYV frames
+	 */
+	int setEncodeConfig(const int &format, const int &quality);
+	/**
+	 * @param stats ENCODE_STATS_NUM counters
+	 */
+	int getEncodeStats(uint64_t *stats);
 };
 
 #endif //PUPILMOBILE_PUBLISHER_PIPELINE_H
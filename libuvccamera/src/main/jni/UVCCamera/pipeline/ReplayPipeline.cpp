@@ -0,0 +1,618 @@
+//
+// source pipeline that replays recorded frames instead of the camera
+//
+
+#if 1	// set 1 if you don't need debug message
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// ignore LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG		// depends on definition in Android.mk and Application.mk
+#endif
+
+#include <string.h>
+#include <strings.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <dirent.h>
+#include <sys/stat.h>
+#include <time.h>
+#include <algorithm>
+
+#include "utilbase.h"
+#include "common_utils.h"
+
+#include "libUVCCamera.h"
+#include "pipeline_helper.h"
+#include "IPipeline.h"
+#include "ReplayPipeline.h"
+
+#define WAIT_STOP_NSEC 100000000LL		// 100msec
+#define RETRY_INTERVALS_NSEC 1000000LL	// 1msec
+
+static inline nsecs_t get_time_ns() {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return nsecs_t(ts.tv_sec) * 1000000000LL + ts.tv_nsec;
+}
+
+/**
+ * @return frame format from the extension, UVC_FRAME_FORMAT_UNKNOWN if the file is not a frame
+ */
+static uvc_frame_format file_format(const char *name) {
+	const char *ext = strrchr(name, '.');
+	if (ext) {
+		ext++;
+		if (!strcasecmp(ext, "mjpg") || !strcasecmp(ext, "mjpeg")
+			|| !strcasecmp(ext, "jpg") || !strcasecmp(ext, "jpeg")) {
+			return UVC_FRAME_FORMAT_MJPEG;
+		} else if (!strcasecmp(ext, "yuyv") || !strcasecmp(ext, "yuv")) {
+			return UVC_FRAME_FORMAT_YUYV;
+		}
+	}
+	return UVC_FRAME_FORMAT_UNKNOWN;
+}
+
+/**
+ * get image size from SOFn marker of jpeg
+ * @return 0: success, other: not a jpeg or no SOFn marker
+ */
+static int parse_jpeg_size(const uint8_t *data, const size_t &bytes, uint32_t &width, uint32_t &height) {
+	if (UNLIKELY((bytes < 4) || (data[0] != 0xff) || (data[1] != 0xd8))) {
+		return -1;
+	}
+	for (size_t i = 2; i + 4 <= bytes; ) {
+		if (data[i] != 0xff) {
+			return -1;
+		}
+		const uint8_t marker = data[i + 1];
+		if (marker == 0xff) {
+			// fill byte
+			i++;
+			continue;
+		}
+		if ((marker == 0xd8) || (marker == 0x01) || ((marker >= 0xd0) && (marker <= 0xd7))) {
+			// markers without length
+			i += 2;
+			continue;
+		}
+		if ((marker == 0xd9) || (marker == 0xda)) {
+			// EOI/SOS before SOFn
+			return -1;
+		}
+		const size_t len = (data[i + 2] << 8) | data[i + 3];
+		if ((marker >= 0xc0) && (marker <= 0xcf)
+			&& (marker != 0xc4) && (marker != 0xc8) && (marker != 0xcc)) {
+
+			if (UNLIKELY((len < 7) || (i + 9 > bytes))) {
+				return -1;
+			}
+			height = (data[i + 5] << 8) | data[i + 6];
+			width = (data[i + 7] << 8) | data[i + 8];
+			return (width && height) ? 0 : -1;
+		}
+		i += 2 + len;
+	}
+	return -1;
+}
+
+/*public*/
+ReplayPipeline::ReplayPipeline(const char *_path, const int &_source_type)
+:	IPipeline(0),
+	path(_path ? _path : "."),
+	source_type(_source_type),
+	realtime(true),
+	loop(false),
+	fps(REPLAY_DEFAULT_FPS),
+	raw_width(REPLAY_DEFAULT_WIDTH),
+	raw_height(REPLAY_DEFAULT_HEIGHT),
+	journal(NULL),
+	file_index(0)
+{
+	ENTER();
+
+	memset(stats, 0, sizeof(stats));
+	setState(PIPELINE_STATE_INITIALIZED);
+
+	EXIT();
+}
+
+/*public*/
+ReplayPipeline::~ReplayPipeline() {
+	ENTER();
+
+	close_source();
+
+	EXIT();
+};
+
+/*public*/
+int ReplayPipeline::release() {
+	ENTER();
+
+	setState(PIPELINE_STATE_RELEASING);
+	stop();
+
+	RETURN(0, int);
+}
+
+/*public*/
+int ReplayPipeline::start() {
+	ENTER();
+
+	int result = EXIT_FAILURE;
+	if (!isRunning()) {
+		LOGD("start handler thread");
+		setState(PIPELINE_STATE_STARTING);
+		mIsRunning = true;
+		result = pthread_create(&handler_thread, NULL, handler_thread_func, (void *) this);
+		if (UNLIKELY(result != EXIT_SUCCESS)) {
+			LOGW("ReplayPipeline::already running/could not create thread etc.");
+			setState(PIPELINE_STATE_INITIALIZED);
+			mIsRunning = false;
+			handler_sync.signal();
+		}
+	}
+	RETURN(result, int);
+}
+
+/*public*/
+int ReplayPipeline::stop() {
+	ENTER();
+	bool b = isRunning();
+	if (LIKELY(b)) {
+		LOGD("waiting ReplayPipeline thread");
+		setState(PIPELINE_STATE_STOPPING);
+		handler_mutex.lock();
+		{
+			mIsRunning = false;
+			handler_sync.broadcast();
+		}
+		handler_mutex.unlock();
+		if (pthread_join(handler_thread, NULL) != EXIT_SUCCESS) {
+			LOGW("ReplayPipeline::terminate ReplayPipeline thread: pthread_join failed");
+		}
+		LOGD("ReplayPipeline thread finished");
+	}
+	RETURN(0, int);
+}
+
+/*public*/
+int ReplayPipeline::queueFrame(uvc_frame_t *frame) {
+	ENTER();
+
+	RETURN(UVC_ERROR_NOT_SUPPORTED, int);
+}
+
+/*public*/
+int ReplayPipeline::setConfig(const bool &_realtime, const bool &_loop, const int &_fps,
+	const uint32_t &_raw_width, const uint32_t &_raw_height) {
+
+	ENTER();
+
+	if (UNLIKELY((_fps < 0) || !_raw_width || !_raw_height)) {
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	if (UNLIKELY(isRunning())) {
+		RETURN(UVC_ERROR_BUSY, int);
+	}
+	Mutex::Autolock lock(handler_mutex);
+	realtime = _realtime;
+	loop = _loop;
+	fps = _fps;
+	raw_width = _raw_width;
+	raw_height = _raw_height;
+
+	RETURN(0, int);
+}
+
+/*public*/
+int ReplayPipeline::getStats(uint64_t *_stats) {
+	ENTER();
+
+	if (UNLIKELY(!_stats)) {
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	Mutex::Autolock lock(handler_mutex);
+	memcpy(_stats, stats, sizeof(stats));
+
+	RETURN(0, int);
+}
+
+/*private*/
+void *ReplayPipeline::handler_thread_func(void *vptr_args) {
+
+	ENTER();
+	ReplayPipeline *pipeline = reinterpret_cast<ReplayPipeline *>(vptr_args);
+	if (LIKELY(pipeline)) {
+		pipeline->do_loop();
+	}
+	PRE_EXIT();
+	pthread_exit(NULL);
+}
+
+/**
+ * open the source, this is called on handler thread
+ */
+/*private*/
+int ReplayPipeline::open_source() {
+	ENTER();
+
+	close_source();
+	if (source_type == REPLAY_SOURCE_JOURNAL) {
+		// the recorded journal must be kept as it is, never create nor delete its segments
+		journal = new FrameJournal(path.c_str(), false, true);
+		journal->rewind();
+	} else if (source_type == REPLAY_SOURCE_FILES) {
+		DIR *dir = opendir(path.c_str());
+		if (UNLIKELY(!dir)) {
+			LOGE("failed to open %s:errno=%d", path.c_str(), errno);
+			RETURN(UVC_ERROR_NOT_FOUND, int);
+		}
+		for (struct dirent *entry = readdir(dir); entry; entry = readdir(dir)) {
+			if ((entry->d_name[0] != '.') && (file_format(entry->d_name) != UVC_FRAME_FORMAT_UNKNOWN)) {
+				files.push_back(path + "/" + entry->d_name);
+			}
+		}
+		closedir(dir);
+		// file names are expected to be numbered in the order of capture
+		std::sort(files.begin(), files.end());
+		file_index = 0;
+	} else {
+		LOGE("unknown source type:%d", source_type);
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+
+	RETURN(0, int);
+}
+
+/*private*/
+void ReplayPipeline::close_source() {
+	ENTER();
+
+	SAFE_DELETE(journal);
+	files.clear();
+	file_index = 0;
+
+	EXIT();
+}
+
+/*private*/
+void ReplayPipeline::rewind_source() {
+	ENTER();
+
+	if (journal) {
+		journal->rewind();
+	}
+	file_index = 0;
+
+	EXIT();
+}
+
+/**
+ * read next frame from the source
+ * @param dtime_us recorded time of the frame
+ * @return 0: success, 1: end of the source, minus value: the frame could not be read and skipped
+ */
+/*private*/
+int ReplayPipeline::read_source(uvc_frame_t *frame, int64_t &dtime_us) {
+	ENTER();
+
+	int result = 1;
+	if (journal) {
+		result = journal->readNext(frame);
+		if (!result) {
+			dtime_us = int64_t(frame->capture_time.tv_sec) * 1000000LL + frame->capture_time.tv_usec;
+		}
+	} else if (file_index < files.size()) {
+		// files have no time stamp, use the configured frame rate instead
+		dtime_us = fps > 0 ? int64_t(file_index) * 1000000LL / fps : 0;
+		result = read_file(files[file_index++], frame);
+	}
+
+	RETURN(result, int);
+}
+
+/*private*/
+int ReplayPipeline::read_file(const std::string &file_path, uvc_frame_t *frame) {
+	ENTER();
+
+	const int fd = open(file_path.c_str(), O_RDONLY);
+	if (UNLIKELY(fd < 0)) {
+		LOGW("failed to open %s:errno=%d", file_path.c_str(), errno);
+		RETURN(UVC_ERROR_IO, int);
+	}
+	int result = UVC_ERROR_IO;
+	struct stat st;
+	if (LIKELY(!fstat(fd, &st) && (st.st_size > 0)
+		&& !uvc_ensure_frame_size(frame, (size_t)st.st_size))) {
+
+		uint8_t *p = (uint8_t *)frame->data;
+		size_t bytes = (size_t)st.st_size;
+		for ( ; bytes > 0 ; ) {
+			const ssize_t n = ::read(fd, p, bytes);
+			if (UNLIKELY(n <= 0)) {
+				if ((n < 0) && (errno == EINTR)) continue;
+				break;
+			}
+			p += n;
+			bytes -= n;
+		}
+		if (LIKELY(!bytes)) {
+			frame->actual_bytes = (size_t)st.st_size;
+			frame->frame_format = file_format(file_path.c_str());
+			if (frame->frame_format == UVC_FRAME_FORMAT_MJPEG) {
+				frame->step = 0;
+				result = parse_jpeg_size((const uint8_t *)frame->data, frame->actual_bytes,
+					frame->width, frame->height) ? UVC_ERROR_INVALID_PARAM : 0;
+			} else if (frame->actual_bytes == raw_width * raw_height * 2) {
+				frame->width = raw_width;
+				frame->height = raw_height;
+				frame->step = raw_width * 2;
+				result = 0;
+			} else {
+				result = UVC_ERROR_INVALID_PARAM;
+			}
+		}
+	}
+	close(fd);
+	if (UNLIKELY(result)) {
+		LOGW("skip %s:err=%d", file_path.c_str(), result);
+	}
+
+	RETURN(result, int);
+}
+
+/**
+ * wait until target time(CLOCK_MONOTONIC)
+ * @return false if the pipeline was stopped while waiting
+ */
+/*private*/
+bool ReplayPipeline::wait_until(const nsecs_t &target) {
+	handler_mutex.lock();
+	for (nsecs_t now = get_time_ns(); isRunning() && (now < target); now = get_time_ns()) {
+		handler_sync.waitRelative(handler_mutex, target - now);
+	}
+	handler_mutex.unlock();
+	return isRunning();
+}
+
+/**
+ * read frames from the source and pass them to next pipeline like UVCCamera does
+ */
+/*private*/
+void ReplayPipeline::do_loop() {
+	ENTER();
+
+	uvc_frame_t *frame = uvc_allocate_frame(DEFAULT_FRAME_SZ);
+	handler_mutex.lock();
+	const bool is_realtime = realtime;
+	const bool is_loop = loop;
+	memset(stats, 0, sizeof(stats));
+	handler_mutex.unlock();
+	if (LIKELY(frame && !open_source())) {
+		setState(PIPELINE_STATE_RUNNING);
+		bool has_base = false;
+		bool has_frame = false;		// whether any frame was read since last rewind
+		nsecs_t base_time = 0;
+		int64_t base_dtime = 0, prev_dtime = 0, dtime = 0;
+		uint32_t sequence = 0;
+		for (; LIKELY(isRunning());) {
+			int result = read_source(frame, dtime);
+			if (result > 0) {
+				// end of the source
+				if (is_loop && has_frame) {
+					rewind_source();
+					has_frame = has_base = false;
+					Mutex::Autolock lock(handler_mutex);
+					stats[REPLAY_STATS_LOOPS]++;
+					continue;
+				}
+				LOGD("end of the source");
+				handler_mutex.lock();
+				stats[REPLAY_STATS_FINISHED] = 1;
+				for (; isRunning(); ) {
+					handler_sync.waitRelative(handler_mutex, WAIT_STOP_NSEC);
+				}
+				handler_mutex.unlock();
+				break;
+			} else if (UNLIKELY(result < 0)) {
+				Mutex::Autolock lock(handler_mutex);
+				stats[REPLAY_STATS_SKIPPED]++;
+				continue;
+			}
+			has_frame = true;
+			if (is_realtime) {
+				// keep recorded intervals, rebase when the time stamp goes back
+				if (!has_base || (dtime < prev_dtime)) {
+					base_time = get_time_ns();
+					base_dtime = dtime;
+					has_base = true;
+				}
+				prev_dtime = dtime;
+				if (!wait_until(base_time + (dtime - base_dtime) * 1000LL)) break;
+			}
+			// re-stamp the frame as if it were received now
+			const nsecs_t now = get_time_ns();
+			frame->capture_time.tv_sec = now / 1000000000LL;
+			frame->capture_time.tv_usec = (now / 1000LL) % 1000000LL;
+			frame->sequence = ++sequence;
+			frame->pts = frame->scr = 0;
+			frame->source = NULL;
+			for (; ;) {
+				pipeline_mutex.lock();
+				{
+					result = next_pipeline ? next_pipeline->queueFrame(frame) : UVC_ERROR_OTHER;
+				}
+				pipeline_mutex.unlock();
+				if (!result || is_realtime) break;
+				// wait until next pipeline has free buffer
+				handler_mutex.lock();
+				if (isRunning()) {
+					handler_sync.waitRelative(handler_mutex, RETRY_INTERVALS_NSEC);
+				}
+				handler_mutex.unlock();
+				if (!isRunning()) break;
+			}
+			if (result && !is_realtime) break;	// stopped while waiting for next pipeline
+			Mutex::Autolock lock(handler_mutex);
+			stats[result ? REPLAY_STATS_DROPPED : REPLAY_STATS_FRAMES]++;
+		}
+		setState(PIPELINE_STATE_STOPPING);
+	} else {
+		LOGW("failed to open the source");
+	}
+	close_source();
+	if (frame) {
+		uvc_free_frame(frame);
+	}
+	setState(PIPELINE_STATE_INITIALIZED);
+	mIsRunning = false;
+
+	EXIT();
+}
+
+//********************************************************************************
+//
+//********************************************************************************
+static ID_TYPE nativeCreate(JNIEnv *env, jobject thiz,
+	jstring path_str, jint source_type) {
+
+	ENTER();
+
+	const char *c_path = env->GetStringUTFChars(path_str, JNI_FALSE);
+	ReplayPipeline *pipeline = new ReplayPipeline(c_path, source_type);
+	env->ReleaseStringUTFChars(path_str, c_path);
+
+	setField_long(env, thiz, "mNativePtr", reinterpret_cast<ID_TYPE>(pipeline));
+	RETURN(reinterpret_cast<ID_TYPE>(pipeline), ID_TYPE);
+}
+
+static void nativeDestroy(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+	setField_long(env, thiz, "mNativePtr", 0);
+	ReplayPipeline *pipeline = reinterpret_cast<ReplayPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		pipeline->release();
+		SAFE_DELETE(pipeline);
+	}
+	EXIT();
+}
+
+static jint nativeGetState(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+	jint result = 0;
+	ReplayPipeline *pipeline = reinterpret_cast<ReplayPipeline *>(id_pipeline);
+	if (pipeline) {
+		result = pipeline->getState();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetPipeline(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline, jobject pipeline_obj) {
+
+	ENTER();
+	jint result = JNI_ERR;
+	ReplayPipeline *pipeline = reinterpret_cast<ReplayPipeline *>(id_pipeline);
+	if (pipeline) {
+		IPipeline *target_pipeline = getPipeline(env, pipeline_obj);
+		result = pipeline->setPipeline(target_pipeline);
+	}
+
+	RETURN(result, jint);
+}
+
+static jint nativeStart(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	ENTER();
+
+	int result = JNI_ERR;
+	ReplayPipeline *pipeline = reinterpret_cast<ReplayPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		result = pipeline->start();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeStop(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	ReplayPipeline *pipeline = reinterpret_cast<ReplayPipeline *>(id_pipeline);
+	if (LIKELY(pipeline)) {
+		result = pipeline->stop();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetConfig(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline, jboolean realtime, jboolean loop, jint fps, jint raw_width, jint raw_height) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	ReplayPipeline *pipeline = reinterpret_cast<ReplayPipeline *>(id_pipeline);
+	if (LIKELY(pipeline && (raw_width > 0) && (raw_height > 0))) {
+		result = pipeline->setConfig(realtime, loop, fps, (uint32_t)raw_width, (uint32_t)raw_height);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeGetStats(JNIEnv *env, jobject thiz,
+	ID_TYPE id_pipeline, jlongArray stats_array) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	ReplayPipeline *pipeline = reinterpret_cast<ReplayPipeline *>(id_pipeline);
+	if (LIKELY(pipeline && stats_array
+		&& (env->GetArrayLength(stats_array) >= REPLAY_STATS_NUM))) {
+
+		uint64_t stats[REPLAY_STATS_NUM];
+		result = pipeline->getStats(stats);
+		if (LIKELY(!result)) {
+			jlong values[REPLAY_STATS_NUM];
+			for (int i = 0; i < REPLAY_STATS_NUM; i++) {
+				values[i] = (jlong)stats[i];
+			}
+			env->SetLongArrayRegion(stats_array, 0, REPLAY_STATS_NUM, values);
+		}
+	}
+	RETURN(result, jint);
+}
+
+//**********************************************************************
+//
+//**********************************************************************
+static JNINativeMethod methods[] = {
+	{ "nativeCreate",					"(Ljava/lang/String;I)J", (void *) nativeCreate },
+	{ "nativeDestroy",					"(J)V", (void *) nativeDestroy },
+
+	{ "nativeGetState",					"(J)I", (void *) nativeGetState },
+	{ "nativeSetPipeline",				"(JLcom/serenegiant/usb/IPipeline;)I", (void *) nativeSetPipeline },
+
+	{ "nativeStart",					"(J)I", (void *) nativeStart },
+	{ "nativeStop",						"(J)I", (void *) nativeStop },
+
+	{ "nativeSetConfig",				"(JZZIII)I", (void *) nativeSetConfig },
+	{ "nativeGetStats",					"(J[J)I", (void *) nativeGetStats },
+};
+
+int register_replay_pipeline(JNIEnv *env) {
+	LOGV("register_replay_pipeline:");
+	if (registerNativeMethods(env,
+		"com/serenegiant/usb/ReplayPipeline",
+		methods, NUM_ARRAY_ELEMENTS(methods)) < 0) {
+		return -1;
+	}
+    return 0;
+}
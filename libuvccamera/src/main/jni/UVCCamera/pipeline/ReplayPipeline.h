@@ -0,0 +1,99 @@
+//
+// source pipeline that replays recorded frames instead of the camera
+//
+
+#ifndef PUPILMOBILE_REPLAYPIPELINE_H
+#define PUPILMOBILE_REPLAYPIPELINE_H
+
+#include <stdlib.h>
+#include <pthread.h>
+#include <string>
+#include <vector>
+#include "Mutex.h"
+#include "Condition.h"
+
+#include "libUVCCamera.h"
+#include "IPipeline.h"
+#include "FrameJournal.h"
+
+#pragma interface
+
+using namespace android;
+
+#define REPLAY_SOURCE_JOURNAL 0		// directory of FrameJournal
+#define REPLAY_SOURCE_FILES 1		// directory of *.mjpg/*.jpg(MJPEG) and *.yuyv/*.yuv(YUYV) files
+
+#define REPLAY_DEFAULT_FPS 30
+#define REPLAY_DEFAULT_WIDTH 640
+#define REPLAY_DEFAULT_HEIGHT 480
+
+// indices of the array returned by #getStats
+#define REPLAY_STATS_FRAMES 0		// frames passed to next pipeline
+#define REPLAY_STATS_DROPPED 1		// frames dropped because next pipeline was busy(only on realtime playback)
+#define REPLAY_STATS_SKIPPED 2		// frames/files that could not be read
+#define REPLAY_STATS_LOOPS 3		// number of times playback returned to the first frame
+#define REPLAY_STATS_FINISHED 4		// 1 if playback reached the end of the source
+#define REPLAY_STATS_NUM 5
+
+/**
+ * pipeline that reads recorded frames and passes them to next pipeline like UVCCamera does,
+ * this has no upstream, frames are re-stamped with current time when they are passed to next pipeline.
+ * on realtime playback frames are passed at the recorded intervals and dropped when next pipeline is busy,
+ * otherwise they are passed as fast as next pipeline accepts them.
+ */
+class ReplayPipeline : virtual public IPipeline {
+private:
+	const std::string path;
+	const int source_type;
+	bool realtime;
+	bool loop;
+	int fps;
+	uint32_t raw_width, raw_height;
+	uint64_t stats[REPLAY_STATS_NUM];
+	// source
+	FrameJournal *journal;
+	std::vector<std::string> files;
+	size_t file_index;
+
+	pthread_t handler_thread;
+	mutable Mutex handler_mutex;
+	Condition handler_sync;
+	static void *handler_thread_func(void *vptr_args);
+	void do_loop();
+	int open_source();
+	void close_source();
+	void rewind_source();
+	int read_source(uvc_frame_t *frame, int64_t &dtime_us);
+	int read_file(const std::string &file_path, uvc_frame_t *frame);
+	bool wait_until(const nsecs_t &target);
+public:
+	/**
+	 * @param path directory of the source
+	 * @param source_type REPLAY_SOURCE_XXX
+	 */
+	ReplayPipeline(const char *path, const int &source_type);
+	virtual ~ReplayPipeline();
+	virtual int release();
+	virtual int start();
+	virtual int stop();
+	/**
+	 * this pipeline has no upstream, always fails
+	 */
+	virtual int queueFrame(uvc_frame_t *frame);
+	/**
+	 * this can not be changed while the pipeline is running
+	 * @param realtime true: keep recorded intervals, false: as fast as possible
+	 * @param loop return to the first frame at the end of the source
+	 * @param fps frame rate for REPLAY_SOURCE_FILES on realtime playback
+	 * @param raw_width width of YUYV files
+	 * @param raw_height height of YUYV files
+	 */
+	int setConfig(const bool &realtime, const bool &loop, const int &fps,
+		const uint32_t &raw_width, const uint32_t &raw_height);
+	/**
+	 * @param stats REPLAY_STATS_NUM counters
+	 */
+	int getStats(uint64_t *stats);
+};
+
+#endif //PUPILMOBILE_REPLAYPIPELINE_H
@@ -3,14 +3,10 @@
 //
 
 #include "utilbase.h"
-#include "Timers.h"
 #include "SimpleBufferedPipeline.h"
-#include "SQLiteBufferedPipeline.h"
-#include "UVCCameraControl.h"
 #include "CallbackPipeline.h"
 #include "ConvertPipeline.h"
 #include "PreviewPipeline.h"
-#include "PublisherPipeline.h"
 #include "DistributePipeline.h"
 #include "pipeline_helper.h"
 
@@ -26,12 +22,6 @@ IPipeline *getPipeline(JNIEnv *env, jobject pipeline_obj) {
 		case PIPELINE_TYPE_SIMPLE_BUFFERED:
 			result = reinterpret_cast<SimpleBufferedPipeline *>(id_pipeline);
 			break;
-		case PIPELINE_TYPE_SQLITE_BUFFERED:
-			result = reinterpret_cast<SQLiteBufferedPipeline *>(id_pipeline);
-			break;
-		case PIPELINE_TYPE_UVC_CONTROL:
-			result = reinterpret_cast<UVCCameraControl *>(id_pipeline);
-			break;
 		case PIPELINE_TYPE_CALLBACK:
 			result = reinterpret_cast<CallbackPipeline *>(id_pipeline);
 			break;
@@ -41,9 +31,6 @@ IPipeline *getPipeline(JNIEnv *env, jobject pipeline_obj) {
 		case PIPELINE_TYPE_PREVIEW:
 			result = reinterpret_cast<PreviewPipeline *>(id_pipeline);
 			break;
-		case PIPELINE_TYPE_PUBLISHER:
-			result = reinterpret_cast<PublisherPipeline *>(id_pipeline);
-			break;
 		case PIPELINE_TYPE_DISTRIBUTE:
 			result = reinterpret_cast<DistributePipeline *>(id_pipeline);
 			break;
@@ -37,6 +37,8 @@
 #include <android/native_window_jni.h>
 
 #include "libUVCCamera.h"
+#include "common_utils.h"
+#include "pipeline_helper.h"
 #include "UVCCamera.h"
 
 /**
@@ -46,7 +48,7 @@
  * @param field_name
  * @params val
  */
-static jlong setField_long(JNIEnv *env, jobject java_obj, const char *field_name, jlong val) {
+jlong setField_long(JNIEnv *env, jobject java_obj, const char *field_name, jlong val) {
 #if LOCAL_DEBUG
 	LOGV("setField_long:");
 #endif
@@ -143,7 +145,7 @@ static void nativeDestroy(JNIEnv *env, jobject thiz,
 static jint nativeConnect(JNIEnv *env, jobject thiz,
 	ID_TYPE id_camera,
 	jint vid, jint pid, jint fd,
-	jint busNum, jint devAddr, jstring usbfs_str) {
+	jint busNum, jint devAddr, jstring usbfs_str, jboolean shared_context) {
 
 	ENTER();
 	int result = JNI_ERR;
@@ -151,7 +153,7 @@ static jint nativeConnect(JNIEnv *env, jobject thiz,
 	const char *c_usbfs = env->GetStringUTFChars(usbfs_str, JNI_FALSE);
 	if (LIKELY(camera && (fd > 0))) {
 //		libusb_set_debug(NULL, LIBUSB_LOG_LEVEL_DEBUG);
-		result =  camera->connect(vid, pid, fd, busNum, devAddr, c_usbfs);
+		result =  camera->connect(vid, pid, fd, busNum, devAddr, c_usbfs, shared_context);
 	}
 	env->ReleaseStringUTFChars(usbfs_str, c_usbfs);
 	RETURN(result, jint);
@@ -213,15 +215,36 @@ static jobject nativeGetSupportedSize(JNIEnv *env, jobject thiz,
 	RETURN(result, jobject);
 }
 
+// 対応フォーマット・フレームサイズ・フレームインターバルをint配列で取得
+static jintArray nativeGetSupportedFormats(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	ENTER();
+	jintArray result = NULL;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		int num = 0;
+		int32_t *formats = camera->getSupportedFormats(num);
+		if (LIKELY(formats)) {
+			result = env->NewIntArray(num);
+			if (LIKELY(result)) {
+				env->SetIntArrayRegion(result, 0, num, reinterpret_cast<const jint *>(formats));
+			}
+			free(formats);
+		}
+	}
+	RETURN(result, jintArray);
+}
+
 //======================================================================
 // プレビュー画面の大きさをセット
 static jint nativeSetPreviewSize(JNIEnv *env, jobject thiz,
-	ID_TYPE id_camera, jint width, jint height, jint min_fps, jint max_fps, jint mode, jfloat bandwidth) {
+	ID_TYPE id_camera, jint width, jint height, jint min_fps, jint max_fps, jint mode, jfloat bandwidth, jboolean zero_copy) {
 
 	ENTER();
 	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
 	if (LIKELY(camera)) {
-		return camera->setPreviewSize(width, height, min_fps, max_fps, mode, bandwidth);
+		return camera->setPreviewSize(width, height, min_fps, max_fps, mode, bandwidth, zero_copy);
 	}
 	RETURN(JNI_ERR, jint);
 }
@@ -276,6 +299,22 @@ static jint nativeSetFrameCallback(JNIEnv *env, jobject thiz,
 	RETURN(result, jint);
 }
 
+// ダイレクトバッファのリングでフレームを受け取るコールバックをセット
+static jint nativeSetFrameBatchCallback(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jobject jIFrameBatchCallback, jobjectArray jBuffers, jobject jMetadata, jint pixel_format) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		jobject callback_obj = env->NewGlobalRef(jIFrameBatchCallback);
+		jobjectArray buffers = (jobjectArray)env->NewGlobalRef(jBuffers);
+		jobject metadata = env->NewGlobalRef(jMetadata);
+		result = camera->setFrameBatchCallback(env, callback_obj, buffers, metadata, pixel_format);
+	}
+	RETURN(result, jint);
+}
+
 static jint nativeSetCaptureDisplay(JNIEnv *env, jobject thiz,
 	ID_TYPE id_camera, jobject jSurface) {
 
@@ -289,6 +328,176 @@ static jint nativeSetCaptureDisplay(JNIEnv *env, jobject thiz,
 	RETURN(result, jint);
 }
 
+//======================================================================
+// フレームプールの設定
+static jint nativeSetFramePoolConfig(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint pool_size, jint frame_bytes) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && (frame_bytes >= 0))) {
+		result = camera->setFramePoolConfig(pool_size, (size_t)frame_bytes);
+	}
+	RETURN(result, jint);
+}
+
+// フレームプールの統計情報を取得
+static jint nativeGetFramePoolStats(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jlongArray stats_array) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && stats_array
+		&& (env->GetArrayLength(stats_array) >= FRAME_POOL_STATS_NUM))) {
+
+		uint64_t stats[FRAME_POOL_STATS_NUM];
+		result = camera->getFramePoolStats(stats);
+		if (LIKELY(!result)) {
+			jlong values[FRAME_POOL_STATS_NUM];
+			for (int i = 0; i < FRAME_POOL_STATS_NUM; i++) {
+				values[i] = (jlong)stats[i];
+			}
+			env->SetLongArrayRegion(stats_array, 0, FRAME_POOL_STATS_NUM, values);
+		}
+	}
+	RETURN(result, jint);
+}
+
+// MJPEGをデコードするワーカースレッドの数をセット
+static jint nativeSetDecodeWorkers(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint num_workers) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setDecodeWorkers(num_workers);
+	}
+	RETURN(result, jint);
+}
+
+// バス上で予約する(マイクロ)フレーム当たりのペイロードサイズをセット
+static jint nativeSetMaxPayloadSize(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint bytes_per_packet) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && (bytes_per_packet >= 0))) {
+		result = camera->setMaxPayloadSize(bytes_per_packet);
+	}
+	RETURN(result, jint);
+}
+
+// ストリーミングインターフェースのaltsetting毎のパケットサイズを取得
+static jintArray nativeGetStreamingAltSettings(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	ENTER();
+	jintArray result = NULL;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		int num = 0;
+		int32_t *alt_settings = camera->getStreamingAltSettings(num);
+		if (LIKELY(alt_settings)) {
+			result = env->NewIntArray(num);
+			if (LIKELY(result)) {
+				env->SetIntArrayRegion(result, 0, num, reinterpret_cast<const jint *>(alt_settings));
+			}
+			free(alt_settings);
+		}
+	}
+	RETURN(result, jintArray);
+}
+
+// USB転送の数とサイズをセット
+static jint nativeSetTransferConfig(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint num_transfers, jint packets_per_transfer, jint bulk_transfer_size) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && (bulk_transfer_size >= 0))) {
+		result = camera->setTransferConfig(num_transfers, packets_per_transfer, bulk_transfer_size);
+	}
+	RETURN(result, jint);
+}
+
+// USB転送の統計情報を取得
+static jint nativeGetTransferStats(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jlongArray stats_array) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && stats_array
+		&& (env->GetArrayLength(stats_array) >= UVC_XFER_STATS_NUM))) {
+
+		uint64_t stats[UVC_XFER_STATS_NUM];
+		result = camera->getTransferStats(stats);
+		if (LIKELY(!result)) {
+			jlong values[UVC_XFER_STATS_NUM];
+			for (int i = 0; i < UVC_XFER_STATS_NUM; i++) {
+				values[i] = (jlong)stats[i];
+			}
+			env->SetLongArrayRegion(stats_array, 0, UVC_XFER_STATS_NUM, values);
+		}
+	}
+	RETURN(result, jint);
+}
+
+// フレームキューの動作をセット
+static jint nativeSetQueuePolicy(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint queue, jint policy, jint depth, jint param) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setQueuePolicy(queue, policy, depth, param);
+	}
+	RETURN(result, jint);
+}
+
+// フレームキューの統計情報を取得
+static jint nativeGetQueueStats(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint queue, jlongArray stats_array) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && stats_array
+		&& (env->GetArrayLength(stats_array) >= QUEUE_STATS_NUM))) {
+
+		uint64_t stats[QUEUE_STATS_NUM];
+		result = camera->getQueueStats(queue, stats);
+		if (LIKELY(!result)) {
+			jlong values[QUEUE_STATS_NUM];
+			for (int i = 0; i < QUEUE_STATS_NUM; i++) {
+				values[i] = (jlong)stats[i];
+			}
+			env->SetLongArrayRegion(stats_array, 0, QUEUE_STATS_NUM, values);
+		}
+	}
+	RETURN(result, jint);
+}
+
+// 受信したフレームを渡すパイプラインをセット
+static jint nativeSetPipeline(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jobject pipeline_obj) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		IPipeline *pipeline = getPipeline(env, pipeline_obj);
+		result = camera->setPipeline(pipeline);
+	}
+	RETURN(result, jint);
+}
+
 //======================================================================
 // カメラコントロールでサポートしている機能を取得する
 static jlong nativeGetCtrlSupports(JNIEnv *env, jobject thiz,
@@ -322,6 +531,71 @@ static jlong nativeGetProcSupports(JNIEnv *env, jobject thiz,
 	RETURN(result, jlong);
 }
 
+//======================================================================
+// 複数のコントロールの現在値をまとめて取得
+static jint nativeGetControls(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jintArray ids_array, jintArray values_array) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && ids_array && values_array)) {
+		const jsize num = env->GetArrayLength(ids_array);
+		if (LIKELY(env->GetArrayLength(values_array) >= num)) {
+			jint *ids = env->GetIntArrayElements(ids_array, NULL);
+			jint *values = env->GetIntArrayElements(values_array, NULL);
+			result = camera->getCtrlValues((const uint32_t *)ids, values, num);
+			env->ReleaseIntArrayElements(values_array, values, 0);
+			env->ReleaseIntArrayElements(ids_array, ids, JNI_ABORT);
+		}
+	}
+	RETURN(result, jint);
+}
+
+// 複数のコントロールの値をまとめて設定
+static jint nativeSetControls(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jintArray ids_array, jintArray values_array, jintArray results_array) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && ids_array && values_array)) {
+		const jsize num = env->GetArrayLength(ids_array);
+		if (LIKELY((env->GetArrayLength(values_array) >= num)
+			&& (!results_array || (env->GetArrayLength(results_array) >= num)))) {
+
+			jint *ids = env->GetIntArrayElements(ids_array, NULL);
+			jint *values = env->GetIntArrayElements(values_array, NULL);
+			jint *results = results_array ? env->GetIntArrayElements(results_array, NULL) : NULL;
+			result = camera->setCtrlValues((const uint32_t *)ids, values, results, num);
+			if (results) {
+				env->ReleaseIntArrayElements(results_array, results, 0);
+			}
+			env->ReleaseIntArrayElements(values_array, values, JNI_ABORT);
+			env->ReleaseIntArrayElements(ids_array, ids, JNI_ABORT);
+		}
+	}
+	RETURN(result, jint);
+}
+
+// コントロールの最小・最大・デフォルト値と分解能を取得
+static jint nativeGetControlLimit(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint id, jintArray limit_array) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && limit_array && (env->GetArrayLength(limit_array) >= 4))) {
+		int min, max, def, res = 0;
+		result = camera->getCtrlLimit((uint32_t)id, min, max, def, res);
+		if (LIKELY(!result)) {
+			jint values[4] = { min, max, def, res };
+			env->SetIntArrayRegion(limit_array, 0, 4, values);
+		}
+	}
+	RETURN(result, jint);
+}
+
 //======================================================================
 // Java mnethod correspond to this function should not be a static mathod
 static jint nativeUpdateScanningModeLimit(JNIEnv *env, jobject thiz,
@@ -2002,12 +2276,14 @@ jint registerNativeMethods(JNIEnv* env, const char *class_name, JNINativeMethod
 
 	jclass clazz = env->FindClass(class_name);
 	if (LIKELY(clazz)) {
-		int result = env->RegisterNatives(clazz, methods, num_methods);
+		result = env->RegisterNatives(clazz, methods, num_methods);
 		if (UNLIKELY(result < 0)) {
 			LOGE("registerNativeMethods failed(class=%s)", class_name);
 		}
+		env->DeleteLocalRef(clazz);
 	} else {
 		LOGE("registerNativeMethods: class'%s' not found", class_name);
+		result = JNI_ERR;
 	}
 	return result;
 }
@@ -2016,23 +2292,39 @@ static JNINativeMethod methods[] = {
 	{ "nativeCreate",					"()J", (void *) nativeCreate },
 	{ "nativeDestroy",					"(J)V", (void *) nativeDestroy },
 	//
-	{ "nativeConnect",					"(JIIIIILjava/lang/String;)I", (void *) nativeConnect },
+	{ "nativeConnect",					"(JIIIIILjava/lang/String;Z)I", (void *) nativeConnect },
 	{ "nativeRelease",					"(J)I", (void *) nativeRelease },
 
 	{ "nativeSetStatusCallback",		"(JLcom/serenegiant/usb/IStatusCallback;)I", (void *) nativeSetStatusCallback },
 	{ "nativeSetButtonCallback",		"(JLcom/serenegiant/usb/IButtonCallback;)I", (void *) nativeSetButtonCallback },
 
 	{ "nativeGetSupportedSize",			"(J)Ljava/lang/String;", (void *) nativeGetSupportedSize },
-	{ "nativeSetPreviewSize",			"(JIIIIIF)I", (void *) nativeSetPreviewSize },
+	{ "nativeGetSupportedFormats",		"(J)[I", (void *) nativeGetSupportedFormats },
+	{ "nativeSetPreviewSize",			"(JIIIIIFZ)I", (void *) nativeSetPreviewSize },
 	{ "nativeStartPreview",				"(J)I", (void *) nativeStartPreview },
 	{ "nativeStopPreview",				"(J)I", (void *) nativeStopPreview },
 	{ "nativeSetPreviewDisplay",		"(JLandroid/view/Surface;)I", (void *) nativeSetPreviewDisplay },
 	{ "nativeSetFrameCallback",			"(JLcom/serenegiant/usb/IFrameCallback;I)I", (void *) nativeSetFrameCallback },
+	{ "nativeSetFrameBatchCallback",	"(JLcom/serenegiant/usb/IFrameBatchCallback;[Ljava/nio/ByteBuffer;Ljava/nio/LongBuffer;I)I", (void *) nativeSetFrameBatchCallback },
 
 	{ "nativeSetCaptureDisplay",		"(JLandroid/view/Surface;)I", (void *) nativeSetCaptureDisplay },
 
+	{ "nativeSetFramePoolConfig",		"(JII)I", (void *) nativeSetFramePoolConfig },
+	{ "nativeGetFramePoolStats",		"(J[J)I", (void *) nativeGetFramePoolStats },
+	{ "nativeSetDecodeWorkers",			"(JI)I", (void *) nativeSetDecodeWorkers },
+	{ "nativeSetMaxPayloadSize",		"(JI)I", (void *) nativeSetMaxPayloadSize },
+	{ "nativeGetStreamingAltSettings",	"(J)[I", (void *) nativeGetStreamingAltSettings },
+	{ "nativeSetTransferConfig",		"(JIII)I", (void *) nativeSetTransferConfig },
+	{ "nativeGetTransferStats",			"(J[J)I", (void *) nativeGetTransferStats },
+	{ "nativeSetQueuePolicy",			"(JIIII)I", (void *) nativeSetQueuePolicy },
+	{ "nativeGetQueueStats",			"(JI[J)I", (void *) nativeGetQueueStats },
+	{ "nativeSetPipeline",				"(JLcom/serenegiant/usb/IPipeline;)I", (void *) nativeSetPipeline },
+
 	{ "nativeGetCtrlSupports",			"(J)J", (void *) nativeGetCtrlSupports },
 	{ "nativeGetProcSupports",			"(J)J", (void *) nativeGetProcSupports },
+	{ "nativeGetControls",				"(J[I[I)I", (void *) nativeGetControls },
+	{ "nativeSetControls",				"(J[I[I[I)I", (void *) nativeSetControls },
+	{ "nativeGetControlLimit",			"(JI[I)I", (void *) nativeGetControlLimit },
 
 	{ "nativeUpdateScanningModeLimit",	"(J)I", (void *) nativeUpdateScanningModeLimit },
 	{ "nativeSetScanningMode",			"(JI)I", (void *) nativeSetScanningMode },
@@ -0,0 +1,649 @@
+/*
+ * benchmark and golden output checks of the frame conversion kernels in src/frame.c and src/frame-mjpeg.c
+ *
+ * usage: uvc_frame_bench [--filter=<substring>[,<substring>...]] [--sizes=<W>x<H>[,<W>x<H>...]]
+ *                        [--min-time=<seconds>] [--check-only] [--csv]
+ *
+ * Each kernel is checked against a plain per pixel reference implementation before it is measured.
+ * Kernels on uncompressed input must match the reference bit exactly,
+ * MJPEG kernels must reproduce the source image with PSNR of MJPEG_MIN_PSNR or more.
+ * The exit status is 1 if any check failed, so this can be run as a test.
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <stdint.h>
+#include <string.h>
+#include <math.h>
+#include <time.h>
+
+#include "libuvc/libuvc.h"
+#include "libuvc/libuvc_internal.h"
+#ifdef LIBUVC_HAS_TURBOJPEG
+#include <turbojpeg.h>
+#endif
+
+#define DEFAULT_MIN_TIME 0.5		// seconds to measure each kernel at each size
+#define MAX_ITERATIONS 1000000000ULL
+#define MJPEG_QUALITY 90
+#define MJPEG_MIN_PSNR 30.0
+#define MAX_SIZES 16
+#define MAX_FILTERS 16
+
+typedef uvc_error_t (*convert_func_t)(uvc_frame_t *in, uvc_frame_t *out);
+
+typedef struct kernel {
+	const char *name;
+	enum uvc_frame_format in_format;
+	enum uvc_frame_format out_format;
+	convert_func_t func;
+} kernel_t;
+
+static const kernel_t kernels[] = {
+	{ "yuyv2rgb",				UVC_FRAME_FORMAT_YUYV,	UVC_FRAME_FORMAT_RGB,		uvc_yuyv2rgb },
+	{ "yuyv2bgr",				UVC_FRAME_FORMAT_YUYV,	UVC_FRAME_FORMAT_BGR,		uvc_yuyv2bgr },
+	{ "yuyv2rgb565",			UVC_FRAME_FORMAT_YUYV,	UVC_FRAME_FORMAT_RGB565,	uvc_yuyv2rgb565 },
+	{ "yuyv2rgbx",				UVC_FRAME_FORMAT_YUYV,	UVC_FRAME_FORMAT_RGBX,		uvc_yuyv2rgbx },
+	{ "yuyv2yuv420SP",			UVC_FRAME_FORMAT_YUYV,	UVC_FRAME_FORMAT_YUV420SP,	uvc_yuyv2yuv420SP },
+	{ "yuyv2iyuv420SP",			UVC_FRAME_FORMAT_YUYV,	UVC_FRAME_FORMAT_IYUV420SP,	uvc_yuyv2iyuv420SP },
+	{ "uyvy2rgb",				UVC_FRAME_FORMAT_UYVY,	UVC_FRAME_FORMAT_RGB,		uvc_uyvy2rgb },
+	{ "uyvy2bgr",				UVC_FRAME_FORMAT_UYVY,	UVC_FRAME_FORMAT_BGR,		uvc_uyvy2bgr },
+	{ "uyvy2rgb565",			UVC_FRAME_FORMAT_UYVY,	UVC_FRAME_FORMAT_RGB565,	uvc_uyvy2rgb565 },
+	{ "uyvy2rgbx",				UVC_FRAME_FORMAT_UYVY,	UVC_FRAME_FORMAT_RGBX,		uvc_uyvy2rgbx },
+	{ "rgb2rgbx",				UVC_FRAME_FORMAT_RGB,	UVC_FRAME_FORMAT_RGBX,		uvc_rgb2rgbx },
+	{ "rgb2rgb565",				UVC_FRAME_FORMAT_RGB,	UVC_FRAME_FORMAT_RGB565,	uvc_rgb2rgb565 },
+	{ "any2rgb/yuyv",			UVC_FRAME_FORMAT_YUYV,	UVC_FRAME_FORMAT_RGB,		uvc_any2rgb },
+	{ "any2rgbx/yuyv",			UVC_FRAME_FORMAT_YUYV,	UVC_FRAME_FORMAT_RGBX,		uvc_any2rgbx },
+	{ "any2rgb565/yuyv",		UVC_FRAME_FORMAT_YUYV,	UVC_FRAME_FORMAT_RGB565,	uvc_any2rgb565 },
+	{ "any2iyuv420SP/yuyv",		UVC_FRAME_FORMAT_YUYV,	UVC_FRAME_FORMAT_IYUV420SP,	uvc_any2iyuv420SP },
+	{ "any2rgbx/uyvy",			UVC_FRAME_FORMAT_UYVY,	UVC_FRAME_FORMAT_RGBX,		uvc_any2rgbx },
+#ifdef LIBUVC_HAS_JPEG
+	{ "mjpeg2rgb",				UVC_FRAME_FORMAT_MJPEG,	UVC_FRAME_FORMAT_RGB,		uvc_mjpeg2rgb },
+	{ "mjpeg2bgr",				UVC_FRAME_FORMAT_MJPEG,	UVC_FRAME_FORMAT_BGR,		uvc_mjpeg2bgr },
+	{ "mjpeg2rgb565",			UVC_FRAME_FORMAT_MJPEG,	UVC_FRAME_FORMAT_RGB565,	uvc_mjpeg2rgb565 },
+	{ "mjpeg2rgbx",				UVC_FRAME_FORMAT_MJPEG,	UVC_FRAME_FORMAT_RGBX,		uvc_mjpeg2rgbx },
+	{ "mjpeg2yuyv",				UVC_FRAME_FORMAT_MJPEG,	UVC_FRAME_FORMAT_YUYV,		uvc_mjpeg2yuyv },
+	{ "any2rgbx/mjpeg",			UVC_FRAME_FORMAT_MJPEG,	UVC_FRAME_FORMAT_RGBX,		uvc_any2rgbx },
+	{ "any2yuv420SP/mjpeg",		UVC_FRAME_FORMAT_MJPEG,	UVC_FRAME_FORMAT_YUV420SP,	uvc_any2yuv420SP },
+	{ "any2iyuv420SP/mjpeg",	UVC_FRAME_FORMAT_MJPEG,	UVC_FRAME_FORMAT_IYUV420SP,	uvc_any2iyuv420SP },
+#endif
+#ifdef LIBUVC_HAS_TURBOJPEG
+	{ "mjpeg2rgbx_tj",			UVC_FRAME_FORMAT_MJPEG,	UVC_FRAME_FORMAT_RGBX,		uvc_mjpeg2rgbx_tj },
+	{ "mjpeg2yuv420SP",			UVC_FRAME_FORMAT_MJPEG,	UVC_FRAME_FORMAT_YUV420SP,	uvc_mjpeg2yuv420SP },
+	{ "mjpeg2iyuv420SP",		UVC_FRAME_FORMAT_MJPEG,	UVC_FRAME_FORMAT_IYUV420SP,	uvc_mjpeg2iyuv420SP },
+#endif
+};
+
+typedef struct frame_size {
+	int width;
+	int height;
+} frame_size_t;
+
+static const frame_size_t default_sizes[] = {
+	{ 320, 240 },
+	{ 640, 480 },
+	{ 1280, 720 },
+	{ 1920, 1080 },
+	{ 3840, 2160 },
+};
+
+/** source frames of one size, all of them hold the same image */
+typedef struct sources {
+	uvc_frame_t *yuyv;
+	uvc_frame_t *uyvy;
+	uvc_frame_t *rgb;
+	uvc_frame_t *mjpeg;		// NULL if MJPEG is not available
+} sources_t;
+
+typedef struct check_result {
+	int passed;
+	double psnr;			// only for MJPEG input
+	char message[128];
+} check_result_t;
+
+static double now_sec(void) {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec + ts.tv_nsec / 1e9;
+}
+
+static size_t frame_bytes(const enum uvc_frame_format format, const int width, const int height) {
+	switch (format) {
+	case UVC_FRAME_FORMAT_RGB:
+	case UVC_FRAME_FORMAT_BGR:
+		return (size_t)width * height * 3;
+	case UVC_FRAME_FORMAT_RGBX:
+		return (size_t)width * height * 4;
+	case UVC_FRAME_FORMAT_YUV420SP:
+	case UVC_FRAME_FORMAT_IYUV420SP:
+		return (size_t)width * height * 3 / 2;
+	default:	// YUYV, UYVY, RGB565
+		return (size_t)width * height * 2;
+	}
+}
+
+static inline uint8_t clamp(const int v) {
+	return (uint8_t)(v >= 255 ? 255 : (v < 0 ? 0 : v));
+}
+
+//--------------------------------------------------------------------------------
+// source image
+//--------------------------------------------------------------------------------
+/*
+ * smooth ramps that cover the whole range of each component,
+ * so the conversions saturate at the edges and MJPEG keeps the image well.
+ */
+static inline int pattern_y(const int x, const int y, const int w, const int h) {
+	return x * 255 / (w - 1);
+}
+
+static inline int pattern_u(const int x, const int y, const int w, const int h) {
+	return y * 255 / (h - 1);
+}
+
+static inline int pattern_v(const int x, const int y, const int w, const int h) {
+	return 255 - (x + y) * 255 / (w + h - 2);
+}
+
+static uvc_frame_t *create_source(const enum uvc_frame_format format, const int w, const int h) {
+	uvc_frame_t *frame = uvc_allocate_frame(frame_bytes(format, w, h));
+	if (UNLIKELY(!frame))
+		return NULL;
+	frame->width = w;
+	frame->height = h;
+	frame->frame_format = format;
+	frame->step = format == UVC_FRAME_FORMAT_RGB ? w * 3 : w * 2;
+	uint8_t *p = frame->data;
+	int x, y;
+	for (y = 0; y < h; y++) {
+		for (x = 0; x < w; x += 2) {
+			const int y0 = pattern_y(x, y, w, h);
+			const int y1 = pattern_y(x + 1, y, w, h);
+			const int u = pattern_u(x, y, w, h);
+			const int v = pattern_v(x, y, w, h);
+			switch (format) {
+			case UVC_FRAME_FORMAT_YUYV:
+				*(p++) = y0; *(p++) = u; *(p++) = y1; *(p++) = v;
+				break;
+			case UVC_FRAME_FORMAT_UYVY:
+				*(p++) = u; *(p++) = y0; *(p++) = v; *(p++) = y1;
+				break;
+			default:	// RGB, use the components as they are
+				*(p++) = y0; *(p++) = u; *(p++) = v;
+				*(p++) = y1; *(p++) = u; *(p++) = v;
+				break;
+			}
+		}
+	}
+	return frame;
+}
+
+#ifdef LIBUVC_HAS_TURBOJPEG
+/**
+ * compress the YUYV source as 4:2:2 jpeg like UVC cameras send
+ */
+static uvc_frame_t *create_mjpeg(const uvc_frame_t *yuyv) {
+	const int w = yuyv->width, h = yuyv->height;
+	uvc_frame_t *frame = NULL;
+	uint8_t *planes[3];
+	planes[0] = malloc((size_t)w * h * 2);
+	if (UNLIKELY(!planes[0]))
+		return NULL;
+	planes[1] = planes[0] + w * h;
+	planes[2] = planes[1] + (w / 2) * h;
+	const uint8_t *src = yuyv->data;
+	uint8_t *py = planes[0], *pu = planes[1], *pv = planes[2];
+	size_t i;
+	for (i = 0; i < (size_t)w * h / 2; i++, src += 4) {
+		*(py++) = src[0];
+		*(pu++) = src[1];
+		*(py++) = src[2];
+		*(pv++) = src[3];
+	}
+	tjhandle handle = tjInitCompress();
+	unsigned char *jpeg = NULL;
+	unsigned long jpeg_bytes = 0;
+	if (handle && !tjCompressFromYUVPlanes(handle, (const unsigned char **)planes, w, NULL, h,
+		TJSAMP_422, &jpeg, &jpeg_bytes, MJPEG_QUALITY, 0)) {
+
+		frame = uvc_allocate_frame(jpeg_bytes);
+		if (frame) {
+			memcpy(frame->data, jpeg, jpeg_bytes);
+			frame->actual_bytes = jpeg_bytes;
+			frame->width = w;
+			frame->height = h;
+			frame->frame_format = UVC_FRAME_FORMAT_MJPEG;
+			frame->step = 0;
+		}
+	} else {
+		fprintf(stderr, "failed to create MJPEG source:%s\n", tjGetErrorStr());
+	}
+	if (jpeg)
+		tjFree(jpeg);
+	if (handle)
+		tjDestroy(handle);
+	free(planes[0]);
+	return frame;
+}
+#endif
+
+static void release_sources(sources_t *sources) {
+	if (sources->yuyv)
+		uvc_free_frame(sources->yuyv);
+	if (sources->uyvy)
+		uvc_free_frame(sources->uyvy);
+	if (sources->rgb)
+		uvc_free_frame(sources->rgb);
+	if (sources->mjpeg)
+		uvc_free_frame(sources->mjpeg);
+	memset(sources, 0, sizeof(*sources));
+}
+
+static int create_sources(sources_t *sources, const int w, const int h) {
+	memset(sources, 0, sizeof(*sources));
+	sources->yuyv = create_source(UVC_FRAME_FORMAT_YUYV, w, h);
+	sources->uyvy = create_source(UVC_FRAME_FORMAT_UYVY, w, h);
+	sources->rgb = create_source(UVC_FRAME_FORMAT_RGB, w, h);
+#ifdef LIBUVC_HAS_TURBOJPEG
+	if (sources->yuyv)
+		sources->mjpeg = create_mjpeg(sources->yuyv);
+#endif
+	if (!sources->yuyv || !sources->uyvy || !sources->rgb) {
+		release_sources(sources);
+		return -1;
+	}
+	return 0;
+}
+
+static uvc_frame_t *get_source(const sources_t *sources, const enum uvc_frame_format format) {
+	switch (format) {
+	case UVC_FRAME_FORMAT_YUYV:
+		return sources->yuyv;
+	case UVC_FRAME_FORMAT_UYVY:
+		return sources->uyvy;
+	case UVC_FRAME_FORMAT_RGB:
+		return sources->rgb;
+	case UVC_FRAME_FORMAT_MJPEG:
+		return sources->mjpeg;
+	default:
+		return NULL;
+	}
+}
+
+//--------------------------------------------------------------------------------
+// reference implementation
+//--------------------------------------------------------------------------------
+/** same fixed point BT.601 full range coefficients as src/frame.c */
+static inline void ref_yuv2rgb(const int y, const int u, const int v, uint8_t *rgb) {
+	const int r = (22987 * (v - 128)) >> 14;
+	const int g = (-5636 * (u - 128) - 11698 * (v - 128)) >> 14;
+	const int b = (29049 * (u - 128)) >> 14;
+	rgb[0] = clamp(y + r);
+	rgb[1] = clamp(y + g);
+	rgb[2] = clamp(y + b);
+}
+
+/** little endian RGB565 */
+static inline void ref_rgb565(const uint8_t *rgb, uint8_t *out) {
+	const int v = ((rgb[0] >> 3) << 11) | ((rgb[1] >> 2) << 5) | (rgb[2] >> 3);
+	out[0] = v & 0xff;
+	out[1] = v >> 8;
+}
+
+static void ref_store(const uint8_t *rgb, const enum uvc_frame_format format, uint8_t **out) {
+	uint8_t *p = *out;
+	switch (format) {
+	case UVC_FRAME_FORMAT_RGB:
+		p[0] = rgb[0]; p[1] = rgb[1]; p[2] = rgb[2];
+		*out += 3;
+		break;
+	case UVC_FRAME_FORMAT_BGR:
+		p[0] = rgb[2]; p[1] = rgb[1]; p[2] = rgb[0];
+		*out += 3;
+		break;
+	case UVC_FRAME_FORMAT_RGBX:
+		p[0] = rgb[0]; p[1] = rgb[1]; p[2] = rgb[2]; p[3] = 0xff;
+		*out += 4;
+		break;
+	default:	// RGB565
+		ref_rgb565(rgb, p);
+		*out += 2;
+		break;
+	}
+}
+
+/**
+ * convert the source image into out_format one pixel at a time
+ * RGB input is converted from the RGB source, others are converted from the YUYV source
+ */
+static void make_reference(const sources_t *sources, const enum uvc_frame_format in_format,
+	const enum uvc_frame_format out_format, uint8_t *ref) {
+
+	const uvc_frame_t *src = in_format == UVC_FRAME_FORMAT_RGB ? sources->rgb : sources->yuyv;
+	const int w = src->width, h = src->height;
+	const uint8_t *s = src->data;
+	uint8_t *p = ref;
+	uint8_t rgb[3];
+	int x, y;
+
+	if (in_format == UVC_FRAME_FORMAT_RGB) {
+		for (x = 0; x < w * h; x++, s += 3) {
+			ref_store(s, out_format, &p);
+		}
+		return;
+	}
+	switch (out_format) {
+	case UVC_FRAME_FORMAT_YUYV:
+		memcpy(ref, s, (size_t)w * h * 2);
+		break;
+	case UVC_FRAME_FORMAT_YUV420SP:
+	case UVC_FRAME_FORMAT_IYUV420SP:
+	{
+		// luma plane, then interleaved chroma picked from even lines
+		const int vu = out_format == UVC_FRAME_FORMAT_IYUV420SP;
+		for (x = 0; x < w * h; x++) {
+			*(p++) = s[x * 2];
+		}
+		for (y = 0; y < h; y += 2) {
+			const uint8_t *line = s + (size_t)y * w * 2;
+			for (x = 0; x < w; x += 2) {
+				*(p++) = line[x * 2 + (vu ? 3 : 1)];
+				*(p++) = line[x * 2 + (vu ? 1 : 3)];
+			}
+		}
+		break;
+	}
+	default:
+		for (x = 0; x < w * h; x += 2, s += 4) {
+			ref_yuv2rgb(s[0], s[1], s[3], rgb);
+			ref_store(rgb, out_format, &p);
+			ref_yuv2rgb(s[2], s[1], s[3], rgb);
+			ref_store(rgb, out_format, &p);
+		}
+		break;
+	}
+}
+
+//--------------------------------------------------------------------------------
+// check
+//--------------------------------------------------------------------------------
+static void describe_mismatch(const enum uvc_frame_format format, const int w, const int h,
+	const size_t offset, const uint8_t got, const uint8_t expected, check_result_t *result) {
+
+	const size_t luma = (size_t)w * h;
+	size_t pixel;
+	const char *plane = "";
+	switch (format) {
+	case UVC_FRAME_FORMAT_YUV420SP:
+	case UVC_FRAME_FORMAT_IYUV420SP:
+		if (offset < luma) {
+			pixel = offset;
+			plane = "Y ";
+		} else {
+			// one chroma pair per 2x2 pixels
+			const size_t c = (offset - luma) / 2;
+			pixel = (c / (w / 2)) * 2 * w + (c % (w / 2)) * 2;
+			plane = "UV ";
+		}
+		break;
+	default:
+		pixel = offset / (frame_bytes(format, w, h) / luma);
+		break;
+	}
+	snprintf(result->message, sizeof(result->message), "%smismatch at (%d,%d) byte %zu: got %d, expected %d",
+		plane, (int)(pixel % w), (int)(pixel / w), offset, got, expected);
+}
+
+/** expand RGB565 to RGB888 to compare MJPEG output in the same scale as other formats */
+static void expand_rgb565(const uint8_t *src, uint8_t *dst, const size_t pixels) {
+	size_t i;
+	for (i = 0; i < pixels; i++, src += 2, dst += 3) {
+		const int v = src[0] | (src[1] << 8);
+		dst[0] = ((v >> 11) & 0x1f) << 3;
+		dst[1] = ((v >> 5) & 0x3f) << 2;
+		dst[2] = (v & 0x1f) << 3;
+	}
+}
+
+static double psnr(const uint8_t *a, const uint8_t *b, const size_t bytes) {
+	double sum = 0;
+	size_t i;
+	for (i = 0; i < bytes; i++) {
+		const int d = (int)a[i] - (int)b[i];
+		sum += d * d;
+	}
+	if (sum == 0)
+		return INFINITY;
+	return 10.0 * log10(255.0 * 255.0 * bytes / sum);
+}
+
+static void check_output(const kernel_t *kernel, const sources_t *sources,
+	const uvc_frame_t *out, check_result_t *result) {
+
+	const int w = sources->yuyv->width, h = sources->yuyv->height;
+	const size_t bytes = frame_bytes(kernel->out_format, w, h);
+	memset(result, 0, sizeof(*result));
+	if (UNLIKELY((out->width != w) || (out->height != h) || (out->data_bytes < bytes))) {
+		snprintf(result->message, sizeof(result->message), "unexpected output size %ux%u(%zu bytes)",
+			out->width, out->height, out->data_bytes);
+		return;
+	}
+	uint8_t *ref = malloc(bytes);
+	if (UNLIKELY(!ref)) {
+		snprintf(result->message, sizeof(result->message), "no memory");
+		return;
+	}
+	make_reference(sources, kernel->in_format, kernel->out_format, ref);
+	const uint8_t *data = out->data;
+	if (kernel->in_format != UVC_FRAME_FORMAT_MJPEG) {
+		size_t i;
+		for (i = 0; i < bytes; i++) {
+			if (data[i] != ref[i])
+				break;
+		}
+		if (i < bytes) {
+			describe_mismatch(kernel->out_format, w, h, i, data[i], ref[i], result);
+		} else {
+			result->passed = 1;
+		}
+	} else if (kernel->out_format == UVC_FRAME_FORMAT_RGB565) {
+		uint8_t *a = malloc((size_t)w * h * 3);
+		uint8_t *b = malloc((size_t)w * h * 3);
+		if (a && b) {
+			expand_rgb565(data, a, (size_t)w * h);
+			expand_rgb565(ref, b, (size_t)w * h);
+			result->psnr = psnr(a, b, (size_t)w * h * 3);
+		}
+		free(a);
+		free(b);
+	} else {
+		result->psnr = psnr(data, ref, bytes);
+	}
+	if (kernel->in_format == UVC_FRAME_FORMAT_MJPEG) {
+		result->passed = result->psnr >= MJPEG_MIN_PSNR;
+		if (!result->passed) {
+			snprintf(result->message, sizeof(result->message), "PSNR %.1fdB is lower than %.1fdB",
+				result->psnr, MJPEG_MIN_PSNR);
+		}
+	}
+	free(ref);
+}
+
+//--------------------------------------------------------------------------------
+// benchmark
+//--------------------------------------------------------------------------------
+/**
+ * run the kernel repeatedly until it takes min_time or more
+ * the number of iterations is predicted from the previous run like Google Benchmark does
+ * @return elapsed seconds of the last run
+ */
+static double run_kernel(const kernel_t *kernel, uvc_frame_t *in, uvc_frame_t *out,
+	const double min_time, uint64_t *iterations) {
+
+	uint64_t iters = 1, i;
+	for ( ; ; ) {
+		const double start = now_sec();
+		for (i = 0; i < iters; i++) {
+			kernel->func(in, out);
+		}
+		const double elapsed = now_sec() - start;
+		if ((elapsed >= min_time) || (iters >= MAX_ITERATIONS)) {
+			*iterations = iters;
+			return elapsed;
+		}
+		double multiplier = elapsed > 0 ? min_time * 1.4 / elapsed : 10.0;
+		if (multiplier > 10.0)
+			multiplier = 10.0;
+		const uint64_t next = (uint64_t)(iters * multiplier);
+		iters = next > iters ? next : iters + 1;
+	}
+}
+
+static int match_filters(const char *name, char **filters, const int num_filters) {
+	int i;
+	if (!num_filters)
+		return 1;
+	for (i = 0; i < num_filters; i++) {
+		if (strstr(name, filters[i]))
+			return 1;
+	}
+	return 0;
+}
+
+static void usage(const char *name) {
+	fprintf(stderr, "usage: %s [--filter=<substring>[,<substring>...]] [--sizes=<W>x<H>[,<W>x<H>...]]\n"
+		"       [--min-time=<seconds>] [--check-only] [--csv]\n"
+		"  width should be a multiple of 8 and height should be even\n", name);
+}
+
+int main(int argc, char *argv[]) {
+	frame_size_t sizes[MAX_SIZES];
+	int num_sizes = 0;
+	char *filters[MAX_FILTERS];
+	int num_filters = 0;
+	double min_time = DEFAULT_MIN_TIME;
+	int check_only = 0, csv = 0;
+	int i, j;
+
+	for (i = 1; i < argc; i++) {
+		if (!strncmp(argv[i], "--filter=", 9)) {
+			char *s;
+			for (s = strtok(argv[i] + 9, ","); s && (num_filters < MAX_FILTERS); s = strtok(NULL, ",")) {
+				filters[num_filters++] = s;
+			}
+		} else if (!strncmp(argv[i], "--sizes=", 8)) {
+			char *s;
+			for (s = strtok(argv[i] + 8, ","); s && (num_sizes < MAX_SIZES); s = strtok(NULL, ",")) {
+				int w, h;
+				if ((sscanf(s, "%dx%d", &w, &h) != 2) || (w < 8) || (h < 2) || (w % 8) || (h % 2)) {
+					fprintf(stderr, "invalid size:%s\n", s);
+					usage(argv[0]);
+					return 2;
+				}
+				sizes[num_sizes].width = w;
+				sizes[num_sizes++].height = h;
+			}
+		} else if (!strncmp(argv[i], "--min-time=", 11)) {
+			min_time = atof(argv[i] + 11);
+		} else if (!strcmp(argv[i], "--check-only")) {
+			check_only = 1;
+		} else if (!strcmp(argv[i], "--csv")) {
+			csv = 1;
+		} else {
+			usage(argv[0]);
+			return 2;
+		}
+	}
+	if (!num_sizes) {
+		num_sizes = NUM_ARRAY_ELEMENTS(default_sizes);
+		memcpy(sizes, default_sizes, sizeof(default_sizes));
+	}
+
+#ifdef LIBUVC_HAS_TURBOJPEG
+	const char *mjpeg_support = "libjpeg + TurboJPEG";
+#elif defined(LIBUVC_HAS_JPEG)
+	const char *mjpeg_support = "libjpeg";
+#else
+	const char *mjpeg_support = "disabled";
+#endif
+	if (csv) {
+		printf("name,width,height,iterations,ns_per_frame,ns_per_pixel,gb_per_sec,check,psnr\n");
+	} else {
+		printf("libuvc frame conversion kernels, MJPEG:%s, min time:%.2fs\n", mjpeg_support, min_time);
+		printf("%-22s %11s %11s %13s %9s %8s  %s\n",
+			"Benchmark", "Size", "Iterations", "ns/frame", "ns/pixel", "GB/s", "Check");
+		printf("--------------------------------------------------------------------------------------------\n");
+	}
+
+	int failures = 0;
+	for (i = 0; i < num_sizes; i++) {
+		const int w = sizes[i].width, h = sizes[i].height;
+		sources_t sources;
+		if (create_sources(&sources, w, h)) {
+			fprintf(stderr, "failed to create source frames for %dx%d\n", w, h);
+			return 2;
+		}
+		for (j = 0; j < (int)NUM_ARRAY_ELEMENTS(kernels); j++) {
+			const kernel_t *kernel = &kernels[j];
+			if (!match_filters(kernel->name, filters, num_filters))
+				continue;
+			uvc_frame_t *in = get_source(&sources, kernel->in_format);
+			if (!in)
+				continue;
+			// the output frame is allocated with its final size like the frame pool of UVCPreview
+			uvc_frame_t *out = uvc_allocate_frame(frame_bytes(kernel->out_format, w, h));
+			if (UNLIKELY(!out)) {
+				fprintf(stderr, "no memory\n");
+				release_sources(&sources);
+				return 2;
+			}
+			check_result_t check;
+			const uvc_error_t ret = kernel->func(in, out);
+			if (ret) {
+				memset(&check, 0, sizeof(check));
+				snprintf(check.message, sizeof(check.message), "returned %d", ret);
+			} else {
+				check_output(kernel, &sources, out, &check);
+			}
+			if (!check.passed)
+				failures++;
+
+			char size_str[32];
+			snprintf(size_str, sizeof(size_str), "%dx%d", w, h);
+			char check_str[160];
+			if (!check.passed) {
+				snprintf(check_str, sizeof(check_str), "FAIL %s", check.message);
+			} else if (kernel->in_format == UVC_FRAME_FORMAT_MJPEG) {
+				snprintf(check_str, sizeof(check_str), "OK %.1fdB", check.psnr);
+			} else {
+				snprintf(check_str, sizeof(check_str), "OK");
+			}
+
+			uint64_t iterations = 0;
+			double elapsed = 0;
+			if (!check_only && !ret) {
+				elapsed = run_kernel(kernel, in, out, min_time, &iterations);
+			}
+			const double ns_per_frame = iterations ? elapsed * 1e9 / iterations : 0;
+			const double ns_per_pixel = ns_per_frame / ((double)w * h);
+			// bytes read from the input and written to the output
+			const double bytes = (double)in->actual_bytes + frame_bytes(kernel->out_format, w, h);
+			const double gb_per_sec = elapsed > 0 ? bytes * iterations / elapsed / 1e9 : 0;
+			if (csv) {
+				printf("%s,%d,%d,%llu,%.0f,%.4f,%.3f,%s,%.2f\n", kernel->name, w, h,
+					(unsigned long long)iterations, ns_per_frame, ns_per_pixel, gb_per_sec,
+					check.passed ? "OK" : "FAIL", check.psnr);
+			} else {
+				printf("%-22s %11s %11llu %13.0f %9.3f %8.3f  %s\n", kernel->name, size_str,
+					(unsigned long long)iterations, ns_per_frame, ns_per_pixel, gb_per_sec, check_str);
+			}
+			fflush(stdout);
+			uvc_free_frame(out);
+		}
+		release_sources(&sources);
+	}
+	if (!csv) {
+		printf("%d check(s) failed\n", failures);
+	}
+	return failures ? 1 : 0;
+}
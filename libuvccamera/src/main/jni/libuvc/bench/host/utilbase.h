@@ -0,0 +1,44 @@
+/*
+ * host replacement of jni/utilbase.h for the frame conversion benchmark
+ * This lets src/frame.c and src/frame-mjpeg.c be built without Android NDK and JNI.
+ * Keep LIBUVC_HAS_XXX same as jni/localdefines.h so that the same code paths are measured.
+ */
+
+#ifndef UTILBASE_H_
+#define UTILBASE_H_
+
+#include <stdio.h>
+#include <unistd.h>
+#include <libgen.h>
+#include <assert.h>
+
+#ifndef UVC_BENCH_NO_JPEG
+#define LIBUVC_HAS_JPEG
+#define LIBUVC_HAS_TURBOJPEG	// libjpeg-turbo with TurboJPEG API
+#endif
+
+#define		SAFE_FREE(p)				{ if (p) { free((p)); (p) = NULL; } }
+#define		NUM_ARRAY_ELEMENTS(p)		((int) sizeof(p) / sizeof(p[0]))
+
+#if defined(__GNUC__)
+#define		LIKELY(x)					((__builtin_expect(!!(x), 1)))	// x is likely true
+#define		UNLIKELY(x)					((__builtin_expect(!!(x), 0)))	// x is likely false
+#else
+#define		LIKELY(x)					((x))
+#define		UNLIKELY(x)					((x))
+#endif
+
+#define LOGV(...)
+#define LOGD(...)
+#define LOGI(FMT, ...) fprintf(stderr, "[I/%s:%d]:" FMT "\n", basename(__FILE__), __LINE__, ## __VA_ARGS__)
+#define LOGW(FMT, ...) fprintf(stderr, "[W/%s:%d]:" FMT "\n", basename(__FILE__), __LINE__, ## __VA_ARGS__)
+#define LOGE(FMT, ...) fprintf(stderr, "[E/%s:%d]:" FMT "\n", basename(__FILE__), __LINE__, ## __VA_ARGS__)
+
+#define		MARK(...)
+#define		ENTER()
+#define		RETURN(code,type)			return code
+#define		RET(code)					return code
+#define		EXIT()						return
+#define		PRE_EXIT()
+
+#endif /* UTILBASE_H_ */
@@ -105,6 +105,9 @@ enum uvc_frame_format {
 	UVC_FRAME_FORMAT_MJPEG,
 	UVC_FRAME_FORMAT_GRAY8,
 	UVC_FRAME_FORMAT_BY8,
+	/** semi-planar yuv420, same layout as uvc_yuyv2yuv420SP/uvc_yuyv2iyuv420SP output */
+	UVC_FRAME_FORMAT_YUV420SP,	// XXX
+	UVC_FRAME_FORMAT_IYUV420SP,	// XXX
 	/** Number of formats understood */
 	UVC_FRAME_FORMAT_COUNT,
 };
@@ -470,8 +473,13 @@ typedef struct uvc_frame {
 	size_t step;
 	/** Frame number (may skip, but is strictly monotonically increasing) */
 	uint32_t sequence;
-	/** Estimate of system time when the device started capturing the image */
+	/** Estimate of system time when the device started capturing the image
+	 * XXX this is the time(CLOCK_MONOTONIC) when the host received the whole frame */
 	struct timeval capture_time;
+	/** XXX presentation time stamp(dwPresentationTime) in the payload header, zero if not available */
+	uint32_t pts;
+	/** XXX source time clock(STC part of scrSourceClock) in the payload header, zero if not available */
+	uint32_t scr;
 	/** Handle on the device that produced the image.
 	 * @warning You must not call any uvc_* functions during a callback. */
 	uvc_device_handle_t *source;
@@ -489,6 +497,49 @@ typedef struct uvc_frame {
  */
 typedef void(uvc_frame_callback_t)(struct uvc_frame *frame, void *user_ptr);
 
+/** Stream setup flag: hand the completed frame buffer over to the frame callback
+ * instead of copying it. The callback may take the buffer with uvc_swap_frame
+ * and must leave a (possibly smaller) malloc'ed buffer in its place.
+ * @ingroup streaming
+ */
+#define UVC_STREAM_FLAG_ZERO_COPY 0x02	// XXX added saki
+
+/** Upper limit of the number of transfers that can be in flight for a stream
+ * @ingroup streaming
+ */
+#define UVC_MAX_TRANSFER_BUFS 32
+/** Upper limit of the number of isochronous packets per transfer
+ * @ingroup streaming
+ */
+#define UVC_MAX_PACKETS_PER_TRANSFER 128
+
+/** Transfer setup of a stream, zero means "use the library default"
+ * @ingroup streaming
+ */
+typedef struct uvc_transfer_config {
+	/** number of transfers submitted at once, 1..UVC_MAX_TRANSFER_BUFS */
+	int num_transfers;
+	/** number of isochronous packets per transfer, 1..UVC_MAX_PACKETS_PER_TRANSFER */
+	int packets_per_transfer;
+	/** size of each bulk transfer in bytes, defaults to dwMaxPayloadTransferSize */
+	size_t bulk_transfer_size;
+} uvc_transfer_config_t;
+
+/** Index of the transfer counters returned by uvc_get_transfer_stats
+ * @ingroup streaming
+ */
+enum uvc_transfer_stats {
+	UVC_XFER_STATS_COMPLETED = 0,
+	UVC_XFER_STATS_ERROR,
+	UVC_XFER_STATS_TIMED_OUT,
+	UVC_XFER_STATS_STALL,
+	UVC_XFER_STATS_OVERFLOW,
+	/** isochronous packets that completed with non-zero status */
+	UVC_XFER_STATS_BAD_PACKETS,
+	UVC_XFER_STATS_SUBMIT_FAILED,
+	UVC_XFER_STATS_NUM,
+};
+
 /** Streaming mode, includes all information needed to select stream
  * @ingroup streaming
  */
@@ -587,6 +638,12 @@ uvc_error_t uvc_start_streaming_bandwidth(uvc_device_handle_t *devh,
 		uvc_stream_ctrl_t *ctrl, uvc_frame_callback_t *cb, void *user_ptr,
 		float bandwidth,
 		uint8_t flags);	// XXX added saki
+uvc_error_t uvc_start_streaming_config(uvc_device_handle_t *devh,
+		uvc_stream_ctrl_t *ctrl, uvc_frame_callback_t *cb, void *user_ptr,
+		float bandwidth, uint8_t flags,
+		const uvc_transfer_config_t *config);
+uvc_error_t uvc_get_transfer_stats(uvc_device_handle_t *devh,
+		uint64_t stats[UVC_XFER_STATS_NUM]);
 
 uvc_error_t uvc_start_iso_streaming(uvc_device_handle_t *devh,
 		uvc_stream_ctrl_t *ctrl, uvc_frame_callback_t *cb, void *user_ptr);
@@ -601,6 +658,8 @@ uvc_error_t uvc_stream_start(uvc_stream_handle_t *strmh,
 		uvc_frame_callback_t *cb, void *user_ptr, uint8_t flags);
 uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 		uvc_frame_callback_t *cb, void *user_ptr, float bandwidth, uint8_t flags);	// XXX added saki
+uvc_error_t uvc_stream_set_transfer_config(uvc_stream_handle_t *strmh,
+		const uvc_transfer_config_t *config);
 uvc_error_t uvc_stream_start_iso(uvc_stream_handle_t *strmh,
 		uvc_frame_callback_t *cb, void *user_ptr);
 uvc_error_t uvc_stream_get_frame(uvc_stream_handle_t *strmh,
@@ -786,6 +845,7 @@ uvc_frame_t *uvc_allocate_frame(size_t data_bytes);
 void uvc_free_frame(uvc_frame_t *frame);
 
 uvc_error_t uvc_duplicate_frame(uvc_frame_t *in, uvc_frame_t *out);
+uvc_error_t uvc_swap_frame(uvc_frame_t *in, uvc_frame_t *out);			// XXX
 //----------------------------------------------------------------------
 uvc_error_t uvc_yuyv2rgb(uvc_frame_t *in, uvc_frame_t *out);
 uvc_error_t uvc_uyvy2rgb(uvc_frame_t *in, uvc_frame_t *out);
@@ -802,6 +862,11 @@ uvc_error_t uvc_mjpeg2rgb565(uvc_frame_t *in, uvc_frame_t *out);	// XXX
 uvc_error_t uvc_mjpeg2rgbx(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 uvc_error_t uvc_mjpeg2yuyv(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 #endif
+#ifdef LIBUVC_HAS_TURBOJPEG
+uvc_error_t uvc_mjpeg2rgbx_tj(uvc_frame_t *in, uvc_frame_t *out);	// XXX
+uvc_error_t uvc_mjpeg2yuv420SP(uvc_frame_t *in, uvc_frame_t *out);	// XXX
+uvc_error_t uvc_mjpeg2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out);	// XXX
+#endif
 
 uvc_error_t uvc_yuyv2rgb565(uvc_frame_t *in, uvc_frame_t *out);		// XXX
 uvc_error_t uvc_uyvy2rgb565(uvc_frame_t *in, uvc_frame_t *out);		// XXX
@@ -248,6 +248,7 @@ typedef struct uvc_device_info {
   and then allow the user to change the number of buffers as required.
  */
 #define LIBUVC_NUM_TRANSFER_BUFS 10
+#define LIBUVC_NUM_PACKETS_PER_TRANSFER 32
 
 #define LIBUVC_XFER_BUF_SIZE	( 16 * 1024 * 1024 )
 
@@ -268,8 +269,10 @@ struct uvc_stream_handle {
   uint32_t seq, hold_seq;
   uint32_t pts, hold_pts;
   uint32_t last_scr, hold_last_scr;
+  struct timeval hold_capture_time;	// XXX time when the frame was received
   size_t got_bytes, hold_bytes;
   size_t size_buf;	// XXX add for boundary check
+  uint8_t zero_copy;	// XXX hand over frame buffer to user callback instead of copying
   uint8_t *outbuf, *holdbuf;
   pthread_mutex_t cb_mutex;
   pthread_cond_t cb_cond;
@@ -277,8 +280,11 @@ struct uvc_stream_handle {
   uint32_t last_polled_seq;
   uvc_frame_callback_t *user_cb;
   void *user_ptr;
-  struct libusb_transfer *transfers[LIBUVC_NUM_TRANSFER_BUFS];
-  uint8_t *transfer_bufs[LIBUVC_NUM_TRANSFER_BUFS];
+  struct libusb_transfer *transfers[UVC_MAX_TRANSFER_BUFS];
+  uint8_t *transfer_bufs[UVC_MAX_TRANSFER_BUFS];
+  int num_transfers;	// XXX number of transfers actually in use
+  uvc_transfer_config_t xfer_config;	// XXX requested transfer setup, 0 means default
+  uint64_t xfer_stats[UVC_XFER_STATS_NUM];	// XXX counters of transfer results
   struct uvc_frame frame;
   enum uvc_frame_format frame_format;
 };
@@ -317,6 +323,8 @@ struct uvc_context {
   uint8_t own_usb_ctx;
   /** List of open devices in this context */
   uvc_device_handle_t *open_devices;
+  /** guards open_devices and start/stop of handler_thread, the context can be shared between cameras */
+  pthread_mutex_t open_devices_lock;
   pthread_t handler_thread;
   uint8_t kill_handler_thread;
 };
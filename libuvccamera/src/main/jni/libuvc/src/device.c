@@ -115,14 +115,19 @@ void _uvc_status_callback(struct libusb_transfer *transfer);
  */
 int uvc_already_open(uvc_context_t *ctx, struct libusb_device *usb_dev) {
 	uvc_device_handle_t *devh;
+	int result = 0;
 
+	pthread_mutex_lock(&ctx->open_devices_lock);
 	DL_FOREACH(ctx->open_devices, devh)
 	{
-		if (usb_dev == devh->dev->usb_dev)
-			return 1;
+		if (usb_dev == devh->dev->usb_dev) {
+			result = 1;
+			break;
+		}
 	}
+	pthread_mutex_unlock(&ctx->open_devices_lock);
 
-	return 0;
+	return result;
 }
 
 /** @brief Finds a camera identified by vendor, product and/or serial number
@@ -330,12 +335,16 @@ uvc_error_t uvc_open(uvc_device_t *dev, uvc_device_handle_t **devh) {
 		LOGE("internal_devh->info->ctrl_if.bEndpointAddress is null");
 	}
 
+	/* the context may be shared with the other cameras that are opened/closed concurrently,
+	 * only this bookkeeping is serialized, the device I/O above runs in parallel */
+	pthread_mutex_lock(&dev->ctx->open_devices_lock);
 	if (dev->ctx->own_usb_ctx && dev->ctx->open_devices == NULL) {
 		/* Since this is our first device, we need to spawn the event handler thread */
 		uvc_start_handler_thread(dev->ctx);
 	}
 
 	DL_APPEND(dev->ctx->open_devices, internal_devh);
+	pthread_mutex_unlock(&dev->ctx->open_devices_lock);
 	*devh = internal_devh;
 
 	UVC_EXIT(ret);
@@ -1570,7 +1579,10 @@ void uvc_close(uvc_device_handle_t *devh) {
 	/* If we are managing the libusb context and this is the last open device,
 	 * then we need to cancel the handler thread. When we call libusb_close,
 	 * it'll cause a return from the thread's libusb_handle_events call, after
-	 * which the handler thread will check the flag we set and then exit. */
+	 * which the handler thread will check the flag we set and then exit.
+	 * open_devices_lock is held until the handler thread exits so that uvc_open
+	 * on the shared context can not append a device without starting a new thread. */
+	pthread_mutex_lock(&ctx->open_devices_lock);
 	if (ctx->own_usb_ctx && ctx->open_devices == devh && devh->next == NULL) {
 		ctx->kill_handler_thread = 1;
 		libusb_close(devh->usb_devh);
@@ -1580,6 +1592,7 @@ void uvc_close(uvc_device_handle_t *devh) {
 	}
 
 	DL_DELETE(ctx->open_devices, devh);
+	pthread_mutex_unlock(&ctx->open_devices_lock);
 
 	uvc_unref_device(devh->dev);
 
@@ -1605,10 +1618,12 @@ size_t uvc_num_devices(uvc_context_t *ctx) {
 
 	UVC_ENTER();
 
+	pthread_mutex_lock(&ctx->open_devices_lock);
 	DL_FOREACH(ctx->open_devices, devh)
 	{
 		count++;
 	}
+	pthread_mutex_unlock(&ctx->open_devices_lock);
 
 	UVC_EXIT((int) count);
 	return count;
@@ -168,9 +168,6 @@ uvc_error_t uvc_mjpeg2rgb(uvc_frame_t *in, uvc_frame_t *out) {
 	struct jpeg_decompress_struct dinfo;
 	struct error_mgr jerr;
 	size_t lines_read;
-	// local copy
-	uint8_t *data = out->data;
-	const int out_step = out->step;
 
 	int num_scanlines, i;
 	lines_read = 0;
@@ -189,6 +186,8 @@ uvc_error_t uvc_mjpeg2rgb(uvc_frame_t *in, uvc_frame_t *out) {
 	out->step = in->width * 3;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
 	out->source = in->source;
 
 	dinfo.err = jpeg_std_error(&jerr.super);
@@ -212,6 +211,10 @@ uvc_error_t uvc_mjpeg2rgb(uvc_frame_t *in, uvc_frame_t *out) {
 
 	jpeg_start_decompress(&dinfo);
 
+	// local copy
+	uint8_t *data = out->data;
+	const int out_step = out->step;
+
 	if (LIKELY(dinfo.output_height == out->height)) {
 		for (; dinfo.output_scanline < dinfo.output_height ;) {
 			buffer[0] = data + (lines_read) * out_step;
@@ -259,6 +262,8 @@ uvc_error_t uvc_mjpeg2bgr(uvc_frame_t *in, uvc_frame_t *out) {
 	out->step = in->width * 3;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
 	out->source = in->source;
 
 	dinfo.err = jpeg_std_error(&jerr.super);
@@ -333,6 +338,8 @@ uvc_error_t uvc_mjpeg2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 	out->step = in->width * 2;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
 	out->source = in->source;
 
 	dinfo.err = jpeg_std_error(&jerr.super);
@@ -389,9 +396,6 @@ uvc_error_t uvc_mjpeg2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 	struct jpeg_decompress_struct dinfo;
 	struct error_mgr jerr;
 	size_t lines_read;
-	// local copy
-	uint8_t *data = out->data;
-	const int out_step = out->step;
 
 	int num_scanlines, i;
 	lines_read = 0;
@@ -410,6 +414,8 @@ uvc_error_t uvc_mjpeg2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 	out->step = in->width * 4;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
 	out->source = in->source;
 
 	dinfo.err = jpeg_std_error(&jerr.super);
@@ -433,6 +439,10 @@ uvc_error_t uvc_mjpeg2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 
 	jpeg_start_decompress(&dinfo);
 
+	// local copy
+	uint8_t *data = out->data;
+	const int out_step = out->step;
+
 	if (LIKELY(dinfo.output_height == out->height)) {
 		for (; dinfo.output_scanline < dinfo.output_height ;) {
 			buffer[0] = data + (lines_read) * out_step;
@@ -484,6 +494,8 @@ uvc_error_t uvc_mjpeg2yuyv(uvc_frame_t *in, uvc_frame_t *out) {
 	out->step = in->width * 2;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
 	out->source = in->source;
 
 	struct jpeg_decompress_struct dinfo;
@@ -550,3 +562,227 @@ fail:
 	return lines_read == out->height ? UVC_SUCCESS : UVC_ERROR_OTHER+1;
 }
 
+
+#ifdef LIBUVC_HAS_TURBOJPEG
+//**********************************************************************
+// decode directly to the pixel format that consumers need with TurboJPEG API
+// these are faster than the above libjpeg based functions because TurboJPEG
+// does not need intermediate YCbCr/YUYV buffers and always uses SIMD.
+//**********************************************************************
+#include <pthread.h>
+#include <turbojpeg.h>
+
+// some cameras always generate frames that libjpeg warns about (e.g. extraneous bytes),
+// TurboJPEG treats them as errors, so we stop using TurboJPEG if it fails continuously.
+#define TJ_MAX_CONTINUOUS_ERRORS 8
+
+/** @internal TurboJPEG decompressor and working buffer, one per thread */
+typedef struct tj_context {
+	tjhandle handle;
+	uint8_t *work;
+	size_t work_bytes;
+	int errors;
+} tj_context_t;
+
+static pthread_key_t tj_context_key;
+static pthread_once_t tj_context_once = PTHREAD_ONCE_INIT;
+
+static void _tj_free_context(void *ptr) {
+	tj_context_t *ctx = (tj_context_t *)ptr;
+	if (ctx) {
+		if (ctx->handle)
+			tjDestroy(ctx->handle);
+		free(ctx->work);
+		free(ctx);
+	}
+}
+
+static void _tj_create_key(void) {
+	pthread_key_create(&tj_context_key, _tj_free_context);
+}
+
+/** @internal
+ * get TurboJPEG context for current thread
+ * @return NULL if TurboJPEG can not be used on this thread
+ */
+static tj_context_t *_tj_get_context(void) {
+	pthread_once(&tj_context_once, _tj_create_key);
+	tj_context_t *ctx = (tj_context_t *)pthread_getspecific(tj_context_key);
+	if (UNLIKELY(!ctx)) {
+		ctx = (tj_context_t *)calloc(1, sizeof(tj_context_t));
+		if (UNLIKELY(!ctx))
+			return NULL;
+		ctx->handle = tjInitDecompress();
+		if (UNLIKELY(!ctx->handle)) {
+			free(ctx);
+			return NULL;
+		}
+		pthread_setspecific(tj_context_key, ctx);
+	}
+	return ctx->errors < TJ_MAX_CONTINUOUS_ERRORS ? ctx : NULL;
+}
+
+/** @internal check the result of TurboJPEG and count continuous errors */
+static inline int _tj_check(tj_context_t *ctx, int result) {
+	if (UNLIKELY(result)) {
+		if (++ctx->errors >= TJ_MAX_CONTINUOUS_ERRORS) {
+			LOGW("disable TurboJPEG on this thread:%s", tjGetErrorStr());
+		}
+	} else {
+		ctx->errors = 0;
+	}
+	return result;
+}
+
+/** @brief Convert an MJPEG frame to RGBX with TurboJPEG
+ * @ingroup frame
+ *
+ * This falls back to uvc_mjpeg2rgbx if TurboJPEG failed.
+ *
+ * @param in MJPEG frame
+ * @param out RGBX frame
+ */
+uvc_error_t uvc_mjpeg2rgbx_tj(uvc_frame_t *in, uvc_frame_t *out) {
+
+	out->actual_bytes = 0;	// XXX
+	if (UNLIKELY(in->frame_format != UVC_FRAME_FORMAT_MJPEG))
+		return UVC_ERROR_INVALID_PARAM;
+
+	tj_context_t *ctx = _tj_get_context();
+	if (UNLIKELY(!ctx))
+		return uvc_mjpeg2rgbx(in, out);
+
+	if (uvc_ensure_frame_size(out, in->width * in->height * 4) < 0)
+		return UVC_ERROR_NO_MEM;
+
+	out->width = in->width;
+	out->height = in->height;
+	out->frame_format = UVC_FRAME_FORMAT_RGBX;	// XXX
+	out->step = in->width * 4;
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
+	out->source = in->source;
+
+	int width, height, subsamp, colorspace;
+	if (UNLIKELY(tjDecompressHeader3(ctx->handle, in->data, in->actual_bytes,
+		&width, &height, &subsamp, &colorspace)
+		|| (width != in->width) || (height != in->height))) {
+
+		return UVC_ERROR_OTHER;
+	}
+	if (UNLIKELY(_tj_check(ctx, tjDecompress2(ctx->handle, in->data, in->actual_bytes,
+		out->data, width, out->step, height, TJPF_RGBX, TJFLAG_FASTDCT)))) {
+
+		return uvc_mjpeg2rgbx(in, out);
+	}
+	out->actual_bytes = in->width * in->height * 4;	// XXX
+
+	return UVC_SUCCESS;
+}
+
+/** @internal
+ * decode MJPEG frame into planar YUV with TurboJPEG and interleave its chroma planes
+ * chroma samples are picked from even lines like uvc_yuyv2yuv420SP
+ * @param vu_order 0: UVUV..., 1: VUVU...(NV21)
+ */
+static uvc_error_t _uvc_mjpeg2semi_planar(uvc_frame_t *in, uvc_frame_t *out, const int vu_order) {
+
+	out->actual_bytes = 0;	// XXX
+	if (UNLIKELY(in->frame_format != UVC_FRAME_FORMAT_MJPEG))
+		return UVC_ERROR_INVALID_PARAM;
+
+	tj_context_t *ctx = _tj_get_context();
+	if (UNLIKELY(!ctx))
+		return UVC_ERROR_NOT_SUPPORTED;
+
+	int width, height, subsamp, colorspace;
+	if (UNLIKELY(tjDecompressHeader3(ctx->handle, in->data, in->actual_bytes,
+		&width, &height, &subsamp, &colorspace)
+		|| (width != in->width) || (height != in->height)
+		|| (width & 1) || (height & 1))) {
+
+		return UVC_ERROR_OTHER;
+	}
+	const int cw = tjPlaneWidth(1, width, subsamp);
+	const int ch = tjPlaneHeight(1, height, subsamp);
+	// only 4:4:4, 4:2:2, 4:4:0 and 4:2:0 can be converted by picking chroma samples
+	if (UNLIKELY((cw <= 0) || (ch <= 0) || (cw * 2 < width) || (ch * 2 < height)))
+		return UVC_ERROR_NOT_SUPPORTED;
+
+	if (UNLIKELY(uvc_ensure_frame_size(out, (width * height * 3) / 2) < 0))
+		return UVC_ERROR_NO_MEM;
+
+	const size_t work_bytes = cw * ch * 2;
+	if (UNLIKELY(ctx->work_bytes < work_bytes)) {
+		free(ctx->work);
+		ctx->work = (uint8_t *)malloc(work_bytes);
+		ctx->work_bytes = ctx->work ? work_bytes : 0;
+		if (UNLIKELY(!ctx->work))
+			return UVC_ERROR_NO_MEM;
+	}
+
+	out->width = out->step = width;
+	out->height = height;
+	out->frame_format = vu_order ? UVC_FRAME_FORMAT_IYUV420SP : UVC_FRAME_FORMAT_YUV420SP;	// XXX
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
+	out->source = in->source;
+
+	// luma is decoded directly into the output frame
+	unsigned char *planes[3] = { out->data, ctx->work, ctx->work + cw * ch };
+	int strides[3] = { width, cw, cw };
+	if (UNLIKELY(_tj_check(ctx, tjDecompressToYUVPlanes(ctx->handle, in->data, in->actual_bytes,
+		planes, width, strides, height, TJFLAG_FASTDCT)))) {
+
+		return UVC_ERROR_OTHER;
+	}
+
+	const int xstep = cw < width ? 1 : 2;
+	const int ystep = ch < height ? 1 : 2;
+	const uint8_t *first = vu_order ? planes[2] : planes[1];
+	const uint8_t *second = vu_order ? planes[1] : planes[2];
+	uint8_t *uv = out->data + width * height;
+	const int hh = height / 2;
+	const int ww = width / 2;
+	int h, w;
+	for (h = 0; h < hh; h++) {
+		const uint8_t *c0 = first + h * ystep * cw;
+		const uint8_t *c1 = second + h * ystep * cw;
+		for (w = 0; w < ww; w++) {
+			*(uv++) = c0[w * xstep];
+			*(uv++) = c1[w * xstep];
+		}
+	}
+	out->actual_bytes = (width * height * 3) / 2;	// XXX
+
+	return UVC_SUCCESS;
+}
+
+/** @brief Convert an MJPEG frame to yuv420sp with TurboJPEG
+ * @ingroup frame
+ *
+ * The layout is same as uvc_yuyv2yuv420SP.
+ *
+ * @param in MJPEG frame
+ * @param out yuv420sp frame
+ */
+uvc_error_t uvc_mjpeg2yuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
+	return _uvc_mjpeg2semi_planar(in, out, 0);
+}
+
+/** @brief Convert an MJPEG frame to iyuv420sp(NV21) with TurboJPEG
+ * @ingroup frame
+ *
+ * The layout is same as uvc_yuyv2iyuv420SP.
+ *
+ * @param in MJPEG frame
+ * @param out iyuv420sp(NV21) frame
+ */
+uvc_error_t uvc_mjpeg2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
+	return _uvc_mjpeg2semi_planar(in, out, 1);
+}
+#endif // LIBUVC_HAS_TURBOJPEG
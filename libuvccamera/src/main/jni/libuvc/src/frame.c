@@ -135,6 +135,8 @@ uvc_error_t uvc_duplicate_frame(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->step;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
 	out->source = in->source;
 	out->actual_bytes = in->actual_bytes;	// XXX
 
@@ -167,6 +169,41 @@ uvc_error_t uvc_duplicate_frame(uvc_frame_t *in, uvc_frame_t *out) {
 	return UVC_SUCCESS;
 }
 
+/** @brief Move the image data of a frame into another frame without copying
+ * @ingroup frame
+ *
+ * The data buffers of both frames are exchanged, so @p in receives the buffer
+ * that @p out held before. Both frames must own their buffers.
+ *
+ * @param in Original frame, receives the previous buffer of @p out
+ * @param out Frame which takes over the image data of @p in
+ */
+uvc_error_t uvc_swap_frame(uvc_frame_t *in, uvc_frame_t *out) {
+	if (UNLIKELY(!in->library_owns_data || !out->library_owns_data))
+		return uvc_duplicate_frame(in, out);
+
+	void *data = out->data;
+	const size_t data_bytes = out->data_bytes;
+	out->data = in->data;
+	out->data_bytes = in->data_bytes;
+	in->data = data;
+	in->data_bytes = data ? data_bytes : 0;
+
+	out->width = in->width;
+	out->height = in->height;
+	out->frame_format = in->frame_format;
+	out->step = in->step;
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
+	out->source = in->source;
+	out->actual_bytes = in->actual_bytes;
+	in->actual_bytes = 0;
+
+	return UVC_SUCCESS;
+}
+
 #define PIXEL_RGB565		2
 #define PIXEL_UYVY			2
 #define PIXEL_YUYV			2
@@ -241,6 +278,8 @@ uvc_error_t uvc_rgb2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_RGBX;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
 	out->source = in->source;
 
 	uint8_t *prgb = in->data;
@@ -323,6 +362,8 @@ uvc_error_t uvc_rgb2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_RGB565;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
 	out->source = in->source;
 
 	uint8_t *prgb = in->data;
@@ -426,6 +467,8 @@ uvc_error_t uvc_yuyv2rgb(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_RGB;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
 	out->source = in->source;
 
 	uint8_t *pyuv = in->data;
@@ -490,6 +533,8 @@ uvc_error_t uvc_yuyv2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_RGB565;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
 	out->source = in->source;
 
 	uint8_t *pyuv = in->data;
@@ -586,6 +631,8 @@ uvc_error_t uvc_yuyv2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_RGBX;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
 	out->source = in->source;
 
 	uint8_t *pyuv = in->data;
@@ -632,11 +679,11 @@ uvc_error_t uvc_yuyv2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 }
 
 #define IYUYV2BGR_2(pyuv, pbgr, ax, bx) { \
-		const int d1 = (pyuv)[1]; \
-		const int d3 = (pyuv)[3]; \
-	    const int r = (22987 * (d3/*(pyuv)[3]*/ - 128)) >> 14; \
-	    const int g = (-5636 * (d1/*(pyuv)[1]*/ - 128) - 11698 * (d3/*(pyuv)[3]*/ - 128)) >> 14; \
-	    const int b = (29049 * (d1/*(pyuv)[1]*/ - 128)) >> 14; \
+		const int d1 = (pyuv)[ax+1]; \
+		const int d3 = (pyuv)[ax+3]; \
+	    const int r = (22987 * (d3/*(pyuv)[ax+3]*/ - 128)) >> 14; \
+	    const int g = (-5636 * (d1/*(pyuv)[ax+1]*/ - 128) - 11698 * (d3/*(pyuv)[ax+3]*/ - 128)) >> 14; \
+	    const int b = (29049 * (d1/*(pyuv)[ax+1]*/ - 128)) >> 14; \
 		const int y0 = (pyuv)[ax+0]; \
 		(pbgr)[bx+0] = sat(y0 + b); \
 		(pbgr)[bx+1] = sat(y0 + g); \
@@ -676,6 +723,8 @@ uvc_error_t uvc_yuyv2bgr(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_BGR;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
 	out->source = in->source;
 
 	uint8_t *pyuv = in->data;
@@ -765,6 +814,8 @@ uvc_error_t uvc_uyvy2rgb(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_RGB;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
 	out->source = in->source;
 
 	uint8_t *pyuv = in->data;
@@ -829,6 +880,8 @@ uvc_error_t uvc_uyvy2rgb565(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_RGB565;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
 	out->source = in->source;
 
 	uint8_t *pyuv = in->data;
@@ -925,6 +978,8 @@ uvc_error_t uvc_uyvy2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_RGBX;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
 	out->source = in->source;
 
 	uint8_t *pyuv = in->data;
@@ -1014,6 +1069,8 @@ uvc_error_t uvc_uyvy2bgr(uvc_frame_t *in, uvc_frame_t *out) {
 		out->step = in->width * PIXEL_BGR;
 	out->sequence = in->sequence;
 	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
 	out->source = in->source;
 
 	uint8_t *pyuv = in->data;
@@ -1163,6 +1220,11 @@ uvc_error_t uvc_yuyv2yuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
 	const int32_t src_height = in->height;
 	const int32_t dest_width = out->width = out->step = in->width;
 	const int32_t dest_height = out->height = in->height;
+	out->frame_format = UVC_FRAME_FORMAT_YUV420SP;	// XXX
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
 
 	const uint32_t hh = src_height < dest_height ? src_height : dest_height;
 	uint8_t *uv = dest + dest_width * dest_height;
@@ -1208,6 +1270,11 @@ uvc_error_t uvc_yuyv2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
 	const int32_t src_height = in->height;
 	const int32_t dest_width = out->width = out->step = in->width;
 	const int32_t dest_height = out->height = in->height;
+	out->frame_format = UVC_FRAME_FORMAT_IYUV420SP;	// XXX
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	out->pts = in->pts;
+	out->scr = in->scr;
 
 	const uint32_t hh = src_height < dest_height ? src_height : dest_height;
 	uint8_t *uv = dest + dest_width * dest_height;
@@ -1321,7 +1388,11 @@ uvc_error_t uvc_any2rgbx(uvc_frame_t *in, uvc_frame_t *out) {
 	switch (in->frame_format) {
 #ifdef LIBUVC_HAS_JPEG
 	case UVC_FRAME_FORMAT_MJPEG:
+#ifdef LIBUVC_HAS_TURBOJPEG
+		return uvc_mjpeg2rgbx_tj(in, out);
+#else
 		return uvc_mjpeg2rgbx(in, out);
+#endif
 #endif
 	case UVC_FRAME_FORMAT_YUYV:
 		return uvc_yuyv2rgbx(in, out);
@@ -1364,6 +1435,19 @@ uvc_error_t uvc_any2yuyv(uvc_frame_t *in, uvc_frame_t *out) {
  */
 uvc_error_t uvc_any2yuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
 	uvc_error_t result = UVC_ERROR_NO_MEM;
+	switch (in->frame_format) {
+	case UVC_FRAME_FORMAT_YUYV:
+		return uvc_yuyv2yuv420SP(in, out);
+#ifdef LIBUVC_HAS_TURBOJPEG
+	case UVC_FRAME_FORMAT_MJPEG:
+		// decode directly, fall back to decoding via yuyv if failed
+		if (!uvc_mjpeg2yuv420SP(in, out))
+			return UVC_SUCCESS;
+		break;
+#endif
+	default:
+		break;
+	}
 	uvc_frame_t *yuv = uvc_allocate_frame((in->width * in->height * 3) / 2);
 	if (yuv) {
 		result = uvc_any2yuyv(in, yuv);
@@ -1383,6 +1467,19 @@ uvc_error_t uvc_any2yuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
  */
 uvc_error_t uvc_any2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
 	uvc_error_t result = UVC_ERROR_NO_MEM;
+	switch (in->frame_format) {
+	case UVC_FRAME_FORMAT_YUYV:
+		return uvc_yuyv2iyuv420SP(in, out);
+#ifdef LIBUVC_HAS_TURBOJPEG
+	case UVC_FRAME_FORMAT_MJPEG:
+		// decode directly, fall back to decoding via yuyv if failed
+		if (!uvc_mjpeg2iyuv420SP(in, out))
+			return UVC_SUCCESS;
+		break;
+#endif
+	default:
+		break;
+	}
 	uvc_frame_t *yuv = uvc_allocate_frame((in->width * in->height * 3) / 2);
 	if (yuv) {
 		result = uvc_any2yuyv(in, yuv);
@@ -141,8 +141,10 @@ uvc_error_t uvc_init2(uvc_context_t **pctx, struct libusb_context *usb_ctx, cons
 		ctx->usb_ctx = usb_ctx;
 	}
 
-	if (ctx != NULL)
+	if (ctx != NULL) {
+		pthread_mutex_init(&ctx->open_devices_lock, NULL);
 		*pctx = ctx;
+	}
 
 	return ret;
 }
@@ -195,6 +197,7 @@ void uvc_exit(uvc_context_t *ctx) {
 	if (ctx->own_usb_ctx)
 		libusb_exit(ctx->usb_ctx);
 
+	pthread_mutex_destroy(&ctx->open_devices_lock);
 	free(ctx);
 }
 
@@ -208,6 +211,9 @@ void uvc_exit(uvc_context_t *ctx) {
  */
 void uvc_start_handler_thread(uvc_context_t *ctx) {
 	if (ctx->own_usb_ctx) {
+		// the flag is left set after the last device of this context was closed,
+		// clear it so that the context can be reused(e.g. shared between cameras)
+		ctx->kill_handler_thread = 0;
 		pthread_create(&ctx->handler_thread, NULL, _uvc_handle_events, (void*) ctx);
 	}
 }
@@ -67,7 +67,7 @@ uvc_frame_desc_t *uvc_find_frame_desc_stream(uvc_stream_handle_t *strmh,
 uvc_frame_desc_t *uvc_find_frame_desc(uvc_device_handle_t *devh,
 		uint16_t format_id, uint16_t frame_id);
 static void *_uvc_user_caller(void *arg);
-static void _uvc_populate_frame(uvc_stream_handle_t *strmh);
+static uvc_error_t _uvc_populate_frame(uvc_stream_handle_t *strmh);
 
 struct format_table_entry {
 	enum uvc_frame_format format;
@@ -601,6 +601,9 @@ uvc_error_t uvc_probe_stream_ctrl(uvc_device_handle_t *devh,
  */
 static void _uvc_swap_buffers(uvc_stream_handle_t *strmh) {
 	uint8_t *tmp_buf;
+	struct timespec ts;
+
+	clock_gettime(CLOCK_MONOTONIC, &ts);
 
 	pthread_mutex_lock(&strmh->cb_mutex);
 	{
@@ -613,6 +616,8 @@ static void _uvc_swap_buffers(uvc_stream_handle_t *strmh) {
 		strmh->hold_last_scr = strmh->last_scr;
 		strmh->hold_pts = strmh->pts;
 		strmh->hold_seq = strmh->seq;
+		strmh->hold_capture_time.tv_sec = ts.tv_sec;	// XXX
+		strmh->hold_capture_time.tv_usec = ts.tv_nsec / 1000;
 
 		pthread_cond_broadcast(&strmh->cb_cond);
 	}
@@ -636,7 +641,7 @@ static void _uvc_delete_transfer(struct libusb_transfer *transfer) {
 	pthread_mutex_lock(&strmh->cb_mutex);	// XXX crash while calling uvc_stop_streaming
 	{
 		// Mark transfer as deleted.
-		for (i = 0; i < LIBUVC_NUM_TRANSFER_BUFS; i++) {
+		for (i = 0; i < UVC_MAX_TRANSFER_BUFS; i++) {
 			if (strmh->transfers[i] == transfer) {
 				libusb_cancel_transfer(strmh->transfers[i]);	// XXX 20141112追加
 				UVC_DEBUG("Freeing transfer %d (%p)", i, transfer);
@@ -646,7 +651,7 @@ static void _uvc_delete_transfer(struct libusb_transfer *transfer) {
 				break;
 			}
 		}
-		if (UNLIKELY(i == LIBUVC_NUM_TRANSFER_BUFS)) {
+		if (UNLIKELY(i == UVC_MAX_TRANSFER_BUFS)) {
 			UVC_DEBUG("transfer %p not found; not freeing!", transfer);
 		}
 
@@ -766,7 +771,7 @@ static void _uvc_process_payload(uvc_stream_handle_t *strmh, const uint8_t *payl
 	}
 
 	if (LIKELY(data_len > 0)) {
-		if (LIKELY(strmh->got_bytes + data_len < strmh->size_buf)) {
+		if (LIKELY(strmh->got_bytes + data_len <= strmh->size_buf)) {
 			memcpy(strmh->outbuf + strmh->got_bytes, payload + header_len, data_len);
 			strmh->got_bytes += data_len;
 		} else {
@@ -825,6 +830,7 @@ static inline void _uvc_process_payload_iso(uvc_stream_handle_t *strmh, struct l
 
 		if (UNLIKELY(pkt->status != 0)) {
 			MARK("bad packet:status=%d,actual_length=%d", pkt->status, pkt->actual_length);
+			strmh->xfer_stats[UVC_XFER_STATS_BAD_PACKETS]++;
 			strmh->bfh_err |= UVC_STREAM_ERR;
 			libusb_clear_halt(strmh->devh->usb_devh, strmh->stream_if->bEndpointAddress);
 //			uvc_vc_get_error_code(strmh->devh, &vc_error_code, UVC_GET_CUR);
@@ -929,11 +935,15 @@ static inline void _uvc_process_payload_iso(uvc_stream_handle_t *strmh, struct l
 			// from "if (pkt->actual_length - header_len > 0)"
 			if (LIKELY(pkt->actual_length > header_len)) {
 				const size_t odd_bytes = pkt->actual_length - header_len;
-				assert(strmh->got_bytes + odd_bytes < strmh->size_buf);
 				assert(strmh->outbuf);
 				assert(pktbuf);
-				memcpy(strmh->outbuf + strmh->got_bytes, pktbuf + header_len, odd_bytes);
-				strmh->got_bytes += odd_bytes;
+				// XXX buffers can be much smaller than LIBUVC_XFER_BUF_SIZE in zero copy mode
+				if (LIKELY(strmh->got_bytes + odd_bytes <= strmh->size_buf)) {
+					memcpy(strmh->outbuf + strmh->got_bytes, pktbuf + header_len, odd_bytes);
+					strmh->got_bytes += odd_bytes;
+				} else {
+					strmh->bfh_err |= UVC_STREAM_ERR;
+				}
 			}
 #ifdef USE_EOF
 			if ((pktbuf[1] & UVC_STREAM_EOF) && strmh->got_bytes != 0) {
@@ -973,6 +983,7 @@ static void _uvc_stream_callback(struct libusb_transfer *transfer) {
 #endif
 	switch (transfer->status) {
 	case LIBUSB_TRANSFER_COMPLETED:
+		strmh->xfer_stats[UVC_XFER_STATS_COMPLETED]++;
 		if (!transfer->num_iso_packets) {
 			/* This is a bulk mode transfer, so it just has one payload transfer */
 			_uvc_process_payload(strmh, transfer->buffer, transfer->actual_length);
@@ -986,21 +997,34 @@ static void _uvc_stream_callback(struct libusb_transfer *transfer) {
 		// pass through to following lines
 	case LIBUSB_TRANSFER_CANCELLED:
 	case LIBUSB_TRANSFER_ERROR:
+		if (transfer->status == LIBUSB_TRANSFER_ERROR)
+			strmh->xfer_stats[UVC_XFER_STATS_ERROR]++;
 		UVC_DEBUG("not retrying transfer, status = %d", transfer->status);
 //		MARK("not retrying transfer, status = %d", transfer->status);
 //		_uvc_delete_transfer(transfer);
 		resubmit = 0;
 		break;
 	case LIBUSB_TRANSFER_TIMED_OUT:
+		strmh->xfer_stats[UVC_XFER_STATS_TIMED_OUT]++;
+		UVC_DEBUG("retrying transfer, status = %d", transfer->status);
+		break;
 	case LIBUSB_TRANSFER_STALL:
+		strmh->xfer_stats[UVC_XFER_STATS_STALL]++;
+		UVC_DEBUG("retrying transfer, status = %d", transfer->status);
+		break;
 	case LIBUSB_TRANSFER_OVERFLOW:
+		strmh->xfer_stats[UVC_XFER_STATS_OVERFLOW]++;
 		UVC_DEBUG("retrying transfer, status = %d", transfer->status);
 //		MARK("retrying transfer, status = %d", transfer->status);
 		break;
 	}
 
 	if (LIKELY(strmh->running && resubmit)) {
-		libusb_submit_transfer(transfer);
+		if (UNLIKELY(libusb_submit_transfer(transfer))) {
+			// XXX the transfer can not be reused, release it so that uvc_stream_stop does not wait for it
+			strmh->xfer_stats[UVC_XFER_STATS_SUBMIT_FAILED]++;
+			_uvc_delete_transfer(transfer);
+		}
 	} else {
 		// XXX delete non-reusing transfer
 		// real implementation of deleting transfer moves to _uvc_delete_transfer
@@ -1151,11 +1175,15 @@ static void _uvc_iso_callback(struct libusb_transfer *transfer) {
 				// from "if (pkt->actual_length - header_len > 0)"
 				if (LIKELY(pkt->actual_length > header_len)) {
 					const size_t odd_bytes = pkt->actual_length - header_len;
-					assert(strmh->got_bytes + odd_bytes < strmh->size_buf);
 					assert(strmh->outbuf);
 					assert(pktbuf);
-					memcpy(strmh->outbuf + strmh->got_bytes, pktbuf + header_len, odd_bytes);
-					strmh->got_bytes += odd_bytes;
+					// XXX buffers can be much smaller than LIBUVC_XFER_BUF_SIZE in zero copy mode
+					if (LIKELY(strmh->got_bytes + odd_bytes <= strmh->size_buf)) {
+						memcpy(strmh->outbuf + strmh->got_bytes, pktbuf + header_len, odd_bytes);
+						strmh->got_bytes += odd_bytes;
+					} else {
+						strmh->bfh_err |= UVC_STREAM_ERR;
+					}
 				}
 #ifdef USE_EOF
 				if ((pktbuf[1] & STREAM_HEADER_BFH_EOF) && strmh->got_bytes != 0) {
@@ -1203,7 +1231,7 @@ static void _uvc_iso_callback(struct libusb_transfer *transfer) {
  * @param ctrl Control block, processed using {uvc_probe_stream_ctrl} or
  *             {uvc_get_stream_ctrl_format_size}
  * @param cb   User callback function. See {uvc_frame_callback_t} for restrictions.
- * @param flags Stream setup flags, currently undefined. Set this to zero. The lower bit
+ * @param flags Stream setup flags, UVC_STREAM_FLAG_ZERO_COPY or zero. The lower bit
  * is reserved for backward compatibility.
  */
 uvc_error_t uvc_start_streaming(uvc_device_handle_t *devh,
@@ -1220,13 +1248,33 @@ uvc_error_t uvc_start_streaming(uvc_device_handle_t *devh,
  *             {uvc_get_stream_ctrl_format_size}
  * @param cb   User callback function. See {uvc_frame_callback_t} for restrictions.
  * @param bandwidth_factor [0.0f, 1.0f]
- * @param flags Stream setup flags, currently undefined. Set this to zero. The lower bit
+ * @param flags Stream setup flags, UVC_STREAM_FLAG_ZERO_COPY or zero. The lower bit
  * is reserved for backward compatibility.
  */
 uvc_error_t uvc_start_streaming_bandwidth(uvc_device_handle_t *devh,
 		uvc_stream_ctrl_t *ctrl, uvc_frame_callback_t *cb, void *user_ptr,
 		float bandwidth_factor,
 		uint8_t flags) {
+	return uvc_start_streaming_config(devh, ctrl, cb, user_ptr,
+		bandwidth_factor, flags, NULL);
+}
+
+/** Begin streaming video from the camera into the callback function
+ * with the specified transfer setup.
+ * @ingroup streaming
+ *
+ * @param devh UVC device
+ * @param ctrl Control block, processed using {uvc_probe_stream_ctrl} or
+ *             {uvc_get_stream_ctrl_format_size}
+ * @param cb   User callback function. See {uvc_frame_callback_t} for restrictions.
+ * @param bandwidth_factor [0.0f, 1.0f]
+ * @param flags Stream setup flags, UVC_STREAM_FLAG_ZERO_COPY or zero.
+ * @param config transfer setup, NULL to use the library defaults
+ */
+uvc_error_t uvc_start_streaming_config(uvc_device_handle_t *devh,
+		uvc_stream_ctrl_t *ctrl, uvc_frame_callback_t *cb, void *user_ptr,
+		float bandwidth_factor, uint8_t flags,
+		const uvc_transfer_config_t *config) {
 	uvc_error_t ret;
 	uvc_stream_handle_t *strmh;
 
@@ -1234,6 +1282,14 @@ uvc_error_t uvc_start_streaming_bandwidth(uvc_device_handle_t *devh,
 	if (UNLIKELY(ret != UVC_SUCCESS))
 		return ret;
 
+	if (config) {
+		ret = uvc_stream_set_transfer_config(strmh, config);
+		if (UNLIKELY(ret != UVC_SUCCESS)) {
+			uvc_stream_close(strmh);
+			return ret;
+		}
+	}
+
 	ret = uvc_stream_start_bandwidth(strmh, cb, user_ptr, bandwidth_factor, flags);
 	if (UNLIKELY(ret != UVC_SUCCESS)) {
 		uvc_stream_close(strmh);
@@ -1355,12 +1411,67 @@ fail:
 	return ret;
 }
 
+/** Change the transfer setup of a stream, takes effect on the next start
+ * @ingroup streaming
+ *
+ * @param strmh UVC stream
+ * @param config transfer setup, zero fields (or NULL) select the library defaults
+ */
+uvc_error_t uvc_stream_set_transfer_config(uvc_stream_handle_t *strmh,
+		const uvc_transfer_config_t *config) {
+
+	if (UNLIKELY(!strmh))
+		return UVC_ERROR_INVALID_PARAM;
+	if (UNLIKELY(strmh->running))
+		return UVC_ERROR_BUSY;
+	if (!config) {
+		memset(&strmh->xfer_config, 0, sizeof(strmh->xfer_config));
+		return UVC_SUCCESS;
+	}
+	if (UNLIKELY((config->num_transfers < 0)
+		|| (config->num_transfers > UVC_MAX_TRANSFER_BUFS)
+		|| (config->packets_per_transfer < 0)
+		|| (config->packets_per_transfer > UVC_MAX_PACKETS_PER_TRANSFER))) {
+		return UVC_ERROR_INVALID_PARAM;
+	}
+	strmh->xfer_config = *config;
+	return UVC_SUCCESS;
+}
+
+/** Get the transfer counters of the streams of the device
+ * @ingroup streaming
+ *
+ * The counters are reset every time the stream starts.
+ * They are updated from the event handler thread without locking,
+ * so the values are only a snapshot.
+ *
+ * @param devh UVC device
+ * @param stats array of UVC_XFER_STATS_NUM counters, see {uvc_transfer_stats}
+ */
+uvc_error_t uvc_get_transfer_stats(uvc_device_handle_t *devh,
+		uint64_t stats[UVC_XFER_STATS_NUM]) {
+
+	uvc_stream_handle_t *strmh;
+	int i;
+
+	if (UNLIKELY(!devh || !stats))
+		return UVC_ERROR_INVALID_PARAM;
+	memset(stats, 0, sizeof(uint64_t) * UVC_XFER_STATS_NUM);
+	DL_FOREACH(devh->streams, strmh)
+	{
+		for (i = 0; i < UVC_XFER_STATS_NUM; i++) {
+			stats[i] += strmh->xfer_stats[i];
+		}
+	}
+	return UVC_SUCCESS;
+}
+
 /** Begin streaming video from the stream into the callback function.
  * @ingroup streaming
  *
  * @param strmh UVC stream
  * @param cb   User callback function. See {uvc_frame_callback_t} for restrictions.
- * @param flags Stream setup flags, currently undefined. Set this to zero. The lower bit
+ * @param flags Stream setup flags, UVC_STREAM_FLAG_ZERO_COPY or zero. The lower bit
  * is reserved for backward compatibility.
  */
 uvc_error_t uvc_stream_start(uvc_stream_handle_t *strmh,
@@ -1374,7 +1485,7 @@ uvc_error_t uvc_stream_start(uvc_stream_handle_t *strmh,
  * @param strmh UVC stream
  * @param cb   User callback function. See {uvc_frame_callback_t} for restrictions.
  * @param bandwidth_factor [0.0f, 1.0f]
- * @param flags Stream setup flags, currently undefined. Set this to zero. The lower bit
+ * @param flags Stream setup flags, UVC_STREAM_FLAG_ZERO_COPY or zero. The lower bit
  * is reserved for backward compatibility.
  */
 uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
@@ -1407,6 +1518,9 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 	strmh->pts = 0;
 	strmh->last_scr = 0;
 	strmh->bfh_err = 0;	// XXX
+	memset(strmh->xfer_stats, 0, sizeof(strmh->xfer_stats));
+	strmh->num_transfers = strmh->xfer_config.num_transfers > 0
+		? strmh->xfer_config.num_transfers : LIBUVC_NUM_TRANSFER_BUFS;
 
 	frame_desc = uvc_find_frame_desc_stream(strmh, ctrl->bFormatIndex, ctrl->bFrameIndex);
 	if (UNLIKELY(!frame_desc)) {
@@ -1425,6 +1539,33 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 	const uint32_t dwMaxVideoFrameSize = ctrl->dwMaxVideoFrameSize <= frame_desc->dwMaxVideoFrameBufferSize
 		? ctrl->dwMaxVideoFrameSize : frame_desc->dwMaxVideoFrameBufferSize;
 
+	// XXX in zero copy mode the frame buffers are handed over to the callback,
+	// so they should be allocated only as large as one frame
+	strmh->zero_copy = (cb && (flags & UVC_STREAM_FLAG_ZERO_COPY)) ? 1 : 0;
+	size_t size_buf = LIBUVC_XFER_BUF_SIZE;
+	if (strmh->zero_copy) {
+		size_buf = frame_desc->wWidth * frame_desc->wHeight * 2;
+		if (size_buf < dwMaxVideoFrameSize)
+			size_buf = dwMaxVideoFrameSize;
+	}
+	if (strmh->size_buf != size_buf) {
+		pthread_mutex_lock(&strmh->cb_mutex);
+		{
+			free(strmh->outbuf);
+			free(strmh->holdbuf);
+			strmh->outbuf = malloc(size_buf);
+			strmh->holdbuf = malloc(size_buf);
+			strmh->size_buf = size_buf;
+			strmh->got_bytes = strmh->hold_bytes = 0;
+		}
+		pthread_mutex_unlock(&strmh->cb_mutex);
+		if (UNLIKELY(!strmh->outbuf || !strmh->holdbuf)) {
+			ret = UVC_ERROR_NO_MEM;
+			LOGE("failed to allocate frame buffers");
+			goto fail;
+		}
+	}
+
 	// Get the interface that provides the chosen format and frame configuration
 	interface_id = strmh->stream_if->bInterfaceNumber;
 	interface = &strmh->devh->info->config->interface[interface_id];
@@ -1510,8 +1651,12 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 							/ endpoint_bytes_per_packet;		// XXX cashed by zero divided exception occured
 
 					/* But keep a reasonable limit: Otherwise we start dropping data */
-					if (packets_per_transfer > 32)
-						packets_per_transfer = 32;
+					if (strmh->xfer_config.packets_per_transfer > 0) {
+						// XXX explicitly requested, may be larger or smaller than one frame
+						packets_per_transfer = strmh->xfer_config.packets_per_transfer;
+					} else if (packets_per_transfer > LIBUVC_NUM_PACKETS_PER_TRANSFER) {
+						packets_per_transfer = LIBUVC_NUM_PACKETS_PER_TRANSFER;
+					}
 
 					total_transfer_size = packets_per_transfer * endpoint_bytes_per_packet;
 					break;
@@ -1547,7 +1692,7 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 
 		/* Set up the transfers */
 		MARK("Set up the transfers");
-		for (transfer_id = 0; transfer_id < LIBUVC_NUM_TRANSFER_BUFS; ++transfer_id) {
+		for (transfer_id = 0; transfer_id < strmh->num_transfers; ++transfer_id) {
 			transfer = libusb_alloc_transfer(packets_per_transfer);
 			strmh->transfers[transfer_id] = transfer;
 			strmh->transfer_bufs[transfer_id] = malloc(total_transfer_size);
@@ -1563,14 +1708,16 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 	} else {
 		MARK("bulk transfer mode");
 		/** prepare for bulk transfer */
-		for (transfer_id = 0; transfer_id < LIBUVC_NUM_TRANSFER_BUFS; ++transfer_id) {
+		const size_t bulk_transfer_size = strmh->xfer_config.bulk_transfer_size > 0
+			? strmh->xfer_config.bulk_transfer_size : strmh->cur_ctrl.dwMaxPayloadTransferSize;
+		for (transfer_id = 0; transfer_id < strmh->num_transfers; ++transfer_id) {
 			transfer = libusb_alloc_transfer(0);
 			strmh->transfers[transfer_id] = transfer;
-			strmh->transfer_bufs[transfer_id] = malloc(strmh->cur_ctrl.dwMaxPayloadTransferSize);
+			strmh->transfer_bufs[transfer_id] = malloc(bulk_transfer_size);
 			libusb_fill_bulk_transfer(transfer, strmh->devh->usb_devh,
 				format_desc->parent->bEndpointAddress,
 				strmh->transfer_bufs[transfer_id],
-				strmh->cur_ctrl.dwMaxPayloadTransferSize, _uvc_stream_callback,
+				bulk_transfer_size, _uvc_stream_callback,
 				(void *)strmh, 5000);
 		}
 	}
@@ -1586,16 +1733,33 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 		pthread_create(&strmh->cb_thread, NULL, _uvc_user_caller, (void*) strmh);
 	}
 	MARK("submit transfers");
-	for (transfer_id = 0; transfer_id < LIBUVC_NUM_TRANSFER_BUFS; transfer_id++) {
+	for (transfer_id = 0; transfer_id < strmh->num_transfers; transfer_id++) {
 		ret = libusb_submit_transfer(strmh->transfers[transfer_id]);
 		if (UNLIKELY(ret != UVC_SUCCESS)) {
+			strmh->xfer_stats[UVC_XFER_STATS_SUBMIT_FAILED]++;
 			UVC_DEBUG("libusb_submit_transfer failed");
 			break;
 		}
 	}
 
 	if (UNLIKELY(ret != UVC_SUCCESS)) {
-		/** @todo clean up transfers and memory */
+		/* the transfers from transfer_id were not submitted and never get a callback, free them here.
+		 * uvc_stream_stop cancels the submitted ones, waits until their callbacks free them
+		 * and joins the callback thread, otherwise it would wait for the unsubmitted ones forever */
+		pthread_mutex_lock(&strmh->cb_mutex);
+		{
+			for (; transfer_id < strmh->num_transfers; transfer_id++) {
+				transfer = strmh->transfers[transfer_id];
+				if (transfer) {
+					free(transfer->buffer);
+					libusb_free_transfer(transfer);
+					strmh->transfers[transfer_id] = NULL;
+				}
+				strmh->transfer_bufs[transfer_id] = NULL;
+			}
+		}
+		pthread_mutex_unlock(&strmh->cb_mutex);
+		uvc_stream_stop(strmh);
 		goto fail;
 	}
 
@@ -1633,8 +1797,10 @@ static void *_uvc_user_caller(void *arg) {
 	uvc_stream_handle_t *strmh = (uvc_stream_handle_t *) arg;
 
 	uint32_t last_seq = 0;
+	int ready;
 
 	for (; 1 ;) {
+		ready = 0;
 		pthread_mutex_lock(&strmh->cb_mutex);
 		{
 			for (; strmh->running && (last_seq == strmh->hold_seq) ;) {
@@ -1648,11 +1814,12 @@ static void *_uvc_user_caller(void *arg) {
 
 			last_seq = strmh->hold_seq;
 			if (LIKELY(!strmh->hold_bfh_err))	// XXX
-				_uvc_populate_frame(strmh);
+				ready = _uvc_populate_frame(strmh) == UVC_SUCCESS;
 		}
 		pthread_mutex_unlock(&strmh->cb_mutex);
 
-		if (LIKELY(!strmh->hold_bfh_err))	// XXX
+		// XXX skip the frame when no buffer could be handed over to the callback
+		if (LIKELY(ready))
 			strmh->user_cb(&strmh->frame, strmh->user_ptr);	// call user callback function
 	}
 
@@ -1662,8 +1829,10 @@ static void *_uvc_user_caller(void *arg) {
 /** @internal
  * @brief Populate the fields of a frame to be handed to user code
  * must be called with stream cb lock held!
+ * @return UVC_ERROR_NO_MEM if the frame has no buffer for the image data,
+ *         the hold buffer is kept in that case
  */
-void _uvc_populate_frame(uvc_stream_handle_t *strmh) {
+static uvc_error_t _uvc_populate_frame(uvc_stream_handle_t *strmh) {
 	size_t alloc_size = strmh->cur_ctrl.dwMaxVideoFrameSize;
 	uvc_frame_t *frame = &strmh->frame;
 	uvc_frame_desc_t *frame_desc;
@@ -1677,6 +1846,10 @@ void _uvc_populate_frame(uvc_stream_handle_t *strmh) {
 			strmh->cur_ctrl.bFrameIndex);
 
 	frame->frame_format = strmh->frame_format;
+	frame->sequence = strmh->hold_seq;	// XXX
+	frame->capture_time = strmh->hold_capture_time;
+	frame->pts = strmh->hold_pts;
+	frame->scr = strmh->hold_last_scr;
 
 	frame->width = frame_desc->wWidth;
 	frame->height = frame_desc->wHeight;
@@ -1695,14 +1868,35 @@ void _uvc_populate_frame(uvc_stream_handle_t *strmh) {
 		break;
 	}
 
-	/* copy the image data from the hold buffer to the frame (unnecessary extra buf?) */
-	if (UNLIKELY(frame->data_bytes < strmh->hold_bytes)) {
-		frame->data = realloc(frame->data, strmh->hold_bytes);	// TODO add error handling when failed realloc
-		frame->data_bytes = strmh->hold_bytes;
+	if (strmh->zero_copy) {
+		/* hand over the hold buffer to the frame and reuse the buffer that the frame had
+		 * (the user callback may have swapped it with its own) as the next hold buffer */
+		if (UNLIKELY(!frame->data || (frame->data_bytes < strmh->size_buf))) {
+			free(frame->data);
+			frame->data = malloc(strmh->size_buf);
+			if (UNLIKELY(!frame->data)) {
+				frame->data_bytes = frame->actual_bytes = 0;
+				return UVC_ERROR_NO_MEM;
+			}
+		}
+		uint8_t *tmp_buf = frame->data;
+		frame->data = strmh->holdbuf;
+		frame->data_bytes = strmh->size_buf;
+		strmh->holdbuf = tmp_buf;
+	} else {
+		/* copy the image data from the hold buffer to the frame (unnecessary extra buf?) */
+		if (UNLIKELY(frame->data_bytes < strmh->hold_bytes)) {
+			void *data = realloc(frame->data, strmh->hold_bytes);
+			if (UNLIKELY(!data)) {
+				frame->actual_bytes = 0;
+				return UVC_ERROR_NO_MEM;
+			}
+			frame->data = data;
+			frame->data_bytes = strmh->hold_bytes;
+		}
+		memcpy(frame->data, strmh->holdbuf, strmh->hold_bytes/*frame->data_bytes*/);	// XXX
 	}
-	memcpy(frame->data, strmh->holdbuf, strmh->hold_bytes/*frame->data_bytes*/);	// XXX
-
-	/** @todo set the frame time */
+	return UVC_SUCCESS;
 }
 
 /** Poll for a frame
@@ -1718,6 +1912,7 @@ uvc_error_t uvc_stream_get_frame(uvc_stream_handle_t *strmh,
 	time_t add_nsecs;
 	struct timespec ts;
 	struct timeval tv;
+	uvc_error_t ret = UVC_SUCCESS;
 
 	if (UNLIKELY(!strmh->running))
 		return UVC_ERROR_INVALID_PARAM;
@@ -1728,8 +1923,8 @@ uvc_error_t uvc_stream_get_frame(uvc_stream_handle_t *strmh,
 	pthread_mutex_lock(&strmh->cb_mutex);
 	{
 		if (strmh->last_polled_seq < strmh->hold_seq) {
-			_uvc_populate_frame(strmh);
-			*frame = &strmh->frame;
+			ret = _uvc_populate_frame(strmh);
+			*frame = LIKELY(!ret) ? &strmh->frame : NULL;
 			strmh->last_polled_seq = strmh->hold_seq;
 		} else if (timeout_us != -1) {
 			if (!timeout_us) {
@@ -1755,8 +1950,8 @@ uvc_error_t uvc_stream_get_frame(uvc_stream_handle_t *strmh,
 			}
 
 			if (LIKELY(strmh->last_polled_seq < strmh->hold_seq)) {
-				_uvc_populate_frame(strmh);
-				*frame = &strmh->frame;
+				ret = _uvc_populate_frame(strmh);
+				*frame = LIKELY(!ret) ? &strmh->frame : NULL;
 				strmh->last_polled_seq = strmh->hold_seq;
 			} else {
 				*frame = NULL;
@@ -1767,7 +1962,7 @@ uvc_error_t uvc_stream_get_frame(uvc_stream_handle_t *strmh,
 	}
 	pthread_mutex_unlock(&strmh->cb_mutex);
 
-	return UVC_SUCCESS;
+	return ret;
 }
 
 /** @brief Stop streaming video
@@ -1811,7 +2006,7 @@ uvc_error_t uvc_stream_stop(uvc_stream_handle_t *strmh) {
 
 	pthread_mutex_lock(&strmh->cb_mutex);
 	{
-		for (i = 0; i < LIBUVC_NUM_TRANSFER_BUFS; i++) {
+		for (i = 0; i < UVC_MAX_TRANSFER_BUFS; i++) {
 			if (strmh->transfers[i]) {
 				int res = libusb_cancel_transfer(strmh->transfers[i]);
 				if ((res < 0) && (res != LIBUSB_ERROR_NOT_FOUND)) {
@@ -1829,11 +2024,11 @@ uvc_error_t uvc_stream_stop(uvc_stream_handle_t *strmh) {
 
 		/* Wait for transfers to complete/cancel */
 		for (; 1 ;) {
-			for (i = 0; i < LIBUVC_NUM_TRANSFER_BUFS; i++) {
+			for (i = 0; i < UVC_MAX_TRANSFER_BUFS; i++) {
 				if (strmh->transfers[i] != NULL)
 					break;
 			}
-			if (i == LIBUVC_NUM_TRANSFER_BUFS)
+			if (i == UVC_MAX_TRANSFER_BUFS)
 				break;
 			pthread_cond_wait(&strmh->cb_cond, &strmh->cb_mutex);
 		}
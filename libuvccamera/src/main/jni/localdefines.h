@@ -32,6 +32,7 @@
 #endif
 
 #define LIBUVC_HAS_JPEG
+#define LIBUVC_HAS_TURBOJPEG	// libjpeg-turbo with TurboJPEG API
 
 // write back array that got by getXXXArrayElements into original Java object and release its array
 #define	ARRAYELEMENTS_COPYBACK_AND_RELEASE 0
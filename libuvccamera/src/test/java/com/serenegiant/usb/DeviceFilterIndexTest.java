@@ -0,0 +1,172 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+
+package com.serenegiant.usb;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbInterface;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * DeviceFilterIndex must give the same result as the linear evaluation of USBMonitor#getDeviceList(List)
+ * the values of the filters and the devices are taken from small sets so that many filters
+ * match with each device, including wildcard filters and exclude filters
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DeviceFilterIndexTest {
+	private static final int[] VENDOR_IDS = { 0x046d, 0x05a3, 0x0c45, 0x1908 };
+	private static final int[] PRODUCT_IDS = { 0x0825, 0x9230, 0x6366, 0x2311 };
+	private static final int[] CLASSES = { 0x00, 0x0e, 0xef, 0xff };
+	private static final int[] SUBCLASSES = { 0x01, 0x02, 0x03 };
+	private static final int[] PROTOCOLS = { 0x00, 0x01 };
+	private static final int TRIALS = 500;
+
+	private final Random mRandom = new Random(0x5eed);
+	/** one device for each (vendor id, product id), DeviceFilterIndex caches the verdicts by them */
+	private final List<UsbDevice> mDevices = new ArrayList<UsbDevice>();
+
+	@Before
+	public void setUp() throws Exception {
+		for (final int vid: VENDOR_IDS) {
+			for (final int pid: PRODUCT_IDS) {
+				final int n = mRandom.nextInt(4);
+				final UsbInterface[] interfaces = new UsbInterface[n];
+				for (int i = 0; i < n; i++) {
+					interfaces[i] = mockInterface(pick(CLASSES), pick(SUBCLASSES), pick(PROTOCOLS));
+				}
+				mDevices.add(mockDevice(vid, pid, pick(CLASSES), pick(SUBCLASSES), pick(PROTOCOLS), interfaces));
+			}
+		}
+	}
+
+	@Test
+	public void sameAsLinear() throws Exception {
+		for (int trial = 0; trial < TRIALS; trial++) {
+			final List<DeviceFilter> filters = randomFilters(1 + mRandom.nextInt(40));
+			final DeviceFilterIndex index = new DeviceFilterIndex(filters);
+			for (final UsbDevice device: mDevices) {
+				final String msg = "trial " + trial + ", device " + device.getVendorId() + ":" + device.getProductId();
+				assertEquals(msg, USBMonitor.matches(filters, device), index.matches(device));
+				assertSame(msg, firstMatched(filters, device), index.findFilter(device));
+				// second call comes from the cached verdict
+				assertEquals(msg, USBMonitor.matches(filters, device), index.matches(device));
+			}
+		}
+	}
+
+	@Test
+	public void firstFilterDecides() throws Exception {
+		final UsbDevice device = mDevices.get(0);
+		final DeviceFilter exclude = new DeviceFilter(device.getVendorId(), -1, -1, -1, -1, null, null, null, true);
+		final DeviceFilter include = new DeviceFilter(-1, -1, -1, -1, -1, null, null, null, false);
+
+		assertFalse(new DeviceFilterIndex(Arrays.asList(exclude, include)).matches(device));
+		assertTrue(new DeviceFilterIndex(Arrays.asList(include, exclude)).matches(device));
+		assertFalse(USBMonitor.matches(Arrays.asList(exclude, include), device));
+		assertTrue(USBMonitor.matches(Arrays.asList(include, exclude), device));
+	}
+
+	@Test
+	public void emptyIndexMatchesAll() throws Exception {
+		final DeviceFilterIndex index = new DeviceFilterIndex(Collections.<DeviceFilter>emptyList());
+		assertTrue(index.isEmpty());
+		for (final UsbDevice device: mDevices) {
+			assertTrue(index.matches(device));
+			assertNull(index.findFilter(device));
+		}
+		assertTrue(new DeviceFilterIndex(null).matches(mDevices.get(0)));
+	}
+
+	private List<DeviceFilter> randomFilters(final int n) {
+		final List<DeviceFilter> result = new ArrayList<DeviceFilter>(n);
+		for (int i = 0; i < n; i++) {
+			if (mRandom.nextInt(20) == 0) {
+				result.add(null);
+				continue;
+			}
+			result.add(new DeviceFilter(
+				pickOrWildcard(VENDOR_IDS), pickOrWildcard(PRODUCT_IDS),
+				pickOrWildcard(CLASSES), pickOrWildcard(SUBCLASSES), pickOrWildcard(PROTOCOLS),
+				null, null, null, mRandom.nextInt(4) == 0));
+		}
+		return result;
+	}
+
+	private static DeviceFilter firstMatched(final List<DeviceFilter> filters, final UsbDevice device) {
+		for (final DeviceFilter filter: filters) {
+			if ((filter != null) && filter.matches(device)) {
+				return filter;
+			}
+		}
+		return null;
+	}
+
+	private int pick(final int[] values) {
+		return values[mRandom.nextInt(values.length)];
+	}
+
+	/**
+	 * wildcard in 1/3 of the filters for each field
+	 */
+	private int pickOrWildcard(final int[] values) {
+		return mRandom.nextInt(3) == 0 ? -1 : pick(values);
+	}
+
+	private static UsbInterface mockInterface(final int clasz, final int subclass, final int protocol) {
+		final UsbInterface intf = mock(UsbInterface.class);
+		when(intf.getInterfaceClass()).thenReturn(clasz);
+		when(intf.getInterfaceSubclass()).thenReturn(subclass);
+		when(intf.getInterfaceProtocol()).thenReturn(protocol);
+		return intf;
+	}
+
+	private static UsbDevice mockDevice(final int vid, final int pid,
+		final int clasz, final int subclass, final int protocol, final UsbInterface... interfaces) {
+
+		final UsbDevice device = mock(UsbDevice.class);
+		when(device.getVendorId()).thenReturn(vid);
+		when(device.getProductId()).thenReturn(pid);
+		when(device.getDeviceClass()).thenReturn(clasz);
+		when(device.getDeviceSubclass()).thenReturn(subclass);
+		when(device.getDeviceProtocol()).thenReturn(protocol);
+		when(device.getInterfaceCount()).thenReturn(interfaces.length);
+		for (int i = 0; i < interfaces.length; i++) {
+			when(device.getInterface(i)).thenReturn(interfaces[i]);
+		}
+		return device;
+	}
+}
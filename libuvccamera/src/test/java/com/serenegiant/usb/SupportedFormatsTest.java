@@ -0,0 +1,167 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+
+package com.serenegiant.usb;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * round trip test of the binary capability descriptor of UVCCamera#getSupportedFormats,
+ * the descriptor is encoded here in the same layout as UVCCamera::getSupportedFormats of the native side
+ */
+public class SupportedFormatsTest {
+	private static final int TYPE_UNCOMPRESSED = 4;	// UVC_VS_FORMAT_UNCOMPRESSED
+	private static final int TYPE_MJPEG = 6;			// UVC_VS_FORMAT_MJPEG
+
+	private static final class Frame {
+		final int width, height, defaultInterval;
+		final boolean continuous;
+		final int[] intervals;
+
+		Frame(final int width, final int height, final boolean continuous, final int... intervals) {
+			this.width = width;
+			this.height = height;
+			this.continuous = continuous;
+			this.intervals = intervals;
+			defaultInterval = intervals[0];
+		}
+	}
+
+	private static final class Format {
+		final int type;
+		final Frame[] frames;
+
+		Format(final int type, final Frame... frames) {
+			this.type = type;
+			this.frames = frames;
+		}
+	}
+
+	private static int[] encode(final Format... formats) {
+		final List<Integer> values = new ArrayList<Integer>();
+		values.add(UVCCamera.SUPPORTED_FORMATS_VERSION);
+		values.add(formats.length);
+		int formatIndex = 1;
+		for (final Format format: formats) {
+			values.add(format.type);
+			values.add(formatIndex++);
+			values.add(1);	// default frame index
+			values.add(format.frames.length);
+			int frameIndex = 1;
+			for (final Frame frame: format.frames) {
+				values.add(frameIndex++);
+				values.add(frame.width);
+				values.add(frame.height);
+				values.add(frame.defaultInterval);
+				values.add(frame.continuous ? 0 : frame.intervals.length);
+				values.add(frame.intervals.length);
+				for (final int interval: frame.intervals) {
+					values.add(interval);
+				}
+			}
+		}
+		final int[] result = new int[values.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = values.get(i);
+		}
+		return result;
+	}
+
+	private static void assertSize(final Size size, final int type, final int index, final Frame frame) {
+		assertEquals(type, size.type);
+		assertEquals(index, size.index);
+		assertEquals(frame.width, size.width);
+		assertEquals(frame.height, size.height);
+		assertEquals(frame.continuous ? 0 : frame.intervals.length, size.frameIntervalType);
+		assertArrayEquals(frame.intervals, size.intervals);
+	}
+
+	private static final Frame VGA = new Frame(640, 480, false, 333333, 666666, 1000000);
+	private static final Frame HD = new Frame(1280, 720, false, 666666);
+	private static final Frame FHD = new Frame(1920, 1080, true, 333333, 2000000, 333333);
+
+	@Test
+	public void discreteAndContinuousIntervals() throws Exception {
+		final int[] descriptor = encode(new Format(TYPE_MJPEG, VGA, HD, FHD));
+		final List<Size> sizes = SupportedFormats.getSupportedSize(TYPE_MJPEG, descriptor);
+		assertEquals(3, sizes.size());
+		assertSize(sizes.get(0), TYPE_MJPEG, 0, VGA);
+		assertSize(sizes.get(1), TYPE_MJPEG, 1, HD);
+		assertSize(sizes.get(2), TYPE_MJPEG, 2, FHD);
+	}
+
+	@Test
+	public void filterByType() throws Exception {
+		final int[] descriptor = encode(
+			new Format(TYPE_UNCOMPRESSED, VGA),
+			new Format(TYPE_MJPEG, VGA, HD));
+
+		final List<Size> uncompressed = SupportedFormats.getSupportedSize(TYPE_UNCOMPRESSED, descriptor);
+		assertEquals(1, uncompressed.size());
+		assertSize(uncompressed.get(0), TYPE_UNCOMPRESSED, 0, VGA);
+
+		final List<Size> mjpeg = SupportedFormats.getSupportedSize(TYPE_MJPEG, descriptor);
+		assertEquals(2, mjpeg.size());
+		assertSize(mjpeg.get(0), TYPE_MJPEG, 0, VGA);
+		assertSize(mjpeg.get(1), TYPE_MJPEG, 1, HD);
+
+		final List<Size> all = SupportedFormats.getSupportedSize(-1, descriptor);
+		assertEquals(3, all.size());
+		assertSize(all.get(0), TYPE_UNCOMPRESSED, 0, VGA);
+		assertSize(all.get(1), TYPE_MJPEG, 0, VGA);
+		assertSize(all.get(2), TYPE_MJPEG, 1, HD);
+	}
+
+	@Test
+	public void noFormats() throws Exception {
+		assertTrue(SupportedFormats.getSupportedSize(-1, encode()).isEmpty());
+	}
+
+	@Test
+	public void invalidDescriptor() throws Exception {
+		assertTrue(SupportedFormats.getSupportedSize(-1, null).isEmpty());
+		assertTrue(SupportedFormats.getSupportedSize(-1, new int[0]).isEmpty());
+		assertTrue(SupportedFormats.getSupportedSize(-1, new int[] { UVCCamera.SUPPORTED_FORMATS_VERSION }).isEmpty());
+
+		final int[] descriptor = encode(new Format(TYPE_MJPEG, VGA));
+		descriptor[0] = UVCCamera.SUPPORTED_FORMATS_VERSION + 1;
+		assertTrue(SupportedFormats.getSupportedSize(-1, descriptor).isEmpty());
+	}
+
+	@Test
+	public void truncatedDescriptor() throws Exception {
+		final int[] descriptor = encode(new Format(TYPE_MJPEG, VGA, HD));
+		// drops the last interval of HD, the sizes before it are still returned
+		final List<Size> sizes = SupportedFormats.getSupportedSize(-1,
+			Arrays.copyOf(descriptor, descriptor.length - 1));
+		assertEquals(1, sizes.size());
+		assertSize(sizes.get(0), TYPE_MJPEG, 0, VGA);
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+
+package com.serenegiant.usb;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * plans streams of the cameras whose capability descriptor and altsettings are in the dumps
+ * under src/test/resources/com/serenegiant/usb
+ */
+public class UVCBandwidthPlannerTest {
+	/** YUYV/MJPEG, high speed, max packet sizes from 192 to 3060 bytes */
+	private static final String HIGH_SPEED = "high_speed_yuyv_mjpeg.txt";
+	/** YUYV only, full speed, max packet sizes from 128 to 1023 bytes */
+	private static final String FULL_SPEED = "full_speed_yuyv.txt";
+
+	private static final int YUYV = UVCCamera.FRAME_FORMAT_YUYV;
+	private static final int MJPEG = UVCCamera.FRAME_FORMAT_MJPEG;
+
+	@Test
+	public void parseDump() throws Exception {
+		assertArrayEquals(new int[] { 3, 2, 0, 1024 }, UVCBandwidthPlanner.CameraInfo.parseDump(" [3, 2,0 , 1024]\n"));
+		assertArrayEquals(new int[0], UVCBandwidthPlanner.CameraInfo.parseDump("[]"));
+
+		final UVCBandwidthPlanner.CameraInfo camera = loadCamera(HIGH_SPEED);
+		assertEquals(UVCBandwidthPlanner.SPEED_HIGH, camera.speed);
+		assertEquals(13, camera.bytesPerPacket.length);
+		assertTrue(camera.isIsochronous());
+		// same dump gives same sizes as UVCCamera#getSupportedSize
+		assertEquals(6, SupportedFormats.getSupportedSize(-1, camera.formats).size());
+	}
+
+	@Test
+	public void singleCamera() throws Exception {
+		final UVCBandwidthPlanner.Plan plan = new UVCBandwidthPlanner().plan(
+			Collections.singletonList(loadCamera(HIGH_SPEED)),
+			Collections.singletonList(new UVCBandwidthPlanner.Request(YUYV, 640, 480, 30)));
+
+		assertTrue(plan.toString(), plan.fits);
+		assertEquals(UVCBandwidthPlanner.HIGH_SPEED_BUDGET, plan.budget);
+		// 640x480x2x30 / 8000 + 12 = 2316 bytes per microframe, 2688 is the smallest altsetting for it
+		assertAssignment(plan.assignments.get(0), YUYV, 640, 480, 30, 10, 2688, false);
+		assertEquals(2688L * 8000, plan.totalReservedBytesPerSecond);
+	}
+
+	@Test
+	public void singleCameraLowerFps() throws Exception {
+		// MJPEG 1920x1080@30 needs 3123 bytes per microframe that is larger than any altsetting
+		final UVCBandwidthPlanner.Plan plan = new UVCBandwidthPlanner().plan(
+			Collections.singletonList(loadCamera(HIGH_SPEED)),
+			Collections.singletonList(new UVCBandwidthPlanner.Request(MJPEG, 1920, 1080, 30)));
+
+		assertTrue(plan.toString(), plan.fits);
+		assertAssignment(plan.assignments.get(0), MJPEG, 1920, 1080, 24, 10, 2688, true);
+	}
+
+	@Test
+	public void singleCameraSmallerSize() throws Exception {
+		// only 160x120@15(588 bytes per frame) fits the packet sizes of full speed camera
+		final UVCBandwidthPlanner.Plan plan = new UVCBandwidthPlanner().plan(
+			Collections.singletonList(loadCamera(FULL_SPEED)),
+			Collections.singletonList(new UVCBandwidthPlanner.Request(YUYV, 320, 240, 30)));
+
+		assertTrue(plan.toString(), plan.fits);
+		assertEquals(UVCBandwidthPlanner.FULL_SPEED_BUDGET, plan.budget);
+		assertAssignment(plan.assignments.get(0), YUYV, 160, 120, 15, 4, 768, true);
+	}
+
+	@Test
+	public void multiCameraDegradesToMjpeg() throws Exception {
+		final UVCBandwidthPlanner.Plan plan = new UVCBandwidthPlanner().plan(
+			cameras(HIGH_SPEED, 3), requests(3, YUYV, 640, 480, 30, true));
+
+		// 3 x YUYV needs 3 x 21.5MB/s, the last camera that reserves largest bandwidth switches to MJPEG
+		assertTrue(plan.toString(), plan.fits);
+		assertAssignment(plan.assignments.get(0), YUYV, 640, 480, 30, 10, 2688, false);
+		assertAssignment(plan.assignments.get(1), YUYV, 640, 480, 30, 10, 2688, false);
+		assertAssignment(plan.assignments.get(2), MJPEG, 640, 480, 30, 3, 512, true);
+		assertEquals((2688L * 2 + 512) * 8000, plan.totalReservedBytesPerSecond);
+		assertTrue(plan.totalReservedBytesPerSecond <= plan.budget);
+	}
+
+	@Test
+	public void multiCameraLowerFpsWithoutMjpeg() throws Exception {
+		final UVCBandwidthPlanner.Plan plan = new UVCBandwidthPlanner().plan(
+			cameras(HIGH_SPEED, 3), requests(3, YUYV, 640, 480, 30, false));
+
+		// each camera steps down to 24fps(1856 bytes per microframe) one by one until all of them fit
+		assertTrue(plan.toString(), plan.fits);
+		for (int i = 0; i < 3; i++) {
+			assertAssignment(plan.assignments.get(i), YUYV, 640, 480, 24, 9, 1984, true);
+		}
+		assertTrue(plan.totalReservedBytesPerSecond <= plan.budget);
+	}
+
+	@Test
+	public void overBudget() throws Exception {
+		// each full speed camera reserves 768 bytes per frame even at the lowest stream
+		final UVCBandwidthPlanner.Plan plan = new UVCBandwidthPlanner().plan(
+			cameras(FULL_SPEED, 2), requests(2, YUYV, 320, 240, 30, true));
+
+		assertFalse(plan.toString(), plan.fits);
+		assertEquals(768L * 1000 * 2, plan.totalReservedBytesPerSecond);
+		assertTrue(plan.totalReservedBytesPerSecond > plan.budget);
+		for (int i = 0; i < 2; i++) {
+			assertAssignment(plan.assignments.get(i), YUYV, 160, 120, 15, 4, 768, true);
+		}
+	}
+
+	@Test
+	public void overBudgetWithoutFallback() throws Exception {
+		final List<UVCBandwidthPlanner.Request> requests = requests(3, YUYV, 640, 480, 30, false);
+		for (final UVCBandwidthPlanner.Request request: requests) {
+			request.allowLowerFps = false;
+			request.allowSmallerSize = false;
+		}
+		final UVCBandwidthPlanner.Plan plan = new UVCBandwidthPlanner().plan(cameras(HIGH_SPEED, 3), requests);
+
+		assertFalse(plan.toString(), plan.fits);
+		assertEquals(2688L * 8000 * 3, plan.totalReservedBytesPerSecond);
+		for (int i = 0; i < 3; i++) {
+			assertAssignment(plan.assignments.get(i), YUYV, 640, 480, 30, 10, 2688, false);
+		}
+	}
+
+	@Test
+	public void requestedFpsNotSupported() throws Exception {
+		// 640x480 has 30, 24, 20, 15, 10, 7 and 5fps but not 25fps
+		final UVCBandwidthPlanner.Request request = new UVCBandwidthPlanner.Request(YUYV, 640, 480, 25);
+		request.allowMjpeg = false;
+		request.allowSmallerSize = false;
+		request.allowLowerFps = false;
+		UVCBandwidthPlanner.Plan plan = new UVCBandwidthPlanner().plan(
+			Collections.singletonList(loadCamera(HIGH_SPEED)), Collections.singletonList(request));
+
+		assertFalse(plan.toString(), plan.fits);
+		assertNull(plan.assignments.get(0));
+
+		// the nearest lower frame rate is used only when it is allowed
+		request.allowLowerFps = true;
+		plan = new UVCBandwidthPlanner().plan(
+			Collections.singletonList(loadCamera(HIGH_SPEED)), Collections.singletonList(request));
+		assertTrue(plan.toString(), plan.fits);
+		assertEquals(24, plan.assignments.get(0).fps);
+	}
+
+	@Test
+	public void noUsableStream() throws Exception {
+		final UVCBandwidthPlanner.Request request = new UVCBandwidthPlanner.Request(YUYV, 320, 240, 30);
+		request.allowSmallerSize = false;
+		final UVCBandwidthPlanner.Plan plan = new UVCBandwidthPlanner().plan(
+			Collections.singletonList(loadCamera(FULL_SPEED)), Collections.singletonList(request));
+
+		assertFalse(plan.toString(), plan.fits);
+		assertNull(plan.assignments.get(0));
+	}
+
+	private static void assertAssignment(final UVCBandwidthPlanner.Assignment assignment,
+		final int frameFormat, final int width, final int height, final int fps,
+		final int altSetting, final int bytesPerPacket, final boolean degraded) {
+
+		assertNotNull(assignment);
+		final String msg = assignment.toString();
+		assertEquals(msg, frameFormat, assignment.frameFormat);
+		assertEquals(msg, width, assignment.width);
+		assertEquals(msg, height, assignment.height);
+		assertEquals(msg, fps, assignment.fps);
+		assertEquals(msg, altSetting, assignment.altSetting);
+		assertEquals(msg, bytesPerPacket, assignment.bytesPerPacket);
+		assertEquals(msg, degraded, assignment.degraded);
+	}
+
+	private static List<UVCBandwidthPlanner.Request> requests(final int n,
+		final int frameFormat, final int width, final int height, final int fps, final boolean allowMjpeg) {
+
+		final List<UVCBandwidthPlanner.Request> result = new ArrayList<UVCBandwidthPlanner.Request>(n);
+		for (int i = 0; i < n; i++) {
+			final UVCBandwidthPlanner.Request request = new UVCBandwidthPlanner.Request(frameFormat, width, height, fps);
+			request.allowMjpeg = allowMjpeg;
+			result.add(request);
+		}
+		return result;
+	}
+
+	private static List<UVCBandwidthPlanner.CameraInfo> cameras(final String name, final int n) throws IOException {
+		final List<UVCBandwidthPlanner.CameraInfo> result = new ArrayList<UVCBandwidthPlanner.CameraInfo>(n);
+		for (int i = 0; i < n; i++) {
+			result.add(loadCamera(name));
+		}
+		return result;
+	}
+
+	/**
+	 * load the dump, lines that start with # are comments
+	 */
+	private static UVCBandwidthPlanner.CameraInfo loadCamera(final String name) throws IOException {
+		final InputStream in = UVCBandwidthPlannerTest.class.getResourceAsStream(name);
+		assertNotNull(name, in);
+		final List<String> lines = new ArrayList<String>();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		try {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				line = line.trim();
+				if ((line.length() > 0) && !line.startsWith("#")) {
+					lines.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		assertEquals(name + ":" + lines, 2, lines.size());
+		return new UVCBandwidthPlanner.CameraInfo(
+			UVCBandwidthPlanner.CameraInfo.parseDump(lines.get(0)),
+			UVCBandwidthPlanner.CameraInfo.parseDump(lines.get(1)));
+	}
+}
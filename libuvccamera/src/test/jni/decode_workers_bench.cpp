@@ -0,0 +1,519 @@
+/*
+ * benchmark of DecodeWorkerPool that UVCPreview uses to decode MJPEG frames in parallel
+ *
+ * usage: decode_workers_bench [--corpus=<dir>] [--sizes=<W>x<H>[,<W>x<H>...]] [--frames=<n>]
+ *                             [--workers=<n>[,<n>...]] [--min-time=<seconds>] [--check-only]
+ *
+ * Frames of the corpus are decoded into RGBX with uvc_mjpeg2rgbx_tj like UVCPreview does
+ * when no frame callback is set. Worker count 0 decodes on the producer thread as reference.
+ * The corpus is read from .mjpg/.jpg/.jpeg files in the directory given by --corpus,
+ * or synthesized at each of --sizes as 4:2:2 jpeg like UVC cameras send.
+ * The queue in front of the workers uses QUEUE_POLICY_BLOCK so no frame is dropped.
+ * Each run checks that every frame is delivered once and in the queued order.
+ * --check-only also compares the pixels of each delivered frame with the serial decode,
+ * this is slow so it is not done while measuring. The exit status is 1 if any check failed.
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <stdint.h>
+#include <string.h>
+#include <strings.h>
+#include <limits.h>
+#include <time.h>
+#include <dirent.h>
+#include <sys/stat.h>
+#include <pthread.h>
+#include <turbojpeg.h>
+
+#include "host_test.h"
+
+#define LOG_NDEBUG	// LOG_ASSERT calls into android log without this
+
+// DecodeWorkerPool.h uses #pragma interface, emit its vtables here
+#pragma implementation "DecodeWorkerPool.h"
+#include "DecodeWorkerPool.h"
+#include "FramePool.h"
+
+#define DEFAULT_MIN_TIME 2.0		// seconds to measure each worker count
+#define DEFAULT_FRAMES 30			// synthesized frames at each size
+#define MJPEG_QUALITY 90
+#define QUEUE_DEPTH 4
+#define POOL_SIZE 16
+#define MAX_SIZES 16
+#define MAX_RUNS 16
+#define MAX_CORPUS 1024
+
+typedef struct corpus {
+	int num_frames;
+	uvc_frame_t *frames[MAX_CORPUS];
+	uint64_t hashes[MAX_CORPUS];	// of the serial decode
+} corpus_t;
+
+static double now_sec() {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec + ts.tv_nsec / 1e9;
+}
+
+static uint64_t hash_frame(const uvc_frame_t *frame) {
+	uint64_t h = 14695981039346656037ULL;	// FNV-1a
+	const uint8_t *p = (const uint8_t *)frame->data;
+	for (size_t i = 0; i < frame->actual_bytes; i++) {
+		h = (h ^ p[i]) * 1099511628211ULL;
+	}
+	return h;
+}
+
+//--------------------------------------------------------------------------------
+// corpus
+//--------------------------------------------------------------------------------
+static uvc_frame_t *wrap_jpeg(const uint8_t *jpeg, const size_t bytes) {
+	tjhandle handle = tjInitDecompress();
+	int w, h, subsamp, colorspace;
+	uvc_frame_t *frame = NULL;
+	if (handle && !tjDecompressHeader3(handle, jpeg, bytes, &w, &h, &subsamp, &colorspace)) {
+		frame = uvc_allocate_frame(bytes);
+		if (frame) {
+			memcpy(frame->data, jpeg, bytes);
+			frame->actual_bytes = bytes;
+			frame->width = w;
+			frame->height = h;
+			frame->frame_format = UVC_FRAME_FORMAT_MJPEG;
+			frame->step = 0;
+		}
+	}
+	if (handle)
+		tjDestroy(handle);
+	return frame;
+}
+
+/**
+ * moving ramps so that each frame of the corpus has different jpeg
+ */
+static uvc_frame_t *synthesize_jpeg(const int w, const int h, const int index) {
+	uvc_frame_t *frame = NULL;
+	uint8_t *planes[3];
+	planes[0] = (uint8_t *)malloc((size_t)w * h * 2);
+	if (UNLIKELY(!planes[0]))
+		return NULL;
+	planes[1] = planes[0] + w * h;
+	planes[2] = planes[1] + (w / 2) * h;
+	const int shift = index * 8;
+	for (int y = 0; y < h; y++) {
+		uint8_t *py = planes[0] + y * w;
+		uint8_t *pu = planes[1] + y * (w / 2);
+		uint8_t *pv = planes[2] + y * (w / 2);
+		for (int x = 0; x < w; x++) {
+			py[x] = (uint8_t)(((x + shift) * 255 / w) ^ ((y * 7 + shift) & 0x1f));
+		}
+		for (int x = 0; x < w / 2; x++) {
+			pu[x] = (uint8_t)((y + shift) * 255 / h);
+			pv[x] = (uint8_t)(255 - (x * 2 + y) * 255 / (w + h));
+		}
+	}
+	tjhandle handle = tjInitCompress();
+	unsigned char *jpeg = NULL;
+	unsigned long jpeg_bytes = 0;
+	if (handle && !tjCompressFromYUVPlanes(handle, (const unsigned char **)planes, w, NULL, h,
+		TJSAMP_422, &jpeg, &jpeg_bytes, MJPEG_QUALITY, 0)) {
+
+		frame = wrap_jpeg(jpeg, jpeg_bytes);
+	} else {
+		fprintf(stderr, "failed to synthesize jpeg:%s\n", tjGetErrorStr());
+	}
+	if (jpeg)
+		tjFree(jpeg);
+	if (handle)
+		tjDestroy(handle);
+	free(planes[0]);
+	return frame;
+}
+
+static bool has_jpeg_extension(const char *name) {
+	const char *ext = strrchr(name, '.');
+	return ext && (!strcasecmp(ext, ".mjpg") || !strcasecmp(ext, ".jpg") || !strcasecmp(ext, ".jpeg"));
+}
+
+static int compare_names(const struct dirent **a, const struct dirent **b) {
+	return strcmp((*a)->d_name, (*b)->d_name);
+}
+
+static int load_corpus(corpus_t *corpus, const char *dir) {
+	struct dirent **entries;
+	const int n = scandir(dir, &entries, NULL, compare_names);
+	if (n < 0) {
+		perror(dir);
+		return -1;
+	}
+	for (int i = 0; i < n; i++) {
+		char path[PATH_MAX];
+		snprintf(path, sizeof(path), "%s/%s", dir, entries[i]->d_name);
+		struct stat st;
+		if (has_jpeg_extension(entries[i]->d_name) && !stat(path, &st)
+			&& S_ISREG(st.st_mode) && (corpus->num_frames < MAX_CORPUS)) {
+
+			FILE *fp = fopen(path, "rb");
+			uint8_t *buf = (uint8_t *)malloc(st.st_size);
+			if (fp && buf && (fread(buf, 1, st.st_size, fp) == (size_t)st.st_size)) {
+				uvc_frame_t *frame = wrap_jpeg(buf, st.st_size);
+				if (frame) {
+					corpus->frames[corpus->num_frames++] = frame;
+				} else {
+					fprintf(stderr, "skip %s: not a jpeg\n", path);
+				}
+			}
+			free(buf);
+			if (fp)
+				fclose(fp);
+		}
+		free(entries[i]);
+	}
+	free(entries);
+	return corpus->num_frames;
+}
+
+static int synthesize_corpus(corpus_t *corpus, const int *sizes, const int num_sizes, const int frames) {
+	for (int i = 0; i < num_sizes; i++) {
+		for (int j = 0; (j < frames) && (corpus->num_frames < MAX_CORPUS); j++) {
+			uvc_frame_t *frame = synthesize_jpeg(sizes[i * 2], sizes[i * 2 + 1], j);
+			if (!frame)
+				return -1;
+			corpus->frames[corpus->num_frames++] = frame;
+		}
+	}
+	return corpus->num_frames;
+}
+
+static void release_corpus(corpus_t *corpus) {
+	for (int i = 0; i < corpus->num_frames; i++) {
+		uvc_free_frame(corpus->frames[i]);
+	}
+	corpus->num_frames = 0;
+}
+
+//--------------------------------------------------------------------------------
+// handler
+//--------------------------------------------------------------------------------
+/**
+ * decodes like UVCPreview, frames come from and go back to FramePools,
+ * delivered frames are checked and counted
+ */
+class BenchHandler : public IDecodeHandler {
+private:
+	const corpus_t *mCorpus;
+	FramePool mSourcePool;
+	FramePool mDecodedPool;
+	pthread_mutex_t mMutex;
+	pthread_cond_t mSync;
+	bool mCheck;
+	uint64_t mDelivered;
+	uint64_t mRecycled;
+	uint64_t mDecodeErrors;
+	uint64_t mOrderErrors;
+	uint64_t mPixelErrors;
+	int64_t mLastSequence;
+public:
+	BenchHandler(const corpus_t *corpus, const bool check)
+	:	mCorpus(corpus),
+		mSourcePool(POOL_SIZE),
+		mDecodedPool(POOL_SIZE),
+		mCheck(check) {
+		pthread_mutex_init(&mMutex, NULL);
+		pthread_cond_init(&mSync, NULL);
+		reset();
+	}
+	virtual ~BenchHandler() {
+		pthread_cond_destroy(&mSync);
+		pthread_mutex_destroy(&mMutex);
+	}
+	void reset() {
+		mDelivered = mRecycled = 0;
+		mDecodeErrors = mOrderErrors = mPixelErrors = 0;
+		mLastSequence = -1;
+	}
+	/**
+	 * copy the corpus frame into a pool frame like UVCPreview copies the received payload
+	 */
+	uvc_frame_t *source(const uint32_t sequence) {
+		const uvc_frame_t *src = mCorpus->frames[sequence % mCorpus->num_frames];
+		uvc_frame_t *frame = mSourcePool.obtain(src->actual_bytes);
+		if (UNLIKELY(frame && uvc_ensure_frame_size(frame, src->actual_bytes))) {
+			uvc_free_frame(frame);
+			frame = NULL;
+		}
+		if (LIKELY(frame)) {
+			memcpy(frame->data, src->data, src->actual_bytes);
+			frame->actual_bytes = src->actual_bytes;
+			frame->width = src->width;
+			frame->height = src->height;
+			frame->frame_format = UVC_FRAME_FORMAT_MJPEG;
+			frame->step = 0;
+			frame->sequence = sequence;
+		}
+		return frame;
+	}
+	virtual uvc_frame_t *decode(uvc_frame_t *frame) {
+		uvc_frame_t *decoded = mDecodedPool.obtain(frame->width * frame->height * 4);
+		if (LIKELY(decoded) && UNLIKELY(uvc_mjpeg2rgbx_tj(frame, decoded))) {
+			mDecodedPool.recycle(decoded);
+			decoded = NULL;
+		}
+		mSourcePool.recycle(frame);
+		if (UNLIKELY(!decoded)) {
+			pthread_mutex_lock(&mMutex);
+			mDecodeErrors++;
+			pthread_mutex_unlock(&mMutex);
+		}
+		return decoded;
+	}
+	virtual void deliver(uvc_frame_t *frame) {
+		const bool pixel_error = mCheck
+			&& (hash_frame(frame) != mCorpus->hashes[frame->sequence % mCorpus->num_frames]);
+		pthread_mutex_lock(&mMutex);
+		{
+			if ((int64_t)frame->sequence <= mLastSequence) {
+				mOrderErrors++;
+			}
+			mLastSequence = frame->sequence;
+			if (pixel_error) {
+				mPixelErrors++;
+			}
+			mDelivered++;
+			pthread_cond_signal(&mSync);
+		}
+		pthread_mutex_unlock(&mMutex);
+		mDecodedPool.recycle(frame);
+	}
+	virtual void recycle(uvc_frame_t *frame) {
+		pthread_mutex_lock(&mMutex);
+		{
+			mRecycled++;
+			pthread_cond_signal(&mSync);
+		}
+		pthread_mutex_unlock(&mMutex);
+		if (frame->frame_format == UVC_FRAME_FORMAT_MJPEG) {
+			mSourcePool.recycle(frame);
+		} else {
+			mDecodedPool.recycle(frame);
+		}
+	}
+	/**
+	 * wait until all queued frames are delivered, decode failures are not delivered
+	 * @return false if timed out
+	 */
+	bool waitDelivered(const uint64_t queued) {
+		struct timespec ts;
+		clock_gettime(CLOCK_REALTIME, &ts);
+		ts.tv_sec += 10;
+		bool result = true;
+		pthread_mutex_lock(&mMutex);
+		{
+			for ( ; result && (mDelivered + mDecodeErrors < queued) ; ) {
+				result = pthread_cond_timedwait(&mSync, &mMutex, &ts) == 0;
+			}
+		}
+		pthread_mutex_unlock(&mMutex);
+		return result;
+	}
+	inline uint64_t delivered() const { return mDelivered; };
+	inline uint64_t recycled() const { return mRecycled; };
+	inline uint64_t decodeErrors() const { return mDecodeErrors; };
+	inline uint64_t orderErrors() const { return mOrderErrors; };
+	inline uint64_t pixelErrors() const { return mPixelErrors; };
+};
+
+//--------------------------------------------------------------------------------
+// runs
+//--------------------------------------------------------------------------------
+typedef struct run_result {
+	uint64_t frames;
+	double seconds;
+} run_result_t;
+
+/**
+ * decode and deliver on this thread, this is what UVCPreview does without decode workers
+ */
+static void run_serial(BenchHandler &handler, const double min_time, const uint64_t min_frames,
+	run_result_t *result) {
+
+	uint64_t n = 0;
+	const double start = now_sec();
+	double elapsed;
+	do {
+		uvc_frame_t *frame = handler.source((uint32_t)n++);
+		if (frame) {
+			uvc_frame_t *decoded = handler.decode(frame);
+			if (decoded)
+				handler.deliver(decoded);
+		}
+		elapsed = now_sec() - start;
+	} while ((n < min_frames) || (elapsed < min_time));
+	result->frames = n;
+	result->seconds = elapsed;
+}
+
+static bool run_workers(BenchHandler &handler, const int workers, const double min_time,
+	const uint64_t min_frames, run_result_t *result) {
+
+	queue_policy_t policy;
+	memset(&policy, 0, sizeof(policy));
+	policy.policy = QUEUE_POLICY_BLOCK;
+	policy.depth = QUEUE_DEPTH;
+	policy.param = MAX_QUEUE_BLOCK_MS;
+	DecodeWorkerPool pool(&handler, policy);
+	if (pool.start(workers) != workers) {
+		fprintf(stderr, "could not start %d workers\n", workers);
+		return false;
+	}
+	uint64_t n = 0;
+	const double start = now_sec();
+	do {
+		uvc_frame_t *frame = handler.source((uint32_t)n++);
+		if (frame)
+			pool.queueFrame(frame);
+	} while ((n < min_frames) || (now_sec() - start < min_time));
+	const bool completed = handler.waitDelivered(n);
+	result->frames = n;
+	result->seconds = now_sec() - start;
+	pool.stop();
+	if (!completed) {
+		fprintf(stderr, "timed out waiting for %d workers\n", workers);
+	}
+	if (policy.stats[QUEUE_STATS_DROPPED]) {
+		fprintf(stderr, "%d workers dropped %llu frames\n",
+			workers, (unsigned long long)policy.stats[QUEUE_STATS_DROPPED]);
+	}
+	return completed && !policy.stats[QUEUE_STATS_DROPPED];
+}
+
+//--------------------------------------------------------------------------------
+static int hash_corpus(corpus_t *corpus) {
+	for (int i = 0; i < corpus->num_frames; i++) {
+		const uvc_frame_t *in = corpus->frames[i];
+		uvc_frame_t *out = uvc_allocate_frame(in->width * in->height * 4);
+		if (!out || uvc_mjpeg2rgbx_tj(corpus->frames[i], out)) {
+			fprintf(stderr, "corpus frame %d could not be decoded\n", i);
+			if (out)
+				uvc_free_frame(out);
+			return -1;
+		}
+		corpus->hashes[i] = hash_frame(out);
+		uvc_free_frame(out);
+	}
+	return 0;
+}
+
+static int parse_list(const char *arg, int *values, const int max_values, const char sep) {
+	int n = 0;
+	char *end;
+	for (const char *p = arg; *p && (n < max_values); p = *end ? end + 1 : end) {
+		values[n++] = (int)strtol(p, &end, 10);
+		if ((end == p) || (*end && (*end != ',') && (*end != sep)))
+			return -1;
+	}
+	return n;
+}
+
+static void usage(const char *name) {
+	fprintf(stderr, "usage: %s [--corpus=<dir>] [--sizes=<W>x<H>[,<W>x<H>...]] [--frames=<n>]\n"
+		"       [--workers=<n>[,<n>...]] [--min-time=<seconds>] [--check-only]\n", name);
+}
+
+int main(int argc, char *argv[]) {
+	static corpus_t corpus;
+	const char *corpus_dir = NULL;
+	int sizes[MAX_SIZES * 2] = { 1280, 720, 1920, 1080 };
+	int num_sizes = 2;
+	int workers[MAX_RUNS] = { 0, 1, 2, 4 };
+	int num_runs = 4;
+	int frames = DEFAULT_FRAMES;
+	double min_time = DEFAULT_MIN_TIME;
+	bool check_only = false;
+
+	for (int i = 1; i < argc; i++) {
+		if (!strncmp(argv[i], "--corpus=", 9)) {
+			corpus_dir = argv[i] + 9;
+		} else if (!strncmp(argv[i], "--sizes=", 8)) {
+			const int n = parse_list(argv[i] + 8, sizes, MAX_SIZES * 2, 'x');
+			if ((n <= 0) || (n & 1)) {
+				usage(argv[0]);
+				return 2;
+			}
+			num_sizes = n / 2;
+		} else if (!strncmp(argv[i], "--frames=", 9)) {
+			frames = atoi(argv[i] + 9);
+		} else if (!strncmp(argv[i], "--workers=", 10)) {
+			num_runs = parse_list(argv[i] + 10, workers, MAX_RUNS, ',');
+			if (num_runs <= 0) {
+				usage(argv[0]);
+				return 2;
+			}
+		} else if (!strncmp(argv[i], "--min-time=", 11)) {
+			min_time = atof(argv[i] + 11);
+		} else if (!strcmp(argv[i], "--check-only")) {
+			check_only = true;
+		} else {
+			usage(argv[0]);
+			return 2;
+		}
+	}
+	if (check_only) {
+		// each corpus frame once at each worker count
+		min_time = 0;
+	}
+
+	if ((corpus_dir ? load_corpus(&corpus, corpus_dir)
+		: synthesize_corpus(&corpus, sizes, num_sizes, frames)) <= 0) {
+
+		fprintf(stderr, "no corpus frames\n");
+		return 1;
+	}
+	if (hash_corpus(&corpus)) {
+		release_corpus(&corpus);
+		return 1;
+	}
+	uint64_t corpus_bytes = 0;
+	for (int i = 0; i < corpus.num_frames; i++) {
+		corpus_bytes += corpus.frames[i]->actual_bytes;
+	}
+	printf("corpus: %d frames, %llu bytes on average, %s\n", corpus.num_frames,
+		(unsigned long long)(corpus_bytes / corpus.num_frames), corpus_dir ? corpus_dir : "synthesized");
+	printf("%8s %10s %10s %12s %8s  %s\n", "workers", "frames", "fps", "ns/frame", "speedup", "checks");
+
+	BenchHandler handler(&corpus, check_only);
+	double base_fps = 0;
+	for (int i = 0; i < num_runs; i++) {
+		const int n = workers[i];
+		if ((n < 0) || (n > MAX_DECODE_WORKERS)) {
+			fprintf(stderr, "workers should be [0, %d]\n", MAX_DECODE_WORKERS);
+			continue;
+		}
+		run_result_t result = { 0, 0 };
+		handler.reset();
+		bool completed = true;
+		if (n) {
+			completed = run_workers(handler, n, min_time, corpus.num_frames, &result);
+		} else {
+			run_serial(handler, min_time, corpus.num_frames, &result);
+		}
+		const double fps = result.frames / result.seconds;
+		if (!base_fps)
+			base_fps = fps;
+		printf("%8d %10llu %10.1f %12.0f %7.2fx  ", n, (unsigned long long)result.frames, fps,
+			result.seconds * 1e9 / result.frames, fps / base_fps);
+		// every frame is delivered once in order,
+		// nothing is left in the queue so the pool should not recycle any frame
+		const int failures = host_test_failures;
+		EXPECT(completed);
+		EXPECT_EQ(result.frames, handler.delivered());
+		EXPECT_EQ(0, handler.decodeErrors());
+		EXPECT_EQ(0, handler.orderErrors());
+		EXPECT_EQ(0, handler.pixelErrors());
+		EXPECT_EQ(0, handler.recycled());
+		printf("%s\n", host_test_failures == failures ? "OK" : "FAILED");
+	}
+	release_corpus(&corpus);
+
+	return HOST_TEST_RESULT();
+}
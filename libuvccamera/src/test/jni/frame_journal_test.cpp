@@ -0,0 +1,491 @@
+/*
+ * host test of FrameJournal
+ *
+ * The segment size of the config applies to the next segment,
+ * so a frame that fits the segment written now may not fit the segment after the rotation.
+ * The journal must reject such frame instead of writing beyond the smaller segment.
+ * Also checks that retention and the segment limit drop whole segments
+ * with the frames that were not read counted as dropped, seeking by capture time
+ * and reopening the journal that was left by a crash.
+ * The journal is written to a temporary directory that is removed at the end.
+ */
+
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <fcntl.h>
+#include <dirent.h>
+#include <sys/stat.h>
+#include <string>
+
+#include "host_test.h"
+
+#define LOG_NDEBUG	// LOG_ASSERT calls into android log without this
+
+// these headers use #pragma interface, emit their vtables here
+#pragma implementation "Mutex.h"
+#pragma implementation "FrameJournal.h"
+#include "utilbase.h"
+#include "libUVCCamera.h"
+#include "FrameJournal.h"
+
+#define MiB (1024 * 1024)
+#define LARGE_FRAME_BYTES (3 * MiB)
+#define SMALL_FRAME_BYTES 4096
+// 3 frames of this size fill a 1MiB segment
+#define SEGMENT_FRAME_BYTES (300 * 1024)
+#define FRAMES_PER_SEGMENT 3
+#define SEC (1000000LL)
+
+//--------------------------------------------------------------------------------
+// replacements of src/frame.c
+//--------------------------------------------------------------------------------
+extern "C" {
+
+uvc_frame_t *uvc_allocate_frame(size_t data_bytes) {
+	uvc_frame_t *frame = (uvc_frame_t *)calloc(1, sizeof(uvc_frame_t));
+	if (frame && data_bytes) {
+		frame->library_owns_data = 1;
+		frame->data = malloc(data_bytes);
+		frame->data_bytes = frame->actual_bytes = data_bytes;
+	}
+	return frame;
+}
+
+void uvc_free_frame(uvc_frame_t *frame) {
+	if (frame) {
+		if (frame->library_owns_data)
+			free(frame->data);
+		free(frame);
+	}
+}
+
+uvc_error_t uvc_ensure_frame_size(uvc_frame_t *frame, size_t need_bytes) {
+	if (frame->library_owns_data) {
+		if (!frame->data || (frame->data_bytes != need_bytes)) {
+			frame->actual_bytes = frame->data_bytes = need_bytes;
+			frame->data = realloc(frame->data, need_bytes);
+		}
+		return frame->data && need_bytes ? UVC_SUCCESS : UVC_ERROR_NO_MEM;
+	}
+	return frame->data && (frame->data_bytes >= need_bytes) ? UVC_SUCCESS : UVC_ERROR_NO_MEM;
+}
+
+}	// extern "C"
+
+//--------------------------------------------------------------------------------
+static std::string make_temp_dir() {
+	char path[] = "/tmp/frame_journal_test_XXXXXX";
+	EXPECT(mkdtemp(path) != NULL);
+	return path;
+}
+
+static void remove_dir(const std::string &dir) {
+	DIR *d = opendir(dir.c_str());
+	if (d) {
+		for (struct dirent *ent = readdir(d); ent; ent = readdir(d)) {
+			if (ent->d_name[0] != '.') {
+				unlink((dir + "/" + ent->d_name).c_str());
+			}
+		}
+		closedir(d);
+	}
+	rmdir(dir.c_str());
+}
+
+/**
+ * frame whose data is filled with the low byte of the sequence number
+ */
+static uvc_frame_t *create_frame(const size_t &bytes, const uint32_t &sequence) {
+	uvc_frame_t *frame = uvc_allocate_frame(bytes);
+	frame->width = 640;
+	frame->height = 480;
+	frame->frame_format = UVC_FRAME_FORMAT_MJPEG;
+	frame->sequence = sequence;
+	frame->capture_time.tv_sec = sequence;
+	frame->capture_time.tv_usec = 0;
+	memset(frame->data, sequence & 0xff, bytes);
+	return frame;
+}
+
+static int append_frame(FrameJournal *journal, const size_t &bytes, const uint32_t &sequence) {
+	uvc_frame_t *frame = create_frame(bytes, sequence);
+	const int result = journal->append(frame);
+	uvc_free_frame(frame);
+	return result;
+}
+
+static bool check_data(const uvc_frame_t *frame) {
+	const uint8_t *p = (const uint8_t *)frame->data;
+	for (size_t i = 0; i < frame->actual_bytes; i++) {
+		if (p[i] != (frame->sequence & 0xff)) return false;
+	}
+	return true;
+}
+
+/**
+ * read the next frame and check its data
+ * @return sequence number of the frame, -1 if no frame or error
+ */
+static int read_sequence(FrameJournal *journal) {
+	uvc_frame_t *frame = uvc_allocate_frame(SMALL_FRAME_BYTES);
+	int result = -1;
+	if (!journal->readNext(frame) && check_data(frame)) {
+		result = frame->sequence;
+	}
+	uvc_free_frame(frame);
+	return result;
+}
+
+static std::string segment_file(const std::string &dir, const uint32_t &id) {
+	char name[16];
+	snprintf(name, sizeof(name), "%08x.seg", id);
+	return dir + "/" + name;
+}
+
+static bool file_exists(const std::string &path) {
+	struct stat st;
+	return !stat(path.c_str(), &st);
+}
+
+static void write_file(const std::string &path, const void *data, const size_t &bytes) {
+	const int fd = open(path.c_str(), O_WRONLY | O_CREAT | O_TRUNC, 0600);
+	EXPECT(fd >= 0);
+	if (fd >= 0) {
+		EXPECT_EQ(bytes, write(fd, data, bytes));
+		close(fd);
+	}
+}
+
+//--------------------------------------------------------------------------------
+/**
+ * fill a 32MiB segment with 3MiB frames, shrink the segment size to 1MiB,
+ * then the next 3MiB frame does not fit the rest of the segment nor the next one
+ */
+static void test_rotation_to_smaller_segment() {
+	const std::string dir = make_temp_dir();
+	FrameJournal *journal = new FrameJournal(dir.c_str(), true);
+	EXPECT_EQ(0, journal->setConfig(32 * MiB, 0, 0));
+
+	const int n = (32 * MiB - JOURNAL_DATA_OFFSET) / (LARGE_FRAME_BYTES + sizeof(journal_index_t));
+	for (int i = 0; i < n; i++) {
+		EXPECT_EQ(0, append_frame(journal, LARGE_FRAME_BYTES, i));
+	}
+	EXPECT_EQ(0, journal->setConfig(1 * MiB, 0, 0));
+	EXPECT_EQ(UVC_ERROR_INVALID_PARAM, append_frame(journal, LARGE_FRAME_BYTES, n));
+
+	// the new segment of the new size still accepts frames that fit it
+	EXPECT_EQ(0, append_frame(journal, SMALL_FRAME_BYTES, n + 1));
+	uint64_t stats[JOURNAL_STATS_NUM];
+	EXPECT_EQ(0, journal->getStats(stats));
+	EXPECT_EQ(2, stats[JOURNAL_STATS_SEGMENTS]);
+	EXPECT_EQ(n + 1, stats[JOURNAL_STATS_FRAMES]);
+	EXPECT_EQ(n + 1, stats[JOURNAL_STATS_APPENDED]);
+
+	uvc_frame_t *frame = uvc_allocate_frame(SMALL_FRAME_BYTES);
+	for (int i = 0; i < n; i++) {
+		EXPECT_EQ(0, journal->readNext(frame));
+		EXPECT_EQ(i, frame->sequence);
+		EXPECT_EQ(LARGE_FRAME_BYTES, frame->actual_bytes);
+		EXPECT(check_data(frame));
+	}
+	EXPECT_EQ(0, journal->readNext(frame));
+	EXPECT_EQ(n + 1, frame->sequence);
+	EXPECT_EQ(SMALL_FRAME_BYTES, frame->actual_bytes);
+	EXPECT(check_data(frame));
+	EXPECT_EQ(1, journal->readNext(frame));
+	uvc_free_frame(frame);
+
+	delete journal;
+	remove_dir(dir);
+}
+
+/**
+ * a frame that fits the rest of the larger segment is written there even after shrinking the config
+ */
+static void test_shrink_keeps_active_segment() {
+	const std::string dir = make_temp_dir();
+	FrameJournal *journal = new FrameJournal(dir.c_str(), true);
+	EXPECT_EQ(0, journal->setConfig(32 * MiB, 0, 0));
+	EXPECT_EQ(0, append_frame(journal, SMALL_FRAME_BYTES, 0));
+	EXPECT_EQ(0, journal->setConfig(1 * MiB, 0, 0));
+	EXPECT_EQ(0, append_frame(journal, LARGE_FRAME_BYTES, 1));
+
+	uint64_t stats[JOURNAL_STATS_NUM];
+	EXPECT_EQ(0, journal->getStats(stats));
+	EXPECT_EQ(1, stats[JOURNAL_STATS_SEGMENTS]);
+	EXPECT_EQ(2, stats[JOURNAL_STATS_FRAMES]);
+
+	delete journal;
+	remove_dir(dir);
+}
+
+/**
+ * a frame that does not fit the rest of the smaller segment goes to the next segment of the larger size
+ */
+static void test_rotation_to_larger_segment() {
+	const std::string dir = make_temp_dir();
+	FrameJournal *journal = new FrameJournal(dir.c_str(), true);
+	EXPECT_EQ(0, journal->setConfig(1 * MiB, 0, 0));
+	EXPECT_EQ(0, append_frame(journal, SMALL_FRAME_BYTES, 0));
+	EXPECT_EQ(UVC_ERROR_INVALID_PARAM, append_frame(journal, LARGE_FRAME_BYTES, 1));
+	EXPECT_EQ(0, journal->setConfig(32 * MiB, 0, 0));
+	EXPECT_EQ(0, append_frame(journal, LARGE_FRAME_BYTES, 2));
+
+	uint64_t stats[JOURNAL_STATS_NUM];
+	EXPECT_EQ(0, journal->getStats(stats));
+	EXPECT_EQ(2, stats[JOURNAL_STATS_SEGMENTS]);
+	EXPECT_EQ(2, stats[JOURNAL_STATS_FRAMES]);
+
+	delete journal;
+	remove_dir(dir);
+}
+
+/**
+ * retention drops only whole segments whose newest frame is older than the retention,
+ * frames that were not read yet are counted as dropped
+ */
+static void test_retention_drops_segments() {
+	const std::string dir = make_temp_dir();
+	FrameJournal *journal = new FrameJournal(dir.c_str(), true);
+	EXPECT_EQ(0, journal->setConfig(1 * MiB, 5 * SEC, 0));
+	uint64_t stats[JOURNAL_STATS_NUM];
+
+	// segments are [0, 1, 2], [3, 4, 5], [6, 7, 8], [9, 10]
+	for (int i = 0; i <= 10; i++) {
+		EXPECT_EQ(0, append_frame(journal, SEGMENT_FRAME_BYTES, i));
+	}
+	// the first segment was dropped when 9 came, frame 3 is older than the retention
+	// but is kept with the newer frames of its segment
+	EXPECT_EQ(0, journal->getStats(stats));
+	EXPECT_EQ(3, stats[JOURNAL_STATS_SEGMENTS]);
+	EXPECT_EQ(8, stats[JOURNAL_STATS_FRAMES]);
+	EXPECT_EQ(8 * SEGMENT_FRAME_BYTES, stats[JOURNAL_STATS_BYTES]);
+	EXPECT_EQ(3 * SEC, stats[JOURNAL_STATS_FIRST_US]);
+	EXPECT_EQ(10 * SEC, stats[JOURNAL_STATS_LAST_US]);
+	EXPECT_EQ(3, stats[JOURNAL_STATS_DROPPED]);
+	EXPECT(!file_exists(segment_file(dir, 1)));
+
+	// newest 11 pushes the second segment out of the retention
+	EXPECT_EQ(0, append_frame(journal, SEGMENT_FRAME_BYTES, 11));
+	EXPECT_EQ(0, journal->getStats(stats));
+	EXPECT_EQ(2, stats[JOURNAL_STATS_SEGMENTS]);
+	EXPECT_EQ(6, stats[JOURNAL_STATS_FRAMES]);
+	EXPECT_EQ(6 * SEC, stats[JOURNAL_STATS_FIRST_US]);
+	EXPECT_EQ(12, stats[JOURNAL_STATS_APPENDED]);
+	EXPECT_EQ(6, stats[JOURNAL_STATS_DROPPED]);
+	EXPECT_EQ(6, stats[JOURNAL_STATS_UNREAD]);
+	EXPECT(!file_exists(segment_file(dir, 2)));
+	for (int i = 6; i <= 11; i++) {
+		EXPECT_EQ(i, read_sequence(journal));
+	}
+	EXPECT_EQ(-1, read_sequence(journal));
+
+	// shorter retention applies at once, the frames that were read are not counted as dropped
+	EXPECT_EQ(0, journal->setConfig(1 * MiB, 1 * SEC, 0));
+	EXPECT_EQ(0, journal->getStats(stats));
+	EXPECT_EQ(1, stats[JOURNAL_STATS_SEGMENTS]);
+	EXPECT_EQ(9 * SEC, stats[JOURNAL_STATS_FIRST_US]);
+	EXPECT_EQ(6, stats[JOURNAL_STATS_DROPPED]);
+	EXPECT_EQ(0, stats[JOURNAL_STATS_UNREAD]);
+
+	// the segment that is written now is never dropped even if all of its frames are too old
+	EXPECT_EQ(0, journal->setConfig(1 * MiB, 1, 0));
+	EXPECT_EQ(0, journal->getStats(stats));
+	EXPECT_EQ(1, stats[JOURNAL_STATS_SEGMENTS]);
+	EXPECT_EQ(3, stats[JOURNAL_STATS_FRAMES]);
+
+	delete journal;
+	remove_dir(dir);
+}
+
+/**
+ * max_segments drops the oldest segment, only the frames after the read position are counted as dropped
+ * and the read position moves to the next segment
+ */
+static void test_max_segments() {
+	const std::string dir = make_temp_dir();
+	FrameJournal *journal = new FrameJournal(dir.c_str(), true);
+	EXPECT_EQ(0, journal->setConfig(1 * MiB, 0, 2));
+	uint64_t stats[JOURNAL_STATS_NUM];
+
+	for (int i = 0; i < 2 * FRAMES_PER_SEGMENT; i++) {
+		EXPECT_EQ(0, append_frame(journal, SEGMENT_FRAME_BYTES, i));
+	}
+	EXPECT_EQ(0, read_sequence(journal));
+	EXPECT_EQ(1, read_sequence(journal));
+	// the third segment drops the first one while frame 2 was not read
+	EXPECT_EQ(0, append_frame(journal, SEGMENT_FRAME_BYTES, 6));
+	EXPECT_EQ(0, journal->getStats(stats));
+	EXPECT_EQ(2, stats[JOURNAL_STATS_SEGMENTS]);
+	EXPECT_EQ(4, stats[JOURNAL_STATS_FRAMES]);
+	EXPECT_EQ(1, stats[JOURNAL_STATS_DROPPED]);
+	EXPECT_EQ(4, stats[JOURNAL_STATS_UNREAD]);
+	EXPECT_EQ(3, read_sequence(journal));
+
+	// the read position is in the middle of the segment that is dropped
+	EXPECT_EQ(0, append_frame(journal, SEGMENT_FRAME_BYTES, 7));
+	EXPECT_EQ(0, append_frame(journal, SEGMENT_FRAME_BYTES, 8));
+	EXPECT_EQ(0, append_frame(journal, SEGMENT_FRAME_BYTES, 9));
+	EXPECT_EQ(0, journal->getStats(stats));
+	EXPECT_EQ(2, stats[JOURNAL_STATS_SEGMENTS]);
+	EXPECT_EQ(3, stats[JOURNAL_STATS_DROPPED]);
+	EXPECT_EQ(4, stats[JOURNAL_STATS_UNREAD]);
+	EXPECT_EQ(6, read_sequence(journal));
+
+	// all frames of the segment after the read position were read, nothing more is dropped
+	EXPECT_EQ(7, read_sequence(journal));
+	EXPECT_EQ(8, read_sequence(journal));
+	EXPECT_EQ(9, read_sequence(journal));
+	for (int i = 10; i < 13; i++) {
+		EXPECT_EQ(0, append_frame(journal, SEGMENT_FRAME_BYTES, i));
+	}
+	EXPECT_EQ(0, journal->getStats(stats));
+	EXPECT_EQ(2, stats[JOURNAL_STATS_SEGMENTS]);
+	EXPECT_EQ(3, stats[JOURNAL_STATS_DROPPED]);
+	EXPECT_EQ(3, stats[JOURNAL_STATS_UNREAD]);
+	EXPECT_EQ(13, stats[JOURNAL_STATS_APPENDED]);
+	EXPECT_EQ(10, read_sequence(journal));
+
+	delete journal;
+	remove_dir(dir);
+}
+
+/**
+ * seek moves to the first frame at or after the time, or to the end of the journal
+ */
+static void test_seek() {
+	const std::string dir = make_temp_dir();
+	FrameJournal *journal = new FrameJournal(dir.c_str(), true);
+	EXPECT_EQ(0, journal->setConfig(1 * MiB, 0, 0));
+	// capture time is the sequence number in seconds, segments are [0, 2, 4], [6, 8, 10], [12, 14, 16]
+	for (int i = 0; i <= 16; i += 2) {
+		EXPECT_EQ(0, append_frame(journal, SEGMENT_FRAME_BYTES, i));
+	}
+	uint64_t stats[JOURNAL_STATS_NUM];
+
+	EXPECT_EQ(0, journal->seek(8 * SEC));
+	EXPECT_EQ(0, journal->getStats(stats));
+	EXPECT_EQ(5, stats[JOURNAL_STATS_UNREAD]);
+	EXPECT_EQ(8, read_sequence(journal));
+	// between the frames, the next frame is in the next segment
+	EXPECT_EQ(0, journal->seek(5 * SEC));
+	EXPECT_EQ(6, read_sequence(journal));
+	EXPECT_EQ(0, journal->seek(11 * SEC + 1));
+	EXPECT_EQ(12, read_sequence(journal));
+	// before the oldest frame
+	EXPECT_EQ(0, journal->seek(-1));
+	EXPECT_EQ(0, read_sequence(journal));
+	EXPECT_EQ(0, journal->seek(16 * SEC));
+	EXPECT_EQ(16, read_sequence(journal));
+	EXPECT(!journal->hasUnread());
+
+	// past the end, the frames appended later are read
+	EXPECT_EQ(0, journal->seek(0));
+	EXPECT_EQ(1, journal->seek(16 * SEC + 1));
+	EXPECT(!journal->hasUnread());
+	EXPECT_EQ(0, journal->getStats(stats));
+	EXPECT_EQ(0, stats[JOURNAL_STATS_UNREAD]);
+	EXPECT_EQ(-1, read_sequence(journal));
+	EXPECT_EQ(0, append_frame(journal, SEGMENT_FRAME_BYTES, 18));
+	EXPECT(journal->hasUnread());
+	EXPECT_EQ(18, read_sequence(journal));
+
+	// empty journal has no frame to seek
+	journal->clear();
+	EXPECT_EQ(1, journal->seek(0));
+
+	delete journal;
+	remove_dir(dir);
+}
+
+/**
+ * reopen the journal that was left by a crash,
+ * the valid frames are kept and the invalid segments are deleted only by the writer
+ */
+static void test_reopen_after_crash() {
+	const std::string dir = make_temp_dir();
+	FrameJournal *journal = new FrameJournal(dir.c_str(), true);
+	EXPECT_EQ(0, journal->setConfig(1 * MiB, 0, 0));
+	// segments are [0, 1, 2], [3, 4]
+	for (int i = 0; i < 5; i++) {
+		EXPECT_EQ(0, append_frame(journal, SEGMENT_FRAME_BYTES, i));
+	}
+	delete journal;
+
+	// the crash came after the count was updated but before the index entry reached the file
+	const std::string second = segment_file(dir, 2);
+	int fd = open(second.c_str(), O_RDWR);
+	EXPECT(fd >= 0);
+	journal_segment_header_t header;
+	EXPECT_EQ(sizeof(header), pread(fd, &header, sizeof(header), 0));
+	EXPECT_EQ(2, header.count);
+	header.count = 3;
+	EXPECT_EQ(sizeof(header), pwrite(fd, &header, sizeof(header), 0));
+	close(fd);
+	// the segment file that was being created is shorter than its header says
+	header.segment_id = 3;
+	header.count = 0;
+	write_file(segment_file(dir, 3), &header, sizeof(header));
+	// garbage in the name of the segment
+	uint8_t garbage[JOURNAL_DATA_OFFSET];
+	memset(garbage, 0xa5, sizeof(garbage));
+	write_file(segment_file(dir, 4), garbage, sizeof(garbage));
+
+	uint64_t stats[JOURNAL_STATS_NUM];
+	// the read only journal skips the invalid segments without deleting them
+	journal = new FrameJournal(dir.c_str(), false, true);
+	EXPECT_EQ(0, journal->getStats(stats));
+	EXPECT_EQ(2, stats[JOURNAL_STATS_SEGMENTS]);
+	EXPECT_EQ(5, stats[JOURNAL_STATS_FRAMES]);
+	for (int i = 0; i < 5; i++) {
+		EXPECT_EQ(i, read_sequence(journal));
+	}
+	EXPECT_EQ(-1, read_sequence(journal));
+	delete journal;
+	EXPECT(file_exists(segment_file(dir, 3)));
+	EXPECT(file_exists(segment_file(dir, 4)));
+
+	journal = new FrameJournal(dir.c_str());
+	EXPECT(!file_exists(segment_file(dir, 3)));
+	EXPECT(!file_exists(segment_file(dir, 4)));
+	EXPECT_EQ(0, journal->setConfig(1 * MiB, 0, 0));
+	EXPECT_EQ(0, journal->getStats(stats));
+	EXPECT_EQ(2, stats[JOURNAL_STATS_SEGMENTS]);
+	EXPECT_EQ(5, stats[JOURNAL_STATS_FRAMES]);
+	EXPECT_EQ(5 * SEGMENT_FRAME_BYTES, stats[JOURNAL_STATS_BYTES]);
+	EXPECT_EQ(4 * SEC, stats[JOURNAL_STATS_LAST_US]);
+	EXPECT_EQ(0, stats[JOURNAL_STATS_APPENDED]);
+	for (int i = 0; i < 5; i++) {
+		EXPECT_EQ(i, read_sequence(journal));
+	}
+	// appending continues into a new segment after the last valid one
+	EXPECT_EQ(0, append_frame(journal, SEGMENT_FRAME_BYTES, 5));
+	EXPECT_EQ(0, journal->getStats(stats));
+	EXPECT_EQ(3, stats[JOURNAL_STATS_SEGMENTS]);
+	EXPECT_EQ(6, stats[JOURNAL_STATS_FRAMES]);
+	struct stat st;
+	EXPECT_EQ(0, stat(segment_file(dir, 3).c_str(), &st));
+	EXPECT_EQ(1 * MiB, st.st_size);
+	EXPECT_EQ(5, read_sequence(journal));
+	delete journal;
+
+	// both segments are valid on the next open
+	journal = new FrameJournal(dir.c_str(), false, true);
+	EXPECT_EQ(0, journal->getStats(stats));
+	EXPECT_EQ(3, stats[JOURNAL_STATS_SEGMENTS]);
+	EXPECT_EQ(6, stats[JOURNAL_STATS_FRAMES]);
+	delete journal;
+	remove_dir(dir);
+}
+
+int main(int argc, char *argv[]) {
+	RUN_TEST(test_rotation_to_smaller_segment);
+	RUN_TEST(test_shrink_keeps_active_segment);
+	RUN_TEST(test_rotation_to_larger_segment);
+	RUN_TEST(test_retention_drops_segments);
+	RUN_TEST(test_max_segments);
+	RUN_TEST(test_seek);
+	RUN_TEST(test_reopen_after_crash);
+	return HOST_TEST_RESULT();
+}
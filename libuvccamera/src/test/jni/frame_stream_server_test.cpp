@@ -0,0 +1,579 @@
+/*
+ * loopback host test of FrameStreamServer
+ *
+ * The subscribers connect over a Unix domain socket in the abstract namespace
+ * and speak the wire protocol of FrameStreamServer.h directly.
+ * Checks the welcome message, that frames are sent only against credits,
+ * both drop policies, the per-subscriber stats
+ * and that each subscriber receives the format it requested.
+ * The references of the published frames are counted to check every retain has its release.
+ */
+
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <errno.h>
+#include <poll.h>
+#include <endian.h>
+#include <stddef.h>
+#include <sys/socket.h>
+#include <sys/un.h>
+#include <vector>
+
+#include "host_test.h"
+
+#define LOG_NDEBUG	// LOG_ASSERT calls into android log without this
+
+// these headers use #pragma interface, emit their vtables here
+#pragma implementation "Mutex.h"
+#pragma implementation "FrameStreamServer.h"
+#include "utilbase.h"
+#include "FrameStreamServer.h"
+
+#define SUBSCRIPTION_ID "uvc-test-subscription"
+#define HEADER_BYTES 8
+#define PAYLOAD_BYTES 1024
+// the jpeg variant is smaller than the raw one so that the subscriber can tell which one it received
+#define JPEG_PAYLOAD_BYTES 256
+#define WAIT_TIMEOUT_MS 5000
+// a frame must not arrive within this time when the subscriber has no credits
+#define QUIET_MS 200
+
+//--------------------------------------------------------------------------------
+// reference counting of the published frames
+//--------------------------------------------------------------------------------
+static volatile int retained = 0;
+static volatile int released = 0;
+
+static void retain_ref(void *ref) {
+	__atomic_add_fetch(&retained, 1, __ATOMIC_RELAXED);
+}
+
+static void release_ref(void *ref) {
+	__atomic_add_fetch(&released, 1, __ATOMIC_RELAXED);
+}
+
+static void reset_counters() {
+	retained = released = 0;
+}
+
+static uint8_t payload[PAYLOAD_BYTES];
+static uint8_t jpeg_payload[JPEG_PAYLOAD_BYTES];
+
+/**
+ * publish one frame, the header carries the sequence number
+ */
+static int publish_frame(FrameStreamServer *server, const uint32_t seq) {
+	uint8_t header[HEADER_BYTES];
+	memset(header, 0, sizeof(header));
+	const uint32_t seq_le = htole32(seq);
+	memcpy(header, &seq_le, sizeof(seq_le));
+	return server->publish(payload, header, sizeof(header), payload, sizeof(payload));
+}
+
+/**
+ * publish one frame in both formats, the jpeg variant is missing if has_jpeg is false
+ */
+static int publish_variants(FrameStreamServer *server, const uint32_t seq, const bool has_jpeg) {
+	uint8_t header[HEADER_BYTES];
+	memset(header, 0, sizeof(header));
+	const uint32_t seq_le = htole32(seq);
+	memcpy(header, &seq_le, sizeof(seq_le));
+	stream_variant_t variants[STREAM_FORMAT_NUM];
+	memset(variants, 0, sizeof(variants));
+	stream_variant_t &raw = variants[STREAM_FORMAT_RAW];
+	raw.ref = payload;
+	raw.header = header;
+	raw.header_bytes = sizeof(header);
+	raw.payload = payload;
+	raw.payload_bytes = sizeof(payload);
+	if (has_jpeg) {
+		stream_variant_t &jpeg = variants[STREAM_FORMAT_JPEG];
+		jpeg.ref = jpeg_payload;
+		jpeg.header = header;
+		jpeg.header_bytes = sizeof(header);
+		jpeg.payload = jpeg_payload;
+		jpeg.payload_bytes = sizeof(jpeg_payload);
+	}
+	return server->publish(variants);
+}
+
+//--------------------------------------------------------------------------------
+// subscriber side
+//--------------------------------------------------------------------------------
+static void make_addr(char *addr, const size_t &bytes, const char *name) {
+	snprintf(addr, bytes, "unix://@uvc_stream_test_%d_%s", getpid(), name);
+}
+
+static int connect_subscriber(const char *addr) {
+	const char *name = addr + 7;	// skip unix://
+	struct sockaddr_un sa;
+	memset(&sa, 0, sizeof(sa));
+	sa.sun_family = AF_UNIX;
+	const size_t len = strlen(name);
+	memcpy(sa.sun_path, name, len);
+	sa.sun_path[0] = '\0';	// abstract namespace
+	const int fd = socket(AF_UNIX, SOCK_STREAM, 0);
+	if (fd < 0) return -1;
+	if (connect(fd, (struct sockaddr *)&sa, offsetof(struct sockaddr_un, sun_path) + len)) {
+		close(fd);
+		return -1;
+	}
+	return fd;
+}
+
+/**
+ * @return true if any data arrives within timeout_ms
+ */
+static bool wait_readable(const int fd, const int timeout_ms) {
+	struct pollfd pfd;
+	pfd.fd = fd;
+	pfd.events = POLLIN;
+	pfd.revents = 0;
+	return poll(&pfd, 1, timeout_ms) > 0;
+}
+
+static bool read_fully(const int fd, void *buf, size_t bytes) {
+	uint8_t *p = (uint8_t *)buf;
+	for ( ; bytes > 0 ; ) {
+		if (!wait_readable(fd, WAIT_TIMEOUT_MS)) return false;
+		const ssize_t n = recv(fd, p, bytes, 0);
+		if (n <= 0) {
+			if ((n < 0) && (errno == EINTR)) continue;
+			return false;
+		}
+		p += n;
+		bytes -= n;
+	}
+	return true;
+}
+
+typedef struct message {
+	uint32_t type;
+	std::vector<uint8_t> header;
+	std::vector<uint8_t> payload;
+} message_t;
+
+static bool read_message(const int fd, message_t &msg) {
+	stream_msg_header_t h;
+	if (!read_fully(fd, &h, sizeof(h))) return false;
+	if (le32toh(h.magic_le) != STREAM_MAGIC) return false;
+	msg.type = le32toh(h.type_le);
+	msg.header.resize(le32toh(h.header_bytes_le));
+	msg.payload.clear();
+	if (!msg.header.empty() && !read_fully(fd, &msg.header[0], msg.header.size())) return false;
+	if (msg.type == STREAM_MSG_WELCOME) {
+		// payload_bytes of the welcome message is the protocol version, no payload follows
+		msg.payload.resize(sizeof(uint32_t));
+		memcpy(&msg.payload[0], &h.payload_bytes_le, sizeof(uint32_t));
+		return true;
+	}
+	msg.payload.resize(le32toh(h.payload_bytes_le));
+	return msg.payload.empty() || read_fully(fd, &msg.payload[0], msg.payload.size());
+}
+
+/**
+ * read a frame message
+ * @return sequence number in the header, or -1 on error
+ */
+static int read_frame(const int fd) {
+	message_t msg;
+	if (!read_message(fd, msg) || (msg.type != STREAM_MSG_FRAME)
+		|| (msg.header.size() != HEADER_BYTES) || (msg.payload.size() != PAYLOAD_BYTES)) {
+		return -1;
+	}
+	uint32_t seq_le;
+	memcpy(&seq_le, &msg.header[0], sizeof(seq_le));
+	return le32toh(seq_le);
+}
+
+/**
+ * read a frame message published by #publish_variants
+ * @param format STREAM_FORMAT_XXX that the subscriber expects
+ * @return sequence number in the header, or -1 on error or if the frame is in the other format
+ */
+static int read_variant(const int fd, const int format) {
+	message_t msg;
+	const size_t payload_bytes = format == STREAM_FORMAT_JPEG ? JPEG_PAYLOAD_BYTES : PAYLOAD_BYTES;
+	const uint8_t *expected = format == STREAM_FORMAT_JPEG ? jpeg_payload : payload;
+	if (!read_message(fd, msg) || (msg.type != STREAM_MSG_FRAME)
+		|| (msg.header.size() != HEADER_BYTES) || (msg.payload.size() != payload_bytes)
+		|| memcmp(&msg.payload[0], expected, payload_bytes)) {
+		return -1;
+	}
+	uint32_t seq_le;
+	memcpy(&seq_le, &msg.header[0], sizeof(seq_le));
+	return le32toh(seq_le);
+}
+
+static bool send_request(const int fd, const uint32_t type, const uint32_t value) {
+	stream_request_t req;
+	req.type_le = htole32(type);
+	req.value_le = htole32(value);
+	return send(fd, &req, sizeof(req), MSG_NOSIGNAL) == sizeof(req);
+}
+
+/**
+ * connect and read the welcome message
+ */
+static int subscribe(const char *addr) {
+	const int fd = connect_subscriber(addr);
+	EXPECT(fd >= 0);
+	if (fd >= 0) {
+		message_t msg;
+		EXPECT(read_message(fd, msg));
+		EXPECT_EQ(STREAM_MSG_WELCOME, msg.type);
+	}
+	return fd;
+}
+
+/**
+ * the server handles the requests in order, send one credit and consume one frame
+ * so that all requests sent before took effect
+ */
+static void sync_requests(FrameStreamServer *server, const int fd) {
+	EXPECT(send_request(fd, STREAM_REQ_CREDIT, 1));
+	EXPECT_EQ(1, publish_frame(server, 0xffff));
+	EXPECT_EQ(0xffff, read_frame(fd));
+}
+
+/**
+ * wait until the connected subscribers requested these formats,
+ * the format requests take effect and the disconnected subscriber is removed asynchronously
+ */
+static bool wait_formats(FrameStreamServer *server, const uint32_t expected) {
+	for (int i = 0; i < WAIT_TIMEOUT_MS; i++) {
+		if (server->getRequestedFormats() == expected) {
+			return true;
+		}
+		usleep(1000);
+	}
+	return false;
+}
+
+/**
+ * wait until the stats of the subscriber at index satisfy the expectation,
+ * the sender thread updates them just after writing each frame
+ */
+static bool wait_stats(FrameStreamServer *server, const int index, const int stat, const uint64_t expected) {
+	uint64_t stats[STREAM_MAX_SUBSCRIBERS * STREAM_STATS_NUM];
+	for (int i = 0; i < WAIT_TIMEOUT_MS; i++) {
+		const int n = server->getSubscriberStats(stats, STREAM_MAX_SUBSCRIBERS);
+		if ((n > index) && (stats[index * STREAM_STATS_NUM + stat] == expected)) {
+			return true;
+		}
+		usleep(1000);
+	}
+	return false;
+}
+
+static FrameStreamServer *start_server(const char *name) {
+	char addr[64];
+	make_addr(addr, sizeof(addr), name);
+	FrameStreamServer *server = new FrameStreamServer(addr, SUBSCRIPTION_ID, retain_ref, release_ref);
+	EXPECT_EQ(0, server->start());
+	EXPECT(server->isRunning());
+	return server;
+}
+
+static void stop_server(FrameStreamServer *server) {
+	EXPECT_EQ(0, server->stop());
+	delete server;
+	EXPECT_EQ(retained, released);
+}
+
+//--------------------------------------------------------------------------------
+static void test_welcome() {
+	reset_counters();
+	char addr[64];
+	make_addr(addr, sizeof(addr), "welcome");
+	FrameStreamServer *server = start_server("welcome");
+
+	const int fd = connect_subscriber(addr);
+	EXPECT(fd >= 0);
+	message_t msg;
+	EXPECT(read_message(fd, msg));
+	EXPECT_EQ(STREAM_MSG_WELCOME, msg.type);
+	EXPECT_EQ(strlen(SUBSCRIPTION_ID), msg.header.size());
+	EXPECT(std::string(msg.header.begin(), msg.header.end()) == SUBSCRIPTION_ID);
+	uint32_t version_le;
+	memcpy(&version_le, &msg.payload[0], sizeof(version_le));
+	EXPECT_EQ(STREAM_VERSION, le32toh(version_le));
+	EXPECT_EQ(1, server->getSubscriberCount());
+	// nothing follows the welcome message until the subscriber sends credits
+	EXPECT(!wait_readable(fd, QUIET_MS));
+
+	close(fd);
+	stop_server(server);
+}
+
+static void test_credit_gating() {
+	reset_counters();
+	char addr[64];
+	make_addr(addr, sizeof(addr), "credit");
+	FrameStreamServer *server = start_server("credit");
+	const int fd = subscribe(addr);
+
+	// no credits, the frames wait in the queue of the default depth
+	for (int i = 0; i < STREAM_DEFAULT_QUEUE_DEPTH; i++) {
+		EXPECT_EQ(1, publish_frame(server, i));
+	}
+	EXPECT(!wait_readable(fd, QUIET_MS));
+	EXPECT(wait_stats(server, 0, STREAM_STATS_QUEUED, STREAM_DEFAULT_QUEUE_DEPTH));
+
+	// exactly one frame for one credit
+	EXPECT(send_request(fd, STREAM_REQ_CREDIT, 1));
+	EXPECT_EQ(0, read_frame(fd));
+	EXPECT(!wait_readable(fd, QUIET_MS));
+	EXPECT(wait_stats(server, 0, STREAM_STATS_SENT, 1));
+	EXPECT(wait_stats(server, 0, STREAM_STATS_CREDITS, 0));
+	EXPECT(wait_stats(server, 0, STREAM_STATS_QUEUED, 1));
+
+	// remaining credits are used by the frames published later
+	EXPECT(send_request(fd, STREAM_REQ_CREDIT, 3));
+	EXPECT_EQ(1, read_frame(fd));
+	EXPECT(wait_stats(server, 0, STREAM_STATS_CREDITS, 2));
+	EXPECT_EQ(1, publish_frame(server, 2));
+	EXPECT_EQ(2, read_frame(fd));
+	EXPECT_EQ(1, publish_frame(server, 3));
+	EXPECT_EQ(3, read_frame(fd));
+	EXPECT(wait_stats(server, 0, STREAM_STATS_CREDITS, 0));
+	EXPECT_EQ(1, publish_frame(server, 4));
+	EXPECT(!wait_readable(fd, QUIET_MS));
+
+	close(fd);
+	stop_server(server);
+}
+
+/**
+ * publish 6 frames to the subscriber without credits and queue depth 3,
+ * then give credits and read the frames that were kept
+ */
+static void check_policy(const char *name, const uint32_t policy, const int first_kept) {
+	reset_counters();
+	char addr[64];
+	make_addr(addr, sizeof(addr), name);
+	FrameStreamServer *server = start_server(name);
+	const int fd = subscribe(addr);
+	EXPECT(send_request(fd, STREAM_REQ_POLICY, policy));
+	EXPECT(send_request(fd, STREAM_REQ_DEPTH, 3));
+	sync_requests(server, fd);
+
+	for (int i = 0; i < 6; i++) {
+		// publish does not count the subscriber that dropped the incoming frame
+		const int queued = (i < 3) || (policy != STREAM_POLICY_DROP_NEWEST) ? 1 : 0;
+		EXPECT_EQ(queued, publish_frame(server, i));
+	}
+	EXPECT(wait_stats(server, 0, STREAM_STATS_DROPPED, 3));
+	EXPECT(wait_stats(server, 0, STREAM_STATS_QUEUED, 3));
+	// 6 frames were published after the frame of sync_requests
+	EXPECT(wait_stats(server, 0, STREAM_STATS_LAG, 6));
+	// only the queued frames are still held
+	EXPECT_EQ(retained - 3, released);
+
+	EXPECT(send_request(fd, STREAM_REQ_CREDIT, 10));
+	for (int i = 0; i < 3; i++) {
+		EXPECT_EQ(first_kept + i, read_frame(fd));
+	}
+	EXPECT(!wait_readable(fd, QUIET_MS));
+	EXPECT(wait_stats(server, 0, STREAM_STATS_SENT, 4));
+	EXPECT(wait_stats(server, 0, STREAM_STATS_QUEUED, 0));
+	EXPECT(wait_stats(server, 0, STREAM_STATS_CREDITS, 7));
+	// lag counts the frames published after the last kept one
+	EXPECT(wait_stats(server, 0, STREAM_STATS_LAG, first_kept ? 0 : 3));
+	EXPECT(wait_stats(server, 0, STREAM_STATS_DROPPED, 3));
+
+	close(fd);
+	stop_server(server);
+}
+
+static void test_drop_newest() {
+	// the frames in the queue are kept, the incoming ones are dropped
+	check_policy("newest", STREAM_POLICY_DROP_NEWEST, 0);
+}
+
+static void test_drop_oldest() {
+	// the incoming frames push out the oldest ones
+	check_policy("oldest", STREAM_POLICY_DROP_OLDEST, 3);
+}
+
+static void test_subscriber_stats() {
+	reset_counters();
+	char addr[64];
+	make_addr(addr, sizeof(addr), "stats");
+	FrameStreamServer *server = start_server("stats");
+	// the stats are in the order the subscribers connected
+	const int fast = subscribe(addr);
+	const int slow = subscribe(addr);
+	EXPECT_EQ(2, server->getSubscriberCount());
+	EXPECT(send_request(fast, STREAM_REQ_CREDIT, 100));
+	EXPECT(wait_stats(server, 0, STREAM_STATS_CREDITS, 100));
+
+	for (int i = 0; i < 5; i++) {
+		EXPECT_EQ(2, publish_frame(server, i));
+		EXPECT_EQ(i, read_frame(fast));
+	}
+	EXPECT(wait_stats(server, 0, STREAM_STATS_SENT, 5));
+
+	uint64_t stats[STREAM_MAX_SUBSCRIBERS * STREAM_STATS_NUM];
+	memset(stats, 0, sizeof(stats));
+	EXPECT_EQ(2, server->getSubscriberStats(stats, STREAM_MAX_SUBSCRIBERS));
+	const uint64_t *s = &stats[0];
+	EXPECT_EQ(5, s[STREAM_STATS_SENT]);
+	EXPECT_EQ(0, s[STREAM_STATS_DROPPED]);
+	EXPECT_EQ(0, s[STREAM_STATS_QUEUED]);
+	EXPECT_EQ(95, s[STREAM_STATS_CREDITS]);
+	EXPECT_EQ(0, s[STREAM_STATS_LAG]);
+	// the slow subscriber keeps the default depth of the default policy, drop oldest
+	s = &stats[STREAM_STATS_NUM];
+	EXPECT_EQ(0, s[STREAM_STATS_SENT]);
+	EXPECT_EQ(5 - STREAM_DEFAULT_QUEUE_DEPTH, s[STREAM_STATS_DROPPED]);
+	EXPECT_EQ(STREAM_DEFAULT_QUEUE_DEPTH, s[STREAM_STATS_QUEUED]);
+	EXPECT_EQ(0, s[STREAM_STATS_CREDITS]);
+	EXPECT_EQ(5, s[STREAM_STATS_LAG]);
+
+	// max_subscribers limits the entries
+	EXPECT_EQ(1, server->getSubscriberStats(stats, 1));
+
+	// the disconnected subscriber is removed from the stats with its queue released
+	close(fast);
+	for (int i = 0; (i < WAIT_TIMEOUT_MS) && (server->getSubscriberCount() != 1); i++) {
+		usleep(1000);
+	}
+	EXPECT_EQ(1, server->getSubscriberCount());
+	EXPECT_EQ(1, server->getSubscriberStats(stats, STREAM_MAX_SUBSCRIBERS));
+	EXPECT_EQ(STREAM_DEFAULT_QUEUE_DEPTH, stats[STREAM_STATS_QUEUED]);
+
+	close(slow);
+	stop_server(server);
+}
+
+/**
+ * a raw and a jpeg subscriber receive their own variant of the same frame
+ */
+static void test_format_routing() {
+	reset_counters();
+	char addr[64];
+	make_addr(addr, sizeof(addr), "format");
+	FrameStreamServer *server = start_server("format");
+	EXPECT_EQ(0u, server->getRequestedFormats());
+	const int raw = subscribe(addr);
+	const int jpeg = subscribe(addr);
+	// subscribers that did not request any format get the raw frames
+	EXPECT_EQ(1u << STREAM_FORMAT_RAW, server->getRequestedFormats());
+	EXPECT(send_request(jpeg, STREAM_REQ_FORMAT, STREAM_FORMAT_JPEG));
+	// unknown format is ignored and the subscriber keeps the last valid one
+	EXPECT(send_request(jpeg, STREAM_REQ_FORMAT, STREAM_FORMAT_NUM));
+	EXPECT(wait_formats(server, (1u << STREAM_FORMAT_RAW) | (1u << STREAM_FORMAT_JPEG)));
+
+	EXPECT(send_request(raw, STREAM_REQ_CREDIT, 3));
+	EXPECT(send_request(jpeg, STREAM_REQ_CREDIT, 3));
+	EXPECT(wait_stats(server, 0, STREAM_STATS_CREDITS, 3));
+	EXPECT(wait_stats(server, 1, STREAM_STATS_CREDITS, 3));
+	for (int i = 0; i < 3; i++) {
+		EXPECT_EQ(2, publish_variants(server, i, true));
+		EXPECT_EQ(i, read_variant(raw, STREAM_FORMAT_RAW));
+		EXPECT_EQ(i, read_variant(jpeg, STREAM_FORMAT_JPEG));
+	}
+	// the bytes count the message header, the frame header and the payload of the variant actually sent
+	const uint64_t raw_bytes = sizeof(stream_msg_header_t) + HEADER_BYTES + PAYLOAD_BYTES;
+	const uint64_t jpeg_bytes = sizeof(stream_msg_header_t) + HEADER_BYTES + JPEG_PAYLOAD_BYTES;
+	EXPECT(wait_stats(server, 0, STREAM_STATS_SENT, 3));
+	EXPECT(wait_stats(server, 1, STREAM_STATS_SENT, 3));
+	EXPECT(wait_stats(server, 0, STREAM_STATS_BYTES, 3 * raw_bytes));
+	EXPECT(wait_stats(server, 1, STREAM_STATS_BYTES, 3 * jpeg_bytes));
+
+	// the requested formats follow the subscribers that are still connected
+	close(jpeg);
+	EXPECT(wait_formats(server, 1u << STREAM_FORMAT_RAW));
+	close(raw);
+	EXPECT(wait_formats(server, 0));
+	stop_server(server);
+}
+
+/**
+ * the jpeg subscriber drops the frame that is not available in jpeg
+ * while the raw subscriber still receives it
+ */
+static void test_missing_variant() {
+	reset_counters();
+	char addr[64];
+	make_addr(addr, sizeof(addr), "missing");
+	FrameStreamServer *server = start_server("missing");
+	const int raw = subscribe(addr);
+	const int jpeg = subscribe(addr);
+	EXPECT(send_request(jpeg, STREAM_REQ_FORMAT, STREAM_FORMAT_JPEG));
+	EXPECT(wait_formats(server, (1u << STREAM_FORMAT_RAW) | (1u << STREAM_FORMAT_JPEG)));
+	EXPECT(send_request(raw, STREAM_REQ_CREDIT, 10));
+	EXPECT(send_request(jpeg, STREAM_REQ_CREDIT, 10));
+	EXPECT(wait_stats(server, 0, STREAM_STATS_CREDITS, 10));
+	EXPECT(wait_stats(server, 1, STREAM_STATS_CREDITS, 10));
+
+	// publish does not count the subscriber whose variant is missing
+	EXPECT_EQ(1, publish_variants(server, 1, false));
+	EXPECT_EQ(1, read_variant(raw, STREAM_FORMAT_RAW));
+	EXPECT(!wait_readable(jpeg, QUIET_MS));
+	EXPECT(wait_stats(server, 1, STREAM_STATS_DROPPED, 1));
+	EXPECT(wait_stats(server, 1, STREAM_STATS_SENT, 0));
+	EXPECT(wait_stats(server, 1, STREAM_STATS_QUEUED, 0));
+	EXPECT(wait_stats(server, 1, STREAM_STATS_BYTES, 0));
+	EXPECT(wait_stats(server, 0, STREAM_STATS_DROPPED, 0));
+
+	// the next frame with the jpeg variant reaches both again
+	EXPECT_EQ(2, publish_variants(server, 2, true));
+	EXPECT_EQ(2, read_variant(raw, STREAM_FORMAT_RAW));
+	EXPECT_EQ(2, read_variant(jpeg, STREAM_FORMAT_JPEG));
+
+	close(raw);
+	close(jpeg);
+	stop_server(server);
+}
+
+/**
+ * the default format applies only to the subscribers that connect later
+ */
+static void test_default_format() {
+	reset_counters();
+	char addr[64];
+	make_addr(addr, sizeof(addr), "default");
+	FrameStreamServer *server = start_server("default");
+	EXPECT_EQ(-EINVAL, server->setDefaultFormat(-1));
+	EXPECT_EQ(-EINVAL, server->setDefaultFormat(STREAM_FORMAT_NUM));
+	const int before = subscribe(addr);
+	EXPECT_EQ(0, server->setDefaultFormat(STREAM_FORMAT_JPEG));
+	EXPECT_EQ(1u << STREAM_FORMAT_RAW, server->getRequestedFormats());
+	const int after = subscribe(addr);
+	EXPECT_EQ((1u << STREAM_FORMAT_RAW) | (1u << STREAM_FORMAT_JPEG), server->getRequestedFormats());
+	EXPECT(send_request(before, STREAM_REQ_CREDIT, 2));
+	EXPECT(send_request(after, STREAM_REQ_CREDIT, 2));
+	EXPECT(wait_stats(server, 0, STREAM_STATS_CREDITS, 2));
+	EXPECT(wait_stats(server, 1, STREAM_STATS_CREDITS, 2));
+	EXPECT_EQ(2, publish_variants(server, 0, true));
+	EXPECT_EQ(0, read_variant(before, STREAM_FORMAT_RAW));
+	EXPECT_EQ(0, read_variant(after, STREAM_FORMAT_JPEG));
+
+	// the subscriber can still request the raw frames explicitly
+	EXPECT(send_request(after, STREAM_REQ_FORMAT, STREAM_FORMAT_RAW));
+	EXPECT(wait_formats(server, 1u << STREAM_FORMAT_RAW));
+	EXPECT_EQ(2, publish_variants(server, 1, true));
+	EXPECT_EQ(1, read_variant(before, STREAM_FORMAT_RAW));
+	EXPECT_EQ(1, read_variant(after, STREAM_FORMAT_RAW));
+
+	close(before);
+	close(after);
+	stop_server(server);
+}
+
+int main(int argc, char *argv[]) {
+	memset(payload, 0x5a, sizeof(payload));
+	memset(jpeg_payload, 0xd8, sizeof(jpeg_payload));
+	RUN_TEST(test_welcome);
+	RUN_TEST(test_credit_gating);
+	RUN_TEST(test_drop_newest);
+	RUN_TEST(test_drop_oldest);
+	RUN_TEST(test_subscriber_stats);
+	RUN_TEST(test_format_routing);
+	RUN_TEST(test_missing_variant);
+	RUN_TEST(test_default_format);
+	return HOST_TEST_RESULT();
+}
@@ -0,0 +1,41 @@
+/*
+ * minimal assertion helpers for the host tests
+ * Each test is a plain executable, the exit status is 1 if any expectation failed.
+ */
+
+#ifndef HOST_TEST_H_
+#define HOST_TEST_H_
+
+#include <stdio.h>
+
+static int host_test_failures = 0;
+
+#define EXPECT(cond) \
+	do { \
+		if (!(cond)) { \
+			fprintf(stderr, "%s:%d: expected %s\n", __FILE__, __LINE__, #cond); \
+			host_test_failures++; \
+		} \
+	} while (0)
+
+#define EXPECT_EQ(expected, actual) \
+	do { \
+		const long long _e = (long long)(expected); \
+		const long long _a = (long long)(actual); \
+		if (_e != _a) { \
+			fprintf(stderr, "%s:%d: expected %s == %s (%lld), got %lld\n", \
+				__FILE__, __LINE__, #actual, #expected, _e, _a); \
+			host_test_failures++; \
+		} \
+	} while (0)
+
+#define RUN_TEST(func) \
+	do { \
+		const int _before = host_test_failures; \
+		func(); \
+		fprintf(stderr, "%-48s %s\n", #func, host_test_failures == _before ? "OK" : "FAILED"); \
+	} while (0)
+
+#define HOST_TEST_RESULT() (host_test_failures ? 1 : 0)
+
+#endif /* HOST_TEST_H_ */
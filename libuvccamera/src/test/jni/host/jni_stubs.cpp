@@ -0,0 +1,20 @@
+/*
+ * host replacements of the JNI helpers that live in serenegiant_usb_UVCCamera.cpp and pipeline_helper.cpp
+ * The pipeline sources reference them from their JNI entry points, which the host tests never call.
+ */
+
+#include <jni.h>
+
+class IPipeline;
+
+jint registerNativeMethods(JNIEnv* env, const char *class_name, JNINativeMethod *methods, int num_methods) {
+	return JNI_ERR;
+}
+
+jlong setField_long(JNIEnv *env, jobject java_obj, const char *field_name, jlong val) {
+	return 0;
+}
+
+IPipeline *getPipeline(JNIEnv *env, jobject pipeline_obj) {
+	return NULL;
+}
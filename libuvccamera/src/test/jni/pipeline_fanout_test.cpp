@@ -0,0 +1,344 @@
+/*
+ * host test of the reference counted frames of AbstractBufferedPipeline
+ *
+ * DistributePipeline passes each frame to 4 pipelines at 1920x1080 YUYV.
+ * The frame must be copied only once when it enters DistributePipeline,
+ * every branch must see the same buffer, and each buffer must return to the pool or be freed
+ * exactly once even if DistributePipeline is released while the branches still hold its frames.
+ * The uvc frame functions are replaced here to count allocations and copies.
+ */
+
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <unistd.h>
+#include <pthread.h>
+#include <vector>
+
+#include "host_test.h"
+
+#define LOG_NDEBUG	// LOG_ASSERT calls into android log without this
+
+// these headers use #pragma interface, emit their vtables here
+#pragma implementation "Mutex.h"
+#pragma implementation "Condition.h"
+#pragma implementation "IPipeline.h"
+#pragma implementation "AbstractBufferedPipeline.h"
+#pragma implementation "DistributePipeline.h"
+#include "utilbase.h"
+#include "libUVCCamera.h"
+#include "IPipeline.h"
+#include "AbstractBufferedPipeline.h"
+#include "DistributePipeline.h"
+
+#define WIDTH 1920
+#define HEIGHT 1080
+#define FRAME_BYTES (WIDTH * HEIGHT * 2)
+#define NUM_BRANCHES 4
+#define NUM_FRAMES 30
+#define WAIT_TIMEOUT_MS 5000
+
+//--------------------------------------------------------------------------------
+// counting replacements of src/frame.c
+//--------------------------------------------------------------------------------
+static volatile int frames_allocated = 0;
+static volatile int frames_freed = 0;
+static volatile int frames_copied = 0;
+
+extern "C" {
+
+uvc_frame_t *uvc_allocate_frame(size_t data_bytes) {
+	uvc_frame_t *frame = (uvc_frame_t *)calloc(1, sizeof(uvc_frame_t));
+	if (frame && data_bytes) {
+		frame->library_owns_data = 1;
+		frame->data = malloc(data_bytes);
+		frame->data_bytes = frame->actual_bytes = data_bytes;
+	}
+	__atomic_add_fetch(&frames_allocated, 1, __ATOMIC_RELAXED);
+	return frame;
+}
+
+void uvc_free_frame(uvc_frame_t *frame) {
+	if (frame) {
+		if (frame->library_owns_data)
+			free(frame->data);
+		free(frame);
+		__atomic_add_fetch(&frames_freed, 1, __ATOMIC_RELAXED);
+	}
+}
+
+uvc_error_t uvc_ensure_frame_size(uvc_frame_t *frame, size_t need_bytes) {
+	if (!frame->data || (frame->data_bytes != need_bytes)) {
+		frame->actual_bytes = frame->data_bytes = need_bytes;
+		frame->data = realloc(frame->data, need_bytes);
+	}
+	return frame->data ? UVC_SUCCESS : UVC_ERROR_NO_MEM;
+}
+
+uvc_error_t uvc_duplicate_frame(uvc_frame_t *in, uvc_frame_t *out) {
+	if (uvc_ensure_frame_size(out, in->actual_bytes))
+		return UVC_ERROR_NO_MEM;
+	out->width = in->width;
+	out->height = in->height;
+	out->frame_format = in->frame_format;
+	out->step = in->step;
+	out->sequence = in->sequence;
+	memcpy(out->data, in->data, in->actual_bytes);
+	out->actual_bytes = in->actual_bytes;
+	__atomic_add_fetch(&frames_copied, 1, __ATOMIC_RELAXED);
+	return UVC_SUCCESS;
+}
+
+}	// extern "C"
+
+//--------------------------------------------------------------------------------
+/**
+ * branch that records the buffer of each frame it received without copying it,
+ * it can also hold the references to release them later
+ */
+class BranchPipeline : virtual public AbstractBufferedPipeline {
+private:
+	pthread_mutex_t mMutex;
+	pthread_cond_t mSync;
+	bool mHold;
+	std::vector<shared_frame_t *> mHeld;
+protected:
+	virtual void on_start() {};
+	virtual void on_stop() {};
+	virtual int handle_frame(uvc_frame_t *frame) {
+		copied++;
+		return 1;
+	}
+	virtual int handle_shared_frame(shared_frame_t *frame) {
+		pthread_mutex_lock(&mMutex);
+		{
+			if (frame->frame->sequence < NUM_FRAMES) {
+				buffers[frame->frame->sequence] = frame->frame->data;
+			}
+			if (mHold) {
+				retain_frame(frame);
+				mHeld.push_back(frame);
+			}
+			received++;
+			pthread_cond_broadcast(&mSync);
+		}
+		pthread_mutex_unlock(&mMutex);
+		return 1;	// don't chain
+	}
+public:
+	int received;
+	int copied;
+	void *buffers[NUM_FRAMES];
+
+	BranchPipeline(const bool hold = false)
+	:	AbstractBufferedPipeline(NUM_FRAMES + 2),
+		mHold(hold),
+		received(0),
+		copied(0) {
+		pthread_mutex_init(&mMutex, NULL);
+		pthread_cond_init(&mSync, NULL);
+		memset(buffers, 0, sizeof(buffers));
+		setState(PIPELINE_STATE_INITIALIZED);
+	}
+	virtual ~BranchPipeline() {
+		releaseHeld();
+		pthread_cond_destroy(&mSync);
+		pthread_mutex_destroy(&mMutex);
+	}
+	bool waitReceived(const int n) {
+		struct timespec ts;
+		clock_gettime(CLOCK_REALTIME, &ts);
+		ts.tv_sec += WAIT_TIMEOUT_MS / 1000;
+		bool result = true;
+		pthread_mutex_lock(&mMutex);
+		{
+			for ( ; result && (received < n) ; ) {
+				result = !pthread_cond_timedwait(&mSync, &mMutex, &ts);
+			}
+		}
+		pthread_mutex_unlock(&mMutex);
+		return result;
+	}
+	void releaseHeld() {
+		pthread_mutex_lock(&mMutex);
+		std::vector<shared_frame_t *> held;
+		held.swap(mHeld);
+		pthread_mutex_unlock(&mMutex);
+		for (auto iter = held.begin(); iter != held.end(); iter++) {
+			release_frame(*iter);
+		}
+	}
+};
+
+static uvc_frame_t *create_source() {
+	uvc_frame_t *frame = uvc_allocate_frame(FRAME_BYTES);
+	frame->width = WIDTH;
+	frame->height = HEIGHT;
+	frame->frame_format = UVC_FRAME_FORMAT_YUYV;
+	frame->step = WIDTH * 2;
+	memset(frame->data, 0x80, FRAME_BYTES);
+	return frame;
+}
+
+/**
+ * the pool of the pipeline is initialized on its handler thread, wait for it before queueing frames
+ */
+static void start_pipeline(IPipeline *pipeline) {
+	EXPECT_EQ(0, pipeline->start());
+	for (int i = 0; (i < WAIT_TIMEOUT_MS) && (pipeline->getState() != PIPELINE_STATE_RUNNING); i++) {
+		usleep(1000);
+	}
+	EXPECT_EQ(PIPELINE_STATE_RUNNING, pipeline->getState());
+}
+
+static void reset_counters() {
+	frames_allocated = frames_freed = frames_copied = 0;
+}
+
+/**
+ * queue NUM_FRAMES frames to the distributor one by one, waiting all branches received each,
+ * so that nothing is dropped by the buffer limit
+ */
+static void distribute(DistributePipeline *distributor, BranchPipeline **branches, uvc_frame_t *source) {
+	for (int i = 0; i < NUM_FRAMES; i++) {
+		source->sequence = i;
+		EXPECT_EQ(0, distributor->queueFrame(source));
+		for (int j = 0; j < NUM_BRANCHES; j++) {
+			EXPECT(branches[j]->waitReceived(i + 1));
+		}
+	}
+}
+
+//--------------------------------------------------------------------------------
+static void test_fanout_copies_once() {
+	reset_counters();
+	uvc_frame_t *source = create_source();
+	DistributePipeline *distributor = new DistributePipeline();
+	BranchPipeline *branches[NUM_BRANCHES];
+	for (int i = 0; i < NUM_BRANCHES; i++) {
+		branches[i] = new BranchPipeline();
+		start_pipeline(branches[i]);
+		distributor->addPipeline(branches[i]);
+	}
+	start_pipeline(distributor);
+
+	distribute(distributor, branches, source);
+
+	// one copy when the frame enters the distributor, no copy for the branches
+	EXPECT_EQ(NUM_FRAMES, frames_copied);
+	for (int i = 0; i < NUM_BRANCHES; i++) {
+		EXPECT_EQ(NUM_FRAMES, branches[i]->received);
+		EXPECT_EQ(0, branches[i]->copied);
+		for (int j = 0; j < NUM_FRAMES; j++) {
+			EXPECT(branches[i]->buffers[j] != NULL);
+			EXPECT(branches[i]->buffers[j] == branches[0]->buffers[j]);
+		}
+	}
+	// the distributor reuses its pooled buffers instead of allocating one per frame
+	EXPECT(frames_allocated < NUM_FRAMES);
+
+	distributor->release();
+	for (int i = 0; i < NUM_BRANCHES; i++) {
+		branches[i]->release();
+		delete branches[i];
+	}
+	delete distributor;
+	uvc_free_frame(source);
+	EXPECT_EQ(frames_allocated, frames_freed);
+}
+
+/**
+ * the branches still hold the frames when the distributor is deleted,
+ * the frames are freed when the branches release them
+ */
+static void test_owner_released_first() {
+	reset_counters();
+	uvc_frame_t *source = create_source();
+	DistributePipeline *distributor = new DistributePipeline(NUM_FRAMES + 2);
+	BranchPipeline *branches[NUM_BRANCHES];
+	for (int i = 0; i < NUM_BRANCHES; i++) {
+		branches[i] = new BranchPipeline(true);
+		start_pipeline(branches[i]);
+		distributor->addPipeline(branches[i]);
+	}
+	start_pipeline(distributor);
+
+	distribute(distributor, branches, source);
+	EXPECT_EQ(NUM_FRAMES, frames_copied);
+
+	distributor->release();
+	delete distributor;
+	const int freed = frames_freed;
+	for (int i = 0; i < NUM_BRANCHES; i++) {
+		branches[i]->releaseHeld();
+	}
+	// the held frames were detached from the distributor and freed by the last release
+	EXPECT(frames_freed > freed);
+
+	for (int i = 0; i < NUM_BRANCHES; i++) {
+		branches[i]->release();
+		delete branches[i];
+	}
+	uvc_free_frame(source);
+	EXPECT_EQ(frames_allocated, frames_freed);
+}
+
+typedef struct release_args {
+	BranchPipeline **branches;
+} release_args_t;
+
+static void *release_held_func(void *args) {
+	BranchPipeline **branches = ((release_args_t *)args)->branches;
+	for (int i = 0; i < NUM_BRANCHES; i++) {
+		branches[i]->releaseHeld();
+	}
+	return NULL;
+}
+
+/**
+ * the branches release the last references while the distributor is released on another thread,
+ * each frame must be either recycled by the distributor or freed by the last release, never both
+ */
+static void test_release_races_owner() {
+	reset_counters();
+	uvc_frame_t *source = create_source();
+	for (int n = 0; n < 50; n++) {
+		DistributePipeline *distributor = new DistributePipeline(NUM_FRAMES + 2);
+		BranchPipeline *branches[NUM_BRANCHES];
+		for (int i = 0; i < NUM_BRANCHES; i++) {
+			branches[i] = new BranchPipeline(true);
+			start_pipeline(branches[i]);
+			distributor->addPipeline(branches[i]);
+		}
+		start_pipeline(distributor);
+		for (int i = 0; i < 4; i++) {
+			source->sequence = i;
+			distributor->queueFrame(source);
+			for (int j = 0; j < NUM_BRANCHES; j++) {
+				EXPECT(branches[j]->waitReceived(i + 1));
+			}
+		}
+		for (int i = 0; i < NUM_BRANCHES; i++) {
+			branches[i]->stop();
+		}
+		release_args_t args = { branches };
+		pthread_t thread;
+		pthread_create(&thread, NULL, release_held_func, &args);
+		distributor->release();
+		delete distributor;
+		pthread_join(thread, NULL);
+		for (int i = 0; i < NUM_BRANCHES; i++) {
+			branches[i]->release();
+			delete branches[i];
+		}
+	}
+	uvc_free_frame(source);
+	EXPECT_EQ(frames_allocated, frames_freed);
+}
+
+int main(int argc, char *argv[]) {
+	RUN_TEST(test_fanout_copies_once);
+	RUN_TEST(test_owner_released_first);
+	RUN_TEST(test_release_races_owner);
+	return HOST_TEST_RESULT();
+}
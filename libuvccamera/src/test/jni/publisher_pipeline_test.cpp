@@ -0,0 +1,400 @@
+/*
+ * loopback host test of the jpeg variant of PublisherPipeline
+ *
+ * A raw and a jpeg subscriber connect over a Unix domain socket in the abstract namespace.
+ * YUYV frames are compressed only while any subscriber requests jpeg,
+ * the compressed frame is decoded by TurboJPEG of the host and compared with the source,
+ * MJPEG frames are passed through as they are
+ * and the jpeg subscriber drops the frame that could not be compressed.
+ * The uvc frame functions are replaced here.
+ */
+
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <errno.h>
+#include <poll.h>
+#include <endian.h>
+#include <stddef.h>
+#include <sys/socket.h>
+#include <sys/un.h>
+#include <vector>
+
+#include "host_test.h"
+
+#define LOG_NDEBUG	// LOG_ASSERT calls into android log without this
+
+// these headers use #pragma interface, emit their vtables here
+#pragma implementation "Mutex.h"
+#pragma implementation "Condition.h"
+#pragma implementation "IPipeline.h"
+#pragma implementation "AbstractBufferedPipeline.h"
+#pragma implementation "FrameStreamServer.h"
+#pragma implementation "PublisherPipeline.h"
+#include "utilbase.h"
+#include "libUVCCamera.h"
+#include "turbojpeg.h"
+#include "PublisherPipeline.h"
+
+#define SUBSCRIPTION_ID "uvc-test-publisher"
+#define WIDTH 64
+#define HEIGHT 32
+// the source frame has padding at the end of each line
+#define STEP (WIDTH * 2 + 16)
+#define QUALITY 95
+// mean absolute difference of each plane between the source and the decoded jpeg
+#define MAX_MEAN_DIFF 2.0
+#define WAIT_TIMEOUT_MS 5000
+// a frame must not arrive within this time when the subscriber dropped it
+#define QUIET_MS 200
+
+//--------------------------------------------------------------------------------
+// replacements of src/frame.c
+//--------------------------------------------------------------------------------
+extern "C" {
+
+uvc_frame_t *uvc_allocate_frame(size_t data_bytes) {
+	uvc_frame_t *frame = (uvc_frame_t *)calloc(1, sizeof(uvc_frame_t));
+	if (frame && data_bytes) {
+		frame->library_owns_data = 1;
+		frame->data = malloc(data_bytes);
+		frame->data_bytes = frame->actual_bytes = data_bytes;
+	}
+	return frame;
+}
+
+void uvc_free_frame(uvc_frame_t *frame) {
+	if (frame) {
+		if (frame->library_owns_data)
+			free(frame->data);
+		free(frame);
+	}
+}
+
+uvc_error_t uvc_ensure_frame_size(uvc_frame_t *frame, size_t need_bytes) {
+	if (frame->library_owns_data) {
+		if (!frame->data || (frame->data_bytes != need_bytes)) {
+			frame->actual_bytes = frame->data_bytes = need_bytes;
+			frame->data = realloc(frame->data, need_bytes);
+		}
+		return frame->data && need_bytes ? UVC_SUCCESS : UVC_ERROR_NO_MEM;
+	}
+	return frame->data && (frame->data_bytes >= need_bytes) ? UVC_SUCCESS : UVC_ERROR_NO_MEM;
+}
+
+uvc_error_t uvc_duplicate_frame(uvc_frame_t *in, uvc_frame_t *out) {
+	if (uvc_ensure_frame_size(out, in->actual_bytes))
+		return UVC_ERROR_NO_MEM;
+	out->width = in->width;
+	out->height = in->height;
+	out->frame_format = in->frame_format;
+	out->step = in->step;
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	memcpy(out->data, in->data, in->actual_bytes);
+	out->actual_bytes = in->actual_bytes;
+	return UVC_SUCCESS;
+}
+
+}	// extern "C"
+
+//--------------------------------------------------------------------------------
+// source frames
+//--------------------------------------------------------------------------------
+/**
+ * YUYV frame of smooth gradients so that the compressed frame stays close to the source
+ */
+static uvc_frame_t *create_yuyv(const int width, const int height, const int step, const uint32_t sequence) {
+	uvc_frame_t *frame = uvc_allocate_frame(step * height);
+	frame->width = width;
+	frame->height = height;
+	frame->step = step;
+	frame->frame_format = UVC_FRAME_FORMAT_YUYV;
+	frame->sequence = sequence;
+	memset(frame->data, 0, frame->data_bytes);
+	for (int j = 0; j < height; j++) {
+		uint8_t *p = (uint8_t *)frame->data + step * j;
+		for (int i = 0; i < width; i += 2) {
+			p[0] = 16 + (i * 200) / width;				// Y0
+			p[1] = 64 + (j * 128) / height;				// U
+			p[2] = 16 + ((i + 1) * 200) / width;		// Y1
+			p[3] = 192 - (i * 128) / width;				// V
+			p += 4;
+		}
+	}
+	return frame;
+}
+
+static uvc_frame_t *create_mjpeg(const std::vector<uint8_t> &jpeg, const uint32_t sequence) {
+	uvc_frame_t *frame = uvc_allocate_frame(jpeg.size());
+	frame->width = WIDTH;
+	frame->height = HEIGHT;
+	frame->frame_format = UVC_FRAME_FORMAT_MJPEG;
+	frame->sequence = sequence;
+	memcpy(frame->data, &jpeg[0], jpeg.size());
+	return frame;
+}
+
+static int queue_frame(PublisherPipeline *pipeline, uvc_frame_t *frame) {
+	// the pipeline copies the frame
+	const int result = pipeline->queueFrame(frame);
+	uvc_free_frame(frame);
+	return result;
+}
+
+/**
+ * @return mean absolute difference between the plane of the YUYV source and the decoded plane
+ */
+static double mean_diff(const uvc_frame_t *src, const int offset, const int pixel_step,
+	const uint8_t *plane, const int plane_width) {
+
+	double sum = 0;
+	for (int j = 0; j < src->height; j++) {
+		const uint8_t *s = (const uint8_t *)src->data + src->step * j + offset;
+		const uint8_t *d = plane + plane_width * j;
+		for (int i = 0; i < plane_width; i++) {
+			sum += abs(int(s[i * pixel_step]) - int(d[i]));
+		}
+	}
+	return sum / (plane_width * src->height);
+}
+
+//--------------------------------------------------------------------------------
+// subscriber side
+//--------------------------------------------------------------------------------
+static void make_addr(char *addr, const size_t &bytes, const char *name) {
+	snprintf(addr, bytes, "unix://@uvc_publisher_test_%d_%s", getpid(), name);
+}
+
+static int connect_subscriber(const char *addr) {
+	const char *name = addr + 7;	// skip unix://
+	struct sockaddr_un sa;
+	memset(&sa, 0, sizeof(sa));
+	sa.sun_family = AF_UNIX;
+	const size_t len = strlen(name);
+	memcpy(sa.sun_path, name, len);
+	sa.sun_path[0] = '\0';	// abstract namespace
+	const int fd = socket(AF_UNIX, SOCK_STREAM, 0);
+	if (fd < 0) return -1;
+	if (connect(fd, (struct sockaddr *)&sa, offsetof(struct sockaddr_un, sun_path) + len)) {
+		close(fd);
+		return -1;
+	}
+	return fd;
+}
+
+static bool wait_readable(const int fd, const int timeout_ms) {
+	struct pollfd pfd;
+	pfd.fd = fd;
+	pfd.events = POLLIN;
+	pfd.revents = 0;
+	return poll(&pfd, 1, timeout_ms) > 0;
+}
+
+static bool read_fully(const int fd, void *buf, size_t bytes) {
+	uint8_t *p = (uint8_t *)buf;
+	for ( ; bytes > 0 ; ) {
+		if (!wait_readable(fd, WAIT_TIMEOUT_MS)) return false;
+		const ssize_t n = recv(fd, p, bytes, 0);
+		if (n <= 0) {
+			if ((n < 0) && (errno == EINTR)) continue;
+			return false;
+		}
+		p += n;
+		bytes -= n;
+	}
+	return true;
+}
+
+/**
+ * read one message, the payload of the welcome message is not read
+ */
+static bool read_message(const int fd, stream_msg_header_t &h, std::vector<uint8_t> &header, std::vector<uint8_t> &payload) {
+	if (!read_fully(fd, &h, sizeof(h)) || (le32toh(h.magic_le) != STREAM_MAGIC)) return false;
+	header.resize(le32toh(h.header_bytes_le));
+	if (!header.empty() && !read_fully(fd, &header[0], header.size())) return false;
+	payload.clear();
+	if (le32toh(h.type_le) == STREAM_MSG_FRAME) {
+		payload.resize(le32toh(h.payload_bytes_le));
+		return payload.empty() || read_fully(fd, &payload[0], payload.size());
+	}
+	return true;
+}
+
+/**
+ * read a frame message and check its publish_header_t
+ * @return true if the frame has the expected format and sequence number
+ */
+static bool read_frame(const int fd, const uint32_t format, const uint32_t sequence, std::vector<uint8_t> &payload) {
+	stream_msg_header_t h;
+	std::vector<uint8_t> header;
+	if (!read_message(fd, h, header, payload) || (le32toh(h.type_le) != STREAM_MSG_FRAME)
+		|| (header.size() != sizeof(publish_header_t))) {
+		return false;
+	}
+	publish_header_t ph;
+	memcpy(&ph, &header[0], sizeof(ph));
+	return (le32toh(ph.format_le) == format)
+		&& (le32toh(ph.width_le) == WIDTH) && (le32toh(ph.height_le) == HEIGHT)
+		&& (le32toh(ph.sequence_le) == sequence)
+		&& (le32toh(ph.data_bytes_le) == payload.size());
+}
+
+static bool send_request(const int fd, const uint32_t type, const uint32_t value) {
+	stream_request_t req;
+	req.type_le = htole32(type);
+	req.value_le = htole32(value);
+	return send(fd, &req, sizeof(req), MSG_NOSIGNAL) == sizeof(req);
+}
+
+/**
+ * connect, read the welcome message and give credits,
+ * the requests are handled in order so the format took effect when the credits did
+ */
+static int subscribe(PublisherPipeline *pipeline, const char *addr, const int index, const int format) {
+	const int fd = connect_subscriber(addr);
+	EXPECT(fd >= 0);
+	if (fd < 0) return fd;
+	stream_msg_header_t h;
+	std::vector<uint8_t> header, payload;
+	EXPECT(read_message(fd, h, header, payload));
+	EXPECT_EQ(STREAM_MSG_WELCOME, le32toh(h.type_le));
+	EXPECT(send_request(fd, STREAM_REQ_FORMAT, format));
+	EXPECT(send_request(fd, STREAM_REQ_CREDIT, 10));
+	uint64_t stats[STREAM_MAX_SUBSCRIBERS * STREAM_STATS_NUM];
+	bool credited = false;
+	for (int i = 0; !credited && (i < WAIT_TIMEOUT_MS); i++) {
+		credited = (pipeline->getSubscriberStats(stats, STREAM_MAX_SUBSCRIBERS) > index)
+			&& (stats[index * STREAM_STATS_NUM + STREAM_STATS_CREDITS] == 10);
+		if (!credited) usleep(1000);
+	}
+	EXPECT(credited);
+	return fd;
+}
+
+static PublisherPipeline *start_pipeline(const char *addr) {
+	PublisherPipeline *pipeline = new PublisherPipeline(STEP * HEIGHT, addr, SUBSCRIPTION_ID);
+	EXPECT_EQ(UVC_ERROR_INVALID_PARAM, pipeline->setEncodeConfig(STREAM_FORMAT_NUM, QUALITY));
+	EXPECT_EQ(UVC_ERROR_INVALID_PARAM, pipeline->setEncodeConfig(STREAM_FORMAT_RAW, 0));
+	EXPECT_EQ(0, pipeline->setEncodeConfig(STREAM_FORMAT_RAW, QUALITY));
+	EXPECT_EQ(0, pipeline->start());
+	for (int i = 0; (i < WAIT_TIMEOUT_MS) && (pipeline->getState() != PIPELINE_STATE_RUNNING); i++) {
+		usleep(1000);
+	}
+	EXPECT_EQ(PIPELINE_STATE_RUNNING, pipeline->getState());
+	return pipeline;
+}
+
+//--------------------------------------------------------------------------------
+/**
+ * YUYV frames are compressed only for the jpeg subscriber and decode back to the source
+ */
+static void test_encode_round_trip() {
+	char addr[64];
+	make_addr(addr, sizeof(addr), "encode");
+	PublisherPipeline *pipeline = start_pipeline(addr);
+	std::vector<uint8_t> payload;
+	uint64_t stats[ENCODE_STATS_NUM];
+
+	// nobody requests jpeg, nothing is compressed
+	const int raw = subscribe(pipeline, addr, 0, STREAM_FORMAT_RAW);
+	EXPECT_EQ(0, queue_frame(pipeline, create_yuyv(WIDTH, HEIGHT, STEP, 0)));
+	EXPECT(read_frame(raw, VIDEO_FRAME_FORMAT_YUYV, 0, payload));
+	EXPECT_EQ(STEP * HEIGHT, payload.size());
+	EXPECT_EQ(0, pipeline->getEncodeStats(stats));
+	EXPECT_EQ(0, stats[ENCODE_STATS_ENCODED]);
+
+	const int jpeg = subscribe(pipeline, addr, 1, STREAM_FORMAT_JPEG);
+	uvc_frame_t *src = create_yuyv(WIDTH, HEIGHT, STEP, 1);
+	EXPECT_EQ(0, pipeline->queueFrame(src));
+	EXPECT(read_frame(raw, VIDEO_FRAME_FORMAT_YUYV, 1, payload));
+	EXPECT(!memcmp(&payload[0], src->data, src->actual_bytes));
+	EXPECT(read_frame(jpeg, VIDEO_FRAME_FORMAT_MJPEG, 1, payload));
+	const std::vector<uint8_t> compressed(payload);
+
+	// the compressed frame keeps the size and the 4:2:2 sampling of YUYV
+	tjhandle decoder = tjInitDecompress();
+	EXPECT(decoder != NULL);
+	int width = 0, height = 0, subsamp = -1, colorspace = -1;
+	EXPECT_EQ(0, tjDecompressHeader3(decoder, &payload[0], payload.size(), &width, &height, &subsamp, &colorspace));
+	EXPECT_EQ(WIDTH, width);
+	EXPECT_EQ(HEIGHT, height);
+	EXPECT_EQ(TJSAMP_422, subsamp);
+	std::vector<uint8_t> planes(WIDTH * HEIGHT * 2);
+	unsigned char *dst[3] = { &planes[0], &planes[WIDTH * HEIGHT], &planes[WIDTH * HEIGHT * 3 / 2] };
+	int strides[3] = { WIDTH, WIDTH / 2, WIDTH / 2 };
+	EXPECT_EQ(0, tjDecompressToYUVPlanes(decoder, &payload[0], payload.size(), dst, WIDTH, strides, HEIGHT, 0));
+	EXPECT(mean_diff(src, 0, 2, dst[0], WIDTH) < MAX_MEAN_DIFF);
+	EXPECT(mean_diff(src, 1, 4, dst[1], WIDTH / 2) < MAX_MEAN_DIFF);
+	EXPECT(mean_diff(src, 3, 4, dst[2], WIDTH / 2) < MAX_MEAN_DIFF);
+	tjDestroy(decoder);
+
+	EXPECT_EQ(0, pipeline->getEncodeStats(stats));
+	EXPECT_EQ(1, stats[ENCODE_STATS_ENCODED]);
+	EXPECT_EQ(0, stats[ENCODE_STATS_PASSTHROUGH]);
+	EXPECT_EQ(0, stats[ENCODE_STATS_FAILED]);
+	EXPECT_EQ(src->actual_bytes, stats[ENCODE_STATS_IN_BYTES]);
+	EXPECT_EQ(compressed.size(), stats[ENCODE_STATS_OUT_BYTES]);
+	uvc_free_frame(src);
+
+	// MJPEG frame is the jpeg variant as it is
+	EXPECT_EQ(0, queue_frame(pipeline, create_mjpeg(compressed, 2)));
+	EXPECT(read_frame(raw, VIDEO_FRAME_FORMAT_MJPEG, 2, payload));
+	EXPECT(payload == compressed);
+	EXPECT(read_frame(jpeg, VIDEO_FRAME_FORMAT_MJPEG, 2, payload));
+	EXPECT(payload == compressed);
+	EXPECT_EQ(0, pipeline->getEncodeStats(stats));
+	EXPECT_EQ(1, stats[ENCODE_STATS_ENCODED]);
+	EXPECT_EQ(1, stats[ENCODE_STATS_PASSTHROUGH]);
+
+	// odd width can not be compressed as 4:2:2, only the raw subscriber receives it
+	EXPECT_EQ(0, queue_frame(pipeline, create_yuyv(WIDTH - 1, HEIGHT, STEP, 3)));
+	stream_msg_header_t h;
+	std::vector<uint8_t> header;
+	EXPECT(read_message(raw, h, header, payload));
+	EXPECT_EQ(STREAM_MSG_FRAME, le32toh(h.type_le));
+	EXPECT(!wait_readable(jpeg, QUIET_MS));
+	EXPECT_EQ(0, pipeline->getEncodeStats(stats));
+	EXPECT_EQ(1, stats[ENCODE_STATS_FAILED]);
+	uint64_t subscriber_stats[STREAM_MAX_SUBSCRIBERS * STREAM_STATS_NUM];
+	EXPECT_EQ(2, pipeline->getSubscriberStats(subscriber_stats, STREAM_MAX_SUBSCRIBERS));
+	EXPECT_EQ(0, subscriber_stats[STREAM_STATS_DROPPED]);
+	EXPECT_EQ(1, subscriber_stats[STREAM_STATS_NUM + STREAM_STATS_DROPPED]);
+
+	close(raw);
+	close(jpeg);
+	EXPECT_EQ(0, pipeline->release());
+	delete pipeline;
+}
+
+/**
+ * the default format of the pipeline applies to the subscribers that do not request the format
+ */
+static void test_default_jpeg() {
+	char addr[64];
+	make_addr(addr, sizeof(addr), "default");
+	PublisherPipeline *pipeline = start_pipeline(addr);
+	EXPECT_EQ(0, pipeline->setEncodeConfig(STREAM_FORMAT_JPEG, QUALITY));
+	const int fd = connect_subscriber(addr);
+	EXPECT(fd >= 0);
+	stream_msg_header_t h;
+	std::vector<uint8_t> header, payload;
+	EXPECT(read_message(fd, h, header, payload));
+	EXPECT(send_request(fd, STREAM_REQ_CREDIT, 1));
+	// the first frame may be handled before the credit arrives, it waits in the queue then
+	EXPECT_EQ(0, queue_frame(pipeline, create_yuyv(WIDTH, HEIGHT, STEP, 0)));
+	EXPECT(read_frame(fd, VIDEO_FRAME_FORMAT_MJPEG, 0, payload));
+	uint64_t stats[ENCODE_STATS_NUM];
+	EXPECT_EQ(0, pipeline->getEncodeStats(stats));
+	EXPECT_EQ(1, stats[ENCODE_STATS_ENCODED]);
+
+	close(fd);
+	EXPECT_EQ(0, pipeline->release());
+	delete pipeline;
+}
+
+int main(int argc, char *argv[]) {
+	RUN_TEST(test_encode_round_trip);
+	RUN_TEST(test_default_jpeg);
+	return HOST_TEST_RESULT();
+}
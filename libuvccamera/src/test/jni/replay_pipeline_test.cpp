@@ -0,0 +1,438 @@
+/*
+ * host test of ReplayPipeline
+ *
+ * The frames are replayed from a FrameJournal or a directory of frame files to a sink pipeline
+ * that records what it received and when.
+ * Replaying a journal must never modify it, even if it has invalid segment files.
+ * On realtime playback each frame is passed no earlier than its recorded interval from the first frame,
+ * and the intervals restart from the frame whose time stamp goes back.
+ * The sources are written to temporary directories that are removed at the end.
+ */
+
+#include <stdlib.h>
+#include <stdio.h>
+#include <string.h>
+#include <unistd.h>
+#include <fcntl.h>
+#include <dirent.h>
+#include <time.h>
+#include <sys/stat.h>
+#include <string>
+#include <vector>
+
+#include "host_test.h"
+
+#define LOG_NDEBUG	// LOG_ASSERT calls into android log without this
+
+// these headers use #pragma interface, emit their vtables here
+#pragma implementation "Mutex.h"
+#pragma implementation "Condition.h"
+#pragma implementation "IPipeline.h"
+#pragma implementation "FrameJournal.h"
+#pragma implementation "ReplayPipeline.h"
+#include "utilbase.h"
+#include "libUVCCamera.h"
+#include "IPipeline.h"
+#include "FrameJournal.h"
+#include "ReplayPipeline.h"
+
+#define WAIT_TIMEOUT_MS 5000
+#define FRAME_BYTES 1024
+#define RAW_WIDTH 16
+#define RAW_HEIGHT 8
+// the sink may receive the first frame a little after the replay took its base time
+#define PACING_SLACK_US 5000
+
+//--------------------------------------------------------------------------------
+// replacements of src/frame.c
+//--------------------------------------------------------------------------------
+extern "C" {
+
+uvc_frame_t *uvc_allocate_frame(size_t data_bytes) {
+	uvc_frame_t *frame = (uvc_frame_t *)calloc(1, sizeof(uvc_frame_t));
+	if (frame && data_bytes) {
+		frame->library_owns_data = 1;
+		frame->data = malloc(data_bytes);
+		frame->data_bytes = frame->actual_bytes = data_bytes;
+	}
+	return frame;
+}
+
+void uvc_free_frame(uvc_frame_t *frame) {
+	if (frame) {
+		if (frame->library_owns_data)
+			free(frame->data);
+		free(frame);
+	}
+}
+
+uvc_error_t uvc_ensure_frame_size(uvc_frame_t *frame, size_t need_bytes) {
+	if (frame->library_owns_data) {
+		if (!frame->data || (frame->data_bytes != need_bytes)) {
+			frame->actual_bytes = frame->data_bytes = need_bytes;
+			frame->data = realloc(frame->data, need_bytes);
+		}
+		return frame->data && need_bytes ? UVC_SUCCESS : UVC_ERROR_NO_MEM;
+	}
+	return frame->data && (frame->data_bytes >= need_bytes) ? UVC_SUCCESS : UVC_ERROR_NO_MEM;
+}
+
+uvc_error_t uvc_duplicate_frame(uvc_frame_t *in, uvc_frame_t *out) {
+	if (uvc_ensure_frame_size(out, in->actual_bytes))
+		return UVC_ERROR_NO_MEM;
+	out->width = in->width;
+	out->height = in->height;
+	out->frame_format = in->frame_format;
+	out->step = in->step;
+	out->sequence = in->sequence;
+	out->capture_time = in->capture_time;
+	memcpy(out->data, in->data, in->actual_bytes);
+	out->actual_bytes = in->actual_bytes;
+	return UVC_SUCCESS;
+}
+
+}	// extern "C"
+
+static int64_t get_time_us() {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return int64_t(ts.tv_sec) * 1000000LL + ts.tv_nsec / 1000;
+}
+
+//--------------------------------------------------------------------------------
+/**
+ * records the frames it received, the first byte of the data identifies the recorded frame
+ */
+class SinkPipeline : virtual public IPipeline {
+private:
+	bool mReject;
+public:
+	typedef struct received {
+		int64_t time_us;
+		uint8_t tag;
+		size_t bytes;
+		uvc_frame_format format;
+		uint32_t width, height, step, sequence;
+	} received_t;
+	std::vector<received_t> frames;
+
+	SinkPipeline(const bool &reject = false)
+	:	mReject(reject) {
+		setState(PIPELINE_STATE_INITIALIZED);
+	}
+	virtual ~SinkPipeline() {}
+	virtual int queueFrame(uvc_frame_t *frame) {
+		const int64_t now = get_time_us();
+		Mutex::Autolock lock(pipeline_mutex);
+		if (mReject) {
+			return UVC_ERROR_BUSY;
+		}
+		received_t r;
+		r.time_us = now;
+		r.tag = frame->actual_bytes ? ((uint8_t *)frame->data)[0] : 0;
+		r.bytes = frame->actual_bytes;
+		r.format = frame->frame_format;
+		r.width = frame->width;
+		r.height = frame->height;
+		r.step = frame->step;
+		r.sequence = frame->sequence;
+		frames.push_back(r);
+		return 0;
+	}
+	size_t count() {
+		Mutex::Autolock lock(pipeline_mutex);
+		return frames.size();
+	}
+};
+
+static std::string make_temp_dir() {
+	char path[] = "/tmp/replay_pipeline_test_XXXXXX";
+	EXPECT(mkdtemp(path) != NULL);
+	return path;
+}
+
+static void remove_dir(const std::string &dir) {
+	DIR *d = opendir(dir.c_str());
+	if (d) {
+		for (struct dirent *ent = readdir(d); ent; ent = readdir(d)) {
+			if (ent->d_name[0] != '.') {
+				unlink((dir + "/" + ent->d_name).c_str());
+			}
+		}
+		closedir(d);
+	}
+	rmdir(dir.c_str());
+}
+
+static bool exists(const std::string &path) {
+	struct stat st;
+	return !stat(path.c_str(), &st);
+}
+
+static void write_file(const std::string &path, const void *data, const size_t &bytes) {
+	const int fd = open(path.c_str(), O_WRONLY | O_CREAT | O_TRUNC, 0600);
+	EXPECT(fd >= 0);
+	if (fd >= 0) {
+		EXPECT_EQ(bytes, write(fd, data, bytes));
+		close(fd);
+	}
+}
+
+/**
+ * write frames whose first byte is its index and whose capture time is dtimes_us
+ */
+static void write_journal(const std::string &dir, const int64_t *dtimes_us, const int &n) {
+	FrameJournal *journal = new FrameJournal(dir.c_str(), true);
+	EXPECT_EQ(0, journal->setConfig(JOURNAL_MIN_SEGMENT_BYTES, 0, 0));
+	uvc_frame_t *frame = uvc_allocate_frame(FRAME_BYTES);
+	for (int i = 0; i < n; i++) {
+		memset(frame->data, i, FRAME_BYTES);
+		frame->actual_bytes = FRAME_BYTES;
+		frame->frame_format = UVC_FRAME_FORMAT_MJPEG;
+		frame->width = 640;
+		frame->height = 480;
+		frame->sequence = 1000 + i;
+		frame->capture_time.tv_sec = dtimes_us[i] / 1000000LL;
+		frame->capture_time.tv_usec = dtimes_us[i] % 1000000LL;
+		EXPECT_EQ(0, journal->append(frame));
+	}
+	uvc_free_frame(frame);
+	delete journal;
+}
+
+static bool wait_finished(ReplayPipeline *replay) {
+	uint64_t stats[REPLAY_STATS_NUM];
+	for (int i = 0; i < WAIT_TIMEOUT_MS; i++) {
+		EXPECT_EQ(0, replay->getStats(stats));
+		if (stats[REPLAY_STATS_FINISHED]) return true;
+		usleep(1000);
+	}
+	return false;
+}
+
+/**
+ * replay the source to the sink until the end of the source
+ */
+static void replay(const std::string &dir, const int &source_type, const bool &realtime, const int &fps,
+	SinkPipeline *sink, uint64_t *stats) {
+
+	ReplayPipeline *replay = new ReplayPipeline(dir.c_str(), source_type);
+	EXPECT_EQ(0, replay->setConfig(realtime, false, fps, RAW_WIDTH, RAW_HEIGHT));
+	EXPECT_EQ(0, replay->setPipeline(sink));
+	EXPECT_EQ(0, replay->start());
+	EXPECT(wait_finished(replay));
+	EXPECT_EQ(0, replay->getStats(stats));
+	replay->release();
+	EXPECT_EQ(PIPELINE_STATE_INITIALIZED, replay->getState());
+	delete replay;
+}
+
+//--------------------------------------------------------------------------------
+/**
+ * the read only journal keeps invalid segment files and refuses to write
+ */
+static void test_read_only_journal() {
+	const std::string dir = make_temp_dir();
+	const int64_t dtimes[] = { 0, 1000, 2000 };
+	write_journal(dir, dtimes, 3);
+	const std::string invalid = dir + "/000000ff.seg";
+	write_file(invalid, "broken", 6);
+
+	FrameJournal *journal = new FrameJournal(dir.c_str(), true, true);
+	EXPECT(exists(invalid));
+	uint64_t stats[JOURNAL_STATS_NUM];
+	EXPECT_EQ(0, journal->getStats(stats));
+	EXPECT_EQ(1, stats[JOURNAL_STATS_SEGMENTS]);
+	EXPECT_EQ(3, stats[JOURNAL_STATS_FRAMES]);
+
+	uvc_frame_t *frame = uvc_allocate_frame(FRAME_BYTES);
+	EXPECT_EQ(UVC_ERROR_NOT_SUPPORTED, journal->append(frame));
+	for (int i = 0; i < 3; i++) {
+		EXPECT_EQ(0, journal->readNext(frame));
+		EXPECT_EQ(1000 + i, frame->sequence);
+		EXPECT_EQ(i, ((uint8_t *)frame->data)[FRAME_BYTES - 1]);
+	}
+	EXPECT_EQ(1, journal->readNext(frame));
+	uvc_free_frame(frame);
+	journal->clear();
+	delete journal;
+	EXPECT(exists(invalid));
+	EXPECT(exists(dir + "/00000001.seg"));
+
+	// the writer deletes the invalid file as before
+	journal = new FrameJournal(dir.c_str(), false);
+	EXPECT(!exists(invalid));
+	delete journal;
+	remove_dir(dir);
+}
+
+/**
+ * replaying a journal passes all frames and leaves the journal as it is
+ */
+static void test_journal_reader() {
+	const std::string dir = make_temp_dir();
+	const int64_t dtimes[] = { 0, 1000, 2000, 3000, 4000 };
+	write_journal(dir, dtimes, 5);
+	const std::string invalid = dir + "/000000ff.seg";
+	write_file(invalid, "broken", 6);
+
+	SinkPipeline *sink = new SinkPipeline();
+	uint64_t stats[REPLAY_STATS_NUM];
+	replay(dir, REPLAY_SOURCE_JOURNAL, false, 0, sink, stats);
+	EXPECT_EQ(5, stats[REPLAY_STATS_FRAMES]);
+	EXPECT_EQ(0, stats[REPLAY_STATS_SKIPPED]);
+	EXPECT_EQ(0, stats[REPLAY_STATS_DROPPED]);
+	EXPECT_EQ(1, stats[REPLAY_STATS_FINISHED]);
+	EXPECT_EQ(5, sink->count());
+	for (size_t i = 0; i < sink->frames.size(); i++) {
+		const SinkPipeline::received_t &r = sink->frames[i];
+		EXPECT_EQ(i, r.tag);
+		EXPECT_EQ(FRAME_BYTES, r.bytes);
+		EXPECT_EQ(UVC_FRAME_FORMAT_MJPEG, r.format);
+		EXPECT_EQ(640, r.width);
+		EXPECT_EQ(480, r.height);
+		// re-numbered as if the frames came from the camera now
+		EXPECT_EQ(i + 1, r.sequence);
+	}
+	delete sink;
+
+	EXPECT(exists(invalid));
+	FrameJournal *journal = new FrameJournal(dir.c_str(), false, true);
+	uint64_t journal_stats[JOURNAL_STATS_NUM];
+	EXPECT_EQ(0, journal->getStats(journal_stats));
+	EXPECT_EQ(5, journal_stats[JOURNAL_STATS_FRAMES]);
+	delete journal;
+	remove_dir(dir);
+}
+
+/**
+ * replaying a directory of frame files takes the files in the order of the names,
+ * skips the files that are not frames and the files that can not be parsed
+ */
+static void test_file_reader() {
+	const std::string dir = make_temp_dir();
+	// SOI, SOF0 of 320x240, EOI
+	const uint8_t jpeg[] = {
+		0xff, 0xd8,
+		0xff, 0xc0, 0x00, 0x11, 0x08, 0x00, 0xf0, 0x01, 0x40, 0x03,
+		0x01, 0x22, 0x00, 0x02, 0x11, 0x01, 0x03, 0x11, 0x01,
+		0xff, 0xd9,
+	};
+	write_file(dir + "/0001.mjpg", jpeg, sizeof(jpeg));
+	std::vector<uint8_t> yuyv(RAW_WIDTH * RAW_HEIGHT * 2, 0x02);
+	write_file(dir + "/0002.yuyv", &yuyv[0], yuyv.size());
+	// not the size of the configured raw frame
+	write_file(dir + "/0003.yuv", &yuyv[0], yuyv.size() - 2);
+	// no SOFn marker
+	const uint8_t broken[] = { 0xff, 0xd8, 0xff, 0xd9 };
+	write_file(dir + "/0004.jpg", broken, sizeof(broken));
+	write_file(dir + "/0005.txt", "not a frame", 11);
+	write_file(dir + "/0006.JPEG", jpeg, sizeof(jpeg));
+
+	SinkPipeline *sink = new SinkPipeline();
+	uint64_t stats[REPLAY_STATS_NUM];
+	replay(dir, REPLAY_SOURCE_FILES, false, 0, sink, stats);
+	EXPECT_EQ(3, stats[REPLAY_STATS_FRAMES]);
+	EXPECT_EQ(2, stats[REPLAY_STATS_SKIPPED]);
+	EXPECT_EQ(1, stats[REPLAY_STATS_FINISHED]);
+	EXPECT_EQ(3, sink->count());
+	if (sink->frames.size() == 3) {
+		const SinkPipeline::received_t *r = &sink->frames[0];
+		EXPECT_EQ(UVC_FRAME_FORMAT_MJPEG, r->format);
+		EXPECT_EQ(sizeof(jpeg), r->bytes);
+		EXPECT_EQ(320, r->width);
+		EXPECT_EQ(240, r->height);
+		r = &sink->frames[1];
+		EXPECT_EQ(UVC_FRAME_FORMAT_YUYV, r->format);
+		EXPECT_EQ(yuyv.size(), r->bytes);
+		EXPECT_EQ(RAW_WIDTH, r->width);
+		EXPECT_EQ(RAW_HEIGHT, r->height);
+		EXPECT_EQ(RAW_WIDTH * 2, r->step);
+		EXPECT_EQ(0x02, r->tag);
+		r = &sink->frames[2];
+		EXPECT_EQ(UVC_FRAME_FORMAT_MJPEG, r->format);
+		EXPECT_EQ(320, r->width);
+	}
+	delete sink;
+	remove_dir(dir);
+}
+
+/**
+ * files are paced by the configured frame rate on realtime playback
+ */
+static void test_file_pacing() {
+	const std::string dir = make_temp_dir();
+	std::vector<uint8_t> yuyv(RAW_WIDTH * RAW_HEIGHT * 2);
+	for (int i = 0; i < 6; i++) {
+		char name[32];
+		snprintf(name, sizeof(name), "/%04d.yuyv", i);
+		memset(&yuyv[0], i, yuyv.size());
+		write_file(dir + name, &yuyv[0], yuyv.size());
+	}
+
+	SinkPipeline *sink = new SinkPipeline();
+	uint64_t stats[REPLAY_STATS_NUM];
+	replay(dir, REPLAY_SOURCE_FILES, true, 50, sink, stats);
+	EXPECT_EQ(6, stats[REPLAY_STATS_FRAMES]);
+	EXPECT_EQ(6, sink->count());
+	for (size_t i = 1; i < sink->frames.size(); i++) {
+		EXPECT_EQ(i, sink->frames[i].tag);
+		// 20msec per frame at 50fps
+		EXPECT(sink->frames[i].time_us - sink->frames[0].time_us >= int64_t(i) * 20000 - PACING_SLACK_US);
+	}
+	delete sink;
+	remove_dir(dir);
+}
+
+/**
+ * journal frames keep their recorded intervals, the interval restarts when the time stamp goes back
+ */
+static void test_journal_pacing() {
+	const std::string dir = make_temp_dir();
+	// the 4th frame goes back in time, e.g. the journal of another recording session
+	const int64_t dtimes[] = { 0, 30000, 60000, 10000, 40000 };
+	write_journal(dir, dtimes, 5);
+
+	SinkPipeline *sink = new SinkPipeline();
+	uint64_t stats[REPLAY_STATS_NUM];
+	replay(dir, REPLAY_SOURCE_JOURNAL, true, 0, sink, stats);
+	EXPECT_EQ(5, stats[REPLAY_STATS_FRAMES]);
+	EXPECT_EQ(5, sink->count());
+	if (sink->frames.size() == 5) {
+		const std::vector<SinkPipeline::received_t> &f = sink->frames;
+		EXPECT(f[1].time_us - f[0].time_us >= 30000 - PACING_SLACK_US);
+		EXPECT(f[2].time_us - f[0].time_us >= 60000 - PACING_SLACK_US);
+		// rebased at the 4th frame, the 5th frame waits the recorded 30msec after it
+		EXPECT(f[4].time_us - f[3].time_us >= 30000 - PACING_SLACK_US);
+	}
+	delete sink;
+	remove_dir(dir);
+}
+
+/**
+ * on realtime playback the frames that next pipeline refused are dropped, not retried
+ */
+static void test_realtime_drops() {
+	const std::string dir = make_temp_dir();
+	const int64_t dtimes[] = { 0, 1000, 2000 };
+	write_journal(dir, dtimes, 3);
+
+	SinkPipeline *sink = new SinkPipeline(true);
+	uint64_t stats[REPLAY_STATS_NUM];
+	replay(dir, REPLAY_SOURCE_JOURNAL, true, 0, sink, stats);
+	EXPECT_EQ(0, stats[REPLAY_STATS_FRAMES]);
+	EXPECT_EQ(3, stats[REPLAY_STATS_DROPPED]);
+	EXPECT_EQ(1, stats[REPLAY_STATS_FINISHED]);
+	delete sink;
+	remove_dir(dir);
+}
+
+int main(int argc, char *argv[]) {
+	RUN_TEST(test_read_only_journal);
+	RUN_TEST(test_journal_reader);
+	RUN_TEST(test_file_reader);
+	RUN_TEST(test_file_pacing);
+	RUN_TEST(test_journal_pacing);
+	RUN_TEST(test_realtime_drops);
+	return HOST_TEST_RESULT();
+}
@@ -0,0 +1,571 @@
+/*
+ * host test of the payload handling in libuvc/src/stream.c
+ * synthetic bulk and isochronous payload packets are fed into the stream handle
+ * and the frames that reach the frame callback are checked.
+ * libusb and the control requests are replaced by the stubs below, no USB device is needed.
+ */
+
+#include <stdlib.h>
+#include <stdint.h>
+#include <string.h>
+#include <unistd.h>
+#include <pthread.h>
+
+// count and optionally fail the allocations that stream.c makes
+static int malloc_calls = 0;
+static int malloc_failures = 0;
+static volatile int fail_malloc = 0;
+
+static void *test_malloc(size_t size) {
+	malloc_calls++;
+	if (fail_malloc) {
+		malloc_failures++;
+		return NULL;
+	}
+	return malloc(size);
+}
+
+#define malloc(size) test_malloc(size)
+#include "stream.c"
+#undef malloc
+
+#include "host_test.h"
+
+//--------------------------------------------------------------------------------
+// stubs of libusb and the libuvc functions that stream.c depends on
+//--------------------------------------------------------------------------------
+static int submitted_transfers = 0;
+static int allocated_transfers = 0;
+static int freed_transfers = 0;
+// libusb_submit_transfer fails when submitted_transfers reaches this, 0 means never
+static int fail_submit_at = 0;
+
+// transfers cancelled while the event thread is running, their callbacks are called on the event thread
+#define MAX_CANCELLED 32
+static pthread_mutex_t cancel_mutex = PTHREAD_MUTEX_INITIALIZER;
+static pthread_cond_t cancel_cond = PTHREAD_COND_INITIALIZER;
+static struct libusb_transfer *cancelled[MAX_CANCELLED];
+static int num_cancelled = 0;
+static int event_thread_running = 0;
+
+struct libusb_transfer *libusb_alloc_transfer(int iso_packets) {
+	allocated_transfers++;
+	return (struct libusb_transfer *)calloc(1, sizeof(struct libusb_transfer)
+		+ sizeof(struct libusb_iso_packet_descriptor) * iso_packets);
+}
+
+int libusb_submit_transfer(struct libusb_transfer *transfer) {
+	if (fail_submit_at && (submitted_transfers + 1 >= fail_submit_at)) {
+		return LIBUSB_ERROR_IO;
+	}
+	submitted_transfers++;
+	return LIBUSB_SUCCESS;
+}
+
+int libusb_cancel_transfer(struct libusb_transfer *transfer) {
+	pthread_mutex_lock(&cancel_mutex);
+	// _uvc_delete_transfer cancels the transfer that is already cancelled before freeing it
+	if (event_thread_running && (transfer->status != LIBUSB_TRANSFER_CANCELLED)
+		&& (num_cancelled < MAX_CANCELLED)) {
+
+		transfer->status = LIBUSB_TRANSFER_CANCELLED;
+		cancelled[num_cancelled++] = transfer;
+		pthread_cond_broadcast(&cancel_cond);
+	}
+	pthread_mutex_unlock(&cancel_mutex);
+	return LIBUSB_SUCCESS;
+}
+
+void libusb_free_transfer(struct libusb_transfer *transfer) {
+	freed_transfers++;
+	free(transfer);
+}
+
+/**
+ * call the callbacks of the cancelled transfers like the event handler thread of libusb
+ */
+static void *event_thread_func(void *arg) {
+	pthread_mutex_lock(&cancel_mutex);
+	for (; event_thread_running || num_cancelled; ) {
+		if (num_cancelled) {
+			struct libusb_transfer *transfer = cancelled[--num_cancelled];
+			pthread_mutex_unlock(&cancel_mutex);
+			transfer->callback(transfer);
+			pthread_mutex_lock(&cancel_mutex);
+		} else {
+			pthread_cond_wait(&cancel_cond, &cancel_mutex);
+		}
+	}
+	pthread_mutex_unlock(&cancel_mutex);
+	return NULL;
+}
+
+int libusb_set_interface_alt_setting(libusb_device_handle *dev,
+	int interface_number, int alternate_setting) {
+	return LIBUSB_SUCCESS;
+}
+
+int libusb_clear_halt(libusb_device_handle *dev, unsigned char endpoint) {
+	return LIBUSB_SUCCESS;
+}
+
+int libusb_control_transfer(libusb_device_handle *dev_handle,
+	uint8_t request_type, uint8_t bRequest, uint16_t wValue, uint16_t wIndex,
+	unsigned char *data, uint16_t wLength, unsigned int timeout) {
+	return LIBUSB_ERROR_NOT_SUPPORTED;
+}
+
+uvc_error_t uvc_claim_if(uvc_device_handle_t *devh, int idx) {
+	return UVC_SUCCESS;
+}
+
+uvc_error_t uvc_release_if(uvc_device_handle_t *devh, int idx) {
+	return UVC_SUCCESS;
+}
+
+uvc_error_t uvc_vs_get_error_code(uvc_device_handle_t *devh,
+		uvc_vs_error_code_control_t *error_code, enum uvc_req_code req_code) {
+	return UVC_ERROR_NOT_SUPPORTED;
+}
+
+void uvc_print_format_desc_one(uvc_format_desc_t *format_descriptors, FILE *stream) {
+}
+
+//--------------------------------------------------------------------------------
+#define TEST_WIDTH 32
+#define TEST_HEIGHT 8
+#define TEST_FRAME_BYTES (TEST_WIDTH * TEST_HEIGHT * 2)
+#define BULK_HEADER_BYTES 12
+#define ISO_HEADER_BYTES 2
+
+typedef struct stream_fixture {
+	uvc_device_handle_t devh;
+	uvc_device_info_t info;
+	uvc_streaming_interface_t stream_if;
+	uvc_format_desc_t format;
+	uvc_frame_desc_t frame_desc;
+	uvc_stream_handle_t strmh;
+} stream_fixture_t;
+
+/**
+ * set up a YUYV stream handle of TEST_WIDTH x TEST_HEIGHT
+ * without going through uvc_stream_open_ctrl/uvc_stream_start
+ */
+static void fixture_init(stream_fixture_t *fx, int zero_copy, size_t size_buf) {
+	memset(fx, 0, sizeof(*fx));
+	fx->devh.info = &fx->info;
+	fx->info.stream_ifs = &fx->stream_if;
+	fx->stream_if.prev = &fx->stream_if;
+	fx->stream_if.parent = &fx->info;
+	fx->stream_if.format_descs = &fx->format;
+	fx->format.prev = &fx->format;
+	fx->format.parent = &fx->stream_if;
+	fx->format.bFormatIndex = 1;
+	fx->format.frame_descs = &fx->frame_desc;
+	fx->frame_desc.prev = &fx->frame_desc;
+	fx->frame_desc.parent = &fx->format;
+	fx->frame_desc.bFrameIndex = 1;
+	fx->frame_desc.wWidth = TEST_WIDTH;
+	fx->frame_desc.wHeight = TEST_HEIGHT;
+	fx->frame_desc.dwMaxVideoFrameBufferSize = TEST_FRAME_BYTES;
+
+	uvc_stream_handle_t *strmh = &fx->strmh;
+	strmh->devh = &fx->devh;
+	strmh->stream_if = &fx->stream_if;
+	strmh->cur_ctrl.bFormatIndex = 1;
+	strmh->cur_ctrl.bFrameIndex = 1;
+	strmh->cur_ctrl.dwMaxVideoFrameSize = TEST_FRAME_BYTES;
+	strmh->frame_format = UVC_FRAME_FORMAT_YUYV;
+	strmh->zero_copy = zero_copy;
+	strmh->size_buf = size_buf;
+	strmh->outbuf = malloc(size_buf);
+	strmh->holdbuf = malloc(size_buf);
+	strmh->frame.library_owns_data = 1;
+	pthread_mutex_init(&strmh->cb_mutex, NULL);
+	pthread_cond_init(&strmh->cb_cond, NULL);
+}
+
+/**
+ * uvc_stream_start resets the sequence number to zero and the readers start from zero too,
+ * so the first frame is never handed to them. feed one before the readers look at the stream.
+ */
+static void fixture_skip_first_frame(stream_fixture_t *fx) {
+	uint8_t payload[BULK_HEADER_BYTES + 1] = { BULK_HEADER_BYTES, UVC_STREAM_EOH | UVC_STREAM_EOF };
+	_uvc_process_payload(&fx->strmh, payload, sizeof(payload));
+}
+
+static void fixture_release(stream_fixture_t *fx) {
+	uvc_stream_handle_t *strmh = &fx->strmh;
+	free(strmh->outbuf);
+	free(strmh->holdbuf);
+	free(strmh->frame.data);
+	pthread_cond_destroy(&strmh->cb_cond);
+	pthread_mutex_destroy(&strmh->cb_mutex);
+}
+
+static uint8_t pixel_value(int seed, size_t offset) {
+	return (uint8_t)(seed * 7 + offset);
+}
+
+static int frame_matches(const uint8_t *data, int seed, size_t bytes) {
+	size_t i;
+	for (i = 0; i < bytes; i++) {
+		if (data[i] != pixel_value(seed, i)) return 0;
+	}
+	return 1;
+}
+
+/**
+ * feed one frame as bulk payloads of at most max_data bytes of image data each
+ * @param eof set UVC_STREAM_EOF on the last payload
+ */
+static void send_bulk_frame(uvc_stream_handle_t *strmh, uint8_t fid, int seed,
+		size_t frame_bytes, size_t max_data, uint32_t pts, uint32_t scr, int eof) {
+	uint8_t payload[BULK_HEADER_BYTES + 1024];
+	size_t offset;
+	for (offset = 0; offset < frame_bytes; ) {
+		const size_t n = frame_bytes - offset < max_data ? frame_bytes - offset : max_data;
+		const int last = offset + n >= frame_bytes;
+		size_t i;
+		payload[0] = BULK_HEADER_BYTES;
+		payload[1] = UVC_STREAM_EOH | UVC_STREAM_PTS | UVC_STREAM_SCR | fid
+			| (last && eof ? UVC_STREAM_EOF : 0);
+		INT_TO_DW(pts, payload + 2);
+		INT_TO_DW(scr, payload + 6);
+		payload[10] = payload[11] = 0;
+		for (i = 0; i < n; i++) {
+			payload[BULK_HEADER_BYTES + i] = pixel_value(seed, offset + i);
+		}
+		_uvc_process_payload(strmh, payload, BULK_HEADER_BYTES + n);
+		offset += n;
+	}
+}
+
+/**
+ * build a completed isochronous transfer that carries frame_bytes of one frame
+ * in packets of packet_data bytes of image data
+ */
+static struct libusb_transfer *make_iso_transfer(uvc_stream_handle_t *strmh, uint8_t fid,
+		int seed, size_t frame_bytes, size_t packet_data) {
+	const int num_packets = (int)((frame_bytes + packet_data - 1) / packet_data);
+	const size_t packet_bytes = ISO_HEADER_BYTES + packet_data;
+	struct libusb_transfer *transfer = libusb_alloc_transfer(num_packets);
+	int i;
+	transfer->buffer = calloc(num_packets, packet_bytes);
+	transfer->length = (int)(num_packets * packet_bytes);
+	transfer->num_iso_packets = num_packets;
+	transfer->status = LIBUSB_TRANSFER_COMPLETED;
+	transfer->user_data = strmh;
+	for (i = 0; i < num_packets; i++) {
+		uint8_t *pkt = transfer->buffer + i * packet_bytes;
+		const size_t offset = i * packet_data;
+		const size_t n = frame_bytes - offset < packet_data ? frame_bytes - offset : packet_data;
+		size_t j;
+		pkt[0] = ISO_HEADER_BYTES;
+		pkt[1] = UVC_STREAM_EOH | fid | (i == num_packets - 1 ? UVC_STREAM_EOF : 0);
+		for (j = 0; j < n; j++) {
+			pkt[ISO_HEADER_BYTES + j] = pixel_value(seed, offset + j);
+		}
+		transfer->iso_packet_desc[i].length = (unsigned int)packet_bytes;
+		transfer->iso_packet_desc[i].actual_length = (unsigned int)(ISO_HEADER_BYTES + n);
+		transfer->iso_packet_desc[i].status = LIBUSB_TRANSFER_COMPLETED;
+	}
+	return transfer;
+}
+
+static void free_iso_transfer(struct libusb_transfer *transfer) {
+	free(transfer->buffer);
+	libusb_free_transfer(transfer);
+}
+
+//--------------------------------------------------------------------------------
+static void test_bulk_payloads_assemble_frame() {
+	stream_fixture_t fx;
+	fixture_init(&fx, 0, TEST_FRAME_BYTES);
+	uvc_stream_handle_t *strmh = &fx.strmh;
+
+	send_bulk_frame(strmh, 0, 1, TEST_FRAME_BYTES, 200, 0x12345678, 0x1abcdef0, 1);
+	EXPECT_EQ(TEST_FRAME_BYTES, strmh->hold_bytes);
+	EXPECT_EQ(0, strmh->hold_bfh_err);
+	EXPECT_EQ(0x12345678, strmh->hold_pts);
+	EXPECT_EQ(0x1abcdef0, strmh->hold_last_scr);
+	EXPECT_EQ(1, strmh->seq);
+	EXPECT(frame_matches(strmh->holdbuf, 1, TEST_FRAME_BYTES));
+
+	EXPECT_EQ(UVC_SUCCESS, _uvc_populate_frame(strmh));
+	uvc_frame_t *frame = &strmh->frame;
+	EXPECT(frame->data != strmh->holdbuf);
+	EXPECT_EQ(TEST_FRAME_BYTES, frame->actual_bytes);
+	EXPECT_EQ(TEST_WIDTH, frame->width);
+	EXPECT_EQ(TEST_HEIGHT, frame->height);
+	EXPECT_EQ(TEST_WIDTH * 2, frame->step);
+	EXPECT_EQ(0x12345678, frame->pts);
+	EXPECT(frame_matches(frame->data, 1, TEST_FRAME_BYTES));
+
+	fixture_release(&fx);
+}
+
+static void test_bulk_fid_toggle_publishes_frame() {
+	stream_fixture_t fx;
+	fixture_init(&fx, 0, TEST_FRAME_BYTES);
+	uvc_stream_handle_t *strmh = &fx.strmh;
+
+	// the camera did not send EOF for the first frame
+	send_bulk_frame(strmh, 0, 2, 300, 100, 1, 1, 0);
+	EXPECT_EQ(0, strmh->seq);
+	send_bulk_frame(strmh, UVC_STREAM_FID, 3, TEST_FRAME_BYTES, 256, 2, 2, 1);
+	EXPECT_EQ(2, strmh->seq);
+	EXPECT_EQ(TEST_FRAME_BYTES, strmh->hold_bytes);
+	EXPECT(frame_matches(strmh->holdbuf, 3, TEST_FRAME_BYTES));
+
+	fixture_release(&fx);
+}
+
+static void test_bulk_overflow_sets_error() {
+	stream_fixture_t fx;
+	// buffers smaller than the frame, the payloads must not be written past them
+	fixture_init(&fx, 1, TEST_FRAME_BYTES / 2);
+	uvc_stream_handle_t *strmh = &fx.strmh;
+
+	send_bulk_frame(strmh, 0, 4, TEST_FRAME_BYTES, 100, 0, 0, 1);
+	EXPECT(strmh->hold_bfh_err & UVC_STREAM_ERR);
+	EXPECT(strmh->hold_bytes <= TEST_FRAME_BYTES / 2);
+	EXPECT_EQ(0, strmh->bfh_err);
+
+	fixture_release(&fx);
+}
+
+static void test_zero_copy_hands_over_buffer() {
+	stream_fixture_t fx;
+	fixture_init(&fx, 1, TEST_FRAME_BYTES);
+	uvc_stream_handle_t *strmh = &fx.strmh;
+	uvc_frame_t *frame = &strmh->frame;
+
+	send_bulk_frame(strmh, 0, 5, TEST_FRAME_BYTES, 512, 0, 0, 1);
+	uint8_t *held = strmh->holdbuf;
+	EXPECT_EQ(UVC_SUCCESS, _uvc_populate_frame(strmh));
+	EXPECT(frame->data == held);
+	EXPECT(strmh->holdbuf && (strmh->holdbuf != held));
+	EXPECT_EQ(TEST_FRAME_BYTES, frame->data_bytes);
+	EXPECT(frame_matches(frame->data, 5, TEST_FRAME_BYTES));
+
+	// from the second frame on the buffers only rotate, nothing is allocated or copied
+	const int calls = malloc_calls;
+	send_bulk_frame(strmh, UVC_STREAM_FID, 6, TEST_FRAME_BYTES, 512, 0, 0, 1);
+	held = strmh->holdbuf;
+	uint8_t *prev = frame->data;
+	EXPECT_EQ(UVC_SUCCESS, _uvc_populate_frame(strmh));
+	EXPECT(frame->data == held);
+	EXPECT(strmh->holdbuf == prev);
+	EXPECT(frame_matches(frame->data, 6, TEST_FRAME_BYTES));
+	EXPECT_EQ(calls, malloc_calls);
+
+	fixture_release(&fx);
+}
+
+static void test_iso_payloads_bounds_check() {
+	stream_fixture_t fx;
+	fixture_init(&fx, 1, TEST_FRAME_BYTES);
+	uvc_stream_handle_t *strmh = &fx.strmh;
+	strmh->running = 1;
+
+	struct libusb_transfer *transfer = make_iso_transfer(strmh, 0, 7, TEST_FRAME_BYTES, 128);
+	const int submitted = submitted_transfers;
+	_uvc_stream_callback(transfer);
+	EXPECT_EQ(submitted + 1, submitted_transfers);
+	EXPECT_EQ(1, strmh->xfer_stats[UVC_XFER_STATS_COMPLETED]);
+	EXPECT_EQ(TEST_FRAME_BYTES, strmh->hold_bytes);
+	EXPECT_EQ(0, strmh->hold_bfh_err);
+	EXPECT(frame_matches(strmh->holdbuf, 7, TEST_FRAME_BYTES));
+	free_iso_transfer(transfer);
+
+	// 1.5 frames in a single frame, the rest must be dropped instead of overflowing the buffer
+	transfer = make_iso_transfer(strmh, UVC_STREAM_FID, 8, TEST_FRAME_BYTES * 3 / 2, 128);
+	_uvc_stream_callback(transfer);
+	EXPECT(strmh->hold_bfh_err & UVC_STREAM_ERR);
+	EXPECT(strmh->hold_bytes <= TEST_FRAME_BYTES);
+	free_iso_transfer(transfer);
+
+	fixture_release(&fx);
+}
+
+//--------------------------------------------------------------------------------
+typedef struct callback_state {
+	pthread_mutex_t mutex;
+	int calls;
+	int bad_frames;
+	int expected_seed;
+	int drop_buffer;
+} callback_state_t;
+
+static callback_state_t cb_state;
+
+static void frame_callback(uvc_frame_t *frame, void *user_ptr) {
+	callback_state_t *state = (callback_state_t *)user_ptr;
+	pthread_mutex_lock(&state->mutex);
+	{
+		state->calls++;
+		if (!frame->data || (frame->actual_bytes != TEST_FRAME_BYTES)
+			|| !frame_matches(frame->data, state->expected_seed, TEST_FRAME_BYTES)) {
+			state->bad_frames++;
+		}
+		if (state->drop_buffer) {
+			// behave like a consumer that took the buffer without leaving one
+			free(frame->data);
+			frame->data = NULL;
+			frame->data_bytes = 0;
+		}
+	}
+	pthread_mutex_unlock(&state->mutex);
+}
+
+static int callback_calls(void) {
+	int calls;
+	pthread_mutex_lock(&cb_state.mutex);
+	calls = cb_state.calls;
+	pthread_mutex_unlock(&cb_state.mutex);
+	return calls;
+}
+
+static int wait_for(int (*cond)(int), int arg) {
+	int i;
+	for (i = 0; i < 200; i++) {
+		if (cond(arg)) return 1;
+		usleep(5000);
+	}
+	return 0;
+}
+
+static int calls_reached(int calls) {
+	return callback_calls() >= calls;
+}
+
+static int malloc_failed(int failures) {
+	return malloc_failures >= failures;
+}
+
+static void test_callback_skipped_without_buffer() {
+	stream_fixture_t fx;
+	fixture_init(&fx, 1, TEST_FRAME_BYTES);
+	uvc_stream_handle_t *strmh = &fx.strmh;
+	pthread_t thread;
+
+	fixture_skip_first_frame(&fx);
+	memset(&cb_state, 0, sizeof(cb_state));
+	pthread_mutex_init(&cb_state.mutex, NULL);
+	strmh->user_cb = frame_callback;
+	strmh->user_ptr = &cb_state;
+	strmh->running = 1;
+	pthread_create(&thread, NULL, _uvc_user_caller, strmh);
+
+	cb_state.expected_seed = 9;
+	cb_state.drop_buffer = 1;
+	send_bulk_frame(strmh, 0, 9, TEST_FRAME_BYTES, 512, 0, 0, 1);
+	EXPECT(wait_for(calls_reached, 1));
+	EXPECT_EQ(0, cb_state.bad_frames);
+
+	// the frame has no buffer now and a new one can not be allocated
+	const int failures = malloc_failures;
+	fail_malloc = 1;
+	send_bulk_frame(strmh, UVC_STREAM_FID, 10, TEST_FRAME_BYTES, 512, 0, 0, 1);
+	EXPECT(wait_for(malloc_failed, failures + 1));
+	usleep(20000);
+	fail_malloc = 0;
+	EXPECT_EQ(1, callback_calls());
+
+	pthread_mutex_lock(&cb_state.mutex);
+	cb_state.expected_seed = 11;
+	cb_state.drop_buffer = 0;
+	pthread_mutex_unlock(&cb_state.mutex);
+	send_bulk_frame(strmh, 0, 11, TEST_FRAME_BYTES, 512, 0, 0, 1);
+	EXPECT(wait_for(calls_reached, 2));
+	EXPECT_EQ(2, callback_calls());
+	EXPECT_EQ(0, cb_state.bad_frames);
+
+	pthread_mutex_lock(&strmh->cb_mutex);
+	strmh->running = 0;
+	pthread_cond_broadcast(&strmh->cb_cond);
+	pthread_mutex_unlock(&strmh->cb_mutex);
+	pthread_join(thread, NULL);
+	pthread_mutex_destroy(&cb_state.mutex);
+
+	fixture_release(&fx);
+}
+
+static void test_polling_copies_frame() {
+	stream_fixture_t fx;
+	fixture_init(&fx, 0, TEST_FRAME_BYTES);
+	uvc_stream_handle_t *strmh = &fx.strmh;
+	uvc_frame_t *frame = NULL;
+
+	fixture_skip_first_frame(&fx);
+	strmh->running = 1;
+	EXPECT_EQ(UVC_SUCCESS, uvc_stream_get_frame(strmh, &frame, -1));
+	EXPECT(frame == NULL);
+	send_bulk_frame(strmh, 0, 12, TEST_FRAME_BYTES, 512, 0, 0, 1);
+	EXPECT_EQ(UVC_SUCCESS, uvc_stream_get_frame(strmh, &frame, -1));
+	EXPECT(frame && frame_matches(frame->data, 12, TEST_FRAME_BYTES));
+
+	fixture_release(&fx);
+}
+
+static void test_submit_failure_cleans_up() {
+	stream_fixture_t fx;
+	struct libusb_interface_descriptor altsetting;
+	struct libusb_interface intf;
+	struct libusb_config_descriptor config;
+	pthread_t event_thread;
+	int i;
+
+	fixture_init(&fx, 0, TEST_FRAME_BYTES);
+	uvc_stream_handle_t *strmh = &fx.strmh;
+	memcpy(fx.format.guidFormat, _get_format_entry(UVC_FRAME_FORMAT_YUYV)->guid, 16);
+	// one altsetting, bulk transfer
+	memset(&altsetting, 0, sizeof(altsetting));
+	memset(&intf, 0, sizeof(intf));
+	memset(&config, 0, sizeof(config));
+	intf.altsetting = &altsetting;
+	intf.num_altsetting = 1;
+	config.interface = &intf;
+	config.bNumInterfaces = 1;
+	fx.info.config = &config;
+	strmh->cur_ctrl.dwMaxPayloadTransferSize = 512;
+	strmh->xfer_config.num_transfers = 5;
+
+	allocated_transfers = freed_transfers = submitted_transfers = 0;
+	event_thread_running = 1;
+	pthread_create(&event_thread, NULL, event_thread_func, NULL);
+	// the third transfer fails, two transfers are in flight
+	fail_submit_at = 3;
+	EXPECT(uvc_stream_start_bandwidth(strmh, frame_callback, &cb_state, 0, 0) != UVC_SUCCESS);
+	fail_submit_at = 0;
+	pthread_mutex_lock(&cancel_mutex);
+	event_thread_running = 0;
+	pthread_cond_broadcast(&cancel_cond);
+	pthread_mutex_unlock(&cancel_mutex);
+	pthread_join(event_thread, NULL);
+
+	EXPECT_EQ(0, strmh->running);
+	EXPECT_EQ(2, submitted_transfers);
+	EXPECT_EQ(5, allocated_transfers);
+	EXPECT_EQ(5, freed_transfers);
+	for (i = 0; i < UVC_MAX_TRANSFER_BUFS; i++) {
+		EXPECT(strmh->transfers[i] == NULL);
+	}
+	// the stream is already stopped
+	EXPECT_EQ(UVC_ERROR_INVALID_PARAM, uvc_stream_stop(strmh));
+
+	fixture_release(&fx);
+}
+
+int main(int argc, char *argv[]) {
+	RUN_TEST(test_bulk_payloads_assemble_frame);
+	RUN_TEST(test_bulk_fid_toggle_publishes_frame);
+	RUN_TEST(test_bulk_overflow_sets_error);
+	RUN_TEST(test_zero_copy_hands_over_buffer);
+	RUN_TEST(test_iso_payloads_bounds_check);
+	RUN_TEST(test_callback_skipped_without_buffer);
+	RUN_TEST(test_polling_copies_frame);
+	RUN_TEST(test_submit_failure_cleans_up);
+	return HOST_TEST_RESULT();
+}
@@ -0,0 +1,412 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+
+package com.serenegiant.encoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+/**
+ * Ring buffer of already encoded video frames(h.264 access units) for pre-event recording(DVR mode).
+ * Encoder that is created with this ring writes encoded frames here instead of MediaMuxerWrapper
+ * and old frames are discarded per key frame interval(GOP) so that the oldest frame
+ * in this ring is always key frame.
+ * #triggerSave writes frames from specific seconds before the trigger to specific seconds after that
+ * to mp4 file through MediaMuxerWrapper on its private thread without blocking the encoder.
+ * Frame data is held in a direct ByteBuffer or in a memory mapped file when backing file is specified.
+ */
+public class EncodedFrameRing {
+	private static final boolean DEBUG = true;	// TODO set false on release
+	private static final String TAG = "EncodedFrameRing";
+
+	/**
+	 * key frame interval[sec] of encoders that write to this ring
+	 */
+	public static final int I_FRAME_INTERVAL = 1;
+	// parameters to estimate the capacity, these should be same as video encoders
+	private static final int FRAME_RATE = 15;
+	private static final float BPP = 0.50f;
+	/**
+	 * max frame rate to estimate the number of frames in this ring
+	 */
+	private static final int MAX_FRAME_RATE = 60;
+
+	public interface SaveListener {
+		/**
+		 * called when saving finished
+		 * @param output
+		 */
+		public void onSaved(File output);
+		/**
+		 * called when saving failed
+		 * @param output
+		 * @param e
+		 */
+		public void onError(File output, Exception e);
+	}
+
+	/**
+	 * estimate required capacity[bytes] to hold encoded frames of specific duration
+	 * @param width
+	 * @param height
+	 * @param durationSec
+	 * @return
+	 */
+	public static int estimateCapacity(final int width, final int height, final int durationSec) {
+		final long bitrate = (long)(BPP * FRAME_RATE * width * height);
+		// bitrate is not strict one, keep 1.5 times and an extra key frame interval
+		final long bytes = bitrate * (durationSec + I_FRAME_INTERVAL) * 3 / 16;
+		return (int)Math.min(bytes, Integer.MAX_VALUE);
+	}
+
+	private final long mDurationUs;
+	private final int mCapacity;
+	private final File mBackingFile;
+	private RandomAccessFile mRandomAccessFile;
+	private final ByteBuffer mBuffer;
+	// meta data of each frames, indexed as ring
+	private final int[] mOffsets, mSizes, mFlags;
+	private final long[] mPtsUs;
+	private final int mMaxFrames;
+	/**
+	 * index of the oldest frame
+	 */
+	private int mHead;
+	/**
+	 * number of frames in this ring
+	 */
+	private int mCount;
+	/**
+	 * sequence number of the oldest frame, sequence number increase monotonically
+	 */
+	private long mFirstSeq;
+	/**
+	 * byte offset to write next frame
+	 */
+	private int mWritePos;
+	private MediaFormat mFormat;
+	private MediaEncoder mEncoder;
+	private volatile boolean mIsRecording;
+	private boolean mReleased;
+
+	/**
+	 * Constructor
+	 * @param durationSec duration to keep in this ring[sec]
+	 * @param capacity max bytes to keep encoded frames, see #estimateCapacity
+	 * @param backingFile file to map the frame data, null to use direct ByteBuffer
+	 * @throws IOException
+	 */
+	public EncodedFrameRing(final int durationSec, final int capacity, final File backingFile) throws IOException {
+		if ((durationSec <= 0) || (capacity <= 0))
+			throw new IllegalArgumentException("invalid duration or capacity");
+		mDurationUs = durationSec * 1000000L;
+		mCapacity = capacity;
+		mBackingFile = backingFile;
+		if (backingFile != null) {
+			mRandomAccessFile = new RandomAccessFile(backingFile, "rw");
+			try {
+				mRandomAccessFile.setLength(capacity);
+				mBuffer = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			} catch (final IOException e) {
+				mRandomAccessFile.close();
+				throw e;
+			}
+		} else {
+			mBuffer = ByteBuffer.allocateDirect(capacity);
+		}
+		mMaxFrames = (durationSec + I_FRAME_INTERVAL) * MAX_FRAME_RATE;
+		mOffsets = new int[mMaxFrames];
+		mSizes = new int[mMaxFrames];
+		mFlags = new int[mMaxFrames];
+		mPtsUs = new long[mMaxFrames];
+	}
+
+	public void prepare() throws IOException {
+		if (mEncoder != null)
+			mEncoder.prepare();
+	}
+
+	public void startRecording() {
+		mIsRecording = true;
+		if (mEncoder != null)
+			mEncoder.startRecording();
+	}
+
+	public void stopRecording() {
+		if (mEncoder != null)
+			mEncoder.stopRecording();
+		mEncoder = null;
+		synchronized (this) {
+			mIsRecording = false;
+			notifyAll();
+		}
+	}
+
+	public boolean isRecording() {
+		return mIsRecording;
+	}
+
+	/**
+	 * release resources, saving that is in progress is terminated here.
+	 * The backing file is deleted here.
+	 */
+	public void release() {
+		stopRecording();
+		synchronized (this) {
+			if (mReleased) return;
+			mReleased = true;
+			mCount = 0;
+			notifyAll();
+		}
+		if (mRandomAccessFile != null) {
+			try {
+				mRandomAccessFile.close();
+			} catch (final IOException e) {
+				Log.w(TAG, e);
+			}
+			mRandomAccessFile = null;
+			if (!mBackingFile.delete()) {
+				Log.w(TAG, "failed to delete backing file:" + mBackingFile);
+			}
+		}
+	}
+
+	/**
+	 * save encoded frames from preSeconds before to postSeconds after now.
+	 * This returns immediately and frames are written on private thread.
+	 * Actual start point is the nearest key frame before the requested time(or the oldest frame).
+	 * @param output
+	 * @param preSeconds
+	 * @param postSeconds
+	 * @param listener nullable
+	 * @throws IllegalStateException there is no encoded frame yet
+	 */
+	public void triggerSave(final File output, final int preSeconds, final int postSeconds, final SaveListener listener) {
+		if ((preSeconds < 0) || (postSeconds < 0))
+			throw new IllegalArgumentException("invalid duration");
+		final MediaFormat format;
+		final long startSeq, endPtsUs;
+		synchronized (this) {
+			if ((mFormat == null) || (mCount == 0))
+				throw new IllegalStateException("no encoded frame");
+			format = mFormat;
+			final long triggerPtsUs = mPtsUs[index(mCount - 1)];
+			final long startPtsUs = triggerPtsUs - preSeconds * 1000000L;
+			int start = 0;	// the oldest frame is always key frame
+			for (int i = 1; i < mCount; i++) {
+				final int ix = index(i);
+				if (mPtsUs[ix] > startPtsUs) break;
+				if ((mFlags[ix] & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0)
+					start = i;
+			}
+			startSeq = mFirstSeq + start;
+			endPtsUs = triggerPtsUs + postSeconds * 1000000L;
+		}
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					save(output, format, startSeq, endPtsUs);
+					if (listener != null) listener.onSaved(output);
+				} catch (final Exception e) {
+					Log.w(TAG, "failed to save:" + output, e);
+					if (listener != null) listener.onError(output, e);
+				}
+			}
+		}, TAG).start();
+	}
+
+//**********************************************************************
+//**********************************************************************
+	/**
+	 * assign encoder to this class. this is called from encoder.
+	 * @param encoder
+	 */
+	/*package*/ void setEncoder(final MediaEncoder encoder) {
+		if (mEncoder != null)
+			throw new IllegalArgumentException("encoder already added.");
+		mEncoder = encoder;
+	}
+
+	/**
+	 * set output format of encoder, this is called from encoder
+	 * @param format
+	 */
+	/*package*/ synchronized void setFormat(final MediaFormat format) {
+		mFormat = format;
+	}
+
+	/**
+	 * add encoded frame, this is called from encoder.
+	 * Older frames are discarded per GOP when duration or capacity exceeds.
+	 * @param data
+	 * @param info
+	 */
+	/*package*/ synchronized void add(final ByteBuffer data, final MediaCodec.BufferInfo info) {
+		if (mReleased || (info.size <= 0)) return;
+		final boolean isKeyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+		if ((info.size > mCapacity) || ((mCount == 0) && !isKeyFrame)) {
+			// ring should start with key frame
+			if (DEBUG && (info.size > mCapacity)) Log.w(TAG, "add:frame is too large, size=" + info.size);
+			return;
+		}
+		// discard old frames to keep duration
+		for ( ; ; ) {
+			final int next = nextKeyFrame();
+			if ((next < 0) || (info.presentationTimeUs - mPtsUs[index(next)] < mDurationUs)) break;
+			discard(next);
+		}
+		// discard old frames until there is enough room
+		for ( ; ; ) {
+			if (mCount == 0) {
+				mWritePos = 0;
+				break;
+			}
+			if (mCount == mMaxFrames) {
+				discardGop();
+				continue;
+			}
+			final int head = mOffsets[mHead];
+			if (mWritePos > head) {
+				// free area is after the newest frame and before the oldest frame
+				if (mWritePos + info.size <= mCapacity) break;
+				if (info.size <= head) {
+					mWritePos = 0;
+					break;
+				}
+			} else if (mWritePos + info.size <= head) {
+				break;
+			}
+			discardGop();
+		}
+		if ((mCount == 0) && !isKeyFrame) return;
+		data.position(info.offset);
+		data.limit(info.offset + info.size);
+		mBuffer.clear();
+		mBuffer.position(mWritePos);
+		mBuffer.put(data);
+		final int ix = index(mCount);
+		mOffsets[ix] = mWritePos;
+		mSizes[ix] = info.size;
+		mFlags[ix] = info.flags;
+		mPtsUs[ix] = info.presentationTimeUs;
+		mCount++;
+		mWritePos += info.size;
+		notifyAll();
+	}
+
+	private int index(final int i) {
+		return (mHead + i) % mMaxFrames;
+	}
+
+	/**
+	 * search next key frame after the oldest one
+	 * @return relative index from the oldest frame, -1 if not found
+	 */
+	private int nextKeyFrame() {
+		for (int i = 1; i < mCount; i++) {
+			if ((mFlags[index(i)] & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * discard the oldest GOP
+	 */
+	private void discardGop() {
+		final int next = nextKeyFrame();
+		discard(next > 0 ? next : mCount);
+	}
+
+	private void discard(final int n) {
+		mHead = index(n);
+		mCount -= n;
+		mFirstSeq += n;
+	}
+
+	/**
+	 * write frames to the file, this is called on private thread
+	 * @param output
+	 * @param format
+	 * @param startSeq
+	 * @param endPtsUs
+	 * @throws IOException
+	 */
+	private void save(final File output, final MediaFormat format, final long startSeq, final long endPtsUs) throws IOException {
+		if (DEBUG) Log.v(TAG, "save:" + output);
+		final MediaMuxerWrapper muxer = new MediaMuxerWrapper(output);
+		muxer.addWriter();
+		final int trackIndex = muxer.addTrack(format);
+		muxer.start();
+		final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+		ByteBuffer buf = null;
+		long seq = startSeq;
+		try {
+			for ( ; ; ) {
+				synchronized (this) {
+					// wait for next frame
+					while (!mReleased && mIsRecording && (seq >= mFirstSeq + mCount)) {
+						try {
+							wait(100);
+						} catch (final InterruptedException e) {
+							break;
+						}
+					}
+					if (seq < mFirstSeq) {
+						// this never occur unless writing is slower than encoding
+						throw new IOException("frames were discarded before saving");
+					}
+					if (seq >= mFirstSeq + mCount) break;	// stopped
+					final int ix = index((int)(seq - mFirstSeq));
+					if (mPtsUs[ix] > endPtsUs) break;
+					final int size = mSizes[ix];
+					if ((buf == null) || (buf.capacity() < size)) {
+						buf = ByteBuffer.allocateDirect(size);
+					}
+					// copy frame data to release the lock soon
+					buf.clear();
+					final ByteBuffer src = mBuffer.duplicate();
+					src.position(mOffsets[ix]);
+					src.limit(mOffsets[ix] + size);
+					buf.put(src);
+					buf.flip();
+					info.set(0, size, mPtsUs[ix], mFlags[ix]);
+				}
+				muxer.writeSampleData(trackIndex, buf, info);
+				seq++;
+			}
+		} finally {
+			muxer.stop();
+		}
+		if (DEBUG) Log.v(TAG, "save:finished, frames=" + (seq - startSeq));
+	}
+}
@@ -26,16 +26,35 @@ package com.serenegiant.encoder;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 
+import android.annotation.TargetApi;
 import android.media.MediaCodec;
 import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
+import android.view.Surface;
 
 public abstract class MediaEncoder implements Runnable {
 	private static final boolean DEBUG = true;	// TODO set false on release
 	private static final String TAG = "MediaEncoder";
 
 	protected static final int TIMEOUT_USEC = 10000;	// 10[msec]
+	/**
+	 * max duration[msec] to wait for EOS from MediaCodec in asynchronous mode
+	 */
+	private static final long EOS_TIMEOUT_MS = 1000;
+	/**
+	 * max number of encoded data that are kept until the muxer starts in asynchronous mode
+	 */
+	private static final int MAX_PENDING_OUTPUT = 120;
+	/**
+	 * MediaCodec#setCallback(Callback, Handler) is available on API >= 23,
+	 * encoders work with callbacks instead of polling MediaCodec there
+	 */
+	private static final boolean ASYNC_AVAILABLE = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
 	protected static final int MSG_FRAME_AVAILABLE = 1;
 	protected static final int MSG_STOP_RECORDING = 9;
 
@@ -73,14 +92,53 @@ public abstract class MediaEncoder implements Runnable {
      * MediaCodec instance for encoding
      */
     protected MediaCodec mMediaCodec;				// API >= 16(Android4.1.2)
+    /**
+     * Flag that indicate presentationTimeUs passed to #encode is written to the muxer as is,
+     * otherwise it is replaced with the time when encoded data is written
+     */
+    protected boolean mUseInputPTS;
     /**
      * Weak refarence of MediaMuxerWarapper instance
      */
     protected final WeakReference<MediaMuxerWrapper> mWeakMuxer;
+    /**
+     * ring buffer that receives encoded data instead of the muxer
+     */
+    protected final EncodedFrameRing mRing;
     /**
      * BufferInfo instance for dequeuing
      */
     private MediaCodec.BufferInfo mBufferInfo;		// API >= 16(Android4.1.2)
+    /**
+     * Flag that indicate this encoder is driven by MediaCodec callbacks,
+     * otherwise the private thread polls MediaCodec
+     */
+    protected final boolean mAsync = ASYNC_AVAILABLE;
+    /**
+     * Handler of the private thread that receives MediaCodec callbacks in asynchronous mode
+     */
+    private Handler mAsyncHandler;
+    /**
+     * indices of input buffers that are available in asynchronous mode, guarded by mSync
+     */
+    private final ArrayDeque<Integer> mInputIndices = new ArrayDeque<Integer>();
+    /**
+     * Flag that EOS should be sent with next available input buffer, guarded by mSync
+     */
+    private boolean mPendingEOS;
+    /**
+     * Flag that indicate the encoder input is Surface
+     */
+    private boolean mSurfaceInput;
+    /**
+     * Flag that the track was added but the muxer has not started yet in asynchronous mode,
+     * only accessed on the private thread
+     */
+    private boolean mWaitMuxer;
+    /**
+     * copies of encoded data that came while mWaitMuxer is true, only accessed on the private thread
+     */
+    private final ArrayDeque<PendingOutput> mPendingOutput = new ArrayDeque<PendingOutput>();
 
     protected final MediaEncoderListener mListener;
 
@@ -88,8 +146,28 @@ public abstract class MediaEncoder implements Runnable {
     	if (listener == null) throw new NullPointerException("MediaEncoderListener is null");
     	if (muxer == null) throw new NullPointerException("MediaMuxerWrapper is null");
 		mWeakMuxer = new WeakReference<MediaMuxerWrapper>(muxer);
+		mRing = null;
 		muxer.addEncoder(this);
 		mListener = listener;
+		startEncoderThread();
+	}
+
+    /**
+     * Constructor to write encoded data to EncodedFrameRing instead of the muxer
+     * @param ring
+     * @param listener
+     */
+    public MediaEncoder(final EncodedFrameRing ring, final MediaEncoderListener listener) {
+    	if (listener == null) throw new NullPointerException("MediaEncoderListener is null");
+    	if (ring == null) throw new NullPointerException("EncodedFrameRing is null");
+		mWeakMuxer = null;
+		mRing = ring;
+		ring.setEncoder(this);
+		mListener = listener;
+		startEncoderThread();
+	}
+
+    private void startEncoderThread() {
         synchronized (mSync) {
             // create BufferInfo here for effectiveness(to reduce GC)
             mBufferInfo = new MediaCodec.BufferInfo();
@@ -103,7 +181,7 @@ public abstract class MediaEncoder implements Runnable {
 	}
 
     public String getOutputPath() {
-    	final MediaMuxerWrapper muxer = mWeakMuxer.get();
+    	final MediaMuxerWrapper muxer = mWeakMuxer != null ? mWeakMuxer.get() : null;
     	return muxer != null ? muxer.getOutputPath() : null;
     }
 
@@ -117,8 +195,11 @@ public abstract class MediaEncoder implements Runnable {
             if (!mIsCapturing || mRequestStop) {
                 return false;
             }
-            mRequestDrain++;
-            mSync.notifyAll();
+            if (!mAsync) {
+            	// encoded data is delivered by MediaCodec callbacks in asynchronous mode
+	            mRequestDrain++;
+	            mSync.notifyAll();
+            }
         }
         return true;
     }
@@ -129,6 +210,10 @@ public abstract class MediaEncoder implements Runnable {
 	@Override
 	public void run() {
 //		android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_URGENT_AUDIO);
+		if (mAsync) {
+			runAsync();
+			return;
+		}
         synchronized (mSync) {
             mRequestStop = false;
     		mRequestDrain = 0;
@@ -173,6 +258,28 @@ public abstract class MediaEncoder implements Runnable {
         }
 	}
 
+	/**
+	 * message loop of the private thread in asynchronous mode,
+	 * MediaCodec callbacks and the stop request are processed on this thread
+	 */
+	private void runAsync() {
+		Looper.prepare();
+        synchronized (mSync) {
+        	mAsyncHandler = new Handler();
+            mRequestStop = false;
+    		mRequestDrain = 0;
+            mSync.notify();
+        }
+        Looper.loop();
+		if (DEBUG) Log.d(TAG, "Encoder thread exiting");
+        synchronized (mSync) {
+        	mAsyncHandler = null;
+        	mRequestStop = true;
+            mIsCapturing = false;
+            mSync.notifyAll();
+        }
+	}
+
 	/*
     * prepareing method for each sub class
     * this method should be implemented in sub class, so set this as abstract method
@@ -200,6 +307,9 @@ public abstract class MediaEncoder implements Runnable {
 			}
 			mRequestStop = true;	// for rejecting newer frame
 			mSync.notifyAll();
+			if (mAsyncHandler != null) {
+				mAsyncHandler.post(mStopTask);
+			}
 	        // We can not know when the encoding and writing finish.
 	        // so we return immediately after request to avoid delay of caller thread
 		}
@@ -227,7 +337,7 @@ public abstract class MediaEncoder implements Runnable {
 				Log.e(TAG, "failed releasing MediaCodec", e);
 			}
         }
-        if (mMuxerStarted) {
+        if (mMuxerStarted && (mWeakMuxer != null)) {
        		final MediaMuxerWrapper muxer = mWeakMuxer.get();
        		if (muxer != null) {
        			try {
@@ -240,8 +350,44 @@ public abstract class MediaEncoder implements Runnable {
         mBufferInfo = null;
     }
 
+    /**
+     * create MediaCodec encoder and configure it, this should be called from #prepare of sub class.
+     * MediaCodec callbacks are set here in asynchronous mode
+     * because MediaCodec#setCallback should be called before MediaCodec#configure
+     * @param mimeType
+     * @param format
+     * @return
+     * @throws IOException
+     */
+    protected MediaCodec createEncoder(final String mimeType, final MediaFormat format) throws IOException {
+    	final MediaCodec codec = MediaCodec.createEncoderByType(mimeType);
+    	synchronized (mSync) {
+    		mInputIndices.clear();
+    		mPendingEOS = false;
+    	}
+    	mSurfaceInput = false;
+    	if (mAsync) {
+    		setAsyncCallback(codec);
+    	}
+    	codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+    	return codec;
+    }
+
+    /**
+     * get Surface for encoder input, this should be called between MediaCodec#configure and #start
+     * @return
+     */
+    protected Surface createInputSurface() {
+    	mSurfaceInput = true;
+    	return mMediaCodec.createInputSurface();	// API >= 18
+    }
+
     protected void signalEndOfInputStream() {
 		if (DEBUG) Log.d(TAG, "sending EOS to encoder");
+		if (mAsync) {
+			signalEndOfInputStreamAsync();
+			return;
+		}
         // signalEndOfInputStream is only avairable for video encoding with surface
         // and equivalent sending a empty buffer with BUFFER_FLAG_END_OF_STREAM flag.
 //		mMediaCodec.signalEndOfInputStream();	// API >= 18
@@ -258,6 +404,10 @@ public abstract class MediaEncoder implements Runnable {
 	protected void encode(final byte[] buffer, final int length, final long presentationTimeUs) {
 //    	if (DEBUG) Log.v(TAG, "encode:buffer=" + buffer);
     	if (!mIsCapturing) return;
+    	if (mAsync) {
+    		encodeAsync(buffer, null, length, presentationTimeUs);
+    		return;
+    	}
     	int ix = 0, sz;
         final ByteBuffer[] inputBuffers = mMediaCodec.getInputBuffers();
         while (mIsCapturing && ix < length) {
@@ -300,6 +450,10 @@ public abstract class MediaEncoder implements Runnable {
 	protected void encode(final ByteBuffer buffer, final int length, final long presentationTimeUs) {
 //    	if (DEBUG) Log.v(TAG, "encode:buffer=" + buffer);
     	if (!mIsCapturing) return;
+    	if (mAsync) {
+    		encodeAsync(null, buffer, length, presentationTimeUs);
+    		return;
+    	}
     	int ix = 0, sz;
         final ByteBuffer[] inputBuffers = mMediaCodec.getInputBuffers();
         while (mIsCapturing && ix < length) {
@@ -343,8 +497,8 @@ public abstract class MediaEncoder implements Runnable {
     	if (mMediaCodec == null) return;
         ByteBuffer[] encoderOutputBuffers = mMediaCodec.getOutputBuffers();
         int encoderStatus, count = 0;
-        final MediaMuxerWrapper muxer = mWeakMuxer.get();
-        if (muxer == null) {
+        final MediaMuxerWrapper muxer = mWeakMuxer != null ? mWeakMuxer.get() : null;
+        if ((muxer == null) && (mRing == null)) {
 //        	throw new NullPointerException("muxer is unexpectedly null");
         	Log.w(TAG, "muxer is unexpectedly null");
         	return;
@@ -368,25 +522,11 @@ LOOP:	while (mIsCapturing) {
                 // this should come only once before actual encoded data
             	// but this status never come on Android4.3 or less
             	// and in that case, you should treat when MediaCodec.BUFFER_FLAG_CODEC_CONFIG come.
-                if (mMuxerStarted) {	// second time request is error
-                    throw new RuntimeException("format changed twice");
-                }
 				// get output format from codec and pass them to muxer
 				// getOutputFormat should be called after INFO_OUTPUT_FORMAT_CHANGED otherwise crash.
-                final MediaFormat format = mMediaCodec.getOutputFormat(); // API >= 16
-               	mTrackIndex = muxer.addTrack(format);
-               	mMuxerStarted = true;
-               	if (!muxer.start()) {
-               		// we should wait until muxer is ready
-               		synchronized (muxer) {
-	               		while (!muxer.isStarted())
-						try {
-							muxer.wait(100);
-						} catch (final InterruptedException e) {
-							break LOOP;
-						}
-               		}
-               	}
+                if (!startMuxer(muxer, mMediaCodec.getOutputFormat())) {	// API >= 16
+                	break LOOP;
+                }
             } else if (encoderStatus < 0) {
             	// unexpected status
             	if (DEBUG) Log.w(TAG, "drain:unexpected result from encoder#dequeueOutputBuffer: " + encoderStatus);
@@ -396,26 +536,9 @@ LOOP:	while (mIsCapturing) {
                 	// this never should come...may be a MediaCodec internal error
                     throw new RuntimeException("encoderOutputBuffer " + encoderStatus + " was null");
                 }
-                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                	// You shoud set output format to muxer here when you target Android4.3 or less
-                	// but MediaCodec#getOutputFormat can not call here(because INFO_OUTPUT_FORMAT_CHANGED don't come yet)
-                	// therefor we should expand and prepare output format from buffer data.
-                	// This sample is for API>=18(>=Android 4.3), just ignore this flag here
-					if (DEBUG) Log.d(TAG, "drain:BUFFER_FLAG_CODEC_CONFIG");
-					mBufferInfo.size = 0;
-                }
-
-                if (mBufferInfo.size != 0) {
+                if (writeEncodedData(muxer, encodedData, mBufferInfo)) {
                 	// encoded data is ready, clear waiting counter
             		count = 0;
-                    if (!mMuxerStarted) {
-                    	// muxer is not ready...this will prrograming failure.
-                        throw new RuntimeException("drain:muxer hasn't started");
-                    }
-                    // write encoded data to muxer(need to adjust presentationTimeUs.
-                   	mBufferInfo.presentationTimeUs = getPTSUs();
-                   	muxer.writeSampleData(mTrackIndex, encodedData, mBufferInfo);
-					prevOutputPTSUs = mBufferInfo.presentationTimeUs;
                 }
                 // return buffer to encoder
                 mMediaCodec.releaseOutputBuffer(encoderStatus, false);
@@ -428,6 +551,382 @@ LOOP:	while (mIsCapturing) {
         }
     }
 
+    /**
+     * pass the output format to the muxer(or the ring buffer) and wait until the muxer starts,
+     * only for the synchronous mode, see #startMuxerAsync for asynchronous mode
+     * @param muxer null when writing to the ring buffer
+     * @param format
+     * @return false if interrupted while waiting
+     */
+    private boolean startMuxer(final MediaMuxerWrapper muxer, final MediaFormat format) {
+        if (mMuxerStarted) {	// second time request is error
+            throw new RuntimeException("format changed twice");
+        }
+        if (muxer == null) {
+        	// write to the ring buffer, it is always ready to write
+        	mRing.setFormat(format);
+        	mMuxerStarted = true;
+        	return true;
+        }
+       	mTrackIndex = muxer.addTrack(format);
+       	mMuxerStarted = true;
+       	if (!muxer.start()) {
+       		// we should wait until muxer is ready, MediaMuxerWrapper#start notifies when it started
+       		synchronized (muxer) {
+           		while (!muxer.isStarted())
+				try {
+					muxer.wait(100);
+				} catch (final InterruptedException e) {
+					return false;
+				}
+       		}
+       	}
+       	return true;
+    }
+
+    /**
+     * write encoded data to the muxer(or the ring buffer)
+     * @param muxer null when writing to the ring buffer
+     * @param encodedData
+     * @param info
+     * @return true if the data was written
+     */
+    private boolean writeEncodedData(final MediaMuxerWrapper muxer,
+    	final ByteBuffer encodedData, final MediaCodec.BufferInfo info) {
+
+    	if (!prepareEncodedData(info)) {
+    		return false;
+    	}
+       	if (muxer != null) {
+       		muxer.writeSampleData(mTrackIndex, encodedData, info);
+       	} else {
+       		mRing.add(encodedData, info);
+       	}
+		return true;
+    }
+
+    /**
+     * check the encoded data and adjust its presentationTimeUs before writing it
+     * @param info
+     * @return false if there is nothing to write
+     */
+    private boolean prepareEncodedData(final MediaCodec.BufferInfo info) {
+        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+        	// You shoud set output format to muxer here when you target Android4.3 or less
+        	// but MediaCodec#getOutputFormat can not call here(because INFO_OUTPUT_FORMAT_CHANGED don't come yet)
+        	// therefor we should expand and prepare output format from buffer data.
+        	// This sample is for API>=18(>=Android 4.3), just ignore this flag here
+			if (DEBUG) Log.d(TAG, "drain:BUFFER_FLAG_CODEC_CONFIG");
+			info.size = 0;
+        }
+        if (info.size == 0) {
+        	return false;
+        }
+        if (!mMuxerStarted) {
+        	// muxer is not ready...this will prrograming failure.
+            throw new RuntimeException("drain:muxer hasn't started");
+        }
+        // write encoded data to muxer(need to adjust presentationTimeUs.
+       	if (!mUseInputPTS) {
+       		info.presentationTimeUs = getPTSUs();
+       	} else if (info.presentationTimeUs < prevOutputPTSUs) {
+       		// presentationTimeUs should be monotonic
+       		info.presentationTimeUs = prevOutputPTSUs;
+       	}
+		prevOutputPTSUs = info.presentationTimeUs;
+		return true;
+    }
+
+//********************************************************************************
+// asynchronous mode
+//********************************************************************************
+    @TargetApi(Build.VERSION_CODES.M)
+    private void setAsyncCallback(final MediaCodec codec) {
+    	codec.setCallback(new AsyncCallback(), mAsyncHandler);
+    }
+
+    /**
+     * MediaCodec callbacks, these are called on the private thread
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private class AsyncCallback extends MediaCodec.Callback {
+		@Override
+		public void onInputBufferAvailable(final MediaCodec codec, final int index) {
+			if (codec != mMediaCodec) return;
+			synchronized (mSync) {
+				if (mPendingEOS) {
+					mPendingEOS = false;
+					queueEndOfStream(codec, index);
+					return;
+				}
+				mInputIndices.add(index);
+				mSync.notifyAll();
+			}
+		}
+
+		@Override
+		public void onOutputBufferAvailable(final MediaCodec codec, final int index, final MediaCodec.BufferInfo info) {
+			if (codec != mMediaCodec) return;
+	        final MediaMuxerWrapper muxer = mWeakMuxer != null ? mWeakMuxer.get() : null;
+	        if ((muxer != null) || (mRing != null)) {
+	        	final ByteBuffer encodedData = codec.getOutputBuffer(index);
+	        	if (encodedData != null) {
+	        		if (mWaitMuxer) {
+	        			queueEncodedData(encodedData, info);
+	        		} else {
+	        			writeEncodedData(muxer, encodedData, info);
+	        		}
+	        	}
+	        } else {
+	        	Log.w(TAG, "muxer is unexpectedly null");
+	        }
+			codec.releaseOutputBuffer(index, false);
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            	if (DEBUG) Log.d(TAG, "onOutputBufferAvailable:EOS");
+            	// the muxer may have started after the last flush was posted
+            	flushPendingOutput();
+            	finishAsync();
+            }
+		}
+
+		@Override
+		public void onOutputFormatChanged(final MediaCodec codec, final MediaFormat format) {
+			if (codec != mMediaCodec) return;
+        	if (DEBUG) Log.v(TAG, "onOutputFormatChanged:" + format);
+	        final MediaMuxerWrapper muxer = mWeakMuxer != null ? mWeakMuxer.get() : null;
+	        if ((muxer == null) && (mRing == null)) {
+	        	Log.w(TAG, "muxer is unexpectedly null");
+	        	return;
+	        }
+	        startMuxerAsync(muxer, format);
+		}
+
+		@Override
+		public void onError(final MediaCodec codec, final MediaCodec.CodecException e) {
+			if (codec != mMediaCodec) return;
+			Log.e(TAG, "onError:", e);
+			synchronized (mSync) {
+				mRequestStop = true;
+			}
+			finishAsync();
+		}
+    }
+
+    /**
+     * stop request in asynchronous mode, send EOS and wait for it
+     */
+    private final Runnable mStopTask = new Runnable() {
+		@Override
+		public void run() {
+			if ((mMediaCodec == null) || !mIsCapturing) {
+				finishAsync();
+				return;
+			}
+			try {
+				signalEndOfInputStream();
+			} catch (final Exception e) {
+				Log.w(TAG, "failed to send EOS", e);
+				finishAsync();
+				return;
+			}
+			// release the encoder even if EOS does not come back
+			mAsyncHandler.postDelayed(mFinishTask, EOS_TIMEOUT_MS);
+		}
+	};
+
+    private final Runnable mFinishTask = new Runnable() {
+		@Override
+		public void run() {
+			if (DEBUG) Log.w(TAG, "EOS timeout");
+			finishAsync();
+		}
+	};
+
+	/**
+	 * release the encoder and quit the private thread, this should be called on the private thread
+	 */
+	private void finishAsync() {
+		if (DEBUG) Log.v(TAG, "finishAsync:");
+		mAsyncHandler.removeCallbacks(mStopTask);
+		mAsyncHandler.removeCallbacks(mFinishTask);
+		synchronized (mSync) {
+			mRequestStop = true;
+			mIsCapturing = false;
+			mInputIndices.clear();
+			mPendingEOS = false;
+			// wake up threads that are waiting for input buffers
+			mSync.notifyAll();
+		}
+		if (!mPendingOutput.isEmpty()) {
+			Log.w(TAG, "muxer did not start, drop " + mPendingOutput.size() + " encoded data");
+			mPendingOutput.clear();
+		}
+		mWaitMuxer = false;
+		release();
+		Looper.myLooper().quit();
+	}
+
+	/**
+	 * send EOS, this is called on the private thread so this should not wait for input buffer
+	 */
+	private void signalEndOfInputStreamAsync() {
+		mIsEOS = true;
+		if (mSurfaceInput) {
+			mMediaCodec.signalEndOfInputStream();	// API >= 18
+			return;
+		}
+		synchronized (mSync) {
+			final Integer index = mInputIndices.poll();
+			if (index != null) {
+				queueEndOfStream(mMediaCodec, index);
+			} else {
+				mPendingEOS = true;
+			}
+		}
+	}
+
+	private void queueEndOfStream(final MediaCodec codec, final int index) {
+    	if (DEBUG) Log.i(TAG, "send BUFFER_FLAG_END_OF_STREAM");
+		codec.queueInputBuffer(index, 0, 0, getPTSUs(), MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+	}
+
+	/**
+	 * pass the output format to the muxer(or the ring buffer) without waiting for the muxer to start
+	 * because this is called on the private thread that receives MediaCodec callbacks.
+	 * encoded data is queued until MediaMuxerWrapper calls #onMuxerStarted
+	 * @param muxer null when writing to the ring buffer
+	 * @param format
+	 */
+	private void startMuxerAsync(final MediaMuxerWrapper muxer, final MediaFormat format) {
+        if (mMuxerStarted) {	// second time request is error
+            throw new RuntimeException("format changed twice");
+        }
+        if (muxer == null) {
+        	mRing.setFormat(format);
+        	mMuxerStarted = true;
+        	return;
+        }
+       	mTrackIndex = muxer.addTrack(format);
+       	mMuxerStarted = true;
+       	mWaitMuxer = !muxer.start();
+	}
+
+	/**
+	 * called by MediaMuxerWrapper when the muxer started, this may be called on any thread
+	 */
+	/*package*/ void onMuxerStarted() {
+		synchronized (mSync) {
+			if (mAsync && (mAsyncHandler != null)) {
+				mAsyncHandler.post(mFlushTask);
+			}
+		}
+	}
+
+	private final Runnable mFlushTask = new Runnable() {
+		@Override
+		public void run() {
+			flushPendingOutput();
+		}
+	};
+
+	/**
+	 * copy encoded data to write it after the muxer started, the codec buffer can be released soon
+	 */
+	private void queueEncodedData(final ByteBuffer encodedData, final MediaCodec.BufferInfo info) {
+		if (!prepareEncodedData(info)) {
+			return;
+		}
+		if (mPendingOutput.size() >= MAX_PENDING_OUTPUT) {
+			Log.w(TAG, "muxer has not started yet, drop encoded data");
+			return;
+		}
+		mPendingOutput.add(new PendingOutput(encodedData, info));
+	}
+
+	/**
+	 * write queued encoded data if the muxer started, this should be called on the private thread
+	 */
+	private void flushPendingOutput() {
+		if (!mWaitMuxer) return;
+		final MediaMuxerWrapper muxer = mWeakMuxer != null ? mWeakMuxer.get() : null;
+		if ((muxer == null) || !muxer.isStarted()) return;
+		mWaitMuxer = false;
+		if (DEBUG) Log.v(TAG, "flushPendingOutput:" + mPendingOutput.size());
+		for (PendingOutput output = mPendingOutput.poll(); output != null; output = mPendingOutput.poll()) {
+			muxer.writeSampleData(mTrackIndex, output.data, output.info);
+		}
+	}
+
+	private static final class PendingOutput {
+		private final ByteBuffer data;
+		private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+		private PendingOutput(final ByteBuffer encodedData, final MediaCodec.BufferInfo src) {
+			data = ByteBuffer.allocate(src.size);
+			encodedData.position(src.offset);
+			encodedData.limit(src.offset + src.size);
+			data.put(encodedData);
+			data.flip();
+			info.set(0, src.size, src.presentationTimeUs, src.flags);
+		}
+	}
+
+	/**
+	 * wait for available input buffer in asynchronous mode
+	 * @return -1 if the encoder is not capturing
+	 */
+	private int dequeueInputIndex() {
+		synchronized (mSync) {
+			while (mIsCapturing && mInputIndices.isEmpty()) {
+				try {
+					mSync.wait();
+				} catch (final InterruptedException e) {
+					return -1;
+				}
+			}
+			final Integer index = mInputIndices.poll();
+			return mIsCapturing && (index != null) ? index : -1;
+		}
+	}
+
+	/**
+	 * set byte array or ByteBuffer to the MediaCodec encoder in asynchronous mode,
+	 * this waits on mSync until MediaCodec notifies available input buffer instead of polling
+	 * @param bytes
+	 * @param buffer used when bytes is null
+	 * @param length
+	 * @param presentationTimeUs
+	 */
+    @TargetApi(Build.VERSION_CODES.M)
+	private void encodeAsync(final byte[] bytes, final ByteBuffer buffer,
+		final int length, final long presentationTimeUs) {
+
+    	int ix = 0, sz;
+		try {
+	    	while (mIsCapturing && (ix < length)) {
+	    		final int index = dequeueInputIndex();
+	    		final MediaCodec codec = mMediaCodec;
+	    		if ((index < 0) || (codec == null)) break;
+	    		final ByteBuffer inputBuffer = codec.getInputBuffer(index);
+	    		inputBuffer.clear();
+	            sz = inputBuffer.remaining();
+	            sz = (ix + sz < length) ? sz : length - ix;
+	            if (bytes != null) {
+	            	inputBuffer.put(bytes, ix, sz);
+	            } else if (buffer != null) {
+	            	buffer.limit(ix + sz);
+	            	buffer.position(ix);
+	            	inputBuffer.put(buffer);
+	            }
+	            ix += sz;
+	            codec.queueInputBuffer(index, 0, sz, presentationTimeUs, 0);
+	    	}
+		} catch (final IllegalStateException e) {
+			// MediaCodec was stopped while queueing
+			if (DEBUG) Log.w(TAG, "encodeAsync:", e);
+		}
+    }
+
     /**
      * previous presentationTimeUs for writing
      */
@@ -67,6 +67,18 @@ public class MediaMuxerWrapper {
 		mIsStarted = false;
 	}
 
+	/**
+	 * Constructor
+	 * @param output output file
+	 * @throws IOException
+	 */
+	public MediaMuxerWrapper(final File output) throws IOException {
+		mOutputPath = output.toString();
+		mMediaMuxer = new MediaMuxer(mOutputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+		mEncoderCount = mStatredCount = 0;
+		mIsStarted = false;
+	}
+
 	public String getOutputPath() {
 		return mOutputPath;
 	}
@@ -126,6 +138,14 @@ public class MediaMuxerWrapper {
 		mEncoderCount = (mVideoEncoder != null ? 1 : 0) + (mAudioEncoder != null ? 1 : 0);
 	}
 
+	/**
+	 * assign writer that writes already encoded data instead of encoder like EncodedFrameRing,
+	 * the writer should call #addTrack, #start, #writeSampleData and #stop like encoders.
+	 */
+	/*package*/ synchronized void addWriter() {
+		mEncoderCount++;
+	}
+
 	/**
 	 * request start recording from encoder
 	 * @return true when muxer is ready to write
@@ -137,6 +157,11 @@ public class MediaMuxerWrapper {
 			mMediaMuxer.start();
 			mIsStarted = true;
 			notifyAll();
+			// encoders in asynchronous mode don't wait, let them write the queued data
+			if (mVideoEncoder != null)
+				mVideoEncoder.onMuxerStarted();
+			if (mAudioEncoder != null)
+				mAudioEncoder.onMuxerStarted();
 			if (DEBUG) Log.v(TAG,  "MediaMuxer started:");
 		}
 		return mIsStarted;
@@ -25,7 +25,6 @@ package com.serenegiant.encoder;
 
 import java.io.IOException;
 
-import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaCodecList;
 import android.media.MediaFormat;
@@ -39,6 +38,7 @@ public class MediaSurfaceEncoder extends MediaEncoder implements IVideoEncoder {
 	private static final String MIME_TYPE = "video/avc";
 	// parameters for recording
 	private final int mWidth, mHeight;
+	private final int mIFrameInterval;
     private static final int FRAME_RATE = 15;
     private static final float BPP = 0.50f;
 
@@ -49,6 +49,24 @@ public class MediaSurfaceEncoder extends MediaEncoder implements IVideoEncoder {
 		if (DEBUG) Log.i(TAG, "MediaVideoEncoder: ");
 		mWidth = width;
 		mHeight = height;
+		mIFrameInterval = 10;
+	}
+
+	/**
+	 * Constructor for pre-event recording, encoded frames are written to the ring buffer.
+	 * This uses short key frame interval so that the ring buffer can be trimmed/saved
+	 * on finer key frame boundary.
+	 * @param ring
+	 * @param width
+	 * @param height
+	 * @param listener
+	 */
+	public MediaSurfaceEncoder(final EncodedFrameRing ring, final int width, final int height, final MediaEncoderListener listener) {
+		super(ring, listener);
+		if (DEBUG) Log.i(TAG, "MediaVideoEncoder: ");
+		mWidth = width;
+		mHeight = height;
+		mIFrameInterval = EncodedFrameRing.I_FRAME_INTERVAL;
 	}
 
 	/**
@@ -75,14 +93,13 @@ public class MediaSurfaceEncoder extends MediaEncoder implements IVideoEncoder {
         format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);	// API >= 18
         format.setInteger(MediaFormat.KEY_BIT_RATE, calcBitRate());
         format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
-        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 10);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, mIFrameInterval);
 		if (DEBUG) Log.i(TAG, "format: " + format);
 
-        mMediaCodec = MediaCodec.createEncoderByType(MIME_TYPE);
-        mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        mMediaCodec = createEncoder(MIME_TYPE, format);
         // get Surface for encoder input
         // this method only can call between #configure and #start
-        mSurface = mMediaCodec.createInputSurface();	// API >= 18
+        mSurface = createInputSurface();	// API >= 18
         mMediaCodec.start();
         if (DEBUG) Log.i(TAG, "prepare finishing");
         if (mListener != null) {
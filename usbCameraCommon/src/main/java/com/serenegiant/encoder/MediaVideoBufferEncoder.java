@@ -27,7 +27,6 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 import android.annotation.TargetApi;
-import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaCodecList;
 import android.media.MediaFormat;
@@ -50,6 +49,7 @@ public class MediaVideoBufferEncoder extends MediaEncoder implements IVideoEncod
     private static final float BPP = 0.50f;
 
 	private final int mWidth, mHeight;
+	private final int mIFrameInterval;
     protected int mColorFormat;
 
 	public MediaVideoBufferEncoder(final MediaMuxerWrapper muxer, final int width, final int height, final MediaEncoderListener listener) {
@@ -57,14 +57,46 @@ public class MediaVideoBufferEncoder extends MediaEncoder implements IVideoEncod
 		if (DEBUG) Log.i(TAG, "MediaVideoEncoder: ");
 		mWidth = width;
 		mHeight = height;
+		mIFrameInterval = 10;
+		// frames have their own presentation time
+		mUseInputPTS = true;
+	}
+
+	/**
+	 * Constructor for pre-event recording, encoded frames are written to the ring buffer.
+	 * This uses short key frame interval so that the ring buffer can be trimmed/saved
+	 * on finer key frame boundary.
+	 * @param ring
+	 * @param width
+	 * @param height
+	 * @param listener
+	 */
+	public MediaVideoBufferEncoder(final EncodedFrameRing ring, final int width, final int height, final MediaEncoderListener listener) {
+		super(ring, listener);
+		if (DEBUG) Log.i(TAG, "MediaVideoEncoder: ");
+		mWidth = width;
+		mHeight = height;
+		mIFrameInterval = EncodedFrameRing.I_FRAME_INTERVAL;
+		// frames have their own presentation time
+		mUseInputPTS = true;
 	}
 
 	public void encode(final ByteBuffer buffer) {
+		encode(buffer, getPTSUs());
+    }
+
+	/**
+	 * encode frame data with its presentation time
+	 * @param buffer
+	 * @param presentationTimeUs this should have same time base as System.nanoTime() / 1000
+	 * like the value passed to IFrameMetadataCallback#onFrame to keep sync with audio
+	 */
+	public void encode(final ByteBuffer buffer, final long presentationTimeUs) {
 //    	if (DEBUG) Log.v(TAG, "encode:buffer=" + buffer);
 		synchronized (mSync) {
 			if (!mIsCapturing || mRequestStop) return;
 		}
-		encode(buffer, buffer.capacity(), getPTSUs());
+		encode(buffer, buffer.capacity(), presentationTimeUs);
     }
 
 	@Override
@@ -84,11 +116,10 @@ public class MediaVideoBufferEncoder extends MediaEncoder implements IVideoEncod
         format.setInteger(MediaFormat.KEY_COLOR_FORMAT, mColorFormat);
         format.setInteger(MediaFormat.KEY_BIT_RATE, calcBitRate());
         format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
-        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 10);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, mIFrameInterval);
 		if (DEBUG) Log.i(TAG, "format: " + format);
 
-        mMediaCodec = MediaCodec.createEncoderByType(MIME_TYPE);
-        mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        mMediaCodec = createEncoder(MIME_TYPE, format);
         mMediaCodec.start();
         if (DEBUG) Log.i(TAG, "prepare finishing");
         if (mListener != null) {
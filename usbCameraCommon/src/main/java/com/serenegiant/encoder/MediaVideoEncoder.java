@@ -25,7 +25,6 @@ package com.serenegiant.encoder;
 
 import java.io.IOException;
 
-import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaCodecList;
 import android.media.MediaFormat;
@@ -102,11 +101,10 @@ public class MediaVideoEncoder extends MediaEncoder implements IVideoEncoder {
         format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 10);
 		if (DEBUG) Log.i(TAG, "format: " + format);
 
-        mMediaCodec = MediaCodec.createEncoderByType(MIME_TYPE);
-        mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        mMediaCodec = createEncoder(MIME_TYPE, format);
         // get Surface for encoder input
         // this method only can call between #configure and #start
-        mSurface = mMediaCodec.createInputSurface();	// API >= 18
+        mSurface = createInputSurface();	// API >= 18
         mMediaCodec.start();
         if (DEBUG) Log.i(TAG, "prepare finishing");
         if (mListener != null) {
@@ -40,6 +40,7 @@ import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 
+import com.serenegiant.encoder.EncodedFrameRing;
 import com.serenegiant.encoder.MediaAudioEncoder;
 import com.serenegiant.encoder.MediaEncoder;
 import com.serenegiant.encoder.MediaMuxerWrapper;
@@ -47,8 +48,10 @@ import com.serenegiant.encoder.MediaSurfaceEncoder;
 import com.serenegiant.encoder.MediaVideoBufferEncoder;
 import com.serenegiant.encoder.MediaVideoEncoder;
 import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.usb.IFrameMetadataCallback;
 import com.serenegiant.usb.USBMonitor;
 import com.serenegiant.usb.UVCCamera;
+import com.serenegiant.usb.UVCControlWriter;
 import com.serenegiant.widget.CameraViewInterface;
 
 import java.io.BufferedOutputStream;
@@ -89,6 +92,9 @@ abstract class AbstractUVCCameraHandler extends Handler {
 	private static final int MSG_CAPTURE_STOP = 6;
 	private static final int MSG_MEDIA_UPDATE = 7;
 	private static final int MSG_RELEASE = 9;
+	private static final int MSG_DVR_START = 10;
+	private static final int MSG_DVR_STOP = 11;
+	private static final int MSG_DVR_SAVE = 12;
 
 	private final WeakReference<AbstractUVCCameraHandler.CameraThread> mWeakThread;
 	private volatile boolean mReleased;
@@ -212,6 +218,41 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		sendEmptyMessage(MSG_CAPTURE_STOP);
 	}
 
+	/**
+	 * start pre-event recording(DVR mode), encoded frames of recent bufferSeconds are kept in memory
+	 * and they can be saved with #triggerSave. This can run with/without #startRecording
+	 * @param bufferSeconds
+	 * @param backingFile file to map the ring buffer, null to keep them in memory
+	 */
+	public void startDvr(final int bufferSeconds, final File backingFile) {
+		checkReleased();
+		if (bufferSeconds <= 0) throw new IllegalArgumentException("invalid buffer duration");
+		sendMessage(obtainMessage(MSG_DVR_START, bufferSeconds, 0, backingFile));
+	}
+
+	public void stopDvr() {
+		sendEmptyMessage(MSG_DVR_STOP);
+	}
+
+	public boolean isDvrRunning() {
+		final CameraThread thread = mWeakThread.get();
+		return thread != null && thread.isDvrRunning();
+	}
+
+	/**
+	 * save frames from preSeconds before to postSeconds after now to the file while DVR mode is running.
+	 * Saving runs on private thread and never stall live capture/preview.
+	 * @param output
+	 * @param preSeconds
+	 * @param postSeconds
+	 */
+	public void triggerSave(final File output, final int preSeconds, final int postSeconds) {
+		checkReleased();
+		if ((output == null) || (preSeconds < 0) || (postSeconds < 0))
+			throw new IllegalArgumentException("invalid output file or duration");
+		sendMessage(obtainMessage(MSG_DVR_SAVE, preSeconds, postSeconds, output));
+	}
+
 	public void release() {
 		mReleased = true;
 		close();
@@ -277,6 +318,23 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		throw new IllegalStateException();
 	}
 
+	/**
+	 * request to set value[%] of the control without blocking the caller,
+	 * requests to the same control are coalesced and rate limited.
+	 * This is suitable for high rate input like dragging SeekBar or joystick of pan/tilt/zoom
+	 * @param flag CTRL_XXX or PU_XXX of UVCCamera
+	 * @param value [%]
+	 */
+	public void setValueAsync(final int flag, final int value) {
+		checkReleased();
+		final CameraThread thread = mWeakThread.get();
+		final UVCControlWriter writer = thread != null ? thread.mControlWriter : null;
+		if (writer == null) {
+			throw new IllegalStateException();
+		}
+		writer.setPercent(flag, value);
+	}
+
 	public int resetValue(final int flag) {
 		checkReleased();
 		final CameraThread thread = mWeakThread.get();
@@ -401,6 +459,15 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		case MSG_RELEASE:
 			thread.handleRelease();
 			break;
+		case MSG_DVR_START:
+			thread.handleStartDvr(msg.arg1, (File)msg.obj);
+			break;
+		case MSG_DVR_STOP:
+			thread.handleStopDvr();
+			break;
+		case MSG_DVR_SAVE:
+			thread.handleTriggerSave((File)msg.obj, msg.arg1, msg.arg2);
+			break;
 		default:
 			throw new RuntimeException("unsupported message:what=" + msg.what);
 		}
@@ -433,6 +500,15 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		 */
 		private MediaMuxerWrapper mMuxer;
 		private MediaVideoBufferEncoder mVideoEncoder;
+		/**
+		 * asynchronous writer of camera controls
+		 */
+		private UVCControlWriter mControlWriter;
+		/**
+		 * ring buffer and its encoder for pre-event recording(DVR mode)
+		 */
+		private EncodedFrameRing mDvr;
+		private MediaVideoBufferEncoder mDvrEncoder;
 
 		/**
 		 *
@@ -522,6 +598,8 @@ abstract class AbstractUVCCameraHandler extends Handler {
 				camera.open(ctrlBlock);
 				synchronized (mSync) {
 					mUVCCamera = camera;
+					mControlWriter = new UVCControlWriter(camera,
+						UVCControlWriter.DEFAULT_MIN_INTERVAL_MS, mControlWriterCallback);
 				}
 				callOnOpen();
 			} catch (final Exception e) {
@@ -533,10 +611,15 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		public void handleClose() {
 			if (DEBUG) Log.v(TAG_THREAD, "handleClose:");
 			handleStopRecording();
+			handleStopDvr();
 			final UVCCamera camera;
 			synchronized (mSync) {
 				camera = mUVCCamera;
 				mUVCCamera = null;
+				if (mControlWriter != null) {
+					mControlWriter.release();
+					mControlWriter = null;
+				}
 			}
 			if (camera != null) {
 				camera.stopPreview();
@@ -674,26 +757,142 @@ abstract class AbstractUVCCameraHandler extends Handler {
 			}
 			if (muxer != null) {
 				muxer.stopRecording();
-				mUVCCamera.setFrameCallback(null, 0);
+				if ((mUVCCamera != null) && (mDvrEncoder == null)) {
+					mUVCCamera.setFrameCallback(null, 0);
+				}
 				// you should not wait here
 				callOnStopRecording();
 			}
 		}
 
-		private final IFrameCallback mIFrameCallback = new IFrameCallback() {
+		private final IFrameCallback mIFrameCallback = new IFrameMetadataCallback() {
 			@Override
 			public void onFrame(final ByteBuffer frame) {
-				final MediaVideoBufferEncoder videoEncoder;
+				onFrame(frame, 0, System.nanoTime() / 1000L, 0, 0);
+			}
+
+			@Override
+			public void onFrame(final ByteBuffer frame, final long sequence,
+				final long presentationTimeUs, final long devicePts, final long deviceScr) {
+
+				final MediaVideoBufferEncoder videoEncoder, dvrEncoder;
 				synchronized (mSync) {
 					videoEncoder = mVideoEncoder;
+					dvrEncoder = mDvrEncoder;
 				}
 				if (videoEncoder != null) {
 					videoEncoder.frameAvailableSoon();
-					videoEncoder.encode(frame);
+					videoEncoder.encode(frame, presentationTimeUs);
+				}
+				if (dvrEncoder != null) {
+					frame.clear();
+					dvrEncoder.frameAvailableSoon();
+					dvrEncoder.encode(frame, presentationTimeUs);
 				}
 			}
 		};
 
+		public boolean isDvrRunning() {
+			synchronized (mSync) {
+				return mDvr != null;
+			}
+		}
+
+		/**
+		 * DVR mode always uses MediaVideoBufferEncoder with frame callback
+		 * so that it can run with any encoder type of normal recording.
+		 * @param bufferSeconds
+		 * @param backingFile
+		 */
+		public void handleStartDvr(final int bufferSeconds, final File backingFile) {
+			if (DEBUG) Log.v(TAG_THREAD, "handleStartDvr:");
+			if ((mUVCCamera == null) || (mDvr != null)) return;
+			try {
+				final EncodedFrameRing ring = new EncodedFrameRing(bufferSeconds,
+					EncodedFrameRing.estimateCapacity(getWidth(), getHeight(), bufferSeconds), backingFile);
+				final MediaVideoBufferEncoder dvrEncoder
+					= new MediaVideoBufferEncoder(ring, getWidth(), getHeight(), mDvrEncoderListener);
+				ring.prepare();
+				ring.startRecording();
+				synchronized (mSync) {
+					mDvr = ring;
+					mDvrEncoder = dvrEncoder;
+				}
+				mUVCCamera.setFrameCallback(mIFrameCallback, UVCCamera.PIXEL_FORMAT_NV21);
+			} catch (final IOException e) {
+				callOnError(e);
+				Log.e(TAG, "handleStartDvr:", e);
+			}
+		}
+
+		public void handleStopDvr() {
+			if (DEBUG) Log.v(TAG_THREAD, "handleStopDvr:mDvr=" + mDvr);
+			final EncodedFrameRing ring;
+			synchronized (mSync) {
+				ring = mDvr;
+				mDvr = null;
+				mDvrEncoder = null;
+			}
+			if (ring != null) {
+				if ((mUVCCamera != null) && (mVideoEncoder == null)) {
+					mUVCCamera.setFrameCallback(null, 0);
+				}
+				ring.release();
+			}
+		}
+
+		public void handleTriggerSave(final File output, final int preSeconds, final int postSeconds) {
+			if (DEBUG) Log.v(TAG_THREAD, "handleTriggerSave:output=" + output);
+			if (mDvr == null) {
+				callOnError(new IllegalStateException("DVR mode is not running"));
+				return;
+			}
+			try {
+				mDvr.triggerSave(output, preSeconds, postSeconds, mSaveListener);
+			} catch (final IllegalStateException e) {
+				callOnError(e);
+			}
+		}
+
+		private final UVCControlWriter.Callback mControlWriterCallback = new UVCControlWriter.Callback() {
+			@Override
+			public void onWritten(final int id, final int value) {
+			}
+
+			@Override
+			public void onError(final int id, final int value, final int error) {
+				Log.w(TAG, String.format("failed to set control:id=%x,value=%d,err=%d", id, value, error));
+			}
+		};
+
+		private final EncodedFrameRing.SaveListener mSaveListener = new EncodedFrameRing.SaveListener() {
+			@Override
+			public void onSaved(final File output) {
+				if (DEBUG) Log.v(TAG, "onSaved:output=" + output);
+				final AbstractUVCCameraHandler handler = mHandler;
+				if ((handler != null) && !handler.mReleased) {
+					handler.sendMessage(handler.obtainMessage(MSG_MEDIA_UPDATE, output.getPath()));
+				}
+			}
+
+			@Override
+			public void onError(final File output, final Exception e) {
+				callOnError(e);
+			}
+		};
+
+		private final MediaEncoder.MediaEncoderListener mDvrEncoderListener = new MediaEncoder.MediaEncoderListener() {
+			@Override
+			public void onPrepared(final MediaEncoder encoder) {
+				if (DEBUG) Log.v(TAG, "onPrepared:dvr encoder=" + encoder);
+			}
+
+			@Override
+			public void onStopped(final MediaEncoder encoder) {
+				if (DEBUG) Log.v(TAG, "onStopped:dvr encoder=" + encoder);
+			}
+		};
+
 		public void handleUpdateMedia(final String path) {
 			if (DEBUG) Log.v(TAG_THREAD, "handleUpdateMedia:path=" + path);
 			final Activity parent = mWeakParent.get();
@@ -990,6 +990,15 @@ public final class MainActivity extends BaseActivity implements CameraDialog.Cam
 		return mCameraHandler != null ? mCameraHandler.setValue(flag, value) : 0;
 	}
 
+	/**
+	 * 値の設定要求のみ行い、USBのコントロール転送の完了を待たない
+	 */
+	private void setValueAsync(final int flag, final int value) {
+		if (mCameraHandler != null) {
+			mCameraHandler.setValueAsync(flag, value);
+		}
+	}
+
 	private int resetValue(final int flag) {
 		return mCameraHandler != null ? mCameraHandler.resetValue(flag) : 0;
 	}
@@ -1196,6 +1205,15 @@ public final class MainActivity extends BaseActivity implements CameraDialog.Cam
 			// 設定が変更された時はシークバーの非表示までの時間を延長する
 			if (fromUser) {
 				runOnUiThread(mSettingHideTask, SETTINGS_HIDE_DELAY_MS);
+				// ドラッグ中も値を反映する(連続した要求はまとめて間引いて書き込まれる)
+				if (isActive() && checkSupportFlag(mSettingMode)) {
+					switch (mSettingMode) {
+					case UVCCamera.PU_BRIGHTNESS:
+					case UVCCamera.PU_CONTRAST:
+						setValueAsync(mSettingMode, progress);
+						break;
+					}
+				}
 			}
 		}
 
@@ -1212,7 +1230,7 @@ public final class MainActivity extends BaseActivity implements CameraDialog.Cam
 				switch (mSettingMode) {
 				case UVCCamera.PU_BRIGHTNESS:
 				case UVCCamera.PU_CONTRAST:
-					setValue(mSettingMode, seekBar.getProgress());
+					setValueAsync(mSettingMode, seekBar.getProgress());
 					break;
 				}
 			}	// if (active)